@@ -1,6 +1,7 @@
 package org.briarproject.bramble.api.client;
 
 import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.crypto.SignatureToVerify;
 import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.data.MetadataEncoder;
 import org.briarproject.bramble.api.db.Metadata;
@@ -12,10 +13,15 @@ import org.briarproject.bramble.api.sync.MessageContext;
 import org.briarproject.bramble.api.sync.ValidationManager.MessageValidator;
 import org.briarproject.bramble.api.system.Clock;
 
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.logging.Logger;
 
 import javax.annotation.concurrent.Immutable;
 
+import static java.util.Collections.singletonList;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAX_CLOCK_DIFFERENCE;
 
 @Immutable
@@ -29,6 +35,14 @@ public abstract class BdfMessageValidator implements MessageValidator {
 	protected final MetadataEncoder metadataEncoder;
 	protected final Clock clock;
 
+	/**
+	 * The signatures that the message being validated on the current thread
+	 * needs the caller to verify, or null if signatures should be verified
+	 * immediately.
+	 */
+	private final ThreadLocal<Collection<SignatureToVerify>> deferred =
+			new ThreadLocal<>();
+
 	protected BdfMessageValidator(ClientHelper clientHelper,
 			MetadataEncoder metadataEncoder, Clock clock) {
 		this.clientHelper = clientHelper;
@@ -42,12 +56,29 @@ public abstract class BdfMessageValidator implements MessageValidator {
 	@Override
 	public MessageContext validateMessage(Message m, Group g)
 			throws InvalidMessageException {
+		List<SignatureToVerify> signatures = new ArrayList<>();
+		MessageContext context = validateMessage(m, g, signatures);
+		if (!signatures.isEmpty()) {
+			try {
+				clientHelper.verifySignatures(signatures);
+			} catch (GeneralSecurityException e) {
+				throw new InvalidMessageException(e);
+			}
+		}
+		return context;
+	}
+
+	@Override
+	public MessageContext validateMessage(Message m, Group g,
+			Collection<SignatureToVerify> signatures)
+			throws InvalidMessageException {
 		// Reject the message if it's too far in the future
 		long now = clock.currentTimeMillis();
 		if (m.getTimestamp() - now > MAX_CLOCK_DIFFERENCE) {
 			throw new InvalidMessageException(
 					"Timestamp is too far in the future");
 		}
+		deferred.set(signatures);
 		try {
 			BdfList bodyList = clientHelper.toList(m.getBody());
 			BdfMessageContext result = validateMessage(m, g, bodyList);
@@ -55,6 +86,39 @@ public abstract class BdfMessageValidator implements MessageValidator {
 			return new MessageContext(meta, result.getDependencies());
 		} catch (FormatException e) {
 			throw new InvalidMessageException(e);
+		} finally {
+			deferred.remove();
 		}
 	}
+
+	/**
+	 * Verifies the given signature, or leaves it to the caller to verify
+	 * along with the signatures of other messages.
+	 *
+	 * @see ClientHelper#verifySignature(byte[], String, BdfList, byte[])
+	 */
+	protected void verifySignature(byte[] signature, String label,
+			BdfList signed, byte[] publicKey)
+			throws FormatException, GeneralSecurityException {
+		Collection<SignatureToVerify> d = deferred.get();
+		if (d == null) {
+			clientHelper.verifySignature(signature, label, signed, publicKey);
+		} else {
+			verifySignatures(singletonList(new SignatureToVerify(signature,
+					label, clientHelper.toByteArray(signed), publicKey)));
+		}
+	}
+
+	/**
+	 * Verifies the given signatures, or leaves them to the caller to verify
+	 * along with the signatures of other messages.
+	 *
+	 * @see ClientHelper#verifySignatures(Collection)
+	 */
+	protected void verifySignatures(Collection<SignatureToVerify> signatures)
+			throws GeneralSecurityException {
+		Collection<SignatureToVerify> d = deferred.get();
+		if (d == null) clientHelper.verifySignatures(signatures);
+		else d.addAll(signatures);
+	}
 }
@@ -1,9 +1,12 @@
 package org.briarproject.bramble.api.client;
 
 import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.SignatureToVerify;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.MessageCursor;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
@@ -14,8 +17,12 @@ import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
 
 import java.security.GeneralSecurityException;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
+import javax.annotation.Nullable;
+
 @NotNullByDefault
 public interface ClientHelper {
 
@@ -58,6 +65,14 @@ public interface ClientHelper {
 	Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
 			Transaction txn, GroupId g) throws DbException, FormatException;
 
+	/**
+	 * Returns the metadata of all delivered messages in the given group,
+	 * parsing only the entries that have the given keys.
+	 */
+	Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
+			Transaction txn, GroupId g, Collection<String> keys)
+			throws DbException, FormatException;
+
 	Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(GroupId g,
 			BdfDictionary query) throws DbException, FormatException;
 
@@ -65,6 +80,43 @@ public interface ClientHelper {
 			Transaction txn, GroupId g, BdfDictionary query) throws DbException,
 			FormatException;
 
+	/**
+	 * Returns the metadata of all delivered messages in the given group
+	 * with metadata that matches the given query, parsing only the entries
+	 * that have the given keys.
+	 */
+	Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
+			Transaction txn, GroupId g, BdfDictionary query,
+			Collection<String> keys) throws DbException, FormatException;
+
+	/**
+	 * Returns the metadata of any delivered messages among the given
+	 * messages. The map iterates over the messages in the order in which
+	 * they were given.
+	 */
+	Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
+			Transaction txn, Collection<MessageId> ids) throws DbException,
+			FormatException;
+
+	/**
+	 * Returns the metadata of any delivered messages among the given
+	 * messages, parsing only the entries that have the given keys. The map
+	 * iterates over the messages in the order in which they were given.
+	 */
+	Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
+			Transaction txn, Collection<MessageId> ids,
+			Collection<String> keys) throws DbException, FormatException;
+
+	/**
+	 * Returns the cursors of up to the given number of delivered messages in
+	 * the given group with metadata that matches the given query, newest
+	 * first. If a cursor is given, only messages that come before the cursor
+	 * are returned.
+	 */
+	List<MessageCursor> getMessageCursors(Transaction txn, GroupId g,
+			BdfDictionary query, @Nullable MessageCursor before, int limit)
+			throws DbException, FormatException;
+
 	void mergeGroupMetadata(GroupId g, BdfDictionary metadata)
 			throws DbException, FormatException;
 
@@ -77,6 +129,27 @@ public interface ClientHelper {
 	void mergeMessageMetadata(Transaction txn, MessageId m,
 			BdfDictionary metadata) throws DbException, FormatException;
 
+	/**
+	 * Returns the given protocol session in the given group, or null if no
+	 * such session exists.
+	 */
+	@Nullable
+	BdfDictionary getSessionAsDictionary(Transaction txn, GroupId g,
+			SessionId s) throws DbException, FormatException;
+
+	/**
+	 * Returns all protocol sessions in the given group.
+	 */
+	Map<SessionId, BdfDictionary> getSessionsAsDictionary(Transaction txn,
+			GroupId g) throws DbException, FormatException;
+
+	/**
+	 * Stores the given protocol session in the given group, replacing any
+	 * existing session with the same ID.
+	 */
+	void setSession(Transaction txn, GroupId g, SessionId s,
+			BdfDictionary session) throws DbException, FormatException;
+
 	byte[] toByteArray(BdfDictionary dictionary) throws FormatException;
 
 	byte[] toByteArray(BdfList list) throws FormatException;
@@ -102,6 +175,15 @@ public interface ClientHelper {
 	void verifySignature(byte[] signature, String label, BdfList signed,
 			byte[] publicKey) throws FormatException, GeneralSecurityException;
 
+	/**
+	 * Verifies a batch of signatures, throwing an exception if any of them
+	 * is invalid.
+	 *
+	 * @see CryptoComponent#verifySignatures(Collection)
+	 */
+	void verifySignatures(Collection<SignatureToVerify> signatures)
+			throws GeneralSecurityException;
+
 	Author parseAndValidateAuthor(BdfList author) throws FormatException;
 
 	TransportProperties parseAndValidateTransportProperties(
@@ -4,6 +4,7 @@ import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 
 import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
+import java.util.Collection;
 
 import javax.annotation.Nullable;
 
@@ -70,6 +71,17 @@ public interface CryptoComponent {
 	boolean verifySignature(byte[] signature, String label, byte[] signed,
 			byte[] publicKey) throws GeneralSecurityException;
 
+	/**
+	 * Verifies a batch of signatures, each of which has its own label,
+	 * signed data and public key. This is faster than verifying the
+	 * signatures one at a time, but doesn't identify which signatures are
+	 * invalid.
+	 *
+	 * @return true if all the signatures were valid, false otherwise.
+	 */
+	boolean verifySignatures(Collection<SignatureToVerify> signatures)
+			throws GeneralSecurityException;
+
 	/**
 	 * Returns the hash of the given inputs. The inputs are unambiguously
 	 * combined by prefixing each input with its length.
@@ -91,6 +103,12 @@ public interface CryptoComponent {
 	 */
 	byte[] mac(String label, SecretKey macKey, byte[]... inputs);
 
+	/**
+	 * Returns a new {@link Hasher} for calculating hashes and MACs without
+	 * allocating. The hasher is not thread-safe.
+	 */
+	Hasher createHasher();
+
 	/**
 	 * Verifies that the given message authentication code is valid for the
 	 * given secret key and inputs.
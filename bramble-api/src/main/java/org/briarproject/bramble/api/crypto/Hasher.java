@@ -0,0 +1,54 @@
+package org.briarproject.bramble.api.crypto;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Calculates hashes and MACs one input at a time. The results are the same
+ * as those returned by {@link CryptoComponent#hash(String, byte[]...)} and
+ * {@link CryptoComponent#mac(String, SecretKey, byte[]...)} for the same
+ * label, key and inputs.
+ * <p>
+ * Inputs can be slices of larger arrays and results are written to
+ * caller-supplied buffers, so a hasher can be reused for any number of
+ * hashes and MACs without allocating.
+ */
+@NotThreadSafe
+@NotNullByDefault
+public interface Hasher {
+
+	/**
+	 * The length of a hash or MAC in bytes.
+	 */
+	int OUTPUT_LENGTH = 32;
+
+	/**
+	 * Starts a hash with the given label, discarding any hash or MAC in
+	 * progress.
+	 */
+	void startHash(String label);
+
+	/**
+	 * Starts a MAC with the given label and key, discarding any hash or MAC
+	 * in progress.
+	 */
+	void startMac(String label, SecretKey macKey);
+
+	/**
+	 * Adds the given input to the hash or MAC in progress.
+	 */
+	void addInput(byte[] input);
+
+	/**
+	 * Adds the given slice of an array to the hash or MAC in progress, as a
+	 * single input.
+	 */
+	void addInput(byte[] input, int off, int len);
+
+	/**
+	 * Finishes the hash or MAC in progress and writes the result, which is
+	 * {@link #OUTPUT_LENGTH} bytes long, to the given buffer.
+	 */
+	void finish(byte[] output, int off);
+}
@@ -0,0 +1,42 @@
+package org.briarproject.bramble.api.crypto;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A signature to be verified as part of a batch.
+ *
+ * @see CryptoComponent#verifySignatures(java.util.Collection)
+ */
+@Immutable
+@NotNullByDefault
+public class SignatureToVerify {
+
+	private final byte[] signature, signed, publicKey;
+	private final String label;
+
+	public SignatureToVerify(byte[] signature, String label, byte[] signed,
+			byte[] publicKey) {
+		this.signature = signature;
+		this.label = label;
+		this.signed = signed;
+		this.publicKey = publicKey;
+	}
+
+	public byte[] getSignature() {
+		return signature;
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	public byte[] getSigned() {
+		return signed;
+	}
+
+	public byte[] getPublicKey() {
+		return publicKey;
+	}
+}
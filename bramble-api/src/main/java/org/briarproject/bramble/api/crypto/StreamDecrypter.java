@@ -1,6 +1,7 @@
 package org.briarproject.bramble.api.crypto;
 
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.transport.TransportConstants;
 
 import java.io.IOException;
 
@@ -10,6 +11,11 @@ public interface StreamDecrypter {
 	/**
 	 * Reads a frame, decrypts its payload into the given buffer and returns
 	 * the payload length, or -1 if no more frames can be read from the stream.
+	 * <p>
+	 * The buffer must be at least
+	 * {@link TransportConstants#MAX_PAYLOAD_LENGTH} bytes long. Streams that
+	 * use large frames can only be read into buffers that are at least
+	 * {@link TransportConstants#MAX_LARGE_PAYLOAD_LENGTH} bytes long.
 	 *
 	 * @throws IOException if an error occurs while reading the frame,
 	 * or if authenticated decryption fails.
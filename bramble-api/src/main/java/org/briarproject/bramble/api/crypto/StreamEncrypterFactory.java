@@ -2,6 +2,7 @@ package org.briarproject.bramble.api.crypto;
 
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.transport.StreamContext;
+import org.briarproject.bramble.api.transport.TransportConstants;
 
 import java.io.OutputStream;
 
@@ -13,6 +14,16 @@ public interface StreamEncrypterFactory {
 	 */
 	StreamEncrypter createStreamEncrypter(OutputStream out, StreamContext ctx);
 
+	/**
+	 * Creates a {@link StreamEncrypter} for encrypting a transport stream,
+	 * using frames of up to
+	 * {@link TransportConstants#MAX_LARGE_FRAME_LENGTH} bytes if
+	 * <tt>largeFrames</tt> is true. Peers that don't support large frames
+	 * will reject the stream.
+	 */
+	StreamEncrypter createStreamEncrypter(OutputStream out, StreamContext ctx,
+			boolean largeFrames);
+
 	/**
 	 * Creates a {@link StreamEncrypter} for encrypting a contact exchange
 	 * stream.
@@ -11,4 +11,14 @@ public interface BdfReaderFactory {
 
 	BdfReader createReader(InputStream in, int nestedLimit,
 			int maxBufferSize);
+
+	/**
+	 * Returns a reader that reads directly from the given region of a byte
+	 * array, without wrapping it in a stream. The array must not be
+	 * modified while the reader is in use.
+	 */
+	BdfReader createReader(byte[] b, int off, int len);
+
+	BdfReader createReader(byte[] b, int off, int len, int nestedLimit,
+			int maxBufferSize);
 }
@@ -4,8 +4,18 @@ import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 
+import java.util.Collection;
+
 @NotNullByDefault
 public interface MetadataParser {
 
 	BdfDictionary parse(Metadata m) throws FormatException;
+
+	/**
+	 * Parses the entries of the given metadata that have the given keys.
+	 * Other entries are not parsed and are not included in the returned
+	 * dictionary.
+	 */
+	BdfDictionary parse(Metadata m, Collection<String> keys)
+			throws FormatException;
 }
@@ -1,5 +1,6 @@
 package org.briarproject.bramble.api.db;
 
+import org.briarproject.bramble.api.client.SessionId;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.crypto.SecretKey;
@@ -24,6 +25,7 @@ import org.briarproject.bramble.api.transport.KeySetId;
 import org.briarproject.bramble.api.transport.TransportKeys;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 import javax.annotation.Nullable;
@@ -58,6 +60,11 @@ public interface DatabaseComponent {
 	 * <p/>
 	 * This method acquires locks, so it must not be called while holding a
 	 * lock.
+	 * <p/>
+	 * Depending on the database implementation, read-only transactions may
+	 * run concurrently with a write transaction. In that case each query in
+	 * a read-only transaction sees the data committed before the query
+	 * started, and never sees uncommitted changes.
 	 *
 	 * @param readOnly true if the transaction will only be used for reading.
 	 */
@@ -253,6 +260,15 @@ public interface DatabaseComponent {
 	Collection<Group> getGroups(Transaction txn, ClientId c, int majorVersion)
 			throws DbException;
 
+	/**
+	 * Returns the IDs of any groups for which no message counts have been
+	 * stored.
+	 * <p/>
+	 * Read-only.
+	 */
+	Collection<GroupId> getGroupsWithoutMessageCounts(Transaction txn)
+			throws DbException;
+
 	/**
 	 * Returns the given group's visibility to the given contact, or
 	 * {@link Visibility INVISIBLE} if the group is not in the database.
@@ -310,6 +326,16 @@ public interface DatabaseComponent {
 	Collection<MessageId> getPendingMessages(Transaction txn)
 			throws DbException;
 
+	/**
+	 * Returns the IDs of all messages that are shared with the given contact,
+	 * whether or not the contact has seen them, mapped to true if the
+	 * contact has seen the message.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Boolean> getMessagesToReconcile(Transaction txn,
+			ContactId c) throws DbException;
+
 	/**
 	 * Returns the IDs of any messages that have shared dependents but have
 	 * not yet been shared themselves.
@@ -319,6 +345,28 @@ public interface DatabaseComponent {
 	Collection<MessageId> getMessagesToShare(Transaction txn)
 			throws DbException;
 
+	/**
+	 * Returns the message counts for the given group, or null if no counts
+	 * have been stored for the group. Counts are stored for every group
+	 * added since the message counts were introduced. Counts for older
+	 * groups must be stored with
+	 * {@link #setMessageCounts(Transaction, GroupId, MessageCounts)}.
+	 * <p/>
+	 * Read-only.
+	 */
+	@Nullable
+	MessageCounts getMessageCounts(Transaction txn, GroupId g)
+			throws DbException;
+
+	/**
+	 * Returns the message counts for any of the given groups that have
+	 * stored counts. Groups that don't exist are ignored.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<GroupId, MessageCounts> getMessageCounts(Transaction txn,
+			Collection<GroupId> groups) throws DbException;
+
 	/**
 	 * Returns the metadata for all delivered messages in the given group.
 	 * <p/>
@@ -337,6 +385,27 @@ public interface DatabaseComponent {
 	Map<MessageId, Metadata> getMessageMetadata(Transaction txn, GroupId g,
 			Metadata query) throws DbException;
 
+	/**
+	 * Returns the metadata for any of the given messages that are delivered.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Metadata> getMessageMetadata(Transaction txn,
+			Collection<MessageId> ids) throws DbException;
+
+	/**
+	 * Returns the cursors of up to the given number of delivered messages in
+	 * the given group with metadata that matches all entries in the given
+	 * query, ordered newest first. If a cursor is given, only messages that
+	 * come before the cursor are returned. If the query is empty, all
+	 * delivered messages are considered.
+	 * <p/>
+	 * Read-only.
+	 */
+	List<MessageCursor> getMessageCursors(Transaction txn, GroupId g,
+			Metadata query, @Nullable MessageCursor before, int limit)
+			throws DbException;
+
 	/**
 	 * Returns the metadata for the given delivered message.
 	 * <p/>
@@ -409,6 +478,24 @@ public interface DatabaseComponent {
 	 */
 	long getNextSendTime(Transaction txn, ContactId c) throws DbException;
 
+	/**
+	 * Returns the given protocol session in the given group, or null if no
+	 * such session exists.
+	 * <p/>
+	 * Read-only.
+	 */
+	@Nullable
+	byte[] getSession(Transaction txn, GroupId g, SessionId s)
+			throws DbException;
+
+	/**
+	 * Returns all protocol sessions in the given group.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<SessionId, byte[]> getSessions(Transaction txn, GroupId g)
+			throws DbException;
+
 	/**
 	 * Returns all settings in the given namespace.
 	 * <p/>
@@ -424,12 +511,29 @@ public interface DatabaseComponent {
 	Collection<KeySet> getTransportKeys(Transaction txn, TransportId t)
 			throws DbException;
 
+	/**
+	 * Counts a message in the given group: increments the message count,
+	 * increments the unread count if the message is unread, and raises the
+	 * latest message time if the message is newer. Returns false if no
+	 * counts have been stored for the group.
+	 */
+	boolean incrementMessageCounts(Transaction txn, GroupId g, long timestamp,
+			boolean read) throws DbException;
+
 	/**
 	 * Increments the outgoing stream counter for the given transport keys.
 	 */
 	void incrementStreamCounter(Transaction txn, TransportId t, KeySetId k)
 			throws DbException;
 
+	/**
+	 * Adds the given increment, which may be negative, to the unread count
+	 * of the given group. Returns false if no counts have been stored for the
+	 * group. Throws an exception if the unread count would become negative.
+	 */
+	boolean incrementUnreadCount(Transaction txn, GroupId g, int increment)
+			throws DbException;
+
 	/**
 	 * Merges the given metadata with the existing metadata for the given
 	 * group.
@@ -493,6 +597,12 @@ public interface DatabaseComponent {
 	 */
 	void removeMessage(Transaction txn, MessageId m) throws DbException;
 
+	/**
+	 * Removes a protocol session from the given group, if it exists.
+	 */
+	void removeSession(Transaction txn, GroupId g, SessionId s)
+			throws DbException;
+
 	/**
 	 * Removes a transport (and all associated state) from the database.
 	 */
@@ -521,6 +631,13 @@ public interface DatabaseComponent {
 	void setGroupVisibility(Transaction txn, ContactId c, GroupId g,
 			Visibility v) throws DbException;
 
+	/**
+	 * Stores the given message counts for the given group, replacing any
+	 * existing counts.
+	 */
+	void setMessageCounts(Transaction txn, GroupId g, MessageCounts counts)
+			throws DbException;
+
 	/**
 	 * Marks the given message as shared.
 	 */
@@ -532,6 +649,14 @@ public interface DatabaseComponent {
 	void setMessageState(Transaction txn, MessageId m, State state)
 			throws DbException;
 
+	/**
+	 * Stores the given protocol session in the given group, replacing any
+	 * existing session with the same ID. Sessions are removed along with
+	 * their group.
+	 */
+	void setSession(Transaction txn, GroupId g, SessionId s, byte[] session)
+			throws DbException;
+
 	/**
 	 * Adds dependencies for a message
 	 */
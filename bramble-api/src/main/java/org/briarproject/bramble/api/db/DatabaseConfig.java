@@ -12,4 +12,11 @@ public interface DatabaseConfig {
 	File getDatabaseKeyDirectory();
 
 	long getMaxSize();
+
+	/**
+	 * Returns the maximum number of prepared statements to cache for each
+	 * database connection, or zero if prepared statements should not be
+	 * cached.
+	 */
+	int getStatementCacheSize();
 }
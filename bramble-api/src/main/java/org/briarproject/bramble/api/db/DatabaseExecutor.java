@@ -18,6 +18,9 @@ import static java.lang.annotation.RetentionPolicy.RUNTIME;
  * submitted, tasks are not run concurrently, and submitting a task will never
  * block. Tasks must not run indefinitely. Tasks submitted during shutdown are
  * discarded.
+ * <p>
+ * Read-only tasks that don't depend on this ordering can be submitted to the
+ * {@link ReadOnlyDatabaseExecutor} instead, where they may run in parallel.
  */
 @Qualifier
 @Target({FIELD, METHOD, PARAMETER})
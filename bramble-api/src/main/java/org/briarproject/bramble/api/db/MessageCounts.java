@@ -0,0 +1,54 @@
+package org.briarproject.bramble.api.db;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * The number of messages and unread messages in a group, and the timestamp
+ * of the latest message, as counted by the client that owns the group.
+ */
+@Immutable
+@NotNullByDefault
+public class MessageCounts {
+
+	private final int msgCount, unreadCount;
+	private final long latestMsgTime;
+
+	public MessageCounts(int msgCount, int unreadCount, long latestMsgTime) {
+		this.msgCount = msgCount;
+		this.unreadCount = unreadCount;
+		this.latestMsgTime = latestMsgTime;
+	}
+
+	public int getMsgCount() {
+		return msgCount;
+	}
+
+	public int getUnreadCount() {
+		return unreadCount;
+	}
+
+	/**
+	 * Returns the timestamp of the latest message in milliseconds since the
+	 * Unix epoch, or zero if the group has no messages.
+	 */
+	public long getLatestMsgTime() {
+		return latestMsgTime;
+	}
+
+	@Override
+	public int hashCode() {
+		return (msgCount * 31 + unreadCount) * 31 + (int) latestMsgTime;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o instanceof MessageCounts) {
+			MessageCounts c = (MessageCounts) o;
+			return msgCount == c.msgCount && unreadCount == c.unreadCount
+					&& latestMsgTime == c.latestMsgTime;
+		}
+		return false;
+	}
+}
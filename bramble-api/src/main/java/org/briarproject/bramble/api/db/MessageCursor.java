@@ -0,0 +1,59 @@
+package org.briarproject.bramble.api.db;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.MessageId;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * The position of a message in a group, used for retrieving the messages in
+ * a group one page at a time.
+ * <p/>
+ * Messages are ordered by timestamp, and messages with equal timestamps are
+ * ordered by ID. Pages are returned newest first, and the cursor of the last
+ * message in a page can be used to retrieve the next page.
+ */
+@Immutable
+@NotNullByDefault
+public class MessageCursor implements Comparable<MessageCursor> {
+
+	private final long timestamp;
+	private final MessageId messageId;
+
+	public MessageCursor(long timestamp, MessageId messageId) {
+		this.timestamp = timestamp;
+		this.messageId = messageId;
+	}
+
+	/**
+	 * Returns the message's timestamp in milliseconds since the Unix epoch.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public MessageId getMessageId() {
+		return messageId;
+	}
+
+	@Override
+	public int compareTo(MessageCursor other) {
+		if (timestamp < other.timestamp) return -1;
+		if (timestamp > other.timestamp) return 1;
+		return messageId.compareTo(other.messageId);
+	}
+
+	@Override
+	public int hashCode() {
+		return messageId.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o instanceof MessageCursor) {
+			MessageCursor c = (MessageCursor) o;
+			return timestamp == c.timestamp && messageId.equals(c.messageId);
+		}
+		return false;
+	}
+}
@@ -2,6 +2,9 @@ package org.briarproject.bramble.api.event;
 
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 
+import java.util.Collection;
+import java.util.concurrent.Executor;
+
 @NotNullByDefault
 public interface EventBus {
 
@@ -10,6 +13,22 @@ public interface EventBus {
 	 */
 	void addListener(EventListener l);
 
+	/**
+	 * Adds a listener to be notified when events of the given types, or their
+	 * subtypes, occur. The listener is notified on the broadcasting thread.
+	 */
+	void addListener(EventListener l,
+			Collection<Class<? extends Event>> eventTypes);
+
+	/**
+	 * Adds a listener to be notified when events of the given types, or their
+	 * subtypes, occur. The listener is notified on the given executor rather
+	 * than the broadcasting thread. Events are delivered to the listener one
+	 * at a time, in the order they were broadcast.
+	 */
+	void addAsyncListener(EventListener l,
+			Collection<Class<? extends Event>> eventTypes, Executor executor);
+
 	/**
 	 * Removes a listener.
 	 */
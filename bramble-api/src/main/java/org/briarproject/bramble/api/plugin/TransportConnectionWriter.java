@@ -1,6 +1,7 @@
 package org.briarproject.bramble.api.plugin;
 
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.transport.TransportConstants;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -22,6 +23,13 @@ public interface TransportConnectionWriter {
 	 */
 	int getMaxIdleTime();
 
+	/**
+	 * Returns true if streams written to this connection should use frames
+	 * of up to {@link TransportConstants#MAX_LARGE_FRAME_LENGTH} bytes.
+	 * Peers that don't support large frames will reject such streams.
+	 */
+	boolean useLargeFrames();
+
 	/**
 	 * Returns an output stream for writing to the transport connection.
 	 */
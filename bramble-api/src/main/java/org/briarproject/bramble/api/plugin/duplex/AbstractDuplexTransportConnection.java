@@ -34,6 +34,15 @@ public abstract class AbstractDuplexTransportConnection
 	protected abstract void closeConnection(boolean exception)
 			throws IOException;
 
+	/**
+	 * Returns true if streams written to this connection should use large
+	 * frames. Peers that don't support large frames will reject such
+	 * streams, so this returns false unless overridden.
+	 */
+	protected boolean useLargeFrames() {
+		return false;
+	}
+
 	@Override
 	public TransportConnectionReader getReader() {
 		return reader;
@@ -71,6 +80,11 @@ public abstract class AbstractDuplexTransportConnection
 			return plugin.getMaxIdleTime();
 		}
 
+		@Override
+		public boolean useLargeFrames() {
+			return AbstractDuplexTransportConnection.this.useLargeFrames();
+		}
+
 		@Override
 		public OutputStream getOutputStream() throws IOException {
 			return AbstractDuplexTransportConnection.this.getOutputStream();
@@ -0,0 +1,23 @@
+package org.briarproject.bramble.api.sync;
+
+import java.util.Collection;
+
+/**
+ * A record advertising the optional features of the sync protocol that the
+ * sender supports.
+ */
+public class Features {
+
+	private final Collection<Byte> features;
+
+	public Features(Collection<Byte> features) {
+		this.features = features;
+	}
+
+	/**
+	 * Returns the codes of the supported features.
+	 */
+	public Collection<Byte> getFeatures() {
+		return features;
+	}
+}
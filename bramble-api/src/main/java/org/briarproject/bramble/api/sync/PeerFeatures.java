@@ -0,0 +1,31 @@
+package org.briarproject.bramble.api.sync;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * The optional features of the sync protocol that the remote peer supports
+ * on a duplex connection. The incoming session records the features
+ * advertised by the peer, and the outgoing session on the same connection
+ * only uses the features that have been advertised.
+ */
+@ThreadSafe
+@NotNullByDefault
+public class PeerFeatures {
+
+	private volatile Collection<Byte> features = emptyList();
+
+	public void setFeatures(Features f) {
+		features = new ArrayList<>(f.getFeatures());
+	}
+
+	public boolean isSupported(byte feature) {
+		return features.contains(feature);
+	}
+}
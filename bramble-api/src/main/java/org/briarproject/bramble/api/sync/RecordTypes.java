@@ -9,5 +9,8 @@ public interface RecordTypes {
 	byte MESSAGE = 1;
 	byte OFFER = 2;
 	byte REQUEST = 3;
+	byte FEATURES = 4;
+	byte COMPRESSED_MESSAGES = 5;
+	byte SKETCH = 6;
 
 }
@@ -0,0 +1,63 @@
+package org.briarproject.bramble.api.sync;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A message that is eligible to be offered or sent to a contact.
+ */
+@Immutable
+@NotNullByDefault
+public class SendableMessage {
+
+	private final MessageId messageId;
+	private final GroupId groupId;
+	private final ClientId clientId;
+	private final int majorVersion, length;
+	private final long timestamp;
+
+	public SendableMessage(MessageId messageId, GroupId groupId,
+			ClientId clientId, int majorVersion, long timestamp, int length) {
+		this.messageId = messageId;
+		this.groupId = groupId;
+		this.clientId = clientId;
+		this.majorVersion = majorVersion;
+		this.timestamp = timestamp;
+		this.length = length;
+	}
+
+	public MessageId getMessageId() {
+		return messageId;
+	}
+
+	public GroupId getGroupId() {
+		return groupId;
+	}
+
+	/**
+	 * Returns the ID of the client to which the message's group belongs.
+	 */
+	public ClientId getClientId() {
+		return clientId;
+	}
+
+	/**
+	 * Returns the major version of the client to which the message's group
+	 * belongs.
+	 */
+	public int getMajorVersion() {
+		return majorVersion;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Returns the length of the raw message in bytes.
+	 */
+	public int getLength() {
+		return length;
+	}
+}
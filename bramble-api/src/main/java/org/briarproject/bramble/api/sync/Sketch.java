@@ -0,0 +1,22 @@
+package org.briarproject.bramble.api.sync;
+
+/**
+ * A record containing a compact summary of the {@link Message Messages}
+ * that the sender shares with the recipient, from which the recipient can
+ * work out which messages either of them is missing.
+ */
+public class Sketch {
+
+	private final byte[] table;
+
+	public Sketch(byte[] table) {
+		this.table = table;
+	}
+
+	/**
+	 * Returns the encoded cells of the sketch.
+	 */
+	public byte[] getTable() {
+		return table;
+	}
+}
@@ -35,4 +35,30 @@ public interface SyncConstants {
 	 * The maximum number of message IDs in an ack, offer or request record.
 	 */
 	int MAX_MESSAGE_IDS = MAX_RECORD_PAYLOAD_BYTES / UniqueId.LENGTH;
+
+	/**
+	 * The maximum number of bytes of records an incoming sync session may
+	 * read ahead of the database before it stops reading and waits for the
+	 * database to catch up.
+	 */
+	int MAX_INCOMING_BYTES_IN_FLIGHT = 4 * 1024 * 1024; // 4 MiB
+
+	/**
+	 * The code of the feature that allows batches of messages to be sent in
+	 * compressed records.
+	 */
+	byte FEATURE_COMPRESSED_MESSAGES = 0;
+
+	/**
+	 * The maximum length of the decompressed payload of a compressed messages
+	 * record in bytes.
+	 */
+	int MAX_DECOMPRESSED_PAYLOAD_BYTES = 4 * MAX_RECORD_PAYLOAD_BYTES;
+
+	/**
+	 * The code of the experimental feature that allows peers to discover
+	 * which messages they're missing by exchanging sketches instead of
+	 * offering every message.
+	 */
+	byte FEATURE_SKETCHES = 1;
 }
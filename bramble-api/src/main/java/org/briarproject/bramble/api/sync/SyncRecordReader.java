@@ -25,4 +25,12 @@ public interface SyncRecordReader {
 
 	Request readRequest() throws IOException;
 
+	boolean hasFeatures() throws IOException;
+
+	Features readFeatures() throws IOException;
+
+	boolean hasSketch() throws IOException;
+
+	Sketch readSketch() throws IOException;
+
 }
@@ -3,6 +3,7 @@ package org.briarproject.bramble.api.sync;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 
 import java.io.IOException;
+import java.util.Collection;
 
 @NotNullByDefault
 public interface SyncRecordWriter {
@@ -11,9 +12,24 @@ public interface SyncRecordWriter {
 
 	void writeMessage(Message m) throws IOException;
 
+	/**
+	 * Writes the given messages in a single compressed record, or in
+	 * separate uncompressed records if compression would not make them
+	 * smaller or they don't fit in a single compressed record.
+	 * <p/>
+	 * This should only be used if the recipient supports
+	 * {@link SyncConstants#FEATURE_COMPRESSED_MESSAGES}.
+	 */
+	void writeCompressedMessages(Collection<Message> messages)
+			throws IOException;
+
 	void writeOffer(Offer o) throws IOException;
 
 	void writeRequest(Request r) throws IOException;
 
+	void writeFeatures(Features f) throws IOException;
+
+	void writeSketch(Sketch s) throws IOException;
+
 	void flush() throws IOException;
 }
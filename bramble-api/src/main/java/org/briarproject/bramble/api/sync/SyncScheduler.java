@@ -0,0 +1,46 @@
+package org.briarproject.bramble.api.sync;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Decides the order in which messages are offered and sent to contacts.
+ * <p/>
+ * Messages with higher priorities are sent first. Messages with equal
+ * priorities are taken from each group in turn, so a backlog of messages in
+ * one group doesn't hold up the messages in other groups. Messages in the
+ * same group are sent in timestamp order.
+ */
+@NotNullByDefault
+public interface SyncScheduler {
+
+	enum Priority {
+		LOW, NORMAL, HIGH
+	}
+
+	/**
+	 * Sets the priority of messages in groups belonging to the given client.
+	 * Messages in groups belonging to other clients have normal priority.
+	 */
+	void setClientPriority(ClientId c, int majorVersion, Priority p);
+
+	/**
+	 * Sets the priority of messages in the given group, overriding the
+	 * priority of the client to which the group belongs.
+	 */
+	void setGroupPriority(GroupId g, Priority p);
+
+	/**
+	 * Removes any priority set for the given group, so the priority of the
+	 * client to which the group belongs applies.
+	 */
+	void removeGroupPriority(GroupId g);
+
+	/**
+	 * Returns the given messages in the order in which they should be offered
+	 * or sent.
+	 */
+	List<SendableMessage> schedule(Collection<SendableMessage> messages);
+}
@@ -9,11 +9,29 @@ import java.io.InputStream;
 @NotNullByDefault
 public interface SyncSessionFactory {
 
+	/**
+	 * Creates an incoming session for a simplex connection, or for a duplex
+	 * connection where the features advertised by the peer are not needed.
+	 */
 	SyncSession createIncomingSession(ContactId c, InputStream in);
 
+	/**
+	 * Creates an incoming session for a duplex connection. The features
+	 * advertised by the peer are recorded in the given {@link PeerFeatures},
+	 * which should be shared with the outgoing session on the same connection.
+	 */
+	SyncSession createIncomingSession(ContactId c, InputStream in,
+			PeerFeatures peerFeatures);
+
 	SyncSession createSimplexOutgoingSession(ContactId c, int maxLatency,
 			StreamWriter streamWriter);
 
+	/**
+	 * Creates an outgoing session for a duplex connection. The session uses
+	 * the optional features recorded in the given {@link PeerFeatures} by the
+	 * incoming session on the same connection.
+	 */
 	SyncSession createDuplexOutgoingSession(ContactId c, int maxLatency,
-			int maxIdleTime, StreamWriter streamWriter);
+			int maxIdleTime, StreamWriter streamWriter,
+			PeerFeatures peerFeatures);
 }
@@ -1,12 +1,15 @@
 package org.briarproject.bramble.api.sync;
 
 import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.api.crypto.SignatureToVerify;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 
+import java.util.Collection;
+
 /**
  * Responsible for managing message validators and passing them messages to
  * validate.
@@ -59,6 +62,16 @@ public interface ValidationManager {
 		 */
 		MessageContext validateMessage(Message m, Group g)
 				throws InvalidMessageException;
+
+		/**
+		 * Validates the given message and returns its metadata and
+		 * dependencies, except that the message's signatures may be added
+		 * to the given collection instead of being verified. The message
+		 * is only valid if all the added signatures are valid.
+		 */
+		MessageContext validateMessage(Message m, Group g,
+				Collection<SignatureToVerify> signatures)
+				throws InvalidMessageException;
 	}
 
 	interface IncomingMessageHook {
@@ -0,0 +1,46 @@
+package org.briarproject.bramble.api.sync.event;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * An event that is broadcast when an incoming sync session finishes after
+ * stopping one or more times to wait for the database to catch up.
+ */
+@Immutable
+@NotNullByDefault
+public class IncomingSessionBlockedEvent extends Event {
+
+	private final ContactId contactId;
+	private final long timesBlocked, timeBlocked;
+
+	public IncomingSessionBlockedEvent(ContactId contactId, long timesBlocked,
+			long timeBlocked) {
+		this.contactId = contactId;
+		this.timesBlocked = timesBlocked;
+		this.timeBlocked = timeBlocked;
+	}
+
+	public ContactId getContactId() {
+		return contactId;
+	}
+
+	/**
+	 * Returns the number of times the session stopped reading to wait for
+	 * the database.
+	 */
+	public long getTimesBlocked() {
+		return timesBlocked;
+	}
+
+	/**
+	 * Returns the total time in milliseconds the session spent waiting for
+	 * the database.
+	 */
+	public long getTimeBlocked() {
+		return timeBlocked;
+	}
+}
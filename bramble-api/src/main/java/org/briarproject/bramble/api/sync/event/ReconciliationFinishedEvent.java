@@ -0,0 +1,40 @@
+package org.briarproject.bramble.api.sync.event;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * An event that is broadcast when the exchange of sketches with a contact
+ * has finished, either because the missing messages have been discovered or
+ * because the sketches can't be used, and any remaining messages should be
+ * offered to the contact.
+ */
+@Immutable
+@NotNullByDefault
+public class ReconciliationFinishedEvent extends Event {
+
+	private final ContactId contactId;
+
+	public ReconciliationFinishedEvent(ContactId contactId) {
+		this.contactId = contactId;
+	}
+
+	public ContactId getContactId() {
+		return contactId;
+	}
+
+	@Override
+	public int hashCode() {
+		return contactId.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof ReconciliationFinishedEvent
+				&& contactId.equals(
+				((ReconciliationFinishedEvent) o).contactId);
+	}
+}
@@ -0,0 +1,47 @@
+package org.briarproject.bramble.api.sync.event;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * An event that is broadcast when a sketch of the messages shared with a
+ * contact needs to be sent to the contact.
+ */
+@Immutable
+@NotNullByDefault
+public class SketchRequestedEvent extends Event {
+
+	private final ContactId contactId;
+	private final int cells;
+
+	public SketchRequestedEvent(ContactId contactId, int cells) {
+		this.contactId = contactId;
+		this.cells = cells;
+	}
+
+	public ContactId getContactId() {
+		return contactId;
+	}
+
+	/**
+	 * Returns the number of cells the sketch should contain.
+	 */
+	public int getCells() {
+		return cells;
+	}
+
+	@Override
+	public int hashCode() {
+		return contactId.hashCode() ^ cells;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof SketchRequestedEvent)) return false;
+		SketchRequestedEvent e = (SketchRequestedEvent) o;
+		return contactId.equals(e.contactId) && cells == e.cells;
+	}
+}
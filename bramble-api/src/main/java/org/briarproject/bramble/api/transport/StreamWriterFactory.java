@@ -14,6 +14,16 @@ public interface StreamWriterFactory {
 	 */
 	StreamWriter createStreamWriter(OutputStream out, StreamContext ctx);
 
+	/**
+	 * Creates an {@link OutputStream OutputStream} for writing to a
+	 * transport stream, using frames of up to
+	 * {@link TransportConstants#MAX_LARGE_FRAME_LENGTH} bytes if
+	 * <tt>largeFrames</tt> is true. Peers that don't support large frames
+	 * will reject the stream.
+	 */
+	StreamWriter createStreamWriter(OutputStream out, StreamContext ctx,
+			boolean largeFrames);
+
 	/**
 	 * Creates an {@link OutputStream OutputStream} for writing to a contact
 	 * exchange stream.
@@ -63,6 +63,26 @@ public interface TransportConstants {
 	int MAX_PAYLOAD_LENGTH = MAX_FRAME_LENGTH - FRAME_HEADER_LENGTH
 			- MAC_LENGTH;
 
+	/**
+	 * The maximum length of an encrypted and authenticated frame in bytes,
+	 * including the header, for streams that use large frames.
+	 */
+	int MAX_LARGE_FRAME_LENGTH = 16 * 1024;
+
+	/**
+	 * The maximum total length of the frame payload and padding in bytes,
+	 * for streams that use large frames.
+	 */
+	int MAX_LARGE_PAYLOAD_LENGTH = MAX_LARGE_FRAME_LENGTH
+			- FRAME_HEADER_LENGTH - MAC_LENGTH;
+
+	/**
+	 * A flag that is combined with the protocol version in the stream header
+	 * to indicate that the stream uses large frames. The stream header is
+	 * authenticated, so the flag can't be changed in transit.
+	 */
+	int LARGE_FRAMES_FLAG = 0x8000;
+
 	/**
 	 * The minimum stream length in bytes that all transport plugins must
 	 * support. Streams may be shorter than this length, but all transport
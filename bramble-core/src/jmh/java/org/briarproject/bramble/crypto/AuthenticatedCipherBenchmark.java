@@ -0,0 +1,76 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.GeneralSecurityException;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.briarproject.bramble.api.transport.TransportConstants.FRAME_NONCE_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAC_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+
+/**
+ * Measures {@link XSalsa20Poly1305AuthenticatedCipher} and
+ * {@link FastXSalsa20Poly1305AuthenticatedCipher} encrypting and decrypting
+ * inputs of various lengths, from a frame header to several large frames.
+ * Each operation initialises the cipher, as the stream encrypter and
+ * decrypter do for each frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuthenticatedCipherBenchmark {
+
+	@Param({"spongycastle", "fast"})
+	public String implementation;
+
+	@Param({"32", "1024", "16384", "65536"})
+	public int length;
+
+	private AuthenticatedCipher cipher;
+	private SecretKey key;
+	private byte[] nonce, plaintext, ciphertext, output;
+
+	@Setup
+	public void setUp() throws GeneralSecurityException {
+		cipher = implementation.equals("fast")
+				? new FastXSalsa20Poly1305AuthenticatedCipher()
+				: new XSalsa20Poly1305AuthenticatedCipher();
+		key = getSecretKey();
+		nonce = getRandomBytes(FRAME_NONCE_LENGTH);
+		plaintext = getRandomBytes(length);
+		ciphertext = new byte[length + MAC_LENGTH];
+		output = new byte[length + MAC_LENGTH];
+		cipher.init(true, key, nonce);
+		cipher.process(plaintext, 0, length, ciphertext, 0);
+	}
+
+	@Benchmark
+	public byte[] encrypt() throws GeneralSecurityException {
+		cipher.init(true, key, nonce);
+		cipher.process(plaintext, 0, length, output, 0);
+		return output;
+	}
+
+	@Benchmark
+	public byte[] decrypt() throws GeneralSecurityException {
+		cipher.init(false, key, nonce);
+		cipher.process(ciphertext, 0, ciphertext.length, output, 0);
+		return output;
+	}
+}
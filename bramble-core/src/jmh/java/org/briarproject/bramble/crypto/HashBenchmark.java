@@ -0,0 +1,62 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.system.SystemClock;
+import org.briarproject.bramble.test.TestSecureRandomProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+
+/**
+ * Measures {@link CryptoComponent#hash(String, byte[]...)} and
+ * {@link CryptoComponent#mac(String, SecretKey, byte[]...)} for inputs of
+ * various lengths.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashBenchmark {
+
+	private static final String LABEL = "org.briarproject.bramble.benchmark";
+
+	@Param({"32", "1024", "32768"})
+	public int length;
+
+	private CryptoComponent crypto;
+	private SecretKey macKey;
+	private byte[] input;
+
+	@Setup
+	public void setUp() {
+		crypto = new CryptoComponentImpl(new TestSecureRandomProvider(),
+				new ScryptKdf(new SystemClock()));
+		macKey = getSecretKey();
+		input = getRandomBytes(length);
+	}
+
+	@Benchmark
+	public byte[] hash() {
+		return crypto.hash(LABEL, input);
+	}
+
+	@Benchmark
+	public byte[] mac() {
+		return crypto.mac(LABEL, macKey, input);
+	}
+}
@@ -0,0 +1,50 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.system.SystemClock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+
+/**
+ * Measures {@link ScryptKdf} deriving a key from a password at the minimum
+ * cost and at a higher cost. The costs are fixed rather than chosen by
+ * {@link ScryptKdf#chooseCostParameter()}, so results from different
+ * machines can be compared.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScryptKdfBenchmark {
+
+	@Param({"256", "16384"})
+	public int cost;
+
+	private PasswordBasedKdf kdf;
+	private byte[] salt;
+
+	@Setup
+	public void setUp() {
+		kdf = new ScryptKdf(new SystemClock());
+		salt = getRandomBytes(32);
+	}
+
+	@Benchmark
+	public SecretKey deriveKey() {
+		return kdf.deriveKey("correct horse battery staple", salt, cost);
+	}
+}
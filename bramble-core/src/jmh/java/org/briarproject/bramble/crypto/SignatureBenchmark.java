@@ -0,0 +1,73 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.KeyPair;
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.system.SystemClock;
+import org.briarproject.bramble.test.TestSecureRandomProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.GeneralSecurityException;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+
+/**
+ * Measures signing and verifying with Ed25519 keys, and deriving a shared
+ * secret with Curve25519 keys.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignatureBenchmark {
+
+	private static final String LABEL = "org.briarproject.bramble.benchmark";
+	private static final int BYTES_TO_SIGN = 1024;
+
+	private CryptoComponent crypto;
+	private byte[] toSign, privateKey, publicKey, signature;
+	private KeyPair ourKeyPair, theirKeyPair;
+
+	@Setup
+	public void setUp() throws GeneralSecurityException {
+		crypto = new CryptoComponentImpl(new TestSecureRandomProvider(),
+				new ScryptKdf(new SystemClock()));
+		toSign = getRandomBytes(BYTES_TO_SIGN);
+		KeyPair signatureKeyPair = crypto.generateSignatureKeyPair();
+		privateKey = signatureKeyPair.getPrivate().getEncoded();
+		publicKey = signatureKeyPair.getPublic().getEncoded();
+		signature = crypto.sign(LABEL, toSign, privateKey);
+		ourKeyPair = crypto.generateAgreementKeyPair();
+		theirKeyPair = crypto.generateAgreementKeyPair();
+	}
+
+	@Benchmark
+	public byte[] sign() throws GeneralSecurityException {
+		return crypto.sign(LABEL, toSign, privateKey);
+	}
+
+	@Benchmark
+	public boolean verifySignature() throws GeneralSecurityException {
+		if (!crypto.verifySignature(signature, LABEL, toSign, publicKey))
+			throw new AssertionError();
+		return true;
+	}
+
+	@Benchmark
+	public SecretKey deriveSharedSecret() throws GeneralSecurityException {
+		return crypto.deriveSharedSecret(LABEL, theirKeyPair.getPublic(),
+				ourKeyPair);
+	}
+}
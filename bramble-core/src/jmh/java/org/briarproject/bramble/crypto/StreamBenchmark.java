@@ -0,0 +1,106 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_LARGE_PAYLOAD_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYLOAD_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_NONCE_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+
+/**
+ * Measures {@link StreamEncrypterImpl} and {@link StreamDecrypterImpl}
+ * writing and reading streams of full frames, with each cipher
+ * implementation and with and without large frames. Each operation is one
+ * frame; the cost of the stream header is spread across the frames of the
+ * stream.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamBenchmark {
+
+	private static final int FRAMES = 64;
+
+	@Param({"spongycastle", "fast"})
+	public String implementation;
+
+	@Param({"false", "true"})
+	public boolean largeFrames;
+
+	private final OutputStream sink = new OutputStream() {
+
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	private AuthenticatedCipher cipher;
+	private SecretKey streamHeaderKey, frameKey;
+	private byte[] streamHeaderNonce, payload, stream;
+
+	@Setup
+	public void setUp() throws IOException {
+		cipher = implementation.equals("fast")
+				? new FastXSalsa20Poly1305AuthenticatedCipher()
+				: new XSalsa20Poly1305AuthenticatedCipher();
+		streamHeaderKey = getSecretKey();
+		frameKey = getSecretKey();
+		streamHeaderNonce = getRandomBytes(STREAM_HEADER_NONCE_LENGTH);
+		payload = getRandomBytes(largeFrames ? MAX_LARGE_PAYLOAD_LENGTH
+				: MAX_PAYLOAD_LENGTH);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeStream(out);
+		stream = out.toByteArray();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(FRAMES)
+	public void encrypt() throws IOException {
+		writeStream(sink);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(FRAMES)
+	public byte[] decrypt() throws IOException {
+		StreamDecrypterImpl d = new StreamDecrypterImpl(
+				new ByteArrayInputStream(stream), cipher, 0, streamHeaderKey);
+		for (int i = 0; i < FRAMES; i++) {
+			if (d.readFrame(payload) != payload.length)
+				throw new AssertionError();
+		}
+		return payload;
+	}
+
+	private void writeStream(OutputStream out) throws IOException {
+		StreamEncrypterImpl e = new StreamEncrypterImpl(out, cipher, 0, null,
+				streamHeaderNonce, streamHeaderKey, frameKey, largeFrames);
+		for (int i = 0; i < FRAMES; i++)
+			e.writeFrame(payload, payload.length, 0, i == FRAMES - 1);
+	}
+}
@@ -0,0 +1,56 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.api.crypto.TransportCrypto;
+import org.briarproject.bramble.system.SystemClock;
+import org.briarproject.bramble.test.TestSecureRandomProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.briarproject.bramble.api.transport.TransportConstants.PROTOCOL_VERSION;
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+
+/**
+ * Measures {@link TransportCryptoImpl} encoding tags, which is done for
+ * each stream number in a reordering window when keys are rotated and
+ * when the window slides.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TagEncodingBenchmark {
+
+	private final byte[] tag = new byte[TAG_LENGTH];
+
+	private TransportCrypto transportCrypto;
+	private SecretKey tagKey;
+	private long streamNumber = 0;
+
+	@Setup
+	public void setUp() {
+		transportCrypto = new TransportCryptoImpl(new CryptoComponentImpl(
+				new TestSecureRandomProvider(),
+				new ScryptKdf(new SystemClock())));
+		tagKey = getSecretKey();
+	}
+
+	@Benchmark
+	public byte[] encodeTag() {
+		transportCrypto.encodeTag(tag, tagKey, PROTOCOL_VERSION,
+				streamNumber++ & 0xFFFF);
+		return tag;
+	}
+}
@@ -0,0 +1,131 @@
+package org.briarproject.bramble.data;
+
+import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.data.BdfEntry;
+import org.briarproject.bramble.api.data.BdfList;
+import org.briarproject.bramble.api.data.BdfReader;
+import org.briarproject.bramble.api.data.BdfReaderFactory;
+import org.briarproject.bramble.api.data.MetadataParser;
+import org.briarproject.bramble.api.db.Metadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.util.StringUtils.getRandomString;
+
+/**
+ * Measures reading a message body and parsing the metadata of a message
+ * header, with readers that read from a stream and readers that read
+ * directly from a byte array. The metadata is parsed in full and with only
+ * the keys needed for building a header.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BdfReaderBenchmark {
+
+	@Param({"stream", "array"})
+	public String reader;
+
+	private BdfReaderFactory readerFactory;
+	private MetadataParser metadataParser;
+	private byte[] body;
+	private Metadata meta;
+	private Collection<String> headerKeys;
+
+	@Setup
+	public void setUp() throws IOException {
+		readerFactory = reader.equals("array") ? new BdfReaderFactoryImpl()
+				: new StreamReaderFactory();
+		metadataParser = new MetadataParserImpl(readerFactory);
+		// A message body like that of a forum post
+		BdfList list = BdfList.of(getRandomBytes(32), getRandomString(50),
+				getRandomBytes(32), getRandomString(1000),
+				getRandomBytes(64));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new BdfWriterImpl(out).writeList(list);
+		body = out.toByteArray();
+		// Metadata like that of a private message header
+		BdfDictionary d = BdfDictionary.of(
+				new BdfEntry("timestamp", System.currentTimeMillis()),
+				new BdfEntry("contactId", 123),
+				new BdfEntry("local", false),
+				new BdfEntry("read", true),
+				new BdfEntry("messageType", 0),
+				new BdfEntry("groupId", getRandomBytes(32)),
+				new BdfEntry("author", getRandomString(50)));
+		meta = new MetadataEncoderImpl(new BdfWriterFactoryImpl()).encode(d);
+		headerKeys = asList("timestamp", "local", "read");
+	}
+
+	@Benchmark
+	public BdfList readList() throws IOException {
+		BdfReader r = readerFactory.createReader(body, 0, body.length);
+		BdfList list = r.readList();
+		if (!r.eof()) throw new FormatException();
+		return list;
+	}
+
+	@Benchmark
+	public BdfDictionary parseMetadata() throws FormatException {
+		return metadataParser.parse(meta);
+	}
+
+	@Benchmark
+	public BdfDictionary parseMetadataKeys() throws FormatException {
+		return metadataParser.parse(meta, headerKeys);
+	}
+
+	/**
+	 * Wraps byte arrays in streams, as the callers of the factory used to.
+	 */
+	private static class StreamReaderFactory implements BdfReaderFactory {
+
+		private final BdfReaderFactory delegate = new BdfReaderFactoryImpl();
+
+		@Override
+		public BdfReader createReader(InputStream in) {
+			return delegate.createReader(in);
+		}
+
+		@Override
+		public BdfReader createReader(InputStream in, int nestedLimit,
+				int maxBufferSize) {
+			return delegate.createReader(in, nestedLimit, maxBufferSize);
+		}
+
+		@Override
+		public BdfReader createReader(byte[] b, int off, int len) {
+			return delegate.createReader(new ByteArrayInputStream(b, off,
+					len));
+		}
+
+		@Override
+		public BdfReader createReader(byte[] b, int off, int len,
+				int nestedLimit, int maxBufferSize) {
+			return delegate.createReader(new ByteArrayInputStream(b, off,
+					len), nestedLimit, maxBufferSize);
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+
+/**
+ * Measures {@link MessageFactoryImpl} creating messages, which includes
+ * calculating their IDs, from their parts and from their raw bytes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageFactoryBenchmark {
+
+	@Param({"32", "1024"})
+	public int length;
+
+	private MessageFactory messageFactory;
+	private GroupId groupId;
+	private long timestamp;
+	private byte[] body, raw;
+
+	@Setup
+	public void setUp() {
+		messageFactory = DaggerMessageFactoryBenchmarkComponent.builder()
+				.build().getMessageFactory();
+		groupId = new GroupId(getRandomId());
+		timestamp = System.currentTimeMillis();
+		body = getRandomBytes(length);
+		raw = messageFactory.getRawMessage(
+				messageFactory.createMessage(groupId, timestamp, body));
+	}
+
+	@Benchmark
+	public Message createMessage() {
+		return messageFactory.createMessage(groupId, timestamp, body);
+	}
+
+	@Benchmark
+	public Message createMessageFromRaw() {
+		return messageFactory.createMessage(raw);
+	}
+}
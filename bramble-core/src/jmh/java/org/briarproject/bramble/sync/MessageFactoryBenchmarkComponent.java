@@ -0,0 +1,20 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.crypto.CryptoModule;
+import org.briarproject.bramble.system.SystemModule;
+import org.briarproject.bramble.test.TestSecureRandomModule;
+
+import javax.inject.Singleton;
+
+import dagger.Component;
+
+@Singleton
+@Component(modules = {
+		TestSecureRandomModule.class,
+		CryptoModule.class,
+		SystemModule.class
+})
+interface MessageFactoryBenchmarkComponent {
+
+	MessageFactoryImpl getMessageFactory();
+}
@@ -6,15 +6,28 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.INFO;
 import static org.briarproject.bramble.util.LogUtils.now;
 
+/**
+ * A {@link ThreadPoolExecutor} that logs the time spent by each task at FINE,
+ * and logs how long tasks waited in the queue and how long the queue grew
+ * at INFO when the executor terminates. Tasks are only timed and the queue
+ * is only measured while INFO logging is enabled.
+ */
 @NotNullByDefault
 public class TimeLoggingExecutor extends ThreadPoolExecutor {
 
 	private final Logger log;
+	private final AtomicLong tasks = new AtomicLong(0);
+	private final AtomicLong totalQueueTime = new AtomicLong(0);
+	private final AtomicLong maxQueueTime = new AtomicLong(0);
+	private final AtomicInteger maxQueueLength = new AtomicInteger(0);
 
 	public TimeLoggingExecutor(String tag, int corePoolSize, int maxPoolSize,
 			long keepAliveTime, TimeUnit unit,
@@ -27,18 +40,74 @@ public class TimeLoggingExecutor extends ThreadPoolExecutor {
 
 	@Override
 	public void execute(Runnable r) {
-		if (log.isLoggable(FINE)) {
+		// The metrics are only logged at INFO, so don't wrap the task or
+		// read the clock unless they'll be logged
+		if (log.isLoggable(INFO)) {
 			long submitted = now();
 			super.execute(() -> {
 				long started = now();
 				long queued = started - submitted;
-				log.fine("Queue time " + queued + " ms");
+				recordQueueTime(queued);
+				if (log.isLoggable(FINE))
+					log.fine("Queue time " + queued + " ms");
 				r.run();
-				long executing = now() - started;
-				log.fine("Execution time " + executing + " ms");
+				if (log.isLoggable(FINE)) {
+					long executing = now() - started;
+					log.fine("Execution time " + executing + " ms");
+				}
 			});
+			recordQueueLength(getQueue().size());
 		} else {
 			super.execute(r);
 		}
 	}
+
+	private void recordQueueTime(long queued) {
+		tasks.incrementAndGet();
+		totalQueueTime.addAndGet(queued);
+		long max = maxQueueTime.get();
+		while (queued > max && !maxQueueTime.compareAndSet(max, queued))
+			max = maxQueueTime.get();
+	}
+
+	private void recordQueueLength(int length) {
+		int max = maxQueueLength.get();
+		while (length > max && !maxQueueLength.compareAndSet(max, length))
+			max = maxQueueLength.get();
+	}
+
+	/**
+	 * Returns the greatest number of tasks that have waited in the queue.
+	 */
+	int getMaxQueueLength() {
+		return maxQueueLength.get();
+	}
+
+	/**
+	 * Returns the mean time in milliseconds that tasks have waited in the
+	 * queue before starting.
+	 */
+	long getMeanQueueTime() {
+		long count = tasks.get();
+		return count == 0 ? 0 : totalQueueTime.get() / count;
+	}
+
+	/**
+	 * Returns the longest time in milliseconds that a task has waited in the
+	 * queue before starting.
+	 */
+	long getMaxQueueTime() {
+		return maxQueueTime.get();
+	}
+
+	@Override
+	protected void terminated() {
+		super.terminated();
+		if (log.isLoggable(INFO)) {
+			log.info(tasks.get() + " tasks, mean queue time "
+					+ getMeanQueueTime() + " ms, max queue time "
+					+ getMaxQueueTime() + " ms, max queue length "
+					+ getMaxQueueLength());
+		}
+	}
 }
@@ -2,7 +2,9 @@ package org.briarproject.bramble.client;
 
 import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.client.SessionId;
 import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.SignatureToVerify;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.data.BdfReader;
@@ -13,6 +15,7 @@ import org.briarproject.bramble.api.data.MetadataEncoder;
 import org.briarproject.bramble.api.data.MetadataParser;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.MessageCursor;
 import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.identity.Author;
@@ -25,14 +28,17 @@ import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import javax.inject.Inject;
 
@@ -215,6 +221,17 @@ class ClientHelperImpl implements ClientHelper {
 		return parsed;
 	}
 
+	@Override
+	public Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
+			Transaction txn, GroupId g, Collection<String> keys)
+			throws DbException, FormatException {
+		Map<MessageId, Metadata> raw = db.getMessageMetadata(txn, g);
+		Map<MessageId, BdfDictionary> parsed = new HashMap<>(raw.size());
+		for (Entry<MessageId, Metadata> e : raw.entrySet())
+			parsed.put(e.getKey(), metadataParser.parse(e.getValue(), keys));
+		return parsed;
+	}
+
 	@Override
 	public Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
 			GroupId g, BdfDictionary query) throws DbException,
@@ -242,6 +259,53 @@ class ClientHelperImpl implements ClientHelper {
 		return parsed;
 	}
 
+	@Override
+	public Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
+			Transaction txn, GroupId g, BdfDictionary query,
+			Collection<String> keys) throws DbException, FormatException {
+		Metadata metadata = metadataEncoder.encode(query);
+		Map<MessageId, Metadata> raw = db.getMessageMetadata(txn, g, metadata);
+		Map<MessageId, BdfDictionary> parsed = new HashMap<>(raw.size());
+		for (Entry<MessageId, Metadata> e : raw.entrySet())
+			parsed.put(e.getKey(), metadataParser.parse(e.getValue(), keys));
+		return parsed;
+	}
+
+	@Override
+	public Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
+			Transaction txn, Collection<MessageId> ids) throws DbException,
+			FormatException {
+		Map<MessageId, Metadata> raw = db.getMessageMetadata(txn, ids);
+		Map<MessageId, BdfDictionary> parsed = new LinkedHashMap<>(raw.size());
+		for (MessageId m : ids) {
+			Metadata metadata = raw.get(m);
+			if (metadata != null) parsed.put(m, metadataParser.parse(metadata));
+		}
+		return parsed;
+	}
+
+	@Override
+	public Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
+			Transaction txn, Collection<MessageId> ids,
+			Collection<String> keys) throws DbException, FormatException {
+		Map<MessageId, Metadata> raw = db.getMessageMetadata(txn, ids);
+		Map<MessageId, BdfDictionary> parsed = new LinkedHashMap<>(raw.size());
+		for (MessageId m : ids) {
+			Metadata metadata = raw.get(m);
+			if (metadata != null)
+				parsed.put(m, metadataParser.parse(metadata, keys));
+		}
+		return parsed;
+	}
+
+	@Override
+	public List<MessageCursor> getMessageCursors(Transaction txn, GroupId g,
+			BdfDictionary query, @Nullable MessageCursor before, int limit)
+			throws DbException, FormatException {
+		Metadata metadata = metadataEncoder.encode(query);
+		return db.getMessageCursors(txn, g, metadata, before, limit);
+	}
+
 	@Override
 	public void mergeGroupMetadata(GroupId g, BdfDictionary metadata)
 			throws DbException, FormatException {
@@ -278,6 +342,33 @@ class ClientHelperImpl implements ClientHelper {
 		db.mergeMessageMetadata(txn, m, metadataEncoder.encode(metadata));
 	}
 
+	@Nullable
+	@Override
+	public BdfDictionary getSessionAsDictionary(Transaction txn, GroupId g,
+			SessionId s) throws DbException, FormatException {
+		byte[] session = db.getSession(txn, g, s);
+		if (session == null) return null;
+		return toDictionary(session, 0, session.length);
+	}
+
+	@Override
+	public Map<SessionId, BdfDictionary> getSessionsAsDictionary(
+			Transaction txn, GroupId g) throws DbException, FormatException {
+		Map<SessionId, byte[]> raw = db.getSessions(txn, g);
+		Map<SessionId, BdfDictionary> parsed = new HashMap<>(raw.size());
+		for (Entry<SessionId, byte[]> e : raw.entrySet()) {
+			byte[] session = e.getValue();
+			parsed.put(e.getKey(), toDictionary(session, 0, session.length));
+		}
+		return parsed;
+	}
+
+	@Override
+	public void setSession(Transaction txn, GroupId g, SessionId s,
+			BdfDictionary session) throws DbException, FormatException {
+		db.setSession(txn, g, s, toByteArray(session));
+	}
+
 	@Override
 	public byte[] toByteArray(BdfDictionary dictionary) throws FormatException {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
@@ -309,8 +400,7 @@ class ClientHelperImpl implements ClientHelper {
 	@Override
 	public BdfDictionary toDictionary(byte[] b, int off, int len)
 			throws FormatException {
-		ByteArrayInputStream in = new ByteArrayInputStream(b, off, len);
-		BdfReader reader = bdfReaderFactory.createReader(in);
+		BdfReader reader = bdfReaderFactory.createReader(b, off, len);
 		try {
 			BdfDictionary dictionary = reader.readDictionary();
 			if (!reader.eof()) throw new FormatException();
@@ -338,8 +428,7 @@ class ClientHelperImpl implements ClientHelper {
 
 	@Override
 	public BdfList toList(byte[] b, int off, int len) throws FormatException {
-		ByteArrayInputStream in = new ByteArrayInputStream(b, off, len);
-		BdfReader reader = bdfReaderFactory.createReader(in);
+		BdfReader reader = bdfReaderFactory.createReader(b, off, len);
 		try {
 			BdfList list = reader.readList();
 			if (!reader.eof()) throw new FormatException();
@@ -381,6 +470,13 @@ class ClientHelperImpl implements ClientHelper {
 		}
 	}
 
+	@Override
+	public void verifySignatures(Collection<SignatureToVerify> signatures)
+			throws GeneralSecurityException {
+		if (!crypto.verifySignatures(signatures))
+			throw new GeneralSecurityException("Invalid signature");
+	}
+
 	@Override
 	public Author parseAndValidateAuthor(BdfList author)
 			throws FormatException {
@@ -4,19 +4,20 @@ import net.i2p.crypto.eddsa.EdDSAPrivateKey;
 import net.i2p.crypto.eddsa.EdDSAPublicKey;
 import net.i2p.crypto.eddsa.KeyPairGenerator;
 
+import org.briarproject.bramble.api.Bytes;
 import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.Hasher;
 import org.briarproject.bramble.api.crypto.KeyPair;
 import org.briarproject.bramble.api.crypto.KeyParser;
 import org.briarproject.bramble.api.crypto.PrivateKey;
 import org.briarproject.bramble.api.crypto.PublicKey;
 import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.api.crypto.SignatureToVerify;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.system.SecureRandomProvider;
 import org.briarproject.bramble.util.ByteUtils;
 import org.briarproject.bramble.util.StringUtils;
 import org.spongycastle.crypto.CryptoException;
-import org.spongycastle.crypto.Digest;
-import org.spongycastle.crypto.digests.Blake2bDigest;
 import org.whispersystems.curve25519.Curve25519;
 import org.whispersystems.curve25519.Curve25519KeyPair;
 
@@ -25,12 +26,17 @@ import java.security.NoSuchAlgorithmException;
 import java.security.Provider;
 import java.security.SecureRandom;
 import java.security.Security;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
 import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import javax.inject.Inject;
 
 import static java.util.logging.Level.INFO;
+import static org.briarproject.bramble.api.crypto.Hasher.OUTPUT_LENGTH;
 import static org.briarproject.bramble.util.ByteUtils.INT_32_BYTES;
 import static org.briarproject.bramble.util.LogUtils.logDuration;
 import static org.briarproject.bramble.util.LogUtils.now;
@@ -45,6 +51,8 @@ class CryptoComponentImpl implements CryptoComponent {
 	private static final int STORAGE_IV_BYTES = 24; // 196 bits
 	private static final int PBKDF_SALT_BYTES = 32; // 256 bits
 	private static final int PBKDF_FORMAT_SCRYPT = 0;
+	// The maximum number of parsed signature public keys to cache
+	private static final int SIGNATURE_KEY_CACHE_SIZE = 1000;
 
 	private final SecureRandom secureRandom;
 	private final PasswordBasedKdf passwordBasedKdf;
@@ -52,6 +60,24 @@ class CryptoComponentImpl implements CryptoComponent {
 	private final KeyPairGenerator signatureKeyPairGenerator;
 	private final KeyParser agreementKeyParser, signatureKeyParser;
 	private final MessageEncrypter messageEncrypter;
+	private final Object keyCacheLock = new Object();
+	// Access order, so the eldest entry is the least recently used
+	@GuardedBy("keyCacheLock")
+	private final LinkedHashMap<Bytes, EdPublicKey> signatureKeyCache =
+			new LinkedHashMap<Bytes, EdPublicKey>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(
+						Entry<Bytes, EdPublicKey> eldest) {
+					return size() > SIGNATURE_KEY_CACHE_SIZE;
+				}
+			};
+	// Each thread reuses its own hasher, so hashing doesn't allocate
+	private final ThreadLocal<Hasher> hashers = new ThreadLocal<Hasher>() {
+		@Override
+		protected Hasher initialValue() {
+			return new HasherImpl();
+		}
+	};
 
 	@Inject
 	CryptoComponentImpl(SecureRandomProvider secureRandomProvider,
@@ -207,13 +233,55 @@ class CryptoComponentImpl implements CryptoComponent {
 	@Override
 	public boolean verifySignature(byte[] signature, String label,
 			byte[] signed, byte[] publicKey) throws GeneralSecurityException {
-		PublicKey key = signatureKeyParser.parsePublicKey(publicKey);
 		Signature sig = new EdSignature();
-		sig.initVerify(key);
+		sig.initVerify(getSignaturePublicKey(publicKey));
 		updateSignature(sig, label, signed);
 		return sig.verify(signature);
 	}
 
+	@Override
+	public boolean verifySignatures(Collection<SignatureToVerify> signatures)
+			throws GeneralSecurityException {
+		if (signatures.size() == 1) {
+			SignatureToVerify s = signatures.iterator().next();
+			return verifySignature(s.getSignature(), s.getLabel(),
+					s.getSigned(), s.getPublicKey());
+		}
+		EdBatchVerifier batch = new EdBatchVerifier(secureRandom);
+		for (SignatureToVerify s : signatures) {
+			byte[] labelBytes = StringUtils.toUtf8(s.getLabel());
+			byte[] labelLength = new byte[INT_32_BYTES];
+			ByteUtils.writeUint32(labelBytes.length, labelLength, 0);
+			byte[] signedLength = new byte[INT_32_BYTES];
+			ByteUtils.writeUint32(s.getSigned().length, signedLength, 0);
+			// The same data as updateSignature() passes to the signature
+			batch.add(s.getSignature(),
+					getSignaturePublicKey(s.getPublicKey()), labelLength,
+					labelBytes, signedLength, s.getSigned());
+		}
+		return batch.verify();
+	}
+
+	/**
+	 * Returns the parsed public key for the given encoding, reusing a
+	 * recently parsed key if possible so the point doesn't need to be
+	 * decoded again.
+	 */
+	private EdPublicKey getSignaturePublicKey(byte[] encoded)
+			throws GeneralSecurityException {
+		Bytes b = new Bytes(encoded);
+		synchronized (keyCacheLock) {
+			EdPublicKey key = signatureKeyCache.get(b);
+			if (key != null) return key;
+		}
+		EdPublicKey key =
+				(EdPublicKey) signatureKeyParser.parsePublicKey(encoded);
+		synchronized (keyCacheLock) {
+			signatureKeyCache.put(b, key);
+		}
+		return key;
+	}
+
 	private void updateSignature(Signature signature, String label,
 			byte[] toSign) throws GeneralSecurityException {
 		byte[] labelBytes = StringUtils.toUtf8(label);
@@ -228,40 +296,29 @@ class CryptoComponentImpl implements CryptoComponent {
 
 	@Override
 	public byte[] hash(String label, byte[]... inputs) {
-		byte[] labelBytes = StringUtils.toUtf8(label);
-		Digest digest = new Blake2bDigest(256);
-		byte[] length = new byte[INT_32_BYTES];
-		ByteUtils.writeUint32(labelBytes.length, length, 0);
-		digest.update(length, 0, length.length);
-		digest.update(labelBytes, 0, labelBytes.length);
-		for (byte[] input : inputs) {
-			ByteUtils.writeUint32(input.length, length, 0);
-			digest.update(length, 0, length.length);
-			digest.update(input, 0, input.length);
-		}
-		byte[] output = new byte[digest.getDigestSize()];
-		digest.doFinal(output, 0);
+		Hasher hasher = hashers.get();
+		hasher.startHash(label);
+		for (byte[] input : inputs) hasher.addInput(input);
+		byte[] output = new byte[OUTPUT_LENGTH];
+		hasher.finish(output, 0);
 		return output;
 	}
 
 	@Override
 	public byte[] mac(String label, SecretKey macKey, byte[]... inputs) {
-		byte[] labelBytes = StringUtils.toUtf8(label);
-		Digest mac = new Blake2bDigest(macKey.getBytes(), 32, null, null);
-		byte[] length = new byte[INT_32_BYTES];
-		ByteUtils.writeUint32(labelBytes.length, length, 0);
-		mac.update(length, 0, length.length);
-		mac.update(labelBytes, 0, labelBytes.length);
-		for (byte[] input : inputs) {
-			ByteUtils.writeUint32(input.length, length, 0);
-			mac.update(length, 0, length.length);
-			mac.update(input, 0, input.length);
-		}
-		byte[] output = new byte[mac.getDigestSize()];
-		mac.doFinal(output, 0);
+		Hasher hasher = hashers.get();
+		hasher.startMac(label, macKey);
+		for (byte[] input : inputs) hasher.addInput(input);
+		byte[] output = new byte[OUTPUT_LENGTH];
+		hasher.finish(output, 0);
 		return output;
 	}
 
+	@Override
+	public Hasher createHasher() {
+		return new HasherImpl();
+	}
+
 	@Override
 	public boolean verifyMac(byte[] mac, String label, SecretKey macKey,
 			byte[]... inputs) {
@@ -19,8 +19,27 @@ import dagger.Provides;
 @Module
 public class CryptoModule {
 
+	private final boolean optimisedCipher;
+
+	public CryptoModule() {
+		this(true);
+	}
+
+	/**
+	 * @param optimisedCipher true if transport streams should be encrypted
+	 * with {@link FastXSalsa20Poly1305AuthenticatedCipher}, or false if they
+	 * should be encrypted with the SpongyCastle-based
+	 * {@link XSalsa20Poly1305AuthenticatedCipher}. The ciphertexts are the
+	 * same.
+	 */
+	public CryptoModule(boolean optimisedCipher) {
+		this.optimisedCipher = optimisedCipher;
+	}
+
 	@Provides
 	AuthenticatedCipher provideAuthenticatedCipher() {
+		if (optimisedCipher)
+			return new FastXSalsa20Poly1305AuthenticatedCipher();
 		return new XSalsa20Poly1305AuthenticatedCipher();
 	}
 
@@ -0,0 +1,233 @@
+package org.briarproject.bramble.crypto;
+
+import net.i2p.crypto.eddsa.EdDSAPublicKey;
+import net.i2p.crypto.eddsa.math.Curve;
+import net.i2p.crypto.eddsa.math.GroupElement;
+import net.i2p.crypto.eddsa.math.ScalarOps;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static net.i2p.crypto.eddsa.math.GroupElement.Representation.P2;
+import static org.briarproject.bramble.crypto.EdSignature.CURVE_SPEC;
+
+/**
+ * Verifies a batch of Ed25519 signatures with a single multi-scalar
+ * multiplication.
+ * <p>
+ * Each signature (R, S) by public key A over message M satisfies
+ * S * B = R + h * A, where B is the base point and h = H(R || A || M). The
+ * batch is valid if (-sum(z * S)) * B + sum(z * R) + sum(z * h * A) is the
+ * identity, where each z is a random 128-bit scalar chosen by the verifier.
+ * If any signature is invalid, the batch is rejected with overwhelming
+ * probability.
+ * <p>
+ * Unlike individual verification, batch verification doesn't reveal which
+ * signatures are invalid. A signer who deliberately adds small-order
+ * components to their own signature or public key may also produce a
+ * signature that's rejected individually but accepted in a batch with
+ * probability up to 1/2, which doesn't allow them to sign anything they
+ * couldn't sign anyway.
+ */
+@NotThreadSafe
+@NotNullByDefault
+class EdBatchVerifier {
+
+	/**
+	 * The number of precomputed odd multiples of each point.
+	 */
+	private static final int TABLE_SIZE = 8;
+
+	private static final int SCALAR_BITS = 256;
+
+	/**
+	 * The order of the base point minus one, little-endian.
+	 */
+	private static final byte[] ORDER_MINUS_ONE = {
+			(byte) 0xec, (byte) 0xd3, (byte) 0xf5, 0x5c,
+			0x1a, 0x63, 0x12, 0x58,
+			(byte) 0xd6, (byte) 0x9c, (byte) 0xf7, (byte) 0xa2,
+			(byte) 0xde, (byte) 0xf9, (byte) 0xde, 0x14,
+			0, 0, 0, 0, 0, 0, 0, 0,
+			0, 0, 0, 0, 0, 0, 0, 0x10
+	};
+
+	private static final byte[] ZERO = new byte[32];
+
+	private static final Curve CURVE = CURVE_SPEC.getCurve();
+	private static final ScalarOps SCALAR_OPS = CURVE_SPEC.getScalarOps();
+	private static final GroupElement[] BASE_TABLE =
+			getOddMultiples(CURVE_SPEC.getB());
+
+	private final SecureRandom secureRandom;
+	private final MessageDigest digest;
+	private final List<GroupElement[]> tables = new ArrayList<>();
+	private final List<byte[]> scalars = new ArrayList<>();
+	// Signatures by the same key share a single term for the key
+	private final Map<EdPublicKey, byte[]> keyScalars = new HashMap<>();
+
+	private byte[] sum = ZERO;
+	private boolean valid = true;
+
+	EdBatchVerifier(SecureRandom secureRandom) {
+		this.secureRandom = secureRandom;
+		try {
+			digest = MessageDigest.getInstance(CURVE_SPEC.getHashAlgorithm());
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * Adds a signature to the batch. The message is the concatenation of
+	 * the given parts.
+	 */
+	void add(byte[] signature, EdPublicKey publicKey, byte[]... message)
+			throws GeneralSecurityException {
+		if (signature.length != 64)
+			throw new SignatureException("Invalid signature length");
+		if (!valid) return;
+		byte[] rBytes = Arrays.copyOfRange(signature, 0, 32);
+		// Zero-padded to 64 bytes for reduction
+		byte[] sBytes = Arrays.copyOfRange(signature, 32, 96);
+		// Individual verification compares the canonical encoding of the
+		// expected R with the encoding in the signature, so reject any
+		// point that isn't canonically encoded
+		GroupElement r;
+		try {
+			r = new GroupElement(CURVE, rBytes);
+		} catch (IllegalArgumentException e) {
+			valid = false;
+			return;
+		}
+		if (!Arrays.equals(r.toByteArray(), rBytes)) {
+			valid = false;
+			return;
+		}
+		EdDSAPublicKey key = publicKey.getEdDSAPublicKey();
+		digest.update(rBytes);
+		digest.update(key.getAbyte());
+		for (byte[] part : message) digest.update(part);
+		byte[] h = SCALAR_OPS.reduce(digest.digest());
+		// Individual verification uses all 256 bits of S, so reduce S
+		// rather than rejecting values greater than the group order
+		byte[] s = SCALAR_OPS.reduce(sBytes);
+		byte[] z = new byte[32];
+		byte[] random = new byte[16];
+		secureRandom.nextBytes(random);
+		System.arraycopy(random, 0, z, 0, random.length);
+		sum = SCALAR_OPS.multiplyAndAdd(z, s, sum);
+		tables.add(getOddMultiples(r));
+		scalars.add(z);
+		byte[] keyScalar = keyScalars.get(publicKey);
+		if (keyScalar == null) keyScalar = ZERO;
+		keyScalars.put(publicKey,
+				SCALAR_OPS.multiplyAndAdd(z, h, keyScalar));
+	}
+
+	/**
+	 * Returns true if all the signatures in the batch are valid. This
+	 * method must only be called once.
+	 */
+	boolean verify() {
+		if (!valid) return false;
+		for (Entry<EdPublicKey, byte[]> e : keyScalars.entrySet()) {
+			try {
+				tables.add(e.getKey().getOddMultiples());
+			} catch (GeneralSecurityException ex) {
+				// The key was decoded when the signature was added
+				throw new AssertionError(ex);
+			}
+			scalars.add(e.getValue());
+		}
+		keyScalars.clear();
+		int points = tables.size() + 1;
+		GroupElement[][] t = new GroupElement[points][];
+		byte[][] digits = new byte[points][];
+		t[0] = BASE_TABLE;
+		digits[0] = slide(SCALAR_OPS.multiplyAndAdd(sum, ORDER_MINUS_ONE,
+				ZERO));
+		for (int j = 1; j < points; j++) {
+			t[j] = tables.get(j - 1);
+			digits[j] = slide(scalars.get(j - 1));
+		}
+		// Interleave the sliding windows of all the scalars so the
+		// doublings are shared between the points
+		GroupElement acc = CURVE.getZero(P2);
+		for (int i = SCALAR_BITS - 1; i >= 0; i--) {
+			GroupElement p = acc.dbl();
+			for (int j = 0; j < points; j++) {
+				int d = digits[j][i];
+				if (d > 0) p = p.toP3().add(t[j][d / 2]);
+				else if (d < 0) p = p.toP3().sub(t[j][-d / 2]);
+			}
+			acc = p.toP2();
+		}
+		byte[] encoded = acc.toByteArray();
+		if (encoded[0] != 1) return false;
+		for (int i = 1; i < encoded.length; i++)
+			if (encoded[i] != 0) return false;
+		return true;
+	}
+
+	/**
+	 * Returns P, 3P, 5P, ..., 15P in the cached representation.
+	 */
+	static GroupElement[] getOddMultiples(GroupElement p) {
+		GroupElement[] table = new GroupElement[TABLE_SIZE];
+		GroupElement p3 = p.toP3();
+		GroupElement twice = p3.dbl().toP3().toCached();
+		table[0] = p3.toCached();
+		for (int i = 1; i < TABLE_SIZE; i++) {
+			p3 = p3.add(twice).toP3();
+			table[i] = p3.toCached();
+		}
+		return table;
+	}
+
+	/**
+	 * Converts a scalar less than 2^255 into a sparse sequence of signed odd
+	 * digits between -15 and 15, least significant first.
+	 */
+	private static byte[] slide(byte[] a) {
+		byte[] r = new byte[SCALAR_BITS];
+		for (int i = 0; i < SCALAR_BITS; i++)
+			r[i] = (byte) (1 & (a[i >> 3] >> (i & 7)));
+		for (int i = 0; i < SCALAR_BITS; i++) {
+			if (r[i] == 0) continue;
+			for (int b = 1; b <= 6 && i + b < SCALAR_BITS; b++) {
+				if (r[i + b] == 0) continue;
+				int shifted = r[i + b] << b;
+				if (r[i] + shifted <= 15) {
+					r[i] += shifted;
+					r[i + b] = 0;
+				} else if (r[i] - shifted >= -15) {
+					r[i] -= shifted;
+					for (int k = i + b; k < SCALAR_BITS; k++) {
+						if (r[k] == 0) {
+							r[k] = 1;
+							break;
+						}
+						r[k] = 0;
+					}
+				} else {
+					break;
+				}
+			}
+		}
+		return r;
+	}
+}
@@ -1,12 +1,36 @@
 package org.briarproject.bramble.crypto;
 
+import net.i2p.crypto.eddsa.EdDSAPublicKey;
+import net.i2p.crypto.eddsa.math.GroupElement;
+import net.i2p.crypto.eddsa.spec.EdDSAPublicKeySpec;
+
 import org.briarproject.bramble.api.Bytes;
 import org.briarproject.bramble.api.crypto.PublicKey;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import static org.briarproject.bramble.crypto.EdSignature.CURVE_SPEC;
+
+/**
+ * An Ed25519 public key. The decoded point and the values precomputed from
+ * it are created when first needed and then kept with the key, so a key
+ * that's used for verifying several signatures only needs to be decoded
+ * once.
+ */
+@ThreadSafe
 @NotNullByDefault
 class EdPublicKey extends Bytes implements PublicKey {
 
+	@Nullable
+	private volatile EdDSAPublicKey publicKey = null;
+	@Nullable
+	private volatile GroupElement[] oddMultiples = null;
+
 	EdPublicKey(byte[] bytes) {
 		super(bytes);
 	}
@@ -15,4 +39,32 @@ class EdPublicKey extends Bytes implements PublicKey {
 	public byte[] getEncoded() {
 		return getBytes();
 	}
+
+	EdDSAPublicKey getEdDSAPublicKey() throws GeneralSecurityException {
+		EdDSAPublicKey k = publicKey;
+		if (k == null) {
+			try {
+				k = new EdDSAPublicKey(
+						new EdDSAPublicKeySpec(getBytes(), CURVE_SPEC));
+			} catch (IllegalArgumentException e) {
+				// The encoding is not a valid point
+				throw new InvalidKeyException(e);
+			}
+			publicKey = k;
+		}
+		return k;
+	}
+
+	/**
+	 * Returns the odd multiples of the point for use by
+	 * {@link EdBatchVerifier}.
+	 */
+	GroupElement[] getOddMultiples() throws GeneralSecurityException {
+		GroupElement[] table = oddMultiples;
+		if (table == null) {
+			table = EdBatchVerifier.getOddMultiples(getEdDSAPublicKey().getA());
+			oddMultiples = table;
+		}
+		return table;
+	}
 }
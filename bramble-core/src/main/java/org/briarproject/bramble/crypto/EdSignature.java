@@ -1,12 +1,10 @@
 package org.briarproject.bramble.crypto;
 
 import net.i2p.crypto.eddsa.EdDSAPrivateKey;
-import net.i2p.crypto.eddsa.EdDSAPublicKey;
 import net.i2p.crypto.eddsa.EdDSASecurityProvider;
 import net.i2p.crypto.eddsa.spec.EdDSANamedCurveSpec;
 import net.i2p.crypto.eddsa.spec.EdDSANamedCurveTable;
 import net.i2p.crypto.eddsa.spec.EdDSAPrivateKeySpec;
-import net.i2p.crypto.eddsa.spec.EdDSAPublicKeySpec;
 
 import org.briarproject.bramble.api.crypto.PrivateKey;
 import org.briarproject.bramble.api.crypto.PublicKey;
@@ -23,7 +21,7 @@ class EdSignature implements Signature {
 
 	private static final Provider PROVIDER = new EdDSASecurityProvider();
 
-	private static final EdDSANamedCurveSpec CURVE_SPEC =
+	static final EdDSANamedCurveSpec CURVE_SPEC =
 			EdDSANamedCurveTable.getByName("Ed25519");
 
 	private final java.security.Signature signature;
@@ -50,9 +48,7 @@ class EdSignature implements Signature {
 	public void initVerify(PublicKey k) throws GeneralSecurityException {
 		if (!(k instanceof EdPublicKey))
 			throw new IllegalArgumentException();
-		EdDSAPublicKey publicKey = new EdDSAPublicKey(
-				new EdDSAPublicKeySpec(k.getEncoded(), CURVE_SPEC));
-		signature.initVerify(publicKey);
+		signature.initVerify(((EdPublicKey) k).getEdDSAPublicKey());
 	}
 
 	@Override
@@ -0,0 +1,390 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.security.GeneralSecurityException;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.MAC_LENGTH;
+
+/**
+ * A pure-Java implementation of the same construction as
+ * {@link XSalsa20Poly1305AuthenticatedCipher}, optimised for encrypting
+ * and decrypting many frames with the same instance.
+ * <p>
+ * Initialising the cipher derives the XSalsa20 subkey directly into the
+ * Salsa20 state, and the keystream is XORed with the input a 32-bit word
+ * at a time as each block is generated, so no intermediate objects or
+ * arrays are allocated per frame. The input and output may be the same
+ * array, provided the ciphertext (excluding the MAC) and the plaintext
+ * start at the same position.
+ * <p/>
+ * References:
+ * <ul>
+ * <li>http://nacl.cr.yp.to/secretbox.html</li>
+ * <li>http://cr.yp.to/highspeed/naclcrypto-20090310.pdf</li>
+ * <li>https://cr.yp.to/snuffle/spec.pdf</li>
+ * <li>https://tools.ietf.org/html/rfc8439#section-2.5</li>
+ * </ul>
+ */
+@NotThreadSafe
+@NotNullByDefault
+class FastXSalsa20Poly1305AuthenticatedCipher implements AuthenticatedCipher {
+
+	private static final int KEY_LENGTH = 32, NONCE_LENGTH = 24;
+	private static final int BLOCK_LENGTH = 64, POLY1305_KEY_LENGTH = 32;
+
+	// The Salsa20 constant "expand 32-byte k" as little-endian words
+	private static final int SIGMA_0 = 0x61707865, SIGMA_1 = 0x3320646e;
+	private static final int SIGMA_2 = 0x79622d32, SIGMA_3 = 0x6b206574;
+
+	private static final long MASK_26 = 0x3ffffff, MASK_32 = 0xffffffffL;
+
+	private final int[] state = new int[16], block = new int[16];
+	private final byte[] keyStream = new byte[BLOCK_LENGTH];
+	private final byte[] polyKey = new byte[POLY1305_KEY_LENGTH];
+	private final byte[] mac = new byte[MAC_LENGTH];
+
+	private boolean encrypting, initialised = false;
+
+	@Override
+	public void init(boolean encrypt, SecretKey key, byte[] iv)
+			throws GeneralSecurityException {
+		byte[] k = key.getBytes();
+		if (k.length != KEY_LENGTH)
+			throw new GeneralSecurityException("Invalid key length");
+		if (iv.length != NONCE_LENGTH)
+			throw new GeneralSecurityException("Invalid nonce length");
+		encrypting = encrypt;
+		// Use HSalsa20 to derive a subkey from the key and the first 16
+		// bytes of the nonce
+		state[0] = SIGMA_0;
+		state[1] = readInt(k, 0);
+		state[2] = readInt(k, 4);
+		state[3] = readInt(k, 8);
+		state[4] = readInt(k, 12);
+		state[5] = SIGMA_1;
+		state[6] = readInt(iv, 0);
+		state[7] = readInt(iv, 4);
+		state[8] = readInt(iv, 8);
+		state[9] = readInt(iv, 12);
+		state[10] = SIGMA_2;
+		state[11] = readInt(k, 16);
+		state[12] = readInt(k, 20);
+		state[13] = readInt(k, 24);
+		state[14] = readInt(k, 28);
+		state[15] = SIGMA_3;
+		salsa20(state, block, false);
+		// Set up Salsa20 with the subkey, the last 8 bytes of the nonce
+		// and a block counter of zero
+		state[1] = block[0];
+		state[2] = block[5];
+		state[3] = block[10];
+		state[4] = block[15];
+		state[11] = block[6];
+		state[12] = block[7];
+		state[13] = block[8];
+		state[14] = block[9];
+		state[6] = readInt(iv, 16);
+		state[7] = readInt(iv, 20);
+		state[8] = 0;
+		state[9] = 0;
+		initialised = true;
+	}
+
+	@Override
+	public int process(byte[] input, int inputOff, int len, byte[] output,
+			int outputOff) throws GeneralSecurityException {
+		if (!initialised) throw new IllegalStateException();
+		initialised = false;
+		if (!encrypting && len < MAC_LENGTH)
+			throw new GeneralSecurityException("Invalid MAC");
+		if (len < 0 || inputOff < 0 || inputOff + len > input.length)
+			throw new GeneralSecurityException("Input buffer too short");
+		int dataLen = encrypting ? len : len - MAC_LENGTH;
+		int dataIn = encrypting ? inputOff : inputOff + MAC_LENGTH;
+		int dataOut = encrypting ? outputOff + MAC_LENGTH : outputOff;
+		if (outputOff < 0 || dataOut + dataLen > output.length)
+			throw new GeneralSecurityException("Output buffer too short");
+		// The first 32 bytes of the keystream are the Poly1305 key, which
+		// is clamped when it's loaded
+		nextKeyStreamBlock();
+		System.arraycopy(keyStream, 0, polyKey, 0, POLY1305_KEY_LENGTH);
+		// If we are decrypting, verify the MAC
+		if (!encrypting) {
+			poly1305(input, dataIn, dataLen, mac, 0);
+			// Constant-time comparison
+			int cmp = 0;
+			for (int i = 0; i < MAC_LENGTH; i++)
+				cmp |= mac[i] ^ input[inputOff + i];
+			if (cmp != 0) throw new GeneralSecurityException("Invalid MAC");
+		}
+		// Apply or invert the stream encryption
+		xorKeyStream(input, dataIn, output, dataOut, dataLen);
+		// If we are encrypting, generate the MAC
+		if (encrypting) poly1305(output, dataOut, dataLen, output, outputOff);
+		return encrypting ? len + MAC_LENGTH : dataLen;
+	}
+
+	@Override
+	public int getMacBytes() {
+		return MAC_LENGTH;
+	}
+
+	/**
+	 * XORs the keystream with the input, starting from the second half of
+	 * the first block, which is already in the keystream buffer.
+	 */
+	private void xorKeyStream(byte[] in, int inOff, byte[] out, int outOff,
+			int len) {
+		int first = Math.min(len, BLOCK_LENGTH - POLY1305_KEY_LENGTH);
+		for (int i = 0; i < first; i++) {
+			out[outOff + i] = (byte) (in[inOff + i]
+					^ keyStream[POLY1305_KEY_LENGTH + i]);
+		}
+		int pos = first;
+		// XOR whole blocks a word at a time without storing the keystream
+		while (len - pos >= BLOCK_LENGTH) {
+			salsa20(state, block, true);
+			incrementCounter();
+			for (int i = 0; i < 16; i++) {
+				int offset = pos + i * 4;
+				writeInt(readInt(in, inOff + offset) ^ block[i], out,
+						outOff + offset);
+			}
+			pos += BLOCK_LENGTH;
+		}
+		if (pos < len) {
+			nextKeyStreamBlock();
+			for (int i = 0; pos + i < len; i++) {
+				out[outOff + pos + i] =
+						(byte) (in[inOff + pos + i] ^ keyStream[i]);
+			}
+		}
+	}
+
+	private void nextKeyStreamBlock() {
+		salsa20(state, block, true);
+		incrementCounter();
+		for (int i = 0; i < 16; i++) writeInt(block[i], keyStream, i * 4);
+	}
+
+	private void incrementCounter() {
+		if (++state[8] == 0) state[9]++;
+	}
+
+	/**
+	 * Calculates the Poly1305 MAC of the given input with the current
+	 * Poly1305 key, using 26-bit limbs so the products fit in longs.
+	 */
+	private void poly1305(byte[] in, int off, int len, byte[] out,
+			int outOff) {
+		byte[] k = polyKey;
+		// Load and clamp r
+		long r0 = readInt(k, 0) & 0x3ffffff;
+		long r1 = (readInt(k, 3) >>> 2) & 0x3ffff03;
+		long r2 = (readInt(k, 6) >>> 4) & 0x3ffc0ff;
+		long r3 = (readInt(k, 9) >>> 6) & 0x3f03fff;
+		long r4 = (readInt(k, 12) >>> 8) & 0x00fffff;
+		long s1 = r1 * 5, s2 = r2 * 5, s3 = r3 * 5, s4 = r4 * 5;
+		long h0 = 0, h1 = 0, h2 = 0, h3 = 0, h4 = 0;
+		int pos = 0;
+		while (pos < len) {
+			byte[] m;
+			int mOff;
+			long hiBit;
+			if (len - pos >= 16) {
+				m = in;
+				mOff = off + pos;
+				hiBit = 1 << 24;
+			} else {
+				// Pad the last partial block with a one byte and zeroes
+				m = mac;
+				mOff = 0;
+				int n = len - pos;
+				System.arraycopy(in, off + pos, m, 0, n);
+				m[n] = 1;
+				for (int i = n + 1; i < 16; i++) m[i] = 0;
+				hiBit = 0;
+			}
+			pos += 16;
+			// h += m
+			h0 += readInt(m, mOff) & MASK_26;
+			h1 += (readInt(m, mOff + 3) >>> 2) & MASK_26;
+			h2 += (readInt(m, mOff + 6) >>> 4) & MASK_26;
+			h3 += (readInt(m, mOff + 9) >>> 6) & MASK_26;
+			h4 += ((readInt(m, mOff + 12) & MASK_32) >>> 8) | hiBit;
+			// h *= r, partially reduced mod 2^130 - 5
+			long d0 = h0 * r0 + h1 * s4 + h2 * s3 + h3 * s2 + h4 * s1;
+			long d1 = h0 * r1 + h1 * r0 + h2 * s4 + h3 * s3 + h4 * s2;
+			long d2 = h0 * r2 + h1 * r1 + h2 * r0 + h3 * s4 + h4 * s3;
+			long d3 = h0 * r3 + h1 * r2 + h2 * r1 + h3 * r0 + h4 * s4;
+			long d4 = h0 * r4 + h1 * r3 + h2 * r2 + h3 * r1 + h4 * r0;
+			long c = d0 >>> 26;
+			h0 = d0 & MASK_26;
+			d1 += c;
+			c = d1 >>> 26;
+			h1 = d1 & MASK_26;
+			d2 += c;
+			c = d2 >>> 26;
+			h2 = d2 & MASK_26;
+			d3 += c;
+			c = d3 >>> 26;
+			h3 = d3 & MASK_26;
+			d4 += c;
+			c = d4 >>> 26;
+			h4 = d4 & MASK_26;
+			h0 += c * 5;
+			c = h0 >>> 26;
+			h0 &= MASK_26;
+			h1 += c;
+		}
+		// Fully carry h
+		long c = h1 >>> 26;
+		h1 &= MASK_26;
+		h2 += c;
+		c = h2 >>> 26;
+		h2 &= MASK_26;
+		h3 += c;
+		c = h3 >>> 26;
+		h3 &= MASK_26;
+		h4 += c;
+		c = h4 >>> 26;
+		h4 &= MASK_26;
+		h0 += c * 5;
+		c = h0 >>> 26;
+		h0 &= MASK_26;
+		h1 += c;
+		// Compute h - p = h + 5 - 2^130
+		long g0 = h0 + 5;
+		c = g0 >>> 26;
+		g0 &= MASK_26;
+		long g1 = h1 + c;
+		c = g1 >>> 26;
+		g1 &= MASK_26;
+		long g2 = h2 + c;
+		c = g2 >>> 26;
+		g2 &= MASK_26;
+		long g3 = h3 + c;
+		c = g3 >>> 26;
+		g3 &= MASK_26;
+		long g4 = h4 + c - (1 << 26);
+		// Select h - p if it's non-negative, otherwise h, in constant time
+		long select = (g4 >>> 63) - 1;
+		h0 = (h0 & ~select) | (g0 & select);
+		h1 = (h1 & ~select) | (g1 & select);
+		h2 = (h2 & ~select) | (g2 & select);
+		h3 = (h3 & ~select) | (g3 & select);
+		h4 = (h4 & ~select) | (g4 & select);
+		// Convert h to 32-bit words mod 2^128 and add s
+		long f0 = ((h0 | (h1 << 26)) & MASK_32) + (readInt(k, 16) & MASK_32);
+		long f1 = (((h1 >>> 6) | (h2 << 20)) & MASK_32)
+				+ (readInt(k, 20) & MASK_32) + (f0 >>> 32);
+		long f2 = (((h2 >>> 12) | (h3 << 14)) & MASK_32)
+				+ (readInt(k, 24) & MASK_32) + (f1 >>> 32);
+		long f3 = (((h3 >>> 18) | (h4 << 8)) & MASK_32)
+				+ (readInt(k, 28) & MASK_32) + (f2 >>> 32);
+		writeInt((int) f0, out, outOff);
+		writeInt((int) f1, out, outOff + 4);
+		writeInt((int) f2, out, outOff + 8);
+		writeInt((int) f3, out, outOff + 12);
+	}
+
+	/**
+	 * Applies the Salsa20 core to the input. If addInput is true, the input
+	 * is added to the result, producing a keystream block. Otherwise the
+	 * result is used by HSalsa20.
+	 */
+	private static void salsa20(int[] input, int[] output, boolean addInput) {
+		int x0 = input[0], x1 = input[1], x2 = input[2], x3 = input[3];
+		int x4 = input[4], x5 = input[5], x6 = input[6], x7 = input[7];
+		int x8 = input[8], x9 = input[9], x10 = input[10], x11 = input[11];
+		int x12 = input[12], x13 = input[13], x14 = input[14];
+		int x15 = input[15];
+		for (int i = 0; i < 10; i++) {
+			// Column round
+			x4 ^= Integer.rotateLeft(x0 + x12, 7);
+			x8 ^= Integer.rotateLeft(x4 + x0, 9);
+			x12 ^= Integer.rotateLeft(x8 + x4, 13);
+			x0 ^= Integer.rotateLeft(x12 + x8, 18);
+			x9 ^= Integer.rotateLeft(x5 + x1, 7);
+			x13 ^= Integer.rotateLeft(x9 + x5, 9);
+			x1 ^= Integer.rotateLeft(x13 + x9, 13);
+			x5 ^= Integer.rotateLeft(x1 + x13, 18);
+			x14 ^= Integer.rotateLeft(x10 + x6, 7);
+			x2 ^= Integer.rotateLeft(x14 + x10, 9);
+			x6 ^= Integer.rotateLeft(x2 + x14, 13);
+			x10 ^= Integer.rotateLeft(x6 + x2, 18);
+			x3 ^= Integer.rotateLeft(x15 + x11, 7);
+			x7 ^= Integer.rotateLeft(x3 + x15, 9);
+			x11 ^= Integer.rotateLeft(x7 + x3, 13);
+			x15 ^= Integer.rotateLeft(x11 + x7, 18);
+			// Row round
+			x1 ^= Integer.rotateLeft(x0 + x3, 7);
+			x2 ^= Integer.rotateLeft(x1 + x0, 9);
+			x3 ^= Integer.rotateLeft(x2 + x1, 13);
+			x0 ^= Integer.rotateLeft(x3 + x2, 18);
+			x6 ^= Integer.rotateLeft(x5 + x4, 7);
+			x7 ^= Integer.rotateLeft(x6 + x5, 9);
+			x4 ^= Integer.rotateLeft(x7 + x6, 13);
+			x5 ^= Integer.rotateLeft(x4 + x7, 18);
+			x11 ^= Integer.rotateLeft(x10 + x9, 7);
+			x8 ^= Integer.rotateLeft(x11 + x10, 9);
+			x9 ^= Integer.rotateLeft(x8 + x11, 13);
+			x10 ^= Integer.rotateLeft(x9 + x8, 18);
+			x12 ^= Integer.rotateLeft(x15 + x14, 7);
+			x13 ^= Integer.rotateLeft(x12 + x15, 9);
+			x14 ^= Integer.rotateLeft(x13 + x12, 13);
+			x15 ^= Integer.rotateLeft(x14 + x13, 18);
+		}
+		if (addInput) {
+			output[0] = x0 + input[0];
+			output[1] = x1 + input[1];
+			output[2] = x2 + input[2];
+			output[3] = x3 + input[3];
+			output[4] = x4 + input[4];
+			output[5] = x5 + input[5];
+			output[6] = x6 + input[6];
+			output[7] = x7 + input[7];
+			output[8] = x8 + input[8];
+			output[9] = x9 + input[9];
+			output[10] = x10 + input[10];
+			output[11] = x11 + input[11];
+			output[12] = x12 + input[12];
+			output[13] = x13 + input[13];
+			output[14] = x14 + input[14];
+			output[15] = x15 + input[15];
+		} else {
+			output[0] = x0;
+			output[1] = x1;
+			output[2] = x2;
+			output[3] = x3;
+			output[4] = x4;
+			output[5] = x5;
+			output[6] = x6;
+			output[7] = x7;
+			output[8] = x8;
+			output[9] = x9;
+			output[10] = x10;
+			output[11] = x11;
+			output[12] = x12;
+			output[13] = x13;
+			output[14] = x14;
+			output[15] = x15;
+		}
+	}
+
+	private static int readInt(byte[] b, int off) {
+		return (b[off] & 0xFF) | ((b[off + 1] & 0xFF) << 8)
+				| ((b[off + 2] & 0xFF) << 16) | ((b[off + 3] & 0xFF) << 24);
+	}
+
+	private static void writeInt(int i, byte[] b, int off) {
+		b[off] = (byte) i;
+		b[off + 1] = (byte) (i >>> 8);
+		b[off + 2] = (byte) (i >>> 16);
+		b[off + 3] = (byte) (i >>> 24);
+	}
+}
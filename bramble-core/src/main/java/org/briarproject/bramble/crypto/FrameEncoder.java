@@ -5,7 +5,7 @@ import org.briarproject.bramble.util.ByteUtils;
 
 import static org.briarproject.bramble.api.transport.TransportConstants.FRAME_HEADER_PLAINTEXT_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.FRAME_NONCE_LENGTH;
-import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYLOAD_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_LARGE_PAYLOAD_LENGTH;
 import static org.briarproject.bramble.util.ByteUtils.INT_16_BYTES;
 import static org.briarproject.bramble.util.ByteUtils.INT_64_BYTES;
 
@@ -27,7 +27,8 @@ class FrameEncoder {
 			throw new IllegalArgumentException();
 		if (payloadLength < 0) throw new IllegalArgumentException();
 		if (paddingLength < 0) throw new IllegalArgumentException();
-		if (payloadLength + paddingLength > MAX_PAYLOAD_LENGTH)
+		// The caller checks the limit for the stream's frame length
+		if (payloadLength + paddingLength > MAX_LARGE_PAYLOAD_LENGTH)
 			throw new IllegalArgumentException();
 		ByteUtils.writeUint16(payloadLength, dest, 0);
 		ByteUtils.writeUint16(paddingLength, dest, INT_16_BYTES);
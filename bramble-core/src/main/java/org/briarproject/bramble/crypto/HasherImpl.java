@@ -0,0 +1,63 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.crypto.Hasher;
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.util.ByteUtils;
+import org.briarproject.bramble.util.StringUtils;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static org.briarproject.bramble.util.ByteUtils.INT_32_BYTES;
+
+@NotThreadSafe
+@NotNullByDefault
+class HasherImpl implements Hasher {
+
+	private final ReusableBlake2bDigest digest = new ReusableBlake2bDigest();
+	private final byte[] length = new byte[INT_32_BYTES];
+
+	@Override
+	public void startHash(String label) {
+		digest.setKey(null);
+		addLabel(label);
+	}
+
+	@Override
+	public void startMac(String label, SecretKey macKey) {
+		digest.setKey(macKey.getBytes());
+		addLabel(label);
+	}
+
+	@Override
+	public void addInput(byte[] input) {
+		addInput(input, 0, input.length);
+	}
+
+	@Override
+	public void addInput(byte[] input, int off, int len) {
+		ByteUtils.writeUint32(len, length, 0);
+		digest.update(length, 0, length.length);
+		digest.update(input, off, len);
+	}
+
+	@Override
+	public void finish(byte[] output, int off) {
+		digest.doFinal(output, off);
+	}
+
+	private void addLabel(String label) {
+		// If the label is ASCII, its UTF-8 encoding is one byte per char, so
+		// the label can be added without encoding it into a new array
+		int chars = label.length();
+		for (int i = 0; i < chars; i++) {
+			if (label.charAt(i) >= 0x80) {
+				addInput(StringUtils.toUtf8(label));
+				return;
+			}
+		}
+		ByteUtils.writeUint32(chars, length, 0);
+		digest.update(length, 0, length.length);
+		for (int i = 0; i < chars; i++) digest.update((byte) label.charAt(i));
+	}
+}
@@ -0,0 +1,208 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.spongycastle.crypto.Digest;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * An implementation of BLAKE2b (RFC 7693) with a 256-bit output, which can
+ * be used either unkeyed or keyed.
+ * <p>
+ * Unlike {@link org.spongycastle.crypto.digests.Blake2bDigest}, the key can
+ * be changed without creating a new instance, and neither rekeying,
+ * resetting nor finishing a hash allocates, so one instance can be reused
+ * for any number of hashes and MACs.
+ */
+@NotThreadSafe
+@NotNullByDefault
+class ReusableBlake2bDigest implements Digest {
+
+	static final int DIGEST_LENGTH = 32;
+	static final int MAX_KEY_LENGTH = 64;
+
+	private static final int BLOCK_LENGTH = 128;
+	private static final int ROUNDS = 12;
+
+	private static final long[] IV = {
+			0x6a09e667f3bcc908L, 0xbb67ae8584caa73bL,
+			0x3c6ef372fe94f82bL, 0xa54ff53a5f1d36f1L,
+			0x510e527fade682d1L, 0x9b05688c2b3e6c1fL,
+			0x1f83d9abfb41bd6bL, 0x5be0cd19137e2179L
+	};
+
+	private static final byte[][] SIGMA = {
+			{0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15},
+			{14, 10, 4, 8, 9, 15, 13, 6, 1, 12, 0, 2, 11, 7, 5, 3},
+			{11, 8, 12, 0, 5, 2, 15, 13, 10, 14, 3, 6, 7, 1, 9, 4},
+			{7, 9, 3, 1, 13, 12, 11, 14, 2, 6, 5, 10, 4, 0, 15, 8},
+			{9, 0, 5, 7, 2, 4, 10, 15, 14, 1, 11, 12, 6, 8, 3, 13},
+			{2, 12, 6, 10, 0, 11, 8, 3, 4, 13, 7, 5, 15, 14, 1, 9},
+			{12, 5, 1, 15, 14, 13, 4, 10, 0, 7, 6, 3, 9, 2, 8, 11},
+			{13, 11, 7, 14, 12, 1, 3, 9, 5, 0, 15, 4, 8, 6, 2, 10},
+			{6, 15, 14, 9, 11, 3, 0, 8, 12, 2, 13, 7, 1, 4, 10, 5},
+			{10, 2, 8, 4, 7, 6, 1, 5, 15, 11, 9, 14, 3, 12, 13, 0},
+			{0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15},
+			{14, 10, 4, 8, 9, 15, 13, 6, 1, 12, 0, 2, 11, 7, 5, 3}
+	};
+
+	private final byte[] key = new byte[MAX_KEY_LENGTH];
+	private final byte[] buffer = new byte[BLOCK_LENGTH];
+	private final long[] chainValue = new long[8];
+	private final long[] state = new long[16];
+	private final long[] message = new long[16];
+
+	private int keyLength = 0, bufferPos = 0;
+	private long counterLow = 0, counterHigh = 0;
+
+	ReusableBlake2bDigest() {
+		reset();
+	}
+
+	/**
+	 * Sets the key for subsequent hashes and resets the digest. If the key
+	 * is null, subsequent hashes are unkeyed.
+	 */
+	void setKey(@Nullable byte[] key) {
+		if (key == null) {
+			keyLength = 0;
+		} else {
+			if (key.length > MAX_KEY_LENGTH)
+				throw new IllegalArgumentException();
+			System.arraycopy(key, 0, this.key, 0, key.length);
+			keyLength = key.length;
+		}
+		reset();
+	}
+
+	@Override
+	public String getAlgorithmName() {
+		return "BLAKE2b";
+	}
+
+	@Override
+	public int getDigestSize() {
+		return DIGEST_LENGTH;
+	}
+
+	@Override
+	public void update(byte b) {
+		// If the buffer is full and more input follows, compress the buffer
+		if (bufferPos == BLOCK_LENGTH) {
+			compress(buffer, 0, BLOCK_LENGTH, false);
+			bufferPos = 0;
+		}
+		buffer[bufferPos++] = b;
+	}
+
+	@Override
+	public void update(byte[] in, int off, int len) {
+		if (off < 0 || len < 0 || off + len > in.length)
+			throw new IllegalArgumentException();
+		if (len == 0) return;
+		// The last block is kept in the buffer until the hash is finished,
+		// because it's compressed differently from the other blocks
+		if (bufferPos > 0) {
+			int n = Math.min(len, BLOCK_LENGTH - bufferPos);
+			System.arraycopy(in, off, buffer, bufferPos, n);
+			bufferPos += n;
+			off += n;
+			len -= n;
+			if (len == 0) return;
+			compress(buffer, 0, BLOCK_LENGTH, false);
+			bufferPos = 0;
+		}
+		// Compress any whole blocks that are followed by more input
+		// directly from the input
+		while (len > BLOCK_LENGTH) {
+			compress(in, off, BLOCK_LENGTH, false);
+			off += BLOCK_LENGTH;
+			len -= BLOCK_LENGTH;
+		}
+		System.arraycopy(in, off, buffer, 0, len);
+		bufferPos = len;
+	}
+
+	@Override
+	public int doFinal(byte[] out, int outOff) {
+		if (outOff < 0 || outOff + DIGEST_LENGTH > out.length)
+			throw new IllegalArgumentException();
+		for (int i = bufferPos; i < BLOCK_LENGTH; i++) buffer[i] = 0;
+		compress(buffer, 0, bufferPos, true);
+		for (int i = 0; i < DIGEST_LENGTH / 8; i++)
+			writeLongLittleEndian(chainValue[i], out, outOff + i * 8);
+		reset();
+		return DIGEST_LENGTH;
+	}
+
+	@Override
+	public void reset() {
+		System.arraycopy(IV, 0, chainValue, 0, IV.length);
+		// Parameter block: digest length, key length, fanout 1, depth 1
+		chainValue[0] ^= 0x01010000L ^ (keyLength << 8) ^ DIGEST_LENGTH;
+		counterLow = 0;
+		counterHigh = 0;
+		if (keyLength == 0) {
+			bufferPos = 0;
+		} else {
+			// The key is padded to a block and processed as the first block
+			System.arraycopy(key, 0, buffer, 0, keyLength);
+			for (int i = keyLength; i < BLOCK_LENGTH; i++) buffer[i] = 0;
+			bufferPos = BLOCK_LENGTH;
+		}
+	}
+
+	private void compress(byte[] block, int off, int len, boolean last) {
+		// Increment the 128-bit byte counter
+		counterLow += len;
+		if (Long.MIN_VALUE + counterLow < Long.MIN_VALUE + len) counterHigh++;
+		for (int i = 0; i < 16; i++)
+			message[i] = readLongLittleEndian(block, off + i * 8);
+		long[] v = state;
+		System.arraycopy(chainValue, 0, v, 0, 8);
+		System.arraycopy(IV, 0, v, 8, 8);
+		v[12] ^= counterLow;
+		v[13] ^= counterHigh;
+		if (last) v[14] = ~v[14];
+		for (int r = 0; r < ROUNDS; r++) {
+			byte[] s = SIGMA[r];
+			mix(0, 4, 8, 12, message[s[0]], message[s[1]]);
+			mix(1, 5, 9, 13, message[s[2]], message[s[3]]);
+			mix(2, 6, 10, 14, message[s[4]], message[s[5]]);
+			mix(3, 7, 11, 15, message[s[6]], message[s[7]]);
+			mix(0, 5, 10, 15, message[s[8]], message[s[9]]);
+			mix(1, 6, 11, 12, message[s[10]], message[s[11]]);
+			mix(2, 7, 8, 13, message[s[12]], message[s[13]]);
+			mix(3, 4, 9, 14, message[s[14]], message[s[15]]);
+		}
+		for (int i = 0; i < 8; i++) chainValue[i] ^= v[i] ^ v[i + 8];
+	}
+
+	private void mix(int a, int b, int c, int d, long x, long y) {
+		long[] v = state;
+		v[a] = v[a] + v[b] + x;
+		v[d] = Long.rotateRight(v[d] ^ v[a], 32);
+		v[c] = v[c] + v[d];
+		v[b] = Long.rotateRight(v[b] ^ v[c], 24);
+		v[a] = v[a] + v[b] + y;
+		v[d] = Long.rotateRight(v[d] ^ v[a], 16);
+		v[c] = v[c] + v[d];
+		v[b] = Long.rotateRight(v[b] ^ v[c], 63);
+	}
+
+	private static long readLongLittleEndian(byte[] b, int off) {
+		return (b[off] & 0xFFL)
+				| ((b[off + 1] & 0xFFL) << 8)
+				| ((b[off + 2] & 0xFFL) << 16)
+				| ((b[off + 3] & 0xFFL) << 24)
+				| ((b[off + 4] & 0xFFL) << 32)
+				| ((b[off + 5] & 0xFFL) << 40)
+				| ((b[off + 6] & 0xFFL) << 48)
+				| ((b[off + 7] & 0xFFL) << 56);
+	}
+
+	private static void writeLongLittleEndian(long l, byte[] b, int off) {
+		for (int i = 0; i < 8; i++) b[off + i] = (byte) (l >>> (i * 8));
+	}
+}
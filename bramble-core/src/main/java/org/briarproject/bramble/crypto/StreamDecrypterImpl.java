@@ -17,8 +17,11 @@ import javax.annotation.concurrent.NotThreadSafe;
 import static org.briarproject.bramble.api.transport.TransportConstants.FRAME_HEADER_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.FRAME_HEADER_PLAINTEXT_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.FRAME_NONCE_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.LARGE_FRAMES_FLAG;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAC_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAX_FRAME_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_LARGE_FRAME_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_LARGE_PAYLOAD_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYLOAD_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.PROTOCOL_VERSION;
 import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_LENGTH;
@@ -35,10 +38,12 @@ class StreamDecrypterImpl implements StreamDecrypter {
 	private final AuthenticatedCipher cipher;
 	private final long streamNumber;
 	private final SecretKey streamHeaderKey;
-	private final byte[] frameNonce, frameHeader, frameCiphertext;
+	private final byte[] frameNonce, frameHeader;
 
 	@Nullable
 	private SecretKey frameKey;
+	private byte[] frameCiphertext;
+	private int maxPayloadLength;
 	private long frameNumber;
 	private boolean finalFrame;
 
@@ -50,8 +55,11 @@ class StreamDecrypterImpl implements StreamDecrypter {
 		this.streamHeaderKey = streamHeaderKey;
 		frameNonce = new byte[FRAME_NONCE_LENGTH];
 		frameHeader = new byte[FRAME_HEADER_PLAINTEXT_LENGTH];
-		frameCiphertext = new byte[MAX_FRAME_LENGTH];
 		frameKey = null;
+		// Replaced when the stream header is read if the stream uses large
+		// frames
+		frameCiphertext = new byte[MAX_FRAME_LENGTH];
+		maxPayloadLength = MAX_PAYLOAD_LENGTH;
 		frameNumber = 0;
 		finalFrame = false;
 	}
@@ -66,6 +74,10 @@ class StreamDecrypterImpl implements StreamDecrypter {
 		if (frameNumber < 0) throw new IOException();
 		// Read the stream header if required
 		if (frameKey == null) readStreamHeader();
+		// If the stream uses large frames, the buffer must be big enough for
+		// a full-size large frame. The caller didn't expect large frames, so
+		// treat the stream as invalid
+		if (payload.length < maxPayloadLength) throw new FormatException();
 		// Read the frame header
 		int offset = 0;
 		while (offset < FRAME_HEADER_LENGTH) {
@@ -89,7 +101,7 @@ class StreamDecrypterImpl implements StreamDecrypter {
 		finalFrame = FrameEncoder.isFinalFrame(frameHeader);
 		int payloadLength = FrameEncoder.getPayloadLength(frameHeader);
 		int paddingLength = FrameEncoder.getPaddingLength(frameHeader);
-		if (payloadLength + paddingLength > MAX_PAYLOAD_LENGTH)
+		if (payloadLength + paddingLength > maxPayloadLength)
 			throw new FormatException();
 		// Read the payload and padding
 		int frameLength = FRAME_HEADER_LENGTH + payloadLength + paddingLength
@@ -144,9 +156,12 @@ class StreamDecrypterImpl implements StreamDecrypter {
 		} catch (GeneralSecurityException e) {
 			throw new FormatException();
 		}
-		// Check the protocol version
+		// Check the protocol version and whether the stream uses large frames
 		int receivedProtocolVersion =
 				ByteUtils.readUint16(streamHeaderPlaintext, 0);
+		boolean largeFrames =
+				(receivedProtocolVersion & LARGE_FRAMES_FLAG) != 0;
+		receivedProtocolVersion &= ~LARGE_FRAMES_FLAG;
 		if (receivedProtocolVersion != PROTOCOL_VERSION)
 			throw new FormatException();
 		// Check the stream number
@@ -158,5 +173,9 @@ class StreamDecrypterImpl implements StreamDecrypter {
 		System.arraycopy(streamHeaderPlaintext, INT_16_BYTES + INT_64_BYTES,
 				frameKeyBytes, 0, SecretKey.LENGTH);
 		frameKey = new SecretKey(frameKeyBytes);
+		if (largeFrames) {
+			frameCiphertext = new byte[MAX_LARGE_FRAME_LENGTH];
+			maxPayloadLength = MAX_LARGE_PAYLOAD_LENGTH;
+		}
 	}
 }
\ No newline at end of file
@@ -38,6 +38,12 @@ class StreamEncrypterFactoryImpl implements StreamEncrypterFactory {
 	@Override
 	public StreamEncrypter createStreamEncrypter(OutputStream out,
 			StreamContext ctx) {
+		return createStreamEncrypter(out, ctx, false);
+	}
+
+	@Override
+	public StreamEncrypter createStreamEncrypter(OutputStream out,
+			StreamContext ctx, boolean largeFrames) {
 		AuthenticatedCipher cipher = cipherProvider.get();
 		long streamNumber = ctx.getStreamNumber();
 		byte[] tag = new byte[TAG_LENGTH];
@@ -47,7 +53,7 @@ class StreamEncrypterFactoryImpl implements StreamEncrypterFactory {
 		crypto.getSecureRandom().nextBytes(streamHeaderNonce);
 		SecretKey frameKey = crypto.generateSecretKey();
 		return new StreamEncrypterImpl(out, cipher, streamNumber, tag,
-				streamHeaderNonce, ctx.getHeaderKey(), frameKey);
+				streamHeaderNonce, ctx.getHeaderKey(), frameKey, largeFrames);
 	}
 
 	@Override
@@ -9,8 +9,6 @@ import org.briarproject.bramble.api.transport.OutgoingKeys;
 import org.briarproject.bramble.api.transport.TransportKeys;
 import org.briarproject.bramble.util.ByteUtils;
 import org.briarproject.bramble.util.StringUtils;
-import org.spongycastle.crypto.Digest;
-import org.spongycastle.crypto.digests.Blake2bDigest;
 
 import javax.inject.Inject;
 
@@ -28,6 +26,15 @@ import static org.briarproject.bramble.util.ByteUtils.MAX_32_BIT_UNSIGNED;
 class TransportCryptoImpl implements TransportCrypto {
 
 	private final CryptoComponent crypto;
+	// Each thread reuses its own PRF and buffers, so encoding tags doesn't
+	// allocate
+	private final ThreadLocal<TagEncoder> tagEncoders =
+			new ThreadLocal<TagEncoder>() {
+				@Override
+				protected TagEncoder initialValue() {
+					return new TagEncoder();
+				}
+			};
 
 	@Inject
 	TransportCryptoImpl(CryptoComponent crypto) {
@@ -118,21 +125,28 @@ class TransportCryptoImpl implements TransportCrypto {
 		if (streamNumber < 0 || streamNumber > MAX_32_BIT_UNSIGNED)
 			throw new IllegalArgumentException();
 		// Initialise the PRF
-		Digest prf = new Blake2bDigest(tagKey.getBytes(), 32, null, null);
+		TagEncoder encoder = tagEncoders.get();
+		ReusableBlake2bDigest prf = encoder.prf;
+		prf.setKey(tagKey.getBytes());
 		// The output of the PRF must be long enough to use as a tag
 		int macLength = prf.getDigestSize();
 		if (macLength < TAG_LENGTH) throw new IllegalStateException();
 		// The input is the protocol version as a 16-bit integer, followed by
 		// the stream number as a 64-bit integer
-		byte[] protocolVersionBytes = new byte[INT_16_BYTES];
-		ByteUtils.writeUint16(protocolVersion, protocolVersionBytes, 0);
-		prf.update(protocolVersionBytes, 0, protocolVersionBytes.length);
-		byte[] streamNumberBytes = new byte[INT_64_BYTES];
-		ByteUtils.writeUint64(streamNumber, streamNumberBytes, 0);
-		prf.update(streamNumberBytes, 0, streamNumberBytes.length);
-		byte[] mac = new byte[macLength];
+		byte[] input = encoder.input;
+		ByteUtils.writeUint16(protocolVersion, input, 0);
+		ByteUtils.writeUint64(streamNumber, input, INT_16_BYTES);
+		prf.update(input, 0, input.length);
+		byte[] mac = encoder.mac;
 		prf.doFinal(mac, 0);
 		// The output is the first TAG_LENGTH bytes of the MAC
 		System.arraycopy(mac, 0, tag, 0, TAG_LENGTH);
 	}
+
+	private static class TagEncoder {
+
+		private final ReusableBlake2bDigest prf = new ReusableBlake2bDigest();
+		private final byte[] input = new byte[INT_16_BYTES + INT_64_BYTES];
+		private final byte[] mac = new byte[prf.getDigestSize()];
+	}
 }
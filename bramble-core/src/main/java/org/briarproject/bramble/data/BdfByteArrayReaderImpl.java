@@ -0,0 +1,378 @@
+package org.briarproject.bramble.data;
+
+import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.data.BdfList;
+import org.briarproject.bramble.api.data.BdfReader;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.nio.charset.Charset;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static org.briarproject.bramble.api.data.BdfDictionary.NULL_VALUE;
+import static org.briarproject.bramble.data.Types.DICTIONARY;
+import static org.briarproject.bramble.data.Types.END;
+import static org.briarproject.bramble.data.Types.FALSE;
+import static org.briarproject.bramble.data.Types.FLOAT_64;
+import static org.briarproject.bramble.data.Types.INT_16;
+import static org.briarproject.bramble.data.Types.INT_32;
+import static org.briarproject.bramble.data.Types.INT_64;
+import static org.briarproject.bramble.data.Types.INT_8;
+import static org.briarproject.bramble.data.Types.LIST;
+import static org.briarproject.bramble.data.Types.NULL;
+import static org.briarproject.bramble.data.Types.RAW_16;
+import static org.briarproject.bramble.data.Types.RAW_32;
+import static org.briarproject.bramble.data.Types.RAW_8;
+import static org.briarproject.bramble.data.Types.STRING_16;
+import static org.briarproject.bramble.data.Types.STRING_32;
+import static org.briarproject.bramble.data.Types.STRING_8;
+import static org.briarproject.bramble.data.Types.TRUE;
+
+/**
+ * A {@link BdfReader} that reads directly from a region of a byte array.
+ * The type byte of the next object is read in place rather than being
+ * buffered, and strings are decoded straight from the array. The array
+ * must not be modified while the reader is in use.
+ */
+@NotThreadSafe
+@NotNullByDefault
+class BdfByteArrayReaderImpl implements BdfReader {
+
+	private static final byte[] EMPTY_BUFFER = new byte[0];
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final byte[] b;
+	private final int end, nestedLimit, maxBufferSize;
+
+	private int pos;
+
+	BdfByteArrayReaderImpl(byte[] b, int off, int len, int nestedLimit,
+			int maxBufferSize) {
+		if (off < 0 || len < 0 || off > b.length - len)
+			throw new IllegalArgumentException();
+		this.b = b;
+		this.nestedLimit = nestedLimit;
+		this.maxBufferSize = maxBufferSize;
+		pos = off;
+		end = off + len;
+	}
+
+	private boolean peek(byte type) {
+		return pos < end && b[pos] == type;
+	}
+
+	private void checkRemaining(int length) throws FormatException {
+		if (length > end - pos) throw new FormatException();
+	}
+
+	private void skip(int length) throws FormatException {
+		if (length < 0) throw new FormatException();
+		checkRemaining(length);
+		pos += length;
+	}
+
+	private Object readObject(int level) throws FormatException {
+		if (hasNull()) {
+			readNull();
+			return NULL_VALUE;
+		}
+		if (hasBoolean()) return readBoolean();
+		if (hasLong()) return readLong();
+		if (hasDouble()) return readDouble();
+		if (hasString()) return readString();
+		if (hasRaw()) return readRaw();
+		if (hasList()) return readList(level);
+		if (hasDictionary()) return readDictionary(level);
+		throw new FormatException();
+	}
+
+	private void skipObject() throws FormatException {
+		if (hasNull()) skipNull();
+		else if (hasBoolean()) skipBoolean();
+		else if (hasLong()) skipLong();
+		else if (hasDouble()) skipDouble();
+		else if (hasString()) skipString();
+		else if (hasRaw()) skipRaw();
+		else if (hasList()) skipList();
+		else if (hasDictionary()) skipDictionary();
+		else throw new FormatException();
+	}
+
+	@Override
+	public boolean eof() {
+		return pos == end;
+	}
+
+	@Override
+	public void close() {
+	}
+
+	@Override
+	public boolean hasNull() {
+		return peek(NULL);
+	}
+
+	@Override
+	public void readNull() throws FormatException {
+		if (!hasNull()) throw new FormatException();
+		pos++;
+	}
+
+	@Override
+	public void skipNull() throws FormatException {
+		readNull();
+	}
+
+	@Override
+	public boolean hasBoolean() {
+		return peek(FALSE) || peek(TRUE);
+	}
+
+	@Override
+	public boolean readBoolean() throws FormatException {
+		if (!hasBoolean()) throw new FormatException();
+		return b[pos++] == TRUE;
+	}
+
+	@Override
+	public void skipBoolean() throws FormatException {
+		if (!hasBoolean()) throw new FormatException();
+		pos++;
+	}
+
+	@Override
+	public boolean hasLong() {
+		if (pos == end) return false;
+		byte next = b[pos];
+		return next == INT_8 || next == INT_16 || next == INT_32 ||
+				next == INT_64;
+	}
+
+	@Override
+	public long readLong() throws FormatException {
+		if (!hasLong()) throw new FormatException();
+		byte type = b[pos++];
+		if (type == INT_8) return readInt8();
+		if (type == INT_16) return readInt16();
+		if (type == INT_32) return readInt32();
+		return readInt64();
+	}
+
+	private int readInt8() throws FormatException {
+		checkRemaining(1);
+		return b[pos++];
+	}
+
+	private short readInt16() throws FormatException {
+		checkRemaining(2);
+		short value = (short) (((b[pos] & 0xFF) << 8) + (b[pos + 1] & 0xFF));
+		pos += 2;
+		return value;
+	}
+
+	private int readInt32() throws FormatException {
+		checkRemaining(4);
+		int value = 0;
+		for (int i = 0; i < 4; i++)
+			value |= (b[pos + i] & 0xFF) << (24 - i * 8);
+		pos += 4;
+		return value;
+	}
+
+	private long readInt64() throws FormatException {
+		checkRemaining(8);
+		long value = 0;
+		for (int i = 0; i < 8; i++)
+			value |= (b[pos + i] & 0xFFL) << (56 - i * 8);
+		pos += 8;
+		return value;
+	}
+
+	@Override
+	public void skipLong() throws FormatException {
+		if (!hasLong()) throw new FormatException();
+		byte type = b[pos++];
+		if (type == INT_8) skip(1);
+		else if (type == INT_16) skip(2);
+		else if (type == INT_32) skip(4);
+		else skip(8);
+	}
+
+	@Override
+	public boolean hasDouble() {
+		return peek(FLOAT_64);
+	}
+
+	@Override
+	public double readDouble() throws FormatException {
+		if (!hasDouble()) throw new FormatException();
+		pos++;
+		return Double.longBitsToDouble(readInt64());
+	}
+
+	@Override
+	public void skipDouble() throws FormatException {
+		if (!hasDouble()) throw new FormatException();
+		pos++;
+		skip(8);
+	}
+
+	@Override
+	public boolean hasString() {
+		return peek(STRING_8) || peek(STRING_16) || peek(STRING_32);
+	}
+
+	@Override
+	public String readString() throws FormatException {
+		if (!hasString()) throw new FormatException();
+		int length = readStringLength();
+		if (length < 0 || length > maxBufferSize) throw new FormatException();
+		if (length == 0) return "";
+		checkRemaining(length);
+		String s = new String(b, pos, length, UTF_8);
+		pos += length;
+		return s;
+	}
+
+	private int readStringLength() throws FormatException {
+		byte type = b[pos++];
+		if (type == STRING_8) return readInt8();
+		if (type == STRING_16) return readInt16();
+		if (type == STRING_32) return readInt32();
+		throw new FormatException();
+	}
+
+	@Override
+	public void skipString() throws FormatException {
+		if (!hasString()) throw new FormatException();
+		skip(readStringLength());
+	}
+
+	@Override
+	public boolean hasRaw() {
+		return peek(RAW_8) || peek(RAW_16) || peek(RAW_32);
+	}
+
+	@Override
+	public byte[] readRaw() throws FormatException {
+		if (!hasRaw()) throw new FormatException();
+		int length = readRawLength();
+		if (length < 0 || length > maxBufferSize) throw new FormatException();
+		if (length == 0) return EMPTY_BUFFER;
+		checkRemaining(length);
+		byte[] raw = new byte[length];
+		System.arraycopy(b, pos, raw, 0, length);
+		pos += length;
+		return raw;
+	}
+
+	private int readRawLength() throws FormatException {
+		byte type = b[pos++];
+		if (type == RAW_8) return readInt8();
+		if (type == RAW_16) return readInt16();
+		if (type == RAW_32) return readInt32();
+		throw new FormatException();
+	}
+
+	@Override
+	public void skipRaw() throws FormatException {
+		if (!hasRaw()) throw new FormatException();
+		skip(readRawLength());
+	}
+
+	@Override
+	public boolean hasList() {
+		return peek(LIST);
+	}
+
+	@Override
+	public BdfList readList() throws FormatException {
+		return readList(1);
+	}
+
+	private BdfList readList(int level) throws FormatException {
+		if (!hasList()) throw new FormatException();
+		if (level > nestedLimit) throw new FormatException();
+		BdfList list = new BdfList();
+		readListStart();
+		while (!hasListEnd()) list.add(readObject(level + 1));
+		readListEnd();
+		return list;
+	}
+
+	@Override
+	public void readListStart() throws FormatException {
+		if (!hasList()) throw new FormatException();
+		pos++;
+	}
+
+	@Override
+	public boolean hasListEnd() {
+		return peek(END);
+	}
+
+	@Override
+	public void readListEnd() throws FormatException {
+		readEnd();
+	}
+
+	private void readEnd() throws FormatException {
+		if (!peek(END)) throw new FormatException();
+		pos++;
+	}
+
+	@Override
+	public void skipList() throws FormatException {
+		readListStart();
+		while (!hasListEnd()) skipObject();
+		pos++;
+	}
+
+	@Override
+	public boolean hasDictionary() {
+		return peek(DICTIONARY);
+	}
+
+	@Override
+	public BdfDictionary readDictionary() throws FormatException {
+		return readDictionary(1);
+	}
+
+	private BdfDictionary readDictionary(int level) throws FormatException {
+		if (!hasDictionary()) throw new FormatException();
+		if (level > nestedLimit) throw new FormatException();
+		BdfDictionary dictionary = new BdfDictionary();
+		readDictionaryStart();
+		while (!hasDictionaryEnd())
+			dictionary.put(readString(), readObject(level + 1));
+		readDictionaryEnd();
+		return dictionary;
+	}
+
+	@Override
+	public void readDictionaryStart() throws FormatException {
+		if (!hasDictionary()) throw new FormatException();
+		pos++;
+	}
+
+	@Override
+	public boolean hasDictionaryEnd() {
+		return peek(END);
+	}
+
+	@Override
+	public void readDictionaryEnd() throws FormatException {
+		readEnd();
+	}
+
+	@Override
+	public void skipDictionary() throws FormatException {
+		readDictionaryStart();
+		while (!hasDictionaryEnd()) {
+			skipString();
+			skipObject();
+		}
+		pos++;
+	}
+}
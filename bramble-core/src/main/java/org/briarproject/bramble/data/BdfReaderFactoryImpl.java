@@ -26,4 +26,17 @@ class BdfReaderFactoryImpl implements BdfReaderFactory {
 			int maxBufferSize) {
 		return new BdfReaderImpl(in, nestedLimit, maxBufferSize);
 	}
+
+	@Override
+	public BdfReader createReader(byte[] b, int off, int len) {
+		return new BdfByteArrayReaderImpl(b, off, len, DEFAULT_NESTED_LIMIT,
+				DEFAULT_MAX_BUFFER_SIZE);
+	}
+
+	@Override
+	public BdfReader createReader(byte[] b, int off, int len,
+			int nestedLimit, int maxBufferSize) {
+		return new BdfByteArrayReaderImpl(b, off, len, nestedLimit,
+				maxBufferSize);
+	}
 }
@@ -8,8 +8,8 @@ import org.briarproject.bramble.api.data.MetadataParser;
 import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Map.Entry;
 
 import javax.annotation.concurrent.Immutable;
@@ -46,9 +46,28 @@ class MetadataParserImpl implements MetadataParser {
 		return d;
 	}
 
+	@Override
+	public BdfDictionary parse(Metadata m, Collection<String> keys)
+			throws FormatException {
+		BdfDictionary d = new BdfDictionary();
+		try {
+			for (String key : keys) {
+				byte[] value = m.get(key);
+				if (value == null) continue;
+				// Special case: if key is being removed, value is null
+				if (value == REMOVE) d.put(key, NULL_VALUE);
+				else d.put(key, parseValue(value));
+			}
+		} catch (FormatException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return d;
+	}
+
 	private Object parseValue(byte[] b) throws IOException {
-		ByteArrayInputStream in = new ByteArrayInputStream(b);
-		BdfReader reader = bdfReaderFactory.createReader(in);
+		BdfReader reader = bdfReaderFactory.createReader(b, 0, b.length);
 		Object o = parseObject(reader);
 		if (!reader.eof()) throw new FormatException();
 		return o;
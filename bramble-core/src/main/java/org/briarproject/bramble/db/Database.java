@@ -1,11 +1,14 @@
 package org.briarproject.bramble.db;
 
+import org.briarproject.bramble.api.client.SessionId;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.db.DataTooNewException;
 import org.briarproject.bramble.api.db.DataTooOldException;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.MessageCounts;
+import org.briarproject.bramble.api.db.MessageCursor;
 import org.briarproject.bramble.api.db.MessageDeletedException;
 import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.db.MigrationListener;
@@ -22,12 +25,14 @@ import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.MessageStatus;
+import org.briarproject.bramble.api.sync.SendableMessage;
 import org.briarproject.bramble.api.sync.ValidationManager.State;
 import org.briarproject.bramble.api.transport.KeySet;
 import org.briarproject.bramble.api.transport.KeySetId;
 import org.briarproject.bramble.api.transport.TransportKeys;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 import javax.annotation.Nullable;
@@ -76,6 +81,14 @@ interface Database<T> {
 	 */
 	void commitTransaction(T txn) throws DbException;
 
+	/**
+	 * Returns true if the database uses multi-version concurrency control,
+	 * so a transaction can read committed data while another transaction
+	 * is writing. Each statement sees the data committed when the statement
+	 * starts, not when the transaction starts.
+	 */
+	boolean isMultiVersion();
+
 	/**
 	 * Stores a contact associated with the given local and remote pseudonyms,
 	 * and returns an ID for the contact.
@@ -266,6 +279,15 @@ interface Database<T> {
 	Collection<Group> getGroups(T txn, ClientId c, int majorVersion)
 			throws DbException;
 
+	/**
+	 * Returns the IDs of any groups for which no message counts have been
+	 * stored.
+	 * <p/>
+	 * Read-only.
+	 */
+	Collection<GroupId> getGroupsWithoutMessageCounts(T txn)
+			throws DbException;
+
 	/**
 	 * Returns the given group's visibility to the given contact, or
 	 * {@link Visibility INVISIBLE} if the group is not in the database.
@@ -344,6 +366,24 @@ interface Database<T> {
 	Collection<MessageId> getMessageIds(T txn, GroupId g, Metadata query)
 			throws DbException;
 
+	/**
+	 * Returns the message counts for the given group, or null if no counts
+	 * have been stored for the group.
+	 * <p/>
+	 * Read-only.
+	 */
+	@Nullable
+	MessageCounts getMessageCounts(T txn, GroupId g) throws DbException;
+
+	/**
+	 * Returns the message counts for any of the given groups that have
+	 * stored counts.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<GroupId, MessageCounts> getMessageCounts(T txn,
+			Collection<GroupId> groups) throws DbException;
+
 	/**
 	 * Returns the metadata for all delivered messages in the given group.
 	 * <p/>
@@ -362,6 +402,26 @@ interface Database<T> {
 	Map<MessageId, Metadata> getMessageMetadata(T txn, GroupId g,
 			Metadata query) throws DbException;
 
+	/**
+	 * Returns the metadata for any of the given messages that are delivered.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Metadata> getMessageMetadata(T txn,
+			Collection<MessageId> ids) throws DbException;
+
+	/**
+	 * Returns the cursors of up to the given number of delivered messages in
+	 * the given group with metadata that matches all entries in the given
+	 * query, ordered newest first. If a cursor is given, only messages that
+	 * come before the cursor are returned. If the query is empty, all
+	 * delivered messages are considered.
+	 * <p/>
+	 * Read-only.
+	 */
+	List<MessageCursor> getMessageCursors(T txn, GroupId g, Metadata query,
+			@Nullable MessageCursor before, int limit) throws DbException;
+
 	/**
 	 * Returns the metadata for the given delivered or pending message.
 	 * This is only meant to be used by the ValidationManager.
@@ -415,12 +475,13 @@ interface Database<T> {
 			throws DbException;
 
 	/**
-	 * Returns the IDs of some messages that are eligible to be offered to the
-	 * given contact, up to the given number of messages.
+	 * Returns some messages that are eligible to be offered to the given
+	 * contact, up to the given number of messages. The messages from each
+	 * group are the oldest eligible messages, in timestamp order.
 	 * <p/>
 	 * Read-only.
 	 */
-	Collection<MessageId> getMessagesToOffer(T txn, ContactId c,
+	Collection<SendableMessage> getMessagesToOffer(T txn, ContactId c,
 			int maxMessages, int maxLatency) throws DbException;
 
 	/**
@@ -433,13 +494,14 @@ interface Database<T> {
 			int maxMessages) throws DbException;
 
 	/**
-	 * Returns the IDs of some messages that are eligible to be sent to the
-	 * given contact, up to the given total length.
+	 * Returns some messages that are eligible to be sent to the given
+	 * contact, up to the given total length. The messages from each group
+	 * are the oldest eligible messages, in timestamp order.
 	 * <p/>
 	 * Read-only.
 	 */
-	Collection<MessageId> getMessagesToSend(T txn, ContactId c, int maxLength,
-			int maxLatency) throws DbException;
+	Collection<SendableMessage> getMessagesToSend(T txn, ContactId c,
+			int maxLength, int maxLatency) throws DbException;
 
 	/**
 	 * Returns the IDs of any messages that need to be validated.
@@ -456,6 +518,16 @@ interface Database<T> {
 	 */
 	Collection<MessageId> getPendingMessages(T txn) throws DbException;
 
+	/**
+	 * Returns the IDs of all messages that are shared with the given contact,
+	 * whether or not the contact has seen them, mapped to true if the
+	 * contact has seen the message.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Boolean> getMessagesToReconcile(T txn, ContactId c)
+			throws DbException;
+
 	/**
 	 * Returns the IDs of any messages that have a shared dependent but have
 	 * not yet been shared themselves.
@@ -475,14 +547,31 @@ interface Database<T> {
 	long getNextSendTime(T txn, ContactId c) throws DbException;
 
 	/**
-	 * Returns the IDs of some messages that are eligible to be sent to the
-	 * given contact and have been requested by the contact, up to the given
-	 * total length.
+	 * Returns some messages that are eligible to be sent to the given
+	 * contact and have been requested by the contact, up to the given total
+	 * length. The messages from each group are the oldest eligible
+	 * messages, in timestamp order.
 	 * <p/>
 	 * Read-only.
 	 */
-	Collection<MessageId> getRequestedMessagesToSend(T txn, ContactId c,
-			int maxLength, int maxLatency) throws DbException;
+	Collection<SendableMessage> getRequestedMessagesToSend(T txn,
+			ContactId c, int maxLength, int maxLatency) throws DbException;
+
+	/**
+	 * Returns the given protocol session in the given group, or null if no
+	 * such session exists.
+	 * <p/>
+	 * Read-only.
+	 */
+	@Nullable
+	byte[] getSession(T txn, GroupId g, SessionId s) throws DbException;
+
+	/**
+	 * Returns all protocol sessions in the given group.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<SessionId, byte[]> getSessions(T txn, GroupId g) throws DbException;
 
 	/**
 	 * Returns all settings in the given namespace.
@@ -499,12 +588,29 @@ interface Database<T> {
 	Collection<KeySet> getTransportKeys(T txn, TransportId t)
 			throws DbException;
 
+	/**
+	 * Counts a message in the given group: increments the message count,
+	 * increments the unread count if the message is unread, and raises the
+	 * latest message time if the message is newer. Returns false if no
+	 * counts have been stored for the group.
+	 */
+	boolean incrementMessageCounts(T txn, GroupId g, long timestamp,
+			boolean read) throws DbException;
+
 	/**
 	 * Increments the outgoing stream counter for the given transport keys.
 	 */
 	void incrementStreamCounter(T txn, TransportId t, KeySetId k)
 			throws DbException;
 
+	/**
+	 * Adds the given increment, which may be negative, to the unread count
+	 * of the given group. Returns false if no counts have been stored for the
+	 * group. Throws an exception if the unread count would become negative.
+	 */
+	boolean incrementUnreadCount(T txn, GroupId g, int increment)
+			throws DbException;
+
 	/**
 	 * Marks the given messages as not needing to be acknowledged to the
 	 * given contact.
@@ -581,6 +687,11 @@ interface Database<T> {
 	 */
 	void removeMessage(T txn, MessageId m) throws DbException;
 
+	/**
+	 * Removes a protocol session from the given group, if it exists.
+	 */
+	void removeSession(T txn, GroupId g, SessionId s) throws DbException;
+
 	/**
 	 * Removes the given offered messages that were offered by the given
 	 * contact.
@@ -628,11 +739,25 @@ interface Database<T> {
 	 */
 	void setMessageShared(T txn, MessageId m) throws DbException;
 
+	/**
+	 * Stores the given message counts for the given group, replacing any
+	 * existing counts.
+	 */
+	void setMessageCounts(T txn, GroupId g, MessageCounts counts)
+			throws DbException;
+
 	/**
 	 * Sets the validation and delivery state of the given message.
 	 */
 	void setMessageState(T txn, MessageId m, State state) throws DbException;
 
+	/**
+	 * Stores the given protocol session in the given group, replacing any
+	 * existing session with the same ID.
+	 */
+	void setSession(T txn, GroupId g, SessionId s, byte[] session)
+			throws DbException;
+
 	/**
 	 * Sets the reordering window for the given key set and transport in the
 	 * given rotation period.
@@ -1,5 +1,6 @@
 package org.briarproject.bramble.db;
 
+import org.briarproject.bramble.api.client.SessionId;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.event.ContactAddedEvent;
@@ -12,6 +13,8 @@ import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbCallable;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.DbRunnable;
+import org.briarproject.bramble.api.db.MessageCounts;
+import org.briarproject.bramble.api.db.MessageCursor;
 import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.db.MigrationListener;
 import org.briarproject.bramble.api.db.NoSuchContactException;
@@ -42,6 +45,8 @@ import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.MessageStatus;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Request;
+import org.briarproject.bramble.api.sync.SendableMessage;
+import org.briarproject.bramble.api.sync.SyncScheduler;
 import org.briarproject.bramble.api.sync.ValidationManager.State;
 import org.briarproject.bramble.api.sync.event.GroupAddedEvent;
 import org.briarproject.bramble.api.sync.event.GroupRemovedEvent;
@@ -92,17 +97,34 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 	private final Class<T> txnClass;
 	private final EventBus eventBus;
 	private final ShutdownManager shutdown;
+	private final SyncScheduler scheduler;
+	private final boolean snapshotReads;
 	private final AtomicBoolean closed = new AtomicBoolean(false);
 	private final ReentrantReadWriteLock lock =
 			new ReentrantReadWriteLock(true);
-
+	// Read-only transactions may not hold the lock, so track open
+	// transactions per thread to prevent nesting
+	private final ThreadLocal<Boolean> inTransaction = new ThreadLocal<>();
+
+	/**
+	 * @param snapshotReads true if the database uses multi-version
+	 * concurrency control, in which case read-only transactions see only
+	 * committed data without taking the read lock, so they neither wait for
+	 * nor delay write transactions. Write transactions are still serialised
+	 * by the write lock. Each statement of a read-only transaction sees the
+	 * data committed when the statement starts, so callers that make several
+	 * queries in a read-only transaction must tolerate changes between them.
+	 */
 	@Inject
 	DatabaseComponentImpl(Database<T> db, Class<T> txnClass, EventBus eventBus,
-			ShutdownManager shutdown) {
+			ShutdownManager shutdown, SyncScheduler scheduler,
+			boolean snapshotReads) {
 		this.db = db;
 		this.txnClass = txnClass;
 		this.eventBus = eventBus;
 		this.shutdown = shutdown;
+		this.scheduler = scheduler;
+		this.snapshotReads = snapshotReads;
 	}
 
 	@Override
@@ -127,24 +149,35 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 
 	@Override
 	public Transaction startTransaction(boolean readOnly) throws DbException {
-		// Don't allow reentrant locking
-		if (lock.getReadHoldCount() > 0) throw new IllegalStateException();
-		if (lock.getWriteHoldCount() > 0) throw new IllegalStateException();
+		// Don't allow nested transactions
+		if (inTransaction.get() != null) throw new IllegalStateException();
 		long start = now();
 		if (readOnly) {
-			lock.readLock().lock();
-			logDuration(LOG, "Waiting for read lock", start);
+			if (!snapshotReads) {
+				lock.readLock().lock();
+				logDuration(LOG, "Waiting for read lock", start);
+			}
 		} else {
 			lock.writeLock().lock();
 			logDuration(LOG, "Waiting for write lock", start);
 		}
+		Transaction txn;
 		try {
-			return new Transaction(db.startTransaction(), readOnly);
+			txn = new Transaction(db.startTransaction(), readOnly);
 		} catch (DbException | RuntimeException e) {
-			if (readOnly) lock.readLock().unlock();
-			else lock.writeLock().unlock();
+			unlock(readOnly);
 			throw e;
 		}
+		inTransaction.set(true);
+		return txn;
+	}
+
+	private void unlock(boolean readOnly) {
+		if (readOnly) {
+			if (!snapshotReads) lock.readLock().unlock();
+		} else {
+			lock.writeLock().unlock();
+		}
 	}
 
 	@Override
@@ -161,8 +194,8 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 			T txn = txnClass.cast(transaction.unbox());
 			if (!transaction.isCommitted()) db.abortTransaction(txn);
 		} finally {
-			if (transaction.isReadOnly()) lock.readLock().unlock();
-			else lock.writeLock().unlock();
+			inTransaction.remove();
+			unlock(transaction.isReadOnly());
 		}
 		if (transaction.isCommitted())
 			for (Event e : transaction.getEvents()) eventBus.broadcast(e);
@@ -340,8 +373,9 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		T txn = unbox(transaction);
 		if (!db.containsContact(txn, c))
 			throw new NoSuchContactException();
-		Collection<MessageId> ids =
-				db.getMessagesToSend(txn, c, maxLength, maxLatency);
+		Collection<MessageId> ids = takeUpToLength(scheduler.schedule(
+				db.getMessagesToSend(txn, c, maxLength, maxLatency)),
+				maxLength);
 		List<Message> messages = new ArrayList<>(ids.size());
 		for (MessageId m : ids) {
 			messages.add(db.getMessage(txn, m));
@@ -361,9 +395,13 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		T txn = unbox(transaction);
 		if (!db.containsContact(txn, c))
 			throw new NoSuchContactException();
-		Collection<MessageId> ids =
-				db.getMessagesToOffer(txn, c, maxMessages, maxLatency);
-		if (ids.isEmpty()) return null;
+		List<SendableMessage> scheduled = scheduler.schedule(
+				db.getMessagesToOffer(txn, c, maxMessages, maxLatency));
+		if (scheduled.isEmpty()) return null;
+		int size = Math.min(maxMessages, scheduled.size());
+		List<MessageId> ids = new ArrayList<>(size);
+		for (SendableMessage m : scheduled.subList(0, size))
+			ids.add(m.getMessageId());
 		for (MessageId m : ids)
 			db.updateExpiryTimeAndEta(txn, c, m, maxLatency);
 		return new Offer(ids);
@@ -392,8 +430,9 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		T txn = unbox(transaction);
 		if (!db.containsContact(txn, c))
 			throw new NoSuchContactException();
-		Collection<MessageId> ids =
-				db.getRequestedMessagesToSend(txn, c, maxLength, maxLatency);
+		Collection<MessageId> ids = takeUpToLength(scheduler.schedule(
+				db.getRequestedMessagesToSend(txn, c, maxLength, maxLatency)),
+				maxLength);
 		List<Message> messages = new ArrayList<>(ids.size());
 		for (MessageId m : ids) {
 			messages.add(db.getMessage(txn, m));
@@ -405,6 +444,22 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return messages;
 	}
 
+	/**
+	 * Returns the IDs of the longest prefix of the given list of messages
+	 * that fits within the given total length.
+	 */
+	private List<MessageId> takeUpToLength(List<SendableMessage> scheduled,
+			int maxLength) {
+		List<MessageId> ids = new ArrayList<>();
+		int total = 0;
+		for (SendableMessage m : scheduled) {
+			if (total + m.getLength() > maxLength) break;
+			ids.add(m.getMessageId());
+			total += m.getLength();
+		}
+		return ids;
+	}
+
 	@Override
 	public Contact getContact(Transaction transaction, ContactId c)
 			throws DbException {
@@ -462,6 +517,13 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getGroups(txn, c, majorVersion);
 	}
 
+	@Override
+	public Collection<GroupId> getGroupsWithoutMessageCounts(
+			Transaction transaction) throws DbException {
+		T txn = unbox(transaction);
+		return db.getGroupsWithoutMessageCounts(txn);
+	}
+
 	@Override
 	public Visibility getGroupVisibility(Transaction transaction, ContactId c,
 			GroupId g) throws DbException {
@@ -519,6 +581,15 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getPendingMessages(txn);
 	}
 
+	@Override
+	public Map<MessageId, Boolean> getMessagesToReconcile(
+			Transaction transaction, ContactId c) throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsContact(txn, c))
+			throw new NoSuchContactException();
+		return db.getMessagesToReconcile(txn, c);
+	}
+
 	@Override
 	public Collection<MessageId> getMessagesToShare(Transaction transaction)
 			throws DbException {
@@ -526,6 +597,24 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getMessagesToShare(txn);
 	}
 
+	@Nullable
+	@Override
+	public MessageCounts getMessageCounts(Transaction transaction, GroupId g)
+			throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		return db.getMessageCounts(txn, g);
+	}
+
+	@Override
+	public Map<GroupId, MessageCounts> getMessageCounts(
+			Transaction transaction, Collection<GroupId> groups)
+			throws DbException {
+		T txn = unbox(transaction);
+		return db.getMessageCounts(txn, groups);
+	}
+
 	@Override
 	public Map<MessageId, Metadata> getMessageMetadata(Transaction transaction,
 			GroupId g) throws DbException {
@@ -544,6 +633,24 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getMessageMetadata(txn, g, query);
 	}
 
+	@Override
+	public Map<MessageId, Metadata> getMessageMetadata(Transaction transaction,
+			Collection<MessageId> ids) throws DbException {
+		T txn = unbox(transaction);
+		return db.getMessageMetadata(txn, ids);
+	}
+
+	@Override
+	public List<MessageCursor> getMessageCursors(Transaction transaction,
+			GroupId g, Metadata query, @Nullable MessageCursor before,
+			int limit) throws DbException {
+		if (limit <= 0) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		return db.getMessageCursors(txn, g, query, before, limit);
+	}
+
 	@Override
 	public Metadata getMessageMetadata(Transaction transaction, MessageId m)
 			throws DbException {
@@ -628,6 +735,25 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getNextSendTime(txn, c);
 	}
 
+	@Nullable
+	@Override
+	public byte[] getSession(Transaction transaction, GroupId g, SessionId s)
+			throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		return db.getSession(txn, g, s);
+	}
+
+	@Override
+	public Map<SessionId, byte[]> getSessions(Transaction transaction,
+			GroupId g) throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		return db.getSessions(txn, g);
+	}
+
 	@Override
 	public Settings getSettings(Transaction transaction, String namespace)
 			throws DbException {
@@ -644,6 +770,16 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getTransportKeys(txn, t);
 	}
 
+	@Override
+	public boolean incrementMessageCounts(Transaction transaction, GroupId g,
+			long timestamp, boolean read) throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		return db.incrementMessageCounts(txn, g, timestamp, read);
+	}
+
 	@Override
 	public void incrementStreamCounter(Transaction transaction, TransportId t,
 			KeySetId k) throws DbException {
@@ -654,6 +790,16 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		db.incrementStreamCounter(txn, t, k);
 	}
 
+	@Override
+	public boolean incrementUnreadCount(Transaction transaction, GroupId g,
+			int increment) throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		return db.incrementUnreadCount(txn, g, increment);
+	}
+
 	@Override
 	public void mergeGroupMetadata(Transaction transaction, GroupId g,
 			Metadata meta) throws DbException {
@@ -817,6 +963,16 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		db.removeMessage(txn, m);
 	}
 
+	@Override
+	public void removeSession(Transaction transaction, GroupId g, SessionId s)
+			throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		db.removeSession(txn, g, s);
+	}
+
 	@Override
 	public void removeTransport(Transaction transaction, TransportId t)
 			throws DbException {
@@ -877,6 +1033,16 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		transaction.attach(new GroupVisibilityUpdatedEvent(affected));
 	}
 
+	@Override
+	public void setMessageCounts(Transaction transaction, GroupId g,
+			MessageCounts counts) throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		db.setMessageCounts(txn, g, counts);
+	}
+
 	@Override
 	public void setMessageShared(Transaction transaction, MessageId m)
 			throws DbException {
@@ -902,6 +1068,16 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		transaction.attach(new MessageStateChangedEvent(m, false, state));
 	}
 
+	@Override
+	public void setSession(Transaction transaction, GroupId g, SessionId s,
+			byte[] session) throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		db.setSession(txn, g, s, session);
+	}
+
 	@Override
 	public void addMessageDependencies(Transaction transaction,
 			Message dependent, Collection<MessageId> dependencies)
@@ -2,6 +2,7 @@ package org.briarproject.bramble.db;
 
 import org.briarproject.bramble.TimeLoggingExecutor;
 import org.briarproject.bramble.api.db.DatabaseExecutor;
+import org.briarproject.bramble.api.db.ReadOnlyDatabaseExecutor;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager;
 
 import java.util.concurrent.BlockingQueue;
@@ -26,19 +27,39 @@ public class DatabaseExecutorModule {
 		@Inject
 		@DatabaseExecutor
 		ExecutorService executorService;
+		@Inject
+		@ReadOnlyDatabaseExecutor
+		ExecutorService readOnlyExecutorService;
 	}
 
-	private final ExecutorService databaseExecutor;
+	/**
+	 * The maximum number of threads for read-only tasks.
+	 * <p>
+	 * The number of available processors can change during the lifetime of the
+	 * JVM, so this is just a reasonable guess.
+	 */
+	private static final int MAX_READ_ONLY_THREADS =
+			Math.max(2, Runtime.getRuntime().availableProcessors());
+
+	private final ExecutorService databaseExecutor, readOnlyExecutor;
 
 	public DatabaseExecutorModule() {
-		// Use an unbounded queue
+		// Use unbounded queues
 		BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+		BlockingQueue<Runnable> readOnlyQueue = new LinkedBlockingQueue<>();
 		// Discard tasks that are submitted during shutdown
 		RejectedExecutionHandler policy =
 				new ThreadPoolExecutor.DiscardPolicy();
 		// Use a single thread and keep it in the pool for 60 secs
 		databaseExecutor = new TimeLoggingExecutor("DatabaseExecutor", 0, 1,
 				60, SECONDS, queue, policy);
+		// With an unbounded queue the pool never grows beyond its core size,
+		// so use a fixed number of threads and let them time out after 60 secs
+		TimeLoggingExecutor readOnly = new TimeLoggingExecutor(
+				"ReadOnlyDatabaseExecutor", MAX_READ_ONLY_THREADS,
+				MAX_READ_ONLY_THREADS, 60, SECONDS, readOnlyQueue, policy);
+		readOnly.allowCoreThreadTimeOut(true);
+		readOnlyExecutor = readOnly;
 	}
 
 	@Provides
@@ -57,4 +78,21 @@ public class DatabaseExecutorModule {
 			@DatabaseExecutor ExecutorService dbExecutor) {
 		return dbExecutor;
 	}
+
+	@Provides
+	@Singleton
+	@ReadOnlyDatabaseExecutor
+	ExecutorService provideReadOnlyDatabaseExecutorService(
+			LifecycleManager lifecycleManager) {
+		lifecycleManager.registerForShutdown(readOnlyExecutor);
+		return readOnlyExecutor;
+	}
+
+	@Provides
+	@Singleton
+	@ReadOnlyDatabaseExecutor
+	Executor provideReadOnlyDatabaseExecutor(
+			@ReadOnlyDatabaseExecutor ExecutorService readOnlyExecutor) {
+		return readOnlyExecutor;
+	}
 }
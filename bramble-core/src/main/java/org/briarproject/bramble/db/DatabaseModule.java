@@ -5,6 +5,7 @@ import org.briarproject.bramble.api.db.DatabaseConfig;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.lifecycle.ShutdownManager;
 import org.briarproject.bramble.api.sync.MessageFactory;
+import org.briarproject.bramble.api.sync.SyncScheduler;
 import org.briarproject.bramble.api.system.Clock;
 
 import java.sql.Connection;
@@ -27,8 +28,11 @@ public class DatabaseModule {
 	@Provides
 	@Singleton
 	DatabaseComponent provideDatabaseComponent(Database<Connection> db,
-			EventBus eventBus, ShutdownManager shutdown) {
+			EventBus eventBus, ShutdownManager shutdown,
+			SyncScheduler scheduler) {
+		// If the database uses multi-version concurrency control, read-only
+		// transactions don't need to wait for write transactions
 		return new DatabaseComponentImpl<>(db, Connection.class, eventBus,
-				shutdown);
+				shutdown, scheduler, db.isMultiVersion());
 	}
 }
@@ -41,12 +41,12 @@ class H2Database extends JdbcDatabase {
 	H2Database(DatabaseConfig config, MessageFactory messageFactory,
 			Clock clock) {
 		super(HASH_TYPE, SECRET_TYPE, BINARY_TYPE, COUNTER_TYPE, STRING_TYPE,
-				messageFactory, clock);
+				config.getStatementCacheSize(), messageFactory, clock);
 		this.config = config;
 		File dir = config.getDatabaseDirectory();
 		String path = new File(dir, "db").getAbsolutePath();
 		url = "jdbc:h2:split:" + path + ";CIPHER=AES;MULTI_THREADED=1"
-				+ ";WRITE_DELAY=0";
+				+ ";MVCC=TRUE;WRITE_DELAY=0";
 	}
 
 	@Override
@@ -68,6 +68,11 @@ class H2Database extends JdbcDatabase {
 		}
 	}
 
+	@Override
+	public boolean isMultiVersion() {
+		return true;
+	}
+
 	@Override
 	public long getFreeSpace() {
 		File dir = config.getDatabaseDirectory();
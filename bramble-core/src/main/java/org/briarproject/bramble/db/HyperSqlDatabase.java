@@ -41,7 +41,7 @@ class HyperSqlDatabase extends JdbcDatabase {
 	HyperSqlDatabase(DatabaseConfig config, MessageFactory messageFactory,
 			Clock clock) {
 		super(HASH_TYPE, SECRET_TYPE, BINARY_TYPE, COUNTER_TYPE, STRING_TYPE,
-				messageFactory, clock);
+				config.getStatementCacheSize(), messageFactory, clock);
 		this.config = config;
 		File dir = config.getDatabaseDirectory();
 		String path = new File(dir, "db").getAbsolutePath();
@@ -77,6 +77,11 @@ class HyperSqlDatabase extends JdbcDatabase {
 		}
 	}
 
+	@Override
+	public boolean isMultiVersion() {
+		return false;
+	}
+
 	@Override
 	public long getFreeSpace() throws DbException {
 		File dir = config.getDatabaseDirectory();
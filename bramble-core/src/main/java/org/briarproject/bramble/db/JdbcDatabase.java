@@ -1,5 +1,6 @@
 package org.briarproject.bramble.db;
 
+import org.briarproject.bramble.api.client.SessionId;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.crypto.SecretKey;
@@ -7,6 +8,8 @@ import org.briarproject.bramble.api.db.DataTooNewException;
 import org.briarproject.bramble.api.db.DataTooOldException;
 import org.briarproject.bramble.api.db.DbClosedException;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.MessageCounts;
+import org.briarproject.bramble.api.db.MessageCursor;
 import org.briarproject.bramble.api.db.MessageDeletedException;
 import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.db.MigrationListener;
@@ -24,6 +27,7 @@ import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.MessageStatus;
+import org.briarproject.bramble.api.sync.SendableMessage;
 import org.briarproject.bramble.api.sync.ValidationManager.State;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.bramble.api.transport.IncomingKeys;
@@ -42,12 +46,12 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -83,7 +87,7 @@ import static org.briarproject.bramble.util.LogUtils.now;
 abstract class JdbcDatabase implements Database<Connection> {
 
 	// Package access for testing
-	static final int CODE_SCHEMA_VERSION = 40;
+	static final int CODE_SCHEMA_VERSION = 43;
 
 	// Rotation period offsets for incoming transport keys
 	private static final int OFFSET_PREV = -1;
@@ -140,6 +144,28 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " REFERENCES groups (groupId)"
 					+ " ON DELETE CASCADE)";
 
+	private static final String CREATE_MESSAGE_COUNTS =
+			"CREATE TABLE messageCounts"
+					+ " (groupId _HASH NOT NULL,"
+					+ " msgCount INT NOT NULL,"
+					+ " unreadCount INT NOT NULL,"
+					+ " latestMsgTime BIGINT NOT NULL,"
+					+ " PRIMARY KEY (groupId),"
+					+ " CHECK (unreadCount >= 0),"
+					+ " FOREIGN KEY (groupId)"
+					+ " REFERENCES groups (groupId)"
+					+ " ON DELETE CASCADE)";
+
+	private static final String CREATE_SESSIONS =
+			"CREATE TABLE sessions"
+					+ " (groupId _HASH NOT NULL,"
+					+ " sessionId _HASH NOT NULL,"
+					+ " session _BINARY NOT NULL,"
+					+ " PRIMARY KEY (groupId, sessionId),"
+					+ " FOREIGN KEY (groupId)"
+					+ " REFERENCES groups (groupId)"
+					+ " ON DELETE CASCADE)";
+
 	private static final String CREATE_GROUP_VISIBILITIES =
 			"CREATE TABLE groupVisibilities"
 					+ " (contactId INT NOT NULL,"
@@ -290,9 +316,17 @@ abstract class JdbcDatabase implements Database<Connection> {
 			"CREATE INDEX IF NOT EXISTS groupsByClientIdMajorVersion"
 					+ " ON groups (clientId, majorVersion)";
 
-	private static final String INDEX_MESSAGE_METADATA_BY_GROUP_ID_STATE =
-			"CREATE INDEX IF NOT EXISTS messageMetadataByGroupIdState"
-					+ " ON messageMetadata (groupId, state)";
+	// Covers the metadata queries by group ID, so they don't need to read
+	// the table
+	private static final String
+			INDEX_MESSAGE_METADATA_BY_GROUP_ID_STATE_META_KEY_VALUE =
+			"CREATE INDEX IF NOT EXISTS"
+					+ " messageMetadataByGroupIdStateMetaKeyValue"
+					+ " ON messageMetadata (groupId, state, metaKey, value)";
+
+	private static final String INDEX_MESSAGES_BY_GROUP_ID_STATE_TIMESTAMP =
+			"CREATE INDEX IF NOT EXISTS messagesByGroupIdStateTimestamp"
+					+ " ON messages (groupId, state, timestamp)";
 
 	private static final String INDEX_MESSAGE_DEPENDENCIES_BY_DEPENDENCY_ID =
 			"CREATE INDEX IF NOT EXISTS messageDependenciesByDependencyId"
@@ -306,17 +340,29 @@ abstract class JdbcDatabase implements Database<Connection> {
 			"CREATE INDEX IF NOT EXISTS statusesByContactIdTimestamp"
 					+ " ON statuses (contactId, timestamp)";
 
+	/**
+	 * The lengths of the ID lists bound by queries that look up a collection
+	 * of IDs. Longer collections are split into lists of the greatest
+	 * length, and each list is padded to the least length that fits by
+	 * repeating an ID, so only a few distinct statements are prepared.
+	 */
+	private static final int[] ID_LIST_LENGTHS = {1, 8, 32, 128};
+
 	private static final Logger LOG =
 			Logger.getLogger(JdbcDatabase.class.getName());
 
 	// Different database libraries use different names for certain types
 	private final String hashType, secretType, binaryType;
 	private final String counterType, stringType;
+	private final int statementCacheSize;
 	private final MessageFactory messageFactory;
 	private final Clock clock;
 
 	// Locking: connectionsLock
 	private final LinkedList<Connection> connections = new LinkedList<>();
+	// The statement cache of each open connection, if caching is enabled
+	private final Map<Connection, StatementCache> statementCaches =
+			new ConcurrentHashMap<>();
 
 	private int openConnections = 0; // Locking: connectionsLock
 	private boolean closed = false; // Locking: connectionsLock
@@ -329,13 +375,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 	private final Condition connectionsChanged = connectionsLock.newCondition();
 
 	JdbcDatabase(String hashType, String secretType, String binaryType,
-			String counterType, String stringType,
+			String counterType, String stringType, int statementCacheSize,
 			MessageFactory messageFactory, Clock clock) {
 		this.hashType = hashType;
 		this.secretType = secretType;
 		this.binaryType = binaryType;
 		this.counterType = counterType;
 		this.stringType = stringType;
+		this.statementCacheSize = statementCacheSize;
 		this.messageFactory = messageFactory;
 		this.clock = clock;
 	}
@@ -427,7 +474,10 @@ abstract class JdbcDatabase implements Database<Connection> {
 
 	// Package access for testing
 	List<Migration<Connection>> getMigrations() {
-		return Arrays.asList(new Migration38_39(), new Migration39_40());
+		return Arrays.asList(new Migration38_39(), new Migration39_40(),
+				new Migration40_41(),
+				new Migration41_42(hashType, binaryType),
+				new Migration42_43(hashType));
 	}
 
 	private boolean isCompactionDue(Settings s) {
@@ -491,6 +541,8 @@ abstract class JdbcDatabase implements Database<Connection> {
 			s.executeUpdate(insertTypeNames(CREATE_CONTACTS));
 			s.executeUpdate(insertTypeNames(CREATE_GROUPS));
 			s.executeUpdate(insertTypeNames(CREATE_GROUP_METADATA));
+			s.executeUpdate(insertTypeNames(CREATE_MESSAGE_COUNTS));
+			s.executeUpdate(insertTypeNames(CREATE_SESSIONS));
 			s.executeUpdate(insertTypeNames(CREATE_GROUP_VISIBILITIES));
 			s.executeUpdate(insertTypeNames(CREATE_MESSAGES));
 			s.executeUpdate(insertTypeNames(CREATE_MESSAGE_METADATA));
@@ -513,7 +565,9 @@ abstract class JdbcDatabase implements Database<Connection> {
 			s = txn.createStatement();
 			s.executeUpdate(INDEX_CONTACTS_BY_AUTHOR_ID);
 			s.executeUpdate(INDEX_GROUPS_BY_CLIENT_ID_MAJOR_VERSION);
-			s.executeUpdate(INDEX_MESSAGE_METADATA_BY_GROUP_ID_STATE);
+			s.executeUpdate(
+					INDEX_MESSAGE_METADATA_BY_GROUP_ID_STATE_META_KEY_VALUE);
+			s.executeUpdate(INDEX_MESSAGES_BY_GROUP_ID_STATE_TIMESTAMP);
 			s.executeUpdate(INDEX_MESSAGE_DEPENDENCIES_BY_DEPENDENCY_ID);
 			s.executeUpdate(INDEX_STATUSES_BY_CONTACT_ID_GROUP_ID);
 			s.executeUpdate(INDEX_STATUSES_BY_CONTACT_ID_TIMESTAMP);
@@ -548,6 +602,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 				// Open a new connection
 				txn = createConnection();
 				txn.setAutoCommit(false);
+				// Prepared statements are cached for the life of the
+				// connection, which is returned to the pool after each
+				// transaction
+				if (statementCacheSize > 0) {
+					statementCaches.put(txn,
+							new StatementCache(txn, statementCacheSize));
+				}
 				connectionsLock.lock();
 				try {
 					openConnections++;
@@ -576,7 +637,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			// Try to close the connection
 			logException(LOG, WARNING, e);
 			try {
-				txn.close();
+				closeConnection(txn);
 			} catch (SQLException e1) {
 				logException(LOG, WARNING, e1);
 			}
@@ -607,12 +668,43 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	private void closeConnection(Connection c) throws SQLException {
+		StatementCache cache = statementCaches.remove(c);
+		if (cache != null) cache.close();
+		c.close();
+	}
+
+	/**
+	 * Returns a prepared statement for the given SQL, taking it from the
+	 * connection's statement cache if possible. The statement must be
+	 * returned with {@link #release(Connection, String, PreparedStatement)}
+	 * when the caller has finished with it, or closed if an error occurs.
+	 */
+	private PreparedStatement prepare(Connection txn, String sql)
+			throws SQLException {
+		StatementCache cache = statementCaches.get(txn);
+		if (cache == null) return txn.prepareStatement(sql);
+		return cache.prepare(sql);
+	}
+
+	/**
+	 * Returns a statement prepared by {@link #prepare(Connection, String)}
+	 * to the connection's statement cache, or closes it if caching is
+	 * disabled.
+	 */
+	private void release(Connection txn, String sql, PreparedStatement ps)
+			throws SQLException {
+		StatementCache cache = statementCaches.get(txn);
+		if (cache == null) ps.close();
+		else cache.release(sql, ps);
+	}
+
 	void closeAllConnections() throws SQLException {
 		boolean interrupted = false;
 		connectionsLock.lock();
 		try {
 			closed = true;
-			for (Connection c : connections) c.close();
+			for (Connection c : connections) closeConnection(c);
 			openConnections -= connections.size();
 			connections.clear();
 			while (openConnections > 0) {
@@ -622,7 +714,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 					LOG.warning("Interrupted while closing connections");
 					interrupted = true;
 				}
-				for (Connection c : connections) c.close();
+				for (Connection c : connections) closeConnection(c);
 				openConnections -= connections.size();
 				connections.clear();
 			}
@@ -645,7 +737,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " localAuthorId,"
 					+ " verified, active)"
 					+ " VALUES (?, ?, ?, ?, ?, ?, ?)";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, remote.getId().getBytes());
 			ps.setInt(2, remote.getFormatVersion());
 			ps.setString(3, remote.getName());
@@ -655,17 +747,17 @@ abstract class JdbcDatabase implements Database<Connection> {
 			ps.setBoolean(7, active);
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 			// Get the new (highest) contact ID
 			sql = "SELECT contactId FROM contacts"
 					+ " ORDER BY contactId DESC LIMIT 1";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			rs = ps.executeQuery();
 			if (!rs.next()) throw new DbStateException();
 			ContactId c = new ContactId(rs.getInt(1));
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return c;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -681,14 +773,23 @@ abstract class JdbcDatabase implements Database<Connection> {
 			String sql = "INSERT INTO groups"
 					+ " (groupId, clientId, majorVersion, descriptor)"
 					+ " VALUES (?, ?, ?, ?)";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, g.getId().getBytes());
 			ps.setString(2, g.getClientId().getString());
 			ps.setInt(3, g.getMajorVersion());
 			ps.setBytes(4, g.getDescriptor());
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
+			// Start counting the group's messages
+			sql = "INSERT INTO messageCounts"
+					+ " (groupId, msgCount, unreadCount, latestMsgTime)"
+					+ " VALUES (?, 0, 0, 0)";
+			ps = prepare(txn, sql);
+			ps.setBytes(1, g.getId().getBytes());
+			affected = ps.executeUpdate();
+			if (affected != 1) throw new DbStateException();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -703,13 +804,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 			String sql = "INSERT INTO groupVisibilities"
 					+ " (contactId, groupId, shared)"
 					+ " VALUES (?, ?, ?)";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setInt(1, c.getInt());
 			ps.setBytes(2, g.getBytes());
 			ps.setBoolean(3, groupShared);
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 			// Create a status row for each message in the group
 			addStatus(txn, c, g, groupShared);
 		} catch (SQLException e) {
@@ -727,7 +828,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " length, raw IS NULL"
 					+ " FROM messages"
 					+ " WHERE groupId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, g.getBytes());
 			rs = ps.executeQuery();
 			while (rs.next()) {
@@ -742,7 +843,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 						messageShared, deleted, seen);
 			}
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(rs);
 			tryToClose(ps);
@@ -759,7 +860,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " (authorId, formatVersion, name, publicKey,"
 					+ " privateKey, created)"
 					+ " VALUES (?, ?, ?, ?, ?, ?)";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, a.getId().getBytes());
 			ps.setInt(2, a.getFormatVersion());
 			ps.setString(3, a.getName());
@@ -768,7 +869,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			ps.setLong(6, a.getTimeCreated());
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -784,7 +885,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			String sql = "INSERT INTO messages (messageId, groupId, timestamp,"
 					+ " state, shared, length, raw)"
 					+ " VALUES (?, ?, ?, ?, ?, ?, ?)";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, m.getId().getBytes());
 			ps.setBytes(2, m.getGroupId().getBytes());
 			ps.setLong(3, m.getTimestamp());
@@ -795,7 +896,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			ps.setBytes(7, raw);
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 			// Create a status row for each contact that can see the group
 			Map<ContactId, Boolean> visibility =
 					getGroupVisibility(txn, m.getGroupId());
@@ -811,13 +912,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 			// is in same group as dependent
 			sql = "UPDATE messageDependencies SET dependencyState = ?"
 					+ " WHERE groupId = ? AND dependencyId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setInt(1, state.getValue());
 			ps.setBytes(2, m.getGroupId().getBytes());
 			ps.setBytes(3, m.getId().getBytes());
 			affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -832,22 +933,22 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT NULL FROM offers"
 					+ " WHERE messageId = ? AND contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setInt(2, c.getInt());
 			rs = ps.executeQuery();
 			boolean found = rs.next();
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			if (found) return;
 			sql = "INSERT INTO offers (messageId, contactId) VALUES (?, ?)";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setInt(2, c.getInt());
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(rs);
 			tryToClose(ps);
@@ -866,7 +967,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " deleted, ack, seen, requested, expiry, txCount, eta)"
 					+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, FALSE, 0, 0,"
 					+ " 0)";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setInt(2, c.getInt());
 			ps.setBytes(3, g.getBytes());
@@ -880,7 +981,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			ps.setBoolean(11, seen);
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -896,7 +997,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			// Get state of dependency if present and in same group as dependent
 			String sql = "SELECT state FROM messages"
 					+ " WHERE messageId = ? AND groupId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, dependency.getBytes());
 			ps.setBytes(2, dependent.getGroupId().getBytes());
 			rs = ps.executeQuery();
@@ -906,13 +1007,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 				if (rs.next()) throw new DbStateException();
 			}
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			// Create messageDependencies row
 			sql = "INSERT INTO messageDependencies"
 					+ " (groupId, messageId, dependencyId, messageState,"
 					+ " dependencyState)"
 					+ " VALUES (?, ?, ?, ? ,?)";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, dependent.getGroupId().getBytes());
 			ps.setBytes(2, dependent.getId().getBytes());
 			ps.setBytes(3, dependency.getBytes());
@@ -921,7 +1022,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			else ps.setInt(5, dependencyState.getValue());
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(rs);
 			tryToClose(ps);
@@ -936,12 +1037,12 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "INSERT INTO transports (transportId, maxLatency)"
 					+ " VALUES (?, ?)";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setString(1, t.getString());
 			ps.setLong(2, maxLatency);
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -958,7 +1059,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			String sql = "INSERT INTO outgoingKeys (contactId, transportId,"
 					+ " rotationPeriod, tagKey, headerKey, stream, active)"
 					+ " VALUES (?, ?, ?, ?, ?, ?, ?)";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setInt(1, c.getInt());
 			ps.setString(2, k.getTransportId().getString());
 			OutgoingKeys outCurr = k.getCurrentOutgoingKeys();
@@ -969,23 +1070,23 @@ abstract class JdbcDatabase implements Database<Connection> {
 			ps.setBoolean(7, outCurr.isActive());
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 			// Get the new (highest) key set ID
 			sql = "SELECT keySetId FROM outgoingKeys"
 					+ " ORDER BY keySetId DESC LIMIT 1";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			rs = ps.executeQuery();
 			if (!rs.next()) throw new DbStateException();
 			KeySetId keySetId = new KeySetId(rs.getInt(1));
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			// Store the incoming keys
 			sql = "INSERT INTO incomingKeys (keySetId, contactId, transportId,"
 					+ " rotationPeriod, tagKey, headerKey, base, bitmap,"
 					+ " periodOffset)"
 					+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setInt(1, keySetId.getInt());
 			ps.setInt(2, c.getInt());
 			ps.setString(3, k.getTransportId().getString());
@@ -1020,7 +1121,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			if (batchAffected.length != 3) throw new DbStateException();
 			for (int rows : batchAffected)
 				if (rows != 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 			return keySetId;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -1037,14 +1138,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT NULL FROM contacts"
 					+ " WHERE authorId = ? AND localAuthorId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, remote.getBytes());
 			ps.setBytes(2, local.getBytes());
 			rs = ps.executeQuery();
 			boolean found = rs.next();
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return found;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -1060,13 +1161,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 		ResultSet rs = null;
 		try {
 			String sql = "SELECT NULL FROM contacts WHERE contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setInt(1, c.getInt());
 			rs = ps.executeQuery();
 			boolean found = rs.next();
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return found;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -1082,13 +1183,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 		ResultSet rs = null;
 		try {
 			String sql = "SELECT NULL FROM groups WHERE groupId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, g.getBytes());
 			rs = ps.executeQuery();
 			boolean found = rs.next();
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return found;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -1104,13 +1205,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 		ResultSet rs = null;
 		try {
 			String sql = "SELECT NULL FROM localAuthors WHERE authorId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, a.getBytes());
 			rs = ps.executeQuery();
 			boolean found = rs.next();
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return found;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -1126,13 +1227,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 		ResultSet rs = null;
 		try {
 			String sql = "SELECT NULL FROM messages WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			rs = ps.executeQuery();
 			boolean found = rs.next();
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return found;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -1148,13 +1249,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 		ResultSet rs = null;
 		try {
 			String sql = "SELECT NULL FROM transports WHERE transportId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setString(1, t.getString());
 			rs = ps.executeQuery();
 			boolean found = rs.next();
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return found;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -1172,14 +1273,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 			String sql = "SELECT NULL FROM statuses"
 					+ " WHERE messageId = ? AND contactId = ?"
 					+ " AND messageShared = TRUE";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setInt(2, c.getInt());
 			rs = ps.executeQuery();
 			boolean found = rs.next();
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return found;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -1196,14 +1297,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT COUNT (messageId) FROM offers "
 					+ " WHERE contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setInt(1, c.getInt());
 			rs = ps.executeQuery();
 			if (!rs.next()) throw new DbException();
 			int count = rs.getInt(1);
 			if (rs.next()) throw new DbException();
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return count;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -1217,19 +1318,19 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		try {
 			String sql = "UPDATE messages SET raw = NULL WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			int affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
 			if (affected > 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 			// Update denormalised column in statuses
 			sql = "UPDATE statuses SET deleted = TRUE WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -1242,11 +1343,11 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		try {
 			String sql = "DELETE FROM messageMetadata WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			int affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -1262,7 +1363,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " localAuthorId, verified, active"
 					+ " FROM contacts"
 					+ " WHERE contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setInt(1, c.getInt());
 			rs = ps.executeQuery();
 			if (!rs.next()) throw new DbStateException();
@@ -1274,7 +1375,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			boolean verified = rs.getBoolean(6);
 			boolean active = rs.getBoolean(7);
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			Author author =
 					new Author(authorId, formatVersion, name, publicKey);
 			return new Contact(c, author, localAuthorId, verified, active);
@@ -1294,7 +1395,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			String sql = "SELECT contactId, authorId, formatVersion, name,"
 					+ " publicKey, localAuthorId, verified, active"
 					+ " FROM contacts";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			rs = ps.executeQuery();
 			List<Contact> contacts = new ArrayList<>();
 			while (rs.next()) {
@@ -1312,7 +1413,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 						verified, active));
 			}
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return contacts;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -1329,13 +1430,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT contactId FROM contacts"
 					+ " WHERE localAuthorId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, local.getBytes());
 			rs = ps.executeQuery();
 			List<ContactId> ids = new ArrayList<>();
 			while (rs.next()) ids.add(new ContactId(rs.getInt(1)));
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return ids;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -1354,7 +1455,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " localAuthorId, verified, active"
 					+ " FROM contacts"
 					+ " WHERE authorId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, remote.getBytes());
 			rs = ps.executeQuery();
 			List<Contact> contacts = new ArrayList<>();
@@ -1372,7 +1473,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 						active));
 			}
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return contacts;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -1388,7 +1489,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT clientId, majorVersion, descriptor"
 					+ " FROM groups WHERE groupId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, g.getBytes());
 			rs = ps.executeQuery();
 			if (!rs.next()) throw new DbStateException();
@@ -1396,7 +1497,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			int majorVersion = rs.getInt(2);
 			byte[] descriptor = rs.getBytes(3);
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return new Group(g, clientId, majorVersion, descriptor);
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -1413,7 +1514,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT groupId, descriptor FROM groups"
 					+ " WHERE clientId = ? AND majorVersion = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setString(1, c.getString());
 			ps.setInt(2, majorVersion);
 			rs = ps.executeQuery();
@@ -1424,7 +1525,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 				groups.add(new Group(id, c, majorVersion, descriptor));
 			}
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return groups;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -1433,6 +1534,30 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public Collection<GroupId> getGroupsWithoutMessageCounts(Connection txn)
+			throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT g.groupId FROM groups AS g"
+					+ " LEFT OUTER JOIN messageCounts AS c"
+					+ " ON g.groupId = c.groupId"
+					+ " WHERE c.groupId IS NULL";
+			ps = prepare(txn, sql);
+			rs = ps.executeQuery();
+			List<GroupId> ids = new ArrayList<>();
+			while (rs.next()) ids.add(new GroupId(rs.getBytes(1)));
+			rs.close();
+			release(txn, sql, ps);
+			return ids;
+		} catch (SQLException e) {
+			tryToClose(rs);
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public Visibility getGroupVisibility(Connection txn, ContactId c, GroupId g)
 			throws DbException {
@@ -1441,7 +1566,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT shared FROM groupVisibilities"
 					+ " WHERE contactId = ? AND groupId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setInt(1, c.getInt());
 			ps.setBytes(2, g.getBytes());
 			rs = ps.executeQuery();
@@ -1450,7 +1575,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			else v = INVISIBLE;
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return v;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -1467,14 +1592,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT contactId, shared FROM groupVisibilities"
 					+ " WHERE groupId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, g.getBytes());
 			rs = ps.executeQuery();
 			Map<ContactId, Boolean> visible = new HashMap<>();
 			while (rs.next())
 				visible.put(new ContactId(rs.getInt(1)), rs.getBoolean(2));
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return visible;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -1493,7 +1618,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " privateKey, created"
 					+ " FROM localAuthors"
 					+ " WHERE authorId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, a.getBytes());
 			rs = ps.executeQuery();
 			if (!rs.next()) throw new DbStateException();
@@ -1506,7 +1631,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 					publicKey, privateKey, created);
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return localAuthor;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -1524,7 +1649,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			String sql = "SELECT authorId, formatVersion, name, publicKey,"
 					+ " privateKey, created"
 					+ " FROM localAuthors";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			rs = ps.executeQuery();
 			List<LocalAuthor> authors = new ArrayList<>();
 			while (rs.next()) {
@@ -1538,7 +1663,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 						publicKey, privateKey, created));
 			}
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return authors;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -1554,7 +1679,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT groupId, timestamp, raw FROM messages"
 					+ " WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			rs = ps.executeQuery();
 			if (!rs.next()) throw new DbStateException();
@@ -1563,7 +1688,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			byte[] raw = rs.getBytes(3);
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			if (raw == null) throw new MessageDeletedException();
 			if (raw.length <= MESSAGE_HEADER_LENGTH) throw new AssertionError();
 			byte[] body = new byte[raw.length - MESSAGE_HEADER_LENGTH];
@@ -1584,14 +1709,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT messageId FROM messages"
 					+ " WHERE groupId = ? AND state = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, g.getBytes());
 			ps.setInt(2, DELIVERED.getValue());
 			rs = ps.executeQuery();
 			List<MessageId> ids = new ArrayList<>();
 			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return ids;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -1608,29 +1733,114 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			// Retrieve the message IDs for each query term and intersect
-			Set<MessageId> intersection = null;
-			String sql = "SELECT messageId FROM messageMetadata"
-					+ " WHERE groupId = ? AND state = ?"
-					+ " AND metaKey = ? AND value = ?";
-			for (Entry<String, byte[]> e : query.entrySet()) {
-				ps = txn.prepareStatement(sql);
-				ps.setBytes(1, g.getBytes());
-				ps.setInt(2, DELIVERED.getValue());
-				ps.setString(3, e.getKey());
-				ps.setBytes(4, e.getValue());
-				rs = ps.executeQuery();
-				Set<MessageId> ids = new HashSet<>();
-				while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
-				rs.close();
-				ps.close();
-				if (intersection == null) intersection = ids;
-				else intersection.retainAll(ids);
-				// Return early if there are no matches
-				if (intersection.isEmpty()) return Collections.emptySet();
+			// Retrieve the IDs of the messages that match all query terms
+			String sql = getMatchingMessageIdsQuery(query.size());
+			ps = prepare(txn, sql);
+			setMatchingMessageIdsParameters(ps, 1, g, query);
+			rs = ps.executeQuery();
+			List<MessageId> ids = new ArrayList<>();
+			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
+			rs.close();
+			release(txn, sql, ps);
+			return ids;
+		} catch (SQLException e) {
+			tryToClose(rs);
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
+	/**
+	 * Returns a query that selects the IDs of the delivered messages in a
+	 * group that match all the given number of query terms. A message can
+	 * have at most one value for each key, so a message matches all the
+	 * terms if it matches the given number of terms.
+	 */
+	private String getMatchingMessageIdsQuery(int terms) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("SELECT messageId FROM messageMetadata")
+				.append(" WHERE groupId = ? AND state = ? AND (");
+		for (int i = 0; i < terms; i++) {
+			if (i > 0) sb.append(" OR ");
+			sb.append("(metaKey = ? AND value = ?)");
+		}
+		sb.append(") GROUP BY messageId HAVING COUNT(*) = ?");
+		return sb.toString();
+	}
+
+	/**
+	 * Sets the parameters of a query returned by
+	 * {@link #getMatchingMessageIdsQuery(int)}, starting at the given
+	 * parameter index, and returns the next parameter index.
+	 */
+	private int setMatchingMessageIdsParameters(PreparedStatement ps,
+			int index, GroupId g, Metadata query) throws SQLException {
+		ps.setBytes(index++, g.getBytes());
+		ps.setInt(index++, DELIVERED.getValue());
+		for (Entry<String, byte[]> e : query.entrySet()) {
+			ps.setString(index++, e.getKey());
+			ps.setBytes(index++, e.getValue());
+		}
+		ps.setInt(index++, query.size());
+		return index;
+	}
+
+	@Nullable
+	@Override
+	public MessageCounts getMessageCounts(Connection txn, GroupId g)
+			throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT msgCount, unreadCount, latestMsgTime"
+					+ " FROM messageCounts WHERE groupId = ?";
+			ps = prepare(txn, sql);
+			ps.setBytes(1, g.getBytes());
+			rs = ps.executeQuery();
+			MessageCounts counts = null;
+			if (rs.next()) {
+				counts = new MessageCounts(rs.getInt(1), rs.getInt(2),
+						rs.getLong(3));
 			}
-			if (intersection == null) throw new AssertionError();
-			return intersection;
+			if (rs.next()) throw new DbStateException();
+			rs.close();
+			release(txn, sql, ps);
+			return counts;
+		} catch (SQLException e) {
+			tryToClose(rs);
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public Map<GroupId, MessageCounts> getMessageCounts(Connection txn,
+			Collection<GroupId> groups) throws DbException {
+		if (groups.isEmpty()) return Collections.emptyMap();
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			StringBuilder sb = new StringBuilder();
+			sb.append("SELECT groupId, msgCount, unreadCount, latestMsgTime")
+					.append(" FROM messageCounts WHERE groupId IN (");
+			for (int i = 0; i < groups.size(); i++) {
+				if (i > 0) sb.append(", ");
+				sb.append('?');
+			}
+			sb.append(')');
+			// The number of groups varies, so the statement isn't cached
+			ps = txn.prepareStatement(sb.toString());
+			int index = 1;
+			for (GroupId g : groups) ps.setBytes(index++, g.getBytes());
+			rs = ps.executeQuery();
+			Map<GroupId, MessageCounts> counts = new HashMap<>();
+			while (rs.next()) {
+				counts.put(new GroupId(rs.getBytes(1)), new MessageCounts(
+						rs.getInt(2), rs.getInt(3), rs.getLong(4)));
+			}
+			rs.close();
+			ps.close();
+			return counts;
 		} catch (SQLException e) {
 			tryToClose(rs);
 			tryToClose(ps);
@@ -1647,7 +1857,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			String sql = "SELECT messageId, metaKey, value"
 					+ " FROM messageMetadata"
 					+ " WHERE groupId = ? AND state = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, g.getBytes());
 			ps.setInt(2, DELIVERED.getValue());
 			rs = ps.executeQuery();
@@ -1662,7 +1872,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 				metadata.put(rs.getString(2), rs.getBytes(3));
 			}
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return all;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -1674,13 +1884,204 @@ abstract class JdbcDatabase implements Database<Connection> {
 	@Override
 	public Map<MessageId, Metadata> getMessageMetadata(Connection txn,
 			GroupId g, Metadata query) throws DbException {
-		// Retrieve the matching message IDs
-		Collection<MessageId> matches = getMessageIds(txn, g, query);
-		if (matches.isEmpty()) return Collections.emptyMap();
-		// Retrieve the metadata for each match
-		Map<MessageId, Metadata> all = new HashMap<>(matches.size());
-		for (MessageId m : matches) all.put(m, getMessageMetadata(txn, m));
-		return all;
+		// If there are no query terms, return all delivered messages,
+		// including any without metadata
+		if (query.isEmpty()) {
+			Map<MessageId, Metadata> all = getMessageMetadata(txn, g);
+			for (MessageId m : getMessageIds(txn, g))
+				if (!all.containsKey(m)) all.put(m, new Metadata());
+			return all;
+		}
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			// Retrieve the metadata of the matching messages
+			String sql = "SELECT messageId, metaKey, value"
+					+ " FROM messageMetadata"
+					+ " WHERE groupId = ? AND state = ?"
+					+ " AND messageId IN ("
+					+ getMatchingMessageIdsQuery(query.size()) + ")";
+			ps = prepare(txn, sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setInt(2, DELIVERED.getValue());
+			setMatchingMessageIdsParameters(ps, 3, g, query);
+			rs = ps.executeQuery();
+			Map<MessageId, Metadata> all = new HashMap<>();
+			while (rs.next()) {
+				MessageId messageId = new MessageId(rs.getBytes(1));
+				Metadata metadata = all.get(messageId);
+				if (metadata == null) {
+					metadata = new Metadata();
+					all.put(messageId, metadata);
+				}
+				metadata.put(rs.getString(2), rs.getBytes(3));
+			}
+			rs.close();
+			release(txn, sql, ps);
+			return all;
+		} catch (SQLException e) {
+			tryToClose(rs);
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public Map<MessageId, Metadata> getMessageMetadata(Connection txn,
+			Collection<MessageId> ids) throws DbException {
+		if (ids.isEmpty()) return Collections.emptyMap();
+		List<MessageId> list = new ArrayList<>(ids);
+		int maxLength = ID_LIST_LENGTHS[ID_LIST_LENGTHS.length - 1];
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			Map<MessageId, Metadata> all = new HashMap<>();
+			for (int start = 0; start < list.size(); start += maxLength) {
+				int end = Math.min(start + maxLength, list.size());
+				List<MessageId> chunk = list.subList(start, end);
+				int length = getIdListLength(chunk.size());
+				String sql = "SELECT messageId, metaKey, value"
+						+ " FROM messageMetadata"
+						+ " WHERE state = ? AND messageId IN ("
+						+ getPlaceholders(length) + ")";
+				ps = prepare(txn, sql);
+				ps.setInt(1, DELIVERED.getValue());
+				// Pad the list by repeating the last ID
+				for (int i = 0; i < length; i++) {
+					MessageId m = chunk.get(Math.min(i, chunk.size() - 1));
+					ps.setBytes(i + 2, m.getBytes());
+				}
+				rs = ps.executeQuery();
+				while (rs.next()) {
+					MessageId messageId = new MessageId(rs.getBytes(1));
+					Metadata metadata = all.get(messageId);
+					if (metadata == null) {
+						metadata = new Metadata();
+						all.put(messageId, metadata);
+					}
+					metadata.put(rs.getString(2), rs.getBytes(3));
+				}
+				rs.close();
+				release(txn, sql, ps);
+			}
+			// Include any delivered messages without metadata
+			if (all.size() < list.size()) {
+				for (MessageId m : list) {
+					if (!all.containsKey(m) && containsMessage(txn, m)
+							&& getMessageState(txn, m) == DELIVERED) {
+						all.put(m, new Metadata());
+					}
+				}
+			}
+			return all;
+		} catch (SQLException e) {
+			tryToClose(rs);
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
+	/**
+	 * Returns the least length in {@link #ID_LIST_LENGTHS} that can hold
+	 * the given number of IDs.
+	 */
+	private int getIdListLength(int ids) {
+		for (int length : ID_LIST_LENGTHS) if (length >= ids) return length;
+		throw new IllegalArgumentException();
+	}
+
+	private String getPlaceholders(int length) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			if (i > 0) sb.append(", ");
+			sb.append('?');
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public List<MessageCursor> getMessageCursors(Connection txn, GroupId g,
+			Metadata query, @Nullable MessageCursor before, int limit)
+			throws DbException {
+		// Messages with equal timestamps are ordered by ID. Databases don't
+		// agree on how binary values should be ordered, so rather than
+		// comparing IDs in SQL, we load all the messages that share the
+		// cursor's timestamp or the page's last timestamp, and sort in Java
+		TreeSet<MessageCursor> sorted = new TreeSet<>();
+		if (before != null) {
+			for (MessageCursor c : getMessageCursors(txn, g, query,
+					before.getTimestamp(), false, Integer.MAX_VALUE)) {
+				if (c.compareTo(before) < 0) sorted.add(c);
+			}
+		}
+		Long maxTimestamp = before == null ? null : before.getTimestamp();
+		List<MessageCursor> earlier =
+				getMessageCursors(txn, g, query, maxTimestamp, true, limit);
+		sorted.addAll(earlier);
+		if (earlier.size() == limit) {
+			// Other messages may share the last message's timestamp
+			long last = earlier.get(earlier.size() - 1).getTimestamp();
+			sorted.addAll(getMessageCursors(txn, g, query, last, false,
+					Integer.MAX_VALUE));
+		}
+		List<MessageCursor> page = new ArrayList<>(limit);
+		for (MessageCursor c : sorted.descendingSet()) {
+			if (page.size() == limit) break;
+			page.add(c);
+		}
+		return page;
+	}
+
+	/**
+	 * Returns the cursors of up to the given number of delivered messages in
+	 * the given group with metadata that matches the given query, newest
+	 * first. If the timestamp is null, all messages are considered.
+	 * Otherwise, if earlier is true, only messages with earlier timestamps are
+	 * considered, and if earlier is false, only messages with exactly the
+	 * given timestamp are considered.
+	 */
+	private List<MessageCursor> getMessageCursors(Connection txn, GroupId g,
+			Metadata query, @Nullable Long timestamp, boolean earlier,
+			int limit) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			StringBuilder sb = new StringBuilder();
+			sb.append("SELECT messageId, timestamp FROM messages")
+					.append(" WHERE groupId = ? AND state = ?");
+			if (timestamp != null && earlier)
+				sb.append(" AND timestamp < ?");
+			else if (timestamp != null)
+				sb.append(" AND timestamp = ?");
+			if (!query.isEmpty()) {
+				sb.append(" AND messageId IN (")
+						.append(getMatchingMessageIdsQuery(query.size()))
+						.append(')');
+			}
+			sb.append(" ORDER BY timestamp DESC LIMIT ?");
+			String sql = sb.toString();
+			ps = prepare(txn, sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setInt(2, DELIVERED.getValue());
+			int index = 3;
+			if (timestamp != null) ps.setLong(index++, timestamp);
+			if (!query.isEmpty())
+				index = setMatchingMessageIdsParameters(ps, index, g, query);
+			ps.setInt(index, limit);
+			rs = ps.executeQuery();
+			List<MessageCursor> cursors = new ArrayList<>();
+			while (rs.next()) {
+				MessageId m = new MessageId(rs.getBytes(1));
+				cursors.add(new MessageCursor(rs.getLong(2), m));
+			}
+			rs.close();
+			release(txn, sql, ps);
+			return cursors;
+		} catch (SQLException e) {
+			tryToClose(rs);
+			tryToClose(ps);
+			throw new DbException(e);
+		}
 	}
 
 	@Override
@@ -1691,13 +2092,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT metaKey, value FROM groupMetadata"
 					+ " WHERE groupId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, g.getBytes());
 			rs = ps.executeQuery();
 			Metadata metadata = new Metadata();
 			while (rs.next()) metadata.put(rs.getString(1), rs.getBytes(2));
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return metadata;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -1714,14 +2115,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT metaKey, value FROM messageMetadata"
 					+ " WHERE state = ? AND messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setInt(1, DELIVERED.getValue());
 			ps.setBytes(2, m.getBytes());
 			rs = ps.executeQuery();
 			Metadata metadata = new Metadata();
 			while (rs.next()) metadata.put(rs.getString(1), rs.getBytes(2));
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return metadata;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -1739,7 +2140,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			String sql = "SELECT metaKey, value FROM messageMetadata"
 					+ " WHERE (state = ? OR state = ?)"
 					+ " AND messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setInt(1, DELIVERED.getValue());
 			ps.setInt(2, PENDING.getValue());
 			ps.setBytes(3, m.getBytes());
@@ -1747,7 +2148,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			Metadata metadata = new Metadata();
 			while (rs.next()) metadata.put(rs.getString(1), rs.getBytes(2));
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return metadata;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -1764,7 +2165,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT messageId, txCount > 0, seen FROM statuses"
 					+ " WHERE groupId = ? AND contactId = ? AND state = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, g.getBytes());
 			ps.setInt(2, c.getInt());
 			ps.setInt(3, DELIVERED.getValue());
@@ -1777,7 +2178,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 				statuses.add(new MessageStatus(messageId, c, sent, seen));
 			}
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return statuses;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -1795,7 +2196,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT txCount > 0, seen FROM statuses"
 					+ " WHERE messageId = ? AND contactId = ? AND state = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setInt(2, c.getInt());
 			ps.setInt(3, DELIVERED.getValue());
@@ -1808,7 +2209,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			}
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return status;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -1826,7 +2227,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			String sql = "SELECT dependencyId, dependencyState"
 					+ " FROM messageDependencies"
 					+ " WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			rs = ps.executeQuery();
 			Map<MessageId, State> dependencies = new HashMap<>();
@@ -1838,7 +2239,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 				dependencies.put(dependency, state);
 			}
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return dependencies;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -1859,7 +2260,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " FROM messageDependencies"
 					+ " WHERE dependencyId = ?"
 					+ " AND dependencyState IS NOT NULL";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			rs = ps.executeQuery();
 			Map<MessageId, State> dependents = new HashMap<>();
@@ -1869,7 +2270,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 				dependents.put(dependent, state);
 			}
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return dependents;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -1885,14 +2286,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 		ResultSet rs = null;
 		try {
 			String sql = "SELECT state FROM messages WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			rs = ps.executeQuery();
 			if (!rs.next()) throw new DbStateException();
 			State state = State.fromValue(rs.getInt(1));
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return state;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -1910,14 +2311,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 			String sql = "SELECT messageId FROM statuses"
 					+ " WHERE contactId = ? AND ack = TRUE"
 					+ " LIMIT ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setInt(1, c.getInt());
 			ps.setInt(2, maxMessages);
 			rs = ps.executeQuery();
 			List<MessageId> ids = new ArrayList<>();
 			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return ids;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -1927,37 +2328,10 @@ abstract class JdbcDatabase implements Database<Connection> {
 	}
 
 	@Override
-	public Collection<MessageId> getMessagesToOffer(Connection txn,
+	public Collection<SendableMessage> getMessagesToOffer(Connection txn,
 			ContactId c, int maxMessages, int maxLatency) throws DbException {
-		long now = clock.currentTimeMillis();
-		long eta = now + maxLatency;
-		PreparedStatement ps = null;
-		ResultSet rs = null;
-		try {
-			String sql = "SELECT messageId FROM statuses"
-					+ " WHERE contactId = ? AND state = ?"
-					+ " AND groupShared = TRUE AND messageShared = TRUE"
-					+ " AND deleted = FALSE"
-					+ " AND seen = FALSE AND requested = FALSE"
-					+ " AND (expiry <= ? OR eta > ?)"
-					+ " ORDER BY timestamp LIMIT ?";
-			ps = txn.prepareStatement(sql);
-			ps.setInt(1, c.getInt());
-			ps.setInt(2, DELIVERED.getValue());
-			ps.setLong(3, now);
-			ps.setLong(4, eta);
-			ps.setInt(5, maxMessages);
-			rs = ps.executeQuery();
-			List<MessageId> ids = new ArrayList<>();
-			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
-			rs.close();
-			ps.close();
-			return ids;
-		} catch (SQLException e) {
-			tryToClose(rs);
-			tryToClose(ps);
-			throw new DbException(e);
-		}
+		return getSendableMessages(txn, c, maxMessages, Integer.MAX_VALUE,
+				maxLatency, " AND requested = FALSE");
 	}
 
 	@Override
@@ -1969,14 +2343,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 			String sql = "SELECT messageId FROM offers"
 					+ " WHERE contactId = ?"
 					+ " LIMIT ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setInt(1, c.getInt());
 			ps.setInt(2, maxMessages);
 			rs = ps.executeQuery();
 			List<MessageId> ids = new ArrayList<>();
 			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return ids;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -1986,42 +2360,10 @@ abstract class JdbcDatabase implements Database<Connection> {
 	}
 
 	@Override
-	public Collection<MessageId> getMessagesToSend(Connection txn, ContactId c,
-			int maxLength, int maxLatency) throws DbException {
-		long now = clock.currentTimeMillis();
-		long eta = now + maxLatency;
-		PreparedStatement ps = null;
-		ResultSet rs = null;
-		try {
-			String sql = "SELECT length, messageId FROM statuses"
-					+ " WHERE contactId = ? AND state = ?"
-					+ " AND groupShared = TRUE AND messageShared = TRUE"
-					+ " AND deleted = FALSE"
-					+ " AND seen = FALSE"
-					+ " AND (expiry <= ? OR eta > ?)"
-					+ " ORDER BY timestamp";
-			ps = txn.prepareStatement(sql);
-			ps.setInt(1, c.getInt());
-			ps.setInt(2, DELIVERED.getValue());
-			ps.setLong(3, now);
-			ps.setLong(4, eta);
-			rs = ps.executeQuery();
-			List<MessageId> ids = new ArrayList<>();
-			int total = 0;
-			while (rs.next()) {
-				int length = rs.getInt(1);
-				if (total + length > maxLength) break;
-				ids.add(new MessageId(rs.getBytes(2)));
-				total += length;
-			}
-			rs.close();
-			ps.close();
-			return ids;
-		} catch (SQLException e) {
-			tryToClose(rs);
-			tryToClose(ps);
-			throw new DbException(e);
-		}
+	public Collection<SendableMessage> getMessagesToSend(Connection txn,
+			ContactId c, int maxLength, int maxLatency) throws DbException {
+		return getSendableMessages(txn, c, getMaxMessages(maxLength),
+				maxLength, maxLatency, "");
 	}
 
 	@Override
@@ -2043,13 +2385,40 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT messageId FROM messages"
 					+ " WHERE state = ? AND raw IS NOT NULL";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setInt(1, state.getValue());
 			rs = ps.executeQuery();
 			List<MessageId> ids = new ArrayList<>();
 			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
+			return ids;
+		} catch (SQLException e) {
+			tryToClose(rs);
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public Map<MessageId, Boolean> getMessagesToReconcile(Connection txn,
+			ContactId c) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT messageId, seen FROM statuses"
+					+ " WHERE contactId = ? AND state = ?"
+					+ " AND groupShared = TRUE AND messageShared = TRUE"
+					+ " AND deleted = FALSE";
+			ps = prepare(txn, sql);
+			ps.setInt(1, c.getInt());
+			ps.setInt(2, DELIVERED.getValue());
+			rs = ps.executeQuery();
+			Map<MessageId, Boolean> ids = new HashMap<>();
+			while (rs.next())
+				ids.put(new MessageId(rs.getBytes(1)), rs.getBoolean(2));
+			rs.close();
+			release(txn, sql, ps);
 			return ids;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -2071,13 +2440,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " ON d.messageId = m1.messageId"
 					+ " WHERE m.state = ?"
 					+ " AND m.shared = FALSE AND m1.shared = TRUE";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setInt(1, DELIVERED.getValue());
 			rs = ps.executeQuery();
 			List<MessageId> ids = new ArrayList<>();
 			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return ids;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -2097,7 +2466,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " AND groupShared = TRUE AND messageShared = TRUE"
 					+ " AND deleted = FALSE AND seen = FALSE"
 					+ " ORDER BY expiry LIMIT 1";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setInt(1, c.getInt());
 			ps.setInt(2, DELIVERED.getValue());
 			rs = ps.executeQuery();
@@ -2107,7 +2476,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 				if (rs.next()) throw new AssertionError();
 			}
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return nextSendTime;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -2117,37 +2486,168 @@ abstract class JdbcDatabase implements Database<Connection> {
 	}
 
 	@Override
-	public Collection<MessageId> getRequestedMessagesToSend(Connection txn,
-			ContactId c, int maxLength, int maxLatency) throws DbException {
+	public Collection<SendableMessage> getRequestedMessagesToSend(
+			Connection txn, ContactId c, int maxLength, int maxLatency)
+			throws DbException {
+		return getSendableMessages(txn, c, getMaxMessages(maxLength),
+				maxLength, maxLatency, " AND requested = TRUE");
+	}
+
+	/**
+	 * Returns the maximum number of messages that can fit in the given total
+	 * length.
+	 */
+	private int getMaxMessages(int maxLength) {
+		return maxLength / MESSAGE_HEADER_LENGTH;
+	}
+
+	/**
+	 * Returns some eligible messages, up to the given number of messages and
+	 * total length. The oldest eligible messages from each group are
+	 * returned in timestamp order. Groups take turns to contribute messages,
+	 * so a backlog in one group doesn't crowd out the other groups.
+	 * <p/>
+	 * A group stops contributing when its next message doesn't fit. That
+	 * message can't be sent or offered in the same batch or offer as the
+	 * older messages in the group, so the scheduler never needs it.
+	 */
+	private Collection<SendableMessage> getSendableMessages(Connection txn,
+			ContactId c, int maxMessages, int maxLength, int maxLatency,
+			String condition) throws DbException {
 		long now = clock.currentTimeMillis();
 		long eta = now + maxLatency;
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			String sql = "SELECT length, messageId FROM statuses"
+			String sql = "SELECT messageId, s.groupId, clientId,"
+					+ " majorVersion, timestamp, length"
+					+ " FROM statuses AS s"
+					+ " JOIN groups AS g"
+					+ " ON s.groupId = g.groupId"
 					+ " WHERE contactId = ? AND state = ?"
 					+ " AND groupShared = TRUE AND messageShared = TRUE"
 					+ " AND deleted = FALSE"
-					+ " AND seen = FALSE AND requested = TRUE"
+					+ " AND seen = FALSE" + condition
 					+ " AND (expiry <= ? OR eta > ?)"
-					+ " ORDER BY timestamp";
-			ps = txn.prepareStatement(sql);
+					+ " ORDER BY s.groupId, timestamp";
+			ps = prepare(txn, sql);
 			ps.setInt(1, c.getInt());
 			ps.setInt(2, DELIVERED.getValue());
 			ps.setLong(3, now);
 			ps.setLong(4, eta);
 			rs = ps.executeQuery();
-			List<MessageId> ids = new ArrayList<>();
-			int total = 0;
+			// Take the oldest messages from each group that fit the limits
+			List<List<SendableMessage>> groups = new ArrayList<>();
+			List<SendableMessage> group = null;
+			GroupId g = null;
+			long groupLength = 0;
+			boolean groupFull = false;
 			while (rs.next()) {
-				int length = rs.getInt(1);
-				if (total + length > maxLength) break;
-				ids.add(new MessageId(rs.getBytes(2)));
-				total += length;
+				byte[] groupId = rs.getBytes(2);
+				if (g == null || !Arrays.equals(groupId, g.getBytes())) {
+					g = new GroupId(groupId);
+					group = new ArrayList<>();
+					groups.add(group);
+					groupLength = 0;
+					groupFull = false;
+				}
+				if (groupFull) continue;
+				int length = rs.getInt(6);
+				if (group.size() == maxMessages
+						|| groupLength + length > maxLength) {
+					groupFull = true;
+					continue;
+				}
+				groupLength += length;
+				MessageId m = new MessageId(rs.getBytes(1));
+				ClientId clientId = new ClientId(rs.getString(3));
+				int majorVersion = rs.getInt(4);
+				long timestamp = rs.getLong(5);
+				group.add(new SendableMessage(m, g, clientId, majorVersion,
+						timestamp, length));
 			}
 			rs.close();
-			ps.close();
-			return ids;
+			release(txn, sql, ps);
+			return takeTurns(groups, maxMessages, maxLength);
+		} catch (SQLException e) {
+			tryToClose(rs);
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
+	/**
+	 * Takes messages from the given groups in turns, starting with the first
+	 * message from each group, until the given number of messages or total
+	 * length is reached.
+	 */
+	private List<SendableMessage> takeTurns(
+			List<List<SendableMessage>> groups, int maxMessages,
+			int maxLength) {
+		List<SendableMessage> messages = new ArrayList<>();
+		long total = 0;
+		for (int turn = 0; messages.size() < maxMessages; turn++) {
+			boolean taken = false;
+			for (List<SendableMessage> group : groups) {
+				if (turn >= group.size()) continue;
+				SendableMessage m = group.get(turn);
+				if (total + m.getLength() > maxLength) {
+					// The rest of the group's messages must wait
+					group.subList(turn, group.size()).clear();
+					continue;
+				}
+				messages.add(m);
+				total += m.getLength();
+				taken = true;
+				if (messages.size() == maxMessages) break;
+			}
+			if (!taken) break;
+		}
+		return messages;
+	}
+
+	@Nullable
+	@Override
+	public byte[] getSession(Connection txn, GroupId g, SessionId s)
+			throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT session FROM sessions"
+					+ " WHERE groupId = ? AND sessionId = ?";
+			ps = prepare(txn, sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setBytes(2, s.getBytes());
+			rs = ps.executeQuery();
+			byte[] session = rs.next() ? rs.getBytes(1) : null;
+			if (rs.next()) throw new DbStateException();
+			rs.close();
+			release(txn, sql, ps);
+			return session;
+		} catch (SQLException e) {
+			tryToClose(rs);
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public Map<SessionId, byte[]> getSessions(Connection txn, GroupId g)
+			throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT sessionId, session FROM sessions"
+					+ " WHERE groupId = ?";
+			ps = prepare(txn, sql);
+			ps.setBytes(1, g.getBytes());
+			rs = ps.executeQuery();
+			Map<SessionId, byte[]> sessions = new HashMap<>();
+			while (rs.next())
+				sessions.put(new SessionId(rs.getBytes(1)), rs.getBytes(2));
+			rs.close();
+			release(txn, sql, ps);
+			return sessions;
 		} catch (SQLException e) {
 			tryToClose(rs);
 			tryToClose(ps);
@@ -2163,13 +2663,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT settingKey, value FROM settings"
 					+ " WHERE namespace = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setString(1, namespace);
 			rs = ps.executeQuery();
 			Settings s = new Settings();
 			while (rs.next()) s.put(rs.getString(1), rs.getString(2));
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return s;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -2190,7 +2690,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " FROM incomingKeys"
 					+ " WHERE transportId = ?"
 					+ " ORDER BY keySetId, periodOffset";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setString(1, t.getString());
 			rs = ps.executeQuery();
 			List<IncomingKeys> inKeys = new ArrayList<>();
@@ -2204,14 +2704,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 						windowBase, windowBitmap));
 			}
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			// Retrieve the outgoing keys in the same order
 			sql = "SELECT keySetId, contactId, rotationPeriod,"
 					+ " tagKey, headerKey, stream, active"
 					+ " FROM outgoingKeys"
 					+ " WHERE transportId = ?"
 					+ " ORDER BY keySetId";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setString(1, t.getString());
 			rs = ps.executeQuery();
 			Collection<KeySet> keys = new ArrayList<>();
@@ -2235,7 +2735,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 				keys.add(new KeySet(keySetId, contactId, transportKeys));
 			}
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			return keys;
 		} catch (SQLException e) {
 			tryToClose(rs);
@@ -2244,6 +2744,32 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public boolean incrementMessageCounts(Connection txn, GroupId g,
+			long timestamp, boolean read) throws DbException {
+		PreparedStatement ps = null;
+		try {
+			String sql = "UPDATE messageCounts"
+					+ " SET msgCount = msgCount + 1,"
+					+ " unreadCount = unreadCount + ?,"
+					+ " latestMsgTime = CASE WHEN latestMsgTime < ?"
+					+ " THEN ? ELSE latestMsgTime END"
+					+ " WHERE groupId = ?";
+			ps = prepare(txn, sql);
+			ps.setInt(1, read ? 0 : 1);
+			ps.setLong(2, timestamp);
+			ps.setLong(3, timestamp);
+			ps.setBytes(4, g.getBytes());
+			int affected = ps.executeUpdate();
+			if (affected < 0 || affected > 1) throw new DbStateException();
+			release(txn, sql, ps);
+			return affected == 1;
+		} catch (SQLException e) {
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public void incrementStreamCounter(Connection txn, TransportId t,
 			KeySetId k) throws DbException {
@@ -2251,12 +2777,33 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "UPDATE outgoingKeys SET stream = stream + 1"
 					+ " WHERE transportId = ? AND keySetId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setString(1, t.getString());
 			ps.setInt(2, k.getInt());
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
+		} catch (SQLException e) {
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public boolean incrementUnreadCount(Connection txn, GroupId g,
+			int increment) throws DbException {
+		PreparedStatement ps = null;
+		try {
+			String sql = "UPDATE messageCounts"
+					+ " SET unreadCount = unreadCount + ?"
+					+ " WHERE groupId = ?";
+			ps = prepare(txn, sql);
+			ps.setInt(1, increment);
+			ps.setBytes(2, g.getBytes());
+			int affected = ps.executeUpdate();
+			if (affected < 0 || affected > 1) throw new DbStateException();
+			release(txn, sql, ps);
+			return affected == 1;
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -2270,7 +2817,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "UPDATE statuses SET ack = FALSE"
 					+ " WHERE messageId = ? AND contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setInt(2, c.getInt());
 			for (MessageId m : acked) {
 				ps.setBytes(1, m.getBytes());
@@ -2283,7 +2830,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 				if (rows < 0) throw new DbStateException();
 				if (rows > 1) throw new DbStateException();
 			}
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -2297,7 +2844,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "UPDATE statuses SET requested = FALSE"
 					+ " WHERE messageId = ? AND contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setInt(2, c.getInt());
 			for (MessageId m : requested) {
 				ps.setBytes(1, m.getBytes());
@@ -2310,7 +2857,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 				if (rows < 0) throw new DbStateException();
 				if (rows > 1) throw new DbStateException();
 			}
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -2328,7 +2875,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			// Insert any keys that don't already exist
 			String sql = "INSERT INTO groupMetadata (groupId, metaKey, value)"
 					+ " VALUES (?, ?, ?)";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, g.getBytes());
 			for (Entry<String, byte[]> e : added.entrySet()) {
 				ps.setString(2, e.getKey());
@@ -2340,7 +2887,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 				throw new DbStateException();
 			for (int rows : batchAffected)
 				if (rows != 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -2359,19 +2906,19 @@ abstract class JdbcDatabase implements Database<Connection> {
 			// Get the group ID and message state for the denormalised columns
 			String sql = "SELECT groupId, state FROM messages"
 					+ " WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			rs = ps.executeQuery();
 			if (!rs.next()) throw new DbStateException();
 			GroupId g = new GroupId(rs.getBytes(1));
 			State state = State.fromValue(rs.getInt(2));
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			// Insert any keys that don't already exist
 			sql = "INSERT INTO messageMetadata"
 					+ " (messageId, groupId, state, metaKey, value)"
 					+ " VALUES (?, ?, ?, ?, ?)";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setBytes(2, g.getBytes());
 			ps.setInt(3, state.getValue());
@@ -2385,7 +2932,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 				throw new DbStateException();
 			for (int rows : batchAffected)
 				if (rows != 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(rs);
 			tryToClose(ps);
@@ -2411,7 +2958,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			if (!removed.isEmpty()) {
 				String sql = "DELETE FROM " + tableName
 						+ " WHERE " + columnName + " = ? AND metaKey = ?";
-				ps = txn.prepareStatement(sql);
+				ps = prepare(txn, sql);
 				ps.setBytes(1, id);
 				for (String key : removed) {
 					ps.setString(2, key);
@@ -2424,13 +2971,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 					if (rows < 0) throw new DbStateException();
 					if (rows > 1) throw new DbStateException();
 				}
-				ps.close();
+				release(txn, sql, ps);
 			}
 			if (notRemoved.isEmpty()) return Collections.emptyMap();
 			// Update any keys that already exist
 			String sql = "UPDATE " + tableName + " SET value = ?"
 					+ " WHERE " + columnName + " = ? AND metaKey = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(2, id);
 			for (Entry<String, byte[]> e : notRemoved.entrySet()) {
 				ps.setBytes(1, e.getValue());
@@ -2444,7 +2991,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 				if (rows < 0) throw new DbStateException();
 				if (rows > 1) throw new DbStateException();
 			}
-			ps.close();
+			release(txn, sql, ps);
 			// Are there any keys that don't already exist?
 			Map<String, byte[]> added = new HashMap<>();
 			int updateIndex = 0;
@@ -2467,7 +3014,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			// Update any settings that already exist
 			String sql = "UPDATE settings SET value = ?"
 					+ " WHERE namespace = ? AND settingKey = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			for (Entry<String, String> e : s.entrySet()) {
 				ps.setString(1, e.getValue());
 				ps.setString(2, namespace);
@@ -2481,9 +3028,10 @@ abstract class JdbcDatabase implements Database<Connection> {
 				if (rows > 1) throw new DbStateException();
 			}
 			// Insert any settings that don't already exist
+			release(txn, sql, ps);
 			sql = "INSERT INTO settings (namespace, settingKey, value)"
 					+ " VALUES (?, ?, ?)";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			int updateIndex = 0, inserted = 0;
 			for (Entry<String, String> e : s.entrySet()) {
 				if (batchAffected[updateIndex] == 0) {
@@ -2499,7 +3047,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			if (batchAffected.length != inserted) throw new DbStateException();
 			for (int rows : batchAffected)
 				if (rows != 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -2513,12 +3061,12 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "UPDATE statuses SET ack = TRUE"
 					+ " WHERE messageId = ? AND contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setInt(2, c.getInt());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -2532,12 +3080,12 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "UPDATE statuses SET requested = TRUE"
 					+ " WHERE messageId = ? AND contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setInt(2, c.getInt());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -2551,12 +3099,12 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "UPDATE statuses SET seen = TRUE"
 					+ " WHERE messageId = ? AND contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setInt(2, c.getInt());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -2569,11 +3117,11 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		try {
 			String sql = "DELETE FROM contacts WHERE contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setInt(1, c.getInt());
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -2585,11 +3133,11 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		try {
 			String sql = "DELETE FROM groups WHERE groupId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, g.getBytes());
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -2603,21 +3151,21 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "DELETE FROM groupVisibilities"
 					+ " WHERE contactId = ? AND groupId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setInt(1, c.getInt());
 			ps.setBytes(2, g.getBytes());
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 			// Remove status rows for the messages in the group
 			sql = "DELETE FROM statuses"
 					+ " WHERE contactId = ? AND groupId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setInt(1, c.getInt());
 			ps.setBytes(2, g.getBytes());
 			affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -2630,11 +3178,11 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		try {
 			String sql = "DELETE FROM localAuthors WHERE authorId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, a.getBytes());
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -2646,11 +3194,11 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		try {
 			String sql = "DELETE FROM messages WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -2663,12 +3211,12 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "DELETE FROM offers"
 					+ " WHERE contactId = ? AND messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setInt(1, c.getInt());
 			ps.setBytes(2, m.getBytes());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 			return affected == 1;
 		} catch (SQLException e) {
 			tryToClose(ps);
@@ -2683,7 +3231,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "DELETE FROM offers"
 					+ " WHERE contactId = ? AND messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setInt(1, c.getInt());
 			for (MessageId m : requested) {
 				ps.setBytes(2, m.getBytes());
@@ -2694,7 +3242,26 @@ abstract class JdbcDatabase implements Database<Connection> {
 				throw new DbStateException();
 			for (int rows : batchAffected)
 				if (rows != 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
+		} catch (SQLException e) {
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public void removeSession(Connection txn, GroupId g, SessionId s)
+			throws DbException {
+		PreparedStatement ps = null;
+		try {
+			String sql = "DELETE FROM sessions"
+					+ " WHERE groupId = ? AND sessionId = ?";
+			ps = prepare(txn, sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setBytes(2, s.getBytes());
+			int affected = ps.executeUpdate();
+			if (affected < 0 || affected > 1) throw new DbStateException();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -2707,11 +3274,11 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		try {
 			String sql = "DELETE FROM transports WHERE transportId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setString(1, t.getString());
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -2727,12 +3294,12 @@ abstract class JdbcDatabase implements Database<Connection> {
 			// incoming keys with the same key set ID
 			String sql = "DELETE FROM outgoingKeys"
 					+ " WHERE transportId = ? AND keySetId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setString(1, t.getString());
 			ps.setInt(2, k.getInt());
 			int affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -2746,12 +3313,12 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "UPDATE statuses SET expiry = 0, txCount = 0"
 					+ " WHERE messageId = ? AND contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setInt(2, c.getInt());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -2764,12 +3331,12 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		try {
 			String sql = "UPDATE contacts SET verified = ? WHERE contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBoolean(1, true);
 			ps.setInt(2, c.getInt());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -2782,12 +3349,12 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		try {
 			String sql = "UPDATE contacts SET active = ? WHERE contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBoolean(1, active);
 			ps.setInt(2, c.getInt());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -2801,23 +3368,59 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "UPDATE groupVisibilities SET shared = ?"
 					+ " WHERE contactId = ? AND groupId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBoolean(1, shared);
 			ps.setInt(2, c.getInt());
 			ps.setBytes(3, g.getBytes());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 			// Update denormalised column in statuses
 			sql = "UPDATE statuses SET groupShared = ?"
 					+ " WHERE contactId = ? AND groupId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBoolean(1, shared);
 			ps.setInt(2, c.getInt());
 			ps.setBytes(3, g.getBytes());
 			affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
+		} catch (SQLException e) {
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public void setMessageCounts(Connection txn, GroupId g,
+			MessageCounts counts) throws DbException {
+		PreparedStatement ps = null;
+		try {
+			// Update the counts if they already exist
+			String sql = "UPDATE messageCounts"
+					+ " SET msgCount = ?, unreadCount = ?, latestMsgTime = ?"
+					+ " WHERE groupId = ?";
+			ps = prepare(txn, sql);
+			ps.setInt(1, counts.getMsgCount());
+			ps.setInt(2, counts.getUnreadCount());
+			ps.setLong(3, counts.getLatestMsgTime());
+			ps.setBytes(4, g.getBytes());
+			int affected = ps.executeUpdate();
+			if (affected < 0 || affected > 1) throw new DbStateException();
+			release(txn, sql, ps);
+			if (affected == 1) return;
+			// Insert the counts if they don't already exist
+			sql = "INSERT INTO messageCounts"
+					+ " (groupId, msgCount, unreadCount, latestMsgTime)"
+					+ " VALUES (?, ?, ?, ?)";
+			ps = prepare(txn, sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setInt(2, counts.getMsgCount());
+			ps.setInt(3, counts.getUnreadCount());
+			ps.setLong(4, counts.getLatestMsgTime());
+			affected = ps.executeUpdate();
+			if (affected != 1) throw new DbStateException();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -2831,19 +3434,19 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "UPDATE messages SET shared = TRUE"
 					+ " WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 			// Update denormalised column in statuses
 			sql = "UPDATE statuses SET messageShared = TRUE"
 					+ " WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -2856,47 +3459,79 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		try {
 			String sql = "UPDATE messages SET state = ? WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setInt(1, state.getValue());
 			ps.setBytes(2, m.getBytes());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 			// Update denormalised column in messageMetadata
 			sql = "UPDATE messageMetadata SET state = ? WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setInt(1, state.getValue());
 			ps.setBytes(2, m.getBytes());
 			affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 			// Update denormalised column in statuses
 			sql = "UPDATE statuses SET state = ? WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setInt(1, state.getValue());
 			ps.setBytes(2, m.getBytes());
 			affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 			// Update denormalised column in messageDependencies
 			sql = "UPDATE messageDependencies SET messageState = ?"
 					+ " WHERE messageId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setInt(1, state.getValue());
 			ps.setBytes(2, m.getBytes());
 			affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 			// Update denormalised column in messageDependencies if dependency
 			// is present and in same group as dependent
 			sql = "UPDATE messageDependencies SET dependencyState = ?"
 					+ " WHERE dependencyId = ? AND dependencyState IS NOT NULL";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setInt(1, state.getValue());
 			ps.setBytes(2, m.getBytes());
 			affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
+		} catch (SQLException e) {
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public void setSession(Connection txn, GroupId g, SessionId s,
+			byte[] session) throws DbException {
+		PreparedStatement ps = null;
+		try {
+			// Update the session if it already exists
+			String sql = "UPDATE sessions SET session = ?"
+					+ " WHERE groupId = ? AND sessionId = ?";
+			ps = prepare(txn, sql);
+			ps.setBytes(1, session);
+			ps.setBytes(2, g.getBytes());
+			ps.setBytes(3, s.getBytes());
+			int affected = ps.executeUpdate();
+			if (affected < 0 || affected > 1) throw new DbStateException();
+			release(txn, sql, ps);
+			if (affected == 1) return;
+			// Insert the session if it doesn't already exist
+			sql = "INSERT INTO sessions (groupId, sessionId, session)"
+					+ " VALUES (?, ?, ?)";
+			ps = prepare(txn, sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setBytes(2, s.getBytes());
+			ps.setBytes(3, session);
+			affected = ps.executeUpdate();
+			if (affected != 1) throw new DbStateException();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -2911,7 +3546,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			String sql = "UPDATE incomingKeys SET base = ?, bitmap = ?"
 					+ " WHERE transportId = ? AND keySetId = ?"
 					+ " AND rotationPeriod = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setLong(1, base);
 			ps.setBytes(2, bitmap);
 			ps.setString(3, t.getString());
@@ -2919,7 +3554,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			ps.setLong(5, rotationPeriod);
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -2933,12 +3568,12 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "UPDATE outgoingKeys SET active = true"
 					+ " WHERE transportId = ? AND keySetId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setString(1, t.getString());
 			ps.setInt(2, k.getInt());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -2953,7 +3588,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			String sql = "SELECT txCount FROM statuses"
 					+ " WHERE messageId = ? AND contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setBytes(1, m.getBytes());
 			ps.setInt(2, c.getInt());
 			rs = ps.executeQuery();
@@ -2961,11 +3596,11 @@ abstract class JdbcDatabase implements Database<Connection> {
 			int txCount = rs.getInt(1);
 			if (rs.next()) throw new DbStateException();
 			rs.close();
-			ps.close();
+			release(txn, sql, ps);
 			sql = "UPDATE statuses"
 					+ " SET expiry = ?, txCount = txCount + 1, eta = ?"
 					+ " WHERE messageId = ? AND contactId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			long now = clock.currentTimeMillis();
 			long eta = now + maxLatency;
 			ps.setLong(1, calculateExpiry(now, maxLatency, txCount));
@@ -2974,7 +3609,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			ps.setInt(4, c.getInt());
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(rs);
 			tryToClose(ps);
@@ -2991,7 +3626,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			String sql = "UPDATE outgoingKeys SET rotationPeriod = ?,"
 					+ " tagKey = ?, headerKey = ?, stream = ?"
 					+ " WHERE transportId = ? AND keySetId = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			TransportKeys k = ks.getTransportKeys();
 			OutgoingKeys outCurr = k.getCurrentOutgoingKeys();
 			ps.setLong(1, outCurr.getRotationPeriod());
@@ -3002,13 +3637,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 			ps.setInt(6, ks.getKeySetId().getInt());
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 			// Update the incoming keys
 			sql = "UPDATE incomingKeys SET rotationPeriod = ?,"
 					+ " tagKey = ?, headerKey = ?, base = ?, bitmap = ?"
 					+ " WHERE transportId = ? AND keySetId = ?"
 					+ " AND periodOffset = ?";
-			ps = txn.prepareStatement(sql);
+			ps = prepare(txn, sql);
 			ps.setString(6, k.getTransportId().getString());
 			ps.setInt(7, ks.getKeySetId().getInt());
 			// Previous rotation period
@@ -3042,7 +3677,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			if (batchAffected.length != 3) throw new DbStateException();
 			for (int rows : batchAffected)
 				if (rows < 0 || rows > 1) throw new DbStateException();
-			ps.close();
+			release(txn, sql, ps);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -0,0 +1,67 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.db.DbException;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+import static java.util.logging.Level.WARNING;
+import static org.briarproject.bramble.util.LogUtils.logException;
+
+class Migration41_42 implements Migration<Connection> {
+
+	private static final Logger LOG =
+			Logger.getLogger(Migration41_42.class.getName());
+
+	// Different database libraries use different names for certain types
+	private final String hashType, binaryType;
+
+	Migration41_42(String hashType, String binaryType) {
+		this.hashType = hashType;
+		this.binaryType = binaryType;
+	}
+
+	@Override
+	public int getStartVersion() {
+		return 41;
+	}
+
+	@Override
+	public int getEndVersion() {
+		return 42;
+	}
+
+	@Override
+	public void migrate(Connection txn) throws DbException {
+		Statement s = null;
+		try {
+			s = txn.createStatement();
+			// Clients move their sessions into the new table the next time
+			// they're started
+			s.execute("CREATE TABLE sessions"
+					+ " (groupId " + hashType + " NOT NULL,"
+					+ " sessionId " + hashType + " NOT NULL,"
+					+ " session " + binaryType + " NOT NULL,"
+					+ " PRIMARY KEY (groupId, sessionId),"
+					+ " FOREIGN KEY (groupId)"
+					+ " REFERENCES groups (groupId)"
+					+ " ON DELETE CASCADE)");
+			s.close();
+		} catch (SQLException e) {
+			tryToClose(s);
+			throw new DbException(e);
+		}
+	}
+
+	private void tryToClose(@Nullable Statement s) {
+		try {
+			if (s != null) s.close();
+		} catch (SQLException e) {
+			logException(LOG, WARNING, e);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.db.DbException;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+import static java.util.logging.Level.WARNING;
+import static org.briarproject.bramble.util.LogUtils.logException;
+
+class Migration42_43 implements Migration<Connection> {
+
+	private static final Logger LOG =
+			Logger.getLogger(Migration42_43.class.getName());
+
+	// Different database libraries use different names for certain types
+	private final String hashType;
+
+	Migration42_43(String hashType) {
+		this.hashType = hashType;
+	}
+
+	@Override
+	public int getStartVersion() {
+		return 42;
+	}
+
+	@Override
+	public int getEndVersion() {
+		return 43;
+	}
+
+	@Override
+	public void migrate(Connection txn) throws DbException {
+		Statement s = null;
+		try {
+			s = txn.createStatement();
+			// Groups added before this migration have no counts. Clients
+			// that count messages in the group metadata move the counts into
+			// the new table when they next change
+			s.execute("CREATE TABLE messageCounts"
+					+ " (groupId " + hashType + " NOT NULL,"
+					+ " msgCount INT NOT NULL,"
+					+ " unreadCount INT NOT NULL,"
+					+ " latestMsgTime BIGINT NOT NULL,"
+					+ " PRIMARY KEY (groupId),"
+					+ " CHECK (unreadCount >= 0),"
+					+ " FOREIGN KEY (groupId)"
+					+ " REFERENCES groups (groupId)"
+					+ " ON DELETE CASCADE)");
+			s.close();
+		} catch (SQLException e) {
+			tryToClose(s);
+			throw new DbException(e);
+		}
+	}
+
+	private void tryToClose(@Nullable Statement s) {
+		try {
+			if (s != null) s.close();
+		} catch (SQLException e) {
+			logException(LOG, WARNING, e);
+		}
+	}
+}
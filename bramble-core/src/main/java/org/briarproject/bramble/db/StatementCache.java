@@ -0,0 +1,126 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.WARNING;
+import static org.briarproject.bramble.util.LogUtils.logException;
+
+/**
+ * A bounded cache of prepared statements belonging to a single pooled
+ * {@link Connection}.
+ * <p>
+ * {@link #prepare(String)} takes a statement for the given SQL out of the
+ * cache if one is available, or prepares a new one. When the caller has
+ * finished with the statement it must either return it to the cache with
+ * {@link #release(String, PreparedStatement)} or close it. When the cache
+ * is full, the least recently used statement is closed.
+ * <p>
+ * Like the connection it belongs to, the cache must only be used by one
+ * transaction at a time.
+ */
+@NotThreadSafe
+@NotNullByDefault
+class StatementCache {
+
+	private static final Logger LOG =
+			Logger.getLogger(StatementCache.class.getName());
+
+	private final Connection connection;
+	private final LinkedHashMap<String, PreparedStatement> statements;
+
+	private int hits = 0, misses = 0;
+	private boolean closed = false;
+
+	StatementCache(Connection connection, int size) {
+		if (size < 1) throw new IllegalArgumentException();
+		this.connection = connection;
+		// Access order, so the eldest entry is the least recently used
+		statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f,
+				true) {
+			@Override
+			protected boolean removeEldestEntry(
+					Entry<String, PreparedStatement> eldest) {
+				if (size() <= size) return false;
+				tryToClose(eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Returns a prepared statement for the given SQL. If the same SQL is
+	 * prepared again before the statement is released, a second statement
+	 * is prepared.
+	 */
+	PreparedStatement prepare(String sql) throws SQLException {
+		if (closed) throw new SQLException("Statement cache is closed");
+		PreparedStatement ps = statements.remove(sql);
+		// A caller that handles an error by closing its statements may
+		// close a statement it has already released
+		if (ps != null && ps.isClosed()) ps = null;
+		if (ps == null) {
+			misses++;
+			return connection.prepareStatement(sql);
+		}
+		hits++;
+		return ps;
+	}
+
+	/**
+	 * Returns a statement returned by {@link #prepare(String)} to the cache.
+	 * The statement must not be used again by the caller.
+	 */
+	void release(String sql, PreparedStatement ps) {
+		if (closed) {
+			tryToClose(ps);
+			return;
+		}
+		try {
+			ps.clearParameters();
+			ps.clearBatch();
+		} catch (SQLException e) {
+			// Don't reuse a statement that's in an unknown state
+			logException(LOG, WARNING, e);
+			tryToClose(ps);
+			return;
+		}
+		PreparedStatement old = statements.put(sql, ps);
+		// The same SQL was prepared twice, keep the most recent statement
+		if (old != null && old != ps) tryToClose(old);
+	}
+
+	/**
+	 * Closes all the cached statements. The connection is not closed.
+	 */
+	void close() {
+		if (closed) return;
+		closed = true;
+		Iterator<PreparedStatement> it = statements.values().iterator();
+		while (it.hasNext()) {
+			tryToClose(it.next());
+			it.remove();
+		}
+		if (LOG.isLoggable(INFO))
+			LOG.info("Statement cache hits " + hits + ", misses " + misses);
+	}
+
+	private void tryToClose(@Nullable PreparedStatement ps) {
+		try {
+			if (ps != null) ps.close();
+		} catch (SQLException e) {
+			logException(LOG, WARNING, e);
+		}
+	}
+}
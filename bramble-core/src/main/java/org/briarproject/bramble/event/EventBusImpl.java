@@ -1,34 +1,195 @@
 package org.briarproject.bramble.event;
 
+import org.briarproject.bramble.PoliteExecutor;
 import org.briarproject.bramble.api.event.Event;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.event.EventListener;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
 import javax.annotation.concurrent.ThreadSafe;
 
+import static java.util.Collections.singletonList;
+import static java.util.Collections.unmodifiableList;
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.WARNING;
+import static org.briarproject.bramble.util.LogUtils.now;
+
 @ThreadSafe
 @NotNullByDefault
 class EventBusImpl implements EventBus {
 
-	private final Collection<EventListener> listeners =
-			new CopyOnWriteArrayList<>();
+	private static final Logger LOG =
+			Logger.getLogger(EventBusImpl.class.getName());
+
+	/**
+	 * Listeners that take at least this long to handle an event are logged.
+	 */
+	static final long SLOW_LISTENER_MS = 50;
+
+	private final Object lock = new Object();
+	@GuardedBy("lock")
+	private final List<Subscription> subscriptions = new ArrayList<>();
+	/**
+	 * The subscriptions that match each class of event that has been
+	 * broadcast since the subscriptions last changed.
+	 */
+	private final Map<Class<?>, List<Subscription>> dispatchTable =
+			new ConcurrentHashMap<>();
+
+	private final AtomicLong eventsBroadcast = new AtomicLong();
+	private final AtomicLong eventsDelivered = new AtomicLong();
+	private final AtomicLong slowDeliveries = new AtomicLong();
+	private final AtomicLong dispatchTime = new AtomicLong();
 
 	@Override
 	public void addListener(EventListener l) {
-		listeners.add(l);
+		addSubscription(new Subscription(l, singletonList(Event.class),
+				null));
+	}
+
+	@Override
+	public void addListener(EventListener l,
+			Collection<Class<? extends Event>> eventTypes) {
+		addSubscription(new Subscription(l, eventTypes, null));
+	}
+
+	@Override
+	public void addAsyncListener(EventListener l,
+			Collection<Class<? extends Event>> eventTypes, Executor executor) {
+		// Deliver events to the listener one at a time, in order
+		Executor serial =
+				new PoliteExecutor(EventBusImpl.class.getName(), executor, 1);
+		addSubscription(new Subscription(l, eventTypes, serial));
+	}
+
+	private void addSubscription(Subscription s) {
+		synchronized (lock) {
+			subscriptions.add(s);
+			dispatchTable.clear();
+		}
 	}
 
 	@Override
 	public void removeListener(EventListener l) {
-		listeners.remove(l);
+		synchronized (lock) {
+			for (int i = 0; i < subscriptions.size(); i++) {
+				if (subscriptions.get(i).listener.equals(l)) {
+					subscriptions.remove(i);
+					dispatchTable.clear();
+					return;
+				}
+			}
+		}
 	}
 
 	@Override
 	public void broadcast(Event e) {
-		for (EventListener l : listeners) l.eventOccurred(e);
+		long start = now();
+		for (Subscription s : getSubscriptions(e.getClass())) {
+			if (s.executor == null) deliver(s.listener, e);
+			else s.executor.execute(() -> deliver(s.listener, e));
+		}
+		long duration = now() - start;
+		eventsBroadcast.incrementAndGet();
+		dispatchTime.addAndGet(duration);
+		if (LOG.isLoggable(FINE)) {
+			LOG.fine("Dispatching " + e.getClass().getSimpleName()
+					+ " took " + duration + " ms");
+		}
+	}
+
+	private List<Subscription> getSubscriptions(Class<?> eventClass) {
+		List<Subscription> matching = dispatchTable.get(eventClass);
+		if (matching != null) return matching;
+		synchronized (lock) {
+			matching = new ArrayList<>();
+			for (Subscription s : subscriptions) {
+				if (s.matches(eventClass)) matching.add(s);
+			}
+			matching = unmodifiableList(matching);
+			dispatchTable.put(eventClass, matching);
+			return matching;
+		}
+	}
+
+	private void deliver(EventListener l, Event e) {
+		long start = now();
+		l.eventOccurred(e);
+		long duration = now() - start;
+		eventsDelivered.incrementAndGet();
+		if (duration >= SLOW_LISTENER_MS) {
+			slowDeliveries.incrementAndGet();
+			if (LOG.isLoggable(WARNING)) {
+				LOG.warning(l.getClass().getName() + " took " + duration
+						+ " ms to handle " + e.getClass().getSimpleName());
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of events that have been broadcast.
+	 */
+	long getEventsBroadcast() {
+		return eventsBroadcast.get();
+	}
+
+	/**
+	 * Returns the number of times an event has been delivered to a listener.
+	 */
+	long getEventsDelivered() {
+		return eventsDelivered.get();
+	}
+
+	/**
+	 * Returns the number of times a listener has taken at least
+	 * {@link #SLOW_LISTENER_MS} to handle an event.
+	 */
+	long getSlowDeliveries() {
+		return slowDeliveries.get();
+	}
+
+	/**
+	 * Returns the total time in milliseconds spent dispatching events on the
+	 * broadcasting threads, including the time taken by synchronous
+	 * listeners.
+	 */
+	long getDispatchTime() {
+		return dispatchTime.get();
+	}
+
+	@Immutable
+	@NotNullByDefault
+	private static class Subscription {
+
+		private final EventListener listener;
+		private final List<Class<? extends Event>> eventTypes;
+		@Nullable
+		private final Executor executor;
+
+		private Subscription(EventListener listener,
+				Collection<Class<? extends Event>> eventTypes,
+				@Nullable Executor executor) {
+			this.listener = listener;
+			this.eventTypes = new ArrayList<>(eventTypes);
+			this.executor = executor;
+		}
+
+		private boolean matches(Class<?> eventClass) {
+			for (Class<? extends Event> c : eventTypes)
+				if (c.isAssignableFrom(eventClass)) return true;
+			return false;
+		}
 	}
 }
@@ -13,7 +13,6 @@ import org.briarproject.bramble.api.plugin.BluetoothConstants;
 import org.briarproject.bramble.api.plugin.LanTcpConstants;
 import org.briarproject.bramble.api.plugin.TransportId;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -40,17 +39,16 @@ class PayloadParserImpl implements PayloadParser {
 
 	@Override
 	public Payload parse(byte[] raw) throws IOException {
-		ByteArrayInputStream in = new ByteArrayInputStream(raw);
 		// First byte: the protocol version
-		int protocolVersion = in.read();
-		if (protocolVersion == -1) throw new FormatException();
+		if (raw.length == 0) throw new FormatException();
+		int protocolVersion = raw[0] & 0xFF;
 		if (protocolVersion != PROTOCOL_VERSION) {
 			boolean tooOld = protocolVersion < PROTOCOL_VERSION ||
 					protocolVersion == BETA_PROTOCOL_VERSION;
 			throw new UnsupportedVersionException(tooOld);
 		}
 		// The rest of the payload is a BDF list with one or more elements
-		BdfReader r = bdfReaderFactory.createReader(in);
+		BdfReader r = bdfReaderFactory.createReader(raw, 1, raw.length - 1);
 		BdfList payload = r.readList();
 		if (payload.isEmpty()) throw new FormatException();
 		if (!r.eof()) throw new FormatException();
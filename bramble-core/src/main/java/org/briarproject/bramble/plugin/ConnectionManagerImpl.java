@@ -9,6 +9,7 @@ import org.briarproject.bramble.api.plugin.TransportConnectionReader;
 import org.briarproject.bramble.api.plugin.TransportConnectionWriter;
 import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.plugin.duplex.DuplexTransportConnection;
+import org.briarproject.bramble.api.sync.PeerFeatures;
 import org.briarproject.bramble.api.sync.SyncSession;
 import org.briarproject.bramble.api.sync.SyncSessionFactory;
 import org.briarproject.bramble.api.transport.KeyManager;
@@ -100,21 +101,31 @@ class ConnectionManagerImpl implements ConnectionManager {
 				streamReader);
 	}
 
+	private SyncSession createIncomingSession(StreamContext ctx,
+			TransportConnectionReader r, PeerFeatures peerFeatures)
+			throws IOException {
+		InputStream streamReader = streamReaderFactory.createStreamReader(
+				r.getInputStream(), ctx);
+		return syncSessionFactory.createIncomingSession(ctx.getContactId(),
+				streamReader, peerFeatures);
+	}
+
 	private SyncSession createSimplexOutgoingSession(StreamContext ctx,
 			TransportConnectionWriter w) throws IOException {
 		StreamWriter streamWriter = streamWriterFactory.createStreamWriter(
-				w.getOutputStream(), ctx);
+				w.getOutputStream(), ctx, w.useLargeFrames());
 		return syncSessionFactory.createSimplexOutgoingSession(
 				ctx.getContactId(), w.getMaxLatency(), streamWriter);
 	}
 
 	private SyncSession createDuplexOutgoingSession(StreamContext ctx,
-			TransportConnectionWriter w) throws IOException {
+			TransportConnectionWriter w, PeerFeatures peerFeatures)
+			throws IOException {
 		StreamWriter streamWriter = streamWriterFactory.createStreamWriter(
-				w.getOutputStream(), ctx);
+				w.getOutputStream(), ctx, w.useLargeFrames());
 		return syncSessionFactory.createDuplexOutgoingSession(
 				ctx.getContactId(), w.getMaxLatency(), w.getMaxIdleTime(),
-				streamWriter);
+				streamWriter, peerFeatures);
 	}
 
 	private class ManageIncomingSimplexConnection implements Runnable {
@@ -227,6 +238,7 @@ class ConnectionManagerImpl implements ConnectionManager {
 		private final TransportId transportId;
 		private final TransportConnectionReader reader;
 		private final TransportConnectionWriter writer;
+		private final PeerFeatures peerFeatures = new PeerFeatures();
 
 		private volatile ContactId contactId = null;
 		private volatile SyncSession incomingSession = null;
@@ -262,7 +274,8 @@ class ConnectionManagerImpl implements ConnectionManager {
 			ioExecutor.execute(this::runOutgoingSession);
 			try {
 				// Create and run the incoming session
-				incomingSession = createIncomingSession(ctx, reader);
+				incomingSession =
+						createIncomingSession(ctx, reader, peerFeatures);
 				incomingSession.run();
 				disposeReader(false, true);
 			} catch (IOException e) {
@@ -291,7 +304,8 @@ class ConnectionManagerImpl implements ConnectionManager {
 			}
 			try {
 				// Create and run the outgoing session
-				outgoingSession = createDuplexOutgoingSession(ctx, writer);
+				outgoingSession =
+						createDuplexOutgoingSession(ctx, writer, peerFeatures);
 				outgoingSession.run();
 				disposeWriter(false);
 			} catch (IOException e) {
@@ -329,6 +343,7 @@ class ConnectionManagerImpl implements ConnectionManager {
 		private final TransportId transportId;
 		private final TransportConnectionReader reader;
 		private final TransportConnectionWriter writer;
+		private final PeerFeatures peerFeatures = new PeerFeatures();
 
 		private volatile SyncSession incomingSession = null;
 		private volatile SyncSession outgoingSession = null;
@@ -361,7 +376,8 @@ class ConnectionManagerImpl implements ConnectionManager {
 			ioExecutor.execute(this::runIncomingSession);
 			try {
 				// Create and run the outgoing session
-				outgoingSession = createDuplexOutgoingSession(ctx, writer);
+				outgoingSession =
+						createDuplexOutgoingSession(ctx, writer, peerFeatures);
 				outgoingSession.run();
 				disposeWriter(false);
 			} catch (IOException e) {
@@ -397,7 +413,8 @@ class ConnectionManagerImpl implements ConnectionManager {
 					false);
 			try {
 				// Create and run the incoming session
-				incomingSession = createIncomingSession(ctx, reader);
+				incomingSession =
+						createIncomingSession(ctx, reader, peerFeatures);
 				incomingSession.run();
 				disposeReader(false, true);
 			} catch (IOException e) {
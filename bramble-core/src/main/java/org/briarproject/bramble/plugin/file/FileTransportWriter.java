@@ -37,6 +37,11 @@ class FileTransportWriter implements TransportConnectionWriter {
 		return plugin.getMaxIdleTime();
 	}
 
+	@Override
+	public boolean useLargeFrames() {
+		return false;
+	}
+
 	@Override
 	public OutputStream getOutputStream() {
 		return out;
@@ -5,6 +5,7 @@ import org.briarproject.bramble.api.contact.ContactManager;
 import org.briarproject.bramble.api.data.MetadataEncoder;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager;
 import org.briarproject.bramble.api.properties.TransportPropertyManager;
+import org.briarproject.bramble.api.sync.SyncScheduler;
 import org.briarproject.bramble.api.sync.ValidationManager;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.bramble.api.versioning.ClientVersioningManager;
@@ -18,6 +19,7 @@ import dagger.Provides;
 import static org.briarproject.bramble.api.properties.TransportPropertyManager.CLIENT_ID;
 import static org.briarproject.bramble.api.properties.TransportPropertyManager.MAJOR_VERSION;
 import static org.briarproject.bramble.api.properties.TransportPropertyManager.MINOR_VERSION;
+import static org.briarproject.bramble.api.sync.SyncScheduler.Priority.HIGH;
 
 @Module
 public class PropertiesModule {
@@ -47,6 +49,7 @@ public class PropertiesModule {
 			LifecycleManager lifecycleManager,
 			ValidationManager validationManager, ContactManager contactManager,
 			ClientVersioningManager clientVersioningManager,
+			SyncScheduler syncScheduler,
 			TransportPropertyManagerImpl transportPropertyManager) {
 		lifecycleManager.registerClient(transportPropertyManager);
 		validationManager.registerIncomingMessageHook(CLIENT_ID, MAJOR_VERSION,
@@ -54,6 +57,8 @@ public class PropertiesModule {
 		contactManager.registerContactHook(transportPropertyManager);
 		clientVersioningManager.registerClient(CLIENT_ID, MAJOR_VERSION,
 				MINOR_VERSION, transportPropertyManager);
+		// Transport properties are needed to connect to contacts
+		syncScheduler.setClientPriority(CLIENT_ID, MAJOR_VERSION, HIGH);
 		return transportPropertyManager;
 	}
 }
@@ -13,9 +13,13 @@ import org.briarproject.bramble.api.lifecycle.IoExecutor;
 import org.briarproject.bramble.api.lifecycle.event.LifecycleEvent;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.Features;
 import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.Offer;
+import org.briarproject.bramble.api.sync.PeerFeatures;
 import org.briarproject.bramble.api.sync.Request;
+import org.briarproject.bramble.api.sync.Sketch;
 import org.briarproject.bramble.api.sync.SyncRecordWriter;
 import org.briarproject.bramble.api.sync.SyncSession;
 import org.briarproject.bramble.api.sync.event.GroupVisibilityUpdatedEvent;
@@ -23,6 +27,8 @@ import org.briarproject.bramble.api.sync.event.MessageRequestedEvent;
 import org.briarproject.bramble.api.sync.event.MessageSharedEvent;
 import org.briarproject.bramble.api.sync.event.MessageToAckEvent;
 import org.briarproject.bramble.api.sync.event.MessageToRequestEvent;
+import org.briarproject.bramble.api.sync.event.ReconciliationFinishedEvent;
+import org.briarproject.bramble.api.sync.event.SketchRequestedEvent;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.bramble.api.transport.StreamWriter;
 
@@ -32,16 +38,22 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static org.briarproject.bramble.api.lifecycle.LifecycleManager.LifecycleState.STOPPING;
 import static org.briarproject.bramble.api.record.Record.MAX_RECORD_PAYLOAD_BYTES;
+import static org.briarproject.bramble.api.sync.SyncConstants.FEATURE_COMPRESSED_MESSAGES;
+import static org.briarproject.bramble.api.sync.SyncConstants.FEATURE_SKETCHES;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
 import static org.briarproject.bramble.util.LogUtils.logException;
 
@@ -50,6 +62,15 @@ import static org.briarproject.bramble.util.LogUtils.logException;
  * offers messages before sending them, keeps its output stream open when there
  * are no records to send, and reacts to events that make records available to
  * send.
+ * <p>
+ * The session advertises the optional features it supports, and uses the
+ * features advertised by the peer on the same connection, as recorded by the
+ * incoming session.
+ * <p>
+ * If the experimental sketch feature is enabled, the session sends sketches
+ * when the incoming session asks for them. The session offers messages as
+ * usual until the peer advertises support for sketches, and then holds back
+ * offers until the exchange of sketches has finished or timed out.
  */
 @ThreadSafe
 @NotNullByDefault
@@ -58,11 +79,37 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 	private static final Logger LOG =
 			Logger.getLogger(DuplexOutgoingSession.class.getName());
 
+	/**
+	 * The types of events the session listens for.
+	 */
+	private static final Collection<Class<? extends Event>> EVENT_TYPES =
+			asList(ContactRemovedEvent.class, MessageSharedEvent.class,
+					GroupVisibilityUpdatedEvent.class,
+					MessageRequestedEvent.class, MessageToAckEvent.class,
+					MessageToRequestEvent.class, SketchRequestedEvent.class,
+					ReconciliationFinishedEvent.class, LifecycleEvent.class);
+
+	/**
+	 * The maximum number of bytes of messages that may be loaded from the
+	 * database ahead of the writer. Batches are generated while earlier
+	 * batches are being written, until this limit is reached.
+	 */
+	static final int MAX_BATCH_BYTES_IN_FLIGHT = 2 * MAX_RECORD_PAYLOAD_BYTES;
+
+	/**
+	 * The maximum time in milliseconds to wait for the exchange of sketches
+	 * to finish before offering messages.
+	 */
+	static final int MAX_RECONCILIATION_TIME = 30 * 1000;
+
 	private static final ThrowingRunnable<IOException> CLOSE = () -> {
 	};
 	private static final ThrowingRunnable<IOException>
 			NEXT_SEND_TIME_DECREASED = () -> {
 	};
+	private static final ThrowingRunnable<IOException>
+			RECONCILIATION_STARTED = () -> {
+	};
 
 	private final DatabaseComponent db;
 	private final Executor dbExecutor;
@@ -72,6 +119,8 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 	private final int maxLatency, maxIdleTime;
 	private final StreamWriter streamWriter;
 	private final SyncRecordWriter recordWriter;
+	private final PeerFeatures peerFeatures;
+	private final boolean sketchesEnabled;
 	private final BlockingQueue<ThrowingRunnable<IOException>> writerTasks;
 
 	private final AtomicBoolean generateAckQueued = new AtomicBoolean(false);
@@ -80,13 +129,26 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 	private final AtomicBoolean generateRequestQueued =
 			new AtomicBoolean(false);
 	private final AtomicLong nextSendTime = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicInteger batchBytesInFlight = new AtomicInteger(0);
+	private final AtomicInteger sketchCellsSent = new AtomicInteger(0);
+	private final AtomicBoolean reconciliationStarted =
+			new AtomicBoolean(false);
 
 	private volatile boolean interrupted = false;
+	private volatile boolean offersDeferred = false;
+	private volatile long offerDeadline = Long.MAX_VALUE;
+	/**
+	 * The IDs of the messages shared with the contact, loaded for the first
+	 * sketch and reused for any larger sketches.
+	 */
+	@Nullable
+	private volatile Collection<MessageId> reconciling = null;
 
 	DuplexOutgoingSession(DatabaseComponent db, Executor dbExecutor,
 			EventBus eventBus, Clock clock, ContactId contactId, int maxLatency,
 			int maxIdleTime, StreamWriter streamWriter,
-			SyncRecordWriter recordWriter) {
+			SyncRecordWriter recordWriter, PeerFeatures peerFeatures,
+			boolean sketchesEnabled) {
 		this.db = db;
 		this.dbExecutor = dbExecutor;
 		this.eventBus = eventBus;
@@ -96,14 +158,18 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 		this.maxIdleTime = maxIdleTime;
 		this.streamWriter = streamWriter;
 		this.recordWriter = recordWriter;
+		this.peerFeatures = peerFeatures;
+		this.sketchesEnabled = sketchesEnabled;
 		writerTasks = new LinkedBlockingQueue<>();
 	}
 
 	@IoExecutor
 	@Override
 	public void run() throws IOException {
-		eventBus.addListener(this);
+		eventBus.addListener(this, EVENT_TYPES);
 		try {
+			// Tell the peer which optional features we support
+			recordWriter.writeFeatures(getSupportedFeatures());
 			// Start a query for each type of record
 			generateAck();
 			generateBatch();
@@ -120,6 +186,8 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 					long keepaliveWait = Math.max(0, nextKeepalive - now);
 					long sendWait = Math.max(0, nextSendTime.get() - now);
 					long wait = Math.min(keepaliveWait, sendWait);
+					if (offersDeferred)
+						wait = Math.min(wait, Math.max(0, offerDeadline - now));
 					// Flush any unflushed data if we're going to wait
 					if (wait > 0 && dataToFlush && writerTasks.isEmpty()) {
 						recordWriter.flush();
@@ -138,6 +206,11 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 							generateBatch();
 							generateOffer();
 						}
+						if (offersDeferred && now >= offerDeadline) {
+							LOG.info("Exchange of sketches timed out");
+							offersDeferred = false;
+							generateOffer();
+						}
 						if (now >= nextKeepalive) {
 							// Flush the stream to keep it alive
 							LOG.info("Sending keepalive");
@@ -150,6 +223,8 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 						break;
 					} else if (task == NEXT_SEND_TIME_DECREASED) {
 						LOG.info("Next send time decreased");
+					} else if (task == RECONCILIATION_STARTED) {
+						LOG.info("Exchange of sketches started");
 					} else {
 						task.run();
 						dataToFlush = true;
@@ -171,11 +246,23 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 	}
 
 	private void generateBatch() {
+		// Don't load any more messages until the writer catches up
+		if (batchBytesInFlight.get() >= MAX_BATCH_BYTES_IN_FLIGHT) return;
 		if (generateBatchQueued.compareAndSet(false, true))
 			dbExecutor.execute(new GenerateBatch());
 	}
 
+	private Features getSupportedFeatures() {
+		if (sketchesEnabled) {
+			return new Features(asList(FEATURE_COMPRESSED_MESSAGES,
+					FEATURE_SKETCHES));
+		}
+		return new Features(singletonList(FEATURE_COMPRESSED_MESSAGES));
+	}
+
 	private void generateOffer() {
+		// Wait for the exchange of sketches to discover the missing messages
+		if (offersDeferred) return;
 		if (generateOfferQueued.compareAndSet(false, true))
 			dbExecutor.execute(new GenerateOffer());
 	}
@@ -185,6 +272,25 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 			dbExecutor.execute(new GenerateRequest());
 	}
 
+	private void startReconciliation() {
+		// Hold back offers from the first sketch request until the exchange
+		// of sketches finishes or times out
+		if (!reconciliationStarted.compareAndSet(false, true)) return;
+		offerDeadline = clock.currentTimeMillis() + MAX_RECONCILIATION_TIME;
+		offersDeferred = true;
+		writerTasks.add(RECONCILIATION_STARTED);
+	}
+
+	private void generateSketch(int cells) {
+		// Only send a sketch if it's larger than any we've already sent
+		while (true) {
+			int sent = sketchCellsSent.get();
+			if (cells <= sent) return;
+			if (sketchCellsSent.compareAndSet(sent, cells)) break;
+		}
+		dbExecutor.execute(new GenerateSketch(cells));
+	}
+
 	private void setNextSendTime(long time) {
 		long old = nextSendTime.getAndSet(time);
 		if (time < old) writerTasks.add(NEXT_SEND_TIME_DECREASED);
@@ -216,6 +322,18 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 		} else if (e instanceof MessageToRequestEvent) {
 			if (((MessageToRequestEvent) e).getContactId().equals(contactId))
 				generateRequest();
+		} else if (e instanceof SketchRequestedEvent) {
+			SketchRequestedEvent s = (SketchRequestedEvent) e;
+			if (sketchesEnabled && s.getContactId().equals(contactId)) {
+				startReconciliation();
+				generateSketch(s.getCells());
+			}
+		} else if (e instanceof ReconciliationFinishedEvent) {
+			ReconciliationFinishedEvent r = (ReconciliationFinishedEvent) e;
+			if (offersDeferred && r.getContactId().equals(contactId)) {
+				offersDeferred = false;
+				generateOffer();
+			}
 		} else if (e instanceof LifecycleEvent) {
 			LifecycleEvent l = (LifecycleEvent) e;
 			if (l.getLifecycleState() == STOPPING) interrupt();
@@ -287,7 +405,14 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 				}
 				if (LOG.isLoggable(INFO))
 					LOG.info("Generated batch: " + (b != null));
-				if (b != null) writerTasks.add(new WriteBatch(b));
+				if (b != null) {
+					int bytes = 0;
+					for (Message m : b) bytes += m.getRawLength();
+					batchBytesInFlight.addAndGet(bytes);
+					writerTasks.add(new WriteBatch(b, bytes));
+					// Prefetch the next batch while this one is written
+					generateBatch();
+				}
 			} catch (DbException e) {
 				logException(LOG, WARNING, e);
 				interrupt();
@@ -298,17 +423,25 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 	private class WriteBatch implements ThrowingRunnable<IOException> {
 
 		private final Collection<Message> batch;
+		private final int bytes;
 
-		private WriteBatch(Collection<Message> batch) {
+		private WriteBatch(Collection<Message> batch, int bytes) {
 			this.batch = batch;
+			this.bytes = bytes;
 		}
 
 		@IoExecutor
 		@Override
 		public void run() throws IOException {
 			if (interrupted) return;
-			for (Message m : batch) recordWriter.writeMessage(m);
+			if (peerFeatures.isSupported(FEATURE_COMPRESSED_MESSAGES)) {
+				// Compress the batch on the writer thread
+				recordWriter.writeCompressedMessages(batch);
+			} else {
+				for (Message m : batch) recordWriter.writeMessage(m);
+			}
 			LOG.info("Sent batch");
+			batchBytesInFlight.addAndGet(-bytes);
 			generateBatch();
 		}
 	}
@@ -404,4 +537,61 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 			generateRequest();
 		}
 	}
+
+	private class GenerateSketch implements Runnable {
+
+		private final int cells;
+
+		private GenerateSketch(int cells) {
+			this.cells = cells;
+		}
+
+		@DatabaseExecutor
+		@Override
+		public void run() {
+			if (interrupted) return;
+			try {
+				Collection<MessageId> shared = reconciling;
+				if (shared == null) {
+					Transaction txn = db.startTransaction(true);
+					try {
+						shared = db.getMessagesToReconcile(txn, contactId)
+								.keySet();
+						db.commitTransaction(txn);
+					} finally {
+						db.endTransaction(txn);
+					}
+					reconciling = shared;
+				}
+				InvertibleBloomLookupTable table =
+						new InvertibleBloomLookupTable(cells);
+				for (MessageId m : shared) table.add(m);
+				if (LOG.isLoggable(INFO)) {
+					LOG.info("Generated sketch of " + shared.size()
+							+ " messages with " + cells + " cells");
+				}
+				writerTasks.add(new WriteSketch(new Sketch(table.encode())));
+			} catch (DbException e) {
+				logException(LOG, WARNING, e);
+				interrupt();
+			}
+		}
+	}
+
+	private class WriteSketch implements ThrowingRunnable<IOException> {
+
+		private final Sketch sketch;
+
+		private WriteSketch(Sketch sketch) {
+			this.sketch = sketch;
+		}
+
+		@IoExecutor
+		@Override
+		public void run() throws IOException {
+			if (interrupted) return;
+			recordWriter.writeSketch(sketch);
+			LOG.info("Sent sketch");
+		}
+	}
 }
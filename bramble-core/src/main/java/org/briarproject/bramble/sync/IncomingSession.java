@@ -1,11 +1,13 @@
 package org.briarproject.bramble.sync;
 
 import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.UniqueId;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DatabaseExecutor;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.DbRunnable;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.event.Event;
 import org.briarproject.bramble.api.event.EventBus;
@@ -14,24 +16,72 @@ import org.briarproject.bramble.api.lifecycle.IoExecutor;
 import org.briarproject.bramble.api.lifecycle.event.LifecycleEvent;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.Features;
 import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.Offer;
+import org.briarproject.bramble.api.sync.PeerFeatures;
 import org.briarproject.bramble.api.sync.Request;
+import org.briarproject.bramble.api.sync.Sketch;
 import org.briarproject.bramble.api.sync.SyncRecordReader;
 import org.briarproject.bramble.api.sync.SyncSession;
+import org.briarproject.bramble.api.sync.event.IncomingSessionBlockedEvent;
+import org.briarproject.bramble.api.sync.event.ReconciliationFinishedEvent;
+import org.briarproject.bramble.api.sync.event.SketchRequestedEvent;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
+import static java.util.Arrays.asList;
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static org.briarproject.bramble.api.lifecycle.LifecycleManager.LifecycleState.STOPPING;
+import static org.briarproject.bramble.api.record.Record.MAX_RECORD_PAYLOAD_BYTES;
+import static org.briarproject.bramble.api.sync.SyncConstants.FEATURE_SKETCHES;
+import static org.briarproject.bramble.sync.InvertibleBloomLookupTable.CELL_LENGTH;
 import static org.briarproject.bramble.util.LogUtils.logException;
+import static org.briarproject.bramble.util.LogUtils.now;
 
 /**
  * An incoming {@link SyncSession}.
+ * <p>
+ * Records are applied to the database in batches: each batch contains the
+ * records that arrived while the previous batch was waiting for or using the
+ * database executor, up to a maximum number of records and bytes, and is
+ * applied in a single transaction. If the transaction fails, the records
+ * are applied one at a time until a record fails, at which point the
+ * session stops.
+ * <p>
+ * To stop a fast peer from filling the heap with records while the database
+ * falls behind, the session stops reading when the records waiting to be
+ * applied exceed a given number of bytes, and resumes when the database has
+ * caught up.
+ * <p>
+ * If the experimental sketch feature is enabled and the peer supports it,
+ * the peers exchange sketches of the messages they share with each other.
+ * Each peer compares the other's sketch with its own messages to discover
+ * the messages that either peer is missing, in a number of bytes that
+ * depends on the number of missing messages rather than the number of
+ * shared messages. The missing messages are requested and the other shared
+ * messages are treated as acked, so they don't need to be offered. If a
+ * sketch is too small to find all the missing messages, the peers exchange
+ * larger sketches, up to a maximum size, after which they fall back to
+ * offering messages.
  */
 @ThreadSafe
 @NotNullByDefault
@@ -40,47 +90,117 @@ class IncomingSession implements SyncSession, EventListener {
 	private static final Logger LOG =
 			Logger.getLogger(IncomingSession.class.getName());
 
+	/**
+	 * The types of events the session listens for.
+	 */
+	private static final Collection<Class<? extends Event>> EVENT_TYPES =
+			asList(ContactRemovedEvent.class, LifecycleEvent.class);
+
+	/**
+	 * The maximum number of records to apply in a single transaction.
+	 */
+	static final int MAX_BATCH_RECORDS = 100;
+
+	/**
+	 * The maximum number of bytes of messages and message IDs to apply in a
+	 * single transaction. A batch may exceed this by at most one record.
+	 */
+	static final int MAX_BATCH_BYTES = 512 * 1024;
+
+	/**
+	 * The number of cells in the first sketch sent to the peer.
+	 */
+	static final int INITIAL_SKETCH_CELLS = 60;
+
+	/**
+	 * The maximum number of cells in a sketch. Each time a sketch can't be
+	 * decoded, the peers exchange sketches of twice the size, up to this
+	 * limit.
+	 */
+	static final int MAX_SKETCH_CELLS = MAX_RECORD_PAYLOAD_BYTES / CELL_LENGTH;
+
 	private final DatabaseComponent db;
 	private final Executor dbExecutor;
 	private final EventBus eventBus;
 	private final ContactId contactId;
 	private final SyncRecordReader recordReader;
+	private final PeerFeatures peerFeatures;
+	private final int maxBytesInFlight;
+	private final boolean sketchesEnabled;
+	private final Object lock = new Object();
+
+	@GuardedBy("lock")
+	private final Queue<PendingRecord> pending = new LinkedList<>();
+	@GuardedBy("lock")
+	private boolean batchScheduled = false;
+	@GuardedBy("lock")
+	private long bytesInFlight = 0, timesBlocked = 0, timeBlocked = 0;
 
 	private volatile boolean interrupted = false;
+	/**
+	 * The messages shared with the contact, loaded for the first sketch and
+	 * reused for any larger sketches. A message that was unseen when loaded
+	 * may be acked again, which is harmless.
+	 */
+	@Nullable
+	private volatile Map<MessageId, Boolean> reconciling = null;
 
 	IncomingSession(DatabaseComponent db, Executor dbExecutor,
 			EventBus eventBus, ContactId contactId,
-			SyncRecordReader recordReader) {
+			SyncRecordReader recordReader, PeerFeatures peerFeatures,
+			int maxBytesInFlight, boolean sketchesEnabled) {
+		if (maxBytesInFlight <= 0) throw new IllegalArgumentException();
 		this.db = db;
 		this.dbExecutor = dbExecutor;
 		this.eventBus = eventBus;
 		this.contactId = contactId;
 		this.recordReader = recordReader;
+		this.peerFeatures = peerFeatures;
+		this.maxBytesInFlight = maxBytesInFlight;
+		this.sketchesEnabled = sketchesEnabled;
 	}
 
 	@IoExecutor
 	@Override
 	public void run() throws IOException {
-		eventBus.addListener(this);
+		eventBus.addListener(this, EVENT_TYPES);
 		try {
 			// Read records until interrupted or EOF
 			while (!interrupted) {
+				if (!waitForDatabase()) break;
 				if (recordReader.eof()) {
 					LOG.info("End of stream");
 					return;
 				}
 				if (recordReader.hasAck()) {
 					Ack a = recordReader.readAck();
-					dbExecutor.execute(new ReceiveAck(a));
+					receive(txn -> db.receiveAck(txn, contactId, a),
+							a.getMessageIds().size() * UniqueId.LENGTH);
 				} else if (recordReader.hasMessage()) {
 					Message m = recordReader.readMessage();
-					dbExecutor.execute(new ReceiveMessage(m));
+					receive(txn -> db.receiveMessage(txn, contactId, m),
+							m.getRawLength());
 				} else if (recordReader.hasOffer()) {
 					Offer o = recordReader.readOffer();
-					dbExecutor.execute(new ReceiveOffer(o));
+					receive(txn -> db.receiveOffer(txn, contactId, o),
+							o.getMessageIds().size() * UniqueId.LENGTH);
 				} else if (recordReader.hasRequest()) {
 					Request r = recordReader.readRequest();
-					dbExecutor.execute(new ReceiveRequest(r));
+					receive(txn -> db.receiveRequest(txn, contactId, r),
+							r.getMessageIds().size() * UniqueId.LENGTH);
+				} else if (recordReader.hasFeatures()) {
+					Features f = recordReader.readFeatures();
+					peerFeatures.setFeatures(f);
+					LOG.info("Received features");
+					if (sketchesEnabled) startReconciliation();
+				} else if (recordReader.hasSketch()) {
+					Sketch s = recordReader.readSketch();
+					if (sketchesEnabled) {
+						receive(txn -> receiveSketch(txn, s),
+								s.getTable().length);
+					} else {
+						LOG.info("Ignoring sketch");
+					}
 				} else {
 					// unknown records are ignored in RecordReader#eof()
 					throw new FormatException();
@@ -88,6 +208,19 @@ class IncomingSession implements SyncSession, EventListener {
 			}
 		} finally {
 			eventBus.removeListener(this);
+			long times, time;
+			synchronized (lock) {
+				times = timesBlocked;
+				time = timeBlocked;
+			}
+			if (times > 0) {
+				if (LOG.isLoggable(INFO)) {
+					LOG.info("Blocked " + times + " times for " + time
+							+ " ms waiting for the database");
+				}
+				eventBus.broadcast(new IncomingSessionBlockedEvent(contactId,
+						times, time));
+			}
 		}
 	}
 
@@ -95,6 +228,51 @@ class IncomingSession implements SyncSession, EventListener {
 	public void interrupt() {
 		// FIXME: This won't interrupt a blocking read
 		interrupted = true;
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Returns the number of times the session has stopped reading to wait
+	 * for the database to catch up.
+	 */
+	long getTimesBlocked() {
+		synchronized (lock) {
+			return timesBlocked;
+		}
+	}
+
+	/**
+	 * Returns the total time in milliseconds the session has spent waiting
+	 * for the database to catch up.
+	 */
+	long getTimeBlocked() {
+		synchronized (lock) {
+			return timeBlocked;
+		}
+	}
+
+	/**
+	 * Waits until the records in flight are below the limit. Returns false
+	 * if the session was interrupted while waiting.
+	 */
+	private boolean waitForDatabase() throws IOException {
+		synchronized (lock) {
+			if (bytesInFlight < maxBytesInFlight) return true;
+			timesBlocked++;
+			long start = now();
+			try {
+				while (!interrupted && bytesInFlight >= maxBytesInFlight)
+					lock.wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting");
+			} finally {
+				timeBlocked += now() - start;
+			}
+			return !interrupted;
+		}
 	}
 
 	@Override
@@ -108,107 +286,143 @@ class IncomingSession implements SyncSession, EventListener {
 		}
 	}
 
-	private class ReceiveAck implements Runnable {
-
-		private final Ack ack;
-
-		private ReceiveAck(Ack ack) {
-			this.ack = ack;
+	private void startReconciliation() {
+		if (peerFeatures.isSupported(FEATURE_SKETCHES)) {
+			// Both peers send sketches of the same size, so if either peer
+			// can't decode the other's sketch, neither can the other peer
+			eventBus.broadcast(new SketchRequestedEvent(contactId,
+					INITIAL_SKETCH_CELLS));
+		} else {
+			LOG.info("Peer does not support sketches");
+			eventBus.broadcast(new ReconciliationFinishedEvent(contactId));
 		}
+	}
 
-		@DatabaseExecutor
-		@Override
-		public void run() {
-			try {
-				Transaction txn = db.startTransaction(false);
-				try {
-					db.receiveAck(txn, contactId, ack);
-					db.commitTransaction(txn);
-				} finally {
-					db.endTransaction(txn);
-				}
-			} catch (DbException e) {
-				logException(LOG, WARNING, e);
-				interrupt();
+	@DatabaseExecutor
+	private void receiveSketch(Transaction txn, Sketch s) throws DbException {
+		InvertibleBloomLookupTable remote;
+		try {
+			remote = InvertibleBloomLookupTable.decode(s.getTable());
+		} catch (FormatException e) {
+			throw new AssertionError(e); // Checked by the record reader
+		}
+		int cells = remote.getCells();
+		// Send a sketch of the same size if we haven't already done so
+		txn.attach(new SketchRequestedEvent(contactId, cells));
+		Map<MessageId, Boolean> shared = reconciling;
+		if (shared == null) {
+			shared = db.getMessagesToReconcile(txn, contactId);
+			reconciling = shared;
+		}
+		InvertibleBloomLookupTable local =
+				new InvertibleBloomLookupTable(cells);
+		for (MessageId m : shared.keySet()) local.add(m);
+		local.subtract(remote);
+		Set<MessageId> localOnly = new HashSet<>();
+		List<MessageId> remoteOnly = new ArrayList<>();
+		if (local.peel(localOnly, remoteOnly)) {
+			if (LOG.isLoggable(INFO)) {
+				LOG.info("Decoded sketch with " + cells + " cells: "
+						+ localOnly.size() + " local, " + remoteOnly.size()
+						+ " remote");
 			}
+			// The peer has all the other shared messages
+			List<MessageId> seen = new ArrayList<>();
+			for (Entry<MessageId, Boolean> e : shared.entrySet()) {
+				if (!e.getValue() && !localOnly.contains(e.getKey()))
+					seen.add(e.getKey());
+			}
+			if (!seen.isEmpty())
+				db.receiveAck(txn, contactId, new Ack(seen));
+			// Request the messages we're missing
+			if (!remoteOnly.isEmpty())
+				db.receiveOffer(txn, contactId, new Offer(remoteOnly));
+			txn.attach(new ReconciliationFinishedEvent(contactId));
+		} else if (cells * 2 <= MAX_SKETCH_CELLS) {
+			if (LOG.isLoggable(INFO))
+				LOG.info("Failed to decode sketch with " + cells + " cells");
+			txn.attach(new SketchRequestedEvent(contactId, cells * 2));
+		} else {
+			LOG.info("Failed to decode largest sketch");
+			txn.attach(new ReconciliationFinishedEvent(contactId));
 		}
 	}
 
-	private class ReceiveMessage implements Runnable {
-
-		private final Message message;
-
-		private ReceiveMessage(Message message) {
-			this.message = message;
+	private void receive(DbRunnable<DbException> task, int length) {
+		synchronized (lock) {
+			pending.add(new PendingRecord(task, length));
+			bytesInFlight += length;
+			if (batchScheduled) return;
+			batchScheduled = true;
 		}
+		dbExecutor.execute(this::receiveBatch);
+	}
 
-		@DatabaseExecutor
-		@Override
-		public void run() {
-			try {
-				Transaction txn = db.startTransaction(false);
-				try {
-					db.receiveMessage(txn, contactId, message);
-					db.commitTransaction(txn);
-				} finally {
-					db.endTransaction(txn);
-				}
-			} catch (DbException e) {
-				logException(LOG, WARNING, e);
-				interrupt();
+	@DatabaseExecutor
+	private void receiveBatch() {
+		List<DbRunnable<DbException>> batch = new ArrayList<>();
+		int bytes = 0;
+		synchronized (lock) {
+			while (batch.size() < MAX_BATCH_RECORDS
+					&& bytes < MAX_BATCH_BYTES) {
+				PendingRecord r = pending.poll();
+				if (r == null) break;
+				batch.add(r.task);
+				bytes += r.length;
 			}
 		}
-	}
-
-	private class ReceiveOffer implements Runnable {
-
-		private final Offer offer;
-
-		private ReceiveOffer(Offer offer) {
-			this.offer = offer;
+		if (LOG.isLoggable(FINE))
+			LOG.fine("Receiving batch of " + batch.size() + " records");
+		try {
+			db.transaction(false, txn -> {
+				for (DbRunnable<DbException> task : batch) task.run(txn);
+			});
+		} catch (DbException | RuntimeException e) {
+			logException(LOG, WARNING, e);
+			// Apply the records separately, so the records before the one
+			// that failed aren't lost
+			if (batch.size() == 1 || !receiveSeparately(batch)) interrupt();
+		} finally {
+			boolean more;
+			synchronized (lock) {
+				// The records are no longer in flight, so reading can resume
+				bytesInFlight -= bytes;
+				lock.notifyAll();
+				more = !pending.isEmpty();
+				if (!more) batchScheduled = false;
+			}
+			// Give other tasks a chance to run before the next batch
+			if (more) dbExecutor.execute(this::receiveBatch);
 		}
+	}
 
-		@DatabaseExecutor
-		@Override
-		public void run() {
+	/**
+	 * Applies each of the given records in its own transaction, stopping at
+	 * the first record that can't be applied. Returns false if a record
+	 * couldn't be applied.
+	 */
+	@DatabaseExecutor
+	private boolean receiveSeparately(List<DbRunnable<DbException>> batch) {
+		LOG.info("Receiving records separately");
+		for (DbRunnable<DbException> task : batch) {
 			try {
-				Transaction txn = db.startTransaction(false);
-				try {
-					db.receiveOffer(txn, contactId, offer);
-					db.commitTransaction(txn);
-				} finally {
-					db.endTransaction(txn);
-				}
-			} catch (DbException e) {
+				db.transaction(false, task);
+			} catch (DbException | RuntimeException e) {
 				logException(LOG, WARNING, e);
-				interrupt();
+				return false;
 			}
 		}
+		return true;
 	}
 
-	private class ReceiveRequest implements Runnable {
+	private static class PendingRecord {
 
-		private final Request request;
+		private final DbRunnable<DbException> task;
+		private final int length;
 
-		private ReceiveRequest(Request request) {
-			this.request = request;
-		}
-
-		@DatabaseExecutor
-		@Override
-		public void run() {
-			try {
-				Transaction txn = db.startTransaction(false);
-				try {
-					db.receiveRequest(txn, contactId, request);
-					db.commitTransaction(txn);
-				} finally {
-					db.endTransaction(txn);
-				}
-			} catch (DbException e) {
-				logException(LOG, WARNING, e);
-				interrupt();
-			}
+		private PendingRecord(DbRunnable<DbException> task, int length) {
+			this.task = task;
+			this.length = length;
 		}
 	}
 }
@@ -0,0 +1,205 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.UniqueId;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.MessageId;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static org.briarproject.bramble.util.ByteUtils.INT_32_BYTES;
+import static org.briarproject.bramble.util.ByteUtils.readUint32;
+import static org.briarproject.bramble.util.ByteUtils.writeUint32;
+
+/**
+ * An invertible Bloom lookup table containing message IDs. When the table
+ * for one set of IDs is subtracted from the table for another set, the IDs
+ * that are in one set but not the other can be recovered, as long as there
+ * are not too many of them for the size of the table.
+ * <p>
+ * Each ID is added to one cell in each of three equal partitions of the
+ * table. Message IDs are hashes, so the cells are chosen using the bytes of
+ * the ID itself. Each cell contains a count, the XOR of the IDs added to the
+ * cell, and the XOR of a checksum of each ID. The checksum must not be a
+ * linear function of the ID, otherwise the XOR of several IDs would always
+ * match the XOR of their checksums.
+ */
+@NotThreadSafe
+@NotNullByDefault
+class InvertibleBloomLookupTable {
+
+	/**
+	 * The number of partitions, and hence the number of cells per ID.
+	 */
+	static final int PARTITIONS = 3;
+
+	/**
+	 * The length of an encoded cell in bytes.
+	 */
+	static final int CELL_LENGTH = INT_32_BYTES + UniqueId.LENGTH
+			+ INT_32_BYTES;
+
+	private final int cells;
+	private final int[] counts, checksums;
+	private final byte[][] ids;
+
+	InvertibleBloomLookupTable(int cells) {
+		if (cells <= 0 || cells % PARTITIONS != 0)
+			throw new IllegalArgumentException();
+		this.cells = cells;
+		counts = new int[cells];
+		checksums = new int[cells];
+		ids = new byte[cells][UniqueId.LENGTH];
+	}
+
+	/**
+	 * Decodes a table from the format produced by {@link #encode()}.
+	 */
+	static InvertibleBloomLookupTable decode(byte[] encoded)
+			throws FormatException {
+		if (encoded.length == 0 || encoded.length % CELL_LENGTH != 0)
+			throw new FormatException();
+		int cells = encoded.length / CELL_LENGTH;
+		if (cells % PARTITIONS != 0) throw new FormatException();
+		InvertibleBloomLookupTable t = new InvertibleBloomLookupTable(cells);
+		int off = 0;
+		for (int i = 0; i < cells; i++) {
+			t.counts[i] = (int) readUint32(encoded, off);
+			off += INT_32_BYTES;
+			System.arraycopy(encoded, off, t.ids[i], 0, UniqueId.LENGTH);
+			off += UniqueId.LENGTH;
+			t.checksums[i] = (int) readUint32(encoded, off);
+			off += INT_32_BYTES;
+		}
+		return t;
+	}
+
+	int getCells() {
+		return cells;
+	}
+
+	void add(MessageId m) {
+		byte[] id = m.getBytes();
+		update(id, getChecksum(id), 1);
+	}
+
+	/**
+	 * Subtracts the given table, which must be the same size, from this
+	 * table.
+	 */
+	void subtract(InvertibleBloomLookupTable t) {
+		if (t.cells != cells) throw new IllegalArgumentException();
+		for (int i = 0; i < cells; i++) {
+			counts[i] -= t.counts[i];
+			checksums[i] ^= t.checksums[i];
+			xor(ids[i], t.ids[i]);
+		}
+	}
+
+	/**
+	 * Recovers the IDs from a table that was produced by subtracting one
+	 * table from another. IDs that were only added to this table are added
+	 * to the first collection, and IDs that were only added to the
+	 * subtracted table are added to the second. Returns false if the IDs
+	 * could not all be recovered, in which case the collections may contain
+	 * some of the IDs.
+	 * <p>
+	 * The table is emptied by peeling.
+	 */
+	boolean peel(Collection<MessageId> added,
+			Collection<MessageId> subtracted) {
+		Deque<Integer> pure = new ArrayDeque<>();
+		for (int i = 0; i < cells; i++) if (isPure(i)) pure.add(i);
+		int peeled = 0;
+		while (!pure.isEmpty()) {
+			int i = pure.poll();
+			// The cell may have changed since it was queued
+			if (!isPure(i)) continue;
+			// A corrupt table could otherwise be peeled forever
+			if (++peeled > cells) return false;
+			int count = counts[i];
+			byte[] id = ids[i].clone();
+			if (count == 1) added.add(new MessageId(id));
+			else subtracted.add(new MessageId(id));
+			// Remove the ID from all of its cells
+			int part = cells / PARTITIONS;
+			int checksum = checksums[i];
+			for (int p = 0; p < PARTITIONS; p++) {
+				int j = getCell(id, p, part);
+				update(j, id, checksum, -count);
+				if (isPure(j)) pure.add(j);
+			}
+		}
+		for (int i = 0; i < cells; i++) {
+			if (counts[i] != 0 || checksums[i] != 0) return false;
+			for (byte b : ids[i]) if (b != 0) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Encodes the table as a byte array.
+	 */
+	byte[] encode() {
+		byte[] encoded = new byte[cells * CELL_LENGTH];
+		int off = 0;
+		for (int i = 0; i < cells; i++) {
+			writeUint32(counts[i] & 0xFFFFFFFFL, encoded, off);
+			off += INT_32_BYTES;
+			System.arraycopy(ids[i], 0, encoded, off, UniqueId.LENGTH);
+			off += UniqueId.LENGTH;
+			writeUint32(checksums[i] & 0xFFFFFFFFL, encoded, off);
+			off += INT_32_BYTES;
+		}
+		return encoded;
+	}
+
+	private void update(byte[] id, int checksum, int count) {
+		int part = cells / PARTITIONS;
+		for (int p = 0; p < PARTITIONS; p++)
+			update(getCell(id, p, part), id, checksum, count);
+	}
+
+	private void update(int i, byte[] id, int checksum, int count) {
+		counts[i] += count;
+		checksums[i] ^= checksum;
+		xor(ids[i], id);
+	}
+
+	private boolean isPure(int i) {
+		int count = counts[i];
+		return (count == 1 || count == -1)
+				&& checksums[i] == getChecksum(ids[i]);
+	}
+
+	private static int getCell(byte[] id, int partition, int part) {
+		long hash = readUint32(id, partition * INT_32_BYTES);
+		return partition * part + (int) (hash % part);
+	}
+
+	/**
+	 * Returns a checksum of the given ID, using the mixing steps of
+	 * MurmurHash3.
+	 */
+	private static int getChecksum(byte[] id) {
+		int h = 0;
+		for (int off = 0; off < id.length; off += INT_32_BYTES) {
+			int k = (int) readUint32(id, off) * 0xCC9E2D51;
+			k = Integer.rotateLeft(k, 15) * 0x1B873593;
+			h = Integer.rotateLeft(h ^ k, 13) * 5 + 0xE6546B64;
+		}
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		return h ^ (h >>> 16);
+	}
+
+	private static void xor(byte[] dest, byte[] src) {
+		for (int i = 0; i < dest.length; i++) dest[i] ^= src[i];
+	}
+}
@@ -2,6 +2,7 @@ package org.briarproject.bramble.sync;
 
 import org.briarproject.bramble.api.UniqueId;
 import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.Hasher;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
@@ -28,6 +29,15 @@ class MessageFactoryImpl implements MessageFactory {
 			new byte[] {FORMAT_VERSION};
 
 	private final CryptoComponent crypto;
+	// Each thread reuses its own hasher and buffers, so calculating a
+	// message ID doesn't allocate anything except the ID itself
+	private final ThreadLocal<IdCalculator> idCalculators =
+			new ThreadLocal<IdCalculator>() {
+				@Override
+				protected IdCalculator initialValue() {
+					return new IdCalculator(crypto.createHasher());
+				}
+			};
 
 	@Inject
 	MessageFactoryImpl(CryptoComponent crypto) {
@@ -44,12 +54,26 @@ class MessageFactoryImpl implements MessageFactory {
 	}
 
 	private MessageId getMessageId(GroupId g, long timestamp, byte[] body) {
+		return getMessageId(g.getBytes(), 0, timestamp, body, 0, body.length);
+	}
+
+	private MessageId getMessageId(byte[] groupId, int groupIdOff,
+			long timestamp, byte[] body, int bodyOff, int bodyLen) {
+		IdCalculator calculator = idCalculators.get();
+		Hasher hasher = calculator.hasher;
 		// There's only one block, so the root hash is the hash of the block
-		byte[] rootHash = crypto.hash(BLOCK_LABEL, FORMAT_VERSION_BYTES, body);
-		byte[] timeBytes = new byte[INT_64_BYTES];
-		ByteUtils.writeUint64(timestamp, timeBytes, 0);
-		byte[] idHash = crypto.hash(ID_LABEL, FORMAT_VERSION_BYTES,
-				g.getBytes(), timeBytes, rootHash);
+		hasher.startHash(BLOCK_LABEL);
+		hasher.addInput(FORMAT_VERSION_BYTES);
+		hasher.addInput(body, bodyOff, bodyLen);
+		hasher.finish(calculator.rootHash, 0);
+		ByteUtils.writeUint64(timestamp, calculator.timeBytes, 0);
+		hasher.startHash(ID_LABEL);
+		hasher.addInput(FORMAT_VERSION_BYTES);
+		hasher.addInput(groupId, groupIdOff, UniqueId.LENGTH);
+		hasher.addInput(calculator.timeBytes);
+		hasher.addInput(calculator.rootHash);
+		byte[] idHash = new byte[UniqueId.LENGTH];
+		hasher.finish(idHash, 0);
 		return new MessageId(idHash);
 	}
 
@@ -59,13 +83,15 @@ class MessageFactoryImpl implements MessageFactory {
 			throw new IllegalArgumentException();
 		if (raw.length > MAX_MESSAGE_LENGTH)
 			throw new IllegalArgumentException();
+		long timestamp = ByteUtils.readUint64(raw, UniqueId.LENGTH);
+		// Hash the group ID and body in place before copying them
+		MessageId id = getMessageId(raw, 0, timestamp, raw,
+				MESSAGE_HEADER_LENGTH, raw.length - MESSAGE_HEADER_LENGTH);
 		byte[] groupId = new byte[UniqueId.LENGTH];
 		System.arraycopy(raw, 0, groupId, 0, UniqueId.LENGTH);
 		GroupId g = new GroupId(groupId);
-		long timestamp = ByteUtils.readUint64(raw, UniqueId.LENGTH);
 		byte[] body = new byte[raw.length - MESSAGE_HEADER_LENGTH];
 		System.arraycopy(raw, MESSAGE_HEADER_LENGTH, body, 0, body.length);
-		MessageId id = getMessageId(g, timestamp, body);
 		return new Message(id, g, timestamp, body);
 	}
 
@@ -78,4 +104,15 @@ class MessageFactoryImpl implements MessageFactory {
 		System.arraycopy(body, 0, raw, MESSAGE_HEADER_LENGTH, body.length);
 		return raw;
 	}
+
+	private static class IdCalculator {
+
+		private final Hasher hasher;
+		private final byte[] rootHash = new byte[UniqueId.LENGTH];
+		private final byte[] timeBytes = new byte[INT_64_BYTES];
+
+		private IdCalculator(Hasher hasher) {
+			this.hasher = hasher;
+		}
+	}
 }
@@ -28,6 +28,7 @@ import java.util.logging.Logger;
 
 import javax.annotation.concurrent.ThreadSafe;
 
+import static java.util.Arrays.asList;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static org.briarproject.bramble.api.lifecycle.LifecycleManager.LifecycleState.STOPPING;
@@ -47,6 +48,12 @@ class SimplexOutgoingSession implements SyncSession, EventListener {
 	private static final Logger LOG =
 			Logger.getLogger(SimplexOutgoingSession.class.getName());
 
+	/**
+	 * The types of events the session listens for.
+	 */
+	private static final Collection<Class<? extends Event>> EVENT_TYPES =
+			asList(ContactRemovedEvent.class, LifecycleEvent.class);
+
 	private static final ThrowingRunnable<IOException> CLOSE = () -> {};
 
 	private final DatabaseComponent db;
@@ -78,7 +85,7 @@ class SimplexOutgoingSession implements SyncSession, EventListener {
 	@IoExecutor
 	@Override
 	public void run() throws IOException {
-		eventBus.addListener(this);
+		eventBus.addListener(this, EVENT_TYPES);
 		try {
 			// Start a query for each type of record
 			dbExecutor.execute(new GenerateAck());
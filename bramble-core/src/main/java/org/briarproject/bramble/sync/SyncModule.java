@@ -11,6 +11,7 @@ import org.briarproject.bramble.api.sync.GroupFactory;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.SyncRecordReaderFactory;
 import org.briarproject.bramble.api.sync.SyncRecordWriterFactory;
+import org.briarproject.bramble.api.sync.SyncScheduler;
 import org.briarproject.bramble.api.sync.SyncSessionFactory;
 import org.briarproject.bramble.api.sync.ValidationManager;
 import org.briarproject.bramble.api.system.Clock;
@@ -23,6 +24,8 @@ import javax.inject.Singleton;
 import dagger.Module;
 import dagger.Provides;
 
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_INCOMING_BYTES_IN_FLIGHT;
+
 @Module
 public class SyncModule {
 
@@ -41,6 +44,12 @@ public class SyncModule {
 	private static final int MAX_CONCURRENT_VALIDATION_TASKS =
 			Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
 
+	/**
+	 * Whether duplex sessions should exchange sketches to discover missing
+	 * messages. This is an experimental feature.
+	 */
+	private static final boolean SKETCHES_ENABLED = false;
+
 	@Provides
 	GroupFactory provideGroupFactory(CryptoComponent crypto) {
 		return new GroupFactoryImpl(crypto);
@@ -70,7 +79,14 @@ public class SyncModule {
 			Clock clock, SyncRecordReaderFactory recordReaderFactory,
 			SyncRecordWriterFactory recordWriterFactory) {
 		return new SyncSessionFactoryImpl(db, dbExecutor, eventBus, clock,
-				recordReaderFactory, recordWriterFactory);
+				recordReaderFactory, recordWriterFactory,
+				MAX_INCOMING_BYTES_IN_FLIGHT, SKETCHES_ENABLED);
+	}
+
+	@Provides
+	@Singleton
+	SyncScheduler provideSyncScheduler(SyncSchedulerImpl syncScheduler) {
+		return syncScheduler;
 	}
 
 	@Provides
@@ -6,28 +6,43 @@ import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.record.Record;
 import org.briarproject.bramble.api.record.RecordReader;
 import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.Features;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Request;
+import org.briarproject.bramble.api.sync.Sketch;
 import org.briarproject.bramble.api.sync.SyncRecordReader;
 import org.briarproject.bramble.util.ByteUtils;
 
 import java.io.EOFException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
 import static org.briarproject.bramble.api.sync.RecordTypes.ACK;
+import static org.briarproject.bramble.api.sync.RecordTypes.COMPRESSED_MESSAGES;
+import static org.briarproject.bramble.api.sync.RecordTypes.FEATURES;
 import static org.briarproject.bramble.api.sync.RecordTypes.MESSAGE;
 import static org.briarproject.bramble.api.sync.RecordTypes.OFFER;
 import static org.briarproject.bramble.api.sync.RecordTypes.REQUEST;
+import static org.briarproject.bramble.api.sync.RecordTypes.SKETCH;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_DECOMPRESSED_PAYLOAD_BYTES;
 import static org.briarproject.bramble.api.sync.SyncConstants.MESSAGE_HEADER_LENGTH;
 import static org.briarproject.bramble.api.sync.SyncConstants.PROTOCOL_VERSION;
+import static org.briarproject.bramble.sync.InvertibleBloomLookupTable.CELL_LENGTH;
+import static org.briarproject.bramble.sync.InvertibleBloomLookupTable.PARTITIONS;
+import static org.briarproject.bramble.util.ByteUtils.INT_16_BYTES;
+import static org.briarproject.bramble.util.ByteUtils.readUint16;
 
 @NotThreadSafe
 @NotNullByDefault
@@ -36,6 +51,17 @@ class SyncRecordReaderImpl implements SyncRecordReader {
 	private final MessageFactory messageFactory;
 	private final RecordReader reader;
 
+	/**
+	 * Messages from a compressed record that have not yet been read.
+	 */
+	private final Queue<byte[]> decompressed = new LinkedList<>();
+
+	/**
+	 * A buffer for decompressing records, allocated when first needed.
+	 */
+	@Nullable
+	private byte[] buffer = null;
+
 	@Nullable
 	private Record nextRecord = null;
 	private boolean eof = false;
@@ -53,15 +79,60 @@ class SyncRecordReaderImpl implements SyncRecordReader {
 			byte version = nextRecord.getProtocolVersion();
 			if (version != PROTOCOL_VERSION) throw new FormatException();
 			byte type = nextRecord.getRecordType();
+			if (type == COMPRESSED_MESSAGES) {
+				// Queue the messages to be read one at a time
+				decompress(nextRecord.getPayload());
+				nextRecord = null;
+				return;
+			}
 			// Return if this is a known record type, otherwise continue
 			if (type == ACK || type == MESSAGE || type == OFFER ||
-					type == REQUEST) {
+					type == REQUEST || type == FEATURES || type == SKETCH) {
 				return;
 			}
 		}
 	}
 
+	private void decompress(byte[] payload) throws FormatException {
+		byte[] output = buffer;
+		if (output == null) {
+			output = new byte[MAX_DECOMPRESSED_PAYLOAD_BYTES];
+			buffer = output;
+		}
+		int length = 0;
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(payload);
+			while (!inflater.finished() && length < output.length) {
+				int read = inflater.inflate(output, length,
+						output.length - length);
+				if (read == 0 && inflater.needsInput()) break;
+				if (read == 0 && inflater.needsDictionary()) break;
+				length += read;
+			}
+			// The payload must decompress to no more than the maximum length
+			if (!inflater.finished()) throw new FormatException();
+		} catch (DataFormatException e) {
+			throw new FormatException();
+		} finally {
+			inflater.end();
+		}
+		if (length == 0) throw new FormatException();
+		// Split the output into messages, each preceded by its length
+		int off = 0;
+		while (off < length) {
+			if (off + INT_16_BYTES > length) throw new FormatException();
+			int messageLength = readUint16(output, off);
+			off += INT_16_BYTES;
+			if (messageLength > length - off) throw new FormatException();
+			decompressed.add(Arrays.copyOfRange(output, off,
+					off + messageLength));
+			off += messageLength;
+		}
+	}
+
 	private byte getNextRecordType() {
+		if (!decompressed.isEmpty()) return MESSAGE;
 		if (nextRecord == null) throw new AssertionError();
 		return nextRecord.getRecordType();
 	}
@@ -76,7 +147,7 @@ class SyncRecordReaderImpl implements SyncRecordReader {
 	 */
 	@Override
 	public boolean eof() throws IOException {
-		if (nextRecord != null) return false;
+		if (nextRecord != null || !decompressed.isEmpty()) return false;
 		if (eof) return true;
 		try {
 			readRecord();
@@ -122,14 +193,17 @@ class SyncRecordReaderImpl implements SyncRecordReader {
 	@Override
 	public Message readMessage() throws IOException {
 		if (!hasMessage()) throw new FormatException();
-		if (nextRecord == null) throw new AssertionError();
-		byte[] payload = nextRecord.getPayload();
+		byte[] payload = decompressed.poll();
+		if (payload == null) {
+			if (nextRecord == null) throw new AssertionError();
+			payload = nextRecord.getPayload();
+			nextRecord = null;
+		}
 		if (payload.length <= MESSAGE_HEADER_LENGTH)
 			throw new FormatException();
 		// Validate timestamp
 		long timestamp = ByteUtils.readUint64(payload, UniqueId.LENGTH);
 		if (timestamp < 0) throw new FormatException();
-		nextRecord = null;
 		return messageFactory.createMessage(payload);
 	}
 
@@ -155,4 +229,37 @@ class SyncRecordReaderImpl implements SyncRecordReader {
 		return new Request(readMessageIds());
 	}
 
+	@Override
+	public boolean hasFeatures() throws IOException {
+		return !eof() && getNextRecordType() == FEATURES;
+	}
+
+	@Override
+	public Features readFeatures() throws IOException {
+		if (!hasFeatures()) throw new FormatException();
+		if (nextRecord == null) throw new AssertionError();
+		byte[] payload = nextRecord.getPayload();
+		List<Byte> features = new ArrayList<>(payload.length);
+		for (byte feature : payload) features.add(feature);
+		nextRecord = null;
+		return new Features(features);
+	}
+
+	@Override
+	public boolean hasSketch() throws IOException {
+		return !eof() && getNextRecordType() == SKETCH;
+	}
+
+	@Override
+	public Sketch readSketch() throws IOException {
+		if (!hasSketch()) throw new FormatException();
+		if (nextRecord == null) throw new AssertionError();
+		byte[] payload = nextRecord.getPayload();
+		if (payload.length == 0) throw new FormatException();
+		if (payload.length % CELL_LENGTH != 0) throw new FormatException();
+		if ((payload.length / CELL_LENGTH) % PARTITIONS != 0)
+			throw new FormatException();
+		nextRecord = null;
+		return new Sketch(payload);
+	}
 }
@@ -4,23 +4,36 @@ import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.record.Record;
 import org.briarproject.bramble.api.record.RecordWriter;
 import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.Features;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Request;
+import org.briarproject.bramble.api.sync.Sketch;
 import org.briarproject.bramble.api.sync.SyncRecordWriter;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.zip.Deflater;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
+import static org.briarproject.bramble.api.record.Record.MAX_RECORD_PAYLOAD_BYTES;
 import static org.briarproject.bramble.api.sync.RecordTypes.ACK;
+import static org.briarproject.bramble.api.sync.RecordTypes.COMPRESSED_MESSAGES;
+import static org.briarproject.bramble.api.sync.RecordTypes.FEATURES;
 import static org.briarproject.bramble.api.sync.RecordTypes.MESSAGE;
 import static org.briarproject.bramble.api.sync.RecordTypes.OFFER;
 import static org.briarproject.bramble.api.sync.RecordTypes.REQUEST;
+import static org.briarproject.bramble.api.sync.RecordTypes.SKETCH;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_DECOMPRESSED_PAYLOAD_BYTES;
 import static org.briarproject.bramble.api.sync.SyncConstants.PROTOCOL_VERSION;
+import static org.briarproject.bramble.util.ByteUtils.INT_16_BYTES;
+import static org.briarproject.bramble.util.ByteUtils.writeUint16;
 
 @NotThreadSafe
 @NotNullByDefault
@@ -53,6 +66,54 @@ class SyncRecordWriterImpl implements SyncRecordWriter {
 		writer.writeRecord(new Record(PROTOCOL_VERSION, MESSAGE, raw));
 	}
 
+	@Override
+	public void writeCompressedMessages(Collection<Message> messages)
+			throws IOException {
+		// Concatenate the messages, each preceded by its length
+		byte[] length = new byte[INT_16_BYTES];
+		for (Message m : messages) {
+			byte[] raw = messageFactory.getRawMessage(m);
+			writeUint16(raw.length, length, 0);
+			payload.write(length);
+			payload.write(raw);
+		}
+		byte[] compressed = null;
+		if (payload.size() <= MAX_DECOMPRESSED_PAYLOAD_BYTES)
+			compressed = compress(payload.toByteArray());
+		payload.reset();
+		if (compressed == null) {
+			for (Message m : messages) writeMessage(m);
+		} else {
+			writer.writeRecord(new Record(PROTOCOL_VERSION,
+					COMPRESSED_MESSAGES, compressed));
+		}
+	}
+
+	/**
+	 * Returns the compressed input, or null if the compressed input would
+	 * not be smaller than the input or would not fit in a record.
+	 */
+	@Nullable
+	private byte[] compress(byte[] input) {
+		int maxLength = Math.min(input.length - 1, MAX_RECORD_PAYLOAD_BYTES);
+		if (maxLength <= 0) return null;
+		byte[] output = new byte[maxLength];
+		Deflater deflater = new Deflater();
+		try {
+			deflater.setInput(input);
+			deflater.finish();
+			int length = 0;
+			while (!deflater.finished() && length < maxLength) {
+				length += deflater.deflate(output, length,
+						maxLength - length);
+			}
+			if (!deflater.finished()) return null;
+			return Arrays.copyOf(output, length);
+		} finally {
+			deflater.end();
+		}
+	}
+
 	@Override
 	public void writeOffer(Offer o) throws IOException {
 		for (MessageId m : o.getMessageIds()) payload.write(m.getBytes());
@@ -65,6 +126,17 @@ class SyncRecordWriterImpl implements SyncRecordWriter {
 		writeRecord(REQUEST);
 	}
 
+	@Override
+	public void writeFeatures(Features f) throws IOException {
+		for (byte feature : f.getFeatures()) payload.write(feature);
+		writeRecord(FEATURES);
+	}
+
+	@Override
+	public void writeSketch(Sketch s) throws IOException {
+		writer.writeRecord(new Record(PROTOCOL_VERSION, SKETCH, s.getTable()));
+	}
+
 	@Override
 	public void flush() throws IOException {
 		writer.flush();
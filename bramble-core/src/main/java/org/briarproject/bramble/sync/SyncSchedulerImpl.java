@@ -0,0 +1,120 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.ClientId;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.SendableMessage;
+import org.briarproject.bramble.api.sync.SyncScheduler;
+import org.briarproject.bramble.api.versioning.ClientMajorVersion;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+
+import static org.briarproject.bramble.api.sync.SyncScheduler.Priority.NORMAL;
+
+@ThreadSafe
+@NotNullByDefault
+class SyncSchedulerImpl implements SyncScheduler {
+
+	private final Map<ClientMajorVersion, Priority> clientPriorities =
+			new ConcurrentHashMap<>();
+	private final Map<GroupId, Priority> groupPriorities =
+			new ConcurrentHashMap<>();
+
+	@Inject
+	SyncSchedulerImpl() {
+	}
+
+	@Override
+	public void setClientPriority(ClientId c, int majorVersion, Priority p) {
+		clientPriorities.put(new ClientMajorVersion(c, majorVersion), p);
+	}
+
+	@Override
+	public void setGroupPriority(GroupId g, Priority p) {
+		groupPriorities.put(g, p);
+	}
+
+	@Override
+	public void removeGroupPriority(GroupId g) {
+		groupPriorities.remove(g);
+	}
+
+	@Override
+	public List<SendableMessage> schedule(
+			Collection<SendableMessage> messages) {
+		// Sort the messages in each group by timestamp
+		Map<GroupId, List<SendableMessage>> groups = new HashMap<>();
+		for (SendableMessage m : messages) {
+			List<SendableMessage> group = groups.get(m.getGroupId());
+			if (group == null) {
+				group = new ArrayList<>();
+				groups.put(m.getGroupId(), group);
+			}
+			group.add(m);
+		}
+		// Number the messages in each group, so the first message from each
+		// group is sent before the second message from any group
+		List<ScheduledMessage> scheduled = new ArrayList<>(messages.size());
+		for (List<SendableMessage> group : groups.values()) {
+			Collections.sort(group, (a, b) ->
+					compare(a.getTimestamp(), b.getTimestamp()));
+			Priority priority = getPriority(group.get(0));
+			for (int i = 0; i < group.size(); i++)
+				scheduled.add(new ScheduledMessage(group.get(i), priority, i));
+		}
+		Collections.sort(scheduled, this::compare);
+		List<SendableMessage> ordered = new ArrayList<>(scheduled.size());
+		for (ScheduledMessage s : scheduled) ordered.add(s.message);
+		return ordered;
+	}
+
+	private Priority getPriority(SendableMessage m) {
+		Priority p = groupPriorities.get(m.getGroupId());
+		if (p == null) p = clientPriorities.get(
+				new ClientMajorVersion(m.getClientId(), m.getMajorVersion()));
+		return p == null ? NORMAL : p;
+	}
+
+	private int compare(ScheduledMessage a, ScheduledMessage b) {
+		// Higher priorities first
+		int c = b.priority.compareTo(a.priority);
+		if (c != 0) return c;
+		// Take turns between groups
+		c = compare(a.turn, b.turn);
+		if (c != 0) return c;
+		// Older messages first
+		c = compare(a.message.getTimestamp(), b.message.getTimestamp());
+		if (c != 0) return c;
+		return a.message.getMessageId().compareTo(b.message.getMessageId());
+	}
+
+	private static int compare(long a, long b) {
+		return a < b ? -1 : (a == b ? 0 : 1);
+	}
+
+	@Immutable
+	@NotNullByDefault
+	private static class ScheduledMessage {
+
+		private final SendableMessage message;
+		private final Priority priority;
+		private final int turn;
+
+		private ScheduledMessage(SendableMessage message, Priority priority,
+				int turn) {
+			this.message = message;
+			this.priority = priority;
+			this.turn = turn;
+		}
+	}
+}
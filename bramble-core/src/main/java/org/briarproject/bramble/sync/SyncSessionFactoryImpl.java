@@ -5,6 +5,7 @@ import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DatabaseExecutor;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.PeerFeatures;
 import org.briarproject.bramble.api.sync.SyncRecordReader;
 import org.briarproject.bramble.api.sync.SyncRecordReaderFactory;
 import org.briarproject.bramble.api.sync.SyncRecordWriter;
@@ -19,7 +20,6 @@ import java.io.OutputStream;
 import java.util.concurrent.Executor;
 
 import javax.annotation.concurrent.Immutable;
-import javax.inject.Inject;
 
 @Immutable
 @NotNullByDefault
@@ -31,25 +31,37 @@ class SyncSessionFactoryImpl implements SyncSessionFactory {
 	private final Clock clock;
 	private final SyncRecordReaderFactory recordReaderFactory;
 	private final SyncRecordWriterFactory recordWriterFactory;
+	private final int maxIncomingBytesInFlight;
+	private final boolean sketchesEnabled;
 
-	@Inject
 	SyncSessionFactoryImpl(DatabaseComponent db,
 			@DatabaseExecutor Executor dbExecutor, EventBus eventBus,
 			Clock clock, SyncRecordReaderFactory recordReaderFactory,
-			SyncRecordWriterFactory recordWriterFactory) {
+			SyncRecordWriterFactory recordWriterFactory,
+			int maxIncomingBytesInFlight, boolean sketchesEnabled) {
 		this.db = db;
 		this.dbExecutor = dbExecutor;
 		this.eventBus = eventBus;
 		this.clock = clock;
 		this.recordReaderFactory = recordReaderFactory;
 		this.recordWriterFactory = recordWriterFactory;
+		this.maxIncomingBytesInFlight = maxIncomingBytesInFlight;
+		this.sketchesEnabled = sketchesEnabled;
 	}
 
 	@Override
 	public SyncSession createIncomingSession(ContactId c, InputStream in) {
+		// There's no outgoing session to use the peer's features
+		return createIncomingSession(c, in, new PeerFeatures());
+	}
+
+	@Override
+	public SyncSession createIncomingSession(ContactId c, InputStream in,
+			PeerFeatures peerFeatures) {
 		SyncRecordReader recordReader =
 				recordReaderFactory.createRecordReader(in);
-		return new IncomingSession(db, dbExecutor, eventBus, c, recordReader);
+		return new IncomingSession(db, dbExecutor, eventBus, c, recordReader,
+				peerFeatures, maxIncomingBytesInFlight, sketchesEnabled);
 	}
 
 	@Override
@@ -64,11 +76,13 @@ class SyncSessionFactoryImpl implements SyncSessionFactory {
 
 	@Override
 	public SyncSession createDuplexOutgoingSession(ContactId c, int maxLatency,
-			int maxIdleTime, StreamWriter streamWriter) {
+			int maxIdleTime, StreamWriter streamWriter,
+			PeerFeatures peerFeatures) {
 		OutputStream out = streamWriter.getOutputStream();
 		SyncRecordWriter recordWriter =
 				recordWriterFactory.createRecordWriter(out);
 		return new DuplexOutgoingSession(db, dbExecutor, eventBus, clock, c,
-				maxLatency, maxIdleTime, streamWriter, recordWriter);
+				maxLatency, maxIdleTime, streamWriter, recordWriter,
+				peerFeatures, sketchesEnabled);
 	}
 }
@@ -1,5 +1,7 @@
 package org.briarproject.bramble.sync;
 
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.SignatureToVerify;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DatabaseExecutor;
 import org.briarproject.bramble.api.db.DbException;
@@ -21,26 +23,48 @@ import org.briarproject.bramble.api.sync.ValidationManager;
 import org.briarproject.bramble.api.sync.event.MessageAddedEvent;
 import org.briarproject.bramble.api.versioning.ClientMajorVersion;
 
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
+import static java.util.Collections.singletonList;
+import static java.util.logging.Level.FINE;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static org.briarproject.bramble.api.sync.ValidationManager.State.DELIVERED;
 import static org.briarproject.bramble.api.sync.ValidationManager.State.INVALID;
 import static org.briarproject.bramble.api.sync.ValidationManager.State.PENDING;
 import static org.briarproject.bramble.util.LogUtils.logException;
-
+import static org.briarproject.bramble.util.LogUtils.now;
+import static org.briarproject.bramble.util.StringUtils.toHexString;
+
+/**
+ * Validates incoming messages and delivers them to clients.
+ * <p>
+ * Messages are loaded from the database in batches and validated in
+ * parallel on the validation executor. As messages are validated, their
+ * results are queued and stored in batches, so when validation runs faster
+ * than the database, each transaction stores many results. Pending messages
+ * whose dependencies have been delivered are delivered in batches too.
+ * Messages in a batch are stored or delivered one after another within the
+ * transaction, so each message sees the states of the messages before it,
+ * just as if each message had its own transaction.
+ */
 @ThreadSafe
 @NotNullByDefault
 class ValidationManagerImpl implements ValidationManager, Service,
@@ -49,17 +73,47 @@ class ValidationManagerImpl implements ValidationManager, Service,
 	private static final Logger LOG =
 			Logger.getLogger(ValidationManagerImpl.class.getName());
 
+	/**
+	 * The maximum number of messages to load, store or deliver in a single
+	 * transaction.
+	 */
+	static final int MAX_BATCH_SIZE = 100;
+
+	/**
+	 * The maximum number of messages whose signatures are verified together.
+	 */
+	static final int MAX_SIGNATURE_BATCH_SIZE = 64;
+
 	private final DatabaseComponent db;
+	private final CryptoComponent crypto;
 	private final Executor dbExecutor, validationExecutor;
 	private final Map<ClientMajorVersion, MessageValidator> validators;
 	private final Map<ClientMajorVersion, IncomingMessageHook> hooks;
 	private final AtomicBoolean used = new AtomicBoolean(false);
+	private final Object lock = new Object();
+
+	@GuardedBy("lock")
+	private final Queue<ValidatedMessage> unverified = new LinkedList<>();
+	@GuardedBy("lock")
+	private final Queue<ValidatedMessage> validated = new LinkedList<>();
+	@GuardedBy("lock")
+	private int verifiers = 0;
+	@GuardedBy("lock")
+	private boolean storing = false;
+
+	// Counters for measuring throughput and latency
+	private final AtomicLong messagesStored = new AtomicLong(0);
+	private final AtomicLong messagesInvalid = new AtomicLong(0);
+	private final AtomicLong batchesStored = new AtomicLong(0);
+	private final AtomicLong totalLatency = new AtomicLong(0);
+	private final AtomicLong maxLatency = new AtomicLong(0);
 
 	@Inject
-	ValidationManagerImpl(DatabaseComponent db,
+	ValidationManagerImpl(DatabaseComponent db, CryptoComponent crypto,
 			@DatabaseExecutor Executor dbExecutor,
 			@ValidationExecutor Executor validationExecutor) {
 		this.db = db;
+		this.crypto = crypto;
 		this.dbExecutor = dbExecutor;
 		this.validationExecutor = validationExecutor;
 		validators = new ConcurrentHashMap<>();
@@ -76,6 +130,13 @@ class ValidationManagerImpl implements ValidationManager, Service,
 
 	@Override
 	public void stopService() {
+		if (LOG.isLoggable(INFO)) {
+			LOG.info(getMessagesStored() + " messages stored in "
+					+ getBatchesStored() + " batches, "
+					+ getMessagesInvalid() + " invalid, mean latency "
+					+ getMeanLatency() + " ms, max latency "
+					+ getMaxLatency() + " ms");
+		}
 	}
 
 	@Override
@@ -105,39 +166,47 @@ class ValidationManagerImpl implements ValidationManager, Service,
 			} finally {
 				db.endTransaction(txn);
 			}
-			validateNextMessageAsync(unvalidated);
+			validateNextMessagesAsync(unvalidated);
 		} catch (DbException e) {
 			logException(LOG, WARNING, e);
 		}
 	}
 
-	private void validateNextMessageAsync(Queue<MessageId> unvalidated) {
+	private void validateNextMessagesAsync(Queue<MessageId> unvalidated) {
 		if (unvalidated.isEmpty()) return;
-		dbExecutor.execute(() -> validateNextMessage(unvalidated));
+		dbExecutor.execute(() -> validateNextMessages(unvalidated));
 	}
 
 	@DatabaseExecutor
-	private void validateNextMessage(Queue<MessageId> unvalidated) {
+	private void validateNextMessages(Queue<MessageId> unvalidated) {
 		try {
-			Message m;
-			Group g;
+			List<Message> messages = new ArrayList<>();
+			List<Group> groups = new ArrayList<>();
 			Transaction txn = db.startTransaction(true);
 			try {
-				MessageId id = unvalidated.poll();
-				m = db.getMessage(txn, id);
-				g = db.getGroup(txn, m.getGroupId());
+				for (int i = 0; i < MAX_BATCH_SIZE; i++) {
+					MessageId id = unvalidated.poll();
+					if (id == null) break;
+					// The transaction is read-only, so it's safe to
+					// continue after a message or group has been removed
+					try {
+						Message m = db.getMessage(txn, id);
+						groups.add(db.getGroup(txn, m.getGroupId()));
+						messages.add(m);
+					} catch (NoSuchMessageException e) {
+						LOG.info("Message removed before validation");
+					} catch (NoSuchGroupException e) {
+						LOG.info("Group removed before validation");
+					}
+				}
 				db.commitTransaction(txn);
 			} finally {
 				db.endTransaction(txn);
 			}
-			validateMessageAsync(m, g);
-			validateNextMessageAsync(unvalidated);
-		} catch (NoSuchMessageException e) {
-			LOG.info("Message removed before validation");
-			validateNextMessageAsync(unvalidated);
-		} catch (NoSuchGroupException e) {
-			LOG.info("Group removed before validation");
-			validateNextMessageAsync(unvalidated);
+			long queued = now();
+			for (int i = 0; i < messages.size(); i++)
+				validateMessageAsync(messages.get(i), groups.get(i), queued);
+			validateNextMessagesAsync(unvalidated);
 		} catch (DbException e) {
 			logException(LOG, WARNING, e);
 		}
@@ -158,82 +227,124 @@ class ValidationManagerImpl implements ValidationManager, Service,
 			} finally {
 				db.endTransaction(txn);
 			}
-			deliverNextPendingMessageAsync(pending);
+			deliverNextPendingMessagesAsync(pending);
 		} catch (DbException e) {
 			logException(LOG, WARNING, e);
 		}
 	}
 
-	private void deliverNextPendingMessageAsync(Queue<MessageId> pending) {
+	private void deliverNextPendingMessagesAsync(Queue<MessageId> pending) {
 		if (pending.isEmpty()) return;
-		dbExecutor.execute(() -> deliverNextPendingMessage(pending));
+		dbExecutor.execute(() -> deliverNextPendingMessages(pending));
 	}
 
 	@DatabaseExecutor
-	private void deliverNextPendingMessage(Queue<MessageId> pending) {
+	private void deliverNextPendingMessages(Queue<MessageId> pending) {
+		List<MessageId> batch = new ArrayList<>();
+		for (int i = 0; i < MAX_BATCH_SIZE; i++) {
+			MessageId id = pending.poll();
+			if (id == null) break;
+			batch.add(id);
+		}
 		try {
-			boolean anyInvalid = false, allDelivered = true;
-			Queue<MessageId> toShare = null;
-			Queue<MessageId> invalidate = null;
-			Transaction txn = db.startTransaction(false);
-			try {
-				MessageId id = pending.poll();
-				// Check if message is still pending
-				if (db.getMessageState(txn, id) == PENDING) {
-					// Check if dependencies are valid and delivered
-					Map<MessageId, State> states =
-							db.getMessageDependencies(txn, id);
-					for (Entry<MessageId, State> e : states.entrySet()) {
-						if (e.getValue() == INVALID) anyInvalid = true;
-						if (e.getValue() != DELIVERED) allDelivered = false;
-					}
-					if (anyInvalid) {
-						invalidateMessage(txn, id);
-						invalidate = getDependentsToInvalidate(txn, id);
-					} else if (allDelivered) {
-						Message m = db.getMessage(txn, id);
-						Group g = db.getGroup(txn, m.getGroupId());
-						ClientId c = g.getClientId();
-						int majorVersion = g.getMajorVersion();
-						Metadata meta =
-								db.getMessageMetadataForValidator(txn, id);
-						DeliveryResult result =
-								deliverMessage(txn, m, c, majorVersion, meta);
-						if (result.valid) {
-							pending.addAll(getPendingDependents(txn, id));
-							if (result.share) {
-								db.setMessageShared(txn, id);
-								toShare = new LinkedList<>(states.keySet());
-							}
-						} else {
-							invalidate = getDependentsToInvalidate(txn, id);
-						}
-					}
-				}
-				db.commitTransaction(txn);
-			} finally {
-				db.endTransaction(txn);
-			}
-			if (invalidate != null) invalidateNextMessageAsync(invalidate);
-			if (toShare != null) shareNextMessageAsync(toShare);
-			deliverNextPendingMessageAsync(pending);
+			deliverPendingMessages(batch, pending);
 		} catch (NoSuchMessageException e) {
-			LOG.info("Message removed before delivery");
-			deliverNextPendingMessageAsync(pending);
+			if (batch.size() == 1) LOG.info("Message removed before delivery");
+			else deliverPendingMessagesSeparately(batch, pending);
 		} catch (NoSuchGroupException e) {
-			LOG.info("Group removed before delivery");
-			deliverNextPendingMessageAsync(pending);
+			if (batch.size() == 1) LOG.info("Group removed before delivery");
+			else deliverPendingMessagesSeparately(batch, pending);
 		} catch (DbException e) {
 			logException(LOG, WARNING, e);
+			return;
+		}
+		deliverNextPendingMessagesAsync(pending);
+	}
+
+	/**
+	 * Retries each message from a batch in its own transaction, after a
+	 * message or group was removed while the batch was being delivered.
+	 */
+	@DatabaseExecutor
+	private void deliverPendingMessagesSeparately(List<MessageId> batch,
+			Queue<MessageId> pending) {
+		for (MessageId id : batch) {
+			try {
+				deliverPendingMessages(singletonList(id), pending);
+			} catch (NoSuchMessageException e) {
+				LOG.info("Message removed before delivery");
+			} catch (NoSuchGroupException e) {
+				LOG.info("Group removed before delivery");
+			} catch (DbException e) {
+				logException(LOG, WARNING, e);
+			}
 		}
 	}
 
-	private void validateMessageAsync(Message m, Group g) {
-		validationExecutor.execute(() -> validateMessage(m, g));
+	@DatabaseExecutor
+	private void deliverPendingMessages(List<MessageId> batch,
+			Queue<MessageId> pending) throws DbException {
+		// Pending dependents are only delivered if the transaction commits
+		Queue<MessageId> dependents = new LinkedList<>();
+		Queue<MessageId> invalidate = new LinkedList<>();
+		Queue<MessageId> toShare = new LinkedList<>();
+		Transaction txn = db.startTransaction(false);
+		try {
+			for (MessageId id : batch) {
+				deliverPendingMessage(txn, id, dependents, invalidate,
+						toShare);
+			}
+			db.commitTransaction(txn);
+		} finally {
+			db.endTransaction(txn);
+		}
+		pending.addAll(dependents);
+		invalidateNextMessageAsync(invalidate);
+		shareNextMessageAsync(toShare);
+	}
+
+	@DatabaseExecutor
+	private void deliverPendingMessage(Transaction txn, MessageId id,
+			Queue<MessageId> pending, Queue<MessageId> invalidate,
+			Queue<MessageId> toShare) throws DbException {
+		// Check if message is still pending
+		if (db.getMessageState(txn, id) != PENDING) return;
+		// Check if dependencies are valid and delivered
+		boolean anyInvalid = false, allDelivered = true;
+		Map<MessageId, State> states = db.getMessageDependencies(txn, id);
+		for (Entry<MessageId, State> e : states.entrySet()) {
+			if (e.getValue() == INVALID) anyInvalid = true;
+			if (e.getValue() != DELIVERED) allDelivered = false;
+		}
+		if (anyInvalid) {
+			invalidateMessage(txn, id);
+			invalidate.addAll(getDependentsToInvalidate(txn, id));
+		} else if (allDelivered) {
+			Message m = db.getMessage(txn, id);
+			Group g = db.getGroup(txn, m.getGroupId());
+			ClientId c = g.getClientId();
+			int majorVersion = g.getMajorVersion();
+			Metadata meta = db.getMessageMetadataForValidator(txn, id);
+			DeliveryResult result =
+					deliverMessage(txn, m, c, majorVersion, meta);
+			if (result.valid) {
+				pending.addAll(getPendingDependents(txn, id));
+				if (result.share) {
+					db.setMessageShared(txn, id);
+					toShare.addAll(states.keySet());
+				}
+			} else {
+				invalidate.addAll(getDependentsToInvalidate(txn, id));
+			}
+		}
+	}
+
+	private void validateMessageAsync(Message m, Group g, long queued) {
+		validationExecutor.execute(() -> validateMessage(m, g, queued));
 	}
 
 	@ValidationExecutor
-	private void validateMessage(Message m, Group g) {
+	private void validateMessage(Message m, Group g, long queued) {
 		ClientMajorVersion cv =
 				new ClientMajorVersion(g.getClientId(), g.getMajorVersion());
 		MessageValidator v = validators.get(cv);
@@ -241,87 +352,276 @@ class ValidationManagerImpl implements ValidationManager, Service,
 			if (LOG.isLoggable(WARNING)) LOG.warning("No validator for " + cv);
 		} else {
 			try {
-				MessageContext context = v.validateMessage(m, g);
-				storeMessageContextAsync(m, g.getClientId(),
-						g.getMajorVersion(), context);
+				List<SignatureToVerify> signatures = new ArrayList<>();
+				MessageContext context = v.validateMessage(m, g, signatures);
+				ValidatedMessage result = new ValidatedMessage(m,
+						g.getClientId(), g.getMajorVersion(), context,
+						signatures, queued);
+				if (signatures.isEmpty()) storeMessageContextAsync(result);
+				else verifySignatures(result);
 			} catch (InvalidMessageException e) {
 				logException(LOG, INFO, e);
-				Queue<MessageId> invalidate = new LinkedList<>();
-				invalidate.add(m.getId());
-				invalidateNextMessageAsync(invalidate);
+				invalidateMessageAsync(m.getId());
 			}
 		}
 	}
 
-	private void storeMessageContextAsync(Message m, ClientId c,
-			int majorVersion, MessageContext result) {
-		dbExecutor.execute(() ->
-				storeMessageContext(m, c, majorVersion, result));
+	/**
+	 * Queues the given message for its signatures to be verified. If no
+	 * task is verifying signatures, or a full batch is waiting, the calling
+	 * task verifies batches of signatures until the queue is empty. While a
+	 * batch is being verified, more messages accumulate in the queue, so
+	 * signatures are verified in batches when messages arrive faster than
+	 * they can be verified one at a time.
+	 */
+	@ValidationExecutor
+	private void verifySignatures(ValidatedMessage v) {
+		synchronized (lock) {
+			unverified.add(v);
+			if (verifiers > 0 && unverified.size() < MAX_SIGNATURE_BATCH_SIZE)
+				return;
+			verifiers++;
+		}
+		while (true) {
+			List<ValidatedMessage> batch = new ArrayList<>();
+			synchronized (lock) {
+				while (batch.size() < MAX_SIGNATURE_BATCH_SIZE
+						&& !unverified.isEmpty()) {
+					batch.add(unverified.poll());
+				}
+				if (batch.isEmpty()) {
+					verifiers--;
+					return;
+				}
+			}
+			verifySignatureBatch(batch);
+		}
+	}
+
+	@ValidationExecutor
+	private void verifySignatureBatch(List<ValidatedMessage> batch) {
+		if (batch.size() > 1) {
+			List<SignatureToVerify> signatures = new ArrayList<>();
+			for (ValidatedMessage b : batch) signatures.addAll(b.signatures);
+			if (verifySignatures(signatures)) {
+				for (ValidatedMessage b : batch) storeMessageContextAsync(b);
+				return;
+			}
+			LOG.info("Batch contains an invalid signature");
+		}
+		// Verify each message separately to find the invalid ones
+		for (ValidatedMessage b : batch) {
+			if (verifySignatures(b.signatures)) {
+				storeMessageContextAsync(b);
+			} else {
+				LOG.info("Invalid signature");
+				invalidateMessageAsync(b.message.getId());
+			}
+		}
+	}
+
+	@ValidationExecutor
+	private boolean verifySignatures(Collection<SignatureToVerify> signatures) {
+		try {
+			return crypto.verifySignatures(signatures);
+		} catch (GeneralSecurityException e) {
+			logException(LOG, INFO, e);
+			return false;
+		}
+	}
+
+	private void invalidateMessageAsync(MessageId m) {
+		messagesInvalid.incrementAndGet();
+		Queue<MessageId> invalidate = new LinkedList<>();
+		invalidate.add(m);
+		invalidateNextMessageAsync(invalidate);
+	}
+
+	private void storeMessageContextAsync(ValidatedMessage v) {
+		synchronized (lock) {
+			validated.add(v);
+			// If a task is already storing results it will store this one
+			if (storing) return;
+			storing = true;
+		}
+		dbExecutor.execute(this::storeNextMessageContexts);
+	}
+
+	@DatabaseExecutor
+	private void storeNextMessageContexts() {
+		List<ValidatedMessage> batch = new ArrayList<>();
+		synchronized (lock) {
+			while (batch.size() < MAX_BATCH_SIZE && !validated.isEmpty())
+				batch.add(validated.poll());
+		}
+		boolean more = false;
+		try {
+			storeMessageContexts(batch);
+		} finally {
+			// Don't leave the flag set if storing the batch throws, or no
+			// task will store the remaining results
+			synchronized (lock) {
+				if (validated.isEmpty()) storing = false;
+				else more = true;
+			}
+			if (more) dbExecutor.execute(this::storeNextMessageContexts);
+		}
 	}
 
 	@DatabaseExecutor
-	private void storeMessageContext(Message m, ClientId c, int majorVersion,
-			MessageContext context) {
+	private void storeMessageContexts(List<ValidatedMessage> batch) {
 		try {
-			MessageId id = m.getId();
-			boolean anyInvalid = false, allDelivered = true;
-			Queue<MessageId> invalidate = null;
-			Queue<MessageId> pending = null;
-			Queue<MessageId> toShare = null;
+			long start = now();
+			Queue<MessageId> invalidate = new LinkedList<>();
+			Queue<MessageId> pending = new LinkedList<>();
+			Queue<MessageId> toShare = new LinkedList<>();
 			Transaction txn = db.startTransaction(false);
 			try {
-				// Check if message has any dependencies
-				Collection<MessageId> dependencies = context.getDependencies();
-				if (!dependencies.isEmpty()) {
-					db.addMessageDependencies(txn, m, dependencies);
-					// Check if dependencies are valid and delivered
-					Map<MessageId, State> states =
-							db.getMessageDependencies(txn, id);
-					for (Entry<MessageId, State> e : states.entrySet()) {
-						if (e.getValue() == INVALID) anyInvalid = true;
-						if (e.getValue() != DELIVERED) allDelivered = false;
-					}
-				}
-				if (anyInvalid) {
-					if (db.getMessageState(txn, id) != INVALID) {
-						invalidateMessage(txn, id);
-						invalidate = getDependentsToInvalidate(txn, id);
-					}
-				} else {
-					Metadata meta = context.getMetadata();
-					db.mergeMessageMetadata(txn, id, meta);
-					if (allDelivered) {
-						DeliveryResult result =
-								deliverMessage(txn, m, c, majorVersion, meta);
-						if (result.valid) {
-							pending = getPendingDependents(txn, id);
-							if (result.share) {
-								db.setMessageShared(txn, id);
-								toShare = new LinkedList<>(dependencies);
-							}
-						} else {
-							invalidate = getDependentsToInvalidate(txn, id);
-						}
-					} else {
-						db.setMessageState(txn, id, PENDING);
-					}
-				}
+				for (ValidatedMessage v : batch)
+					storeMessageContext(txn, v, invalidate, pending, toShare);
 				db.commitTransaction(txn);
 			} finally {
 				db.endTransaction(txn);
 			}
-			if (invalidate != null) invalidateNextMessageAsync(invalidate);
-			if (pending != null) deliverNextPendingMessageAsync(pending);
-			if (toShare != null) shareNextMessageAsync(toShare);
+			recordStoredBatch(batch, start);
+			invalidateNextMessageAsync(invalidate);
+			deliverNextPendingMessagesAsync(pending);
+			shareNextMessageAsync(toShare);
 		} catch (NoSuchMessageException e) {
-			LOG.info("Message removed during validation");
+			if (batch.size() == 1)
+				LOG.info("Message removed during validation");
+			else storeMessageContextsSeparately(batch);
 		} catch (NoSuchGroupException e) {
-			LOG.info("Group removed during validation");
+			if (batch.size() == 1) LOG.info("Group removed during validation");
+			else storeMessageContextsSeparately(batch);
 		} catch (DbException e) {
 			logException(LOG, WARNING, e);
+			if (batch.size() == 1) {
+				// The message will be validated again at the next startup
+				if (LOG.isLoggable(WARNING)) {
+					LOG.warning("Failed to store validation result for "
+							+ toHexString(batch.get(0).message.getId()
+							.getBytes()));
+				}
+			} else {
+				storeMessageContextsSeparately(batch);
+			}
+		}
+	}
+
+	/**
+	 * Retries each message from a batch in its own transaction, after a
+	 * message or group was removed while the batch was being stored, or the
+	 * batch failed to be stored. A message that can't be stored doesn't stop
+	 * the rest of the batch from being stored.
+	 */
+	@DatabaseExecutor
+	private void storeMessageContextsSeparately(List<ValidatedMessage> batch) {
+		for (ValidatedMessage v : batch) storeMessageContexts(singletonList(v));
+	}
+
+	@DatabaseExecutor
+	private void storeMessageContext(Transaction txn, ValidatedMessage v,
+			Queue<MessageId> invalidate, Queue<MessageId> pending,
+			Queue<MessageId> toShare) throws DbException {
+		Message m = v.message;
+		MessageId id = m.getId();
+		MessageContext context = v.context;
+		boolean anyInvalid = false, allDelivered = true;
+		// Check if message has any dependencies
+		Collection<MessageId> dependencies = context.getDependencies();
+		if (!dependencies.isEmpty()) {
+			db.addMessageDependencies(txn, m, dependencies);
+			// Check if dependencies are valid and delivered
+			Map<MessageId, State> states = db.getMessageDependencies(txn, id);
+			for (Entry<MessageId, State> e : states.entrySet()) {
+				if (e.getValue() == INVALID) anyInvalid = true;
+				if (e.getValue() != DELIVERED) allDelivered = false;
+			}
+		}
+		if (anyInvalid) {
+			if (db.getMessageState(txn, id) != INVALID) {
+				invalidateMessage(txn, id);
+				invalidate.addAll(getDependentsToInvalidate(txn, id));
+			}
+		} else {
+			Metadata meta = context.getMetadata();
+			db.mergeMessageMetadata(txn, id, meta);
+			if (allDelivered) {
+				DeliveryResult result = deliverMessage(txn, m, v.clientId,
+						v.majorVersion, meta);
+				if (result.valid) {
+					pending.addAll(getPendingDependents(txn, id));
+					if (result.share) {
+						db.setMessageShared(txn, id);
+						toShare.addAll(dependencies);
+					}
+				} else {
+					invalidate.addAll(getDependentsToInvalidate(txn, id));
+				}
+			} else {
+				db.setMessageState(txn, id, PENDING);
+			}
+		}
+	}
+
+	private void recordStoredBatch(List<ValidatedMessage> batch, long start) {
+		long now = now();
+		batchesStored.incrementAndGet();
+		messagesStored.addAndGet(batch.size());
+		for (ValidatedMessage v : batch) {
+			long latency = now - v.queued;
+			totalLatency.addAndGet(latency);
+			long max = maxLatency.get();
+			while (latency > max && !maxLatency.compareAndSet(max, latency))
+				max = maxLatency.get();
+		}
+		if (LOG.isLoggable(FINE)) {
+			LOG.fine("Storing " + batch.size() + " validated messages took "
+					+ (now - start) + " ms");
 		}
 	}
 
+	/**
+	 * Returns the number of messages that have passed validation and had
+	 * their results stored.
+	 */
+	long getMessagesStored() {
+		return messagesStored.get();
+	}
+
+	/**
+	 * Returns the number of messages that have failed validation.
+	 */
+	long getMessagesInvalid() {
+		return messagesInvalid.get();
+	}
+
+	/**
+	 * Returns the number of transactions in which validation results have
+	 * been stored.
+	 */
+	long getBatchesStored() {
+		return batchesStored.get();
+	}
+
+	/**
+	 * Returns the mean time in milliseconds between a message being queued
+	 * for validation and its validation result being stored.
+	 */
+	long getMeanLatency() {
+		long count = messagesStored.get();
+		return count == 0 ? 0 : totalLatency.get() / count;
+	}
+
+	/**
+	 * Returns the longest time in milliseconds between a message being
+	 * queued for validation and its validation result being stored.
+	 */
+	long getMaxLatency() {
+		return maxLatency.get();
+	}
+
 	@DatabaseExecutor
 	private DeliveryResult deliverMessage(Transaction txn, Message m,
 			ClientId c, int majorVersion, Metadata meta) throws DbException {
@@ -461,16 +761,16 @@ class ValidationManagerImpl implements ValidationManager, Service,
 			// Validate the message if it wasn't created locally
 			MessageAddedEvent m = (MessageAddedEvent) e;
 			if (m.getContactId() != null)
-				loadGroupAndValidateAsync(m.getMessage());
+				loadGroupAndValidateAsync(m.getMessage(), now());
 		}
 	}
 
-	private void loadGroupAndValidateAsync(Message m) {
-		dbExecutor.execute(() -> loadGroupAndValidate(m));
+	private void loadGroupAndValidateAsync(Message m, long queued) {
+		dbExecutor.execute(() -> loadGroupAndValidate(m, queued));
 	}
 
 	@DatabaseExecutor
-	private void loadGroupAndValidate(Message m) {
+	private void loadGroupAndValidate(Message m, long queued) {
 		try {
 			Group g;
 			Transaction txn = db.startTransaction(true);
@@ -480,7 +780,7 @@ class ValidationManagerImpl implements ValidationManager, Service,
 			} finally {
 				db.endTransaction(txn);
 			}
-			validateMessageAsync(m, g);
+			validateMessageAsync(m, g, queued);
 		} catch (NoSuchGroupException e) {
 			LOG.info("Group removed before validation");
 		} catch (DbException e) {
@@ -488,6 +788,28 @@ class ValidationManagerImpl implements ValidationManager, Service,
 		}
 	}
 
+	@Immutable
+	private static class ValidatedMessage {
+
+		private final Message message;
+		private final ClientId clientId;
+		private final int majorVersion;
+		private final MessageContext context;
+		private final Collection<SignatureToVerify> signatures;
+		private final long queued;
+
+		private ValidatedMessage(Message message, ClientId clientId,
+				int majorVersion, MessageContext context,
+				Collection<SignatureToVerify> signatures, long queued) {
+			this.message = message;
+			this.clientId = clientId;
+			this.majorVersion = majorVersion;
+			this.context = context;
+			this.signatures = signatures;
+			this.queued = queued;
+		}
+	}
+
 	private static class DeliveryResult {
 
 		private final boolean valid, share;
@@ -22,6 +22,16 @@ class MutableTransportKeys {
 		outCurr = new MutableOutgoingKeys(k.getCurrentOutgoingKeys());
 	}
 
+	MutableTransportKeys(TransportId transportId, MutableIncomingKeys inPrev,
+			MutableIncomingKeys inCurr, MutableIncomingKeys inNext,
+			MutableOutgoingKeys outCurr) {
+		this.transportId = transportId;
+		this.inPrev = inPrev;
+		this.inCurr = inCurr;
+		this.inNext = inNext;
+		this.outCurr = outCurr;
+	}
+
 	TransportKeys snapshot() {
 		return new TransportKeys(transportId, inPrev.snapshot(),
 				inCurr.snapshot(), inNext.snapshot(), outCurr.snapshot());
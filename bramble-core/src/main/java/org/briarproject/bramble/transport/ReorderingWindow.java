@@ -3,30 +3,41 @@ package org.briarproject.bramble.transport;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import javax.annotation.concurrent.NotThreadSafe;
 
 import static org.briarproject.bramble.util.ByteUtils.MAX_32_BIT_UNSIGNED;
 
+/**
+ * A window of stream numbers, each of which has either been seen or not.
+ * <p>
+ * The window is stored as a bitset in an array of longs, with the element
+ * at offset i from the base in bit i % 64 of word i / 64. The methods that
+ * report unseen elements and changes to the window use callbacks, so
+ * sliding the window doesn't allocate.
+ */
 @NotThreadSafe
 @NotNullByDefault
 class ReorderingWindow {
 
+	private final int size;
+	private final long[] words;
+
 	private long base;
-	private boolean[] seen;
 
 	ReorderingWindow(long base, byte[] bitmap) {
 		if (base < 0) throw new IllegalArgumentException();
 		if (base > MAX_32_BIT_UNSIGNED + 1)
 			throw new IllegalArgumentException();
 		this.base = base;
-		seen = new boolean[bitmap.length * 8];
+		size = bitmap.length * 8;
+		words = new long[(size + 63) / 64];
+		// The bitmap stores the lowest element in the most significant bit
+		// of each byte
 		for (int i = 0; i < bitmap.length; i++) {
-			for (int j = 0; j < 8; j++) {
-				if ((bitmap[i] & (128 >> j)) != 0) seen[i * 8 + j] = true;
-			}
+			long reversed = Integer.reverse(bitmap[i] & 0xFF) >>> 24;
+			words[i / 8] |= reversed << (i % 8 * 8);
 		}
 	}
 
@@ -35,54 +46,142 @@ class ReorderingWindow {
 	}
 
 	byte[] getBitmap() {
-		byte[] bitmap = new byte[seen.length / 8];
+		byte[] bitmap = new byte[size / 8];
+		getBitmap(bitmap);
+		return bitmap;
+	}
+
+	/**
+	 * Writes the window's bitmap to the given array, which must have the
+	 * same length as the bitmap, so the array can be reused.
+	 */
+	void getBitmap(byte[] bitmap) {
+		if (bitmap.length != size / 8) throw new IllegalArgumentException();
 		for (int i = 0; i < bitmap.length; i++) {
-			for (int j = 0; j < 8; j++) {
-				if (seen[i * 8 + j]) bitmap[i] |= 128 >> j;
+			int b = (int) (words[i / 8] >>> (i % 8 * 8)) & 0xFF;
+			bitmap[i] = (byte) (Integer.reverse(b) >>> 24);
+		}
+	}
+
+	/**
+	 * Passes each unseen element to the given visitor in ascending order.
+	 */
+	void visitUnseen(Visitor v) {
+		for (int i = 0; i < words.length; i++) {
+			long unseen = ~words[i] & getValidBits(i);
+			while (unseen != 0) {
+				v.visit(base + i * 64 + Long.numberOfTrailingZeros(unseen));
+				unseen &= unseen - 1; // Clear the lowest set bit
 			}
 		}
-		return bitmap;
 	}
 
+	/**
+	 * Returns the unseen elements in ascending order. This allocates, so
+	 * {@link #visitUnseen(Visitor)} should be preferred where that matters.
+	 */
 	List<Long> getUnseen() {
-		List<Long> unseen = new ArrayList<>(seen.length);
-		for (int i = 0; i < seen.length; i++)
-			if (!seen[i]) unseen.add(base + i);
+		List<Long> unseen = new ArrayList<>(size);
+		visitUnseen(unseen::add);
 		return unseen;
 	}
 
-	Change setSeen(long index) {
+	/**
+	 * Marks the given element as seen and slides the window if necessary.
+	 * Each element added to the window is passed to
+	 * {@link ChangeListener#added(long)} in ascending order, then each
+	 * unseen element removed from the window is passed to
+	 * {@link ChangeListener#removed(long)} in ascending order, followed by
+	 * the element that was seen.
+	 */
+	void setSeen(long index, ChangeListener listener) {
 		if (index < base) throw new IllegalArgumentException();
-		if (index >= base + seen.length) throw new IllegalArgumentException();
+		if (index >= base + size) throw new IllegalArgumentException();
 		if (index > MAX_32_BIT_UNSIGNED) throw new IllegalArgumentException();
 		int offset = (int) (index - base);
-		if (seen[offset]) throw new IllegalArgumentException();
-		seen[offset] = true;
+		if (isSeen(offset)) throw new IllegalArgumentException();
+		words[offset / 64] |= 1L << (offset % 64);
 		// Rule 1: Slide until all elements above the midpoint are unseen
-		int slide = Math.max(0, offset + 1 - seen.length / 2);
+		int slide = Math.max(0, offset + 1 - size / 2);
 		// Rule 2: Slide until the lowest element is unseen
-		while (seen[slide]) slide++;
-		// If the window doesn't need to slide, return
-		if (slide == 0) {
-			List<Long> added = Collections.emptyList();
-			List<Long> removed = Collections.singletonList(index);
-			return new Change(added, removed);
-		}
-		// Record the elements that will be added and removed
-		List<Long> added = new ArrayList<>(slide);
-		List<Long> removed = new ArrayList<>(slide);
-		for (int i = 0; i < slide; i++) {
-			if (!seen[i]) removed.add(base + i);
-			added.add(base + seen.length + i);
-		}
-		removed.add(index);
+		while (isSeen(slide)) slide++;
+		// Report the elements that will be added and removed
+		for (int i = 0; i < slide; i++) listener.added(base + size + i);
+		for (int i = 0; i < slide; i++)
+			if (!isSeen(i)) listener.removed(base + i);
+		listener.removed(index);
 		// Update the window
-		base += slide;
-		for (int i = 0; i + slide < seen.length; i++) seen[i] = seen[i + slide];
-		for (int i = seen.length - slide; i < seen.length; i++) seen[i] = false;
+		if (slide > 0) {
+			base += slide;
+			shiftDown(slide);
+		}
+	}
+
+	/**
+	 * Marks the given element as seen and slides the window if necessary,
+	 * returning the elements that were added and removed. This allocates,
+	 * so {@link #setSeen(long, ChangeListener)} should be preferred where
+	 * that matters.
+	 */
+	Change setSeen(long index) {
+		List<Long> added = new ArrayList<>(), removed = new ArrayList<>();
+		setSeen(index, new ChangeListener() {
+
+			@Override
+			public void added(long index) {
+				added.add(index);
+			}
+
+			@Override
+			public void removed(long index) {
+				removed.add(index);
+			}
+		});
 		return new Change(added, removed);
 	}
 
+	private boolean isSeen(int offset) {
+		return (words[offset / 64] & (1L << (offset % 64))) != 0;
+	}
+
+	/**
+	 * Returns a mask of the bits in the given word that are inside the
+	 * window.
+	 */
+	private long getValidBits(int word) {
+		int bits = Math.min(64, size - word * 64);
+		return bits == 64 ? -1L : (1L << bits) - 1;
+	}
+
+	/**
+	 * Moves each element down by the given number of positions, filling
+	 * the top of the window with unseen elements.
+	 */
+	private void shiftDown(int positions) {
+		int wordShift = positions / 64, bitShift = positions % 64;
+		for (int i = 0; i < words.length; i++) {
+			int src = i + wordShift;
+			long low = src < words.length ? words[src] : 0;
+			long high = src + 1 < words.length ? words[src + 1] : 0;
+			if (bitShift == 0) words[i] = low;
+			else words[i] = (low >>> bitShift) | (high << (64 - bitShift));
+		}
+		// Clear any bits above the top of the window
+		words[words.length - 1] &= getValidBits(words.length - 1);
+	}
+
+	interface Visitor {
+
+		void visit(long index);
+	}
+
+	interface ChangeListener {
+
+		void added(long index);
+
+		void removed(long index);
+	}
+
 	static class Change {
 
 		private final List<Long> added, removed;
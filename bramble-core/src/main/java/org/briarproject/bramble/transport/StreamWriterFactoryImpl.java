@@ -1,6 +1,7 @@
 package org.briarproject.bramble.transport;
 
 import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.api.crypto.StreamEncrypter;
 import org.briarproject.bramble.api.crypto.StreamEncrypterFactory;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.transport.StreamContext;
@@ -12,6 +13,9 @@ import java.io.OutputStream;
 import javax.annotation.concurrent.Immutable;
 import javax.inject.Inject;
 
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_LARGE_PAYLOAD_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYLOAD_LENGTH;
+
 @Immutable
 @NotNullByDefault
 class StreamWriterFactoryImpl implements StreamWriterFactory {
@@ -26,8 +30,16 @@ class StreamWriterFactoryImpl implements StreamWriterFactory {
 	@Override
 	public StreamWriter createStreamWriter(OutputStream out,
 			StreamContext ctx) {
-		return new StreamWriterImpl(
-				streamEncrypterFactory.createStreamEncrypter(out, ctx));
+		return createStreamWriter(out, ctx, false);
+	}
+
+	@Override
+	public StreamWriter createStreamWriter(OutputStream out,
+			StreamContext ctx, boolean largeFrames) {
+		StreamEncrypter encrypter = streamEncrypterFactory
+				.createStreamEncrypter(out, ctx, largeFrames);
+		return new StreamWriterImpl(encrypter,
+				largeFrames ? MAX_LARGE_PAYLOAD_LENGTH : MAX_PAYLOAD_LENGTH);
 	}
 
 	@Override
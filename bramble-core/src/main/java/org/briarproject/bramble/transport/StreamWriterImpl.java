@@ -26,8 +26,16 @@ class StreamWriterImpl extends OutputStream implements StreamWriter {
 	private int length = 0;
 
 	StreamWriterImpl(StreamEncrypter encrypter) {
+		this(encrypter, MAX_PAYLOAD_LENGTH);
+	}
+
+	/**
+	 * @param maxPayloadLength the maximum payload length of the frames
+	 * written by the encrypter.
+	 */
+	StreamWriterImpl(StreamEncrypter encrypter, int maxPayloadLength) {
 		this.encrypter = encrypter;
-		payload = new byte[MAX_PAYLOAD_LENGTH];
+		payload = new byte[maxPayloadLength];
 	}
 
 	@Override
@@ -0,0 +1,214 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+import static org.briarproject.bramble.util.ByteUtils.INT_64_BYTES;
+import static org.briarproject.bramble.util.ByteUtils.readUint64;
+
+/**
+ * A hash table that maps tags to the values and stream numbers they were
+ * encoded with.
+ * <p>
+ * Each tag is stored as two longs in a primitive array, using open
+ * addressing with linear probing, so entries don't need to be allocated
+ * and lookups don't need to copy or wrap the tag. Removal shifts later
+ * entries back rather than leaving tombstones, so the table doesn't
+ * degrade as the reordering windows slide.
+ * <p>
+ * Tags are pseudo-random, so their leading bits are used as the hash.
+ */
+@NotThreadSafe
+@NotNullByDefault
+class TagTable<V> {
+
+	/**
+	 * The initial number of slots, which must be a power of two.
+	 */
+	private static final int MIN_CAPACITY = 64;
+
+	private long[] tags; // Two longs per slot
+	private long[] streamNumbers;
+	private Object[] values; // Null if the slot is empty
+	private int size = 0;
+
+	TagTable() {
+		allocate(MIN_CAPACITY);
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Adds a tag to the table, replacing any existing entry for the tag.
+	 */
+	void put(byte[] tag, V value, long streamNumber) {
+		if (tag.length != TAG_LENGTH) throw new IllegalArgumentException();
+		put(tag, 0, value, streamNumber);
+	}
+
+	/**
+	 * Adds the tag starting at the given offset to the table, replacing
+	 * any existing entry for the tag.
+	 */
+	void put(byte[] buf, int offset, V value, long streamNumber) {
+		if (offset + TAG_LENGTH > buf.length)
+			throw new IllegalArgumentException();
+		// Keep the load factor at or below 1/2
+		if ((size + 1) * 2 > values.length) resize(values.length * 2);
+		insert(readUint64(buf, offset),
+				readUint64(buf, offset + INT_64_BYTES), value, streamNumber);
+	}
+
+	/**
+	 * Returns the slot containing the given tag, or -1 if the tag is not in
+	 * the table. The slot is only valid until the table is next modified.
+	 */
+	int find(byte[] tag) {
+		if (tag.length != TAG_LENGTH) throw new IllegalArgumentException();
+		return find(tag, 0);
+	}
+
+	private int find(byte[] buf, int offset) {
+		if (offset + TAG_LENGTH > buf.length)
+			throw new IllegalArgumentException();
+		long hi = readUint64(buf, offset);
+		long lo = readUint64(buf, offset + INT_64_BYTES);
+		int mask = values.length - 1;
+		for (int i = hash(hi, mask); values[i] != null; i = (i + 1) & mask) {
+			if (tags[i * 2] == hi && tags[i * 2 + 1] == lo) return i;
+		}
+		return -1;
+	}
+
+	@SuppressWarnings("unchecked")
+	V getValue(int slot) {
+		Object value = values[slot];
+		if (value == null) throw new IllegalArgumentException();
+		return (V) value;
+	}
+
+	long getStreamNumber(int slot) {
+		if (values[slot] == null) throw new IllegalArgumentException();
+		return streamNumbers[slot];
+	}
+
+	/**
+	 * Removes the given tag from the table, if it is present.
+	 */
+	void remove(byte[] tag) {
+		int slot = find(tag);
+		if (slot != -1) remove(slot);
+	}
+
+	/**
+	 * Removes the tag starting at the given offset from the table, if it
+	 * is present.
+	 */
+	void remove(byte[] buf, int offset) {
+		int slot = find(buf, offset);
+		if (slot != -1) remove(slot);
+	}
+
+	/**
+	 * Removes the entry in the given slot.
+	 */
+	void remove(int slot) {
+		if (values[slot] == null) throw new IllegalArgumentException();
+		int mask = values.length - 1;
+		int gap = slot;
+		// Move any later entries in the same run back to fill the gap, so
+		// every entry remains reachable from its home slot
+		for (int i = (gap + 1) & mask; values[i] != null; i = (i + 1) & mask) {
+			int home = hash(tags[i * 2], mask);
+			// The entry can move if its home slot is not between the gap
+			// and its current slot
+			boolean canMove = gap <= i ? home <= gap || home > i
+					: home <= gap && home > i;
+			if (canMove) {
+				tags[gap * 2] = tags[i * 2];
+				tags[gap * 2 + 1] = tags[i * 2 + 1];
+				streamNumbers[gap] = streamNumbers[i];
+				values[gap] = values[i];
+				gap = i;
+			}
+		}
+		values[gap] = null;
+		size--;
+	}
+
+	/**
+	 * Removes all entries with values that match the given filter.
+	 */
+	void removeValues(Filter<V> filter) {
+		long[] oldTags = tags;
+		long[] oldStreamNumbers = streamNumbers;
+		Object[] oldValues = values;
+		allocate(oldValues.length);
+		for (int i = 0; i < oldValues.length; i++) {
+			@SuppressWarnings("unchecked")
+			V value = (V) oldValues[i];
+			if (value != null && !filter.matches(value)) {
+				insert(oldTags[i * 2], oldTags[i * 2 + 1], value,
+						oldStreamNumbers[i]);
+			}
+		}
+	}
+
+	void clear() {
+		allocate(MIN_CAPACITY);
+	}
+
+	private void allocate(int capacity) {
+		tags = new long[capacity * 2];
+		streamNumbers = new long[capacity];
+		values = new Object[capacity];
+		size = 0;
+	}
+
+	private void resize(int capacity) {
+		long[] oldTags = tags;
+		long[] oldStreamNumbers = streamNumbers;
+		Object[] oldValues = values;
+		allocate(capacity);
+		for (int i = 0; i < oldValues.length; i++) {
+			Object value = oldValues[i];
+			if (value != null) {
+				insert(oldTags[i * 2], oldTags[i * 2 + 1], value,
+						oldStreamNumbers[i]);
+			}
+		}
+	}
+
+	private void insert(long hi, long lo, Object value,
+			long streamNumber) {
+		int mask = values.length - 1;
+		int i = hash(hi, mask);
+		while (values[i] != null) {
+			if (tags[i * 2] == hi && tags[i * 2 + 1] == lo) {
+				// Replace the existing entry
+				streamNumbers[i] = streamNumber;
+				values[i] = value;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		tags[i * 2] = hi;
+		tags[i * 2 + 1] = lo;
+		streamNumbers[i] = streamNumber;
+		values[i] = value;
+		size++;
+	}
+
+	private static int hash(long hi, int mask) {
+		return (int) (hi >>> 32) & mask;
+	}
+
+	interface Filter<V> {
+
+		boolean matches(V value);
+	}
+}
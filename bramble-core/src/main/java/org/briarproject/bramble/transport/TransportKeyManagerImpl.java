@@ -1,6 +1,5 @@
 package org.briarproject.bramble.transport;
 
-import org.briarproject.bramble.api.Bytes;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.crypto.TransportCrypto;
@@ -11,16 +10,18 @@ import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.bramble.api.system.Scheduler;
+import org.briarproject.bramble.api.transport.IncomingKeys;
 import org.briarproject.bramble.api.transport.KeySet;
 import org.briarproject.bramble.api.transport.KeySetId;
 import org.briarproject.bramble.api.transport.StreamContext;
 import org.briarproject.bramble.api.transport.TransportKeys;
-import org.briarproject.bramble.transport.ReorderingWindow.Change;
+import org.briarproject.bramble.transport.ReorderingWindow.ChangeListener;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
@@ -28,12 +29,14 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.logging.Level.WARNING;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAX_CLOCK_DIFFERENCE;
 import static org.briarproject.bramble.api.transport.TransportConstants.PROTOCOL_VERSION;
+import static org.briarproject.bramble.api.transport.TransportConstants.REORDERING_WINDOW_SIZE;
 import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
 import static org.briarproject.bramble.util.ByteUtils.MAX_32_BIT_UNSIGNED;
 import static org.briarproject.bramble.util.LogUtils.logException;
@@ -45,9 +48,14 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 	private static final Logger LOG =
 			Logger.getLogger(TransportKeyManagerImpl.class.getName());
 
+	/**
+	 * The maximum number of key sets to rotate in each transaction.
+	 */
+	private static final int ROTATION_CHUNK_SIZE = 200;
+
 	private final DatabaseComponent db;
 	private final TransportCrypto transportCrypto;
-	private final Executor dbExecutor;
+	private final Executor dbExecutor, cryptoExecutor;
 	private final ScheduledExecutorService scheduler;
 	private final Clock clock;
 	private final TransportId transportId;
@@ -57,16 +65,24 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 
 	// The following are locking: lock
 	private final Map<KeySetId, MutableKeySet> keys = new HashMap<>();
-	private final Map<Bytes, TagContext> inContexts = new HashMap<>();
+	private final TagTable<TagContext> inContexts = new TagTable<>();
 	private final Map<ContactId, MutableKeySet> outContexts = new HashMap<>();
+	// Reused for encoding tags
+	private final byte[] tagBuffer = new byte[TAG_LENGTH];
+	// Reused for updating reordering windows
+	private final WindowListener windowListener = new WindowListener();
+	// Reused for writing reordering windows to the DB, which copies them
+	private final byte[] bitmapBuffer = new byte[REORDERING_WINDOW_SIZE / 8];
 
 	TransportKeyManagerImpl(DatabaseComponent db,
 			TransportCrypto transportCrypto, Executor dbExecutor,
+			Executor cryptoExecutor,
 			@Scheduler ScheduledExecutorService scheduler, Clock clock,
 			TransportId transportId, long maxLatency) {
 		this.db = db;
 		this.transportCrypto = transportCrypto;
 		this.dbExecutor = dbExecutor;
+		this.cryptoExecutor = cryptoExecutor;
 		this.scheduler = scheduler;
 		this.clock = clock;
 		this.transportId = transportId;
@@ -132,14 +148,24 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 	// Locking: lock
 	private void encodeTags(KeySetId keySetId, ContactId contactId,
 			MutableIncomingKeys inKeys) {
-		for (long streamNumber : inKeys.getWindow().getUnseen()) {
-			TagContext tagCtx =
-					new TagContext(keySetId, contactId, inKeys, streamNumber);
-			byte[] tag = new byte[TAG_LENGTH];
-			transportCrypto.encodeTag(tag, inKeys.getTagKey(), PROTOCOL_VERSION,
-					streamNumber);
-			inContexts.put(new Bytes(tag), tagCtx);
-		}
+		// All the tags for the same incoming keys share a context
+		TagContext tagCtx = new TagContext(keySetId, contactId, inKeys);
+		inKeys.getWindow().visitUnseen(
+				streamNumber -> addTag(tagCtx, streamNumber));
+	}
+
+	// Locking: lock
+	private void addTag(TagContext tagCtx, long streamNumber) {
+		transportCrypto.encodeTag(tagBuffer, tagCtx.inKeys.getTagKey(),
+				PROTOCOL_VERSION, streamNumber);
+		inContexts.put(tagBuffer, tagCtx, streamNumber);
+	}
+
+	// Locking: lock
+	private void removeTag(MutableIncomingKeys inKeys, long streamNumber) {
+		transportCrypto.encodeTag(tagBuffer, inKeys.getTagKey(),
+				PROTOCOL_VERSION, streamNumber);
+		inContexts.remove(tagBuffer);
 	}
 
 	// Locking: lock
@@ -160,21 +186,213 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 	}
 
 	private void rotateKeys() {
-		dbExecutor.execute(() -> {
-			try {
-				Transaction txn = db.startTransaction(false);
+		long now = clock.currentTimeMillis();
+		List<KeySetId> keySetIds;
+		lock.lock();
+		try {
+			keySetIds = new ArrayList<>(keys.keySet());
+		} finally {
+			lock.unlock();
+		}
+		rotateKeys(keySetIds, 0, now);
+	}
+
+	/**
+	 * Rotates the key sets with the given IDs in chunks, starting from the
+	 * given index. The keys for each chunk are derived on the crypto
+	 * executor without holding the lock, then swapped in and written to the
+	 * DB in a single transaction, so the lock is only held while the
+	 * precomputed keys and tags are added to the tables.
+	 */
+	private void rotateKeys(List<KeySetId> keySetIds, int start, long now) {
+		if (start >= keySetIds.size()) {
+			// Schedule the next key rotation
+			scheduleKeyRotation(now);
+			return;
+		}
+		int end = Math.min(start + ROTATION_CHUNK_SIZE, keySetIds.size());
+		List<KeySetId> chunk = keySetIds.subList(start, end);
+		long rotationPeriod = now / rotationPeriodLength;
+		cryptoExecutor.execute(() -> {
+			List<RotatedKeySet> rotated =
+					precomputeRotation(chunk, rotationPeriod);
+			if (rotated.isEmpty()) {
+				rotateKeys(keySetIds, end, now);
+				return;
+			}
+			dbExecutor.execute(() -> {
 				try {
-					rotateKeys(txn);
-					db.commitTransaction(txn);
-				} finally {
-					db.endTransaction(txn);
+					swapRotatedKeys(rotated);
+				} catch (DbException e) {
+					logException(LOG, WARNING, e);
 				}
-			} catch (DbException e) {
-				logException(LOG, WARNING, e);
-			}
+				rotateKeys(keySetIds, end, now);
+			});
 		});
 	}
 
+	private List<RotatedKeySet> precomputeRotation(List<KeySetId> keySetIds,
+			long rotationPeriod) {
+		List<KeySet> snapshot = new ArrayList<>(keySetIds.size());
+		lock.lock();
+		try {
+			for (KeySetId keySetId : keySetIds) {
+				// The contact may have been removed
+				MutableKeySet ks = keys.get(keySetId);
+				if (ks != null) {
+					snapshot.add(new KeySet(keySetId, ks.getContactId(),
+							ks.getTransportKeys().snapshot()));
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		List<RotatedKeySet> rotated = new ArrayList<>(snapshot.size());
+		byte[] tag = new byte[TAG_LENGTH];
+		for (KeySet ks : snapshot) {
+			TransportKeys k = ks.getTransportKeys();
+			TransportKeys k1 =
+					transportCrypto.rotateTransportKeys(k, rotationPeriod);
+			long oldPeriod = k.getRotationPeriod();
+			long newPeriod = k1.getRotationPeriod();
+			if (newPeriod <= oldPeriod) continue;
+			RotatedKeySet r =
+					new RotatedKeySet(ks.getKeySetId(), oldPeriod, k1);
+			// Windows for periods before the new previous period are
+			// removed, windows for periods after the old next period are
+			// added, and the others are kept along with their tags
+			for (IncomingKeys in : getIncomingKeys(k)) {
+				if (in.getRotationPeriod() < newPeriod - 1)
+					r.removed.add(encodeTags(in, tag));
+			}
+			for (IncomingKeys in : getIncomingKeys(k1)) {
+				if (in.getRotationPeriod() > oldPeriod + 1)
+					r.added.add(encodeTags(in, tag));
+			}
+			rotated.add(r);
+		}
+		return rotated;
+	}
+
+	private IncomingKeys[] getIncomingKeys(TransportKeys k) {
+		return new IncomingKeys[] {k.getPreviousIncomingKeys(),
+				k.getCurrentIncomingKeys(), k.getNextIncomingKeys()};
+	}
+
+	private PrecomputedTags encodeTags(IncomingKeys in, byte[] tag) {
+		ReorderingWindow window = new ReorderingWindow(in.getWindowBase(),
+				in.getWindowBitmap());
+		List<Long> unseen = window.getUnseen();
+		long[] streamNumbers = new long[unseen.size()];
+		byte[] tags = new byte[unseen.size() * TAG_LENGTH];
+		for (int i = 0; i < streamNumbers.length; i++) {
+			streamNumbers[i] = unseen.get(i);
+			transportCrypto.encodeTag(tag, in.getTagKey(), PROTOCOL_VERSION,
+					streamNumbers[i]);
+			System.arraycopy(tag, 0, tags, i * TAG_LENGTH, TAG_LENGTH);
+		}
+		long windowTop = in.getWindowBase() + in.getWindowBitmap().length * 8;
+		return new PrecomputedTags(in.getRotationPeriod(), streamNumbers,
+				tags, windowTop);
+	}
+
+	private void swapRotatedKeys(List<RotatedKeySet> rotated)
+			throws DbException {
+		Transaction txn = db.startTransaction(false);
+		try {
+			Collection<KeySet> updated = new ArrayList<>(rotated.size());
+			lock.lock();
+			try {
+				for (RotatedKeySet r : rotated) swapRotatedKeys(r, updated);
+			} finally {
+				lock.unlock();
+			}
+			// Write transactions are exclusive, so no streams can be created
+			// or recognised with the swapped keys until this transaction has
+			// been committed
+			if (!updated.isEmpty()) db.updateTransportKeys(txn, updated);
+			db.commitTransaction(txn);
+		} finally {
+			db.endTransaction(txn);
+		}
+	}
+
+	// Locking: lock
+	private void swapRotatedKeys(RotatedKeySet r, Collection<KeySet> updated) {
+		// The contact may have been removed
+		MutableKeySet ks = keys.get(r.keySetId);
+		if (ks == null) return;
+		MutableTransportKeys m = ks.getTransportKeys();
+		MutableOutgoingKeys outCurr = m.getCurrentOutgoingKeys();
+		if (outCurr.getRotationPeriod() != r.oldPeriod) return;
+		// Keep the incoming keys that are still in use, along with their
+		// windows and tags
+		TransportKeys k1 = r.transportKeys;
+		MutableIncomingKeys inPrev =
+				getOrCreateIncomingKeys(m, k1.getPreviousIncomingKeys());
+		MutableIncomingKeys inCurr =
+				getOrCreateIncomingKeys(m, k1.getCurrentIncomingKeys());
+		MutableIncomingKeys inNext =
+				getOrCreateIncomingKeys(m, k1.getNextIncomingKeys());
+		MutableOutgoingKeys outCurr1 =
+				new MutableOutgoingKeys(k1.getCurrentOutgoingKeys());
+		// The outgoing keys may have been activated since the snapshot
+		if (outCurr.isActive() && !outCurr1.isActive()) outCurr1.activate();
+		MutableTransportKeys m1 = new MutableTransportKeys(transportId,
+				inPrev, inCurr, inNext, outCurr1);
+		MutableKeySet ks1 = new MutableKeySet(r.keySetId, ks.getContactId(),
+				m1);
+		keys.put(r.keySetId, ks1);
+		// Remove the tags for the incoming keys that are no longer in use
+		for (PrecomputedTags t : r.removed) {
+			MutableIncomingKeys inKeys =
+					getIncomingKeys(m, t.rotationPeriod);
+			if (inKeys == null) throw new AssertionError();
+			for (int i = 0; i < t.streamNumbers.length; i++)
+				inContexts.remove(t.tags, i * TAG_LENGTH);
+			// Remove the tags for any stream numbers that have been added
+			// to the window since the tags were encoded
+			inKeys.getWindow().visitUnseen(streamNumber -> {
+				if (streamNumber >= t.windowTop)
+					removeTag(inKeys, streamNumber);
+			});
+		}
+		// Add the tags for the new incoming keys
+		for (PrecomputedTags t : r.added) {
+			MutableIncomingKeys inKeys =
+					getIncomingKeys(m1, t.rotationPeriod);
+			if (inKeys == null) throw new AssertionError();
+			TagContext tagCtx =
+					new TagContext(r.keySetId, ks.getContactId(), inKeys);
+			for (int i = 0; i < t.streamNumbers.length; i++) {
+				inContexts.put(t.tags, i * TAG_LENGTH, tagCtx,
+						t.streamNumbers[i]);
+			}
+		}
+		if (outContexts.get(ks.getContactId()) == ks)
+			outContexts.remove(ks.getContactId());
+		considerReplacingOutgoingKeys(ks1);
+		updated.add(new KeySet(r.keySetId, ks.getContactId(), m1.snapshot()));
+	}
+
+	@Nullable
+	private MutableIncomingKeys getIncomingKeys(MutableTransportKeys m,
+			long rotationPeriod) {
+		if (m.getPreviousIncomingKeys().getRotationPeriod() == rotationPeriod)
+			return m.getPreviousIncomingKeys();
+		if (m.getCurrentIncomingKeys().getRotationPeriod() == rotationPeriod)
+			return m.getCurrentIncomingKeys();
+		if (m.getNextIncomingKeys().getRotationPeriod() == rotationPeriod)
+			return m.getNextIncomingKeys();
+		return null;
+	}
+
+	private MutableIncomingKeys getOrCreateIncomingKeys(MutableTransportKeys m,
+			IncomingKeys in) {
+		MutableIncomingKeys inKeys = getIncomingKeys(m, in.getRotationPeriod());
+		return inKeys == null ? new MutableIncomingKeys(in) : inKeys;
+	}
+
 	@Override
 	public KeySetId addContact(Transaction txn, ContactId c, SecretKey master,
 			long timestamp, boolean alice, boolean active) throws DbException {
@@ -218,8 +436,7 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		lock.lock();
 		try {
 			// Remove mutable state for the contact
-			Iterator<TagContext> it = inContexts.values().iterator();
-			while (it.hasNext()) if (it.next().contactId.equals(c)) it.remove();
+			inContexts.removeValues(tagCtx -> tagCtx.contactId.equals(c));
 			outContexts.remove(c);
 			Iterator<MutableKeySet> it1 = keys.values().iterator();
 			while (it1.hasNext()) {
@@ -277,37 +494,31 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		lock.lock();
 		try {
 			// Look up the incoming keys for the tag
-			TagContext tagCtx = inContexts.remove(new Bytes(tag));
-			if (tagCtx == null) return null;
+			int slot = inContexts.find(tag);
+			if (slot == -1) return null;
+			TagContext tagCtx = inContexts.getValue(slot);
+			long seen = inContexts.getStreamNumber(slot);
+			inContexts.remove(slot);
 			MutableIncomingKeys inKeys = tagCtx.inKeys;
 			// Create a stream context
 			StreamContext ctx = new StreamContext(tagCtx.contactId, transportId,
-					inKeys.getTagKey(), inKeys.getHeaderKey(),
-					tagCtx.streamNumber);
-			// Update the reordering window
+					inKeys.getTagKey(), inKeys.getHeaderKey(), seen);
+			// Update the reordering window, adding tags for any stream
+			// numbers added to the window and removing tags for any stream
+			// numbers removed from the window
 			ReorderingWindow window = inKeys.getWindow();
-			Change change = window.setSeen(tagCtx.streamNumber);
-			// Add tags for any stream numbers added to the window
-			for (long streamNumber : change.getAdded()) {
-				byte[] addTag = new byte[TAG_LENGTH];
-				transportCrypto.encodeTag(addTag, inKeys.getTagKey(),
-						PROTOCOL_VERSION, streamNumber);
-				TagContext tagCtx1 = new TagContext(tagCtx.keySetId,
-						tagCtx.contactId, inKeys, streamNumber);
-				inContexts.put(new Bytes(addTag), tagCtx1);
-			}
-			// Remove tags for any stream numbers removed from the window
-			for (long streamNumber : change.getRemoved()) {
-				if (streamNumber == tagCtx.streamNumber) continue;
-				byte[] removeTag = new byte[TAG_LENGTH];
-				transportCrypto.encodeTag(removeTag, inKeys.getTagKey(),
-						PROTOCOL_VERSION, streamNumber);
-				inContexts.remove(new Bytes(removeTag));
+			windowListener.tagCtx = tagCtx;
+			windowListener.seen = seen;
+			try {
+				window.setSeen(seen, windowListener);
+			} finally {
+				windowListener.tagCtx = null;
 			}
 			// Write the window back to the DB
+			window.getBitmap(bitmapBuffer);
 			db.setReorderingWindow(txn, tagCtx.keySetId, transportId,
 					inKeys.getRotationPeriod(), window.getBase(),
-					window.getBitmap());
+					bitmapBuffer);
 			// If the outgoing keys are inactive, activate them
 			MutableKeySet ks = keys.get(tagCtx.keySetId);
 			MutableOutgoingKeys outKeys =
@@ -324,45 +535,76 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		}
 	}
 
-	private void rotateKeys(Transaction txn) throws DbException {
-		long now = clock.currentTimeMillis();
-		lock.lock();
-		try {
-			// Rotate the keys to the current rotation period
-			Collection<KeySet> snapshot = new ArrayList<>(keys.size());
-			for (MutableKeySet ks : keys.values()) {
-				snapshot.add(new KeySet(ks.getKeySetId(), ks.getContactId(),
-						ks.getTransportKeys().snapshot()));
-			}
-			RotationResult rotationResult = rotateKeys(snapshot, now);
-			// Rebuild the mutable state for all contacts
-			inContexts.clear();
-			outContexts.clear();
-			keys.clear();
-			addKeys(rotationResult.current);
-			// Write any rotated keys back to the DB
-			if (!rotationResult.rotated.isEmpty())
-				db.updateTransportKeys(txn, rotationResult.rotated);
-		} finally {
-			lock.unlock();
-		}
-		// Schedule the next key rotation
-		scheduleKeyRotation(now);
-	}
-
 	private static class TagContext {
 
 		private final KeySetId keySetId;
 		private final ContactId contactId;
 		private final MutableIncomingKeys inKeys;
-		private final long streamNumber;
 
 		private TagContext(KeySetId keySetId, ContactId contactId,
-				MutableIncomingKeys inKeys, long streamNumber) {
+				MutableIncomingKeys inKeys) {
 			this.keySetId = keySetId;
 			this.contactId = contactId;
 			this.inKeys = inKeys;
-			this.streamNumber = streamNumber;
+		}
+	}
+
+	/**
+	 * Adds and removes tags for the stream numbers added to and removed
+	 * from a reordering window when a stream number is seen.
+	 */
+	private class WindowListener implements ChangeListener {
+
+		// The following are locking: lock
+		@Nullable
+		private TagContext tagCtx = null;
+		private long seen = 0;
+
+		@Override
+		public void added(long streamNumber) {
+			if (tagCtx == null) throw new IllegalStateException();
+			addTag(tagCtx, streamNumber);
+		}
+
+		@Override
+		public void removed(long streamNumber) {
+			if (tagCtx == null) throw new IllegalStateException();
+			// The tag for the seen stream number was already removed
+			if (streamNumber != seen) removeTag(tagCtx.inKeys, streamNumber);
+		}
+	}
+
+	private static class RotatedKeySet {
+
+		private final KeySetId keySetId;
+		private final long oldPeriod;
+		private final TransportKeys transportKeys;
+		private final List<PrecomputedTags> added = new ArrayList<>();
+		private final List<PrecomputedTags> removed = new ArrayList<>();
+
+		private RotatedKeySet(KeySetId keySetId, long oldPeriod,
+				TransportKeys transportKeys) {
+			this.keySetId = keySetId;
+			this.oldPeriod = oldPeriod;
+			this.transportKeys = transportKeys;
+		}
+	}
+
+	private static class PrecomputedTags {
+
+		private final long rotationPeriod;
+		private final long[] streamNumbers;
+		private final byte[] tags; // TAG_LENGTH bytes per stream number
+		// Stream numbers at or above this were not in the window when the
+		// tags were encoded
+		private final long windowTop;
+
+		private PrecomputedTags(long rotationPeriod, long[] streamNumbers,
+				byte[] tags, long windowTop) {
+			this.rotationPeriod = rotationPeriod;
+			this.streamNumbers = streamNumbers;
+			this.tags = tags;
+			this.windowTop = windowTop;
 		}
 	}
 
@@ -0,0 +1,99 @@
+package org.briarproject.bramble;
+
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.logging.Level.WARNING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimeLoggingExecutorTest extends BrambleTestCase {
+
+	private static final String TAG = "Test";
+	private static final int TASKS = 4;
+
+	private TimeLoggingExecutor executor;
+
+	@Before
+	public void setUp() {
+		// Use a single thread that's started by the first task
+		executor = new TimeLoggingExecutor(TAG, 1, 1, 60, SECONDS,
+				new LinkedBlockingQueue<>(),
+				new ThreadPoolExecutor.DiscardPolicy());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, SECONDS));
+	}
+
+	@Test
+	public void testMetricsAreZeroBeforeAnyTasksRun() {
+		assertEquals(0, executor.getMaxQueueLength());
+		assertEquals(0, executor.getMeanQueueTime());
+		assertEquals(0, executor.getMaxQueueTime());
+	}
+
+	@Test
+	public void testRecordsQueueLengthAndQueueTime() throws Exception {
+		CountDownLatch blocked = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch finished = new CountDownLatch(TASKS);
+		// The first task runs straight away and blocks the thread
+		executor.execute(() -> {
+			blocked.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			finished.countDown();
+		});
+		assertTrue(blocked.await(10, SECONDS));
+		// The other tasks wait in the queue
+		for (int i = 1; i < TASKS; i++) executor.execute(finished::countDown);
+		assertEquals(TASKS - 1, executor.getMaxQueueLength());
+		MILLISECONDS.sleep(100);
+		release.countDown();
+		assertTrue(finished.await(10, SECONDS));
+		// The queued tasks waited for at least as long as the first task
+		// was blocked after they were queued
+		assertTrue(executor.getMaxQueueTime() >= 100);
+		// The first task didn't wait, so the mean is less than the maximum
+		long mean = executor.getMeanQueueTime();
+		assertTrue(mean > 0);
+		assertTrue(mean < executor.getMaxQueueTime());
+		// The queue never grew beyond the tasks that were waiting
+		assertEquals(TASKS - 1, executor.getMaxQueueLength());
+	}
+
+	@Test
+	public void testTasksAreNotMeasuredWhenLoggingIsDisabled()
+			throws Exception {
+		Logger log = Logger.getLogger(TAG);
+		Level level = log.getLevel();
+		log.setLevel(WARNING);
+		try {
+			CountDownLatch finished = new CountDownLatch(TASKS);
+			for (int i = 0; i < TASKS; i++)
+				executor.execute(finished::countDown);
+			assertTrue(finished.await(10, SECONDS));
+			assertEquals(0, executor.getMaxQueueLength());
+			assertEquals(0, executor.getMeanQueueTime());
+			assertEquals(0, executor.getMaxQueueTime());
+		} finally {
+			log.setLevel(level);
+		}
+	}
+}
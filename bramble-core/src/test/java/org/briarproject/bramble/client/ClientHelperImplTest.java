@@ -28,13 +28,14 @@ import org.jmock.Mockery;
 import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
 import java.security.GeneralSecurityException;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
 
+import static java.util.Arrays.asList;
 import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_AUTHOR_NAME_LENGTH;
 import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_PUBLIC_KEY_LENGTH;
 import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_SIGNATURE_LENGTH;
@@ -218,6 +219,26 @@ public class ClientHelperImplTest extends BrambleTestCase {
 		context.assertIsSatisfied();
 	}
 
+	@Test
+	public void testGetMessageMetadataAsDictionaryWithKeys()
+			throws Exception {
+		Map<MessageId, BdfDictionary> map = new HashMap<>();
+		map.put(messageId, dictionary);
+		Collection<String> keys = asList("foo", "bar");
+		Transaction txn = new Transaction(null, true);
+
+		context.checking(new Expectations() {{
+			oneOf(db).getMessageMetadata(txn, groupId);
+			will(returnValue(Collections.singletonMap(messageId, metadata)));
+			oneOf(metadataParser).parse(metadata, keys);
+			will(returnValue(dictionary));
+		}});
+
+		assertEquals(map, clientHelper.getMessageMetadataAsDictionary(txn,
+				groupId, keys));
+		context.assertIsSatisfied();
+	}
+
 	@Test
 	public void testMergeGroupMetadata() throws Exception {
 		Transaction txn = new Transaction(null, false);
@@ -511,8 +532,8 @@ public class ClientHelperImplTest extends BrambleTestCase {
 		BdfReader bdfReader = context.mock(BdfReader.class);
 
 		context.checking(new Expectations() {{
-			oneOf(bdfReaderFactory)
-					.createReader(with(any(InputStream.class)));
+			oneOf(bdfReaderFactory).createReader(with(any(byte[].class)),
+					with(any(int.class)), with(any(int.class)));
 			will(returnValue(bdfReader));
 			oneOf(bdfReader).readList();
 			will(returnValue(list));
@@ -1,12 +1,19 @@
 package org.briarproject.bramble.crypto;
 
 import org.briarproject.bramble.api.crypto.KeyPair;
+import org.briarproject.bramble.api.crypto.SignatureToVerify;
 import org.junit.Test;
 
 import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
 
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
 import static org.briarproject.bramble.util.StringUtils.fromHexString;
+import static org.briarproject.bramble.util.StringUtils.getRandomString;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class EdSignatureTest extends SignatureTest {
@@ -166,4 +173,79 @@ public class EdSignatureTest extends SignatureTest {
 			assertTrue(signature.verify(signatureBytes));
 		}
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testRfc8032TestVectorsAreAcceptedInBatch() throws Exception {
+		EdBatchVerifier batch = new EdBatchVerifier(new SecureRandom());
+		for (String[] vector : TEST_VECTORS) {
+			batch.add(fromHexString(vector[3]),
+					new EdPublicKey(fromHexString(vector[1])),
+					fromHexString(vector[2]));
+		}
+		assertTrue(batch.verify());
+	}
+
+	@Test
+	public void testBatchOfValidSignaturesIsAccepted() throws Exception {
+		List<SignatureToVerify> batch = createBatch(10);
+		assertTrue(crypto.verifySignatures(batch));
+	}
+
+	@Test
+	public void testBatchWithModifiedSignatureIsRejected() throws Exception {
+		List<SignatureToVerify> batch = createBatch(10);
+		SignatureToVerify s = batch.get(5);
+		byte[] signature = s.getSignature().clone();
+		signature[40] ^= 1;
+		batch.set(5, new SignatureToVerify(signature, s.getLabel(),
+				s.getSigned(), s.getPublicKey()));
+		assertFalse(crypto.verifySignatures(batch));
+	}
+
+	@Test
+	public void testBatchWithWrongPublicKeyIsRejected() throws Exception {
+		List<SignatureToVerify> batch = createBatch(10);
+		SignatureToVerify s = batch.get(5);
+		byte[] publicKey = batch.get(6).getPublicKey();
+		batch.set(5, new SignatureToVerify(s.getSignature(), s.getLabel(),
+				s.getSigned(), publicKey));
+		assertFalse(crypto.verifySignatures(batch));
+	}
+
+	@Test
+	public void testBatchWithWrongLabelIsRejected() throws Exception {
+		List<SignatureToVerify> batch = createBatch(10);
+		SignatureToVerify s = batch.get(5);
+		batch.set(5, new SignatureToVerify(s.getSignature(),
+				getRandomString(42), s.getSigned(), s.getPublicKey()));
+		assertFalse(crypto.verifySignatures(batch));
+	}
+
+	@Test
+	public void testBatchWithNonCanonicalPointIsRejected() throws Exception {
+		List<SignatureToVerify> batch = createBatch(10);
+		SignatureToVerify s = batch.get(5);
+		// Flipping the sign bit of R is detected by individual verification
+		byte[] signature = s.getSignature().clone();
+		signature[31] ^= (byte) 0x80;
+		assertFalse(crypto.verifySignature(signature, s.getLabel(),
+				s.getSigned(), s.getPublicKey()));
+		batch.set(5, new SignatureToVerify(signature, s.getLabel(),
+				s.getSigned(), s.getPublicKey()));
+		assertFalse(crypto.verifySignatures(batch));
+	}
+
+	private List<SignatureToVerify> createBatch(int size) throws Exception {
+		List<SignatureToVerify> batch = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			KeyPair k = generateKeyPair();
+			String label = getRandomString(42);
+			byte[] signed = getRandomBytes(123);
+			byte[] signature =
+					sign(label, signed, k.getPrivate().getEncoded());
+			batch.add(new SignatureToVerify(signature, label, signed,
+					k.getPublic().getEncoded()));
+		}
+		return batch;
+	}
+}
@@ -0,0 +1,120 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.junit.Test;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.MAC_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class FastXSalsa20Poly1305AuthenticatedCipherTest
+		extends XSalsa20Poly1305AuthenticatedCipherTest {
+
+	private static final int[] LENGTHS = {0, 1, 15, 16, 17, 31, 32, 33, 63,
+			64, 65, 95, 96, 97, 127, 128, 129, 1024, 1030, 16384};
+
+	private final Random random = new Random();
+
+	@Override
+	AuthenticatedCipher createCipher() {
+		return new FastXSalsa20Poly1305AuthenticatedCipher();
+	}
+
+	@Test
+	public void testCiphertextsMatchSpongyCastleCipher() throws Exception {
+		AuthenticatedCipher fast = createCipher();
+		AuthenticatedCipher reference =
+				new XSalsa20Poly1305AuthenticatedCipher();
+		// Reuse the ciphers to check that initialising them resets them
+		for (int length : LENGTHS) {
+			SecretKey key = getSecretKey();
+			byte[] iv = getRandomBytes(24);
+			byte[] plaintext = getRandomBytes(length);
+			byte[] expected = new byte[length + MAC_LENGTH];
+			reference.init(true, key, iv);
+			reference.process(plaintext, 0, length, expected, 0);
+			// Write the ciphertext at an offset
+			int off = random.nextInt(10);
+			byte[] ciphertext = new byte[off + length + MAC_LENGTH];
+			fast.init(true, key, iv);
+			assertEquals(length + MAC_LENGTH,
+					fast.process(plaintext, 0, length, ciphertext, off));
+			assertArrayEquals(expected, Arrays.copyOfRange(ciphertext, off,
+					ciphertext.length));
+			// Decrypt from the offset
+			byte[] decrypted = new byte[length];
+			fast.init(false, key, iv);
+			assertEquals(length, fast.process(ciphertext, off,
+					length + MAC_LENGTH, decrypted, 0));
+			assertArrayEquals(plaintext, decrypted);
+		}
+	}
+
+	@Test
+	public void testEncryptsAndDecryptsInPlace() throws Exception {
+		AuthenticatedCipher cipher = createCipher();
+		for (int length : LENGTHS) {
+			SecretKey key = getSecretKey();
+			byte[] iv = getRandomBytes(24);
+			byte[] plaintext = getRandomBytes(length);
+			byte[] expected = new byte[length + MAC_LENGTH];
+			cipher.init(true, key, iv);
+			cipher.process(plaintext, 0, length, expected, 0);
+			// Leave room for the MAC before the plaintext
+			byte[] buf = new byte[length + MAC_LENGTH];
+			System.arraycopy(plaintext, 0, buf, MAC_LENGTH, length);
+			cipher.init(true, key, iv);
+			cipher.process(buf, MAC_LENGTH, length, buf, 0);
+			assertArrayEquals(expected, buf);
+			cipher.init(false, key, iv);
+			cipher.process(buf, 0, buf.length, buf, MAC_LENGTH);
+			assertArrayEquals(plaintext,
+					Arrays.copyOfRange(buf, MAC_LENGTH, buf.length));
+		}
+	}
+
+	@Test
+	public void testDecryptFailsWithAlteredMacOrCiphertext()
+			throws Exception {
+		AuthenticatedCipher cipher = createCipher();
+		SecretKey key = getSecretKey();
+		byte[] iv = getRandomBytes(24);
+		byte[] plaintext = getRandomBytes(1024);
+		byte[] ciphertext = new byte[plaintext.length + MAC_LENGTH];
+		cipher.init(true, key, iv);
+		cipher.process(plaintext, 0, plaintext.length, ciphertext, 0);
+		byte[] output = new byte[plaintext.length];
+		for (int i = 0; i < ciphertext.length; i += 7) {
+			ciphertext[i] ^= 1;
+			cipher.init(false, key, iv);
+			try {
+				cipher.process(ciphertext, 0, ciphertext.length, output, 0);
+				fail();
+			} catch (GeneralSecurityException expected) {
+				// Expected
+			}
+			ciphertext[i] ^= 1;
+		}
+	}
+
+	@Test(expected = GeneralSecurityException.class)
+	public void testEncryptFailsWithShortOutput() throws Exception {
+		AuthenticatedCipher cipher = createCipher();
+		cipher.init(true, getSecretKey(), getRandomBytes(24));
+		byte[] plaintext = getRandomBytes(123);
+		byte[] output = new byte[plaintext.length + MAC_LENGTH - 1];
+		cipher.process(plaintext, 0, plaintext.length, output, 0);
+	}
+
+	@Test(expected = GeneralSecurityException.class)
+	public void testInitFailsWithShortNonce() throws Exception {
+		createCipher().init(true, getSecretKey(), getRandomBytes(23));
+	}
+}
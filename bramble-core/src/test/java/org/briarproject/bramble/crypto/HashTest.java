@@ -1,14 +1,21 @@
 package org.briarproject.bramble.crypto;
 
 import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.Hasher;
 import org.briarproject.bramble.test.BrambleTestCase;
 import org.briarproject.bramble.test.TestSecureRandomProvider;
 import org.briarproject.bramble.test.TestUtils;
+import org.briarproject.bramble.util.ByteUtils;
 import org.briarproject.bramble.util.StringUtils;
 import org.junit.Test;
+import org.spongycastle.crypto.Digest;
+import org.spongycastle.crypto.digests.Blake2bDigest;
 
 import java.util.Arrays;
 
+import static java.util.Arrays.copyOfRange;
+import static org.briarproject.bramble.api.crypto.Hasher.OUTPUT_LENGTH;
+import static org.briarproject.bramble.util.ByteUtils.INT_32_BYTES;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertFalse;
 
@@ -48,4 +55,43 @@ public class HashTest extends BrambleTestCase {
 		assertFalse(Arrays.equals(hash1, hash2));
 	}
 
+	@Test
+	public void testHasherProducesSameHashes() {
+		byte[] hash1 = crypto.hash(label, inputBytes, inputBytes1, inputBytes2);
+		// Pass the inputs to the hasher as slices of a larger array
+		byte[] concat = new byte[1 + inputBytes.length + inputBytes1.length];
+		System.arraycopy(inputBytes, 0, concat, 1, inputBytes.length);
+		System.arraycopy(inputBytes1, 0, concat, 1 + inputBytes.length,
+				inputBytes1.length);
+		Hasher hasher = crypto.createHasher();
+		byte[] hash2 = new byte[OUTPUT_LENGTH + 1];
+		// Reuse the hasher to check that starting a hash discards any state
+		for (int i = 0; i < 2; i++) {
+			hasher.startHash(label);
+			hasher.addInput(concat, 1, inputBytes.length);
+			hasher.addInput(concat, 1 + inputBytes.length,
+					inputBytes1.length);
+			hasher.addInput(inputBytes2);
+			hasher.finish(hash2, 1);
+			assertArrayEquals(hash1, copyOfRange(hash2, 1, hash2.length));
+		}
+	}
+
+	@Test
+	public void testHashIsLengthPrefixedBlake2b() {
+		// Use a non-ASCII label, which is encoded as UTF-8
+		String label = "\u00e9t\u00e9";
+		byte[] labelBytes = StringUtils.toUtf8(label);
+		Digest digest = new Blake2bDigest(256);
+		byte[] length = new byte[INT_32_BYTES];
+		for (byte[] b : new byte[][] {labelBytes, inputBytes, inputBytes1}) {
+			ByteUtils.writeUint32(b.length, length, 0);
+			digest.update(length, 0, length.length);
+			digest.update(b, 0, b.length);
+		}
+		byte[] expected = new byte[digest.getDigestSize()];
+		digest.doFinal(expected, 0);
+		assertArrayEquals(expected,
+				crypto.hash(label, inputBytes, inputBytes1));
+	}
 }
@@ -1,15 +1,22 @@
 package org.briarproject.bramble.crypto;
 
 import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.Hasher;
 import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.test.BrambleTestCase;
 import org.briarproject.bramble.test.TestSecureRandomProvider;
+import org.briarproject.bramble.util.ByteUtils;
+import org.briarproject.bramble.util.StringUtils;
 import org.junit.Test;
+import org.spongycastle.crypto.Digest;
+import org.spongycastle.crypto.digests.Blake2bDigest;
 
 import java.util.Arrays;
 
+import static org.briarproject.bramble.api.crypto.Hasher.OUTPUT_LENGTH;
 import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
 import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.util.ByteUtils.INT_32_BYTES;
 import static org.briarproject.bramble.util.StringUtils.getRandomString;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertFalse;
@@ -76,4 +83,35 @@ public class MacTest extends BrambleTestCase {
 				input3));
 	}
 
+	@Test
+	public void testHasherProducesSameMacs() {
+		Hasher hasher = crypto.createHasher();
+		byte[] mac = new byte[OUTPUT_LENGTH];
+		// Alternate between keys to check that the hasher can be rekeyed
+		for (SecretKey key : new SecretKey[] {key1, key2, key1}) {
+			hasher.startMac(label1, key);
+			hasher.addInput(input1);
+			hasher.addInput(input2, 0, input2.length);
+			hasher.addInput(input3);
+			hasher.finish(mac, 0);
+			assertArrayEquals(crypto.mac(label1, key, input1, input2, input3),
+					mac);
+		}
+	}
+
+	@Test
+	public void testMacIsLengthPrefixedKeyedBlake2b() {
+		byte[] labelBytes = StringUtils.toUtf8(label1);
+		Digest digest = new Blake2bDigest(key1.getBytes(), 32, null, null);
+		byte[] length = new byte[INT_32_BYTES];
+		for (byte[] b : new byte[][] {labelBytes, input1, input2, input3}) {
+			ByteUtils.writeUint32(b.length, length, 0);
+			digest.update(length, 0, length.length);
+			digest.update(b, 0, b.length);
+		}
+		byte[] expected = new byte[digest.getDigestSize()];
+		digest.doFinal(expected, 0);
+		assertArrayEquals(expected,
+				crypto.mac(label1, key1, input1, input2, input3));
+	}
 }
@@ -0,0 +1,76 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+import org.spongycastle.crypto.Digest;
+import org.spongycastle.crypto.digests.Blake2bDigest;
+
+import java.util.Random;
+
+import static org.briarproject.bramble.crypto.ReusableBlake2bDigest.DIGEST_LENGTH;
+import static org.briarproject.bramble.crypto.ReusableBlake2bDigest.MAX_KEY_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.junit.Assert.assertArrayEquals;
+
+public class ReusableBlake2bDigestTest extends BrambleTestCase {
+
+	private final Random random = new Random();
+	private final ReusableBlake2bDigest digest = new ReusableBlake2bDigest();
+
+	@Test
+	public void testUnkeyedDigestMatchesBlake2bDigest() {
+		for (int length = 0; length <= 300; length++) {
+			byte[] input = getRandomBytes(length);
+			digest.setKey(null);
+			assertArrayEquals(hash(new Blake2bDigest(256), input),
+					hash(digest, input));
+		}
+	}
+
+	@Test
+	public void testKeyedDigestMatchesBlake2bDigest() {
+		// Change the key and the key length between hashes
+		for (int length = 0; length <= 300; length++) {
+			byte[] key = getRandomBytes(1 + random.nextInt(MAX_KEY_LENGTH));
+			byte[] input = getRandomBytes(length);
+			digest.setKey(key);
+			assertArrayEquals(hash(new Blake2bDigest(key, DIGEST_LENGTH,
+					null, null), input), hash(digest, input));
+		}
+	}
+
+	@Test
+	public void testDigestIsResetAfterFinishing() {
+		byte[] key = getRandomBytes(32);
+		byte[] input = getRandomBytes(1234);
+		digest.setKey(key);
+		byte[] expected = hash(digest, input);
+		// The key is kept when the digest is reset
+		assertArrayEquals(expected, hash(digest, input));
+		digest.update(input, 0, 123);
+		digest.reset();
+		assertArrayEquals(expected, hash(digest, input));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsLongKey() {
+		digest.setKey(new byte[MAX_KEY_LENGTH + 1]);
+	}
+
+	private byte[] hash(Digest d, byte[] input) {
+		// Split the input into randomly sized updates, some of single bytes
+		int off = 0;
+		while (off < input.length) {
+			if (random.nextBoolean()) {
+				d.update(input[off++]);
+			} else {
+				int len = random.nextInt(input.length - off + 1);
+				d.update(input, off, len);
+				off += len;
+			}
+		}
+		byte[] output = new byte[DIGEST_LENGTH];
+		d.doFinal(output, 0);
+		return output;
+	}
+}
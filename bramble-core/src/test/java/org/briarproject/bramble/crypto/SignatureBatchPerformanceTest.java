@@ -0,0 +1,109 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.KeyPair;
+import org.briarproject.bramble.api.crypto.SignatureToVerify;
+import org.briarproject.bramble.test.TestSecureRandomProvider;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+
+/**
+ * Compares the time taken to verify Ed25519 signatures one at a time and
+ * in batches of various sizes, with each signature made by a different key
+ * or all signatures made by the same key.
+ */
+// Not a JUnit test
+public class SignatureBatchPerformanceTest {
+
+	private static final int SIGNATURES = 256;
+	private static final int BYTES_TO_SIGN = 1024;
+	private static final int ROUNDS = 10;
+	private static final int[] BATCH_SIZES = {2, 4, 16, 64, 256};
+	private static final String LABEL = "label";
+
+	public static void main(String[] args) throws GeneralSecurityException {
+		CryptoComponent crypto =
+				new CryptoComponentImpl(new TestSecureRandomProvider(), null);
+		List<SignatureToVerify> differentKeys =
+				createSignatures(crypto, false);
+		List<SignatureToVerify> sameKey = createSignatures(crypto, true);
+		// Warm up the JIT before measuring
+		runTest(crypto, null, differentKeys);
+		runTest(crypto, "Different keys", differentKeys);
+		runTest(crypto, "Same key", sameKey);
+	}
+
+	private static List<SignatureToVerify> createSignatures(
+			CryptoComponent crypto, boolean sameKey)
+			throws GeneralSecurityException {
+		List<SignatureToVerify> signatures = new ArrayList<>(SIGNATURES);
+		KeyPair keyPair = crypto.generateSignatureKeyPair();
+		for (int i = 0; i < SIGNATURES; i++) {
+			if (!sameKey) keyPair = crypto.generateSignatureKeyPair();
+			byte[] signed = getRandomBytes(BYTES_TO_SIGN);
+			byte[] signature = crypto.sign(LABEL, signed,
+					keyPair.getPrivate().getEncoded());
+			signatures.add(new SignatureToVerify(signature, LABEL, signed,
+					keyPair.getPublic().getEncoded()));
+		}
+		return signatures;
+	}
+
+	/**
+	 * Runs the test, printing the results if the name is not null.
+	 */
+	private static void runTest(CryptoComponent crypto, @Nullable String name,
+			List<SignatureToVerify> signatures)
+			throws GeneralSecurityException {
+		List<Long> samples = new ArrayList<>();
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			for (SignatureToVerify s : signatures) {
+				if (!crypto.verifySignature(s.getSignature(), s.getLabel(),
+						s.getSigned(), s.getPublicKey())) {
+					throw new AssertionError();
+				}
+			}
+			samples.add(System.nanoTime() - start);
+		}
+		long single = median(samples) / SIGNATURES;
+		if (name != null) {
+			System.out.println(String.format("%s, one at a time: %,d ns",
+					name, single));
+		}
+		for (int batchSize : BATCH_SIZES) {
+			samples.clear();
+			for (int round = 0; round < ROUNDS; round++) {
+				long start = System.nanoTime();
+				for (int i = 0; i < SIGNATURES; i += batchSize) {
+					if (!crypto.verifySignatures(
+							signatures.subList(i, i + batchSize))) {
+						throw new AssertionError();
+					}
+				}
+				samples.add(System.nanoTime() - start);
+			}
+			long batched = median(samples) / SIGNATURES;
+			if (name != null) {
+				System.out.println(String.format(
+						"%s, batches of %d: %,d ns (%.2fx)", name, batchSize,
+						batched, (double) single / batched));
+			}
+		}
+	}
+
+	private static long median(List<Long> list) {
+		List<Long> sorted = new ArrayList<>(list);
+		Collections.sort(sorted);
+		int size = sorted.size();
+		if (size % 2 == 1) return sorted.get(size / 2);
+		return (sorted.get(size / 2 - 1) + sorted.get(size / 2)) / 2;
+	}
+}
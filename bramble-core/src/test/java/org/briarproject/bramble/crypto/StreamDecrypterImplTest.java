@@ -12,7 +12,9 @@ import java.io.IOException;
 
 import static junit.framework.Assert.assertEquals;
 import static org.briarproject.bramble.api.transport.TransportConstants.FRAME_HEADER_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.LARGE_FRAMES_FLAG;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAC_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_LARGE_PAYLOAD_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYLOAD_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.PROTOCOL_VERSION;
 import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_NONCE_LENGTH;
@@ -85,6 +87,73 @@ public class StreamDecrypterImplTest extends BrambleTestCase {
 		assertEquals(-1, s.readFrame(buffer));
 	}
 
+	@Test
+	public void testReadValidLargeFrame() throws Exception {
+		byte[] largeFramesProtocolVersionBytes = new byte[2];
+		ByteUtils.writeUint16(PROTOCOL_VERSION | LARGE_FRAMES_FLAG,
+				largeFramesProtocolVersionBytes, 0);
+
+		byte[] frameHeader = new byte[FRAME_HEADER_LENGTH];
+		int payloadLength = MAX_LARGE_PAYLOAD_LENGTH - 1, paddingLength = 1;
+		FrameEncoder.encodeHeader(frameHeader, true, payloadLength,
+				paddingLength);
+		byte[] payload = TestUtils.getRandomBytes(payloadLength);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(streamHeaderNonce);
+		out.write(largeFramesProtocolVersionBytes);
+		out.write(streamNumberBytes);
+		out.write(frameKey.getBytes());
+		out.write(new byte[MAC_LENGTH]);
+		out.write(frameHeader);
+		out.write(payload);
+		out.write(new byte[paddingLength]);
+		out.write(new byte[MAC_LENGTH]);
+
+		ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+		StreamDecrypterImpl s = new StreamDecrypterImpl(in, cipher,
+				streamNumber, streamHeaderKey);
+
+		// Read the frame
+		byte[] buffer = new byte[MAX_LARGE_PAYLOAD_LENGTH];
+		assertEquals(payloadLength, s.readFrame(buffer));
+		assertArrayStartsWith(payload, buffer, payloadLength);
+
+		// End of stream
+		assertEquals(-1, s.readFrame(buffer));
+	}
+
+	@Test(expected = IOException.class)
+	public void testLargeFramesWithSmallBufferThrowsException()
+			throws Exception {
+		byte[] largeFramesProtocolVersionBytes = new byte[2];
+		ByteUtils.writeUint16(PROTOCOL_VERSION | LARGE_FRAMES_FLAG,
+				largeFramesProtocolVersionBytes, 0);
+
+		byte[] frameHeader = new byte[FRAME_HEADER_LENGTH];
+		FrameEncoder.encodeHeader(frameHeader, true, payloadLength,
+				paddingLength);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(streamHeaderNonce);
+		out.write(largeFramesProtocolVersionBytes);
+		out.write(streamNumberBytes);
+		out.write(frameKey.getBytes());
+		out.write(new byte[MAC_LENGTH]);
+		out.write(frameHeader);
+		out.write(payload);
+		out.write(new byte[paddingLength]);
+		out.write(new byte[MAC_LENGTH]);
+
+		ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+		StreamDecrypterImpl s = new StreamDecrypterImpl(in, cipher,
+				streamNumber, streamHeaderKey);
+
+		// The buffer is too small for a large frame
+		byte[] buffer = new byte[MAX_PAYLOAD_LENGTH];
+		s.readFrame(buffer);
+	}
+
 	@Test(expected = IOException.class)
 	public void testWrongProtocolVersionThrowsException() throws Exception {
 		byte[] wrongProtocolVersionBytes = new byte[2];
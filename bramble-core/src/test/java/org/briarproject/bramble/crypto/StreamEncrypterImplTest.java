@@ -9,8 +9,11 @@ import org.junit.Test;
 import java.io.ByteArrayOutputStream;
 
 import static org.briarproject.bramble.api.transport.TransportConstants.FRAME_HEADER_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.LARGE_FRAMES_FLAG;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAC_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAX_FRAME_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_LARGE_FRAME_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_LARGE_PAYLOAD_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYLOAD_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.PROTOCOL_VERSION;
 import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_LENGTH;
@@ -99,6 +102,34 @@ public class StreamEncrypterImplTest extends BrambleTestCase {
 				out.size());
 	}
 
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsMaxLargePayloadPlusPadding() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StreamEncrypterImpl s = new StreamEncrypterImpl(out, cipher,
+				streamNumber, tag, streamHeaderNonce, streamHeaderKey,
+				frameKey, true);
+
+		byte[] bigPayload = new byte[MAX_LARGE_PAYLOAD_LENGTH + 1];
+		s.writeFrame(bigPayload, MAX_LARGE_PAYLOAD_LENGTH, 1, false);
+	}
+
+	@Test
+	public void testAcceptsMaxLargePayloadWithoutPadding() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StreamEncrypterImpl s = new StreamEncrypterImpl(out, cipher,
+				streamNumber, tag, streamHeaderNonce, streamHeaderKey,
+				frameKey, true);
+
+		byte[] bigPayload = new byte[MAX_LARGE_PAYLOAD_LENGTH];
+		s.writeFrame(bigPayload, MAX_LARGE_PAYLOAD_LENGTH, 0, false);
+		assertEquals(TAG_LENGTH + STREAM_HEADER_LENGTH
+				+ MAX_LARGE_FRAME_LENGTH, out.size());
+		// The stream header should contain the large frames flag
+		int protocolVersion = ByteUtils.readUint16(out.toByteArray(),
+				TAG_LENGTH + STREAM_HEADER_NONCE_LENGTH);
+		assertEquals(PROTOCOL_VERSION | LARGE_FRAMES_FLAG, protocolVersion);
+	}
+
 	@Test
 	public void testWriteUnpaddedNonFinalFrameWithTag() throws Exception {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
@@ -46,10 +46,14 @@ public class XSalsa20Poly1305AuthenticatedCipherTest extends BrambleTestCase {
 					"a43d14a6599b1f654cb45a74" +
 					"e355a5");
 
+	AuthenticatedCipher createCipher() {
+		return new XSalsa20Poly1305AuthenticatedCipher();
+	}
+
 	@Test
 	public void testEncrypt() throws Exception {
 		SecretKey k = new SecretKey(TEST_KEY);
-		AuthenticatedCipher cipher = new XSalsa20Poly1305AuthenticatedCipher();
+		AuthenticatedCipher cipher = createCipher();
 		cipher.init(true, k, TEST_IV);
 		byte[] output = new byte[TEST_CIPHERTEXT.length];
 		assertEquals(TEST_CIPHERTEXT.length, cipher.process(TEST_PLAINTEXT, 0,
@@ -60,7 +64,7 @@ public class XSalsa20Poly1305AuthenticatedCipherTest extends BrambleTestCase {
 	@Test
 	public void testDecrypt() throws Exception {
 		SecretKey k = new SecretKey(TEST_KEY);
-		AuthenticatedCipher cipher = new XSalsa20Poly1305AuthenticatedCipher();
+		AuthenticatedCipher cipher = createCipher();
 		cipher.init(false, k, TEST_IV);
 		byte[] output = new byte[TEST_PLAINTEXT.length];
 		assertEquals(TEST_PLAINTEXT.length, cipher.process(TEST_CIPHERTEXT, 0,
@@ -71,7 +75,7 @@ public class XSalsa20Poly1305AuthenticatedCipherTest extends BrambleTestCase {
 	@Test(expected = GeneralSecurityException.class)
 	public void testDecryptFailsWithShortInput() throws Exception {
 		SecretKey k = new SecretKey(TEST_KEY);
-		AuthenticatedCipher cipher = new XSalsa20Poly1305AuthenticatedCipher();
+		AuthenticatedCipher cipher = createCipher();
 		cipher.init(false, k, TEST_IV);
 		byte[] input = new byte[cipher.getMacBytes() - 1];
 		System.arraycopy(TEST_CIPHERTEXT, 0, input, 0, input.length);
@@ -82,7 +86,7 @@ public class XSalsa20Poly1305AuthenticatedCipherTest extends BrambleTestCase {
 	@Test(expected = GeneralSecurityException.class)
 	public void testDecryptFailsWithAlteredCiphertext() throws Exception {
 		SecretKey k = new SecretKey(TEST_KEY);
-		AuthenticatedCipher cipher = new XSalsa20Poly1305AuthenticatedCipher();
+		AuthenticatedCipher cipher = createCipher();
 		cipher.init(false, k, TEST_IV);
 		byte[] input = new byte[TEST_CIPHERTEXT.length];
 		System.arraycopy(TEST_CIPHERTEXT, 0, input, 0, TEST_CIPHERTEXT.length);
@@ -0,0 +1,57 @@
+package org.briarproject.bramble.data;
+
+import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.data.BdfReader;
+import org.junit.Test;
+
+import static org.briarproject.bramble.api.data.BdfReader.DEFAULT_MAX_BUFFER_SIZE;
+import static org.briarproject.bramble.api.data.BdfReader.DEFAULT_NESTED_LIMIT;
+import static org.briarproject.bramble.util.StringUtils.fromHexString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BdfByteArrayReaderImplTest extends BdfReaderImplTest {
+
+	@Override
+	BdfReader createReader(byte[] b, int maxBufferSize) {
+		// Surround the contents with bytes the reader must not touch
+		byte[] padded = new byte[b.length + 2];
+		padded[0] = Types.LIST;
+		System.arraycopy(b, 0, padded, 1, b.length);
+		padded[padded.length - 1] = Types.END;
+		return new BdfByteArrayReaderImpl(padded, 1, b.length,
+				DEFAULT_NESTED_LIMIT, maxBufferSize);
+	}
+
+	@Test
+	public void testReadsOnlyTheGivenRegion() throws Exception {
+		// INT_8 1, INT_8 2, INT_8 3
+		byte[] b = fromHexString("210121022103");
+		BdfReader r = new BdfByteArrayReaderImpl(b, 2, 2,
+				DEFAULT_NESTED_LIMIT, DEFAULT_MAX_BUFFER_SIZE);
+		assertEquals(2, r.readLong());
+		assertTrue(r.eof());
+	}
+
+	@Test(expected = FormatException.class)
+	public void testLongCannotExtendBeyondRegion() throws Exception {
+		// INT_16 with only one byte of the value inside the region
+		byte[] b = fromHexString("220102");
+		new BdfByteArrayReaderImpl(b, 0, 2, DEFAULT_NESTED_LIMIT,
+				DEFAULT_MAX_BUFFER_SIZE).readLong();
+	}
+
+	@Test(expected = FormatException.class)
+	public void testRawCannotExtendBeyondRegion() throws Exception {
+		// RAW_8 with a length of 3 but only two bytes inside the region
+		byte[] b = fromHexString("5103010203");
+		new BdfByteArrayReaderImpl(b, 0, 4, DEFAULT_NESTED_LIMIT,
+				DEFAULT_MAX_BUFFER_SIZE).readRaw();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsRegionOutsideArray() {
+		new BdfByteArrayReaderImpl(new byte[10], 5, 6, DEFAULT_NESTED_LIMIT,
+				DEFAULT_MAX_BUFFER_SIZE);
+	}
+}
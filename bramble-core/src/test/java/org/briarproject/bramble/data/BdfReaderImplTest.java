@@ -3,6 +3,7 @@ package org.briarproject.bramble.data;
 import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfList;
+import org.briarproject.bramble.api.data.BdfReader;
 import org.briarproject.bramble.test.BrambleTestCase;
 import org.junit.Test;
 
@@ -21,7 +22,7 @@ import static org.junit.Assert.assertTrue;
 
 public class BdfReaderImplTest extends BrambleTestCase {
 
-	private BdfReaderImpl r = null;
+	private BdfReader r = null;
 
 	@Test
 	public void testReadEmptyInput() throws Exception {
@@ -623,7 +624,11 @@ public class BdfReaderImplTest extends BrambleTestCase {
 	}
 
 	private void setContents(String hex, int maxBufferSize) {
-		ByteArrayInputStream in = new ByteArrayInputStream(fromHexString(hex));
-		r = new BdfReaderImpl(in, DEFAULT_NESTED_LIMIT, maxBufferSize);
+		r = createReader(fromHexString(hex), maxBufferSize);
+	}
+
+	BdfReader createReader(byte[] b, int maxBufferSize) {
+		ByteArrayInputStream in = new ByteArrayInputStream(b);
+		return new BdfReaderImpl(in, DEFAULT_NESTED_LIMIT, maxBufferSize);
 	}
 }
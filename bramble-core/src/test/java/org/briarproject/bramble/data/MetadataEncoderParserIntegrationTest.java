@@ -12,6 +12,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import static java.util.Arrays.asList;
+import static org.briarproject.bramble.api.data.BdfDictionary.NULL_VALUE;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
@@ -163,4 +165,31 @@ public class MetadataEncoderParserIntegrationTest extends BrambleTestCase {
 		assertEquals(true, p.parse(metadata).getDictionary("another test", null)
 				.getBoolean("should be true", false));
 	}
+
+	@Test
+	public void testParseOnlyGivenKeys() throws FormatException {
+		d.put("timestamp", 1337);
+		d.put("read", true);
+		d.put("removed", NULL_VALUE);
+		Metadata metadata = e.encode(d);
+		// An entry that can't be parsed must be ignored if not requested
+		metadata.put("invalid", new byte[] {(byte) 0xFF});
+
+		BdfDictionary parsed = p.parse(metadata,
+				asList("timestamp", "removed", "missing"));
+
+		assertEquals(2, parsed.size());
+		assertEquals(1337L, (long) parsed.getLong("timestamp"));
+		assertEquals(NULL_VALUE, parsed.get("removed"));
+	}
+
+	@Test(expected = FormatException.class)
+	public void testParseGivenKeysRejectsInvalidEntry()
+			throws FormatException {
+		d.put("timestamp", 1337);
+		Metadata metadata = e.encode(d);
+		metadata.put("invalid", new byte[] {(byte) 0xFF});
+
+		p.parse(metadata, asList("timestamp", "invalid"));
+	}
 }
@@ -33,6 +33,8 @@ import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.MessageStatus;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Request;
+import org.briarproject.bramble.api.sync.SendableMessage;
+import org.briarproject.bramble.api.sync.SyncScheduler;
 import org.briarproject.bramble.api.sync.event.GroupAddedEvent;
 import org.briarproject.bramble.api.sync.event.GroupRemovedEvent;
 import org.briarproject.bramble.api.sync.event.GroupVisibilityUpdatedEvent;
@@ -57,6 +59,7 @@ import org.junit.Test;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static java.util.Collections.emptyMap;
@@ -90,6 +93,7 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 	private final ShutdownManager shutdown =
 			context.mock(ShutdownManager.class);
 	private final EventBus eventBus = context.mock(EventBus.class);
+	private final SyncScheduler scheduler = context.mock(SyncScheduler.class);
 
 	private final SecretKey key = getSecretKey();
 	private final Object txn = new Object();
@@ -131,8 +135,23 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 
 	private DatabaseComponent createDatabaseComponent(Database<Object> database,
 			EventBus eventBus, ShutdownManager shutdown) {
+		return createDatabaseComponent(database, eventBus, shutdown, false);
+	}
+
+	private DatabaseComponent createDatabaseComponent(Database<Object> database,
+			EventBus eventBus, ShutdownManager shutdown,
+			boolean snapshotReads) {
 		return new DatabaseComponentImpl<>(database, Object.class, eventBus,
-				shutdown);
+				shutdown, scheduler, snapshotReads);
+	}
+
+	private SendableMessage getSendableMessage(Message m) {
+		return getSendableMessage(m.getId(), m.getRawLength());
+	}
+
+	private SendableMessage getSendableMessage(MessageId m, int length) {
+		return new SendableMessage(m, groupId, clientId, majorVersion,
+				System.currentTimeMillis(), length);
 	}
 
 	@Test
@@ -288,11 +307,11 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			throws Exception {
 		context.checking(new Expectations() {{
 			// Check whether the contact is in the DB (which it's not)
-			exactly(16).of(database).startTransaction();
+			exactly(17).of(database).startTransaction();
 			will(returnValue(txn));
-			exactly(16).of(database).containsContact(txn, contactId);
+			exactly(17).of(database).containsContact(txn, contactId);
 			will(returnValue(false));
-			exactly(16).of(database).abortTransaction(txn);
+			exactly(17).of(database).abortTransaction(txn);
 		}});
 		DatabaseComponent db = createDatabaseComponent(database, eventBus,
 				shutdown);
@@ -377,6 +396,16 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			db.endTransaction(transaction);
 		}
 
+		transaction = db.startTransaction(false);
+		try {
+			db.getMessagesToReconcile(transaction, contactId);
+			fail();
+		} catch (NoSuchContactException expected) {
+			// Expected
+		} finally {
+			db.endTransaction(transaction);
+		}
+
 		transaction = db.startTransaction(false);
 		try {
 			db.getGroupVisibility(transaction, contactId, groupId);
@@ -863,8 +892,18 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 
 	@Test
 	public void testGenerateBatch() throws Exception {
-		Collection<MessageId> ids = Arrays.asList(messageId, messageId1);
-		Collection<Message> messages = Arrays.asList(message, message1);
+		SendableMessage sendable = getSendableMessage(message);
+		SendableMessage sendable1 = getSendableMessage(message1);
+		// A message that's too long to fit in the batch
+		SendableMessage tooLong = getSendableMessage(
+				new MessageId(getRandomId()), MAX_MESSAGE_LENGTH * 2);
+		Collection<SendableMessage> candidates =
+				Arrays.asList(sendable, sendable1, tooLong);
+		// The scheduler decides the order of the messages in the batch
+		List<SendableMessage> scheduled =
+				Arrays.asList(sendable1, sendable, tooLong);
+		Collection<MessageId> ids = Arrays.asList(messageId1, messageId);
+		Collection<Message> messages = Arrays.asList(message1, message);
 		context.checking(new Expectations() {{
 			oneOf(database).startTransaction();
 			will(returnValue(txn));
@@ -872,7 +911,9 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			will(returnValue(true));
 			oneOf(database).getMessagesToSend(txn, contactId,
 					MAX_MESSAGE_LENGTH * 2, maxLatency);
-			will(returnValue(ids));
+			will(returnValue(candidates));
+			oneOf(scheduler).schedule(candidates);
+			will(returnValue(scheduled));
 			oneOf(database).getMessage(txn, messageId);
 			will(returnValue(message));
 			oneOf(database).updateExpiryTimeAndEta(txn, contactId, messageId,
@@ -900,17 +941,22 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 
 	@Test
 	public void testGenerateOffer() throws Exception {
-		MessageId messageId1 = new MessageId(getRandomId());
-		Collection<MessageId> ids = Arrays.asList(messageId, messageId1);
+		SendableMessage sendable = getSendableMessage(message);
+		SendableMessage sendable1 = getSendableMessage(message1);
+		Collection<SendableMessage> candidates =
+				Arrays.asList(sendable, sendable1);
+		// The scheduler decides which message is offered
+		List<SendableMessage> scheduled = Arrays.asList(sendable1, sendable);
+		Collection<MessageId> ids = singletonList(messageId1);
 		context.checking(new Expectations() {{
 			oneOf(database).startTransaction();
 			will(returnValue(txn));
 			oneOf(database).containsContact(txn, contactId);
 			will(returnValue(true));
-			oneOf(database).getMessagesToOffer(txn, contactId, 123, maxLatency);
-			will(returnValue(ids));
-			oneOf(database).updateExpiryTimeAndEta(txn, contactId, messageId,
-					maxLatency);
+			oneOf(database).getMessagesToOffer(txn, contactId, 1, maxLatency);
+			will(returnValue(candidates));
+			oneOf(scheduler).schedule(candidates);
+			will(returnValue(scheduled));
 			oneOf(database).updateExpiryTimeAndEta(txn, contactId, messageId1,
 					maxLatency);
 			oneOf(database).commitTransaction(txn);
@@ -920,7 +966,7 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 
 		Transaction transaction = db.startTransaction(false);
 		try {
-			Offer o = db.generateOffer(transaction, contactId, 123, maxLatency);
+			Offer o = db.generateOffer(transaction, contactId, 1, maxLatency);
 			assertNotNull(o);
 			assertEquals(ids, o.getMessageIds());
 			db.commitTransaction(transaction);
@@ -959,8 +1005,18 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 
 	@Test
 	public void testGenerateRequestedBatch() throws Exception {
-		Collection<MessageId> ids = Arrays.asList(messageId, messageId1);
-		Collection<Message> messages = Arrays.asList(message, message1);
+		SendableMessage sendable = getSendableMessage(message);
+		SendableMessage sendable1 = getSendableMessage(message1);
+		// A message that's too long to fit in the batch
+		SendableMessage tooLong = getSendableMessage(
+				new MessageId(getRandomId()), MAX_MESSAGE_LENGTH * 2);
+		Collection<SendableMessage> candidates =
+				Arrays.asList(sendable, sendable1, tooLong);
+		// The scheduler decides the order of the messages in the batch
+		List<SendableMessage> scheduled =
+				Arrays.asList(sendable1, sendable, tooLong);
+		Collection<MessageId> ids = Arrays.asList(messageId1, messageId);
+		Collection<Message> messages = Arrays.asList(message1, message);
 		context.checking(new Expectations() {{
 			oneOf(database).startTransaction();
 			will(returnValue(txn));
@@ -968,7 +1024,9 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			will(returnValue(true));
 			oneOf(database).getRequestedMessagesToSend(txn, contactId,
 					MAX_MESSAGE_LENGTH * 2, maxLatency);
-			will(returnValue(ids));
+			will(returnValue(candidates));
+			oneOf(scheduler).schedule(candidates);
+			will(returnValue(scheduled));
 			oneOf(database).getMessage(txn, messageId);
 			will(returnValue(message));
 			oneOf(database).updateExpiryTimeAndEta(txn, contactId, messageId,
@@ -1499,37 +1557,65 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 	@Test(expected = IllegalStateException.class)
 	public void testCannotStartReadTransactionDuringReadTransaction()
 			throws Exception {
-		testCannotStartTransactionDuringTransaction(true, true);
+		testCannotStartTransactionDuringTransaction(true, true, false);
 	}
 
 	@Test(expected = IllegalStateException.class)
 	public void testCannotStartWriteTransactionDuringReadTransaction()
 			throws Exception {
-		testCannotStartTransactionDuringTransaction(true, false);
+		testCannotStartTransactionDuringTransaction(true, false, false);
 	}
 
 	@Test(expected = IllegalStateException.class)
 	public void testCannotStartReadTransactionDuringWriteTransaction()
 			throws Exception {
-		testCannotStartTransactionDuringTransaction(false, true);
+		testCannotStartTransactionDuringTransaction(false, true, false);
 	}
 
 	@Test(expected = IllegalStateException.class)
 	public void testCannotStartWriteTransactionDuringWriteTransaction()
 			throws Exception {
-		testCannotStartTransactionDuringTransaction(false, false);
+		testCannotStartTransactionDuringTransaction(false, false, false);
 	}
 
-	private void testCannotStartTransactionDuringTransaction(
-			boolean firstTxnReadOnly, boolean secondTxnReadOnly)
+	@Test(expected = IllegalStateException.class)
+	public void testCannotStartReadTransactionDuringSnapshotReadTransaction()
+			throws Exception {
+		testCannotStartTransactionDuringTransaction(true, true, true);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testCannotStartWriteTransactionDuringSnapshotReadTransaction()
+			throws Exception {
+		testCannotStartTransactionDuringTransaction(true, false, true);
+	}
+
+	@Test
+	public void testCanStartTransactionAfterEndingTransaction()
 			throws Exception {
+		context.checking(new Expectations() {{
+			exactly(2).of(database).startTransaction();
+			will(returnValue(txn));
+			exactly(2).of(database).abortTransaction(txn);
+		}});
+
+		DatabaseComponent db = createDatabaseComponent(database, eventBus,
+				shutdown, true);
+
+		db.endTransaction(db.startTransaction(true));
+		db.endTransaction(db.startTransaction(false));
+	}
+
+	private void testCannotStartTransactionDuringTransaction(
+			boolean firstTxnReadOnly, boolean secondTxnReadOnly,
+			boolean snapshotReads) throws Exception {
 		context.checking(new Expectations() {{
 			oneOf(database).startTransaction();
 			will(returnValue(txn));
 		}});
 
 		DatabaseComponent db = createDatabaseComponent(database, eventBus,
-				shutdown);
+				shutdown, snapshotReads);
 
 		assertNotNull(db.startTransaction(firstTxnReadOnly));
 		db.startTransaction(secondTxnReadOnly);
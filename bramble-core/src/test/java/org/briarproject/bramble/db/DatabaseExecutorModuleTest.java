@@ -0,0 +1,102 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.lifecycle.LifecycleManager;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.jmock.Expectations;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DatabaseExecutorModuleTest extends BrambleMockTestCase {
+
+	private static final int TASKS = 10;
+
+	private final LifecycleManager lifecycleManager =
+			context.mock(LifecycleManager.class);
+
+	private ExecutorService dbExecutor, readOnlyDbExecutor;
+
+	@Before
+	public void setUp() {
+		DatabaseExecutorModule module = new DatabaseExecutorModule();
+		context.checking(new Expectations() {{
+			exactly(2).of(lifecycleManager).registerForShutdown(
+					with(any(ExecutorService.class)));
+		}});
+		dbExecutor = module.provideDatabaseExecutorService(lifecycleManager);
+		readOnlyDbExecutor =
+				module.provideReadOnlyDatabaseExecutorService(lifecycleManager);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		dbExecutor.shutdown();
+		readOnlyDbExecutor.shutdown();
+		assertTrue(dbExecutor.awaitTermination(10, SECONDS));
+		assertTrue(readOnlyDbExecutor.awaitTermination(10, SECONDS));
+	}
+
+	@Test
+	public void testDatabaseTasksRunInOrderOfSubmission() throws Exception {
+		List<Integer> list = new Vector<>();
+		CountDownLatch latch = new CountDownLatch(TASKS);
+		for (int i = 0; i < TASKS; i++) {
+			int result = i;
+			dbExecutor.execute(() -> {
+				list.add(result);
+				latch.countDown();
+			});
+		}
+		assertTrue(latch.await(10, SECONDS));
+		List<Integer> expected = new ArrayList<>(TASKS);
+		for (int i = 0; i < TASKS; i++) expected.add(i);
+		assertEquals(expected, list);
+	}
+
+	@Test
+	public void testReadOnlyTasksRunConcurrently() throws Exception {
+		// Each task waits for the other to start, so the tasks can only
+		// finish if they run at the same time
+		CountDownLatch started = new CountDownLatch(2);
+		CountDownLatch finished = new CountDownLatch(2);
+		for (int i = 0; i < 2; i++) {
+			readOnlyDbExecutor.execute(() -> {
+				started.countDown();
+				try {
+					if (started.await(10, SECONDS)) finished.countDown();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+		}
+		assertTrue(finished.await(10, SECONDS));
+	}
+
+	@Test
+	public void testReadOnlyTasksDoNotWaitForDatabaseTasks()
+			throws Exception {
+		CountDownLatch readOnlyTaskFinished = new CountDownLatch(1);
+		CountDownLatch dbTaskFinished = new CountDownLatch(1);
+		// The database task waits for the read-only task to finish
+		dbExecutor.execute(() -> {
+			try {
+				if (readOnlyTaskFinished.await(10, SECONDS))
+					dbTaskFinished.countDown();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		readOnlyDbExecutor.execute(readOnlyTaskFinished::countDown);
+		assertTrue(dbTaskFinished.await(10, SECONDS));
+	}
+}
@@ -1,5 +1,6 @@
 package org.briarproject.bramble.db;
 
+import org.briarproject.bramble.api.client.SessionId;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.db.DbException;
@@ -24,6 +25,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.sql.Connection;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -85,6 +87,25 @@ public abstract class DatabasePerformanceTest extends BrambleTestCase {
 	private static final int METADATA_VALUE_LENGTH = 100;
 	private static final int OFFERED_MESSAGES_PER_CONTACT = 100;
 
+	/**
+	 * How many messages to simulate in a large local group, such as the
+	 * sessions of a sharing client with many contacts. Every message in the
+	 * group has one metadata term in common, so queries on that term have
+	 * many matches.
+	 */
+	private static final int LARGE_GROUP_MESSAGES = 1000;
+
+	/**
+	 * How many contacts to simulate when measuring protocol session storage.
+	 * Each contact has a group holding sessions, as the sharing clients do,
+	 * and a group holding the same sessions as message metadata, as the
+	 * clients did before the session store was added.
+	 */
+	private static final int SESSION_CONTACTS = 200;
+	private static final int SESSIONS_PER_CONTACT = 10;
+	private static final int SESSION_LENGTH = 500;
+	private static final String SESSION_KEY_SESSION_ID = "sessionId";
+
 	/**
 	 * How many benchmark iterations to run in each block.
 	 */
@@ -111,6 +132,11 @@ public abstract class DatabasePerformanceTest extends BrambleTestCase {
 	private Map<GroupId, List<Metadata>> messageMeta;
 	private Map<ContactId, List<Group>> contactGroups;
 	private Map<GroupId, List<MessageId>> groupMessages;
+	private Group largeGroup;
+	private Metadata largeGroupQuery;
+	private List<GroupId> sessionGroups;
+	private Map<GroupId, List<SessionId>> groupSessions;
+	private Map<GroupId, GroupId> legacySessionGroups;
 
 	protected abstract String getTestName();
 
@@ -369,6 +395,16 @@ public abstract class DatabasePerformanceTest extends BrambleTestCase {
 		});
 	}
 
+	@Test
+	public void testGetMessageIdsWithManyMatches() throws Exception {
+		String name = "getMessageIds(T, GroupId, Metadata) [many matches]";
+		benchmark(name, db -> {
+			Connection txn = db.startTransaction();
+			db.getMessageIds(txn, largeGroup.getId(), largeGroupQuery);
+			db.commitTransaction(txn);
+		});
+	}
+
 	@Test
 	public void testGetMessageMetadataByGroupId() throws Exception {
 		String name = "getMessageMetadata(T, GroupId)";
@@ -379,6 +415,40 @@ public abstract class DatabasePerformanceTest extends BrambleTestCase {
 		});
 	}
 
+	@Test
+	public void testGetMessageMetadataWithMatchingQuery() throws Exception {
+		String name = "getMessageMetadata(T, GroupId, Metadata) [match]";
+		benchmark(name, db -> {
+			Connection txn = db.startTransaction();
+			GroupId g = pickRandom(groups).getId();
+			db.getMessageMetadata(txn, g, pickRandom(messageMeta.get(g)));
+			db.commitTransaction(txn);
+		});
+	}
+
+	@Test
+	public void testGetMessageMetadataWithNonMatchingQuery()
+			throws Exception {
+		String name = "getMessageMetadata(T, GroupId, Metadata) [no match]";
+		benchmark(name, db -> {
+			Connection txn = db.startTransaction();
+			Metadata query = getMetadata(METADATA_KEYS_PER_MESSAGE);
+			db.getMessageMetadata(txn, pickRandom(groups).getId(), query);
+			db.commitTransaction(txn);
+		});
+	}
+
+	@Test
+	public void testGetMessageMetadataWithManyMatches() throws Exception {
+		String name = "getMessageMetadata(T, GroupId, Metadata)"
+				+ " [many matches]";
+		benchmark(name, db -> {
+			Connection txn = db.startTransaction();
+			db.getMessageMetadata(txn, largeGroup.getId(), largeGroupQuery);
+			db.commitTransaction(txn);
+		});
+	}
+
 	@Test
 	public void testGetMessageMetadataByMessageId() throws Exception {
 		String name = "getMessageMetadata(T, MessageId)";
@@ -447,7 +517,7 @@ public abstract class DatabasePerformanceTest extends BrambleTestCase {
 
 	@Test
 	public void testGetMessagesToOffer() throws Exception {
-		String name = "getMessagesToOffer(T, ContactId, int)";
+		String name = "getMessagesToOffer(T, ContactId, int, int)";
 		benchmark(name, db -> {
 			Connection txn = db.startTransaction();
 			db.getMessagesToOffer(txn, pickRandom(contacts).getId(),
@@ -469,7 +539,7 @@ public abstract class DatabasePerformanceTest extends BrambleTestCase {
 
 	@Test
 	public void testGetMessagesToSend() throws Exception {
-		String name = "getMessagesToSend(T, ContactId, int)";
+		String name = "getMessagesToSend(T, ContactId, int, int)";
 		benchmark(name, db -> {
 			Connection txn = db.startTransaction();
 			db.getMessagesToSend(txn, pickRandom(contacts).getId(),
@@ -520,7 +590,7 @@ public abstract class DatabasePerformanceTest extends BrambleTestCase {
 
 	@Test
 	public void testGetRequestedMessagesToSend() throws Exception {
-		String name = "getRequestedMessagesToSend(T, ContactId, int)";
+		String name = "getRequestedMessagesToSend(T, ContactId, int, int)";
 		benchmark(name, db -> {
 			Connection txn = db.startTransaction();
 			db.getRequestedMessagesToSend(txn, pickRandom(contacts).getId(),
@@ -529,6 +599,70 @@ public abstract class DatabasePerformanceTest extends BrambleTestCase {
 		});
 	}
 
+	@Test
+	public void testGetSession() throws Exception {
+		String name = "getSession(T, GroupId, SessionId)";
+		benchmark(name, db -> {
+			Connection txn = db.startTransaction();
+			GroupId g = pickRandom(sessionGroups);
+			db.getSession(txn, g, pickRandom(groupSessions.get(g)));
+			db.commitTransaction(txn);
+		});
+	}
+
+	@Test
+	public void testGetSessionFromMessageMetadata() throws Exception {
+		String name = "getMessageMetadata(T, GroupId, Metadata) [session]";
+		benchmark(name, db -> {
+			Connection txn = db.startTransaction();
+			GroupId g = pickRandom(sessionGroups);
+			SessionId s = pickRandom(groupSessions.get(g));
+			Metadata query = new Metadata();
+			query.put(SESSION_KEY_SESSION_ID, s.getBytes());
+			db.getMessageMetadata(txn, legacySessionGroups.get(g), query);
+			db.commitTransaction(txn);
+		});
+	}
+
+	@Test
+	public void testGetSessions() throws Exception {
+		String name = "getSessions(T, GroupId)";
+		benchmark(name, db -> {
+			Connection txn = db.startTransaction();
+			db.getSessions(txn, pickRandom(sessionGroups));
+			db.commitTransaction(txn);
+		});
+	}
+
+	@Test
+	public void testSetSession() throws Exception {
+		String name = "setSession(T, GroupId, SessionId, byte[])";
+		benchmark(name, db -> {
+			Connection txn = db.startTransaction();
+			GroupId g = pickRandom(sessionGroups);
+			db.setSession(txn, g, pickRandom(groupSessions.get(g)),
+					getRandomBytes(SESSION_LENGTH));
+			db.commitTransaction(txn);
+		});
+	}
+
+	@Test
+	public void testSetSessionAsMessageMetadata() throws Exception {
+		String name = "mergeMessageMetadata(T, MessageId, Metadata) [session]";
+		benchmark(name, db -> {
+			Connection txn = db.startTransaction();
+			GroupId g = pickRandom(sessionGroups);
+			SessionId s = pickRandom(groupSessions.get(g));
+			Metadata query = new Metadata();
+			query.put(SESSION_KEY_SESSION_ID, s.getBytes());
+			Collection<MessageId> ids = db.getMessageIds(txn,
+					legacySessionGroups.get(g), query);
+			db.mergeMessageMetadata(txn, ids.iterator().next(),
+					getMetadata(METADATA_KEYS_PER_MESSAGE));
+			db.commitTransaction(txn);
+		});
+	}
+
 	private <T> T pickRandom(List<T> list) {
 		return list.get(random.nextInt(list.size()));
 	}
@@ -609,9 +743,48 @@ public abstract class DatabasePerformanceTest extends BrambleTestCase {
 				groupMessages.get(g.getId()).add(m.getId());
 			}
 		}
+		largeGroup = getGroup(clientIds.get(0), 123);
+		largeGroupQuery = getMetadata(1);
+		db.addGroup(txn, largeGroup);
+		for (int i = 0; i < LARGE_GROUP_MESSAGES; i++) {
+			Message m = getMessage(largeGroup.getId());
+			db.addMessage(txn, m, DELIVERED, false, null);
+			Metadata mm = getMetadata(METADATA_KEYS_PER_MESSAGE);
+			mm.putAll(largeGroupQuery);
+			db.mergeMessageMetadata(txn, m.getId(), mm);
+		}
+		populateSessions(db, txn);
 		db.commitTransaction(txn);
 	}
 
+	private void populateSessions(Database<Connection> db, Connection txn)
+			throws DbException {
+		sessionGroups = new ArrayList<>();
+		groupSessions = new HashMap<>();
+		legacySessionGroups = new HashMap<>();
+		for (int i = 0; i < SESSION_CONTACTS; i++) {
+			Group g = getGroup(clientIds.get(i % CLIENTS), 123);
+			Group legacy = getGroup(clientIds.get(i % CLIENTS), 123);
+			db.addGroup(txn, g);
+			db.addGroup(txn, legacy);
+			sessionGroups.add(g.getId());
+			legacySessionGroups.put(g.getId(), legacy.getId());
+			List<SessionId> sessions = new ArrayList<>();
+			for (int j = 0; j < SESSIONS_PER_CONTACT; j++) {
+				SessionId s = new SessionId(getRandomId());
+				sessions.add(s);
+				db.setSession(txn, g.getId(), s,
+						getRandomBytes(SESSION_LENGTH));
+				Message m = getMessage(legacy.getId());
+				db.addMessage(txn, m, DELIVERED, false, null);
+				Metadata mm = getMetadata(METADATA_KEYS_PER_MESSAGE);
+				mm.put(SESSION_KEY_SESSION_ID, s.getBytes());
+				db.mergeMessageMetadata(txn, m.getId(), mm);
+			}
+			groupSessions.put(g.getId(), sessions);
+		}
+	}
+
 	private ClientId getClientId() {
 		return new ClientId(getRandomString(CLIENT_ID_LENGTH));
 	}
@@ -38,6 +38,9 @@ public class H2TransactionIsolationTest extends BrambleTestCase {
 			+ ";MV_STORE=TRUE;MVCC=TRUE";
 	private final String withoutMvcc = "jdbc:h2:split:" + db.getAbsolutePath()
 			+ ";MV_STORE=FALSE;MVCC=FALSE;LOCK_MODE=1";
+	// The options used by H2Database
+	private final String multiThreaded = "jdbc:h2:split:"
+			+ db.getAbsolutePath() + ";MULTI_THREADED=1;MVCC=TRUE";
 
 	@Before
 	public void setUp() throws Exception {
@@ -243,6 +246,82 @@ public class H2TransactionIsolationTest extends BrambleTestCase {
 		}
 	}
 
+	@Test
+	public void testDoesNotReadUncommittedWritesWithMultiThreadedMvcc()
+			throws Exception {
+		Connection connection = openMultiThreadedConnection();
+		try {
+			createTableAndInsertRow(connection);
+		} finally {
+			connection.close();
+		}
+		// Start the writing transaction
+		Connection txn1 = openMultiThreadedConnection();
+		try {
+			txn1.setAutoCommit(false);
+			// The writing transaction updates the value but doesn't commit it
+			assertEquals(1, setCounter(txn1, 234));
+			// Start the reading transaction
+			Connection txn2 = openMultiThreadedConnection();
+			try {
+				txn2.setAutoCommit(false);
+				// The reading transaction should not be blocked and should
+				// read the initial value
+				assertEquals(123, getCounter(txn2));
+				// Commit the reading transaction
+				txn2.commit();
+			} finally {
+				txn2.close();
+			}
+			// Commit the writing transaction
+			txn1.commit();
+		} finally {
+			txn1.close();
+		}
+	}
+
+	@Test
+	public void testReadsCommittedWritesWithMultiThreadedMvcc()
+			throws Exception {
+		Connection connection = openMultiThreadedConnection();
+		try {
+			createTableAndInsertRow(connection);
+		} finally {
+			connection.close();
+		}
+		// Start the reading transaction
+		Connection txn1 = openMultiThreadedConnection();
+		try {
+			txn1.setAutoCommit(false);
+			// The reading transaction should read the initial value
+			assertEquals(123, getCounter(txn1));
+			// Start the writing transaction
+			Connection txn2 = openMultiThreadedConnection();
+			try {
+				txn2.setAutoCommit(false);
+				// The writing transaction should not be blocked by the reader
+				assertEquals(1, setCounter(txn2, 234));
+				// The reading transaction should still read the initial value
+				assertEquals(123, getCounter(txn1));
+				// Commit the writing transaction
+				txn2.commit();
+			} finally {
+				txn2.close();
+			}
+			// Each query sees the data committed before the query started,
+			// so the reading transaction should now read the new value
+			assertEquals(234, getCounter(txn1));
+			// Commit the reading transaction
+			txn1.commit();
+		} finally {
+			txn1.close();
+		}
+	}
+
+	private Connection openMultiThreadedConnection() throws SQLException {
+		return DriverManager.getConnection(multiThreaded);
+	}
+
 	private Connection openConnection(boolean mvcc) throws SQLException {
 		return DriverManager.getConnection(mvcc ? withMvcc : withoutMvcc);
 	}
@@ -1,10 +1,13 @@
 package org.briarproject.bramble.db;
 
+import org.briarproject.bramble.api.client.SessionId;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.db.DatabaseConfig;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.MessageCounts;
+import org.briarproject.bramble.api.db.MessageCursor;
 import org.briarproject.bramble.api.db.MessageDeletedException;
 import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.identity.Author;
@@ -18,6 +21,7 @@ import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.MessageStatus;
+import org.briarproject.bramble.api.sync.SendableMessage;
 import org.briarproject.bramble.api.sync.ValidationManager.State;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.bramble.api.transport.IncomingKeys;
@@ -36,9 +40,12 @@ import org.junit.Test;
 
 import java.io.File;
 import java.sql.Connection;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -70,6 +77,7 @@ import static org.briarproject.bramble.test.TestUtils.getClientId;
 import static org.briarproject.bramble.test.TestUtils.getGroup;
 import static org.briarproject.bramble.test.TestUtils.getLocalAuthor;
 import static org.briarproject.bramble.test.TestUtils.getMessage;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
 import static org.briarproject.bramble.test.TestUtils.getRandomId;
 import static org.briarproject.bramble.test.TestUtils.getSecretKey;
 import static org.briarproject.bramble.test.TestUtils.getTestDirectory;
@@ -207,16 +215,18 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 
 		// The contact has not seen the message, so it should be sendable
 		Collection<MessageId> ids =
-				db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
+				getIds(db.getMessagesToSend(txn, contactId,
+						ONE_MEGABYTE, MAX_LATENCY));
 		assertEquals(singletonList(messageId), ids);
-		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
+		ids = getIds(db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY));
 		assertEquals(singletonList(messageId), ids);
 
 		// Changing the status to seen = true should make the message unsendable
 		db.raiseSeenFlag(txn, contactId, messageId);
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
+		ids = getIds(db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY));
 		assertTrue(ids.isEmpty());
-		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
+		ids = getIds(db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY));
 		assertTrue(ids.isEmpty());
 
 		db.commitTransaction(txn);
@@ -237,31 +247,34 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.addMessage(txn, message, UNKNOWN, true, null);
 
 		// The message has not been validated, so it should not be sendable
-		Collection<MessageId> ids = db.getMessagesToSend(txn, contactId,
-				ONE_MEGABYTE, MAX_LATENCY);
+		Collection<MessageId> ids = getIds(db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY));
 		assertTrue(ids.isEmpty());
-		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
+		ids = getIds(db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY));
 		assertTrue(ids.isEmpty());
 
 		// Marking the message delivered should make it sendable
 		db.setMessageState(txn, messageId, DELIVERED);
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
+		ids = getIds(db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY));
 		assertEquals(singletonList(messageId), ids);
-		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
+		ids = getIds(db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY));
 		assertEquals(singletonList(messageId), ids);
 
 		// Marking the message invalid should make it unsendable
 		db.setMessageState(txn, messageId, INVALID);
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
+		ids = getIds(db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY));
 		assertTrue(ids.isEmpty());
-		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
+		ids = getIds(db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY));
 		assertTrue(ids.isEmpty());
 
 		// Marking the message pending should make it unsendable
 		db.setMessageState(txn, messageId, PENDING);
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
+		ids = getIds(db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY));
 		assertTrue(ids.isEmpty());
-		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
+		ids = getIds(db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY));
 		assertTrue(ids.isEmpty());
 
 		db.commitTransaction(txn);
@@ -281,38 +294,42 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.addMessage(txn, message, DELIVERED, true, null);
 
 		// The group is invisible, so the message should not be sendable
-		Collection<MessageId> ids = db.getMessagesToSend(txn, contactId,
-				ONE_MEGABYTE, MAX_LATENCY);
+		Collection<MessageId> ids = getIds(db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY));
 		assertTrue(ids.isEmpty());
-		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
+		ids = getIds(db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY));
 		assertTrue(ids.isEmpty());
 
 		// Making the group visible should not make the message sendable
 		db.addGroupVisibility(txn, contactId, groupId, false);
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
+		ids = getIds(db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY));
 		assertTrue(ids.isEmpty());
-		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
+		ids = getIds(db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY));
 		assertTrue(ids.isEmpty());
 
 		// Sharing the group should make the message sendable
 		db.setGroupVisibility(txn, contactId, groupId, true);
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
+		ids = getIds(db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY));
 		assertEquals(singletonList(messageId), ids);
-		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
+		ids = getIds(db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY));
 		assertEquals(singletonList(messageId), ids);
 
 		// Unsharing the group should make the message unsendable
 		db.setGroupVisibility(txn, contactId, groupId, false);
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
+		ids = getIds(db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY));
 		assertTrue(ids.isEmpty());
-		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
+		ids = getIds(db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY));
 		assertTrue(ids.isEmpty());
 
 		// Making the group invisible should make the message unsendable
 		db.removeGroupVisibility(txn, contactId, groupId);
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
+		ids = getIds(db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY));
 		assertTrue(ids.isEmpty());
-		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
+		ids = getIds(db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY));
 		assertTrue(ids.isEmpty());
 
 		db.commitTransaction(txn);
@@ -333,17 +350,18 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.addMessage(txn, message, DELIVERED, false, null);
 
 		// The message is not shared, so it should not be sendable
-		Collection<MessageId> ids = db.getMessagesToSend(txn, contactId,
-				ONE_MEGABYTE, MAX_LATENCY);
+		Collection<MessageId> ids = getIds(db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY));
 		assertTrue(ids.isEmpty());
-		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
+		ids = getIds(db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY));
 		assertTrue(ids.isEmpty());
 
 		// Sharing the message should make it sendable
 		db.setMessageShared(txn, messageId);
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
+		ids = getIds(db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY));
 		assertEquals(singletonList(messageId), ids);
-		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
+		ids = getIds(db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY));
 		assertEquals(singletonList(messageId), ids);
 
 		db.commitTransaction(txn);
@@ -351,7 +369,7 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 	}
 
 	@Test
-	public void testSendableMessagesMustFitCapacity() throws Exception {
+	public void testSendableMessagesIncludeSchedulingInfo() throws Exception {
 		Database<Connection> db = open(false);
 		Connection txn = db.startTransaction();
 
@@ -363,15 +381,143 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.addGroupVisibility(txn, contactId, groupId, true);
 		db.addMessage(txn, message, DELIVERED, true, null);
 
-		// The message is sendable, but too large to send
-		Collection<MessageId> ids =
-				db.getMessagesToSend(txn, contactId, message.getRawLength() - 1,
-						MAX_LATENCY);
-		assertTrue(ids.isEmpty());
-		// The message is just the right size to send
-		ids = db.getMessagesToSend(txn, contactId, message.getRawLength(),
-				MAX_LATENCY);
-		assertEquals(singletonList(messageId), ids);
+		// The message should be returned with its group's client and version
+		Collection<SendableMessage> sendable =
+				db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
+		assertEquals(1, sendable.size());
+		SendableMessage m = sendable.iterator().next();
+		assertEquals(messageId, m.getMessageId());
+		assertEquals(groupId, m.getGroupId());
+		assertEquals(clientId, m.getClientId());
+		assertEquals(group.getMajorVersion(), m.getMajorVersion());
+		assertEquals(message.getTimestamp(), m.getTimestamp());
+		assertEquals(message.getRawLength(), m.getLength());
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testSendableMessagesTakeTurnsBetweenGroups()
+			throws Exception {
+		Group group1 = getGroup(clientId, 123);
+		GroupId groupId1 = group1.getId();
+		// Three messages in one group and two messages in another
+		long timestamp = message.getTimestamp();
+		Message m0 = new Message(new MessageId(getRandomId()), groupId,
+				timestamp, getRandomBytes(100));
+		Message m1 = new Message(new MessageId(getRandomId()), groupId,
+				timestamp + 1, getRandomBytes(100));
+		Message m2 = new Message(new MessageId(getRandomId()), groupId,
+				timestamp + 2, getRandomBytes(100));
+		Message m3 = new Message(new MessageId(getRandomId()), groupId1,
+				timestamp + 3, getRandomBytes(100));
+		Message m4 = new Message(new MessageId(getRandomId()), groupId1,
+				timestamp + 4, getRandomBytes(100));
+		int length = m0.getRawLength();
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a contact and two shared groups containing shared messages
+		db.addLocalAuthor(txn, localAuthor);
+		assertEquals(contactId, db.addContact(txn, author, localAuthor.getId(),
+				true, true));
+		db.addGroup(txn, group);
+		db.addGroupVisibility(txn, contactId, groupId, true);
+		db.addGroup(txn, group1);
+		db.addGroupVisibility(txn, contactId, groupId1, true);
+		for (Message m : Arrays.asList(m0, m1, m2, m3, m4))
+			db.addMessage(txn, m, DELIVERED, true, null);
+
+		// The oldest two messages from each group should be offered
+		Collection<MessageId> expected = new HashSet<>(Arrays.asList(
+				m0.getId(), m1.getId(), m3.getId(), m4.getId()));
+		assertEquals(expected, new HashSet<>(getIds(
+				db.getMessagesToOffer(txn, contactId, 4, MAX_LATENCY))));
+
+		// The oldest two messages from each group should be sent, as the
+		// third message from the first group doesn't fit
+		int maxLength = length * 4 + length / 2;
+		assertEquals(expected, new HashSet<>(getIds(
+				db.getMessagesToSend(txn, contactId, maxLength,
+						MAX_LATENCY))));
+
+		// Each group's messages should be in timestamp order
+		List<MessageId> ids = new ArrayList<>();
+		for (SendableMessage m : db.getMessagesToOffer(txn, contactId, 5,
+				MAX_LATENCY)) {
+			if (m.getGroupId().equals(groupId)) ids.add(m.getMessageId());
+		}
+		assertEquals(Arrays.asList(m0.getId(), m1.getId(), m2.getId()), ids);
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testSendableMessagesFitInTotalLength() throws Exception {
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a contact and five shared groups, each with a shared message
+		db.addLocalAuthor(txn, localAuthor);
+		assertEquals(contactId, db.addContact(txn, author, localAuthor.getId(),
+				true, true));
+		int length = 0;
+		for (int i = 0; i < 5; i++) {
+			Group g = getGroup(clientId, 123);
+			db.addGroup(txn, g);
+			db.addGroupVisibility(txn, contactId, g.getId(), true);
+			Message m = new Message(new MessageId(getRandomId()), g.getId(),
+					message.getTimestamp(), getRandomBytes(100));
+			db.addMessage(txn, m, DELIVERED, true, null);
+			length = m.getRawLength();
+		}
+
+		// Only two of the messages fit in the total length
+		int maxLength = length * 2 + length / 2;
+		Collection<SendableMessage> sendable =
+				db.getMessagesToSend(txn, contactId, maxLength, MAX_LATENCY);
+		assertEquals(2, sendable.size());
+		int total = 0;
+		for (SendableMessage m : sendable) total += m.getLength();
+		assertTrue(total <= maxLength);
+
+		// Only two of the messages should be offered
+		assertEquals(2, db.getMessagesToOffer(txn, contactId, 2,
+				MAX_LATENCY).size());
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testMessagesToReconcile() throws Exception {
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a contact and a shared group
+		db.addLocalAuthor(txn, localAuthor);
+		assertEquals(contactId, db.addContact(txn, author, localAuthor.getId(),
+				true, true));
+		db.addGroup(txn, group);
+		db.addGroupVisibility(txn, contactId, groupId, true);
+
+		// Add a shared message, a seen message and an unshared message
+		Message message1 = getMessage(groupId);
+		Message message2 = getMessage(groupId);
+		db.addMessage(txn, message, DELIVERED, true, null);
+		db.addMessage(txn, message1, DELIVERED, true, null);
+		db.raiseSeenFlag(txn, contactId, message1.getId());
+		db.addMessage(txn, message2, DELIVERED, false, null);
+
+		// The shared messages should be returned, whether or not seen
+		Map<MessageId, Boolean> ids =
+				db.getMessagesToReconcile(txn, contactId);
+		assertEquals(2, ids.size());
+		assertEquals(false, ids.get(messageId));
+		assertEquals(true, ids.get(message1.getId()));
 
 		db.commitTransaction(txn);
 		db.close();
@@ -432,20 +578,22 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.addMessage(txn, message, DELIVERED, true, null);
 
 		// Retrieve the message from the database and mark it as sent
-		Collection<MessageId> ids = db.getMessagesToSend(txn, contactId,
-				ONE_MEGABYTE, MAX_LATENCY);
+		Collection<MessageId> ids = getIds(db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY));
 		assertEquals(singletonList(messageId), ids);
 		db.updateExpiryTimeAndEta(txn, contactId, messageId, MAX_LATENCY);
 
 		// The message should no longer be sendable
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
+		ids = getIds(db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY));
 		assertTrue(ids.isEmpty());
 
 		// Pretend that the message was acked
 		db.raiseSeenFlag(txn, contactId, messageId);
 
 		// The message still should not be sendable
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
+		ids = getIds(db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY));
 		assertTrue(ids.isEmpty());
 
 		db.commitTransaction(txn);
@@ -977,6 +1125,142 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testSessions() throws Exception {
+		SessionId sessionId = new SessionId(getRandomId());
+		SessionId sessionId1 = new SessionId(getRandomId());
+		byte[] session = getRandomBytes(123);
+		byte[] session1 = getRandomBytes(123);
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a group
+		db.addGroup(txn, group);
+
+		// The group should have no sessions
+		assertNull(db.getSession(txn, groupId, sessionId));
+		assertTrue(db.getSessions(txn, groupId).isEmpty());
+
+		// Store a session
+		db.setSession(txn, groupId, sessionId, session);
+		assertArrayEquals(session, db.getSession(txn, groupId, sessionId));
+
+		// Replace the session
+		db.setSession(txn, groupId, sessionId, session1);
+		assertArrayEquals(session1, db.getSession(txn, groupId, sessionId));
+
+		// Store another session
+		db.setSession(txn, groupId, sessionId1, session);
+		Map<SessionId, byte[]> sessions = db.getSessions(txn, groupId);
+		assertEquals(2, sessions.size());
+		assertArrayEquals(session1, sessions.get(sessionId));
+		assertArrayEquals(session, sessions.get(sessionId1));
+
+		// Remove the first session - removing it again should be harmless
+		db.removeSession(txn, groupId, sessionId);
+		db.removeSession(txn, groupId, sessionId);
+		assertNull(db.getSession(txn, groupId, sessionId));
+		assertEquals(1, db.getSessions(txn, groupId).size());
+
+		// Removing the group should remove its sessions
+		db.removeGroup(txn, groupId);
+		db.addGroup(txn, group);
+		assertNull(db.getSession(txn, groupId, sessionId1));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testMessageCounts() throws Exception {
+		GroupId groupId1 = new GroupId(getRandomId());
+		long timestamp = System.currentTimeMillis();
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Unknown groups have no counts
+		assertNull(db.getMessageCounts(txn, groupId));
+		assertFalse(db.incrementMessageCounts(txn, groupId, timestamp, true));
+		assertFalse(db.incrementUnreadCount(txn, groupId, 1));
+
+		// Adding a group should create empty counts
+		db.addGroup(txn, group);
+		assertEquals(new MessageCounts(0, 0, 0),
+				db.getMessageCounts(txn, groupId));
+
+		// Count a read message and an unread message
+		assertTrue(db.incrementMessageCounts(txn, groupId, timestamp, true));
+		assertTrue(db.incrementMessageCounts(txn, groupId, timestamp + 1,
+				false));
+		assertEquals(new MessageCounts(2, 1, timestamp + 1),
+				db.getMessageCounts(txn, groupId));
+
+		// An older message should not change the latest timestamp
+		assertTrue(db.incrementMessageCounts(txn, groupId, timestamp - 1,
+				false));
+		assertEquals(new MessageCounts(3, 2, timestamp + 1),
+				db.getMessageCounts(txn, groupId));
+
+		// Mark the unread messages as read
+		assertTrue(db.incrementUnreadCount(txn, groupId, -2));
+		assertEquals(new MessageCounts(3, 0, timestamp + 1),
+				db.getMessageCounts(txn, groupId));
+
+		// Replace the counts
+		db.setMessageCounts(txn, groupId, new MessageCounts(5, 4, timestamp));
+		assertEquals(new MessageCounts(5, 4, timestamp),
+				db.getMessageCounts(txn, groupId));
+
+		// Unknown groups should be omitted from the bulk query
+		Map<GroupId, MessageCounts> counts =
+				db.getMessageCounts(txn, Arrays.asList(groupId, groupId1));
+		assertEquals(singletonMap(groupId, new MessageCounts(5, 4, timestamp)),
+				counts);
+
+		// Removing the group should remove its counts
+		db.removeGroup(txn, groupId);
+		assertNull(db.getMessageCounts(txn, groupId));
+		db.addGroup(txn, group);
+		assertEquals(new MessageCounts(0, 0, 0),
+				db.getMessageCounts(txn, groupId));
+
+		try {
+			// The unread count can't become negative
+			db.incrementUnreadCount(txn, groupId, -1);
+			fail();
+		} catch (DbException expected) {
+			// It should be possible to abort the transaction without error
+			db.abortTransaction(txn);
+		}
+		db.close();
+	}
+
+	@Test
+	public void testGroupsWithoutMessageCounts() throws Exception {
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Adding a group should create its counts
+		db.addGroup(txn, group);
+		assertEquals(emptyList(), db.getGroupsWithoutMessageCounts(txn));
+
+		// Remove the counts, as if the group predated the counts table
+		Statement s = txn.createStatement();
+		s.executeUpdate("DELETE FROM messageCounts");
+		s.close();
+		assertEquals(singletonList(groupId),
+				db.getGroupsWithoutMessageCounts(txn));
+
+		// Storing the counts should remove the group from the list
+		db.setMessageCounts(txn, groupId, new MessageCounts(1, 0, 0));
+		assertEquals(emptyList(), db.getGroupsWithoutMessageCounts(txn));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
 	@Test
 	public void testMessageMetadata() throws Exception {
 		Database<Connection> db = open(false);
@@ -1106,6 +1390,59 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testMessageMetadataForIds() throws Exception {
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add enough messages to need more than one query, with a number
+		// of messages in the last query that needs padding
+		db.addGroup(txn, group);
+		int count = 128 + 9;
+		List<MessageId> ids = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			Message m = getMessage(groupId);
+			db.addMessage(txn, m, DELIVERED, true, null);
+			Metadata metadata = new Metadata();
+			metadata.put("index", new byte[] {(byte) i});
+			db.mergeMessageMetadata(txn, m.getId(), metadata);
+			ids.add(m.getId());
+		}
+		// Add a delivered message without metadata and a pending message
+		Message noMetadata = getMessage(groupId);
+		db.addMessage(txn, noMetadata, DELIVERED, true, null);
+		Message pending = getMessage(groupId);
+		db.addMessage(txn, pending, PENDING, true, null);
+		Metadata pendingMetadata = new Metadata();
+		pendingMetadata.put("index", new byte[] {(byte) -1});
+		db.mergeMessageMetadata(txn, pending.getId(), pendingMetadata);
+
+		List<MessageId> query = new ArrayList<>(ids);
+		query.add(noMetadata.getId());
+		query.add(pending.getId());
+		query.add(new MessageId(getRandomId()));
+		Map<MessageId, Metadata> all = db.getMessageMetadata(txn, query);
+		// The delivered messages should be returned, with or without metadata
+		assertEquals(count + 1, all.size());
+		for (int i = 0; i < count; i++) {
+			Metadata metadata = all.get(ids.get(i));
+			assertNotNull(metadata);
+			assertArrayEquals(new byte[] {(byte) i}, metadata.get("index"));
+		}
+		assertTrue(all.get(noMetadata.getId()).isEmpty());
+
+		// A query that fits in a single padded list should work too
+		all = db.getMessageMetadata(txn, ids.subList(0, 3));
+		assertEquals(3, all.size());
+		for (int i = 0; i < 3; i++) {
+			assertArrayEquals(new byte[] {(byte) i},
+					all.get(ids.get(i)).get("index"));
+		}
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
 	@Test
 	public void testMetadataQueries() throws Exception {
 		Message message1 = getMessage(groupId);
@@ -1274,6 +1611,101 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testGetMessageMetadataForMessageIds() throws Exception {
+		Message message1 = getMessage(groupId);
+		Message message2 = getMessage(groupId);
+		MessageId unknownId = new MessageId(getRandomId());
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a group and three messages, one of which isn't delivered
+		db.addGroup(txn, group);
+		db.addMessage(txn, message, DELIVERED, true, null);
+		db.addMessage(txn, message1, DELIVERED, true, null);
+		db.addMessage(txn, message2, UNKNOWN, true, null);
+
+		// Attach some metadata to two of the messages
+		Metadata metadata = new Metadata();
+		metadata.put("foo", new byte[] {'b', 'a', 'r'});
+		db.mergeMessageMetadata(txn, messageId, metadata);
+		db.mergeMessageMetadata(txn, message2.getId(), metadata);
+
+		// The undelivered and unknown messages should not be returned, and
+		// the delivered message without metadata should have empty metadata
+		Map<MessageId, Metadata> all = db.getMessageMetadata(txn,
+				Arrays.asList(messageId, message1.getId(), message2.getId(),
+						unknownId));
+		assertEquals(2, all.size());
+		assertMetadataEquals(metadata, all.get(messageId));
+		assertMetadataEquals(new Metadata(), all.get(message1.getId()));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testGetMessageCursors() throws Exception {
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+		db.addGroup(txn, group);
+
+		// Add some messages, several of which share a timestamp
+		Metadata metadata = new Metadata();
+		metadata.put("foo", new byte[] {'b', 'a', 'r'});
+		List<MessageCursor> all = new ArrayList<>();
+		List<MessageCursor> matching = new ArrayList<>();
+		long[] timestamps = {1, 2, 2, 2, 2, 3, 4, 4};
+		for (int i = 0; i < timestamps.length; i++) {
+			Message m = new Message(new MessageId(getRandomId()), groupId,
+					timestamps[i], new byte[] {'b', 'o', 'd', 'y'});
+			db.addMessage(txn, m, DELIVERED, true, null);
+			MessageCursor c = new MessageCursor(m.getTimestamp(), m.getId());
+			all.add(c);
+			if (i % 2 == 0) {
+				db.mergeMessageMetadata(txn, m.getId(), metadata);
+				matching.add(c);
+			}
+		}
+		// Undelivered messages should not be returned
+		Message pending = new Message(new MessageId(getRandomId()), groupId,
+				2, new byte[] {'b', 'o', 'd', 'y'});
+		db.addMessage(txn, pending, PENDING, true, null);
+		db.mergeMessageMetadata(txn, pending.getId(), metadata);
+
+		// The pages should contain all the messages, newest first
+		Collections.sort(all, Collections.reverseOrder());
+		Collections.sort(matching, Collections.reverseOrder());
+		for (int limit = 1; limit <= all.size() + 1; limit++) {
+			assertEquals(all, getAllPages(db, txn, new Metadata(), limit));
+			assertEquals(matching, getAllPages(db, txn, metadata, limit));
+		}
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	private List<MessageCursor> getAllPages(Database<Connection> db,
+			Connection txn, Metadata query, int limit) throws Exception {
+		List<MessageCursor> all = new ArrayList<>();
+		MessageCursor before = null;
+		while (true) {
+			List<MessageCursor> page =
+					db.getMessageCursors(txn, groupId, query, before, limit);
+			assertTrue(page.size() <= limit);
+			if (page.isEmpty()) return all;
+			all.addAll(page);
+			before = page.get(page.size() - 1);
+		}
+	}
+
+	private List<MessageId> getIds(Collection<SendableMessage> messages) {
+		List<MessageId> ids = new ArrayList<>(messages.size());
+		for (SendableMessage m : messages) ids.add(m.getMessageId());
+		return ids;
+	}
+
 	private void assertMetadataEquals(Metadata m1, Metadata m2) {
 		assertEquals(m1.keySet(), m2.keySet());
 		for (Entry<String, byte[]> e : m1.entrySet()) {
@@ -1644,10 +2076,10 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		assertTrue(db.containsVisibleMessage(txn, contactId, messageId));
 
 		// The message should be sendable
-		Collection<MessageId> ids = db.getMessagesToSend(txn, contactId,
-				ONE_MEGABYTE, MAX_LATENCY);
+		Collection<MessageId> ids = getIds(db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY));
 		assertEquals(singletonList(messageId), ids);
-		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
+		ids = getIds(db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY));
 		assertEquals(singletonList(messageId), ids);
 
 		// The message should be available
@@ -1664,9 +2096,10 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		assertTrue(db.containsVisibleMessage(txn, contactId, messageId));
 
 		// The message should not be sendable
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
+		ids = getIds(db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY));
 		assertTrue(ids.isEmpty());
-		ids = db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY);
+		ids = getIds(db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY));
 		assertTrue(ids.isEmpty());
 
 		// Requesting the message should throw an exception
@@ -1836,8 +2269,8 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 
 		// Time: now
 		// Retrieve the message from the database
-		Collection<MessageId> ids = db.getMessagesToSend(txn, contactId,
-				ONE_MEGABYTE, MAX_LATENCY);
+		Collection<MessageId> ids = getIds(db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY));
 		assertEquals(singletonList(messageId), ids);
 
 		// Time: now
@@ -1850,13 +2283,15 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		// Time: now + MAX_LATENCY * 2 - 1
 		// The message should not yet be sendable
 		time.set(now + MAX_LATENCY * 2 - 1);
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
+		ids = getIds(db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY));
 		assertTrue(ids.isEmpty());
 
 		// Time: now + MAX_LATENCY * 2
 		// The message should have expired and should now be sendable
 		time.set(now + MAX_LATENCY * 2);
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
+		ids = getIds(db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY));
 		assertEquals(singletonList(messageId), ids);
 
 		db.commitTransaction(txn);
@@ -1881,8 +2316,8 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 
 		// Time: now
 		// Retrieve the message from the database
-		Collection<MessageId> ids = db.getMessagesToSend(txn, contactId,
-				ONE_MEGABYTE, MAX_LATENCY);
+		Collection<MessageId> ids = getIds(db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY));
 		assertEquals(singletonList(messageId), ids);
 
 		// Time: now
@@ -1894,21 +2329,22 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 
 		// Time: now
 		// The message should not be sendable via the same transport
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE, MAX_LATENCY);
+		ids = getIds(db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY));
 		assertTrue(ids.isEmpty());
 
 		// Time: now
 		// The message should be sendable via a transport with a faster ETA
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
-				MAX_LATENCY - 1);
+		ids = getIds(db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY - 1));
 		assertEquals(singletonList(messageId), ids);
 
 		// Time: now + 1
 		// The message should no longer be sendable via the faster transport,
 		// as the ETA is now equal
 		time.set(now + 1);
-		ids = db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
-				MAX_LATENCY - 1);
+		ids = getIds(db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY - 1));
 		assertTrue(ids.isEmpty());
 
 		db.commitTransaction(txn);
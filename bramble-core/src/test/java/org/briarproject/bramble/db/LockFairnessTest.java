@@ -1,19 +1,57 @@
 package org.briarproject.bramble.db;
 
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.bramble.api.lifecycle.ShutdownManager;
+import org.briarproject.bramble.api.sync.SyncScheduler;
+import org.briarproject.bramble.system.SystemClock;
 import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.bramble.test.TestDatabaseConfig;
+import org.briarproject.bramble.test.TestMessageFactory;
+import org.jmock.Mockery;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
+import java.sql.Connection;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.briarproject.bramble.test.TestUtils.deleteTestDirectory;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.test.TestUtils.getTestDirectory;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class LockFairnessTest extends BrambleTestCase {
 
+	private static final long MAX_SIZE = 100 * 1024 * 1024;
+
+	private final Mockery context = new Mockery();
+	private final EventBus eventBus = context.mock(EventBus.class);
+	private final ShutdownManager shutdown =
+			context.mock(ShutdownManager.class);
+	private final SyncScheduler scheduler = context.mock(SyncScheduler.class);
+	private final File testDir = getTestDirectory();
+	private final SecretKey key = getSecretKey();
+
+	@Before
+	public void setUp() {
+		assertTrue(testDir.mkdirs());
+	}
+
+	@After
+	public void tearDown() {
+		deleteTestDirectory(testDir);
+	}
+
 	@Test
 	public void testReadersCanShareTheLock() throws Exception {
 		// Use a fair lock
@@ -147,4 +185,102 @@ public class LockFairnessTest extends BrambleTestCase {
 		assertTrue(secondReaderHasFinished.await(10, SECONDS));
 		assertTrue(writerHasFinished.await(10, SECONDS));
 	}
+
+	@Test
+	public void testReadersDoNotWaitForWriterWithSnapshotReads()
+			throws Exception {
+		Database<Connection> database = openDatabase();
+		DatabaseComponent db = new DatabaseComponentImpl<>(database,
+				Connection.class, eventBus, shutdown, scheduler, true);
+		CountDownLatch writerHasLock = new CountDownLatch(1);
+		CountDownLatch readerHasFinished = new CountDownLatch(1);
+		CountDownLatch writerHasFinished = new CountDownLatch(1);
+		AtomicBoolean readerHasFinishedFirst = new AtomicBoolean(false);
+		// Writer
+		Thread writer = new Thread(() -> {
+			try {
+				Transaction txn = db.startTransaction(false);
+				try {
+					// Allow the reader to start a transaction
+					writerHasLock.countDown();
+					// The reader should not wait for the writer to finish
+					readerHasFinishedFirst.set(
+							readerHasFinished.await(10, SECONDS));
+					db.commitTransaction(txn);
+				} finally {
+					db.endTransaction(txn);
+				}
+			} catch (Exception e) {
+				fail();
+			}
+			writerHasFinished.countDown();
+		});
+		writer.start();
+		// Reader
+		assertTrue(writerHasLock.await(10, SECONDS));
+		Transaction txn = db.startTransaction(true);
+		try {
+			db.getContacts(txn);
+			db.commitTransaction(txn);
+		} finally {
+			db.endTransaction(txn);
+		}
+		readerHasFinished.countDown();
+		assertTrue(writerHasFinished.await(10, SECONDS));
+		assertTrue(readerHasFinishedFirst.get());
+		database.close();
+	}
+
+	@Test
+	public void testReadersWaitForWriterWithoutSnapshotReads()
+			throws Exception {
+		Database<Connection> database = openDatabase();
+		DatabaseComponent db = new DatabaseComponentImpl<>(database,
+				Connection.class, eventBus, shutdown, scheduler, false);
+		CountDownLatch writerHasLock = new CountDownLatch(1);
+		CountDownLatch readerHasFinished = new CountDownLatch(1);
+		CountDownLatch writerHasFinished = new CountDownLatch(1);
+		AtomicBoolean readerHasFinishedFirst = new AtomicBoolean(true);
+		// Writer
+		Thread writer = new Thread(() -> {
+			try {
+				Transaction txn = db.startTransaction(false);
+				try {
+					// Allow the reader to wait for the lock
+					writerHasLock.countDown();
+					// The reader should wait for the writer to finish
+					readerHasFinishedFirst.set(
+							readerHasFinished.await(500, MILLISECONDS));
+					db.commitTransaction(txn);
+				} finally {
+					db.endTransaction(txn);
+				}
+			} catch (Exception e) {
+				fail();
+			}
+			writerHasFinished.countDown();
+		});
+		writer.start();
+		// Reader
+		assertTrue(writerHasLock.await(10, SECONDS));
+		Transaction txn = db.startTransaction(true);
+		try {
+			db.getContacts(txn);
+			db.commitTransaction(txn);
+		} finally {
+			db.endTransaction(txn);
+		}
+		readerHasFinished.countDown();
+		assertTrue(writerHasFinished.await(10, SECONDS));
+		assertFalse(readerHasFinishedFirst.get());
+		database.close();
+	}
+
+	private Database<Connection> openDatabase() throws Exception {
+		Database<Connection> database = new H2Database(
+				new TestDatabaseConfig(testDir, MAX_SIZE),
+				new TestMessageFactory(), new SystemClock());
+		database.open(key, null);
+		return database;
+	}
 }
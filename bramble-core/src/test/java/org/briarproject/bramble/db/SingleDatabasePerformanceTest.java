@@ -22,19 +22,32 @@ import static org.briarproject.bramble.test.TestUtils.getStandardDeviation;
 public abstract class SingleDatabasePerformanceTest
 		extends DatabasePerformanceTest {
 
+	private static final int STATEMENT_CACHE_SIZE = 64;
+
 	abstract Database<Connection> createDatabase(DatabaseConfig databaseConfig,
 			MessageFactory messageFactory, Clock clock);
 
 	private SecretKey databaseKey = getSecretKey();
 
+	/**
+	 * Runs each benchmark with and without the prepared statement cache,
+	 * so the results can be compared side by side.
+	 */
 	@Override
 	protected void benchmark(String name,
 			BenchmarkTask<Database<Connection>> task) throws Exception {
+		benchmark(name, task, STATEMENT_CACHE_SIZE);
+		benchmark(name + " (uncached)", task, 0);
+	}
+
+	private void benchmark(String name,
+			BenchmarkTask<Database<Connection>> task, int statementCacheSize)
+			throws Exception {
 		deleteTestDirectory(testDir);
-		Database<Connection> db = openDatabase();
+		Database<Connection> db = openDatabase(statementCacheSize);
 		populateDatabase(db);
 		db.close();
-		db = openDatabase();
+		db = openDatabase(statementCacheSize);
 		// Measure the first iteration
 		long firstDuration = measureOne(db, task);
 		// Measure blocks of iterations until we reach a steady state
@@ -43,9 +56,10 @@ public abstract class SingleDatabasePerformanceTest
 		writeResult(name, result.blocks, firstDuration, result.durations);
 	}
 
-	private Database<Connection> openDatabase() throws DbException {
+	private Database<Connection> openDatabase(int statementCacheSize)
+			throws DbException {
 		Database<Connection> db = createDatabase(
-				new TestDatabaseConfig(testDir, MAX_SIZE),
+				new TestDatabaseConfig(testDir, MAX_SIZE, statementCacheSize),
 				new TestMessageFactory(), new SystemClock());
 		db.open(databaseKey, null);
 		return db;
@@ -0,0 +1,138 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.jmock.Expectations;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import static org.junit.Assert.assertSame;
+
+public class StatementCacheTest extends BrambleMockTestCase {
+
+	private final Connection connection = context.mock(Connection.class);
+	private final PreparedStatement statement1 =
+			context.mock(PreparedStatement.class, "statement1");
+	private final PreparedStatement statement2 =
+			context.mock(PreparedStatement.class, "statement2");
+
+	private final String sql1 = "SELECT 1", sql2 = "SELECT 2";
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSizeMustBePositive() {
+		new StatementCache(connection, 0);
+	}
+
+	@Test
+	public void testReleasedStatementIsReused() throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(connection).prepareStatement(sql1);
+			will(returnValue(statement1));
+			oneOf(statement1).clearParameters();
+			oneOf(statement1).clearBatch();
+			oneOf(statement1).isClosed();
+			will(returnValue(false));
+		}});
+
+		StatementCache cache = new StatementCache(connection, 1);
+		PreparedStatement ps = cache.prepare(sql1);
+		assertSame(statement1, ps);
+		cache.release(sql1, ps);
+		// The statement should be reused
+		assertSame(statement1, cache.prepare(sql1));
+	}
+
+	@Test
+	public void testClosedStatementIsNotReused() throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(connection).prepareStatement(sql1);
+			will(returnValue(statement1));
+			oneOf(statement1).clearParameters();
+			oneOf(statement1).clearBatch();
+			// The caller closes the statement after releasing it
+			oneOf(statement1).isClosed();
+			will(returnValue(true));
+			oneOf(connection).prepareStatement(sql1);
+			will(returnValue(statement2));
+		}});
+
+		StatementCache cache = new StatementCache(connection, 1);
+		cache.release(sql1, cache.prepare(sql1));
+		assertSame(statement2, cache.prepare(sql1));
+	}
+
+	@Test
+	public void testStatementInUseIsNotShared() throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(connection).prepareStatement(sql1);
+			will(returnValue(statement1));
+			oneOf(connection).prepareStatement(sql1);
+			will(returnValue(statement2));
+			oneOf(statement2).clearParameters();
+			oneOf(statement2).clearBatch();
+			oneOf(statement1).clearParameters();
+			oneOf(statement1).clearBatch();
+			// Only one statement for each SQL string is kept
+			oneOf(statement2).close();
+		}});
+
+		StatementCache cache = new StatementCache(connection, 2);
+		PreparedStatement ps1 = cache.prepare(sql1);
+		PreparedStatement ps2 = cache.prepare(sql1);
+		assertSame(statement1, ps1);
+		assertSame(statement2, ps2);
+		cache.release(sql1, ps2);
+		cache.release(sql1, ps1);
+	}
+
+	@Test
+	public void testLeastRecentlyUsedStatementIsEvicted() throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(connection).prepareStatement(sql1);
+			will(returnValue(statement1));
+			oneOf(statement1).clearParameters();
+			oneOf(statement1).clearBatch();
+			oneOf(connection).prepareStatement(sql2);
+			will(returnValue(statement2));
+			oneOf(statement2).clearParameters();
+			oneOf(statement2).clearBatch();
+			// The first statement should be evicted
+			oneOf(statement1).close();
+		}});
+
+		StatementCache cache = new StatementCache(connection, 1);
+		cache.release(sql1, cache.prepare(sql1));
+		cache.release(sql2, cache.prepare(sql2));
+	}
+
+	@Test
+	public void testClosingCacheClosesCachedStatements() throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(connection).prepareStatement(sql1);
+			will(returnValue(statement1));
+			oneOf(statement1).clearParameters();
+			oneOf(statement1).clearBatch();
+			oneOf(connection).prepareStatement(sql2);
+			will(returnValue(statement2));
+			oneOf(statement1).close();
+			// The statement that's still in use should be closed when
+			// it's released
+			oneOf(statement2).close();
+		}});
+
+		StatementCache cache = new StatementCache(connection, 2);
+		cache.release(sql1, cache.prepare(sql1));
+		PreparedStatement ps = cache.prepare(sql2);
+		cache.close();
+		cache.release(sql2, ps);
+	}
+
+	@Test(expected = SQLException.class)
+	public void testClosedCacheCannotPrepareStatements() throws Exception {
+		StatementCache cache = new StatementCache(connection, 1);
+		cache.close();
+		cache.prepare(sql1);
+	}
+}
@@ -0,0 +1,115 @@
+package org.briarproject.bramble.event;
+
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.event.EventListener;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EventBusImplTest extends BrambleTestCase {
+
+	private final EventBusImpl eventBus = new EventBusImpl();
+	private final List<Event> received = new ArrayList<>();
+	private final EventListener listener = received::add;
+
+	@Test
+	public void testUntypedListenerReceivesAllEvents() {
+		eventBus.addListener(listener);
+		Event a = new TestEvent(), b = new OtherEvent();
+		eventBus.broadcast(a);
+		eventBus.broadcast(b);
+		assertEquals(Arrays.asList(a, b), received);
+		assertEquals(2, eventBus.getEventsBroadcast());
+		assertEquals(2, eventBus.getEventsDelivered());
+	}
+
+	@Test
+	public void testTypedListenerReceivesMatchingEvents() {
+		eventBus.addListener(listener, singletonList(TestEvent.class));
+		Event a = new TestEvent(), b = new OtherEvent();
+		Event c = new TestSubEvent();
+		eventBus.broadcast(a);
+		eventBus.broadcast(b);
+		eventBus.broadcast(c);
+		// Subtypes of the subscribed type should be delivered
+		assertEquals(Arrays.asList(a, c), received);
+		assertEquals(3, eventBus.getEventsBroadcast());
+		assertEquals(2, eventBus.getEventsDelivered());
+	}
+
+	@Test
+	public void testRemovedListenerReceivesNoEvents() {
+		eventBus.addListener(listener, singletonList(TestEvent.class));
+		Event a = new TestEvent();
+		eventBus.broadcast(a);
+		// The subscriptions for TestEvent are now cached
+		eventBus.removeListener(listener);
+		eventBus.broadcast(new TestEvent());
+		assertEquals(singletonList(a), received);
+	}
+
+	@Test
+	public void testAddedListenerReceivesCachedEventType() {
+		// Cache the (empty) subscriptions for TestEvent
+		eventBus.broadcast(new TestEvent());
+		eventBus.addListener(listener, singletonList(TestEvent.class));
+		Event a = new TestEvent();
+		eventBus.broadcast(a);
+		assertEquals(singletonList(a), received);
+	}
+
+	@Test
+	public void testAsyncListenerReceivesEventsInOrder() {
+		List<Runnable> tasks = new ArrayList<>();
+		Executor executor = tasks::add;
+		eventBus.addAsyncListener(listener,
+				Arrays.asList(TestEvent.class, OtherEvent.class), executor);
+		Event a = new TestEvent(), b = new OtherEvent();
+		eventBus.broadcast(a);
+		eventBus.broadcast(b);
+		// Nothing should be delivered on the broadcasting thread
+		assertTrue(received.isEmpty());
+		// Only one event should be delivered at a time
+		assertEquals(1, tasks.size());
+		tasks.remove(0).run();
+		assertEquals(singletonList(a), received);
+		assertEquals(1, tasks.size());
+		tasks.remove(0).run();
+		assertEquals(Arrays.asList(a, b), received);
+		assertTrue(tasks.isEmpty());
+	}
+
+	@Test
+	public void testSlowListenersAreCounted() {
+		eventBus.addListener(e -> {
+			try {
+				Thread.sleep(EventBusImpl.SLOW_LISTENER_MS + 10);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		eventBus.addListener(listener);
+		eventBus.broadcast(new TestEvent());
+		assertEquals(2, eventBus.getEventsDelivered());
+		assertEquals(1, eventBus.getSlowDeliveries());
+		assertTrue(eventBus.getDispatchTime() >=
+				EventBusImpl.SLOW_LISTENER_MS);
+	}
+
+	private static class TestEvent extends Event {
+	}
+
+	private static class TestSubEvent extends TestEvent {
+	}
+
+	private static class OtherEvent extends Event {
+	}
+}
@@ -11,7 +11,6 @@ import org.briarproject.bramble.test.BrambleMockTestCase;
 import org.jmock.Expectations;
 import org.junit.Test;
 
-import java.io.ByteArrayInputStream;
 
 import static org.briarproject.bramble.api.keyagreement.KeyAgreementConstants.BETA_PROTOCOL_VERSION;
 import static org.briarproject.bramble.api.keyagreement.KeyAgreementConstants.COMMIT_LENGTH;
@@ -72,8 +71,8 @@ public class PayloadParserImplTest extends BrambleMockTestCase {
 	@Test(expected = FormatException.class)
 	public void testThrowsFormatExceptionForEmptyList() throws Exception {
 		context.checking(new Expectations() {{
-			oneOf(bdfReaderFactory).createReader(
-					with(any(ByteArrayInputStream.class)));
+			oneOf(bdfReaderFactory).createReader(with(any(byte[].class)),
+					with(1), with(0));
 			will(returnValue(bdfReader));
 			oneOf(bdfReader).readList();
 			will(returnValue(new BdfList()));
@@ -88,8 +87,8 @@ public class PayloadParserImplTest extends BrambleMockTestCase {
 		byte[] commitment = getRandomBytes(COMMIT_LENGTH);
 
 		context.checking(new Expectations() {{
-			oneOf(bdfReaderFactory).createReader(
-					with(any(ByteArrayInputStream.class)));
+			oneOf(bdfReaderFactory).createReader(with(any(byte[].class)),
+					with(1), with(0));
 			will(returnValue(bdfReader));
 			oneOf(bdfReader).readList();
 			will(returnValue(BdfList.of(new Bytes(commitment))));
@@ -106,8 +105,8 @@ public class PayloadParserImplTest extends BrambleMockTestCase {
 		byte[] commitment = getRandomBytes(COMMIT_LENGTH - 1);
 
 		context.checking(new Expectations() {{
-			oneOf(bdfReaderFactory).createReader(
-					with(any(ByteArrayInputStream.class)));
+			oneOf(bdfReaderFactory).createReader(with(any(byte[].class)),
+					with(1), with(0));
 			will(returnValue(bdfReader));
 			oneOf(bdfReader).readList();
 			will(returnValue(BdfList.of(new Bytes(commitment))));
@@ -124,8 +123,8 @@ public class PayloadParserImplTest extends BrambleMockTestCase {
 		byte[] commitment = getRandomBytes(COMMIT_LENGTH + 1);
 
 		context.checking(new Expectations() {{
-			oneOf(bdfReaderFactory).createReader(
-					with(any(ByteArrayInputStream.class)));
+			oneOf(bdfReaderFactory).createReader(with(any(byte[].class)),
+					with(1), with(0));
 			will(returnValue(bdfReader));
 			oneOf(bdfReader).readList();
 			will(returnValue(BdfList.of(new Bytes(commitment))));
@@ -140,8 +139,8 @@ public class PayloadParserImplTest extends BrambleMockTestCase {
 	public void testAcceptsPayloadWithNoDescriptors() throws Exception {
 		byte[] commitment = getRandomBytes(COMMIT_LENGTH);
 		context.checking(new Expectations() {{
-			oneOf(bdfReaderFactory).createReader(
-					with(any(ByteArrayInputStream.class)));
+			oneOf(bdfReaderFactory).createReader(with(any(byte[].class)),
+					with(1), with(0));
 			will(returnValue(bdfReader));
 			oneOf(bdfReader).readList();
 			will(returnValue(BdfList.of(new Bytes(commitment))));
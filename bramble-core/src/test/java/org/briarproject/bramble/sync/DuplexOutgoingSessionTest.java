@@ -0,0 +1,314 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.Features;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.Offer;
+import org.briarproject.bramble.api.sync.PeerFeatures;
+import org.briarproject.bramble.api.sync.Request;
+import org.briarproject.bramble.api.sync.Sketch;
+import org.briarproject.bramble.api.sync.SyncRecordWriter;
+import org.briarproject.bramble.api.sync.event.SketchRequestedEvent;
+import org.briarproject.bramble.api.transport.StreamWriter;
+import org.briarproject.bramble.system.SystemClock;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+import static java.util.Collections.nCopies;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.briarproject.bramble.api.record.Record.MAX_RECORD_PAYLOAD_BYTES;
+import static org.briarproject.bramble.api.sync.SyncConstants.FEATURE_COMPRESSED_MESSAGES;
+import static org.briarproject.bramble.sync.DuplexOutgoingSession.MAX_BATCH_BYTES_IN_FLIGHT;
+import static org.briarproject.bramble.test.TestUtils.getMessage;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DuplexOutgoingSessionTest extends BrambleMockTestCase {
+
+	{
+		context.setThreadingPolicy(new Synchroniser());
+	}
+
+	private static final int MAX_LATENCY = 123456;
+	private static final int MAX_IDLE_TIME = 60 * 1000;
+
+	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
+	private final EventBus eventBus = context.mock(EventBus.class);
+	private final StreamWriter streamWriter = context.mock(StreamWriter.class);
+	private final SyncRecordWriter recordWriter =
+			context.mock(SyncRecordWriter.class);
+
+	private final List<Runnable> dbTasks = new CopyOnWriteArrayList<>();
+	private final Executor dbExecutor = dbTasks::add;
+	private final ContactId contactId = new ContactId(234);
+	private final PeerFeatures peerFeatures = new PeerFeatures();
+	private final Message message =
+			getMessage(new GroupId(getRandomId()), 1000);
+	// A batch that's more than half the size of the prefetch limit
+	private final Collection<Message> batch = nCopies(
+			MAX_BATCH_BYTES_IN_FLIGHT / 2 / message.getRawLength() + 1,
+			message);
+
+	@Test
+	public void testBatchesArePrefetchedUntilLimitIsReached()
+			throws Exception {
+		CountDownLatch writerReleased = new CountDownLatch(1);
+		// Block the writer until the test releases it. The writer must not
+		// block inside a mocked method, as that would hold the mockery's
+		// lock and prevent the test from using the other mocks
+		DuplexOutgoingSession session = createSession(
+				new BlockingRecordWriter(writerReleased));
+
+		context.checking(new Expectations() {{
+			oneOf(eventBus).addListener(with(session),
+					with(any(Collection.class)));
+			oneOf(recordWriter).writeFeatures(with(any(Features.class)));
+			allowing(recordWriter).flush();
+			allowing(recordWriter).writeMessage(message);
+		}});
+
+		Thread writer = start(session);
+		// One query should be started for each type of record
+		waitForTasks(4);
+		// Discard the queries for acks, offers and requests
+		Runnable generateBatch = dbTasks.get(1);
+		dbTasks.clear();
+
+		// Generate the first batch - the next batch should be prefetched
+		expectGenerateBatch();
+		generateBatch.run();
+		assertEquals(1, dbTasks.size());
+
+		// Generate the second batch - the limit has now been reached
+		expectGenerateBatch();
+		dbTasks.remove(0).run();
+		assertEquals(0, dbTasks.size());
+
+		// When the writer catches up, another batch should be requested
+		writerReleased.countDown();
+		waitForTasks(1);
+
+		context.checking(new Expectations() {{
+			oneOf(streamWriter).sendEndOfStream();
+			oneOf(eventBus).removeListener(session);
+		}});
+		session.interrupt();
+		writer.join(5000);
+		assertFalse(writer.isAlive());
+	}
+
+	@Test
+	public void testBatchIsCompressedIfPeerSupportsCompression()
+			throws Exception {
+		peerFeatures.setFeatures(
+				new Features(singletonList(FEATURE_COMPRESSED_MESSAGES)));
+		DuplexOutgoingSession session = createSession(recordWriter);
+		CountDownLatch batchWritten = new CountDownLatch(1);
+
+		context.checking(new Expectations() {{
+			oneOf(eventBus).addListener(with(session),
+					with(any(Collection.class)));
+			oneOf(recordWriter).writeFeatures(with(any(Features.class)));
+			allowing(recordWriter).flush();
+			oneOf(recordWriter).writeCompressedMessages(batch);
+			will(new CustomAction("count down") {
+				@Override
+				public Object invoke(Invocation invocation) {
+					batchWritten.countDown();
+					return null;
+				}
+			});
+		}});
+
+		Thread writer = start(session);
+		waitForTasks(4);
+		Runnable generateBatch = dbTasks.get(1);
+		dbTasks.clear();
+
+		// The batch should be written in a single compressed record
+		expectGenerateBatch();
+		generateBatch.run();
+		assertTrue(batchWritten.await(5, SECONDS));
+
+		context.checking(new Expectations() {{
+			oneOf(streamWriter).sendEndOfStream();
+			oneOf(eventBus).removeListener(session);
+		}});
+		session.interrupt();
+		writer.join(5000);
+		assertFalse(writer.isAlive());
+	}
+
+	@Test
+	public void testOffersAreNotDeferredUntilPeerRequestsSketch()
+			throws Exception {
+		DuplexOutgoingSession session = createSession(recordWriter, true);
+		Transaction txn = new Transaction(null, true);
+		MessageId messageId = new MessageId(getRandomId());
+
+		context.checking(new Expectations() {{
+			oneOf(eventBus).addListener(with(session),
+					with(any(Collection.class)));
+			oneOf(recordWriter).writeFeatures(with(any(Features.class)));
+			allowing(recordWriter).flush();
+			allowing(recordWriter).writeSketch(with(any(Sketch.class)));
+		}});
+
+		Thread writer = start(session);
+		// An offer should be generated without waiting for the peer's
+		// features, as the peer may not support sketches
+		waitForTasks(4);
+		dbTasks.clear();
+
+		// When the peer asks for a sketch, the shared messages are loaded
+		session.eventOccurred(new SketchRequestedEvent(contactId, 60));
+		waitForTasks(1);
+		context.checking(new Expectations() {{
+			oneOf(db).startTransaction(true);
+			will(returnValue(txn));
+			oneOf(db).getMessagesToReconcile(txn, contactId);
+			will(returnValue(singletonMap(messageId, false)));
+			oneOf(db).commitTransaction(txn);
+			oneOf(db).endTransaction(txn);
+		}});
+		dbTasks.remove(0).run();
+
+		// A larger sketch should reuse the shared messages
+		session.eventOccurred(new SketchRequestedEvent(contactId, 120));
+		waitForTasks(1);
+		dbTasks.remove(0).run();
+
+		context.checking(new Expectations() {{
+			oneOf(streamWriter).sendEndOfStream();
+			oneOf(eventBus).removeListener(session);
+		}});
+		session.interrupt();
+		writer.join(5000);
+		assertFalse(writer.isAlive());
+	}
+
+	private DuplexOutgoingSession createSession(SyncRecordWriter writer) {
+		return createSession(writer, false);
+	}
+
+	private DuplexOutgoingSession createSession(SyncRecordWriter writer,
+			boolean sketchesEnabled) {
+		return new DuplexOutgoingSession(db, dbExecutor, eventBus,
+				new SystemClock(), contactId, MAX_LATENCY, MAX_IDLE_TIME,
+				streamWriter, writer, peerFeatures, sketchesEnabled);
+	}
+
+	private Thread start(DuplexOutgoingSession session) {
+		Thread writer = new Thread(() -> {
+			try {
+				session.run();
+			} catch (Exception e) {
+				throw new AssertionError(e);
+			}
+		});
+		writer.start();
+		return writer;
+	}
+
+	private void expectGenerateBatch() throws Exception {
+		Transaction txn = new Transaction(null, false);
+		context.checking(new Expectations() {{
+			oneOf(db).startTransaction(false);
+			will(returnValue(txn));
+			oneOf(db).generateRequestedBatch(txn, contactId,
+					MAX_RECORD_PAYLOAD_BYTES, MAX_LATENCY);
+			will(returnValue(batch));
+			oneOf(db).getNextSendTime(txn, contactId);
+			will(returnValue(Long.MAX_VALUE));
+			oneOf(db).commitTransaction(txn);
+			oneOf(db).endTransaction(txn);
+		}});
+	}
+
+	private void waitForTasks(int tasks) throws InterruptedException {
+		for (int i = 0; i < 500 && dbTasks.size() < tasks; i++)
+			Thread.sleep(10);
+		assertEquals(tasks, dbTasks.size());
+	}
+
+	/**
+	 * A record writer that waits for a latch before writing each message,
+	 * and otherwise delegates to the mock record writer.
+	 */
+	private class BlockingRecordWriter implements SyncRecordWriter {
+
+		private final CountDownLatch released;
+
+		private BlockingRecordWriter(CountDownLatch released) {
+			this.released = released;
+		}
+
+		@Override
+		public void writeAck(Ack a) throws IOException {
+			recordWriter.writeAck(a);
+		}
+
+		@Override
+		public void writeMessage(Message m) throws IOException {
+			try {
+				released.await();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+			recordWriter.writeMessage(m);
+		}
+
+		@Override
+		public void writeCompressedMessages(Collection<Message> messages)
+				throws IOException {
+			recordWriter.writeCompressedMessages(messages);
+		}
+
+		@Override
+		public void writeOffer(Offer o) throws IOException {
+			recordWriter.writeOffer(o);
+		}
+
+		@Override
+		public void writeRequest(Request r) throws IOException {
+			recordWriter.writeRequest(r);
+		}
+
+		@Override
+		public void writeFeatures(Features f) throws IOException {
+			recordWriter.writeFeatures(f);
+		}
+
+		@Override
+		public void writeSketch(Sketch s) throws IOException {
+			recordWriter.writeSketch(s);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			recordWriter.flush();
+		}
+	}
+}
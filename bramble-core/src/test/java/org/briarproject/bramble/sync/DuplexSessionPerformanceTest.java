@@ -0,0 +1,224 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.bramble.api.event.EventListener;
+import org.briarproject.bramble.api.identity.LocalAuthor;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.MessageFactory;
+import org.briarproject.bramble.api.sync.PeerFeatures;
+import org.briarproject.bramble.api.sync.SyncSession;
+import org.briarproject.bramble.api.sync.event.MessageAddedEvent;
+import org.briarproject.bramble.api.transport.StreamWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
+import static org.briarproject.bramble.test.TestUtils.deleteTestDirectory;
+import static org.briarproject.bramble.test.TestUtils.getClientId;
+import static org.briarproject.bramble.test.TestUtils.getGroup;
+import static org.briarproject.bramble.test.TestUtils.getLocalAuthor;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.test.TestUtils.getTestDirectory;
+
+/**
+ * Connects two in-process nodes with duplex sync sessions over a loopback
+ * TCP connection, and measures how quickly a backlog of messages is synced
+ * from one node to the other.
+ */
+// Not a JUnit test
+public class DuplexSessionPerformanceTest {
+
+	// The receiver ignores offered messages beyond the first 1,000 that it
+	// hasn't requested yet, and they aren't offered again until they expire
+	private static final int MESSAGES = 1000;
+	private static final int[] BODY_LENGTHS = {100, 1000, 10 * 1000};
+	private static final int MAX_LATENCY = 60 * 1000;
+	private static final int MAX_IDLE_TIME = 30 * 1000;
+
+	public static void main(String[] args) throws Exception {
+		for (int bodyLength : BODY_LENGTHS) runTest(bodyLength);
+	}
+
+	private static void runTest(int bodyLength) throws Exception {
+		File testDir = getTestDirectory();
+		try {
+			SyncPerformanceTestComponent alice =
+					createComponent(new File(testDir, "alice"));
+			SyncPerformanceTestComponent bob =
+					createComponent(new File(testDir, "bob"));
+			alice.getDatabaseComponent().open(getSecretKey(), null);
+			bob.getDatabaseComponent().open(getSecretKey(), null);
+			try {
+				runTest(alice, bob, bodyLength);
+			} finally {
+				shutdown(alice.getDatabaseExecutor());
+				shutdown(bob.getDatabaseExecutor());
+				alice.getDatabaseComponent().close();
+				bob.getDatabaseComponent().close();
+			}
+		} finally {
+			deleteTestDirectory(testDir);
+		}
+	}
+
+	private static SyncPerformanceTestComponent createComponent(File dir) {
+		return DaggerSyncPerformanceTestComponent.builder()
+				.testModule(new SyncPerformanceTestComponent.TestModule(dir))
+				.build();
+	}
+
+	private static void runTest(SyncPerformanceTestComponent alice,
+			SyncPerformanceTestComponent bob, int bodyLength)
+			throws Exception {
+		// Alice and Bob are each other's contacts and share a group
+		LocalAuthor aliceAuthor = getLocalAuthor();
+		LocalAuthor bobAuthor = getLocalAuthor();
+		Group group = getGroup(getClientId(), 123);
+		ContactId bobId = addContact(alice.getDatabaseComponent(),
+				aliceAuthor, bobAuthor, group);
+		ContactId aliceId = addContact(bob.getDatabaseComponent(),
+				bobAuthor, aliceAuthor, group);
+
+		// Add the backlog to Alice's database
+		DatabaseComponent db = alice.getDatabaseComponent();
+		MessageFactory messageFactory = alice.getMessageFactory();
+		long timestamp = System.currentTimeMillis();
+		Transaction txn = db.startTransaction(false);
+		try {
+			for (int i = 0; i < MESSAGES; i++) {
+				db.addLocalMessage(txn, messageFactory.createMessage(
+						group.getId(), timestamp + i,
+						getRandomBytes(bodyLength)), new Metadata(), true);
+			}
+			db.commitTransaction(txn);
+		} finally {
+			db.endTransaction(txn);
+		}
+
+		// Count the messages as Bob stores them
+		CountDownLatch stored = new CountDownLatch(MESSAGES);
+		EventListener listener = e -> {
+			if (e instanceof MessageAddedEvent) stored.countDown();
+		};
+		EventBus eventBus = bob.getEventBus();
+		eventBus.addListener(listener, singletonList(MessageAddedEvent.class));
+
+		// Connect the nodes over the loopback interface
+		ServerSocket server =
+				new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		Socket aliceSocket = new Socket(server.getInetAddress(),
+				server.getLocalPort());
+		Socket bobSocket = server.accept();
+		server.close();
+		PeerFeatures alicePeerFeatures = new PeerFeatures();
+		PeerFeatures bobPeerFeatures = new PeerFeatures();
+		SyncSession aliceOutgoing = createOutgoingSession(alice, bobId,
+				aliceSocket, alicePeerFeatures);
+		SyncSession bobOutgoing = createOutgoingSession(bob, aliceId,
+				bobSocket, bobPeerFeatures);
+
+		// Sync until Bob has stored the backlog
+		long start = System.nanoTime();
+		Thread[] threads = {
+				start(aliceOutgoing),
+				start(createIncomingSession(alice, bobId,
+						aliceSocket.getInputStream(), alicePeerFeatures)),
+				start(bobOutgoing),
+				start(createIncomingSession(bob, aliceId,
+						bobSocket.getInputStream(), bobPeerFeatures))
+		};
+		if (!stored.await(1, MINUTES)) throw new AssertionError();
+		long duration = System.nanoTime() - start;
+		eventBus.removeListener(listener);
+
+		// Closing the outgoing sessions ends the incoming sessions
+		aliceOutgoing.interrupt();
+		bobOutgoing.interrupt();
+		for (Thread t : threads) t.join();
+		aliceSocket.close();
+		bobSocket.close();
+
+		double seconds = duration / 1000.0 / 1000.0 / 1000.0;
+		double megabytes = (double) MESSAGES * bodyLength / 1024 / 1024;
+		System.out.println(String.format(
+				"%,d byte bodies: %,.0f messages/s, %,.2f MiB/s", bodyLength,
+				MESSAGES / seconds, megabytes / seconds));
+	}
+
+	private static ContactId addContact(DatabaseComponent db,
+			LocalAuthor local, LocalAuthor remote, Group group)
+			throws Exception {
+		ContactId contactId;
+		Transaction txn = db.startTransaction(false);
+		try {
+			db.addLocalAuthor(txn, local);
+			contactId = db.addContact(txn, remote, local.getId(), true, true);
+			db.addGroup(txn, group);
+			db.setGroupVisibility(txn, contactId, group.getId(), SHARED);
+			db.commitTransaction(txn);
+		} finally {
+			db.endTransaction(txn);
+		}
+		return contactId;
+	}
+
+	private static SyncSession createOutgoingSession(
+			SyncPerformanceTestComponent c, ContactId contactId, Socket s,
+			PeerFeatures peerFeatures) throws IOException {
+		OutputStream out = s.getOutputStream();
+		return c.getSyncSessionFactory().createDuplexOutgoingSession(
+				contactId, MAX_LATENCY, MAX_IDLE_TIME, new StreamWriter() {
+
+					@Override
+					public OutputStream getOutputStream() {
+						return out;
+					}
+
+					@Override
+					public void sendEndOfStream() throws IOException {
+						out.flush();
+						s.shutdownOutput();
+					}
+				}, peerFeatures);
+	}
+
+	private static SyncSession createIncomingSession(
+			SyncPerformanceTestComponent c, ContactId contactId,
+			InputStream in, PeerFeatures peerFeatures) {
+		return c.getSyncSessionFactory().createIncomingSession(contactId, in,
+				peerFeatures);
+	}
+
+	private static void shutdown(ExecutorService executor)
+			throws InterruptedException {
+		executor.shutdown();
+		executor.awaitTermination(1, MINUTES);
+	}
+
+	private static Thread start(SyncSession session) {
+		Thread t = new Thread(() -> {
+			try {
+				session.run();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		});
+		t.start();
+		return t;
+	}
+}
@@ -0,0 +1,140 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.bramble.api.event.EventListener;
+import org.briarproject.bramble.api.identity.LocalAuthor;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.MessageFactory;
+import org.briarproject.bramble.api.sync.SyncRecordWriter;
+import org.briarproject.bramble.api.sync.SyncRecordWriterFactory;
+import org.briarproject.bramble.api.sync.SyncSession;
+import org.briarproject.bramble.api.sync.SyncSessionFactory;
+import org.briarproject.bramble.api.sync.event.MessageAddedEvent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.CountDownLatch;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
+import static org.briarproject.bramble.test.TestUtils.deleteTestDirectory;
+import static org.briarproject.bramble.test.TestUtils.getAuthor;
+import static org.briarproject.bramble.test.TestUtils.getClientId;
+import static org.briarproject.bramble.test.TestUtils.getGroup;
+import static org.briarproject.bramble.test.TestUtils.getLocalAuthor;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.test.TestUtils.getTestDirectory;
+
+/**
+ * Streams a backlog of messages from a writer thread to an
+ * {@link IncomingSession} over an in-memory pipe, and measures how quickly
+ * the messages are stored.
+ */
+// Not a JUnit test
+public class IncomingSessionPerformanceTest {
+
+	private static final int MESSAGES = 10 * 1000;
+	private static final int[] BODY_LENGTHS = {100, 1000, 10 * 1000};
+	private static final int PIPE_SIZE = 64 * 1024;
+
+	public static void main(String[] args) throws Exception {
+		for (int bodyLength : BODY_LENGTHS) runTest(bodyLength);
+	}
+
+	private static void runTest(int bodyLength) throws Exception {
+		File testDir = getTestDirectory();
+		try {
+			SyncPerformanceTestComponent component =
+					DaggerSyncPerformanceTestComponent.builder()
+							.testModule(new SyncPerformanceTestComponent
+									.TestModule(testDir))
+							.build();
+			DatabaseComponent db = component.getDatabaseComponent();
+			db.open(getSecretKey(), null);
+			try {
+				runTest(component, bodyLength);
+			} finally {
+				component.getDatabaseExecutor().shutdown();
+				db.close();
+			}
+		} finally {
+			deleteTestDirectory(testDir);
+		}
+	}
+
+	private static void runTest(SyncPerformanceTestComponent c,
+			int bodyLength) throws Exception {
+		DatabaseComponent db = c.getDatabaseComponent();
+		EventBus eventBus = c.getEventBus();
+		MessageFactory messageFactory = c.getMessageFactory();
+		SyncRecordWriterFactory recordWriterFactory =
+				c.getSyncRecordWriterFactory();
+		SyncSessionFactory syncSessionFactory = c.getSyncSessionFactory();
+
+		// Add a contact and a group shared with the contact
+		LocalAuthor localAuthor = getLocalAuthor();
+		Group group = getGroup(getClientId(), 123);
+		ContactId contactId;
+		Transaction txn = db.startTransaction(false);
+		try {
+			db.addLocalAuthor(txn, localAuthor);
+			contactId = db.addContact(txn, getAuthor(), localAuthor.getId(),
+					true, true);
+			db.addGroup(txn, group);
+			db.setGroupVisibility(txn, contactId, group.getId(), SHARED);
+			db.commitTransaction(txn);
+		} finally {
+			db.endTransaction(txn);
+		}
+
+		// Count the messages as they're stored
+		CountDownLatch stored = new CountDownLatch(MESSAGES);
+		EventListener listener = e -> {
+			if (e instanceof MessageAddedEvent) stored.countDown();
+		};
+		eventBus.addListener(listener);
+
+		// Write the backlog to the pipe from another thread
+		PipedInputStream in = new PipedInputStream(PIPE_SIZE);
+		PipedOutputStream out = new PipedOutputStream(in);
+		Thread writer = new Thread(() -> {
+			try {
+				SyncRecordWriter recordWriter =
+						recordWriterFactory.createRecordWriter(out);
+				long timestamp = System.currentTimeMillis();
+				for (int i = 0; i < MESSAGES; i++) {
+					recordWriter.writeMessage(messageFactory.createMessage(
+							group.getId(), timestamp + i,
+							getRandomBytes(bodyLength)));
+				}
+				recordWriter.flush();
+				out.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		});
+
+		// Read the backlog and wait for all the messages to be stored
+		long start = System.nanoTime();
+		writer.start();
+		SyncSession session =
+				syncSessionFactory.createIncomingSession(contactId, in);
+		session.run();
+		if (!stored.await(1, MINUTES)) throw new AssertionError();
+		long duration = System.nanoTime() - start;
+		writer.join();
+		eventBus.removeListener(listener);
+
+		double seconds = duration / 1000.0 / 1000.0 / 1000.0;
+		double megabytes = (double) MESSAGES * bodyLength / 1024 / 1024;
+		System.out.println(String.format(
+				"%,d byte bodies: %,.0f messages/s, %,.2f MiB/s", bodyLength,
+				MESSAGES / seconds, megabytes / seconds));
+	}
+}
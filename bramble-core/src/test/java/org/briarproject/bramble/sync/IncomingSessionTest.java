@@ -0,0 +1,378 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.DbRunnable;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.bramble.api.sync.Features;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.PeerFeatures;
+import org.briarproject.bramble.api.sync.SyncRecordReader;
+import org.briarproject.bramble.api.sync.event.IncomingSessionBlockedEvent;
+import org.briarproject.bramble.api.sync.event.ReconciliationFinishedEvent;
+import org.briarproject.bramble.api.sync.event.SketchRequestedEvent;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.RunTransactionAction;
+import org.hamcrest.Description;
+import org.hamcrest.Matcher;
+import org.hamcrest.TypeSafeMatcher;
+import org.jmock.Expectations;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+import static java.util.Collections.singletonList;
+import static org.briarproject.bramble.api.sync.SyncConstants.FEATURE_COMPRESSED_MESSAGES;
+import static org.briarproject.bramble.api.sync.SyncConstants.FEATURE_SKETCHES;
+import static org.briarproject.bramble.sync.IncomingSession.INITIAL_SKETCH_CELLS;
+import static org.briarproject.bramble.test.TestUtils.getMessage;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IncomingSessionTest extends BrambleMockTestCase {
+
+	{
+		context.setThreadingPolicy(new Synchroniser());
+	}
+
+	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
+	private final EventBus eventBus = context.mock(EventBus.class);
+	private final SyncRecordReader recordReader =
+			context.mock(SyncRecordReader.class);
+
+	private final List<Runnable> dbTasks = new CopyOnWriteArrayList<>();
+	private final Executor dbExecutor = dbTasks::add;
+	private final ContactId contactId = new ContactId(234);
+	private final GroupId groupId = new GroupId(getRandomId());
+	private final Message message = getMessage(groupId);
+	private final Message message1 = getMessage(groupId);
+	private final Message message2 = getMessage(groupId);
+	private final Transaction txn = new Transaction(null, false);
+	private final Transaction txn1 = new Transaction(null, false);
+	private final Transaction txn2 = new Transaction(null, false);
+	private final PeerFeatures peerFeatures = new PeerFeatures();
+
+	@Test
+	public void testFeaturesAreRecorded() throws Exception {
+		IncomingSession session = new IncomingSession(db, dbExecutor,
+				eventBus, contactId, recordReader, peerFeatures,
+				Integer.MAX_VALUE, false);
+		expectReadFeatures(session,
+				singletonList(FEATURE_COMPRESSED_MESSAGES));
+
+		assertFalse(peerFeatures.isSupported(FEATURE_COMPRESSED_MESSAGES));
+		session.run();
+		assertTrue(peerFeatures.isSupported(FEATURE_COMPRESSED_MESSAGES));
+		// The database should not be used
+		assertTrue(dbTasks.isEmpty());
+	}
+
+	@Test
+	public void testSketchIsRequestedIfPeerSupportsSketches()
+			throws Exception {
+		IncomingSession session = new IncomingSession(db, dbExecutor,
+				eventBus, contactId, recordReader, peerFeatures,
+				Integer.MAX_VALUE, true);
+		expectReadFeatures(session, singletonList(FEATURE_SKETCHES));
+
+		context.checking(new Expectations() {{
+			oneOf(eventBus).broadcast(new SketchRequestedEvent(contactId,
+					INITIAL_SKETCH_CELLS));
+		}});
+
+		session.run();
+	}
+
+	@Test
+	public void testReconciliationFinishesIfPeerDoesNotSupportSketches()
+			throws Exception {
+		IncomingSession session = new IncomingSession(db, dbExecutor,
+				eventBus, contactId, recordReader, peerFeatures,
+				Integer.MAX_VALUE, true);
+		expectReadFeatures(session,
+				singletonList(FEATURE_COMPRESSED_MESSAGES));
+
+		context.checking(new Expectations() {{
+			oneOf(eventBus).broadcast(
+					new ReconciliationFinishedEvent(contactId));
+		}});
+
+		session.run();
+	}
+
+	@Test
+	public void testRecordsReadWhileWaitingForDatabaseAreBatched()
+			throws Exception {
+		IncomingSession session = new IncomingSession(db, dbExecutor,
+				eventBus, contactId, recordReader, peerFeatures,
+				Integer.MAX_VALUE, false);
+
+		context.checking(new Expectations() {{
+			oneOf(eventBus).addListener(with(session),
+					with(any(Collection.class)));
+			// Read two messages
+			exactly(3).of(recordReader).eof();
+			will(onConsecutiveCalls(returnValue(false), returnValue(false),
+					returnValue(true)));
+			exactly(2).of(recordReader).hasAck();
+			will(returnValue(false));
+			exactly(2).of(recordReader).hasMessage();
+			will(returnValue(true));
+			exactly(2).of(recordReader).readMessage();
+			will(onConsecutiveCalls(returnValue(message),
+					returnValue(message1)));
+			oneOf(eventBus).removeListener(session);
+		}});
+
+		session.run();
+
+		// Only one task should have been submitted to the executor
+		assertEquals(1, dbTasks.size());
+
+		context.checking(new Expectations() {{
+			// Both messages should be received in a single transaction
+			oneOf(db).transaction(with(false), with(any(DbRunnable.class)));
+			will(new RunTransactionAction(txn));
+			oneOf(db).receiveMessage(txn, contactId, message);
+			oneOf(db).receiveMessage(txn, contactId, message1);
+		}});
+
+		dbTasks.remove(0).run();
+		assertTrue(dbTasks.isEmpty());
+		assertEquals(0, session.getTimesBlocked());
+	}
+
+	@Test
+	public void testRecordsBeforeFailedRecordAreKept() throws Exception {
+		IncomingSession session = new IncomingSession(db, dbExecutor,
+				eventBus, contactId, recordReader, peerFeatures,
+				Integer.MAX_VALUE, false);
+
+		context.checking(new Expectations() {{
+			oneOf(eventBus).addListener(with(session),
+					with(any(Collection.class)));
+			// Read three messages
+			exactly(4).of(recordReader).eof();
+			will(onConsecutiveCalls(returnValue(false), returnValue(false),
+					returnValue(false), returnValue(true)));
+			exactly(3).of(recordReader).hasAck();
+			will(returnValue(false));
+			exactly(3).of(recordReader).hasMessage();
+			will(returnValue(true));
+			exactly(3).of(recordReader).readMessage();
+			will(onConsecutiveCalls(returnValue(message),
+					returnValue(message1), returnValue(message2)));
+			oneOf(eventBus).removeListener(session);
+		}});
+
+		session.run();
+		assertEquals(1, dbTasks.size());
+
+		context.checking(new Expectations() {{
+			// Receive the batch - the second message fails
+			oneOf(db).transaction(with(false), with(any(DbRunnable.class)));
+			will(new RunTransactionAction(txn));
+			oneOf(db).receiveMessage(txn, contactId, message);
+			oneOf(db).receiveMessage(txn, contactId, message1);
+			will(throwException(new DbException()));
+			// Receive the first message in its own transaction
+			oneOf(db).transaction(with(false), with(any(DbRunnable.class)));
+			will(new RunTransactionAction(txn1));
+			oneOf(db).receiveMessage(txn1, contactId, message);
+			// Receive the second message in its own transaction: it still
+			// fails, so the third message is not received
+			oneOf(db).transaction(with(false), with(any(DbRunnable.class)));
+			will(new RunTransactionAction(txn2));
+			oneOf(db).receiveMessage(txn2, contactId, message1);
+			will(throwException(new DbException()));
+		}});
+
+		dbTasks.remove(0).run();
+		// No further batches should have been scheduled
+		assertTrue(dbTasks.isEmpty());
+	}
+
+	@Test
+	public void testStopsReadingUntilDatabaseCatchesUp() throws Exception {
+		// Allow one byte in flight, so the session blocks after each record
+		IncomingSession session = new IncomingSession(db, dbExecutor,
+				eventBus, contactId, recordReader, peerFeatures, 1, false);
+
+		context.checking(new Expectations() {{
+			oneOf(eventBus).addListener(with(session),
+					with(any(Collection.class)));
+			// Read one message
+			oneOf(recordReader).eof();
+			will(returnValue(false));
+			oneOf(recordReader).hasAck();
+			will(returnValue(false));
+			oneOf(recordReader).hasMessage();
+			will(returnValue(true));
+			oneOf(recordReader).readMessage();
+			will(returnValue(message));
+		}});
+
+		Thread reader = startSession(session);
+		waitUntilBlocked(session);
+		context.assertIsSatisfied();
+		assertTrue(reader.isAlive());
+
+		context.checking(new Expectations() {{
+			// Receive the message
+			oneOf(db).transaction(with(false), with(any(DbRunnable.class)));
+			will(new RunTransactionAction(txn));
+			oneOf(db).receiveMessage(txn, contactId, message);
+			// Reading resumes and reaches the end of the stream
+			oneOf(recordReader).eof();
+			will(returnValue(true));
+			oneOf(eventBus).removeListener(session);
+			// The session reports that it blocked
+			oneOf(eventBus).broadcast(with(blockedEvent(1)));
+		}});
+
+		assertEquals(1, dbTasks.size());
+		dbTasks.remove(0).run();
+		reader.join(5000);
+		assertFalse(reader.isAlive());
+		assertEquals(1, session.getTimesBlocked());
+	}
+
+	@Test
+	public void testInterruptWakesBlockedSession() throws Exception {
+		IncomingSession session = new IncomingSession(db, dbExecutor,
+				eventBus, contactId, recordReader, peerFeatures, 1, false);
+
+		context.checking(new Expectations() {{
+			oneOf(eventBus).addListener(with(session),
+					with(any(Collection.class)));
+			// Read one message
+			oneOf(recordReader).eof();
+			will(returnValue(false));
+			oneOf(recordReader).hasAck();
+			will(returnValue(false));
+			oneOf(recordReader).hasMessage();
+			will(returnValue(true));
+			oneOf(recordReader).readMessage();
+			will(returnValue(message));
+			// No more records should be read after the interrupt
+			oneOf(eventBus).removeListener(session);
+			oneOf(eventBus).broadcast(with(blockedEvent(1)));
+		}});
+
+		Thread reader = startSession(session);
+		waitUntilBlocked(session);
+		session.interrupt();
+		reader.join(5000);
+		assertFalse(reader.isAlive());
+		assertEquals(1, session.getTimesBlocked());
+	}
+
+	@Test
+	public void testRuntimeExceptionWakesBlockedSession() throws Exception {
+		IncomingSession session = new IncomingSession(db, dbExecutor,
+				eventBus, contactId, recordReader, peerFeatures, 1, false);
+
+		context.checking(new Expectations() {{
+			oneOf(eventBus).addListener(with(session),
+					with(any(Collection.class)));
+			// Read one message
+			oneOf(recordReader).eof();
+			will(returnValue(false));
+			oneOf(recordReader).hasAck();
+			will(returnValue(false));
+			oneOf(recordReader).hasMessage();
+			will(returnValue(true));
+			oneOf(recordReader).readMessage();
+			will(returnValue(message));
+		}});
+
+		Thread reader = startSession(session);
+		waitUntilBlocked(session);
+		context.assertIsSatisfied();
+
+		context.checking(new Expectations() {{
+			// Receiving the message throws an unchecked exception
+			oneOf(db).transaction(with(false), with(any(DbRunnable.class)));
+			will(throwException(new IllegalStateException()));
+			// The session stops reading
+			oneOf(eventBus).removeListener(session);
+			oneOf(eventBus).broadcast(with(blockedEvent(1)));
+		}});
+
+		assertEquals(1, dbTasks.size());
+		dbTasks.remove(0).run();
+		reader.join(5000);
+		assertFalse(reader.isAlive());
+		// No further batches should have been scheduled
+		assertTrue(dbTasks.isEmpty());
+	}
+
+	private void expectReadFeatures(IncomingSession session,
+			Collection<Byte> features) throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(eventBus).addListener(with(session),
+					with(any(Collection.class)));
+			// Read a features record
+			exactly(2).of(recordReader).eof();
+			will(onConsecutiveCalls(returnValue(false), returnValue(true)));
+			oneOf(recordReader).hasAck();
+			will(returnValue(false));
+			oneOf(recordReader).hasMessage();
+			will(returnValue(false));
+			oneOf(recordReader).hasOffer();
+			will(returnValue(false));
+			oneOf(recordReader).hasRequest();
+			will(returnValue(false));
+			oneOf(recordReader).hasFeatures();
+			will(returnValue(true));
+			oneOf(recordReader).readFeatures();
+			will(returnValue(new Features(features)));
+			oneOf(eventBus).removeListener(session);
+		}});
+	}
+
+	private Matcher<IncomingSessionBlockedEvent> blockedEvent(
+			long timesBlocked) {
+		return new TypeSafeMatcher<IncomingSessionBlockedEvent>() {
+			@Override
+			protected boolean matchesSafely(IncomingSessionBlockedEvent e) {
+				return e.getContactId().equals(contactId)
+						&& e.getTimesBlocked() == timesBlocked
+						&& e.getTimeBlocked() >= 0;
+			}
+
+			@Override
+			public void describeTo(Description description) {
+				description.appendText("blocked " + timesBlocked + " times");
+			}
+		};
+	}
+
+	private Thread startSession(IncomingSession session) {
+		Thread t = new Thread(() -> {
+			try {
+				session.run();
+			} catch (Exception e) {
+				throw new AssertionError(e);
+			}
+		});
+		t.start();
+		return t;
+	}
+
+	private void waitUntilBlocked(IncomingSession session)
+			throws InterruptedException {
+		for (int i = 0; i < 500 && session.getTimesBlocked() == 0; i++)
+			Thread.sleep(10);
+		assertEquals(1, session.getTimesBlocked());
+	}
+}
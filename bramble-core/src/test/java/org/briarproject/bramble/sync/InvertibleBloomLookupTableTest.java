@@ -0,0 +1,74 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InvertibleBloomLookupTableTest extends BrambleTestCase {
+
+	private static final int CELLS = 90;
+
+	@Test
+	public void testDifferencesAreRecovered() throws Exception {
+		Set<MessageId> common = getMessageIds(1000);
+		Set<MessageId> localOnly = getMessageIds(5);
+		Set<MessageId> remoteOnly = getMessageIds(5);
+		InvertibleBloomLookupTable local = createTable(common, localOnly);
+		InvertibleBloomLookupTable remote = createTable(common, remoteOnly);
+		// Encode and decode the remote table, as if it was sent by a peer
+		remote = InvertibleBloomLookupTable.decode(remote.encode());
+
+		local.subtract(remote);
+		Set<MessageId> added = new HashSet<>(), subtracted = new HashSet<>();
+		assertTrue(local.peel(added, subtracted));
+		assertEquals(localOnly, added);
+		assertEquals(remoteOnly, subtracted);
+	}
+
+	@Test
+	public void testIdenticalSetsHaveNoDifferences() {
+		Set<MessageId> common = getMessageIds(1000);
+		InvertibleBloomLookupTable local = createTable(common);
+		local.subtract(createTable(common));
+		List<MessageId> added = new ArrayList<>();
+		List<MessageId> subtracted = new ArrayList<>();
+		assertTrue(local.peel(added, subtracted));
+		assertTrue(added.isEmpty());
+		assertTrue(subtracted.isEmpty());
+	}
+
+	@Test
+	public void testTooManyDifferencesAreDetected() {
+		Set<MessageId> localOnly = getMessageIds(CELLS);
+		Set<MessageId> remoteOnly = getMessageIds(CELLS);
+		InvertibleBloomLookupTable local = createTable(localOnly);
+		local.subtract(createTable(remoteOnly));
+		List<MessageId> added = new ArrayList<>();
+		List<MessageId> subtracted = new ArrayList<>();
+		assertFalse(local.peel(added, subtracted));
+	}
+
+	@SafeVarargs
+	private final InvertibleBloomLookupTable createTable(
+			Set<MessageId>... sets) {
+		InvertibleBloomLookupTable t = new InvertibleBloomLookupTable(CELLS);
+		for (Set<MessageId> set : sets) for (MessageId m : set) t.add(m);
+		return t;
+	}
+
+	private Set<MessageId> getMessageIds(int size) {
+		Set<MessageId> ids = new HashSet<>();
+		for (int i = 0; i < size; i++) ids.add(new MessageId(getRandomId()));
+		return ids;
+	}
+}
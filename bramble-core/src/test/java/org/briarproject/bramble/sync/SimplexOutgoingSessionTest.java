@@ -15,6 +15,7 @@ import org.briarproject.bramble.test.ImmediateExecutor;
 import org.jmock.Expectations;
 import org.junit.Test;
 
+import java.util.Collection;
 import java.util.concurrent.Executor;
 
 import static java.util.Collections.singletonList;
@@ -47,7 +48,8 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 
 		context.checking(new Expectations() {{
 			// Add listener
-			oneOf(eventBus).addListener(session);
+			oneOf(eventBus).addListener(with(session),
+					with(any(Collection.class)));
 			// No acks to send
 			oneOf(db).startTransaction(false);
 			will(returnValue(noAckTxn));
@@ -85,7 +87,8 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 
 		context.checking(new Expectations() {{
 			// Add listener
-			oneOf(eventBus).addListener(session);
+			oneOf(eventBus).addListener(with(session),
+					with(any(Collection.class)));
 			// One ack to send
 			oneOf(db).startTransaction(false);
 			will(returnValue(ackTxn));
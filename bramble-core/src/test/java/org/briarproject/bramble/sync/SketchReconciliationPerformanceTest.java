@@ -0,0 +1,283 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.bramble.api.event.EventListener;
+import org.briarproject.bramble.api.identity.LocalAuthor;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageFactory;
+import org.briarproject.bramble.api.sync.PeerFeatures;
+import org.briarproject.bramble.api.sync.SyncSession;
+import org.briarproject.bramble.api.sync.SyncSessionFactory;
+import org.briarproject.bramble.api.sync.event.MessageAddedEvent;
+import org.briarproject.bramble.api.transport.StreamWriter;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
+import static org.briarproject.bramble.test.TestUtils.deleteTestDirectory;
+import static org.briarproject.bramble.test.TestUtils.getClientId;
+import static org.briarproject.bramble.test.TestUtils.getGroup;
+import static org.briarproject.bramble.test.TestUtils.getLocalAuthor;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.test.TestUtils.getTestDirectory;
+
+/**
+ * Simulates two nodes that share a large group, each of which has a few
+ * messages the other is missing. The nodes are connected with duplex sync
+ * sessions over a loopback TCP connection, and the number of bytes sent
+ * until the nodes are in sync is measured with and without sketches.
+ */
+// Not a JUnit test
+public class SketchReconciliationPerformanceTest {
+
+	private static final int COMMON_MESSAGES = 2000;
+	private static final int ALICE_ONLY_MESSAGES = 20;
+	private static final int BOB_ONLY_MESSAGES = 10;
+	private static final int BODY_LENGTH = 100;
+	private static final int MAX_LATENCY = 60 * 1000;
+	private static final int MAX_IDLE_TIME = 30 * 1000;
+	private static final int MAX_BYTES_IN_FLIGHT = 4 * 1024 * 1024;
+	// The nodes are considered to be in sync when no bytes have been sent
+	// for this long after the missing messages have been stored
+	private static final int QUIET_TIME = 2000;
+
+	public static void main(String[] args) throws Exception {
+		runTest(false);
+		runTest(true);
+	}
+
+	private static void runTest(boolean sketchesEnabled) throws Exception {
+		File testDir = getTestDirectory();
+		try {
+			SyncPerformanceTestComponent alice =
+					createComponent(new File(testDir, "alice"));
+			SyncPerformanceTestComponent bob =
+					createComponent(new File(testDir, "bob"));
+			alice.getDatabaseComponent().open(getSecretKey(), null);
+			bob.getDatabaseComponent().open(getSecretKey(), null);
+			try {
+				runTest(alice, bob, sketchesEnabled);
+			} finally {
+				shutdown(alice.getDatabaseExecutor());
+				shutdown(bob.getDatabaseExecutor());
+				alice.getDatabaseComponent().close();
+				bob.getDatabaseComponent().close();
+			}
+		} finally {
+			deleteTestDirectory(testDir);
+		}
+	}
+
+	private static SyncPerformanceTestComponent createComponent(File dir) {
+		return DaggerSyncPerformanceTestComponent.builder()
+				.testModule(new SyncPerformanceTestComponent.TestModule(dir))
+				.build();
+	}
+
+	private static void runTest(SyncPerformanceTestComponent alice,
+			SyncPerformanceTestComponent bob, boolean sketchesEnabled)
+			throws Exception {
+		// Alice and Bob are each other's contacts and share a group
+		LocalAuthor aliceAuthor = getLocalAuthor();
+		LocalAuthor bobAuthor = getLocalAuthor();
+		Group group = getGroup(getClientId(), 123);
+		ContactId bobId = addContact(alice.getDatabaseComponent(),
+				aliceAuthor, bobAuthor, group);
+		ContactId aliceId = addContact(bob.getDatabaseComponent(),
+				bobAuthor, aliceAuthor, group);
+
+		// Both nodes have the common messages, but neither node knows that
+		// the other has them
+		MessageFactory messageFactory = alice.getMessageFactory();
+		long timestamp = System.currentTimeMillis();
+		List<Message> common = new ArrayList<>();
+		for (int i = 0; i < COMMON_MESSAGES; i++) {
+			common.add(messageFactory.createMessage(group.getId(),
+					timestamp + i, getRandomBytes(BODY_LENGTH)));
+		}
+		addMessages(alice, common, ALICE_ONLY_MESSAGES, group, timestamp);
+		addMessages(bob, common, BOB_ONLY_MESSAGES, group, timestamp);
+
+		// Count the messages as each node stores the other's messages
+		CountDownLatch stored =
+				new CountDownLatch(ALICE_ONLY_MESSAGES + BOB_ONLY_MESSAGES);
+		EventListener listener = e -> {
+			if (e instanceof MessageAddedEvent) stored.countDown();
+		};
+		EventBus aliceEventBus = alice.getEventBus();
+		EventBus bobEventBus = bob.getEventBus();
+		aliceEventBus.addListener(listener,
+				singletonList(MessageAddedEvent.class));
+		bobEventBus.addListener(listener,
+				singletonList(MessageAddedEvent.class));
+
+		// Connect the nodes over the loopback interface
+		ServerSocket server =
+				new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		Socket aliceSocket = new Socket(server.getInetAddress(),
+				server.getLocalPort());
+		Socket bobSocket = server.accept();
+		server.close();
+		AtomicLong aliceBytes = new AtomicLong(), bobBytes = new AtomicLong();
+		SyncSessionFactory aliceFactory =
+				createSessionFactory(alice, sketchesEnabled);
+		SyncSessionFactory bobFactory =
+				createSessionFactory(bob, sketchesEnabled);
+		PeerFeatures alicePeerFeatures = new PeerFeatures();
+		PeerFeatures bobPeerFeatures = new PeerFeatures();
+		SyncSession aliceOutgoing = createOutgoingSession(aliceFactory, bobId,
+				aliceSocket, aliceBytes, alicePeerFeatures);
+		SyncSession bobOutgoing = createOutgoingSession(bobFactory, aliceId,
+				bobSocket, bobBytes, bobPeerFeatures);
+
+		// Sync until each node has stored the other's messages and the
+		// nodes have stopped sending records
+		long start = System.nanoTime();
+		Thread[] threads = {
+				start(aliceOutgoing),
+				start(aliceFactory.createIncomingSession(bobId,
+						aliceSocket.getInputStream(), alicePeerFeatures)),
+				start(bobOutgoing),
+				start(bobFactory.createIncomingSession(aliceId,
+						bobSocket.getInputStream(), bobPeerFeatures))
+		};
+		if (!stored.await(1, MINUTES)) throw new AssertionError();
+		long duration = System.nanoTime() - start;
+		long total = aliceBytes.get() + bobBytes.get(), previous;
+		do {
+			previous = total;
+			Thread.sleep(QUIET_TIME);
+			total = aliceBytes.get() + bobBytes.get();
+		} while (total != previous);
+		aliceEventBus.removeListener(listener);
+		bobEventBus.removeListener(listener);
+
+		// Closing the outgoing sessions ends the incoming sessions
+		aliceOutgoing.interrupt();
+		bobOutgoing.interrupt();
+		for (Thread t : threads) t.join();
+		aliceSocket.close();
+		bobSocket.close();
+
+		System.out.println(String.format("Sketches %s: %,d bytes sent,"
+						+ " missing messages stored in %,d ms",
+				sketchesEnabled ? "enabled" : "disabled", total,
+				duration / 1000 / 1000));
+	}
+
+	private static ContactId addContact(DatabaseComponent db,
+			LocalAuthor local, LocalAuthor remote, Group group)
+			throws Exception {
+		ContactId contactId;
+		Transaction txn = db.startTransaction(false);
+		try {
+			db.addLocalAuthor(txn, local);
+			contactId = db.addContact(txn, remote, local.getId(), true, true);
+			db.addGroup(txn, group);
+			db.setGroupVisibility(txn, contactId, group.getId(), SHARED);
+			db.commitTransaction(txn);
+		} finally {
+			db.endTransaction(txn);
+		}
+		return contactId;
+	}
+
+	private static void addMessages(SyncPerformanceTestComponent c,
+			List<Message> common, int unique, Group group, long timestamp)
+			throws Exception {
+		DatabaseComponent db = c.getDatabaseComponent();
+		MessageFactory messageFactory = c.getMessageFactory();
+		Transaction txn = db.startTransaction(false);
+		try {
+			for (Message m : common)
+				db.addLocalMessage(txn, m, new Metadata(), true);
+			for (int i = 0; i < unique; i++) {
+				db.addLocalMessage(txn, messageFactory.createMessage(
+						group.getId(), timestamp + common.size() + i,
+						getRandomBytes(BODY_LENGTH)), new Metadata(), true);
+			}
+			db.commitTransaction(txn);
+		} finally {
+			db.endTransaction(txn);
+		}
+	}
+
+	private static SyncSessionFactory createSessionFactory(
+			SyncPerformanceTestComponent c, boolean sketchesEnabled) {
+		return new SyncSessionFactoryImpl(c.getDatabaseComponent(),
+				c.getDatabaseExecutor(), c.getEventBus(), c.getClock(),
+				c.getSyncRecordReaderFactory(),
+				c.getSyncRecordWriterFactory(), MAX_BYTES_IN_FLIGHT,
+				sketchesEnabled);
+	}
+
+	private static SyncSession createOutgoingSession(
+			SyncSessionFactory factory, ContactId contactId, Socket s,
+			AtomicLong bytes, PeerFeatures peerFeatures) throws IOException {
+		OutputStream out = new FilterOutputStream(s.getOutputStream()) {
+
+			@Override
+			public void write(int b) throws IOException {
+				out.write(b);
+				bytes.incrementAndGet();
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+				bytes.addAndGet(len);
+			}
+		};
+		return factory.createDuplexOutgoingSession(contactId, MAX_LATENCY,
+				MAX_IDLE_TIME, new StreamWriter() {
+
+					@Override
+					public OutputStream getOutputStream() {
+						return out;
+					}
+
+					@Override
+					public void sendEndOfStream() throws IOException {
+						out.flush();
+						s.shutdownOutput();
+					}
+				}, peerFeatures);
+	}
+
+	private static void shutdown(ExecutorService executor)
+			throws InterruptedException {
+		executor.shutdown();
+		executor.awaitTermination(1, MINUTES);
+	}
+
+	private static Thread start(SyncSession session) {
+		Thread t = new Thread(() -> {
+			try {
+				session.run();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		});
+		t.start();
+		return t;
+	}
+}
@@ -0,0 +1,96 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DatabaseConfig;
+import org.briarproject.bramble.api.db.DatabaseExecutor;
+import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.bramble.api.sync.MessageFactory;
+import org.briarproject.bramble.api.sync.SyncRecordReaderFactory;
+import org.briarproject.bramble.api.sync.SyncRecordWriterFactory;
+import org.briarproject.bramble.api.sync.SyncScheduler;
+import org.briarproject.bramble.api.sync.SyncSessionFactory;
+import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.crypto.CryptoModule;
+import org.briarproject.bramble.db.DatabaseModule;
+import org.briarproject.bramble.event.EventModule;
+import org.briarproject.bramble.record.RecordModule;
+import org.briarproject.bramble.system.SystemModule;
+import org.briarproject.bramble.test.TestDatabaseConfig;
+import org.briarproject.bramble.test.TestLifecycleModule;
+import org.briarproject.bramble.test.TestSecureRandomModule;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.inject.Singleton;
+
+import dagger.Component;
+import dagger.Module;
+import dagger.Provides;
+
+@Singleton
+@Component(modules = {
+		SyncPerformanceTestComponent.TestModule.class,
+		TestLifecycleModule.class,
+		TestSecureRandomModule.class,
+		CryptoModule.class,
+		DatabaseModule.class,
+		EventModule.class,
+		RecordModule.class,
+		SyncModule.class,
+		SystemModule.class
+})
+interface SyncPerformanceTestComponent {
+
+	Clock getClock();
+
+	DatabaseComponent getDatabaseComponent();
+
+	@DatabaseExecutor
+	ExecutorService getDatabaseExecutor();
+
+	EventBus getEventBus();
+
+	MessageFactory getMessageFactory();
+
+	SyncRecordReaderFactory getSyncRecordReaderFactory();
+
+	SyncRecordWriterFactory getSyncRecordWriterFactory();
+
+	SyncScheduler getSyncScheduler();
+
+	SyncSessionFactory getSyncSessionFactory();
+
+	@Module
+	class TestModule {
+
+		private final DatabaseConfig config;
+
+		TestModule(File dir) {
+			config = new TestDatabaseConfig(dir, Long.MAX_VALUE);
+		}
+
+		@Provides
+		DatabaseConfig provideDatabaseConfig() {
+			return config;
+		}
+
+		@Provides
+		@Singleton
+		@DatabaseExecutor
+		ExecutorService provideDatabaseExecutorService() {
+			// Like the real database executor, run one task at a time
+			return Executors.newSingleThreadExecutor();
+		}
+
+		@Provides
+		@Singleton
+		@DatabaseExecutor
+		Executor provideDatabaseExecutor(
+				@DatabaseExecutor ExecutorService dbExecutor) {
+			return dbExecutor;
+		}
+	}
+}
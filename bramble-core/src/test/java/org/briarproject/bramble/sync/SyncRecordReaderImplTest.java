@@ -5,9 +5,13 @@ import org.briarproject.bramble.api.UniqueId;
 import org.briarproject.bramble.api.record.Record;
 import org.briarproject.bramble.api.record.RecordReader;
 import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.Features;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Request;
+import org.briarproject.bramble.api.sync.Sketch;
 import org.briarproject.bramble.api.sync.SyncRecordReader;
 import org.briarproject.bramble.test.BrambleMockTestCase;
 import org.jmock.Expectations;
@@ -15,15 +19,30 @@ import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
+import java.util.Arrays;
+import java.util.zip.Deflater;
 
 import static org.briarproject.bramble.api.record.Record.MAX_RECORD_PAYLOAD_BYTES;
 import static org.briarproject.bramble.api.sync.RecordTypes.ACK;
+import static org.briarproject.bramble.api.sync.RecordTypes.COMPRESSED_MESSAGES;
+import static org.briarproject.bramble.api.sync.RecordTypes.FEATURES;
 import static org.briarproject.bramble.api.sync.RecordTypes.OFFER;
 import static org.briarproject.bramble.api.sync.RecordTypes.REQUEST;
+import static org.briarproject.bramble.api.sync.RecordTypes.SKETCH;
+import static org.briarproject.bramble.api.sync.SyncConstants.FEATURE_COMPRESSED_MESSAGES;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_DECOMPRESSED_PAYLOAD_BYTES;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
+import static org.briarproject.bramble.api.sync.SyncConstants.MESSAGE_HEADER_LENGTH;
 import static org.briarproject.bramble.api.sync.SyncConstants.PROTOCOL_VERSION;
+import static org.briarproject.bramble.sync.InvertibleBloomLookupTable.CELL_LENGTH;
+import static org.briarproject.bramble.sync.InvertibleBloomLookupTable.PARTITIONS;
+import static org.briarproject.bramble.test.TestUtils.getMessage;
 import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
 import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.briarproject.bramble.util.ByteUtils.INT_16_BYTES;
+import static org.briarproject.bramble.util.ByteUtils.writeUint16;
+import static org.briarproject.bramble.util.ByteUtils.writeUint64;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -129,10 +148,10 @@ public class SyncRecordReaderImplTest extends BrambleMockTestCase {
 
 	@Test
 	public void testSkipsUnrecognisedRecordTypes() throws Exception {
-		byte type1 = (byte) (REQUEST + 1);
+		byte type1 = (byte) (SKETCH + 1);
 		byte[] payload1 = getRandomBytes(123);
 		Record unknownRecord1 = new Record(PROTOCOL_VERSION, type1, payload1);
-		byte type2 = (byte) (REQUEST + 2);
+		byte type2 = (byte) (SKETCH + 2);
 		byte[] payload2 = new byte[0];
 		Record unknownRecord2 = new Record(PROTOCOL_VERSION, type2, payload2);
 		Record ackRecord = createAck();
@@ -154,6 +173,151 @@ public class SyncRecordReaderImplTest extends BrambleMockTestCase {
 		assertEquals(MAX_MESSAGE_IDS, a.getMessageIds().size());
 	}
 
+	@Test
+	public void testReadsFeatures() throws Exception {
+		byte[] payload = new byte[] {FEATURE_COMPRESSED_MESSAGES, 123};
+		expectReadRecord(new Record(PROTOCOL_VERSION, FEATURES, payload));
+
+		SyncRecordReader reader =
+				new SyncRecordReaderImpl(messageFactory, recordReader);
+		assertTrue(reader.hasFeatures());
+		Features f = reader.readFeatures();
+		assertEquals(Arrays.asList(FEATURE_COMPRESSED_MESSAGES, (byte) 123),
+				f.getFeatures());
+	}
+
+	@Test
+	public void testReadsSketch() throws Exception {
+		byte[] payload = getRandomBytes(CELL_LENGTH * PARTITIONS * 10);
+		expectReadRecord(new Record(PROTOCOL_VERSION, SKETCH, payload));
+
+		SyncRecordReader reader =
+				new SyncRecordReaderImpl(messageFactory, recordReader);
+		assertTrue(reader.hasSketch());
+		Sketch s = reader.readSketch();
+		assertArrayEquals(payload, s.getTable());
+	}
+
+	@Test(expected = FormatException.class)
+	public void testFormatExceptionIfSketchHasPartialCell() throws Exception {
+		byte[] payload = getRandomBytes(CELL_LENGTH * PARTITIONS + 1);
+		expectReadRecord(new Record(PROTOCOL_VERSION, SKETCH, payload));
+
+		SyncRecordReader reader =
+				new SyncRecordReaderImpl(messageFactory, recordReader);
+		reader.readSketch();
+	}
+
+	@Test(expected = FormatException.class)
+	public void testFormatExceptionIfSketchHasPartialPartition()
+			throws Exception {
+		byte[] payload = getRandomBytes(CELL_LENGTH * (PARTITIONS + 1));
+		expectReadRecord(new Record(PROTOCOL_VERSION, SKETCH, payload));
+
+		SyncRecordReader reader =
+				new SyncRecordReaderImpl(messageFactory, recordReader);
+		reader.readSketch();
+	}
+
+	@Test
+	public void testReadsCompressedMessages() throws Exception {
+		Message message = getMessage(new GroupId(getRandomId()));
+		Message message1 = getMessage(new GroupId(getRandomId()));
+		byte[] raw = getRawMessage(123), raw1 = getRawMessage(234);
+		byte[] payload = compress(concat(getLength(raw), raw,
+				getLength(raw1), raw1));
+		expectReadRecord(new Record(PROTOCOL_VERSION, COMPRESSED_MESSAGES,
+				payload));
+
+		context.checking(new Expectations() {{
+			oneOf(messageFactory).createMessage(with(equal(raw)));
+			will(returnValue(message));
+			oneOf(messageFactory).createMessage(with(equal(raw1)));
+			will(returnValue(message1));
+			oneOf(recordReader).readRecord();
+			will(throwException(new EOFException()));
+		}});
+
+		SyncRecordReader reader =
+				new SyncRecordReaderImpl(messageFactory, recordReader);
+		// The messages should be read as though they were separate records
+		assertTrue(reader.hasMessage());
+		assertEquals(message, reader.readMessage());
+		assertTrue(reader.hasMessage());
+		assertEquals(message1, reader.readMessage());
+		assertTrue(reader.eof());
+	}
+
+	@Test(expected = FormatException.class)
+	public void testFormatExceptionIfCompressedPayloadIsTooLong()
+			throws Exception {
+		byte[] payload = compress(new byte[MAX_DECOMPRESSED_PAYLOAD_BYTES + 1]);
+		expectReadRecord(new Record(PROTOCOL_VERSION, COMPRESSED_MESSAGES,
+				payload));
+
+		SyncRecordReader reader =
+				new SyncRecordReaderImpl(messageFactory, recordReader);
+		reader.eof();
+	}
+
+	@Test(expected = FormatException.class)
+	public void testFormatExceptionIfCompressedPayloadIsInvalid()
+			throws Exception {
+		byte[] payload = getRandomBytes(123);
+		expectReadRecord(new Record(PROTOCOL_VERSION, COMPRESSED_MESSAGES,
+				payload));
+
+		SyncRecordReader reader =
+				new SyncRecordReaderImpl(messageFactory, recordReader);
+		reader.eof();
+	}
+
+	@Test(expected = FormatException.class)
+	public void testFormatExceptionIfCompressedMessageIsTruncated()
+			throws Exception {
+		byte[] raw = getRawMessage(123);
+		byte[] truncated = Arrays.copyOf(raw, raw.length - 1);
+		byte[] payload = compress(concat(getLength(raw), truncated));
+		expectReadRecord(new Record(PROTOCOL_VERSION, COMPRESSED_MESSAGES,
+				payload));
+
+		SyncRecordReader reader =
+				new SyncRecordReaderImpl(messageFactory, recordReader);
+		reader.eof();
+	}
+
+	private byte[] getRawMessage(int bodyLength) {
+		byte[] raw = getRandomBytes(MESSAGE_HEADER_LENGTH + bodyLength);
+		writeUint64(System.currentTimeMillis(), raw, UniqueId.LENGTH);
+		return raw;
+	}
+
+	private byte[] getLength(byte[] raw) {
+		byte[] length = new byte[INT_16_BYTES];
+		writeUint16(raw.length, length, 0);
+		return length;
+	}
+
+	private byte[] concat(byte[]... arrays) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (byte[] a : arrays) out.write(a, 0, a.length);
+		return out.toByteArray();
+	}
+
+	private byte[] compress(byte[] input) {
+		Deflater deflater = new Deflater();
+		deflater.setInput(input);
+		deflater.finish();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[1024];
+		while (!deflater.finished()) {
+			int length = deflater.deflate(buf);
+			out.write(buf, 0, length);
+		}
+		deflater.end();
+		return out.toByteArray();
+	}
+
 	private void expectReadRecord(Record record) throws Exception {
 		context.checking(new Expectations() {{
 			oneOf(recordReader).readRecord();
@@ -0,0 +1,89 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.record.Record;
+import org.briarproject.bramble.api.record.RecordWriter;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageFactory;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.briarproject.bramble.api.sync.RecordTypes.COMPRESSED_MESSAGES;
+import static org.briarproject.bramble.api.sync.RecordTypes.MESSAGE;
+import static org.briarproject.bramble.test.TestUtils.getMessage;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SyncRecordWriterImplTest extends BrambleMockTestCase {
+
+	private final MessageFactory messageFactory =
+			context.mock(MessageFactory.class);
+	private final RecordWriter recordWriter = context.mock(RecordWriter.class);
+
+	private final Message message = getMessage(new GroupId(getRandomId()));
+	private final Message message1 = getMessage(new GroupId(getRandomId()));
+	private final List<Record> written = new ArrayList<>();
+
+	@Test
+	public void testCompressibleMessagesAreWrittenInOneRecord()
+			throws Exception {
+		byte[] raw = new byte[1000], raw1 = new byte[1000];
+		expectGetRawMessages(raw, raw1);
+
+		SyncRecordWriterImpl writer =
+				new SyncRecordWriterImpl(messageFactory, recordWriter);
+		writer.writeCompressedMessages(Arrays.asList(message, message1));
+
+		assertEquals(1, written.size());
+		Record record = written.get(0);
+		assertEquals(COMPRESSED_MESSAGES, record.getRecordType());
+		assertTrue(record.getPayload().length < raw.length + raw1.length);
+	}
+
+	@Test
+	public void testIncompressibleMessagesAreWrittenSeparately()
+			throws Exception {
+		byte[] raw = getRandomBytes(1000), raw1 = getRandomBytes(1000);
+		expectGetRawMessages(raw, raw1);
+		// The messages are converted to raw form again when written
+		expectGetRawMessages(raw, raw1);
+
+		SyncRecordWriterImpl writer =
+				new SyncRecordWriterImpl(messageFactory, recordWriter);
+		writer.writeCompressedMessages(Arrays.asList(message, message1));
+
+		assertEquals(2, written.size());
+		assertEquals(MESSAGE, written.get(0).getRecordType());
+		assertArrayEquals(raw, written.get(0).getPayload());
+		assertEquals(MESSAGE, written.get(1).getRecordType());
+		assertArrayEquals(raw1, written.get(1).getPayload());
+	}
+
+	private void expectGetRawMessages(byte[] raw, byte[] raw1)
+			throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(messageFactory).getRawMessage(message);
+			will(returnValue(raw));
+			oneOf(messageFactory).getRawMessage(message1);
+			will(returnValue(raw1));
+			allowing(recordWriter).writeRecord(with(any(Record.class)));
+			will(new CustomAction("record the record") {
+				@Override
+				public Object invoke(Invocation invocation) {
+					written.add((Record) invocation.getParameter(0));
+					return null;
+				}
+			});
+		}});
+	}
+}
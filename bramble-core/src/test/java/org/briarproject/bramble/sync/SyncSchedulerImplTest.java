@@ -0,0 +1,107 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.sync.ClientId;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.SendableMessage;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.Collections.emptyList;
+import static org.briarproject.bramble.api.sync.SyncScheduler.Priority.HIGH;
+import static org.briarproject.bramble.api.sync.SyncScheduler.Priority.LOW;
+import static org.briarproject.bramble.test.TestUtils.getClientId;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.junit.Assert.assertEquals;
+
+public class SyncSchedulerImplTest extends BrambleTestCase {
+
+	private final SyncSchedulerImpl scheduler = new SyncSchedulerImpl();
+	private final ClientId clientId = getClientId();
+	private final ClientId clientId1 = getClientId();
+	private final int majorVersion = 123;
+	private final GroupId groupId = new GroupId(getRandomId());
+	private final GroupId groupId1 = new GroupId(getRandomId());
+
+	@Test
+	public void testEmptyCollection() {
+		assertEquals(emptyList(), scheduler.schedule(emptyList()));
+	}
+
+	@Test
+	public void testMessagesInGroupAreSentInTimestampOrder() {
+		SendableMessage a = getSendableMessage(groupId, clientId, 3);
+		SendableMessage b = getSendableMessage(groupId, clientId, 1);
+		SendableMessage c = getSendableMessage(groupId, clientId, 2);
+		assertEquals(Arrays.asList(b, c, a),
+				scheduler.schedule(Arrays.asList(a, b, c)));
+	}
+
+	@Test
+	public void testGroupsTakeTurns() {
+		// A backlog of old messages in one group
+		SendableMessage a = getSendableMessage(groupId, clientId, 1);
+		SendableMessage b = getSendableMessage(groupId, clientId, 2);
+		SendableMessage c = getSendableMessage(groupId, clientId, 3);
+		// A newer message in another group
+		SendableMessage d = getSendableMessage(groupId1, clientId, 4);
+		List<SendableMessage> scheduled =
+				scheduler.schedule(Arrays.asList(a, b, c, d));
+		// The newer message should not wait for the backlog to be sent
+		assertEquals(Arrays.asList(a, d, b, c), scheduled);
+	}
+
+	@Test
+	public void testHigherPriorityClientIsSentFirst() {
+		scheduler.setClientPriority(clientId1, majorVersion, HIGH);
+		SendableMessage a = getSendableMessage(groupId, clientId, 1);
+		SendableMessage b = getSendableMessage(groupId, clientId, 2);
+		SendableMessage c = getSendableMessage(groupId1, clientId1, 3);
+		assertEquals(Arrays.asList(c, a, b),
+				scheduler.schedule(Arrays.asList(a, b, c)));
+	}
+
+	@Test
+	public void testLowerPriorityClientIsSentLast() {
+		scheduler.setClientPriority(clientId, majorVersion, LOW);
+		SendableMessage a = getSendableMessage(groupId, clientId, 1);
+		SendableMessage b = getSendableMessage(groupId1, clientId1, 2);
+		SendableMessage c = getSendableMessage(groupId1, clientId1, 3);
+		assertEquals(Arrays.asList(b, c, a),
+				scheduler.schedule(Arrays.asList(a, b, c)));
+	}
+
+	@Test
+	public void testClientPriorityIsPerMajorVersion() {
+		scheduler.setClientPriority(clientId, majorVersion + 1, HIGH);
+		SendableMessage a = getSendableMessage(groupId1, clientId1, 1);
+		SendableMessage b = getSendableMessage(groupId, clientId, 2);
+		assertEquals(Arrays.asList(a, b),
+				scheduler.schedule(Arrays.asList(a, b)));
+	}
+
+	@Test
+	public void testGroupPriorityOverridesClientPriority() {
+		scheduler.setClientPriority(clientId, majorVersion, HIGH);
+		scheduler.setGroupPriority(groupId, LOW);
+		SendableMessage a = getSendableMessage(groupId, clientId, 1);
+		SendableMessage b = getSendableMessage(groupId1, clientId, 2);
+		SendableMessage c = getSendableMessage(groupId1, clientId, 3);
+		assertEquals(Arrays.asList(b, c, a),
+				scheduler.schedule(Arrays.asList(a, b, c)));
+
+		// Removing the group priority should restore the client priority
+		scheduler.removeGroupPriority(groupId);
+		assertEquals(Arrays.asList(a, b, c),
+				scheduler.schedule(Arrays.asList(a, b, c)));
+	}
+
+	private SendableMessage getSendableMessage(GroupId g, ClientId c,
+			long timestamp) {
+		return new SendableMessage(new MessageId(getRandomId()), g, c,
+				majorVersion, timestamp, 1234);
+	}
+}
@@ -0,0 +1,150 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.identity.LocalAuthor;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageFactory;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.briarproject.bramble.api.record.Record.MAX_RECORD_PAYLOAD_BYTES;
+import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
+import static org.briarproject.bramble.api.sync.SyncScheduler.Priority.HIGH;
+import static org.briarproject.bramble.api.sync.SyncScheduler.Priority.LOW;
+import static org.briarproject.bramble.test.TestUtils.deleteTestDirectory;
+import static org.briarproject.bramble.test.TestUtils.getAuthor;
+import static org.briarproject.bramble.test.TestUtils.getClientId;
+import static org.briarproject.bramble.test.TestUtils.getGroup;
+import static org.briarproject.bramble.test.TestUtils.getLocalAuthor;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.test.TestUtils.getTestDirectory;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Adds a backlog of low priority messages to a real database, and measures
+ * how many batches are sent before newer messages in other groups are sent.
+ */
+public class SyncSchedulerIntegrationTest extends BrambleTestCase {
+
+	private static final int BACKLOG = 100;
+	private static final int BODY_LENGTH = 10 * 1000;
+	private static final int MAX_LATENCY = 60 * 1000;
+
+	private final File testDir = getTestDirectory();
+	private final Group backlogGroup = getGroup(getClientId(), 123);
+	private final Group normalGroup = getGroup(getClientId(), 123);
+	private final Group highGroup = getGroup(getClientId(), 123);
+
+	private SyncPerformanceTestComponent component;
+	private DatabaseComponent db;
+	private ContactId contactId;
+
+	@Before
+	public void setUp() throws Exception {
+		component = DaggerSyncPerformanceTestComponent.builder()
+				.testModule(new SyncPerformanceTestComponent.TestModule(
+						testDir))
+				.build();
+		db = component.getDatabaseComponent();
+		db.open(getSecretKey(), null);
+		LocalAuthor localAuthor = getLocalAuthor();
+		Transaction txn = db.startTransaction(false);
+		try {
+			db.addLocalAuthor(txn, localAuthor);
+			contactId = db.addContact(txn, getAuthor(), localAuthor.getId(),
+					true, true);
+			for (Group g : new Group[] {backlogGroup, normalGroup, highGroup}) {
+				db.addGroup(txn, g);
+				db.setGroupVisibility(txn, contactId, g.getId(), SHARED);
+			}
+			db.commitTransaction(txn);
+		} finally {
+			db.endTransaction(txn);
+		}
+	}
+
+	@Test
+	public void testNewerMessagesAreNotDelayedByBacklog() throws Exception {
+		component.getSyncScheduler().setClientPriority(
+				backlogGroup.getClientId(), 123, LOW);
+		component.getSyncScheduler().setClientPriority(
+				highGroup.getClientId(), 123, HIGH);
+
+		// Add the backlog, then a message to each of the other groups
+		long timestamp = System.currentTimeMillis();
+		for (int i = 0; i < BACKLOG; i++)
+			addMessage(backlogGroup, timestamp + i);
+		MessageId normal = addMessage(normalGroup, timestamp + BACKLOG);
+		MessageId high = addMessage(highGroup, timestamp + BACKLOG + 1);
+
+		// Generate batches until all the messages have been sent, recording
+		// the batch in which each message was sent
+		Map<MessageId, Integer> sentInBatch = new HashMap<>();
+		int batches = 0;
+		while (true) {
+			Collection<Message> batch = generateBatch();
+			if (batch == null) break;
+			for (Message m : batch) sentInBatch.put(m.getId(), batches);
+			batches++;
+		}
+		assertEquals(BACKLOG + 2, sentInBatch.size());
+
+		// Without scheduling, the newer messages would be sent last
+		Integer highBatch = sentInBatch.get(high);
+		Integer normalBatch = sentInBatch.get(normal);
+		assertNotNull(highBatch);
+		assertNotNull(normalBatch);
+		System.out.println(String.format("%,d batches: high priority message"
+				+ " sent in batch %,d, normal priority message in batch %,d",
+				batches, highBatch + 1, normalBatch + 1));
+		assertEquals(0, (int) highBatch);
+		assertEquals(0, (int) normalBatch);
+	}
+
+	private MessageId addMessage(Group g, long timestamp) throws Exception {
+		MessageFactory messageFactory = component.getMessageFactory();
+		Message m = messageFactory.createMessage(g.getId(), timestamp,
+				getRandomBytes(BODY_LENGTH));
+		Transaction txn = db.startTransaction(false);
+		try {
+			db.addLocalMessage(txn, m, new Metadata(), true);
+			db.commitTransaction(txn);
+		} finally {
+			db.endTransaction(txn);
+		}
+		return m.getId();
+	}
+
+	private Collection<Message> generateBatch() throws Exception {
+		Transaction txn = db.startTransaction(false);
+		try {
+			Collection<Message> batch = db.generateBatch(txn, contactId,
+					MAX_RECORD_PAYLOAD_BYTES, MAX_LATENCY);
+			db.commitTransaction(txn);
+			return batch;
+		} finally {
+			db.endTransaction(txn);
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		component.getDatabaseExecutor().shutdown();
+		db.close();
+		deleteTestDirectory(testDir);
+	}
+}
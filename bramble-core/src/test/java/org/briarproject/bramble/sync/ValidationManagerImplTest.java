@@ -1,6 +1,8 @@
 package org.briarproject.bramble.sync;
 
 import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.SignatureToVerify;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.db.NoSuchGroupException;
@@ -20,11 +22,17 @@ import org.briarproject.bramble.api.sync.event.MessageAddedEvent;
 import org.briarproject.bramble.test.BrambleMockTestCase;
 import org.briarproject.bramble.test.ImmediateExecutor;
 import org.jmock.Expectations;
+import org.jmock.api.Action;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executor;
 
@@ -39,11 +47,15 @@ import static org.briarproject.bramble.api.sync.ValidationManager.State.UNKNOWN;
 import static org.briarproject.bramble.test.TestUtils.getClientId;
 import static org.briarproject.bramble.test.TestUtils.getGroup;
 import static org.briarproject.bramble.test.TestUtils.getMessage;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
 import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 public class ValidationManagerImplTest extends BrambleMockTestCase {
 
 	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
+	private final CryptoComponent crypto = context.mock(CryptoComponent.class);
 	private final MessageValidator validator =
 			context.mock(MessageValidator.class);
 	private final IncomingMessageHook hook =
@@ -63,6 +75,7 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 	private final MessageId messageId2 = message2.getId();
 
 	private final Metadata metadata = new Metadata();
+	private final List<SignatureToVerify> noSignatures = emptyList();
 	private final MessageContext validResult = new MessageContext(metadata);
 	private final ContactId contactId = new ContactId(234);
 	private final MessageContext validResultWithDependencies =
@@ -72,7 +85,8 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 
 	@Before
 	public void setUp() {
-		vm = new ValidationManagerImpl(db, dbExecutor, validationExecutor);
+		vm = new ValidationManagerImpl(db, crypto, dbExecutor,
+				validationExecutor);
 		vm.registerMessageValidator(clientId, majorVersion, validator);
 		vm.registerIncomingMessageHook(clientId, majorVersion, hook);
 	}
@@ -116,7 +130,6 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 		Transaction txn = new Transaction(null, true);
 		Transaction txn1 = new Transaction(null, true);
 		Transaction txn2 = new Transaction(null, false);
-		Transaction txn3 = new Transaction(null, true);
 		Transaction txn4 = new Transaction(null, false);
 		Transaction txn5 = new Transaction(null, true);
 		Transaction txn6 = new Transaction(null, true);
@@ -129,17 +142,19 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			will(returnValue(Arrays.asList(messageId, messageId1)));
 			oneOf(db).commitTransaction(txn);
 			oneOf(db).endTransaction(txn);
-			// Load the first raw message and group
+			// Load the raw messages and groups in a single transaction
 			oneOf(db).startTransaction(true);
 			will(returnValue(txn1));
 			oneOf(db).getMessage(txn1, messageId);
 			will(returnValue(message));
-			oneOf(db).getGroup(txn1, groupId);
+			oneOf(db).getMessage(txn1, messageId1);
+			will(returnValue(message1));
+			exactly(2).of(db).getGroup(txn1, groupId);
 			will(returnValue(group));
 			oneOf(db).commitTransaction(txn1);
 			oneOf(db).endTransaction(txn1);
 			// Validate the first message: valid
-			oneOf(validator).validateMessage(message, group);
+			oneOf(validator).validateMessage(message, group, noSignatures);
 			will(returnValue(validResult));
 			// Store the validation result for the first message
 			oneOf(db).startTransaction(false);
@@ -154,17 +169,8 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			will(returnValue(emptyMap()));
 			oneOf(db).commitTransaction(txn2);
 			oneOf(db).endTransaction(txn2);
-			// Load the second raw message and group
-			oneOf(db).startTransaction(true);
-			will(returnValue(txn3));
-			oneOf(db).getMessage(txn3, messageId1);
-			will(returnValue(message1));
-			oneOf(db).getGroup(txn3, groupId);
-			will(returnValue(group));
-			oneOf(db).commitTransaction(txn3);
-			oneOf(db).endTransaction(txn3);
 			// Validate the second message: invalid
-			oneOf(validator).validateMessage(message1, group);
+			oneOf(validator).validateMessage(message1, group, noSignatures);
 			will(throwException(new InvalidMessageException()));
 			// Store the validation result for the second message
 			oneOf(db).startTransaction(false);
@@ -347,7 +353,7 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			oneOf(db).commitTransaction(txn);
 			oneOf(db).endTransaction(txn);
 			// Validate the message: valid
-			oneOf(validator).validateMessage(message, group);
+			oneOf(validator).validateMessage(message, group, noSignatures);
 			will(returnValue(validResultWithDependencies));
 			// Store the validation result
 			oneOf(db).startTransaction(false);
@@ -386,7 +392,6 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			throws Exception {
 		Transaction txn = new Transaction(null, true);
 		Transaction txn1 = new Transaction(null, true);
-		Transaction txn2 = new Transaction(null, true);
 		Transaction txn3 = new Transaction(null, false);
 		Transaction txn4 = new Transaction(null, true);
 		Transaction txn5 = new Transaction(null, true);
@@ -404,19 +409,15 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			will(returnValue(txn1));
 			oneOf(db).getMessage(txn1, messageId);
 			will(throwException(new NoSuchMessageException()));
-			never(db).commitTransaction(txn1);
-			oneOf(db).endTransaction(txn1);
-			// Load the second raw message and group
-			oneOf(db).startTransaction(true);
-			will(returnValue(txn2));
-			oneOf(db).getMessage(txn2, messageId1);
+			// Load the second raw message and group in the same transaction
+			oneOf(db).getMessage(txn1, messageId1);
 			will(returnValue(message1));
-			oneOf(db).getGroup(txn2, groupId);
+			oneOf(db).getGroup(txn1, groupId);
 			will(returnValue(group));
-			oneOf(db).commitTransaction(txn2);
-			oneOf(db).endTransaction(txn2);
+			oneOf(db).commitTransaction(txn1);
+			oneOf(db).endTransaction(txn1);
 			// Validate the second message: invalid
-			oneOf(validator).validateMessage(message1, group);
+			oneOf(validator).validateMessage(message1, group, noSignatures);
 			will(throwException(new InvalidMessageException()));
 			// Invalidate the second message
 			oneOf(db).startTransaction(false);
@@ -455,7 +456,6 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			throws Exception {
 		Transaction txn = new Transaction(null, true);
 		Transaction txn1 = new Transaction(null, true);
-		Transaction txn2 = new Transaction(null, true);
 		Transaction txn3 = new Transaction(null, false);
 		Transaction txn4 = new Transaction(null, true);
 		Transaction txn5 = new Transaction(null, true);
@@ -476,19 +476,15 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			// Load the group - *gasp* it's gone!
 			oneOf(db).getGroup(txn1, groupId);
 			will(throwException(new NoSuchGroupException()));
-			never(db).commitTransaction(txn1);
-			oneOf(db).endTransaction(txn1);
-			// Load the second raw message and group
-			oneOf(db).startTransaction(true);
-			will(returnValue(txn2));
-			oneOf(db).getMessage(txn2, messageId1);
+			// Load the second raw message and group in the same transaction
+			oneOf(db).getMessage(txn1, messageId1);
 			will(returnValue(message1));
-			oneOf(db).getGroup(txn2, groupId);
+			oneOf(db).getGroup(txn1, groupId);
 			will(returnValue(group));
-			oneOf(db).commitTransaction(txn2);
-			oneOf(db).endTransaction(txn2);
+			oneOf(db).commitTransaction(txn1);
+			oneOf(db).endTransaction(txn1);
 			// Validate the second message: invalid
-			oneOf(validator).validateMessage(message1, group);
+			oneOf(validator).validateMessage(message1, group, noSignatures);
 			will(throwException(new InvalidMessageException()));
 			// Store the validation result for the second message
 			oneOf(db).startTransaction(false);
@@ -536,7 +532,7 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			oneOf(db).commitTransaction(txn);
 			oneOf(db).endTransaction(txn);
 			// Validate the message: valid
-			oneOf(validator).validateMessage(message, group);
+			oneOf(validator).validateMessage(message, group, noSignatures);
 			will(returnValue(validResult));
 			// Store the validation result
 			oneOf(db).startTransaction(false);
@@ -576,7 +572,7 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			oneOf(db).commitTransaction(txn);
 			oneOf(db).endTransaction(txn);
 			// Validate the message: valid
-			oneOf(validator).validateMessage(message, group);
+			oneOf(validator).validateMessage(message, group, noSignatures);
 			will(returnValue(validResultWithDependencies));
 			// Store the validation result
 			oneOf(db).startTransaction(false);
@@ -609,7 +605,7 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			oneOf(db).commitTransaction(txn);
 			oneOf(db).endTransaction(txn);
 			// Validate the message: valid
-			oneOf(validator).validateMessage(message, group);
+			oneOf(validator).validateMessage(message, group, noSignatures);
 			will(returnValue(validResultWithDependencies));
 			// Store the validation result
 			oneOf(db).startTransaction(false);
@@ -649,7 +645,7 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			oneOf(db).commitTransaction(txn);
 			oneOf(db).endTransaction(txn);
 			// Validate the message: valid
-			oneOf(validator).validateMessage(message, group);
+			oneOf(validator).validateMessage(message, group, noSignatures);
 			will(returnValue(validResultWithDependencies));
 			// Store the validation result
 			oneOf(db).startTransaction(false);
@@ -711,7 +707,7 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			oneOf(db).commitTransaction(txn);
 			oneOf(db).endTransaction(txn);
 			// Validate the message: invalid
-			oneOf(validator).validateMessage(message, group);
+			oneOf(validator).validateMessage(message, group, noSignatures);
 			will(throwException(new InvalidMessageException()));
 			// Invalidate the message
 			oneOf(db).startTransaction(false);
@@ -805,9 +801,7 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 		Transaction txn = new Transaction(null, true);
 		Transaction txn1 = new Transaction(null, false);
 		Transaction txn2 = new Transaction(null, false);
-		Transaction txn3 = new Transaction(null, false);
 		Transaction txn4 = new Transaction(null, false);
-		Transaction txn5 = new Transaction(null, false);
 		Transaction txn6 = new Transaction(null, false);
 
 		context.checking(new Expectations() {{
@@ -819,7 +813,7 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			oneOf(db).commitTransaction(txn);
 			oneOf(db).endTransaction(txn);
 			// Validate the message: valid
-			oneOf(validator).validateMessage(message, group);
+			oneOf(validator).validateMessage(message, group, noSignatures);
 			will(returnValue(validResult));
 			// Store the validation result
 			oneOf(db).startTransaction(false);
@@ -855,31 +849,28 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			// Message 1 has one pending dependent: 3
 			oneOf(db).getMessageDependents(txn2, messageId1);
 			will(returnValue(singletonMap(messageId3, PENDING)));
-			oneOf(db).commitTransaction(txn2);
-			oneOf(db).endTransaction(txn2);
-			// Check whether message 2 is ready to be delivered
-			oneOf(db).startTransaction(false);
-			will(returnValue(txn3));
-			oneOf(db).getMessageState(txn3, messageId2);
+			// Check whether message 2 is ready to be delivered in the same
+			// transaction
+			oneOf(db).getMessageState(txn2, messageId2);
 			will(returnValue(PENDING));
-			oneOf(db).getMessageDependencies(txn3, messageId2);
+			oneOf(db).getMessageDependencies(txn2, messageId2);
 			will(returnValue(singletonMap(messageId, DELIVERED)));
 			// Get message 2 and its metadata
-			oneOf(db).getMessage(txn3, messageId2);
+			oneOf(db).getMessage(txn2, messageId2);
 			will(returnValue(message2));
-			oneOf(db).getGroup(txn3, groupId);
+			oneOf(db).getGroup(txn2, groupId);
 			will(returnValue(group));
-			oneOf(db).getMessageMetadataForValidator(txn3, messageId2);
+			oneOf(db).getMessageMetadataForValidator(txn2, messageId2);
 			will(returnValue(metadata));
 			// Deliver message 2
-			oneOf(hook).incomingMessage(txn3, message2, metadata);
+			oneOf(hook).incomingMessage(txn2, message2, metadata);
 			will(returnValue(false));
-			oneOf(db).setMessageState(txn3, messageId2, DELIVERED);
+			oneOf(db).setMessageState(txn2, messageId2, DELIVERED);
 			// Message 2 has one pending dependent: 3 (same dependent as 1)
-			oneOf(db).getMessageDependents(txn3, messageId2);
+			oneOf(db).getMessageDependents(txn2, messageId2);
 			will(returnValue(singletonMap(messageId3, PENDING)));
-			oneOf(db).commitTransaction(txn3);
-			oneOf(db).endTransaction(txn3);
+			oneOf(db).commitTransaction(txn2);
+			oneOf(db).endTransaction(txn2);
 			// Check whether message 3 is ready to be delivered (via 1)
 			oneOf(db).startTransaction(false);
 			will(returnValue(txn4));
@@ -900,15 +891,11 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			// Message 3 has one pending dependent: 4
 			oneOf(db).getMessageDependents(txn4, messageId3);
 			will(returnValue(singletonMap(messageId4, PENDING)));
-			oneOf(db).commitTransaction(txn4);
-			oneOf(db).endTransaction(txn4);
 			// Check whether message 3 is ready to be delivered (again, via 2)
-			oneOf(db).startTransaction(false);
-			will(returnValue(txn5));
-			oneOf(db).getMessageState(txn5, messageId3);
+			oneOf(db).getMessageState(txn4, messageId3);
 			will(returnValue(DELIVERED)); // Already delivered
-			oneOf(db).commitTransaction(txn5);
-			oneOf(db).endTransaction(txn5);
+			oneOf(db).commitTransaction(txn4);
+			oneOf(db).endTransaction(txn4);
 			// Check whether message 4 is ready to be delivered (via 1 and 3)
 			oneOf(db).startTransaction(false);
 			will(returnValue(txn6));
@@ -955,7 +942,7 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			oneOf(db).commitTransaction(txn);
 			oneOf(db).endTransaction(txn);
 			// Validate the message: valid
-			oneOf(validator).validateMessage(message, group);
+			oneOf(validator).validateMessage(message, group, noSignatures);
 			will(returnValue(validResult));
 			// Store the validation result
 			oneOf(db).startTransaction(false);
@@ -983,4 +970,320 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 
 		vm.eventOccurred(new MessageAddedEvent(message, contactId));
 	}
+
+	@Test
+	public void testValidationResultsAreStoredInBatches() throws Exception {
+		// Queue the tasks so validation can finish before storage starts
+		List<Runnable> dbTasks = new ArrayList<>();
+		List<Runnable> validationTasks = new ArrayList<>();
+		ValidationManagerImpl vm = new ValidationManagerImpl(db,
+				crypto, dbTasks::add, validationTasks::add);
+		vm.registerMessageValidator(clientId, majorVersion, validator);
+		vm.registerIncomingMessageHook(clientId, majorVersion, hook);
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, true);
+		Transaction txn2 = new Transaction(null, false);
+
+		context.checking(new Expectations() {{
+			// Load the groups
+			oneOf(db).startTransaction(true);
+			will(returnValue(txn));
+			oneOf(db).getGroup(txn, groupId);
+			will(returnValue(group));
+			oneOf(db).commitTransaction(txn);
+			oneOf(db).endTransaction(txn);
+			oneOf(db).startTransaction(true);
+			will(returnValue(txn1));
+			oneOf(db).getGroup(txn1, groupId);
+			will(returnValue(group));
+			oneOf(db).commitTransaction(txn1);
+			oneOf(db).endTransaction(txn1);
+			// Validate the messages: valid
+			oneOf(validator).validateMessage(message, group, noSignatures);
+			will(returnValue(validResult));
+			oneOf(validator).validateMessage(message1, group, noSignatures);
+			will(returnValue(validResult));
+			// Store both validation results in a single transaction
+			oneOf(db).startTransaction(false);
+			will(returnValue(txn2));
+			oneOf(db).mergeMessageMetadata(txn2, messageId, metadata);
+			oneOf(hook).incomingMessage(txn2, message, metadata);
+			will(returnValue(false));
+			oneOf(db).setMessageState(txn2, messageId, DELIVERED);
+			oneOf(db).getMessageDependents(txn2, messageId);
+			will(returnValue(emptyMap()));
+			oneOf(db).mergeMessageMetadata(txn2, messageId1, metadata);
+			oneOf(hook).incomingMessage(txn2, message1, metadata);
+			will(returnValue(false));
+			oneOf(db).setMessageState(txn2, messageId1, DELIVERED);
+			oneOf(db).getMessageDependents(txn2, messageId1);
+			will(returnValue(emptyMap()));
+			oneOf(db).commitTransaction(txn2);
+			oneOf(db).endTransaction(txn2);
+		}});
+
+		vm.eventOccurred(new MessageAddedEvent(message, contactId));
+		vm.eventOccurred(new MessageAddedEvent(message1, contactId));
+		runAndClear(dbTasks);
+		runAndClear(validationTasks);
+		// One task should have been queued to store both results
+		assertEquals(1, dbTasks.size());
+		runAndClear(dbTasks);
+
+		assertEquals(2, vm.getMessagesStored());
+		assertEquals(1, vm.getBatchesStored());
+		assertEquals(0, vm.getMessagesInvalid());
+	}
+
+	@Test
+	public void testBatchIsStoredSeparatelyAfterNoSuchMessageException()
+			throws Exception {
+		List<Runnable> dbTasks = new ArrayList<>();
+		List<Runnable> validationTasks = new ArrayList<>();
+		ValidationManagerImpl vm = new ValidationManagerImpl(db,
+				crypto, dbTasks::add, validationTasks::add);
+		vm.registerMessageValidator(clientId, majorVersion, validator);
+		vm.registerIncomingMessageHook(clientId, majorVersion, hook);
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, true);
+		Transaction txn2 = new Transaction(null, false);
+		Transaction txn3 = new Transaction(null, false);
+		Transaction txn4 = new Transaction(null, false);
+
+		context.checking(new Expectations() {{
+			// Load the groups
+			oneOf(db).startTransaction(true);
+			will(returnValue(txn));
+			oneOf(db).getGroup(txn, groupId);
+			will(returnValue(group));
+			oneOf(db).commitTransaction(txn);
+			oneOf(db).endTransaction(txn);
+			oneOf(db).startTransaction(true);
+			will(returnValue(txn1));
+			oneOf(db).getGroup(txn1, groupId);
+			will(returnValue(group));
+			oneOf(db).commitTransaction(txn1);
+			oneOf(db).endTransaction(txn1);
+			// Validate the messages: valid
+			oneOf(validator).validateMessage(message, group, noSignatures);
+			will(returnValue(validResult));
+			oneOf(validator).validateMessage(message1, group, noSignatures);
+			will(returnValue(validResult));
+			// Store the batch - *gasp* the first message is gone!
+			oneOf(db).startTransaction(false);
+			will(returnValue(txn2));
+			oneOf(db).mergeMessageMetadata(txn2, messageId, metadata);
+			will(throwException(new NoSuchMessageException()));
+			never(db).commitTransaction(txn2);
+			oneOf(db).endTransaction(txn2);
+			// Store the first message's result separately: it's still gone
+			oneOf(db).startTransaction(false);
+			will(returnValue(txn3));
+			oneOf(db).mergeMessageMetadata(txn3, messageId, metadata);
+			will(throwException(new NoSuchMessageException()));
+			never(db).commitTransaction(txn3);
+			oneOf(db).endTransaction(txn3);
+			// Store the second message's result separately
+			oneOf(db).startTransaction(false);
+			will(returnValue(txn4));
+			oneOf(db).mergeMessageMetadata(txn4, messageId1, metadata);
+			oneOf(hook).incomingMessage(txn4, message1, metadata);
+			will(returnValue(false));
+			oneOf(db).setMessageState(txn4, messageId1, DELIVERED);
+			oneOf(db).getMessageDependents(txn4, messageId1);
+			will(returnValue(emptyMap()));
+			oneOf(db).commitTransaction(txn4);
+			oneOf(db).endTransaction(txn4);
+		}});
+
+		vm.eventOccurred(new MessageAddedEvent(message, contactId));
+		vm.eventOccurred(new MessageAddedEvent(message1, contactId));
+		runAndClear(dbTasks);
+		runAndClear(validationTasks);
+		runAndClear(dbTasks);
+
+		assertEquals(1, vm.getMessagesStored());
+	}
+
+	@Test
+	public void testStoringContinuesAfterRuntimeException() throws Exception {
+		List<Runnable> dbTasks = new ArrayList<>();
+		List<Runnable> validationTasks = new ArrayList<>();
+		ValidationManagerImpl vm = new ValidationManagerImpl(db,
+				crypto, dbTasks::add, validationTasks::add);
+		vm.registerMessageValidator(clientId, majorVersion, validator);
+		vm.registerIncomingMessageHook(clientId, majorVersion, hook);
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, false);
+		Transaction txn2 = new Transaction(null, true);
+		Transaction txn3 = new Transaction(null, false);
+
+		context.checking(new Expectations() {{
+			// Load the group
+			oneOf(db).startTransaction(true);
+			will(returnValue(txn));
+			oneOf(db).getGroup(txn, groupId);
+			will(returnValue(group));
+			oneOf(db).commitTransaction(txn);
+			oneOf(db).endTransaction(txn);
+			// Validate the message: valid
+			oneOf(validator).validateMessage(message, group, noSignatures);
+			will(returnValue(validResult));
+			// Store the result - an unexpected exception is thrown
+			oneOf(db).startTransaction(false);
+			will(returnValue(txn1));
+			oneOf(db).mergeMessageMetadata(txn1, messageId, metadata);
+			will(throwException(new IllegalStateException()));
+			never(db).commitTransaction(txn1);
+			oneOf(db).endTransaction(txn1);
+		}});
+
+		vm.eventOccurred(new MessageAddedEvent(message, contactId));
+		runAndClear(dbTasks);
+		runAndClear(validationTasks);
+		try {
+			runAndClear(dbTasks);
+			fail();
+		} catch (IllegalStateException expected) {
+			// Expected
+		}
+
+		context.checking(new Expectations() {{
+			// Load the group
+			oneOf(db).startTransaction(true);
+			will(returnValue(txn2));
+			oneOf(db).getGroup(txn2, groupId);
+			will(returnValue(group));
+			oneOf(db).commitTransaction(txn2);
+			oneOf(db).endTransaction(txn2);
+			// Validate the message: valid
+			oneOf(validator).validateMessage(message1, group, noSignatures);
+			will(returnValue(validResult));
+			// Store the result
+			oneOf(db).startTransaction(false);
+			will(returnValue(txn3));
+			oneOf(db).mergeMessageMetadata(txn3, messageId1, metadata);
+			oneOf(hook).incomingMessage(txn3, message1, metadata);
+			will(returnValue(false));
+			oneOf(db).setMessageState(txn3, messageId1, DELIVERED);
+			oneOf(db).getMessageDependents(txn3, messageId1);
+			will(returnValue(emptyMap()));
+			oneOf(db).commitTransaction(txn3);
+			oneOf(db).endTransaction(txn3);
+		}});
+
+		// A new task should be queued to store the next result
+		vm.eventOccurred(new MessageAddedEvent(message1, contactId));
+		runAndClear(dbTasks);
+		runAndClear(validationTasks);
+		assertEquals(1, dbTasks.size());
+		runAndClear(dbTasks);
+
+		assertEquals(1, vm.getMessagesStored());
+	}
+
+	@Test
+	public void testSignaturesAreVerifiedInBatches() throws Exception {
+		List<Runnable> dbTasks = new ArrayList<>();
+		List<Runnable> validationTasks = new ArrayList<>();
+		ValidationManagerImpl vm = new ValidationManagerImpl(db,
+				crypto, dbTasks::add, validationTasks::add);
+		vm.registerMessageValidator(clientId, majorVersion, validator);
+		vm.registerIncomingMessageHook(clientId, majorVersion, hook);
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, true);
+		Transaction txn2 = new Transaction(null, true);
+		SignatureToVerify signature = getSignature();
+		SignatureToVerify signature1 = getSignature();
+		SignatureToVerify signature2 = getSignature();
+
+		context.checking(new Expectations() {{
+			// Load the groups
+			oneOf(db).startTransaction(true);
+			will(returnValue(txn));
+			oneOf(db).getGroup(txn, groupId);
+			will(returnValue(group));
+			oneOf(db).commitTransaction(txn);
+			oneOf(db).endTransaction(txn);
+			oneOf(db).startTransaction(true);
+			will(returnValue(txn1));
+			oneOf(db).getGroup(txn1, groupId);
+			will(returnValue(group));
+			oneOf(db).commitTransaction(txn1);
+			oneOf(db).endTransaction(txn1);
+			oneOf(db).startTransaction(true);
+			will(returnValue(txn2));
+			oneOf(db).getGroup(txn2, groupId);
+			will(returnValue(group));
+			oneOf(db).commitTransaction(txn2);
+			oneOf(db).endTransaction(txn2);
+			// Validate the messages, deferring their signatures
+			oneOf(validator).validateMessage(message, group, noSignatures);
+			will(addSignature(signature));
+			oneOf(validator).validateMessage(message1, group, noSignatures);
+			will(addSignature(signature1));
+			oneOf(validator).validateMessage(message2, group, noSignatures);
+			will(addSignature(signature2));
+		}});
+
+		vm.eventOccurred(new MessageAddedEvent(message, contactId));
+		vm.eventOccurred(new MessageAddedEvent(message1, contactId));
+		vm.eventOccurred(new MessageAddedEvent(message2, contactId));
+		runAndClear(dbTasks);
+		assertEquals(3, validationTasks.size());
+		Runnable first = validationTasks.remove(0);
+
+		context.checking(new Expectations() {{
+			// Verify the first message's signature. Meanwhile the other
+			// messages are validated and wait for their signatures
+			oneOf(crypto).verifySignatures(singletonList(signature));
+			will(new CustomAction("validate other messages") {
+				@Override
+				public Object invoke(Invocation invocation) {
+					runAndClear(validationTasks);
+					return true;
+				}
+			});
+			// Verify the waiting messages' signatures in a batch: invalid
+			oneOf(crypto).verifySignatures(Arrays.asList(signature1,
+					signature2));
+			will(returnValue(false));
+			// Verify each waiting message's signature separately
+			oneOf(crypto).verifySignatures(singletonList(signature1));
+			will(returnValue(true));
+			oneOf(crypto).verifySignatures(singletonList(signature2));
+			will(returnValue(false));
+		}});
+
+		first.run();
+		// One task should have been queued to store the two valid results,
+		// and one to invalidate the message with the invalid signature
+		assertEquals(2, dbTasks.size());
+		assertEquals(1, vm.getMessagesInvalid());
+	}
+
+	private void runAndClear(List<Runnable> tasks) {
+		List<Runnable> copy = new ArrayList<>(tasks);
+		tasks.clear();
+		for (Runnable r : copy) r.run();
+	}
+
+	private SignatureToVerify getSignature() {
+		return new SignatureToVerify(getRandomBytes(64), "label",
+				getRandomBytes(123), getRandomBytes(32));
+	}
+
+	private Action addSignature(SignatureToVerify signature) {
+		return new CustomAction("add a signature") {
+			@Override
+			@SuppressWarnings("unchecked")
+			public Object invoke(Invocation invocation) {
+				Collection<SignatureToVerify> signatures =
+						(Collection<SignatureToVerify>)
+								invocation.getParameter(2);
+				signatures.add(signature);
+				return validResult;
+			}
+		};
+	}
 }
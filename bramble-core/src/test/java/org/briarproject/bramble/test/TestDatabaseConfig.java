@@ -10,11 +10,18 @@ public class TestDatabaseConfig implements DatabaseConfig {
 
 	private final File dbDir, keyDir;
 	private final long maxSize;
+	private final int statementCacheSize;
 
 	public TestDatabaseConfig(File testDir, long maxSize) {
+		this(testDir, maxSize, 64);
+	}
+
+	public TestDatabaseConfig(File testDir, long maxSize,
+			int statementCacheSize) {
 		dbDir = new File(testDir, "db");
 		keyDir = new File(testDir, "key");
 		this.maxSize = maxSize;
+		this.statementCacheSize = statementCacheSize;
 	}
 
 	@Override
@@ -31,4 +38,9 @@ public class TestDatabaseConfig implements DatabaseConfig {
 	public long getMaxSize() {
 		return maxSize;
 	}
+
+	@Override
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
 }
@@ -2,6 +2,7 @@ package org.briarproject.bramble.test;
 
 import org.briarproject.bramble.api.db.DatabaseConfig;
 import org.briarproject.bramble.api.db.DatabaseExecutor;
+import org.briarproject.bramble.api.db.ReadOnlyDatabaseExecutor;
 
 import java.io.File;
 import java.util.concurrent.Executor;
@@ -35,4 +36,11 @@ public class TestDatabaseModule {
 	Executor provideDatabaseExecutor() {
 		return new ImmediateExecutor();
 	}
+
+	@Provides
+	@Singleton
+	@ReadOnlyDatabaseExecutor
+	Executor provideReadOnlyDatabaseExecutor() {
+		return new ImmediateExecutor();
+	}
 }
@@ -0,0 +1,135 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.crypto.TransportCrypto;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.plugin.TransportId;
+import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.api.transport.KeySet;
+import org.briarproject.bramble.api.transport.KeySetId;
+import org.briarproject.bramble.api.transport.TransportKeys;
+import org.briarproject.bramble.test.SettableClock;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_CLOCK_DIFFERENCE;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.test.TestUtils.getTransportId;
+
+/**
+ * Measures how long {@link TransportKeyManagerImpl} holds its lock while
+ * rotating the keys for a large number of contacts. A probe thread
+ * repeatedly calls
+ * {@link TransportKeyManager#canSendOutgoingStreams(ContactId)}, which
+ * takes the lock, and records the longest call during the rotation. For
+ * comparison, the time taken to rotate the keys and encode the tags for
+ * all contacts at startup, which holds the lock throughout as rotation
+ * used to, is also reported.
+ * <p>
+ * The DB is a stub, so the times don't include writing the keys.
+ */
+// Not a JUnit test
+public class KeyRotationPerformanceTest {
+
+	private static final int[] CONTACTS = {1_000, 10_000, 50_000};
+	private static final long MAX_LATENCY = 30 * 1000; // 30 seconds
+	private static final long ROTATION_PERIOD_LENGTH =
+			MAX_LATENCY + MAX_CLOCK_DIFFERENCE;
+	private static final long START_PERIOD = 1000;
+
+	public static void main(String[] args) throws Exception {
+		TransportCrypto transportCrypto =
+				DaggerKeyRotationPerformanceTestComponent.builder().build()
+						.getTransportCrypto();
+		for (int contacts : CONTACTS) runTest(transportCrypto, contacts);
+	}
+
+	private static void runTest(TransportCrypto transportCrypto,
+			int contacts) throws Exception {
+		TransportId transportId = getTransportId();
+		// Create keys for the previous period, so they're rotated at startup
+		List<KeySet> loaded = new ArrayList<>(contacts);
+		for (int i = 0; i < contacts; i++) {
+			TransportKeys k = transportCrypto.deriveTransportKeys(transportId,
+					getSecretKey(), START_PERIOD - 1, i % 2 == 0, true);
+			loaded.add(new KeySet(new KeySetId(i), new ContactId(i), k));
+		}
+		AtomicLong now =
+				new AtomicLong(START_PERIOD * ROTATION_PERIOD_LENGTH);
+		Clock clock = new SettableClock(now);
+		BlockingQueue<Runnable> scheduled = new LinkedBlockingQueue<>();
+		ScheduledExecutorService scheduler = (ScheduledExecutorService)
+				Proxy.newProxyInstance(
+						ScheduledExecutorService.class.getClassLoader(),
+						new Class[] {ScheduledExecutorService.class},
+						(proxy, method, args) -> {
+							if (method.getName().equals("schedule"))
+								scheduled.add((Runnable) args[0]);
+							return null;
+						});
+		DatabaseComponent db = (DatabaseComponent) Proxy.newProxyInstance(
+				DatabaseComponent.class.getClassLoader(),
+				new Class[] {DatabaseComponent.class},
+				(proxy, method, args) -> {
+					String name = method.getName();
+					if (name.equals("startTransaction"))
+						return new Transaction(null, false);
+					if (name.equals("getTransportKeys")) return loaded;
+					return null;
+				});
+		ExecutorService dbExecutor = newSingleThreadExecutor();
+		ExecutorService cryptoExecutor = newFixedThreadPool(
+				Runtime.getRuntime().availableProcessors());
+		TransportKeyManager transportKeyManager = new TransportKeyManagerImpl(
+				db, transportCrypto, dbExecutor, cryptoExecutor, scheduler,
+				clock, transportId, MAX_LATENCY);
+
+		long start = System.nanoTime();
+		transportKeyManager.start(new Transaction(null, false));
+		long startupMillis = (System.nanoTime() - start) / 1_000_000;
+		Runnable rotation = scheduled.take();
+
+		// Move to the next period and rotate the keys while probing the lock
+		now.addAndGet(ROTATION_PERIOD_LENGTH);
+		AtomicBoolean done = new AtomicBoolean(false);
+		AtomicLong maxStall = new AtomicLong(0);
+		Thread probe = new Thread(() -> {
+			Random random = new Random();
+			while (!done.get()) {
+				ContactId c = new ContactId(random.nextInt(contacts));
+				long before = System.nanoTime();
+				if (!transportKeyManager.canSendOutgoingStreams(c))
+					throw new AssertionError();
+				long stall = System.nanoTime() - before;
+				if (stall > maxStall.get()) maxStall.set(stall);
+				Thread.yield();
+			}
+		});
+		probe.start();
+		start = System.nanoTime();
+		rotation.run();
+		// The next rotation is scheduled when all the chunks are done
+		scheduled.take();
+		long rotationMillis = (System.nanoTime() - start) / 1_000_000;
+		done.set(true);
+		probe.join();
+		dbExecutor.shutdown();
+		cryptoExecutor.shutdown();
+		System.out.println(String.format("%,d contacts: startup %,d ms, "
+						+ "rotation %,d ms, longest probe %.2f ms",
+				contacts, startupMillis, rotationMillis,
+				maxStall.get() / 1_000_000.0));
+	}
+}
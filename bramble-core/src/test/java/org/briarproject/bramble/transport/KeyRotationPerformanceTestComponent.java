@@ -0,0 +1,21 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.api.crypto.TransportCrypto;
+import org.briarproject.bramble.crypto.CryptoModule;
+import org.briarproject.bramble.system.SystemModule;
+import org.briarproject.bramble.test.TestSecureRandomModule;
+
+import javax.inject.Singleton;
+
+import dagger.Component;
+
+@Singleton
+@Component(modules = {
+		TestSecureRandomModule.class,
+		CryptoModule.class,
+		SystemModule.class
+})
+interface KeyRotationPerformanceTestComponent {
+
+	TransportCrypto getTransportCrypto();
+}
@@ -7,14 +7,22 @@ import org.junit.Test;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 
 import static org.briarproject.bramble.api.transport.TransportConstants.REORDERING_WINDOW_SIZE;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 public class ReorderingWindowTest extends BrambleTestCase {
 
 	private static final int BITMAP_BYTES = REORDERING_WINDOW_SIZE / 8;
+	// Sizes that don't fill a whole number of longs are included to check
+	// the bits above the top of the window are handled correctly
+	private static final int[] BITMAP_SIZES = {1, BITMAP_BYTES, 8, 13, 32};
+
+	private final Random random = new Random();
 
 	@Test
 	public void testBitmapConversion() {
@@ -25,6 +33,24 @@ public class ReorderingWindowTest extends BrambleTestCase {
 		}
 	}
 
+	@Test
+	public void testBitmapCanBeWrittenToReusedArray() {
+		byte[] buffer = new byte[BITMAP_BYTES];
+		for (int i = 0; i < 1000; i++) {
+			byte[] bitmap = TestUtils.getRandomBytes(BITMAP_BYTES);
+			ReorderingWindow window = new ReorderingWindow(0L, bitmap);
+			window.getBitmap(buffer);
+			assertArrayEquals(bitmap, buffer);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBitmapCannotBeWrittenToArrayOfWrongLength() {
+		ReorderingWindow window =
+				new ReorderingWindow(0L, new byte[BITMAP_BYTES]);
+		window.getBitmap(new byte[BITMAP_BYTES + 1]);
+	}
+
 	@Test
 	public void testWindowSlidesWhenFirstElementIsSeen() {
 		byte[] bitmap = new byte[BITMAP_BYTES];
@@ -105,4 +131,74 @@ public class ReorderingWindowTest extends BrambleTestCase {
 		bitmap[bitmap.length / 2 - 1] = (byte) 0x02; // 0000 0010
 		assertArrayEquals(bitmap, window.getBitmap());
 	}
+
+	@Test
+	public void testBitmapConversionMatchesReferenceImplementation() {
+		for (int bytes : BITMAP_SIZES) {
+			for (int i = 0; i < 100; i++) {
+				byte[] bitmap = TestUtils.getRandomBytes(bytes);
+				long base = random.nextInt(Integer.MAX_VALUE);
+				ReorderingWindow window = new ReorderingWindow(base, bitmap);
+				ReferenceReorderingWindow reference =
+						new ReferenceReorderingWindow(base, bitmap);
+				assertArrayEquals(bitmap, window.getBitmap());
+				assertEquals(reference.getUnseen(), window.getUnseen());
+			}
+		}
+	}
+
+	@Test
+	public void testRandomSequencesMatchReferenceImplementation() {
+		for (int bytes : BITMAP_SIZES) {
+			for (int i = 0; i < 20; i++) {
+				long base = random.nextInt(Integer.MAX_VALUE);
+				ReorderingWindow window =
+						new ReorderingWindow(base, new byte[bytes]);
+				ReferenceReorderingWindow reference =
+						new ReferenceReorderingWindow(base, new byte[bytes]);
+				for (int j = 0; j < 1000; j++) {
+					// Set a random unseen element seen, biased towards the
+					// bottom of the window like real streams
+					List<Long> unseen = reference.getUnseen();
+					int pick = random.nextInt(unseen.size());
+					if (random.nextBoolean()) pick = random.nextInt(pick + 1);
+					long index = unseen.get(pick);
+					Change expected = reference.setSeen(index);
+					Change actual = window.setSeen(index);
+					assertEquals(expected.getAdded(), actual.getAdded());
+					assertEquals(expected.getRemoved(), actual.getRemoved());
+					assertEquals(reference.getBase(), window.getBase());
+					assertArrayEquals(reference.getBitmap(),
+							window.getBitmap());
+					assertEquals(reference.getUnseen(), window.getUnseen());
+					// Reloading the window from the bitmap should give the
+					// same window
+					window = new ReorderingWindow(window.getBase(),
+							window.getBitmap());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testSeenElementsCannotBeSetSeenAgain() {
+		for (int bytes : BITMAP_SIZES) {
+			ReorderingWindow window = new ReorderingWindow(0L,
+					new byte[bytes]);
+			window.setSeen(1L);
+			try {
+				window.setSeen(1L);
+				fail();
+			} catch (IllegalArgumentException expected) {
+				// Expected
+			}
+			// Elements outside the window cannot be set seen
+			try {
+				window.setSeen(bytes * 8);
+				fail();
+			} catch (IllegalArgumentException expected) {
+				// Expected
+			}
+		}
+	}
 }
@@ -0,0 +1,97 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.transport.StreamContext;
+import org.briarproject.bramble.api.transport.StreamReaderFactory;
+import org.briarproject.bramble.api.transport.StreamWriter;
+import org.briarproject.bramble.api.transport.StreamWriterFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.test.TestUtils.getTransportId;
+
+/**
+ * Compares the throughput of streams with standard and large frames over a
+ * loopback TCP connection, using the real stream encryption.
+ */
+// Not a JUnit test
+public class StreamPerformanceTest {
+
+	private static final int STREAM_LENGTH = 128 * 1024 * 1024;
+	private static final int WRITE_LENGTH = 64 * 1024;
+	private static final int ROUNDS = 3;
+
+	public static void main(String[] args) throws Exception {
+		StreamPerformanceTestComponent component =
+				DaggerStreamPerformanceTestComponent.builder().build();
+		StreamReaderFactory streamReaderFactory =
+				component.getStreamReaderFactory();
+		StreamWriterFactory streamWriterFactory =
+				component.getStreamWriterFactory();
+		for (int i = 0; i < ROUNDS; i++) {
+			for (boolean largeFrames : new boolean[] {false, true}) {
+				long bytesPerSecond = runTest(streamReaderFactory,
+						streamWriterFactory, largeFrames);
+				System.out.println(String.format("%s frames: %,d KiB/s",
+						largeFrames ? "Large" : "Standard",
+						bytesPerSecond / 1024));
+			}
+		}
+	}
+
+	private static long runTest(StreamReaderFactory streamReaderFactory,
+			StreamWriterFactory streamWriterFactory, boolean largeFrames)
+			throws Exception {
+		StreamContext ctx = new StreamContext(new ContactId(1),
+				getTransportId(), getSecretKey(), getSecretKey(), 0);
+		ServerSocket ss = new ServerSocket(0, 1,
+				InetAddress.getLoopbackAddress());
+		AtomicLong received = new AtomicLong();
+		Thread reader = new Thread(() -> {
+			try (Socket s = ss.accept()) {
+				InputStream in = s.getInputStream();
+				// Read the tag, as the connection manager does
+				byte[] tag = new byte[TAG_LENGTH];
+				int offset = 0;
+				while (offset < tag.length) {
+					int read = in.read(tag, offset, tag.length - offset);
+					if (read == -1) throw new EOFException();
+					offset += read;
+				}
+				InputStream streamReader =
+						streamReaderFactory.createStreamReader(in, ctx);
+				byte[] buf = new byte[WRITE_LENGTH];
+				int read;
+				while ((read = streamReader.read(buf)) != -1)
+					received.addAndGet(read);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		reader.start();
+		long start = System.nanoTime();
+		try (Socket s = new Socket(ss.getInetAddress(), ss.getLocalPort())) {
+			StreamWriter streamWriter = streamWriterFactory.createStreamWriter(
+					s.getOutputStream(), ctx, largeFrames);
+			OutputStream out = streamWriter.getOutputStream();
+			byte[] buf = new byte[WRITE_LENGTH];
+			for (int sent = 0; sent < STREAM_LENGTH; sent += buf.length)
+				out.write(buf);
+			streamWriter.sendEndOfStream();
+			reader.join();
+		}
+		long duration = System.nanoTime() - start;
+		ss.close();
+		if (received.get() != STREAM_LENGTH) throw new AssertionError();
+		return STREAM_LENGTH * 1_000_000_000L / duration;
+	}
+}
@@ -0,0 +1,25 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.api.transport.StreamReaderFactory;
+import org.briarproject.bramble.api.transport.StreamWriterFactory;
+import org.briarproject.bramble.crypto.CryptoModule;
+import org.briarproject.bramble.system.SystemModule;
+import org.briarproject.bramble.test.TestSecureRandomModule;
+
+import javax.inject.Singleton;
+
+import dagger.Component;
+
+@Singleton
+@Component(modules = {
+		TestSecureRandomModule.class,
+		CryptoModule.class,
+		SystemModule.class,
+		TransportModule.class
+})
+interface StreamPerformanceTestComponent {
+
+	StreamReaderFactory getStreamReaderFactory();
+
+	StreamWriterFactory getStreamWriterFactory();
+}
@@ -0,0 +1,134 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.api.Bytes;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.REORDERING_WINDOW_SIZE;
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+
+/**
+ * Compares the memory used by a {@link TagTable} and by a
+ * {@link HashMap HashMap&lt;Bytes, TagContext&gt;} holding the incoming
+ * tags for a large number of contacts, and the number of lookups per
+ * second when several threads look up tags under a shared lock, as
+ * {@link TransportKeyManagerImpl} does. Half of the lookups are for tags
+ * that are not in the table.
+ */
+// Not a JUnit test
+public class TagTablePerformanceTest {
+
+	private static final int CONTACTS = 10_000;
+	private static final int WINDOWS = 3;
+	private static final int TAGS = CONTACTS * WINDOWS * REORDERING_WINDOW_SIZE;
+	private static final int[] THREADS = {1, 2, 4, 8};
+	private static final int DURATION = 2000; // Milliseconds
+
+	private static final Random random = new Random();
+
+	public static void main(String[] args) throws Exception {
+		byte[][] tags = new byte[TAGS][TAG_LENGTH];
+		for (byte[] tag : tags) random.nextBytes(tag);
+		byte[][] unknown = new byte[TAGS][TAG_LENGTH];
+		for (byte[] tag : unknown) random.nextBytes(tag);
+		Object[] contexts = new Object[CONTACTS * WINDOWS];
+		for (int i = 0; i < contexts.length; i++) contexts[i] = new Object();
+
+		long before = usedMemory();
+		Map<Bytes, TagContext> map = new HashMap<>();
+		for (int i = 0; i < TAGS; i++) {
+			// One context per tag, as before the tag table was introduced
+			map.put(new Bytes(tags[i].clone()),
+					new TagContext(contexts[i / REORDERING_WINDOW_SIZE], i));
+		}
+		long mapBytes = usedMemory() - before;
+		before = usedMemory();
+		TagTable<Object> table = new TagTable<>();
+		for (int i = 0; i < TAGS; i++)
+			table.put(tags[i], contexts[i / REORDERING_WINDOW_SIZE], i);
+		long tableBytes = usedMemory() - before;
+		System.out.println(String.format(
+				"%,d tags: HashMap %,d bytes, TagTable %,d bytes",
+				TAGS, mapBytes, tableBytes));
+
+		for (int threads : THREADS) {
+			long mapLookups = runTest(threads, tags, unknown, tag -> {
+				TagContext ctx = map.get(new Bytes(tag));
+				return ctx == null ? -1 : ctx.streamNumber;
+			});
+			long tableLookups = runTest(threads, tags, unknown, tag -> {
+				int slot = table.find(tag);
+				return slot == -1 ? -1 : table.getStreamNumber(slot);
+			});
+			System.out.println(String.format(
+					"%d threads: HashMap %,d lookups/s, TagTable %,d lookups/s",
+					threads, mapLookups * 1000 / DURATION,
+					tableLookups * 1000 / DURATION));
+		}
+		// Keep the collections reachable until the end of the test
+		if (map.size() != table.size()) throw new AssertionError();
+	}
+
+	private static long runTest(int threads, byte[][] tags, byte[][] unknown,
+			Lookup lookup) throws InterruptedException {
+		ReentrantLock lock = new ReentrantLock();
+		AtomicLong lookups = new AtomicLong();
+		long end = System.currentTimeMillis() + DURATION;
+		Thread[] t = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			t[i] = new Thread(() -> {
+				Random random = new Random();
+				long count = 0;
+				while (System.currentTimeMillis() < end) {
+					for (int j = 0; j < 1000; j++) {
+						int index = random.nextInt(TAGS);
+						byte[] tag = random.nextBoolean() ? tags[index]
+								: unknown[index];
+						lock.lock();
+						try {
+							long streamNumber = lookup.lookup(tag);
+							if (tag == tags[index] && streamNumber != index)
+								throw new AssertionError();
+						} finally {
+							lock.unlock();
+						}
+					}
+					count += 1000;
+				}
+				lookups.addAndGet(count);
+			});
+			t[i].start();
+		}
+		for (Thread thread : t) thread.join();
+		return lookups.get();
+	}
+
+	private static long usedMemory() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private interface Lookup {
+
+		long lookup(byte[] tag);
+	}
+
+	private static class TagContext {
+
+		private final Object keys;
+		private final long streamNumber;
+
+		private TagContext(Object keys, long streamNumber) {
+			this.keys = keys;
+			this.streamNumber = streamNumber;
+		}
+	}
+}
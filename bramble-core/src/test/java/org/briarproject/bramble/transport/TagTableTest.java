@@ -0,0 +1,97 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.api.Bytes;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class TagTableTest extends BrambleTestCase {
+
+	private final Random random = new Random();
+
+	@Test
+	public void testTableMatchesHashMapWithRandomTags() {
+		List<byte[]> tags = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) tags.add(getRandomBytes(TAG_LENGTH));
+		testTableMatchesHashMap(tags);
+	}
+
+	@Test
+	public void testTableMatchesHashMapWithCollidingTags() {
+		// Tags with the same leading bytes have the same home slot, and
+		// tags that differ only in the last byte of the leading int have
+		// home slots near the end of the table, so runs wrap around
+		List<byte[]> tags = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			byte[] tag = getRandomBytes(TAG_LENGTH);
+			tag[0] = tag[1] = tag[2] = (byte) 0xFF;
+			tag[3] = (byte) (0xF8 + random.nextInt(8));
+			tags.add(tag);
+		}
+		testTableMatchesHashMap(tags);
+	}
+
+	private void testTableMatchesHashMap(List<byte[]> tags) {
+		TagTable<String> table = new TagTable<>();
+		Map<Bytes, Long> expected = new HashMap<>();
+		for (int i = 0; i < 20000; i++) {
+			byte[] tag = tags.get(random.nextInt(tags.size()));
+			Bytes key = new Bytes(tag);
+			if (random.nextBoolean()) {
+				long streamNumber = random.nextInt(1000);
+				table.put(tag, String.valueOf(streamNumber), streamNumber);
+				expected.put(key, streamNumber);
+			} else if (random.nextBoolean()) {
+				int slot = table.find(tag);
+				if (expected.containsKey(key)) {
+					assertNotEquals(-1, slot);
+					table.remove(slot);
+					expected.remove(key);
+				} else {
+					assertEquals(-1, slot);
+				}
+			} else {
+				table.remove(tag);
+				expected.remove(key);
+			}
+			assertEquals(expected.size(), table.size());
+		}
+		assertContents(expected, tags, table);
+		// Remove the entries with odd stream numbers
+		table.removeValues(v -> Long.parseLong(v) % 2 == 1);
+		List<Bytes> odd = new ArrayList<>();
+		for (Entry<Bytes, Long> e : expected.entrySet())
+			if (e.getValue() % 2 == 1) odd.add(e.getKey());
+		for (Bytes b : odd) expected.remove(b);
+		assertEquals(expected.size(), table.size());
+		assertContents(expected, tags, table);
+	}
+
+	private void assertContents(Map<Bytes, Long> expected, List<byte[]> tags,
+			TagTable<String> table) {
+		for (byte[] tag : tags) {
+			Long streamNumber = expected.get(new Bytes(tag));
+			int slot = table.find(tag);
+			if (streamNumber == null) {
+				assertEquals(-1, slot);
+			} else {
+				assertNotEquals(-1, slot);
+				assertEquals(streamNumber.longValue(),
+						table.getStreamNumber(slot));
+				assertEquals(String.valueOf(streamNumber),
+						table.getValue(slot));
+			}
+		}
+	}
+}
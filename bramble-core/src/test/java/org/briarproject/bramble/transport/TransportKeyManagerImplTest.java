@@ -37,7 +37,9 @@ import static org.briarproject.bramble.api.transport.TransportConstants.PROTOCOL
 import static org.briarproject.bramble.api.transport.TransportConstants.REORDERING_WINDOW_SIZE;
 import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
 import static org.briarproject.bramble.test.TestUtils.getTransportId;
+import static org.briarproject.bramble.util.ByteUtils.INT_64_BYTES;
 import static org.briarproject.bramble.util.ByteUtils.MAX_32_BIT_UNSIGNED;
+import static org.briarproject.bramble.util.ByteUtils.writeUint64;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -49,7 +51,10 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
 	private final TransportCrypto transportCrypto =
 			context.mock(TransportCrypto.class);
-	private final Executor dbExecutor = context.mock(Executor.class);
+	private final Executor dbExecutor =
+			context.mock(Executor.class, "dbExecutor");
+	private final Executor cryptoExecutor =
+			context.mock(Executor.class, "cryptoExecutor");
 	private final ScheduledExecutorService scheduler =
 			context.mock(ScheduledExecutorService.class);
 	private final Clock clock = context.mock(Clock.class);
@@ -105,8 +110,8 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		}});
 
 		TransportKeyManager transportKeyManager = new TransportKeyManagerImpl(
-				db, transportCrypto, dbExecutor, scheduler, clock, transportId,
-				maxLatency);
+				db, transportCrypto, dbExecutor, cryptoExecutor, scheduler,
+				clock, transportId, maxLatency);
 		transportKeyManager.start(txn);
 		assertTrue(transportKeyManager.canSendOutgoingStreams(contactId));
 	}
@@ -141,8 +146,8 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		}});
 
 		TransportKeyManager transportKeyManager = new TransportKeyManagerImpl(
-				db, transportCrypto, dbExecutor, scheduler, clock, transportId,
-				maxLatency);
+				db, transportCrypto, dbExecutor, cryptoExecutor, scheduler,
+				clock, transportId, maxLatency);
 		// The timestamp is 1 ms before the start of rotation period 1000
 		long timestamp = rotationPeriodLength * 1000 - 1;
 		assertEquals(keySetId, transportKeyManager.addContact(txn, contactId,
@@ -156,8 +161,8 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		Transaction txn = new Transaction(null, false);
 
 		TransportKeyManager transportKeyManager = new TransportKeyManagerImpl(
-				db, transportCrypto, dbExecutor, scheduler, clock, transportId,
-				maxLatency);
+				db, transportCrypto, dbExecutor, cryptoExecutor, scheduler,
+				clock, transportId, maxLatency);
 		assertNull(transportKeyManager.getStreamContext(txn, contactId));
 		assertFalse(transportKeyManager.canSendOutgoingStreams(contactId));
 	}
@@ -174,8 +179,8 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		expectAddContactNoRotation(alice, true, transportKeys, txn);
 
 		TransportKeyManager transportKeyManager = new TransportKeyManagerImpl(
-				db, transportCrypto, dbExecutor, scheduler, clock, transportId,
-				maxLatency);
+				db, transportCrypto, dbExecutor, cryptoExecutor, scheduler,
+				clock, transportId, maxLatency);
 		// The timestamp is at the start of rotation period 1000
 		long timestamp = rotationPeriodLength * 1000;
 		assertEquals(keySetId, transportKeyManager.addContact(txn, contactId,
@@ -200,8 +205,8 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		}});
 
 		TransportKeyManager transportKeyManager = new TransportKeyManagerImpl(
-				db, transportCrypto, dbExecutor, scheduler, clock, transportId,
-				maxLatency);
+				db, transportCrypto, dbExecutor, cryptoExecutor, scheduler,
+				clock, transportId, maxLatency);
 		// The timestamp is at the start of rotation period 1000
 		long timestamp = rotationPeriodLength * 1000;
 		assertEquals(keySetId, transportKeyManager.addContact(txn, contactId,
@@ -232,8 +237,8 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		expectAddContactNoRotation(alice, active, transportKeys, txn);
 
 		TransportKeyManager transportKeyManager = new TransportKeyManagerImpl(
-				db, transportCrypto, dbExecutor, scheduler, clock, transportId,
-				maxLatency);
+				db, transportCrypto, dbExecutor, cryptoExecutor, scheduler,
+				clock, transportId, maxLatency);
 		// The timestamp is at the start of rotation period 1000
 		long timestamp = rotationPeriodLength * 1000;
 		assertEquals(keySetId, transportKeyManager.addContact(txn, contactId,
@@ -285,8 +290,8 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		}});
 
 		TransportKeyManager transportKeyManager = new TransportKeyManagerImpl(
-				db, transportCrypto, dbExecutor, scheduler, clock, transportId,
-				maxLatency);
+				db, transportCrypto, dbExecutor, cryptoExecutor, scheduler,
+				clock, transportId, maxLatency);
 		// The timestamp is at the start of rotation period 1000
 		long timestamp = rotationPeriodLength * 1000;
 		assertEquals(keySetId, transportKeyManager.addContact(txn, contactId,
@@ -311,10 +316,24 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 
 	@Test
 	public void testKeysAreRotatedToCurrentPeriod() throws Exception {
-		TransportKeys transportKeys = createTransportKeys(1000, 0, true);
+		// Use different tag keys for each rotation period so the tags can
+		// be told apart
+		SecretKey tagKey999 = TestUtils.getSecretKey();
+		SecretKey tagKey1000 = TestUtils.getSecretKey();
+		SecretKey tagKey1001 = TestUtils.getSecretKey();
+		SecretKey tagKey1002 = TestUtils.getSecretKey();
+		TransportKeys transportKeys = new TransportKeys(transportId,
+				new IncomingKeys(tagKey999, headerKey, 999),
+				new IncomingKeys(tagKey1000, headerKey, 1000),
+				new IncomingKeys(tagKey1001, headerKey, 1001),
+				new OutgoingKeys(tagKey, headerKey, 1000, 0, true));
 		Collection<KeySet> loaded =
 				singletonList(new KeySet(keySetId, contactId, transportKeys));
-		TransportKeys rotated = createTransportKeys(1001, 0, true);
+		TransportKeys rotated = new TransportKeys(transportId,
+				new IncomingKeys(tagKey1000, headerKey, 1000),
+				new IncomingKeys(tagKey1001, headerKey, 1001),
+				new IncomingKeys(tagKey1002, headerKey, 1002),
+				new OutgoingKeys(tagKey, headerKey, 1001, 0, true));
 		Transaction txn = new Transaction(null, false);
 		Transaction txn1 = new Transaction(null, false);
 
@@ -330,50 +349,83 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 			will(returnValue(transportKeys));
 			// Encode the tags (3 sets)
 			for (long i = 0; i < REORDERING_WINDOW_SIZE; i++) {
-				exactly(3).of(transportCrypto).encodeTag(
-						with(any(byte[].class)), with(tagKey),
-						with(PROTOCOL_VERSION), with(i));
-				will(new EncodeTagAction());
+				for (SecretKey k : asList(tagKey999, tagKey1000, tagKey1001)) {
+					oneOf(transportCrypto).encodeTag(with(any(byte[].class)),
+							with(k), with(PROTOCOL_VERSION), with(i));
+					will(new DeterministicEncodeTagAction());
+				}
 			}
 			// Schedule key rotation at the start of the next rotation period
 			oneOf(scheduler).schedule(with(any(Runnable.class)),
 					with(rotationPeriodLength), with(MILLISECONDS));
 			will(new RunAction());
-			oneOf(dbExecutor).execute(with(any(Runnable.class)));
-			will(new RunAction());
-			// Start a transaction for key rotation
-			oneOf(db).startTransaction(false);
-			will(returnValue(txn1));
 			// Get the current time (the start of rotation period 1001)
 			oneOf(clock).currentTimeMillis();
 			will(returnValue(rotationPeriodLength * 1001));
-			// Rotate the transport keys
+			// Derive the rotated keys on the crypto executor
+			oneOf(cryptoExecutor).execute(with(any(Runnable.class)));
+			will(new RunAction());
 			oneOf(transportCrypto).rotateTransportKeys(
 					with(any(TransportKeys.class)), with(1001L));
 			will(returnValue(rotated));
-			// Encode the tags (3 sets)
+			// Encode the tags for the expired and new incoming keys only
 			for (long i = 0; i < REORDERING_WINDOW_SIZE; i++) {
-				exactly(3).of(transportCrypto).encodeTag(
-						with(any(byte[].class)), with(tagKey),
-						with(PROTOCOL_VERSION), with(i));
-				will(new EncodeTagAction());
+				for (SecretKey k : asList(tagKey999, tagKey1002)) {
+					oneOf(transportCrypto).encodeTag(with(any(byte[].class)),
+							with(k), with(PROTOCOL_VERSION), with(i));
+					will(new DeterministicEncodeTagAction());
+				}
 			}
+			// Swap in the rotated keys on the DB executor
+			oneOf(dbExecutor).execute(with(any(Runnable.class)));
+			will(new RunAction());
+			oneOf(db).startTransaction(false);
+			will(returnValue(txn1));
 			// Save the keys that were rotated
 			oneOf(db).updateTransportKeys(txn1,
 					singletonList(new KeySet(keySetId, contactId, rotated)));
-			// Schedule key rotation at the start of the next rotation period
-			oneOf(scheduler).schedule(with(any(Runnable.class)),
-					with(rotationPeriodLength), with(MILLISECONDS));
 			// Commit the key rotation transaction
 			oneOf(db).commitTransaction(txn1);
 			oneOf(db).endTransaction(txn1);
+			// Schedule key rotation at the start of the next rotation period
+			oneOf(scheduler).schedule(with(any(Runnable.class)),
+					with(rotationPeriodLength), with(MILLISECONDS));
 		}});
 
 		TransportKeyManager transportKeyManager = new TransportKeyManagerImpl(
-				db, transportCrypto, dbExecutor, scheduler, clock, transportId,
-				maxLatency);
+				db, transportCrypto, dbExecutor, cryptoExecutor, scheduler,
+				clock, transportId, maxLatency);
 		transportKeyManager.start(txn);
+		context.assertIsSatisfied();
 		assertTrue(transportKeyManager.canSendOutgoingStreams(contactId));
+
+		// The tags for the expired incoming keys should not be recognised
+		assertNull(transportKeyManager.getStreamContext(txn,
+				getTag(tagKey999, 0)));
+		// The tags for the retained and new incoming keys should be
+		// recognised
+		List<SecretKey> retained = asList(tagKey1000, tagKey1001, tagKey1002);
+		for (int i = 0; i < retained.size(); i++) {
+			SecretKey k = retained.get(i);
+			long rotationPeriod = 1000 + i;
+			context.checking(new Expectations() {{
+				// Add a tag to the top of the window
+				oneOf(transportCrypto).encodeTag(with(any(byte[].class)),
+						with(k), with(PROTOCOL_VERSION),
+						with((long) REORDERING_WINDOW_SIZE));
+				will(new DeterministicEncodeTagAction());
+				// Save the updated window
+				oneOf(db).setReorderingWindow(txn, keySetId, transportId,
+						rotationPeriod, 1, new byte[REORDERING_WINDOW_SIZE / 8]);
+			}});
+			StreamContext ctx =
+					transportKeyManager.getStreamContext(txn, getTag(k, 0));
+			assertNotNull(ctx);
+			assertEquals(contactId, ctx.getContactId());
+			assertEquals(k, ctx.getTagKey());
+			assertEquals(0L, ctx.getStreamNumber());
+			context.assertIsSatisfied();
+		}
 	}
 
 	@Test
@@ -392,8 +444,8 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		}});
 
 		TransportKeyManager transportKeyManager = new TransportKeyManagerImpl(
-				db, transportCrypto, dbExecutor, scheduler, clock, transportId,
-				maxLatency);
+				db, transportCrypto, dbExecutor, cryptoExecutor, scheduler,
+				clock, transportId, maxLatency);
 		// The timestamp is at the start of rotation period 1000
 		long timestamp = rotationPeriodLength * 1000;
 		assertEquals(keySetId, transportKeyManager.addContact(txn, contactId,
@@ -458,8 +510,8 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		}});
 
 		TransportKeyManager transportKeyManager = new TransportKeyManagerImpl(
-				db, transportCrypto, dbExecutor, scheduler, clock, transportId,
-				maxLatency);
+				db, transportCrypto, dbExecutor, cryptoExecutor, scheduler,
+				clock, transportId, maxLatency);
 		// The timestamp is at the start of rotation period 1000
 		long timestamp = rotationPeriodLength * 1000;
 		assertEquals(keySetId, transportKeyManager.addContact(txn, contactId,
@@ -526,6 +578,35 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		return new TransportKeys(transportId, inPrev, inCurr, inNext, outCurr);
 	}
 
+	/**
+	 * Returns the tag that {@link DeterministicEncodeTagAction} encodes for
+	 * the given tag key and stream number.
+	 */
+	private byte[] getTag(SecretKey tagKey, long streamNumber) {
+		byte[] tag = new byte[TAG_LENGTH];
+		System.arraycopy(tagKey.getBytes(), 0, tag, 0, INT_64_BYTES);
+		writeUint64(streamNumber, tag, INT_64_BYTES);
+		return tag;
+	}
+
+	private class DeterministicEncodeTagAction implements Action {
+
+		@Override
+		public Object invoke(Invocation invocation) throws Throwable {
+			byte[] tag = (byte[]) invocation.getParameter(0);
+			SecretKey tagKey = (SecretKey) invocation.getParameter(1);
+			long streamNumber = (Long) invocation.getParameter(3);
+			byte[] expected = getTag(tagKey, streamNumber);
+			System.arraycopy(expected, 0, tag, 0, TAG_LENGTH);
+			return null;
+		}
+
+		@Override
+		public void describeTo(Description description) {
+			description.appendText("encodes a deterministic tag");
+		}
+	}
+
 	private class EncodeTagAction implements Action {
 
 		private final Collection<byte[]> tags;
@@ -542,7 +623,8 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		public Object invoke(Invocation invocation) throws Throwable {
 			byte[] tag = (byte[]) invocation.getParameter(0);
 			random.nextBytes(tag);
-			if (tags != null) tags.add(tag);
+			// The caller may reuse the buffer, so save a copy
+			if (tags != null) tags.add(tag.clone());
 			return null;
 		}
 
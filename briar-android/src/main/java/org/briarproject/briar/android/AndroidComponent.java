@@ -10,6 +10,7 @@ import org.briarproject.bramble.api.contact.ContactManager;
 import org.briarproject.bramble.api.crypto.CryptoExecutor;
 import org.briarproject.bramble.api.crypto.PasswordStrengthEstimator;
 import org.briarproject.bramble.api.db.DatabaseExecutor;
+import org.briarproject.bramble.api.db.ReadOnlyDatabaseExecutor;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.identity.IdentityManager;
 import org.briarproject.bramble.api.keyagreement.KeyAgreementTask;
@@ -77,6 +78,9 @@ public interface AndroidComponent
 	@DatabaseExecutor
 	Executor databaseExecutor();
 
+	@ReadOnlyDatabaseExecutor
+	Executor readOnlyDatabaseExecutor();
+
 	MessageTracker messageTracker();
 
 	LifecycleManager lifecycleManager();
@@ -29,4 +29,9 @@ class AndroidDatabaseConfig implements DatabaseConfig {
 	public long getMaxSize() {
 		return Long.MAX_VALUE;
 	}
+
+	@Override
+	public int getStatementCacheSize() {
+		return 64;
+	}
 }
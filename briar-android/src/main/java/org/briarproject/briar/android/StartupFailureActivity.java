@@ -70,4 +70,9 @@ public class StartupFailureActivity extends BaseActivity implements
 		throw new AssertionError("Deprecated and should not be used");
 	}
 
+	@Override
+	public void runOnReadOnlyDbThread(Runnable runnable) {
+		throw new AssertionError("Should not be used");
+	}
+
 }
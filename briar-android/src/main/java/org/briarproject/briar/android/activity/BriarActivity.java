@@ -208,6 +208,10 @@ public abstract class BriarActivity extends BaseActivity {
 		dbController.runOnDbThread(task);
 	}
 
+	public void runOnReadOnlyDbThread(Runnable task) {
+		dbController.runOnReadOnlyDbThread(task);
+	}
+
 	@Deprecated
 	protected void finishOnUiThread() {
 		runOnUiThreadUnlessDestroyed(this::supportFinishAfterTransition);
@@ -19,7 +19,6 @@ import org.briarproject.bramble.api.contact.ContactManager;
 import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
 import org.briarproject.bramble.api.contact.event.ContactStatusChangedEvent;
 import org.briarproject.bramble.api.db.DbException;
-import org.briarproject.bramble.api.db.NoSuchContactException;
 import org.briarproject.bramble.api.event.Event;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.event.EventListener;
@@ -41,7 +40,9 @@ import org.briarproject.briar.api.messaging.PrivateMessageHeader;
 import org.briarproject.briar.api.messaging.event.PrivateMessageReceivedEvent;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
@@ -187,21 +188,18 @@ public class ContactListFragment extends BaseFragment implements EventListener {
 
 	private void loadContacts() {
 		int revision = adapter.getRevision();
-		listener.runOnDbThread(() -> {
+		listener.runOnReadOnlyDbThread(() -> {
 			try {
 				long start = now();
+				Collection<Contact> active = contactManager.getActiveContacts();
+				Map<ContactId, GroupCount> counts =
+						conversationManager.getGroupCounts(active);
 				List<ContactListItem> contacts = new ArrayList<>();
-				for (Contact c : contactManager.getActiveContacts()) {
-					try {
-						ContactId id = c.getId();
-						GroupCount count =
-								conversationManager.getGroupCount(id);
-						boolean connected =
-								connectionRegistry.isConnected(c.getId());
-						contacts.add(new ContactListItem(c, connected, count));
-					} catch (NoSuchContactException e) {
-						// Continue
-					}
+				for (Contact c : active) {
+					GroupCount count = counts.get(c.getId());
+					boolean connected =
+							connectionRegistry.isConnected(c.getId());
+					contacts.add(new ContactListItem(c, connected, count));
 				}
 				logDuration(LOG, "Full load", start);
 				displayContacts(revision, contacts);
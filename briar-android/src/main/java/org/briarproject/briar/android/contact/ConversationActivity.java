@@ -23,6 +23,7 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.client.SessionId;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.ContactManager;
@@ -63,7 +64,6 @@ import org.briarproject.briar.android.view.TextInputView.TextInputListener;
 import org.briarproject.briar.api.android.AndroidNotificationManager;
 import org.briarproject.briar.api.blog.BlogSharingManager;
 import org.briarproject.briar.api.client.ProtocolStateException;
-import org.briarproject.briar.api.client.SessionId;
 import org.briarproject.briar.api.forum.ForumSharingManager;
 import org.briarproject.briar.api.introduction.IntroductionManager;
 import org.briarproject.briar.api.messaging.ConversationManager;
@@ -324,7 +324,7 @@ public class ConversationActivity extends BriarActivity
 
 	private void loadMessages() {
 		int revision = adapter.getRevision();
-		runOnDbThread(() -> {
+		runOnReadOnlyDbThread(() -> {
 			try {
 				long start = now();
 				Collection<PrivateMessageHeader> headers =
@@ -2,10 +2,10 @@ package org.briarproject.briar.android.contact;
 
 import android.support.annotation.LayoutRes;
 
+import org.briarproject.bramble.api.client.SessionId;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.briar.R;
-import org.briarproject.briar.api.client.SessionId;
 import org.briarproject.briar.api.messaging.PrivateRequest;
 import org.briarproject.briar.api.sharing.InvitationRequest;
 import org.briarproject.briar.api.sharing.Shareable;
@@ -6,4 +6,11 @@ import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 public interface DbController {
 
 	void runOnDbThread(Runnable task);
+
+	/**
+	 * Runs a task that only uses read-only transactions. The task may run
+	 * concurrently with other tasks, and in any order relative to tasks
+	 * passed to {@link #runOnDbThread(Runnable)}.
+	 */
+	void runOnReadOnlyDbThread(Runnable task);
 }
@@ -1,6 +1,7 @@
 package org.briarproject.briar.android.controller;
 
 import org.briarproject.bramble.api.db.DatabaseExecutor;
+import org.briarproject.bramble.api.db.ReadOnlyDatabaseExecutor;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 
@@ -18,18 +19,39 @@ public class DbControllerImpl implements DbController {
 			Logger.getLogger(DbControllerImpl.class.getName());
 
 	protected final Executor dbExecutor;
+	private final Executor readOnlyDbExecutor;
 	private final LifecycleManager lifecycleManager;
 
 	@Inject
 	public DbControllerImpl(@DatabaseExecutor Executor dbExecutor,
+			@ReadOnlyDatabaseExecutor Executor readOnlyDbExecutor,
 			LifecycleManager lifecycleManager) {
 		this.dbExecutor = dbExecutor;
+		this.readOnlyDbExecutor = readOnlyDbExecutor;
 		this.lifecycleManager = lifecycleManager;
 	}
 
+	/**
+	 * Creates a controller that runs read-only tasks on the database
+	 * executor.
+	 */
+	public DbControllerImpl(Executor dbExecutor,
+			LifecycleManager lifecycleManager) {
+		this(dbExecutor, dbExecutor, lifecycleManager);
+	}
+
 	@Override
 	public void runOnDbThread(Runnable task) {
-		dbExecutor.execute(() -> {
+		runWhenDatabaseIsOpen(dbExecutor, task);
+	}
+
+	@Override
+	public void runOnReadOnlyDbThread(Runnable task) {
+		runWhenDatabaseIsOpen(readOnlyDbExecutor, task);
+	}
+
+	private void runWhenDatabaseIsOpen(Executor executor, Runnable task) {
+		executor.execute(() -> {
 			try {
 				lifecycleManager.waitForDatabase();
 				task.run();
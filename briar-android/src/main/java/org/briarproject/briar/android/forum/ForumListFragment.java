@@ -15,7 +15,6 @@ import android.view.ViewGroup;
 
 import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
 import org.briarproject.bramble.api.db.DbException;
-import org.briarproject.bramble.api.db.NoSuchGroupException;
 import org.briarproject.bramble.api.event.Event;
 import org.briarproject.bramble.api.nullsafety.MethodsNotNullByDefault;
 import org.briarproject.bramble.api.nullsafety.ParametersNotNullByDefault;
@@ -38,6 +37,8 @@ import org.briarproject.briar.api.forum.event.ForumPostReceivedEvent;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
@@ -159,15 +160,16 @@ public class ForumListFragment extends BaseEventFragment implements
 		listener.runOnDbThread(() -> {
 			try {
 				long start = now();
+				Collection<Forum> all = forumManager.getForums();
+				List<GroupId> ids = new ArrayList<>(all.size());
+				for (Forum f : all) ids.add(f.getId());
+				Map<GroupId, GroupCount> counts =
+						forumManager.getGroupCounts(ids);
 				Collection<ForumListItem> forums = new ArrayList<>();
-				for (Forum f : forumManager.getForums()) {
-					try {
-						GroupCount count =
-								forumManager.getGroupCount(f.getId());
-						forums.add(new ForumListItem(f, count));
-					} catch (NoSuchGroupException e) {
-						// Continue
-					}
+				for (Forum f : all) {
+					GroupCount count = counts.get(f.getId());
+					// Skip any forums that have been removed
+					if (count != null) forums.add(new ForumListItem(f, count));
 				}
 				logDuration(LOG, "Full load", start);
 				displayForums(revision, forums);
@@ -65,6 +65,8 @@ public abstract class BaseFragment extends Fragment
 		@Deprecated
 		void runOnDbThread(Runnable runnable);
 
+		void runOnReadOnlyDbThread(Runnable runnable);
+
 		@UiThread
 		void onBackPressed();
 
@@ -110,4 +110,9 @@ public class SetupActivity extends BaseActivity
 		throw new RuntimeException("Don't use this deprecated method here.");
 	}
 
+	@Override
+	public void runOnReadOnlyDbThread(Runnable runnable) {
+		throw new RuntimeException("Don't use this method here.");
+	}
+
 }
@@ -1,9 +1,9 @@
 package org.briarproject.briar.api.blog;
 
+import org.briarproject.bramble.api.client.SessionId;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.MessageId;
-import org.briarproject.briar.api.client.SessionId;
 import org.briarproject.briar.api.messaging.PrivateMessageVisitor;
 import org.briarproject.briar.api.sharing.InvitationResponse;
 
@@ -1,6 +1,7 @@
 package org.briarproject.briar.api.blog;
 
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.MessageCursor;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.identity.LocalAuthor;
@@ -10,6 +11,7 @@ import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.MessageId;
 
 import java.util.Collection;
+import java.util.List;
 
 import javax.annotation.Nullable;
 
@@ -113,6 +115,16 @@ public interface BlogManager {
 	 */
 	Collection<BlogPostHeader> getPostHeaders(GroupId g) throws DbException;
 
+	/**
+	 * Returns the headers of up to the given number of posts in the given
+	 * blog, newest first. If a cursor is given, only posts that come before
+	 * the cursor are returned. The cursor of the last header in a page,
+	 * {@code new MessageCursor(h.getTimestamp(), h.getId())}, can be used to
+	 * retrieve the next page.
+	 */
+	List<BlogPostHeader> getPostHeaders(GroupId g,
+			@Nullable MessageCursor before, int limit) throws DbException;
+
 	/**
 	 * Marks a blog post as read or unread.
 	 */
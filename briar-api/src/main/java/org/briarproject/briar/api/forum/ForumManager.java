@@ -2,6 +2,7 @@ package org.briarproject.briar.api.forum;
 
 import org.briarproject.bramble.api.crypto.CryptoExecutor;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.MessageCursor;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.identity.LocalAuthor;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
@@ -11,6 +12,8 @@ import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.briar.api.client.MessageTracker.GroupCount;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 
@@ -84,6 +87,16 @@ public interface ForumManager {
 	 */
 	Collection<ForumPostHeader> getPostHeaders(GroupId g) throws DbException;
 
+	/**
+	 * Returns the headers of up to the given number of posts in the given
+	 * forum, newest first. If a cursor is given, only posts that come before
+	 * the cursor are returned. The cursor of the last header in a page,
+	 * {@code new MessageCursor(h.getTimestamp(), h.getId())}, can be used to
+	 * retrieve the next page.
+	 */
+	List<ForumPostHeader> getPostHeaders(GroupId g,
+			@Nullable MessageCursor before, int limit) throws DbException;
+
 	/**
 	 * Registers a hook to be called whenever a forum is removed.
 	 */
@@ -94,6 +107,12 @@ public interface ForumManager {
 	 */
 	GroupCount getGroupCount(GroupId g) throws DbException;
 
+	/**
+	 * Returns the group counts for any of the given forums that exist.
+	 */
+	Map<GroupId, GroupCount> getGroupCounts(Collection<GroupId> forums)
+			throws DbException;
+
 	/**
 	 * Marks a message as read or unread and updates the group count.
 	 */
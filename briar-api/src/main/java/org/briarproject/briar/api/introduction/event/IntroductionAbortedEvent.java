@@ -1,8 +1,8 @@
 package org.briarproject.briar.api.introduction.event;
 
+import org.briarproject.bramble.api.client.SessionId;
 import org.briarproject.bramble.api.event.Event;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
-import org.briarproject.briar.api.client.SessionId;
 
 import javax.annotation.concurrent.Immutable;
 
@@ -3,6 +3,7 @@ package org.briarproject.briar.api.messaging;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.MessageCursor;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.Group;
@@ -11,6 +12,10 @@ import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.briar.api.client.MessageTracker.GroupCount;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
 
 @NotNullByDefault
 public interface ConversationManager {
@@ -30,11 +35,32 @@ public interface ConversationManager {
 	Collection<PrivateMessageHeader> getMessageHeaders(ContactId c)
 			throws DbException;
 
+	/**
+	 * Returns the headers of up to the given number of messages in the given
+	 * private conversation, newest first. If a cursor is given, only messages
+	 * that come before the cursor are returned. The cursor of the last header
+	 * in a page, {@code new MessageCursor(h.getTimestamp(), h.getId())}, can
+	 * be used to retrieve the next page.
+	 * <p/>
+	 * A page may contain fewer headers than requested even if there are more
+	 * messages, so callers should stop paging when an empty page is returned.
+	 */
+	List<PrivateMessageHeader> getMessageHeaders(ContactId c,
+			@Nullable MessageCursor before, int limit) throws DbException;
+
 	/**
 	 * Returns the unified group count for all private conversation messages.
 	 */
 	GroupCount getGroupCount(ContactId c) throws DbException;
 
+	/**
+	 * Returns the unified group counts for all private conversation messages
+	 * with the given contacts, loading each client's counts in a single
+	 * query.
+	 */
+	Map<ContactId, GroupCount> getGroupCounts(Collection<Contact> contacts)
+			throws DbException;
+
 	@NotNullByDefault
 	interface ConversationClient {
 
@@ -43,6 +69,15 @@ public interface ConversationManager {
 		Collection<PrivateMessageHeader> getMessageHeaders(Transaction txn,
 				ContactId contactId) throws DbException;
 
+		/**
+		 * Returns the headers of up to the given number of messages in the
+		 * given private conversation, newest first. If a cursor is given,
+		 * only messages that come before the cursor are returned.
+		 */
+		List<PrivateMessageHeader> getMessageHeaders(Transaction txn,
+				ContactId contactId, @Nullable MessageCursor before, int limit)
+				throws DbException;
+
 		GroupCount getGroupCount(Transaction txn, ContactId c)
 				throws DbException;
 
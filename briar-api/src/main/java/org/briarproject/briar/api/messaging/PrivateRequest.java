@@ -1,10 +1,10 @@
 package org.briarproject.briar.api.messaging;
 
 import org.briarproject.bramble.api.Nameable;
+import org.briarproject.bramble.api.client.SessionId;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.MessageId;
-import org.briarproject.briar.api.client.SessionId;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
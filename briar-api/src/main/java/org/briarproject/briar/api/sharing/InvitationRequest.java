@@ -1,8 +1,8 @@
 package org.briarproject.briar.api.sharing;
 
+import org.briarproject.bramble.api.client.SessionId;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.MessageId;
-import org.briarproject.briar.api.client.SessionId;
 import org.briarproject.briar.api.messaging.PrivateRequest;
 
 import javax.annotation.Nullable;
@@ -1,6 +1,7 @@
 package org.briarproject.briar;
 
 import org.briarproject.briar.blog.BlogModule;
+import org.briarproject.briar.client.BriarClientModule;
 import org.briarproject.briar.feed.FeedModule;
 import org.briarproject.briar.forum.ForumModule;
 import org.briarproject.briar.introduction.IntroductionModule;
@@ -13,6 +14,8 @@ public interface BriarCoreEagerSingletons {
 
 	void inject(BlogModule.EagerSingletons init);
 
+	void inject(BriarClientModule.EagerSingletons init);
+
 	void inject(FeedModule.EagerSingletons init);
 
 	void inject(ForumModule.EagerSingletons init);
@@ -30,6 +30,8 @@ import dagger.Module;
 public class BriarCoreModule {
 
 	public static void initEagerSingletons(BriarCoreEagerSingletons c) {
+		// Counts must be migrated before any client updates them
+		c.inject(new BriarClientModule.EagerSingletons());
 		c.inject(new BlogModule.EagerSingletons());
 		c.inject(new FeedModule.EagerSingletons());
 		c.inject(new ForumModule.EagerSingletons());
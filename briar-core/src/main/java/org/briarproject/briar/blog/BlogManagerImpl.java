@@ -10,6 +10,7 @@ import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.data.MetadataParser;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.MessageCursor;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.identity.Author.Status;
@@ -49,6 +50,7 @@ import java.util.concurrent.CopyOnWriteArrayList;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 
+import static java.util.Arrays.asList;
 import static org.briarproject.briar.api.blog.BlogConstants.KEY_AUTHOR;
 import static org.briarproject.briar.api.blog.BlogConstants.KEY_COMMENT;
 import static org.briarproject.briar.api.blog.BlogConstants.KEY_ORIGINAL_MSG_ID;
@@ -68,6 +70,13 @@ import static org.briarproject.briar.api.blog.MessageType.WRAPPED_POST;
 class BlogManagerImpl extends BdfIncomingMessageHook implements BlogManager,
 		ContactHook, Client {
 
+	/**
+	 * The metadata keys needed for building post headers.
+	 */
+	private static final Collection<String> HEADER_KEYS =
+			asList(KEY_TYPE, KEY_TIMESTAMP, KEY_TIME_RECEIVED, KEY_AUTHOR,
+					KEY_RSS_FEED, KEY_READ, KEY_COMMENT, KEY_PARENT_MSG_ID);
+
 	private final IdentityManager identityManager;
 	private final BlogFactory blogFactory;
 	private final BlogPostFactory blogPostFactory;
@@ -490,38 +499,19 @@ class BlogManagerImpl extends BdfIncomingMessageHook implements BlogManager,
 				new BdfEntry(KEY_TYPE, COMMENT.getInt())
 		);
 
-		Collection<BlogPostHeader> headers = new ArrayList<>();
 		Transaction txn = db.startTransaction(true);
 		try {
 			Map<MessageId, BdfDictionary> metadata1 =
-					clientHelper.getMessageMetadataAsDictionary(txn, g, query1);
+					clientHelper.getMessageMetadataAsDictionary(txn, g, query1,
+							HEADER_KEYS);
 			Map<MessageId, BdfDictionary> metadata2 =
-					clientHelper.getMessageMetadataAsDictionary(txn, g, query2);
+					clientHelper.getMessageMetadataAsDictionary(txn, g, query2,
+							HEADER_KEYS);
 			Map<MessageId, BdfDictionary> metadata =
 					new HashMap<>(metadata1.size() + metadata2.size());
 			metadata.putAll(metadata1);
 			metadata.putAll(metadata2);
-			// get all authors we need to get the status for
-			Set<AuthorId> authors = new HashSet<>();
-			for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
-				BdfList authorList = entry.getValue().getList(KEY_AUTHOR);
-				Author a = clientHelper.parseAndValidateAuthor(authorList);
-				authors.add(a.getId());
-			}
-			// get statuses for all authors
-			Map<AuthorId, Status> authorStatuses = new HashMap<>();
-			for (AuthorId authorId : authors) {
-				authorStatuses.put(authorId,
-						identityManager.getAuthorStatus(txn, authorId));
-			}
-			// get post headers
-			for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
-				BdfDictionary meta = entry.getValue();
-				BlogPostHeader h =
-						getPostHeaderFromMetadata(txn, g, entry.getKey(), meta,
-								authorStatuses);
-				headers.add(h);
-			}
+			List<BlogPostHeader> headers = getPostHeaders(txn, g, metadata);
 			db.commitTransaction(txn);
 			return headers;
 		} catch (FormatException e) {
@@ -531,6 +521,71 @@ class BlogManagerImpl extends BdfIncomingMessageHook implements BlogManager,
 		}
 	}
 
+	@Override
+	public List<BlogPostHeader> getPostHeaders(GroupId g,
+			@Nullable MessageCursor before, int limit) throws DbException {
+
+		// Query for posts and comments only
+		BdfDictionary query1 = BdfDictionary.of(
+				new BdfEntry(KEY_TYPE, POST.getInt())
+		);
+		BdfDictionary query2 = BdfDictionary.of(
+				new BdfEntry(KEY_TYPE, COMMENT.getInt())
+		);
+
+		Transaction txn = db.startTransaction(true);
+		try {
+			// Merge the pages of posts and comments, newest first
+			List<MessageCursor> cursors = new ArrayList<>(
+					clientHelper.getMessageCursors(txn, g, query1, before,
+							limit));
+			cursors.addAll(clientHelper.getMessageCursors(txn, g, query2,
+					before, limit));
+			Collections.sort(cursors, Collections.reverseOrder());
+			if (cursors.size() > limit) cursors = cursors.subList(0, limit);
+			List<MessageId> ids = new ArrayList<>(cursors.size());
+			for (MessageCursor c : cursors) ids.add(c.getMessageId());
+			Map<MessageId, BdfDictionary> metadata =
+					clientHelper.getMessageMetadataAsDictionary(txn, ids,
+							HEADER_KEYS);
+			List<BlogPostHeader> headers = getPostHeaders(txn, g, metadata);
+			db.commitTransaction(txn);
+			return headers;
+		} catch (FormatException e) {
+			throw new DbException(e);
+		} finally {
+			db.endTransaction(txn);
+		}
+	}
+
+	private List<BlogPostHeader> getPostHeaders(Transaction txn, GroupId g,
+			Map<MessageId, BdfDictionary> metadata)
+			throws DbException, FormatException {
+		List<BlogPostHeader> headers = new ArrayList<>(metadata.size());
+		// get all authors we need to get the status for
+		Set<AuthorId> authors = new HashSet<>();
+		for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
+			BdfList authorList = entry.getValue().getList(KEY_AUTHOR);
+			Author a = clientHelper.parseAndValidateAuthor(authorList);
+			authors.add(a.getId());
+		}
+		// get statuses for all authors
+		Map<AuthorId, Status> authorStatuses = new HashMap<>();
+		for (AuthorId authorId : authors) {
+			authorStatuses.put(authorId,
+					identityManager.getAuthorStatus(txn, authorId));
+		}
+		// get post headers
+		for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
+			BdfDictionary meta = entry.getValue();
+			BlogPostHeader h =
+					getPostHeaderFromMetadata(txn, g, entry.getKey(), meta,
+							authorStatuses);
+			headers.add(h);
+		}
+		return headers;
+	}
+
 	@Override
 	public void setReadFlag(MessageId m, boolean read) throws DbException {
 		try {
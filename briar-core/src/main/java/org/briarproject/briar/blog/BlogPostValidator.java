@@ -111,8 +111,7 @@ class BlogPostValidator extends BdfMessageValidator {
 		Blog b = blogFactory.parseBlog(g);
 		Author a = b.getAuthor();
 		try {
-			clientHelper.verifySignature(sig, SIGNING_LABEL_POST, signed,
-					a.getPublicKey());
+			verifySignature(sig, SIGNING_LABEL_POST, signed, a.getPublicKey());
 		} catch (GeneralSecurityException e) {
 			throw new InvalidMessageException(e);
 		}
@@ -157,7 +156,7 @@ class BlogPostValidator extends BdfMessageValidator {
 		Blog b = blogFactory.parseBlog(g);
 		Author a = b.getAuthor();
 		try {
-			clientHelper.verifySignature(sig, SIGNING_LABEL_COMMENT,
+			verifySignature(sig, SIGNING_LABEL_COMMENT,
 					signed, a.getPublicKey());
 		} catch (GeneralSecurityException e) {
 			throw new InvalidMessageException(e);
@@ -1,11 +1,14 @@
 package org.briarproject.briar.client;
 
+import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.MetadataParser;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.MessageCursor;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.GroupId;
@@ -14,6 +17,12 @@ import org.briarproject.briar.api.client.MessageTracker;
 import org.briarproject.briar.api.client.MessageTracker.GroupCount;
 import org.briarproject.briar.api.messaging.ConversationManager.ConversationClient;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 
 @Immutable
@@ -38,6 +47,45 @@ public abstract class ConversationClientImpl extends BdfIncomingMessageHook
 		return messageTracker.getGroupCount(txn, groupId);
 	}
 
+	/**
+	 * Returns the metadata of up to the given number of delivered messages in
+	 * the given group with metadata that matches the given query. The map
+	 * iterates over the messages newest first. If a cursor is given, only
+	 * messages that come before the cursor are returned.
+	 */
+	protected Map<MessageId, BdfDictionary> getMessageMetadata(
+			Transaction txn, GroupId g, BdfDictionary query,
+			@Nullable MessageCursor before, int limit)
+			throws DbException, FormatException {
+		return clientHelper.getMessageMetadataAsDictionary(txn,
+				getMessageIds(txn, g, query, before, limit));
+	}
+
+	/**
+	 * Returns the metadata of up to the given number of delivered messages in
+	 * the given group with metadata that matches the given query, parsing
+	 * only the entries that have the given keys. The map iterates over the
+	 * messages newest first. If a cursor is given, only messages that come
+	 * before the cursor are returned.
+	 */
+	protected Map<MessageId, BdfDictionary> getMessageMetadata(
+			Transaction txn, GroupId g, BdfDictionary query,
+			@Nullable MessageCursor before, int limit, Collection<String> keys)
+			throws DbException, FormatException {
+		return clientHelper.getMessageMetadataAsDictionary(txn,
+				getMessageIds(txn, g, query, before, limit), keys);
+	}
+
+	private List<MessageId> getMessageIds(Transaction txn, GroupId g,
+			BdfDictionary query, @Nullable MessageCursor before, int limit)
+			throws DbException, FormatException {
+		List<MessageCursor> cursors =
+				clientHelper.getMessageCursors(txn, g, query, before, limit);
+		List<MessageId> ids = new ArrayList<>(cursors.size());
+		for (MessageCursor c : cursors) ids.add(c.getMessageId());
+		return ids;
+	}
+
 	@Override
 	public void setReadFlag(GroupId g, MessageId m, boolean read)
 			throws DbException {
@@ -6,26 +6,37 @@ import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.MessageCounts;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.settings.Settings;
+import org.briarproject.bramble.api.sync.Client;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.briar.api.client.MessageTracker;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import javax.inject.Inject;
 
+import static org.briarproject.bramble.api.data.BdfDictionary.NULL_VALUE;
 import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_LATEST_MSG;
 import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_MSG_COUNT;
 import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_STORED_MESSAGE_ID;
 import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_UNREAD_COUNT;
 import static org.briarproject.briar.client.MessageTrackerConstants.MSG_KEY_READ;
+import static org.briarproject.briar.client.MessageTrackerConstants.SETTINGS_KEY_COUNTS_MIGRATED;
+import static org.briarproject.briar.client.MessageTrackerConstants.SETTINGS_NAMESPACE;
 
 @Immutable
 @NotNullByDefault
-class MessageTrackerImpl implements MessageTracker {
+class MessageTrackerImpl implements MessageTracker, Client {
 
 	private final DatabaseComponent db;
 	private final ClientHelper clientHelper;
@@ -48,15 +59,23 @@ class MessageTrackerImpl implements MessageTracker {
 		trackMessage(txn, m.getGroupId(), m.getTimestamp(), true);
 	}
 
+	@Override
+	public void createLocalState(Transaction txn) throws DbException {
+		// Move any counts stored by an earlier version to the counts table
+		Settings s = db.getSettings(txn, SETTINGS_NAMESPACE);
+		if (s.getBoolean(SETTINGS_KEY_COUNTS_MIGRATED, false)) return;
+		for (GroupId g : db.getGroupsWithoutMessageCounts(txn))
+			migrateGroupCount(txn, g);
+		s = new Settings();
+		s.putBoolean(SETTINGS_KEY_COUNTS_MIGRATED, true);
+		db.mergeSettings(txn, s, SETTINGS_NAMESPACE);
+	}
+
 	@Override
 	public void trackMessage(Transaction txn, GroupId g, long time,
 			boolean read) throws DbException {
-		GroupCount c = getGroupCount(txn, g);
-		int msgCount = c.getMsgCount() + 1;
-		int unreadCount = c.getUnreadCount() + (read ? 0 : 1);
-		long latestMsgTime = Math.max(c.getLatestMsgTime(), time);
-		storeGroupCount(txn, g, new GroupCount(msgCount, unreadCount,
-				latestMsgTime));
+		if (!db.incrementMessageCounts(txn, g, time, read))
+			throw new DbException();
 	}
 
 	@Nullable
@@ -99,25 +118,58 @@ class MessageTrackerImpl implements MessageTracker {
 	@Override
 	public GroupCount getGroupCount(Transaction txn, GroupId g)
 			throws DbException {
+		MessageCounts c = db.getMessageCounts(txn, g);
+		if (c == null) throw new DbException();
+		return toGroupCount(c);
+	}
+
+	@Override
+	public Map<GroupId, GroupCount> getGroupCounts(Collection<GroupId> groups)
+			throws DbException {
+		Map<GroupId, GroupCount> counts;
+		Transaction txn = db.startTransaction(true);
 		try {
-			BdfDictionary d = clientHelper.getGroupMetadataAsDictionary(txn, g);
-			return new GroupCount(
-					d.getLong(GROUP_KEY_MSG_COUNT, 0L).intValue(),
-					d.getLong(GROUP_KEY_UNREAD_COUNT, 0L).intValue(),
-					d.getLong(GROUP_KEY_LATEST_MSG, 0L)
-			);
-		} catch (FormatException e) {
-			throw new DbException(e);
+			counts = getGroupCounts(txn, groups);
+			db.commitTransaction(txn);
+		} finally {
+			db.endTransaction(txn);
 		}
+		return counts;
+	}
+
+	@Override
+	public Map<GroupId, GroupCount> getGroupCounts(Transaction txn,
+			Collection<GroupId> groups) throws DbException {
+		Map<GroupId, MessageCounts> counts = db.getMessageCounts(txn, groups);
+		Map<GroupId, GroupCount> groupCounts = new HashMap<>(groups.size());
+		for (Entry<GroupId, MessageCounts> e : counts.entrySet())
+			groupCounts.put(e.getKey(), toGroupCount(e.getValue()));
+		return groupCounts;
+	}
+
+	private GroupCount toGroupCount(MessageCounts c) {
+		return new GroupCount(c.getMsgCount(), c.getUnreadCount(),
+				c.getLatestMsgTime());
 	}
 
-	private void storeGroupCount(Transaction txn, GroupId g, GroupCount c)
+	/**
+	 * Moves the group count stored in the group metadata by earlier versions
+	 * into the message counts table, for a group that was added before the
+	 * message counts table.
+	 */
+	private void migrateGroupCount(Transaction txn, GroupId g)
 			throws DbException {
 		try {
-			BdfDictionary d = BdfDictionary.of(
-					new BdfEntry(GROUP_KEY_MSG_COUNT, c.getMsgCount()),
-					new BdfEntry(GROUP_KEY_UNREAD_COUNT, c.getUnreadCount()),
-					new BdfEntry(GROUP_KEY_LATEST_MSG, c.getLatestMsgTime())
+			BdfDictionary d = clientHelper.getGroupMetadataAsDictionary(txn, g);
+			db.setMessageCounts(txn, g, new MessageCounts(
+					d.getLong(GROUP_KEY_MSG_COUNT, 0L).intValue(),
+					d.getLong(GROUP_KEY_UNREAD_COUNT, 0L).intValue(),
+					d.getLong(GROUP_KEY_LATEST_MSG, 0L)
+			));
+			d = BdfDictionary.of(
+					new BdfEntry(GROUP_KEY_MSG_COUNT, NULL_VALUE),
+					new BdfEntry(GROUP_KEY_UNREAD_COUNT, NULL_VALUE),
+					new BdfEntry(GROUP_KEY_LATEST_MSG, NULL_VALUE)
 			);
 			clientHelper.mergeGroupMetadata(txn, g, d);
 		} catch (FormatException e) {
@@ -142,12 +194,10 @@ class MessageTrackerImpl implements MessageTracker {
 				meta.put(MSG_KEY_READ, read);
 				clientHelper.mergeMessageMetadata(txn, m, meta);
 
-				// update unread counter in group metadata
-				GroupCount c = getGroupCount(txn, g);
-				int unreadCount = c.getUnreadCount() + (read ? -1 : 1);
-				if (unreadCount < 0) throw new DbException();
-				storeGroupCount(txn, g, new GroupCount(c.getMsgCount(),
-						unreadCount, c.getLatestMsgTime()));
+				// update unread counter
+				int increment = read ? -1 : 1;
+				if (!db.incrementUnreadCount(txn, g, increment))
+					throw new DbException();
 			}
 			db.commitTransaction(txn);
 		} catch (FormatException e) {
@@ -7,6 +7,7 @@ import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.data.MetadataParser;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.MessageCursor;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.identity.Author.Status;
@@ -45,6 +46,7 @@ import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
+import static java.util.Arrays.asList;
 import static org.briarproject.bramble.api.identity.Author.Status.OURSELVES;
 import static org.briarproject.briar.api.forum.ForumConstants.KEY_AUTHOR;
 import static org.briarproject.briar.api.forum.ForumConstants.KEY_LOCAL;
@@ -56,6 +58,12 @@ import static org.briarproject.briar.client.MessageTrackerConstants.MSG_KEY_READ
 @NotNullByDefault
 class ForumManagerImpl extends BdfIncomingMessageHook implements ForumManager {
 
+	/**
+	 * The metadata keys needed for building post headers.
+	 */
+	private static final Collection<String> HEADER_KEYS =
+			asList(KEY_TIMESTAMP, KEY_PARENT, KEY_AUTHOR, MSG_KEY_READ);
+
 	private final IdentityManager identityManager;
 	private final ForumFactory forumFactory;
 	private final ForumPostFactory forumPostFactory;
@@ -193,36 +201,60 @@ class ForumManagerImpl extends BdfIncomingMessageHook implements ForumManager {
 			throws DbException {
 		try {
 			return db.transactionWithResult(true, txn -> {
-				Collection<ForumPostHeader> headers = new ArrayList<>();
 				Map<MessageId, BdfDictionary> metadata =
-						clientHelper.getMessageMetadataAsDictionary(txn, g);
-				// get all authors we need to get the status for
-				Set<AuthorId> authors = new HashSet<>();
-				for (Entry<MessageId, BdfDictionary> entry :
-						metadata.entrySet()) {
-					BdfList authorList = entry.getValue().getList(KEY_AUTHOR);
-					Author a = clientHelper.parseAndValidateAuthor(authorList);
-					authors.add(a.getId());
-				}
-				// get statuses for all authors
-				Map<AuthorId, Status> statuses = new HashMap<>();
-				for (AuthorId id : authors) {
-					statuses.put(id, identityManager.getAuthorStatus(txn, id));
-				}
-				// Parse the metadata
-				for (Entry<MessageId, BdfDictionary> entry :
-						metadata.entrySet()) {
-					BdfDictionary meta = entry.getValue();
-					headers.add(getForumPostHeader(txn, entry.getKey(), meta,
-							statuses));
-				}
-				return headers;
+						clientHelper.getMessageMetadataAsDictionary(txn, g,
+								HEADER_KEYS);
+				return getPostHeaders(txn, metadata);
 			});
 		} catch (FormatException e) {
 			throw new DbException(e);
 		}
 	}
 
+	@Override
+	public List<ForumPostHeader> getPostHeaders(GroupId g,
+			@Nullable MessageCursor before, int limit) throws DbException {
+		try {
+			return db.transactionWithResult(true, txn -> {
+				List<MessageCursor> cursors = clientHelper.getMessageCursors(
+						txn, g, new BdfDictionary(), before, limit);
+				List<MessageId> ids = new ArrayList<>(cursors.size());
+				for (MessageCursor c : cursors) ids.add(c.getMessageId());
+				Map<MessageId, BdfDictionary> metadata =
+						clientHelper.getMessageMetadataAsDictionary(txn, ids,
+								HEADER_KEYS);
+				return getPostHeaders(txn, metadata);
+			});
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
+	}
+
+	private List<ForumPostHeader> getPostHeaders(Transaction txn,
+			Map<MessageId, BdfDictionary> metadata)
+			throws DbException, FormatException {
+		List<ForumPostHeader> headers = new ArrayList<>(metadata.size());
+		// get all authors we need to get the status for
+		Set<AuthorId> authors = new HashSet<>();
+		for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
+			BdfList authorList = entry.getValue().getList(KEY_AUTHOR);
+			Author a = clientHelper.parseAndValidateAuthor(authorList);
+			authors.add(a.getId());
+		}
+		// get statuses for all authors
+		Map<AuthorId, Status> statuses = new HashMap<>();
+		for (AuthorId id : authors) {
+			statuses.put(id, identityManager.getAuthorStatus(txn, id));
+		}
+		// Parse the metadata
+		for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
+			BdfDictionary meta = entry.getValue();
+			headers.add(getForumPostHeader(txn, entry.getKey(), meta,
+					statuses));
+		}
+		return headers;
+	}
+
 	@Override
 	public void registerRemoveForumHook(RemoveForumHook hook) {
 		removeHooks.add(hook);
@@ -233,6 +265,12 @@ class ForumManagerImpl extends BdfIncomingMessageHook implements ForumManager {
 		return messageTracker.getGroupCount(g);
 	}
 
+	@Override
+	public Map<GroupId, GroupCount> getGroupCounts(Collection<GroupId> forums)
+			throws DbException {
+		return messageTracker.getGroupCounts(forums);
+	}
+
 	@Override
 	public void setReadFlag(GroupId g, MessageId m, boolean read)
 			throws DbException {
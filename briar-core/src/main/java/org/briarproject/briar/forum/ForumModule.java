@@ -2,6 +2,7 @@ package org.briarproject.briar.forum;
 
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.data.MetadataEncoder;
+import org.briarproject.bramble.api.sync.SyncScheduler;
 import org.briarproject.bramble.api.sync.ValidationManager;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.briar.api.forum.ForumFactory;
@@ -14,6 +15,7 @@ import javax.inject.Singleton;
 import dagger.Module;
 import dagger.Provides;
 
+import static org.briarproject.bramble.api.sync.SyncScheduler.Priority.LOW;
 import static org.briarproject.briar.api.forum.ForumManager.CLIENT_ID;
 import static org.briarproject.briar.api.forum.ForumManager.MAJOR_VERSION;
 
@@ -30,9 +32,11 @@ public class ForumModule {
 	@Provides
 	@Singleton
 	ForumManager provideForumManager(ForumManagerImpl forumManager,
-			ValidationManager validationManager) {
+			ValidationManager validationManager,
+			SyncScheduler syncScheduler) {
 		validationManager.registerIncomingMessageHook(CLIENT_ID, MAJOR_VERSION,
 				forumManager);
+		syncScheduler.setClientPriority(CLIENT_ID, MAJOR_VERSION, LOW);
 		return forumManager;
 	}
 
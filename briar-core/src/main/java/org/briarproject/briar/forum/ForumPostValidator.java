@@ -68,7 +68,7 @@ class ForumPostValidator extends BdfMessageValidator {
 		BdfList signed = BdfList.of(g.getId(), m.getTimestamp(), parent,
 				authorList, text);
 		try {
-			clientHelper.verifySignature(sig, SIGNING_LABEL_POST,
+			verifySignature(sig, SIGNING_LABEL_POST,
 					signed, author.getPublicKey());
 		} catch (GeneralSecurityException e) {
 			throw new InvalidMessageException(e);
@@ -3,16 +3,19 @@ package org.briarproject.briar.introduction;
 import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.client.ContactGroupFactory;
+import org.briarproject.bramble.api.client.SessionId;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.ContactManager;
 import org.briarproject.bramble.api.contact.ContactManager.ContactHook;
 import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.data.MetadataParser;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
-import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.db.MessageCursor;
+import org.briarproject.bramble.api.db.NoSuchMessageException;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.identity.IdentityManager;
@@ -28,7 +31,6 @@ import org.briarproject.bramble.api.sync.MessageStatus;
 import org.briarproject.bramble.api.versioning.ClientVersioningManager;
 import org.briarproject.bramble.api.versioning.ClientVersioningManager.ClientVersioningHook;
 import org.briarproject.briar.api.client.MessageTracker;
-import org.briarproject.briar.api.client.SessionId;
 import org.briarproject.briar.api.introduction.IntroductionManager;
 import org.briarproject.briar.api.introduction.IntroductionRequest;
 import org.briarproject.briar.api.introduction.IntroductionResponse;
@@ -51,6 +53,8 @@ import static org.briarproject.briar.api.introduction.Role.INTRODUCEE;
 import static org.briarproject.briar.api.introduction.Role.INTRODUCER;
 import static org.briarproject.briar.introduction.IntroducerState.START;
 import static org.briarproject.briar.introduction.IntroductionConstants.GROUP_KEY_CONTACT_ID;
+import static org.briarproject.briar.introduction.IntroductionConstants.GROUP_KEY_SESSIONS_MIGRATED;
+import static org.briarproject.briar.introduction.IntroductionConstants.SESSION_KEY_SESSION_ID;
 import static org.briarproject.briar.introduction.MessageType.ABORT;
 import static org.briarproject.briar.introduction.MessageType.ACCEPT;
 import static org.briarproject.briar.introduction.MessageType.ACTIVATE;
@@ -111,10 +115,35 @@ class IntroductionManagerImpl extends ConversationClientImpl
 	@Override
 	public void createLocalState(Transaction txn) throws DbException {
 		// Create a local group to store protocol sessions
-		if (db.containsGroup(txn, localGroup.getId())) return;
-		db.addGroup(txn, localGroup);
-		// Set up groups for communication with any pre-existing contacts
-		for (Contact c : db.getContacts(txn)) addingContact(txn, c);
+		if (!db.containsGroup(txn, localGroup.getId())) {
+			db.addGroup(txn, localGroup);
+			// Set up groups for communication with any pre-existing contacts
+			for (Contact c : db.getContacts(txn)) addingContact(txn, c);
+		}
+		// Move any sessions stored by an earlier version to the session store
+		migrateSessions(txn);
+	}
+
+	private void migrateSessions(Transaction txn) throws DbException {
+		try {
+			BdfDictionary meta = clientHelper
+					.getGroupMetadataAsDictionary(txn, localGroup.getId());
+			if (meta.getBoolean(GROUP_KEY_SESSIONS_MIGRATED, false)) return;
+			Map<MessageId, BdfDictionary> results = clientHelper
+					.getMessageMetadataAsDictionary(txn, localGroup.getId());
+			for (Entry<MessageId, BdfDictionary> e : results.entrySet()) {
+				BdfDictionary d = e.getValue();
+				SessionId sessionId =
+						new SessionId(d.getRaw(SESSION_KEY_SESSION_ID));
+				clientHelper.setSession(txn, localGroup.getId(), sessionId, d);
+				db.removeMessage(txn, e.getKey());
+			}
+			meta = BdfDictionary.of(
+					new BdfEntry(GROUP_KEY_SESSIONS_MIGRATED, true));
+			clientHelper.mergeGroupMetadata(txn, localGroup.getId(), meta);
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
 	}
 
 	@Override
@@ -172,31 +201,28 @@ class IntroductionManagerImpl extends ConversationClientImpl
 			newIntroduceeSession = createNewIntroduceeSession(txn, m, body);
 			sessionId = newIntroduceeSession.getSessionId();
 		}
-		StoredSession ss = getSession(txn, sessionId);
+		BdfDictionary bdfSession = getSession(txn, sessionId);
 		// Handle the message
 		Session session;
-		MessageId storageId;
-		if (ss == null) {
+		if (bdfSession == null) {
 			if (meta.getMessageType() != REQUEST) throw new FormatException();
 			if (newIntroduceeSession == null) throw new AssertionError();
-			storageId = createStorageId(txn);
 			session = handleMessage(txn, m, body, meta.getMessageType(),
 					newIntroduceeSession, introduceeEngine);
 		} else {
-			storageId = ss.storageId;
-			Role role = sessionParser.getRole(ss.bdfSession);
+			Role role = sessionParser.getRole(bdfSession);
 			if (role == INTRODUCER) {
 				session = handleMessage(txn, m, body, meta.getMessageType(),
-						sessionParser.parseIntroducerSession(ss.bdfSession),
+						sessionParser.parseIntroducerSession(bdfSession),
 						introducerEngine);
 			} else if (role == INTRODUCEE) {
 				session = handleMessage(txn, m, body, meta.getMessageType(),
 						sessionParser.parseIntroduceeSession(m.getGroupId(),
-								ss.bdfSession), introduceeEngine);
+								bdfSession), introduceeEngine);
 			} else throw new AssertionError();
 		}
 		// Store the updated session
-		storeSession(txn, storageId, session);
+		storeSession(txn, session);
 		return false;
 	}
 
@@ -242,16 +268,11 @@ class IntroductionManagerImpl extends ConversationClientImpl
 	}
 
 	@Nullable
-	private StoredSession getSession(Transaction txn,
+	private BdfDictionary getSession(Transaction txn,
 			@Nullable SessionId sessionId) throws DbException, FormatException {
 		if (sessionId == null) return null;
-		BdfDictionary query = sessionParser.getSessionQuery(sessionId);
-		Map<MessageId, BdfDictionary> results = clientHelper
-				.getMessageMetadataAsDictionary(txn, localGroup.getId(), query);
-		if (results.size() > 1) throw new DbException();
-		if (results.isEmpty()) return null;
-		return new StoredSession(results.keySet().iterator().next(),
-				results.values().iterator().next());
+		return clientHelper.getSessionAsDictionary(txn, localGroup.getId(),
+				sessionId);
 	}
 
 	private ContactId getContactId(Transaction txn, GroupId contactGroupId)
@@ -261,15 +282,8 @@ class IntroductionManagerImpl extends ConversationClientImpl
 		return new ContactId(meta.getLong(GROUP_KEY_CONTACT_ID).intValue());
 	}
 
-	private MessageId createStorageId(Transaction txn) throws DbException {
-		Message m = clientHelper
-				.createMessageForStoringMetadata(localGroup.getId());
-		db.addLocalMessage(txn, m, new Metadata(), false);
-		return m.getId();
-	}
-
-	private void storeSession(Transaction txn, MessageId storageId,
-			Session session) throws DbException {
+	private void storeSession(Transaction txn, Session session)
+			throws DbException {
 		BdfDictionary d;
 		if (session.getRole() == INTRODUCER) {
 			d = sessionEncoder
@@ -281,7 +295,8 @@ class IntroductionManagerImpl extends ConversationClientImpl
 			throw new AssertionError();
 		}
 		try {
-			clientHelper.mergeMessageMetadata(txn, storageId, d);
+			clientHelper.setSession(txn, localGroup.getId(),
+					session.getSessionId(), d);
 		} catch (FormatException e) {
 			throw new AssertionError();
 		}
@@ -308,10 +323,10 @@ class IntroductionManagerImpl extends ConversationClientImpl
 		SessionId sessionId =
 				crypto.getSessionId(introducer, c1.getAuthor(),
 						c2.getAuthor());
-		StoredSession ss = getSession(txn, sessionId);
-		if (ss == null) return true;
+		BdfDictionary bdfSession = getSession(txn, sessionId);
+		if (bdfSession == null) return true;
 		IntroducerSession session =
-				sessionParser.parseIntroducerSession(ss.bdfSession);
+				sessionParser.parseIntroducerSession(bdfSession);
 		return session.getState() == START;
 	}
 
@@ -325,11 +340,10 @@ class IntroductionManagerImpl extends ConversationClientImpl
 			SessionId sessionId =
 					crypto.getSessionId(introducer, c1.getAuthor(),
 							c2.getAuthor());
-			StoredSession ss = getSession(txn, sessionId);
+			BdfDictionary bdfSession = getSession(txn, sessionId);
 			// Create or parse the session
 			IntroducerSession session;
-			MessageId storageId;
-			if (ss == null) {
+			if (bdfSession == null) {
 				// This is the first request - create a new session
 				GroupId groupId1 = getContactGroup(c1).getId();
 				GroupId groupId2 = getContactGroup(c2).getId();
@@ -342,17 +356,15 @@ class IntroductionManagerImpl extends ConversationClientImpl
 						alice ? groupId2 : groupId1,
 						alice ? c2.getAuthor() : c1.getAuthor()
 				);
-				storageId = createStorageId(txn);
 			} else {
 				// An earlier request exists, so we already have a session
-				session = sessionParser.parseIntroducerSession(ss.bdfSession);
-				storageId = ss.storageId;
+				session = sessionParser.parseIntroducerSession(bdfSession);
 			}
 			// Handle the request action
 			session = introducerEngine
 					.onRequestAction(txn, session, text, timestamp);
 			// Store the updated session
-			storeSession(txn, storageId, session);
+			storeSession(txn, session);
 			db.commitTransaction(txn);
 		} catch (FormatException e) {
 			throw new DbException(e);
@@ -367,8 +379,8 @@ class IntroductionManagerImpl extends ConversationClientImpl
 		Transaction txn = db.startTransaction(false);
 		try {
 			// Look up the session
-			StoredSession ss = getSession(txn, sessionId);
-			if (ss == null) {
+			BdfDictionary bdfSession = getSession(txn, sessionId);
+			if (bdfSession == null) {
 				// Actions from the UI may be based on stale information.
 				// The contact might just have been deleted, for example.
 				// Throwing a DbException here aborts gracefully.
@@ -378,7 +390,7 @@ class IntroductionManagerImpl extends ConversationClientImpl
 			Contact contact = db.getContact(txn, contactId);
 			GroupId contactGroupId = getContactGroup(contact).getId();
 			IntroduceeSession session = sessionParser
-					.parseIntroduceeSession(contactGroupId, ss.bdfSession);
+					.parseIntroduceeSession(contactGroupId, bdfSession);
 			// Handle the join or leave action
 			if (accept) {
 				session = introduceeEngine
@@ -388,7 +400,7 @@ class IntroductionManagerImpl extends ConversationClientImpl
 						.onDeclineAction(txn, session, timestamp);
 			}
 			// Store the updated session
-			storeSession(txn, ss.storageId, session);
+			storeSession(txn, session);
 			db.commitTransaction(txn);
 		} catch (FormatException e) {
 			throw new DbException(e);
@@ -406,36 +418,60 @@ class IntroductionManagerImpl extends ConversationClientImpl
 			BdfDictionary query = messageParser.getMessagesVisibleInUiQuery();
 			Map<MessageId, BdfDictionary> results = clientHelper
 					.getMessageMetadataAsDictionary(txn, contactGroupId, query);
-			List<PrivateMessageHeader> messages =
-					new ArrayList<>(results.size());
-			for (Entry<MessageId, BdfDictionary> e : results.entrySet()) {
-				MessageId m = e.getKey();
-				MessageMetadata meta =
-						messageParser.parseMetadata(e.getValue());
-				MessageStatus status = db.getMessageStatus(txn, c, m);
-				StoredSession ss = getSession(txn, meta.getSessionId());
-				if (ss == null) throw new AssertionError();
-				MessageType type = meta.getMessageType();
-				if (type == REQUEST) {
-					messages.add(
-							parseInvitationRequest(txn, contactGroupId, m,
-									meta, status, ss.bdfSession));
-				} else if (type == ACCEPT) {
-					messages.add(
-							parseInvitationResponse(contactGroupId, m, meta,
-									status, ss.bdfSession, true));
-				} else if (type == DECLINE) {
-					messages.add(
-							parseInvitationResponse(contactGroupId, m, meta,
-									status, ss.bdfSession, false));
-				}
-			}
-			return messages;
+			return getMessageHeaders(txn, c, contactGroupId, results);
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public List<PrivateMessageHeader> getMessageHeaders(Transaction txn,
+			ContactId c, @Nullable MessageCursor before, int limit)
+			throws DbException {
+		try {
+			Contact contact = db.getContact(txn, c);
+			GroupId contactGroupId = getContactGroup(contact).getId();
+			BdfDictionary query = messageParser.getMessagesVisibleInUiQuery();
+			Map<MessageId, BdfDictionary> results = getMessageMetadata(txn,
+					contactGroupId, query, before, limit);
+			return getMessageHeaders(txn, c, contactGroupId, results);
 		} catch (FormatException e) {
 			throw new DbException(e);
 		}
 	}
 
+	private List<PrivateMessageHeader> getMessageHeaders(Transaction txn,
+			ContactId c, GroupId contactGroupId,
+			Map<MessageId, BdfDictionary> results)
+			throws DbException, FormatException {
+		List<PrivateMessageHeader> messages = new ArrayList<>(results.size());
+		for (Entry<MessageId, BdfDictionary> e : results.entrySet()) {
+			MessageId m = e.getKey();
+			MessageMetadata meta = messageParser.parseMetadata(e.getValue());
+			MessageStatus status;
+			try {
+				status = db.getMessageStatus(txn, c, m);
+			} catch (NoSuchMessageException ex) {
+				// The message was deleted after its metadata was loaded
+				continue;
+			}
+			BdfDictionary bdfSession = getSession(txn, meta.getSessionId());
+			if (bdfSession == null) throw new AssertionError();
+			MessageType type = meta.getMessageType();
+			if (type == REQUEST) {
+				messages.add(parseInvitationRequest(txn, contactGroupId, m,
+						meta, status, bdfSession));
+			} else if (type == ACCEPT) {
+				messages.add(parseInvitationResponse(contactGroupId, m, meta,
+						status, bdfSession, true));
+			} else if (type == DECLINE) {
+				messages.add(parseInvitationResponse(contactGroupId, m, meta,
+						status, bdfSession, false));
+			}
+		}
+		return messages;
+	}
+
 	private IntroductionRequest parseInvitationRequest(Transaction txn,
 			GroupId contactGroupId, MessageId m, MessageMetadata meta,
 			MessageStatus status, BdfDictionary bdfSession)
@@ -500,70 +536,61 @@ class IntroductionManagerImpl extends ConversationClientImpl
 
 	private void removeSessionWithIntroducer(Transaction txn,
 			Contact introducer) throws DbException {
-		BdfDictionary query = sessionEncoder
-				.getIntroduceeSessionsByIntroducerQuery(introducer.getAuthor());
-		Map<MessageId, BdfDictionary> sessions;
+		GroupId contactGroupId = getContactGroup(introducer).getId();
 		try {
-			sessions = clientHelper
-					.getMessageMetadataAsDictionary(txn, localGroup.getId(),
-							query);
+			Map<SessionId, BdfDictionary> sessions = clientHelper
+					.getSessionsAsDictionary(txn, localGroup.getId());
+			for (Entry<SessionId, BdfDictionary> e : sessions.entrySet()) {
+				if (sessionParser.getRole(e.getValue()) != INTRODUCEE)
+					continue;
+				IntroduceeSession s = sessionParser
+						.parseIntroduceeSession(contactGroupId, e.getValue());
+				if (s.getIntroducer().equals(introducer.getAuthor()))
+					db.removeSession(txn, localGroup.getId(), e.getKey());
+			}
 		} catch (FormatException e) {
 			throw new DbException(e);
 		}
-		for (MessageId id : sessions.keySet()) {
-			db.removeMessage(txn, id);
-		}
 	}
 
 	private void abortOrRemoveSessionWithIntroducee(Transaction txn,
 			Contact c) throws DbException {
-		BdfDictionary query = sessionEncoder.getIntroducerSessionsQuery();
-		Map<MessageId, BdfDictionary> sessions;
+		Map<SessionId, BdfDictionary> sessions;
 		try {
 			sessions = clientHelper
-					.getMessageMetadataAsDictionary(txn, localGroup.getId(),
-							query);
+					.getSessionsAsDictionary(txn, localGroup.getId());
 		} catch (FormatException e) {
-			throw new DbException();
+			throw new DbException(e);
 		}
 		LocalAuthor localAuthor = identityManager.getLocalAuthor(txn);
-		for (Entry<MessageId, BdfDictionary> session : sessions.entrySet()) {
+		for (Entry<SessionId, BdfDictionary> session : sessions.entrySet()) {
 			IntroducerSession s;
 			try {
+				if (sessionParser.getRole(session.getValue()) != INTRODUCER)
+					continue;
 				s = sessionParser.parseIntroducerSession(session.getValue());
 			} catch (FormatException e) {
-				throw new DbException();
+				throw new DbException(e);
 			}
 			if (s.getIntroduceeA().author.equals(c.getAuthor())) {
-				abortOrRemoveSessionWithIntroducee(txn, s, session.getKey(),
-						s.getIntroduceeB(), localAuthor);
+				abortOrRemoveSessionWithIntroducee(txn, s, s.getIntroduceeB(),
+						localAuthor);
 			} else if (s.getIntroduceeB().author.equals(c.getAuthor())) {
-				abortOrRemoveSessionWithIntroducee(txn, s, session.getKey(),
-						s.getIntroduceeA(), localAuthor);
+				abortOrRemoveSessionWithIntroducee(txn, s, s.getIntroduceeA(),
+						localAuthor);
 			}
 		}
 	}
 
 	private void abortOrRemoveSessionWithIntroducee(Transaction txn,
-			IntroducerSession s, MessageId storageId, Introducee i,
-			LocalAuthor localAuthor) throws DbException {
+			IntroducerSession s, Introducee i, LocalAuthor localAuthor)
+			throws DbException {
 		if (db.containsContact(txn, i.author.getId(), localAuthor.getId())) {
 			IntroducerSession session =
 					introducerEngine.onIntroduceeRemoved(txn, i, s);
-			storeSession(txn, storageId, session);
+			storeSession(txn, session);
 		} else {
-			db.removeMessage(txn, storageId);
-		}
-	}
-
-	private static class StoredSession {
-
-		private final MessageId storageId;
-		private final BdfDictionary bdfSession;
-
-		private StoredSession(MessageId storageId, BdfDictionary bdfSession) {
-			this.storageId = storageId;
-			this.bdfSession = bdfSession;
+			db.removeSession(txn, localGroup.getId(), s.getSessionId());
 		}
 	}
 
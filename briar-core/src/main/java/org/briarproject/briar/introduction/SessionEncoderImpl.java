@@ -2,8 +2,6 @@ package org.briarproject.briar.introduction;
 
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.data.BdfDictionary;
-import org.briarproject.bramble.api.data.BdfEntry;
-import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.transport.KeySetId;
@@ -19,8 +17,6 @@ import javax.annotation.concurrent.Immutable;
 import javax.inject.Inject;
 
 import static org.briarproject.bramble.api.data.BdfDictionary.NULL_VALUE;
-import static org.briarproject.briar.api.introduction.Role.INTRODUCEE;
-import static org.briarproject.briar.api.introduction.Role.INTRODUCER;
 import static org.briarproject.briar.introduction.IntroductionConstants.SESSION_KEY_ACCEPT_TIMESTAMP;
 import static org.briarproject.briar.introduction.IntroductionConstants.SESSION_KEY_ALICE;
 import static org.briarproject.briar.introduction.IntroductionConstants.SESSION_KEY_AUTHOR;
@@ -56,23 +52,6 @@ class SessionEncoderImpl implements SessionEncoder {
 		this.clientHelper = clientHelper;
 	}
 
-	@Override
-	public BdfDictionary getIntroduceeSessionsByIntroducerQuery(
-			Author introducer) {
-		return BdfDictionary.of(
-				new BdfEntry(SESSION_KEY_ROLE, INTRODUCEE.getValue()),
-				new BdfEntry(SESSION_KEY_INTRODUCER,
-						clientHelper.toList(introducer))
-		);
-	}
-
-	@Override
-	public BdfDictionary getIntroducerSessionsQuery() {
-		return BdfDictionary.of(
-				new BdfEntry(SESSION_KEY_ROLE, INTRODUCER.getValue())
-		);
-	}
-
 	@Override
 	public BdfDictionary encodeIntroducerSession(IntroducerSession s) {
 		BdfDictionary d = encodeSession(s);
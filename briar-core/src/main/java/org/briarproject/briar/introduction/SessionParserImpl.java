@@ -2,8 +2,8 @@ package org.briarproject.briar.introduction;
 
 import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.client.SessionId;
 import org.briarproject.bramble.api.data.BdfDictionary;
-import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.plugin.TransportId;
@@ -11,7 +11,6 @@ import org.briarproject.bramble.api.properties.TransportProperties;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.transport.KeySetId;
-import org.briarproject.briar.api.client.SessionId;
 import org.briarproject.briar.api.introduction.Role;
 import org.briarproject.briar.introduction.IntroduceeSession.Local;
 import org.briarproject.briar.introduction.IntroduceeSession.Remote;
@@ -61,11 +60,6 @@ class SessionParserImpl implements SessionParser {
 		this.clientHelper = clientHelper;
 	}
 
-	@Override
-	public BdfDictionary getSessionQuery(SessionId s) {
-		return BdfDictionary.of(new BdfEntry(SESSION_KEY_SESSION_ID, s));
-	}
-
 	@Override
 	public Role getRole(BdfDictionary d) throws FormatException {
 		return Role.fromValue(d.getLong(SESSION_KEY_ROLE).intValue());
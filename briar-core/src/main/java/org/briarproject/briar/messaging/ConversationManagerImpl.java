@@ -1,20 +1,29 @@
 package org.briarproject.briar.messaging;
 
+import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.MessageCursor;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.briar.api.client.MessageTracker;
 import org.briarproject.briar.api.client.MessageTracker.GroupCount;
 import org.briarproject.briar.api.messaging.ConversationManager;
 import org.briarproject.briar.api.messaging.PrivateMessageHeader;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
@@ -23,11 +32,14 @@ import javax.inject.Inject;
 class ConversationManagerImpl implements ConversationManager {
 
 	private final DatabaseComponent db;
+	private final MessageTracker messageTracker;
 	private final Set<ConversationClient> clients;
 
 	@Inject
-	ConversationManagerImpl(DatabaseComponent db) {
+	ConversationManagerImpl(DatabaseComponent db,
+			MessageTracker messageTracker) {
 		this.db = db;
+		this.messageTracker = messageTracker;
 		clients = new CopyOnWriteArraySet<>();
 	}
 
@@ -53,6 +65,33 @@ class ConversationManagerImpl implements ConversationManager {
 		return messages;
 	}
 
+	@Override
+	public List<PrivateMessageHeader> getMessageHeaders(ContactId c,
+			@Nullable MessageCursor before, int limit) throws DbException {
+		if (limit <= 0) throw new IllegalArgumentException();
+		List<PrivateMessageHeader> messages = new ArrayList<>();
+		Transaction txn = db.startTransaction(true);
+		try {
+			for (ConversationClient client : clients) {
+				messages.addAll(client.getMessageHeaders(txn, c, before,
+						limit));
+			}
+			db.commitTransaction(txn);
+		} finally {
+			db.endTransaction(txn);
+		}
+		// Merge the clients' pages, newest first
+		Collections.sort(messages,
+				(a, b) -> getCursor(b).compareTo(getCursor(a)));
+		if (messages.size() > limit)
+			return new ArrayList<>(messages.subList(0, limit));
+		return messages;
+	}
+
+	private MessageCursor getCursor(PrivateMessageHeader h) {
+		return new MessageCursor(h.getTimestamp(), h.getId());
+	}
+
 	@Override
 	public GroupCount getGroupCount(ContactId contactId) throws DbException {
 		int msgCount = 0, unreadCount = 0;
@@ -73,4 +112,38 @@ class ConversationManagerImpl implements ConversationManager {
 		return new GroupCount(msgCount, unreadCount, latestTime);
 	}
 
+	@Override
+	public Map<ContactId, GroupCount> getGroupCounts(
+			Collection<Contact> contacts) throws DbException {
+		Map<ContactId, GroupCount> counts = new HashMap<>(contacts.size());
+		for (Contact c : contacts)
+			counts.put(c.getId(), new GroupCount(0, 0, 0));
+		Transaction txn = db.startTransaction(true);
+		try {
+			for (ConversationClient client : clients) {
+				// Load the counts for all the client's contact groups at once
+				Map<GroupId, ContactId> groups =
+						new HashMap<>(contacts.size());
+				for (Contact c : contacts)
+					groups.put(client.getContactGroup(c).getId(), c.getId());
+				Map<GroupId, GroupCount> clientCounts =
+						messageTracker.getGroupCounts(txn, groups.keySet());
+				for (Entry<GroupId, GroupCount> e : clientCounts.entrySet()) {
+					ContactId c = groups.get(e.getKey());
+					counts.put(c, add(counts.get(c), e.getValue()));
+				}
+			}
+			db.commitTransaction(txn);
+		} finally {
+			db.endTransaction(txn);
+		}
+		return counts;
+	}
+
+	private GroupCount add(GroupCount a, GroupCount b) {
+		return new GroupCount(a.getMsgCount() + b.getMsgCount(),
+				a.getUnreadCount() + b.getUnreadCount(),
+				Math.max(a.getLatestMsgTime(), b.getLatestMsgTime()));
+	}
+
 }
@@ -11,6 +11,8 @@ import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.data.MetadataParser;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.MessageCursor;
+import org.briarproject.bramble.api.db.NoSuchMessageException;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.Client;
@@ -31,11 +33,16 @@ import org.briarproject.briar.client.ConversationClientImpl;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.annotation.Nullable;
 
 import javax.annotation.concurrent.Immutable;
 import javax.inject.Inject;
 
+import static java.util.Arrays.asList;
 import static org.briarproject.briar.client.MessageTrackerConstants.MSG_KEY_READ;
 
 @Immutable
@@ -43,6 +50,12 @@ import static org.briarproject.briar.client.MessageTrackerConstants.MSG_KEY_READ
 class MessagingManagerImpl extends ConversationClientImpl
 		implements MessagingManager, Client, ContactHook, ClientVersioningHook {
 
+	/**
+	 * The metadata keys needed for building message headers.
+	 */
+	private static final Collection<String> HEADER_KEYS =
+			asList("timestamp", "local", MSG_KEY_READ);
+
 	private final ClientVersioningManager clientVersioningManager;
 	private final ContactGroupFactory contactGroupFactory;
 
@@ -185,7 +198,8 @@ class MessagingManagerImpl extends ConversationClientImpl
 		GroupId g;
 		try {
 			g = getContactGroup(db.getContact(txn, c)).getId();
-			metadata = clientHelper.getMessageMetadataAsDictionary(txn, g);
+			metadata = clientHelper.getMessageMetadataAsDictionary(txn, g,
+					HEADER_KEYS);
 			statuses = db.getMessageStatus(txn, c, g);
 		} catch (FormatException e) {
 			throw new DbException(e);
@@ -208,6 +222,38 @@ class MessagingManagerImpl extends ConversationClientImpl
 		return headers;
 	}
 
+	@Override
+	public List<PrivateMessageHeader> getMessageHeaders(Transaction txn,
+			ContactId c, @Nullable MessageCursor before, int limit)
+			throws DbException {
+		GroupId g = getContactGroup(db.getContact(txn, c)).getId();
+		try {
+			Map<MessageId, BdfDictionary> metadata = getMessageMetadata(txn,
+					g, new BdfDictionary(), before, limit, HEADER_KEYS);
+			List<PrivateMessageHeader> headers =
+					new ArrayList<>(metadata.size());
+			for (Entry<MessageId, BdfDictionary> e : metadata.entrySet()) {
+				MessageId id = e.getKey();
+				BdfDictionary meta = e.getValue();
+				MessageStatus s;
+				try {
+					s = db.getMessageStatus(txn, c, id);
+				} catch (NoSuchMessageException ex) {
+					// The message was deleted after its metadata was loaded
+					continue;
+				}
+				long timestamp = meta.getLong("timestamp");
+				boolean local = meta.getBoolean("local");
+				boolean read = meta.getBoolean("read");
+				headers.add(new PrivateMessageHeader(id, g, timestamp, local,
+						read, s.isSent(), s.isSeen()));
+			}
+			return headers;
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public String getMessageText(MessageId m) throws DbException {
 		try {
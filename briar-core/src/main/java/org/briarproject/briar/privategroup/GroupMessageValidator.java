@@ -4,6 +4,7 @@ import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.client.BdfMessageContext;
 import org.briarproject.bramble.api.client.BdfMessageValidator;
 import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.crypto.SignatureToVerify;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.data.MetadataEncoder;
@@ -21,6 +22,7 @@ import org.briarproject.briar.api.privategroup.invitation.GroupInvitationFactory
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import javax.annotation.concurrent.Immutable;
 
@@ -95,6 +97,7 @@ class GroupMessageValidator extends BdfMessageValidator {
 		PrivateGroup pg = privateGroupFactory.parsePrivateGroup(g);
 		Author creator = pg.getCreator();
 		boolean isCreator = member.equals(creator);
+		List<SignatureToVerify> signatures = new ArrayList<>(2);
 		if (isCreator) {
 			if (inviteList != null) throw new FormatException();
 		} else {
@@ -111,16 +114,12 @@ class GroupMessageValidator extends BdfMessageValidator {
 			BdfList token = groupInvitationFactory.createInviteToken(
 					creator.getId(), member.getId(), g.getId(),
 					inviteTimestamp);
-			try {
-				clientHelper.verifySignature(creatorSignature,
-						SIGNING_LABEL_INVITE,
-						token, creator.getPublicKey());
-			} catch (GeneralSecurityException e) {
-				throw new FormatException();
-			}
+			signatures.add(new SignatureToVerify(creatorSignature,
+					SIGNING_LABEL_INVITE, clientHelper.toByteArray(token),
+					creator.getPublicKey()));
 		}
 
-		// Verify the member's signature
+		// The member's signature
 		BdfList memberList = body.getList(1); // Already validated
 		BdfList signed = BdfList.of(
 				g.getId(),
@@ -128,9 +127,13 @@ class GroupMessageValidator extends BdfMessageValidator {
 				memberList,
 				inviteList
 		);
+		signatures.add(new SignatureToVerify(memberSignature,
+				SIGNING_LABEL_JOIN, clientHelper.toByteArray(signed),
+				member.getPublicKey()));
+
+		// Verify the signatures together
 		try {
-			clientHelper.verifySignature(memberSignature, SIGNING_LABEL_JOIN,
-					signed, member.getPublicKey());
+			verifySignatures(signatures);
 		} catch (GeneralSecurityException e) {
 			throw new FormatException();
 		}
@@ -166,7 +169,7 @@ class GroupMessageValidator extends BdfMessageValidator {
 				text
 		);
 		try {
-			clientHelper.verifySignature(signature, SIGNING_LABEL_POST,
+			verifySignature(signature, SIGNING_LABEL_POST,
 					signed, member.getPublicKey());
 		} catch (GeneralSecurityException e) {
 			throw new FormatException();
@@ -53,6 +53,7 @@ import java.util.concurrent.CopyOnWriteArrayList;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
+import static java.util.Arrays.asList;
 import static org.briarproject.bramble.api.identity.Author.Status.OURSELVES;
 import static org.briarproject.bramble.api.identity.Author.Status.UNVERIFIED;
 import static org.briarproject.bramble.api.identity.Author.Status.VERIFIED;
@@ -80,6 +81,13 @@ import static org.briarproject.briar.privategroup.GroupConstants.KEY_TYPE;
 class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 		implements PrivateGroupManager {
 
+	/**
+	 * The metadata keys needed for building message headers.
+	 */
+	private static final Collection<String> HEADER_KEYS =
+			asList(KEY_TYPE, KEY_MEMBER, KEY_PARENT_MSG_ID, KEY_TIMESTAMP,
+					KEY_READ, KEY_INITIAL_JOIN_MSG);
+
 	private final PrivateGroupFactory privateGroupFactory;
 	private final ContactManager contactManager;
 	private final IdentityManager identityManager;
@@ -320,7 +328,8 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 		Transaction txn = db.startTransaction(true);
 		try {
 			Map<MessageId, BdfDictionary> metadata =
-					clientHelper.getMessageMetadataAsDictionary(txn, g);
+					clientHelper.getMessageMetadataAsDictionary(txn, g,
+							HEADER_KEYS);
 			// get all authors we need to get the status for
 			Set<AuthorId> authors = new HashSet<>();
 			for (BdfDictionary meta : metadata.values()) {
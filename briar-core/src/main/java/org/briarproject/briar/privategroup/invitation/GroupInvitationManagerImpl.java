@@ -3,15 +3,18 @@ package org.briarproject.briar.privategroup.invitation;
 import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.client.ContactGroupFactory;
+import org.briarproject.bramble.api.client.SessionId;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.ContactManager.ContactHook;
 import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.data.MetadataParser;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
-import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.db.MessageCursor;
+import org.briarproject.bramble.api.db.NoSuchMessageException;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
@@ -25,7 +28,6 @@ import org.briarproject.bramble.api.sync.MessageStatus;
 import org.briarproject.bramble.api.versioning.ClientVersioningManager;
 import org.briarproject.bramble.api.versioning.ClientVersioningManager.ClientVersioningHook;
 import org.briarproject.briar.api.client.MessageTracker;
-import org.briarproject.briar.api.client.SessionId;
 import org.briarproject.briar.api.messaging.PrivateMessageHeader;
 import org.briarproject.briar.api.privategroup.PrivateGroup;
 import org.briarproject.briar.api.privategroup.PrivateGroupFactory;
@@ -51,6 +53,8 @@ import javax.inject.Inject;
 import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
 import static org.briarproject.briar.privategroup.invitation.CreatorState.START;
 import static org.briarproject.briar.privategroup.invitation.GroupInvitationConstants.GROUP_KEY_CONTACT_ID;
+import static org.briarproject.briar.privategroup.invitation.GroupInvitationConstants.GROUP_KEY_SESSIONS_MIGRATED;
+import static org.briarproject.briar.privategroup.invitation.GroupInvitationConstants.SESSION_KEY_SESSION_ID;
 import static org.briarproject.briar.privategroup.invitation.MessageType.ABORT;
 import static org.briarproject.briar.privategroup.invitation.MessageType.INVITE;
 import static org.briarproject.briar.privategroup.invitation.MessageType.JOIN;
@@ -105,10 +109,44 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 		// Create a local group to indicate that we've set this client up
 		Group localGroup = contactGroupFactory.createLocalGroup(CLIENT_ID,
 				MAJOR_VERSION);
-		if (db.containsGroup(txn, localGroup.getId())) return;
-		db.addGroup(txn, localGroup);
-		// Set things up for any pre-existing contacts
-		for (Contact c : db.getContacts(txn)) addingContact(txn, c);
+		if (!db.containsGroup(txn, localGroup.getId())) {
+			db.addGroup(txn, localGroup);
+			// Set things up for any pre-existing contacts
+			for (Contact c : db.getContacts(txn)) addingContact(txn, c);
+		}
+		migrateSessions(txn, localGroup.getId());
+	}
+
+	/**
+	 * Moves any sessions that were stored as message metadata by earlier
+	 * versions of this client into the session store.
+	 */
+	private void migrateSessions(Transaction txn, GroupId localGroupId)
+			throws DbException {
+		try {
+			BdfDictionary meta = clientHelper
+					.getGroupMetadataAsDictionary(txn, localGroupId);
+			if (meta.getBoolean(GROUP_KEY_SESSIONS_MIGRATED, false)) return;
+			BdfDictionary query = sessionParser.getAllSessionsQuery();
+			for (Contact c : db.getContacts(txn)) {
+				GroupId contactGroupId = getContactGroup(c).getId();
+				Map<MessageId, BdfDictionary> results = clientHelper
+						.getMessageMetadataAsDictionary(txn, contactGroupId,
+								query);
+				for (Entry<MessageId, BdfDictionary> e : results.entrySet()) {
+					BdfDictionary d = e.getValue();
+					SessionId sessionId =
+							new SessionId(d.getRaw(SESSION_KEY_SESSION_ID));
+					clientHelper.setSession(txn, contactGroupId, sessionId, d);
+					db.removeMessage(txn, e.getKey());
+				}
+			}
+			meta = BdfDictionary.of(
+					new BdfEntry(GROUP_KEY_SESSIONS_MIGRATED, true));
+			clientHelper.mergeGroupMetadata(txn, localGroupId, meta);
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
 	}
 
 	@Override
@@ -154,19 +192,16 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 		MessageMetadata meta = messageParser.parseMetadata(bdfMeta);
 		// Look up the session, if there is one
 		SessionId sessionId = getSessionId(meta.getPrivateGroupId());
-		StoredSession ss = getSession(txn, m.getGroupId(), sessionId);
+		BdfDictionary bdfSession = getSession(txn, m.getGroupId(), sessionId);
 		// Handle the message
 		Session session;
-		MessageId storageId;
-		if (ss == null) {
+		if (bdfSession == null) {
 			session = handleFirstMessage(txn, m, body, meta);
-			storageId = createStorageId(txn, m.getGroupId());
 		} else {
-			session = handleMessage(txn, m, body, meta, ss.bdfSession);
-			storageId = ss.storageId;
+			session = handleMessage(txn, m, body, meta, bdfSession);
 		}
 		// Store the updated session
-		storeSession(txn, storageId, session);
+		storeSession(txn, session);
 		return false;
 	}
 
@@ -175,15 +210,10 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 	}
 
 	@Nullable
-	private StoredSession getSession(Transaction txn, GroupId contactGroupId,
+	private BdfDictionary getSession(Transaction txn, GroupId contactGroupId,
 			SessionId sessionId) throws DbException, FormatException {
-		BdfDictionary query = sessionParser.getSessionQuery(sessionId);
-		Map<MessageId, BdfDictionary> results = clientHelper
-				.getMessageMetadataAsDictionary(txn, contactGroupId, query);
-		if (results.size() > 1) throw new DbException();
-		if (results.isEmpty()) return null;
-		return new StoredSession(results.keySet().iterator().next(),
-				results.values().iterator().next());
+		return clientHelper.getSessionAsDictionary(txn, contactGroupId,
+				sessionId);
 	}
 
 	private Session handleFirstMessage(Transaction txn, Message m, BdfList body,
@@ -245,17 +275,11 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 		}
 	}
 
-	private MessageId createStorageId(Transaction txn, GroupId g)
-			throws DbException {
-		Message m = clientHelper.createMessageForStoringMetadata(g);
-		db.addLocalMessage(txn, m, new Metadata(), false);
-		return m.getId();
-	}
-
-	private void storeSession(Transaction txn, MessageId storageId,
-			Session session) throws DbException, FormatException {
+	private void storeSession(Transaction txn, Session session)
+			throws DbException, FormatException {
 		BdfDictionary d = sessionEncoder.encodeSession(session);
-		clientHelper.mergeMessageMetadata(txn, storageId, d);
+		clientHelper.setSession(txn, session.getContactGroupId(),
+				getSessionId(session.getPrivateGroupId()), d);
 	}
 
 	@Override
@@ -268,25 +292,23 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 			// Look up the session, if there is one
 			Contact contact = db.getContact(txn, c);
 			GroupId contactGroupId = getContactGroup(contact).getId();
-			StoredSession ss = getSession(txn, contactGroupId, sessionId);
+			BdfDictionary bdfSession =
+					getSession(txn, contactGroupId, sessionId);
 			// Create or parse the session
 			CreatorSession session;
-			MessageId storageId;
-			if (ss == null) {
+			if (bdfSession == null) {
 				// This is the first invite - create a new session
 				session = new CreatorSession(contactGroupId, privateGroupId);
-				storageId = createStorageId(txn, contactGroupId);
 			} else {
 				// An earlier invite was declined, so we already have a session
 				session = sessionParser
-						.parseCreatorSession(contactGroupId, ss.bdfSession);
-				storageId = ss.storageId;
+						.parseCreatorSession(contactGroupId, bdfSession);
 			}
 			// Handle the invite action
 			session = creatorEngine.onInviteAction(txn, session, text,
 					timestamp, signature);
 			// Store the updated session
-			storeSession(txn, storageId, session);
+			storeSession(txn, session);
 			db.commitTransaction(txn);
 		} catch (FormatException e) {
 			throw new DbException(e);
@@ -309,16 +331,17 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 			// Look up the session
 			Contact contact = db.getContact(txn, c);
 			GroupId contactGroupId = getContactGroup(contact).getId();
-			StoredSession ss = getSession(txn, contactGroupId, sessionId);
-			if (ss == null) throw new IllegalArgumentException();
+			BdfDictionary bdfSession =
+					getSession(txn, contactGroupId, sessionId);
+			if (bdfSession == null) throw new IllegalArgumentException();
 			// Parse the session
 			InviteeSession session = sessionParser
-					.parseInviteeSession(contactGroupId, ss.bdfSession);
+					.parseInviteeSession(contactGroupId, bdfSession);
 			// Handle the join or leave action
 			if (accept) session = inviteeEngine.onJoinAction(txn, session);
 			else session = inviteeEngine.onLeaveAction(txn, session);
 			// Store the updated session
-			storeSession(txn, ss.storageId, session);
+			storeSession(txn, session);
 			db.commitTransaction(txn);
 		} catch (FormatException e) {
 			throw new DbException(e);
@@ -334,15 +357,16 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 			// Look up the session
 			Contact contact = db.getContact(txn, c);
 			GroupId contactGroupId = getContactGroup(contact).getId();
-			StoredSession ss = getSession(txn, contactGroupId, getSessionId(g));
-			if (ss == null) throw new IllegalArgumentException();
+			BdfDictionary bdfSession =
+					getSession(txn, contactGroupId, getSessionId(g));
+			if (bdfSession == null) throw new IllegalArgumentException();
 			// Parse the session
 			PeerSession session = sessionParser
-					.parsePeerSession(contactGroupId, ss.bdfSession);
+					.parsePeerSession(contactGroupId, bdfSession);
 			// Handle the join action
 			session = peerEngine.onJoinAction(txn, session);
 			// Store the updated session
-			storeSession(txn, ss.storageId, session);
+			storeSession(txn, session);
 			db.commitTransaction(txn);
 		} catch (FormatException e) {
 			throw new DbException(e);
@@ -376,31 +400,58 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 			BdfDictionary query = messageParser.getMessagesVisibleInUiQuery();
 			Map<MessageId, BdfDictionary> results = clientHelper
 					.getMessageMetadataAsDictionary(txn, contactGroupId, query);
-			List<PrivateMessageHeader> messages =
-					new ArrayList<>(results.size());
-			for (Entry<MessageId, BdfDictionary> e : results.entrySet()) {
-				MessageId m = e.getKey();
-				MessageMetadata meta =
-						messageParser.parseMetadata(e.getValue());
-				MessageStatus status = db.getMessageStatus(txn, c, m);
-				MessageType type = meta.getMessageType();
-				if (type == INVITE) {
-					messages.add(parseInvitationRequest(txn, contactGroupId, m,
-							meta, status));
-				} else if (type == JOIN) {
-					messages.add(parseInvitationResponse(contactGroupId, m,
-							meta, status, true));
-				} else if (type == LEAVE) {
-					messages.add(parseInvitationResponse(contactGroupId, m,
-							meta, status, false));
-				}
-			}
-			return messages;
+			return getMessageHeaders(txn, c, contactGroupId, results);
 		} catch (FormatException e) {
 			throw new DbException(e);
 		}
 	}
 
+	@Override
+	public List<PrivateMessageHeader> getMessageHeaders(Transaction txn,
+			ContactId c, @Nullable MessageCursor before, int limit)
+			throws DbException {
+		try {
+			Contact contact = db.getContact(txn, c);
+			GroupId contactGroupId = getContactGroup(contact).getId();
+			BdfDictionary query = messageParser.getMessagesVisibleInUiQuery();
+			Map<MessageId, BdfDictionary> results = getMessageMetadata(txn,
+					contactGroupId, query, before, limit);
+			return getMessageHeaders(txn, c, contactGroupId, results);
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
+	}
+
+	private List<PrivateMessageHeader> getMessageHeaders(Transaction txn,
+			ContactId c, GroupId contactGroupId,
+			Map<MessageId, BdfDictionary> results)
+			throws DbException, FormatException {
+		List<PrivateMessageHeader> messages = new ArrayList<>(results.size());
+		for (Entry<MessageId, BdfDictionary> e : results.entrySet()) {
+			MessageId m = e.getKey();
+			MessageMetadata meta = messageParser.parseMetadata(e.getValue());
+			MessageStatus status;
+			try {
+				status = db.getMessageStatus(txn, c, m);
+			} catch (NoSuchMessageException ex) {
+				// The message was deleted after its metadata was loaded
+				continue;
+			}
+			MessageType type = meta.getMessageType();
+			if (type == INVITE) {
+				messages.add(parseInvitationRequest(txn, contactGroupId, m,
+						meta, status));
+			} else if (type == JOIN) {
+				messages.add(parseInvitationResponse(contactGroupId, m,
+						meta, status, true));
+			} else if (type == LEAVE) {
+				messages.add(parseInvitationResponse(contactGroupId, m,
+						meta, status, false));
+			}
+		}
+		return messages;
+	}
+
 	private GroupInvitationRequest parseInvitationRequest(Transaction txn,
 			GroupId contactGroupId, MessageId m, MessageMetadata meta,
 			MessageStatus status) throws DbException, FormatException {
@@ -464,15 +515,16 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 			Visibility client = clientVersioningManager.getClientVisibility(txn,
 					c.getId(), PrivateGroupManager.CLIENT_ID,
 					PrivateGroupManager.MAJOR_VERSION);
-			StoredSession ss = getSession(txn, contactGroupId, sessionId);
+			BdfDictionary bdfSession =
+					getSession(txn, contactGroupId, sessionId);
 			db.commitTransaction(txn);
 			// The group can't be shared unless the contact supports the client
 			if (client != SHARED) return false;
 			// If there's no session, the contact can be invited
-			if (ss == null) return true;
+			if (bdfSession == null) return true;
 			// If the session's in the start state, the contact can be invited
 			CreatorSession session = sessionParser
-					.parseCreatorSession(contactGroupId, ss.bdfSession);
+					.parseCreatorSession(contactGroupId, bdfSession);
 			return session.getState() == START;
 		} catch (FormatException e) {
 			throw new DbException(e);
@@ -503,26 +555,24 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 			// Look up the session for the contact, if there is one
 			GroupId contactGroupId = getContactGroup(c).getId();
 			SessionId sessionId = getSessionId(privateGroupId);
-			StoredSession ss = getSession(txn, contactGroupId, sessionId);
+			BdfDictionary bdfSession =
+					getSession(txn, contactGroupId, sessionId);
 			// Create or parse the session
 			Session session;
-			MessageId storageId;
-			if (ss == null) {
+			if (bdfSession == null) {
 				// If there's no session the contact must be a peer,
 				// otherwise we would have exchanged invitation messages
 				PeerSession peerSession =
 						new PeerSession(contactGroupId, privateGroupId);
 				// Handle the action
 				session = peerEngine.onMemberAddedAction(txn, peerSession);
-				storageId = createStorageId(txn, contactGroupId);
 			} else {
 				// Handle the action
 				session = handleAction(txn, LocalAction.MEMBER_ADDED,
-						contactGroupId, ss.bdfSession);
-				storageId = ss.storageId;
+						contactGroupId, bdfSession);
 			}
 			// Store the updated session
-			storeSession(txn, storageId, session);
+			storeSession(txn, session);
 		} catch (FormatException e) {
 			throw new DbException(e);
 		}
@@ -537,13 +587,14 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 			for (Contact c : db.getContacts(txn)) {
 				// Look up the session for the contact, if there is one
 				GroupId contactGroupId = getContactGroup(c).getId();
-				StoredSession ss = getSession(txn, contactGroupId, sessionId);
-				if (ss == null) continue; // No session for this contact
+				BdfDictionary bdfSession =
+						getSession(txn, contactGroupId, sessionId);
+				if (bdfSession == null) continue; // No session for this contact
 				// Handle the action
 				Session session = handleAction(txn, LocalAction.LEAVE,
-						contactGroupId, ss.bdfSession);
+						contactGroupId, bdfSession);
 				// Store the updated session
-				storeSession(txn, ss.storageId, session);
+				storeSession(txn, session);
 			}
 		} catch (FormatException e) {
 			throw new DbException(e);
@@ -605,9 +656,8 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 	private Map<GroupId, Visibility> getPreferredVisibilities(Transaction txn,
 			Contact c) throws DbException, FormatException {
 		GroupId contactGroupId = getContactGroup(c).getId();
-		BdfDictionary query = sessionParser.getAllSessionsQuery();
-		Map<MessageId, BdfDictionary> results = clientHelper
-				.getMessageMetadataAsDictionary(txn, contactGroupId, query);
+		Map<SessionId, BdfDictionary> results =
+				clientHelper.getSessionsAsDictionary(txn, contactGroupId);
 		Map<GroupId, Visibility> m = new HashMap<>();
 		for (BdfDictionary d : results.values()) {
 			Role role = sessionParser.getRole(d);
@@ -629,15 +679,4 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 		}
 		return m;
 	}
-
-	private static class StoredSession {
-
-		private final MessageId storageId;
-		private final BdfDictionary bdfSession;
-
-		private StoredSession(MessageId storageId, BdfDictionary bdfSession) {
-			this.storageId = storageId;
-			this.bdfSession = bdfSession;
-		}
-	}
 }
@@ -94,7 +94,7 @@ class GroupInvitationValidator extends BdfMessageValidator {
 				privateGroup.getId()
 		);
 		try {
-			clientHelper.verifySignature(signature, SIGNING_LABEL_INVITE,
+			verifySignature(signature, SIGNING_LABEL_INVITE,
 					signed, creator.getPublicKey());
 		} catch (GeneralSecurityException e) {
 			throw new FormatException();
@@ -4,13 +4,10 @@ import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.GroupId;
-import org.briarproject.briar.api.client.SessionId;
 
 @NotNullByDefault
 interface SessionParser {
 
-	BdfDictionary getSessionQuery(SessionId s);
-
 	BdfDictionary getAllSessionsQuery();
 
 	Role getRole(BdfDictionary d) throws FormatException;
@@ -6,7 +6,6 @@ import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.MessageId;
-import org.briarproject.briar.api.client.SessionId;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
@@ -19,7 +18,6 @@ import static org.briarproject.briar.privategroup.invitation.GroupInvitationCons
 import static org.briarproject.briar.privategroup.invitation.GroupInvitationConstants.SESSION_KEY_LOCAL_TIMESTAMP;
 import static org.briarproject.briar.privategroup.invitation.GroupInvitationConstants.SESSION_KEY_PRIVATE_GROUP_ID;
 import static org.briarproject.briar.privategroup.invitation.GroupInvitationConstants.SESSION_KEY_ROLE;
-import static org.briarproject.briar.privategroup.invitation.GroupInvitationConstants.SESSION_KEY_SESSION_ID;
 import static org.briarproject.briar.privategroup.invitation.GroupInvitationConstants.SESSION_KEY_STATE;
 import static org.briarproject.briar.privategroup.invitation.Role.CREATOR;
 import static org.briarproject.briar.privategroup.invitation.Role.INVITEE;
@@ -33,11 +31,6 @@ class SessionParserImpl implements SessionParser {
 	SessionParserImpl() {
 	}
 
-	@Override
-	public BdfDictionary getSessionQuery(SessionId s) {
-		return BdfDictionary.of(new BdfEntry(SESSION_KEY_SESSION_ID, s));
-	}
-
 	@Override
 	public BdfDictionary getAllSessionsQuery() {
 		return BdfDictionary.of(new BdfEntry(SESSION_KEY_IS_SESSION, true));
@@ -6,7 +6,6 @@ import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.MessageId;
-import org.briarproject.briar.api.client.SessionId;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
@@ -17,7 +16,6 @@ import static org.briarproject.briar.sharing.SharingConstants.SESSION_KEY_IS_SES
 import static org.briarproject.briar.sharing.SharingConstants.SESSION_KEY_LAST_LOCAL_MESSAGE_ID;
 import static org.briarproject.briar.sharing.SharingConstants.SESSION_KEY_LAST_REMOTE_MESSAGE_ID;
 import static org.briarproject.briar.sharing.SharingConstants.SESSION_KEY_LOCAL_TIMESTAMP;
-import static org.briarproject.briar.sharing.SharingConstants.SESSION_KEY_SESSION_ID;
 import static org.briarproject.briar.sharing.SharingConstants.SESSION_KEY_SHAREABLE_ID;
 import static org.briarproject.briar.sharing.SharingConstants.SESSION_KEY_STATE;
 
@@ -29,11 +27,6 @@ class SessionParserImpl implements SessionParser {
 	SessionParserImpl() {
 	}
 
-	@Override
-	public BdfDictionary getSessionQuery(SessionId s) {
-		return BdfDictionary.of(new BdfEntry(SESSION_KEY_SESSION_ID, s));
-	}
-
 	@Override
 	public BdfDictionary getAllSessionsQuery() {
 		return BdfDictionary.of(new BdfEntry(SESSION_KEY_IS_SESSION, true));
@@ -3,15 +3,18 @@ package org.briarproject.briar.sharing;
 import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.client.ContactGroupFactory;
+import org.briarproject.bramble.api.client.SessionId;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.ContactManager.ContactHook;
 import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.data.MetadataParser;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
-import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.db.MessageCursor;
+import org.briarproject.bramble.api.db.NoSuchMessageException;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.Client;
@@ -25,7 +28,6 @@ import org.briarproject.bramble.api.sync.MessageStatus;
 import org.briarproject.bramble.api.versioning.ClientVersioningManager;
 import org.briarproject.bramble.api.versioning.ClientVersioningManager.ClientVersioningHook;
 import org.briarproject.briar.api.client.MessageTracker;
-import org.briarproject.briar.api.client.SessionId;
 import org.briarproject.briar.api.messaging.PrivateMessageHeader;
 import org.briarproject.briar.api.messaging.PrivateRequest;
 import org.briarproject.briar.api.sharing.InvitationResponse;
@@ -50,6 +52,8 @@ import static org.briarproject.briar.sharing.MessageType.DECLINE;
 import static org.briarproject.briar.sharing.MessageType.INVITE;
 import static org.briarproject.briar.sharing.MessageType.LEAVE;
 import static org.briarproject.briar.sharing.SharingConstants.GROUP_KEY_CONTACT_ID;
+import static org.briarproject.briar.sharing.SharingConstants.GROUP_KEY_SESSIONS_MIGRATED;
+import static org.briarproject.briar.sharing.SharingConstants.SESSION_KEY_SESSION_ID;
 import static org.briarproject.briar.sharing.State.SHARING;
 
 @NotNullByDefault
@@ -96,10 +100,44 @@ abstract class SharingManagerImpl<S extends Shareable>
 		// Create a local group to indicate that we've set this client up
 		Group localGroup = contactGroupFactory.createLocalGroup(getClientId(),
 				getMajorVersion());
-		if (db.containsGroup(txn, localGroup.getId())) return;
-		db.addGroup(txn, localGroup);
-		// Set things up for any pre-existing contacts
-		for (Contact c : db.getContacts(txn)) addingContact(txn, c);
+		if (!db.containsGroup(txn, localGroup.getId())) {
+			db.addGroup(txn, localGroup);
+			// Set things up for any pre-existing contacts
+			for (Contact c : db.getContacts(txn)) addingContact(txn, c);
+		}
+		migrateSessions(txn, localGroup.getId());
+	}
+
+	/**
+	 * Moves any sessions that were stored as message metadata by earlier
+	 * versions of this client into the session store.
+	 */
+	private void migrateSessions(Transaction txn, GroupId localGroupId)
+			throws DbException {
+		try {
+			BdfDictionary meta = clientHelper
+					.getGroupMetadataAsDictionary(txn, localGroupId);
+			if (meta.getBoolean(GROUP_KEY_SESSIONS_MIGRATED, false)) return;
+			BdfDictionary query = sessionParser.getAllSessionsQuery();
+			for (Contact c : db.getContacts(txn)) {
+				GroupId contactGroupId = getContactGroup(c).getId();
+				Map<MessageId, BdfDictionary> results = clientHelper
+						.getMessageMetadataAsDictionary(txn, contactGroupId,
+								query);
+				for (Entry<MessageId, BdfDictionary> e : results.entrySet()) {
+					BdfDictionary d = e.getValue();
+					SessionId sessionId =
+							new SessionId(d.getRaw(SESSION_KEY_SESSION_ID));
+					clientHelper.setSession(txn, contactGroupId, sessionId, d);
+					db.removeMessage(txn, e.getKey());
+				}
+			}
+			meta = BdfDictionary.of(
+					new BdfEntry(GROUP_KEY_SESSIONS_MIGRATED, true));
+			clientHelper.mergeGroupMetadata(txn, localGroupId, meta);
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
 	}
 
 	@Override
@@ -139,19 +177,16 @@ abstract class SharingManagerImpl<S extends Shareable>
 		MessageMetadata meta = messageParser.parseMetadata(d);
 		// Look up the session, if there is one
 		SessionId sessionId = getSessionId(meta.getShareableId());
-		StoredSession ss = getSession(txn, m.getGroupId(), sessionId);
+		BdfDictionary bdfSession = getSession(txn, m.getGroupId(), sessionId);
 		// Handle the message
 		Session session;
-		MessageId storageId;
-		if (ss == null) {
+		if (bdfSession == null) {
 			session = handleFirstMessage(txn, m, body, meta);
-			storageId = createStorageId(txn, m.getGroupId());
 		} else {
-			session = handleMessage(txn, m, body, meta, ss.bdfSession);
-			storageId = ss.storageId;
+			session = handleMessage(txn, m, body, meta, bdfSession);
 		}
 		// Store the updated session
-		storeSession(txn, storageId, session);
+		storeSession(txn, session);
 		return false;
 	}
 
@@ -164,7 +199,7 @@ abstract class SharingManagerImpl<S extends Shareable>
 			throws DbException, FormatException {
 		// Return if a session already exists with the contact
 		GroupId contactGroupId = getContactGroup(c).getId();
-		StoredSession existingSession = getSession(txn, contactGroupId,
+		BdfDictionary existingSession = getSession(txn, contactGroupId,
 				getSessionId(g.getId()));
 		if (existingSession != null) return;
 
@@ -179,8 +214,7 @@ abstract class SharingManagerImpl<S extends Shareable>
 		// Initialize session in sharing state
 		Session session = new Session(SHARING, contactGroupId, g.getId(),
 				null, null, 0, 0);
-		MessageId storageId = createStorageId(txn, contactGroupId);
-		storeSession(txn, storageId, session);
+		storeSession(txn, session);
 	}
 
 	private SessionId getSessionId(GroupId shareableId) {
@@ -188,15 +222,10 @@ abstract class SharingManagerImpl<S extends Shareable>
 	}
 
 	@Nullable
-	private StoredSession getSession(Transaction txn, GroupId contactGroupId,
+	private BdfDictionary getSession(Transaction txn, GroupId contactGroupId,
 			SessionId sessionId) throws DbException, FormatException {
-		BdfDictionary query = sessionParser.getSessionQuery(sessionId);
-		Map<MessageId, BdfDictionary> results = clientHelper
-				.getMessageMetadataAsDictionary(txn, contactGroupId, query);
-		if (results.size() > 1) throw new DbException();
-		if (results.isEmpty()) return null;
-		return new StoredSession(results.keySet().iterator().next(),
-				results.values().iterator().next());
+		return clientHelper.getSessionAsDictionary(txn, contactGroupId,
+				sessionId);
 	}
 
 	private Session handleFirstMessage(Transaction txn, Message m, BdfList body,
@@ -237,17 +266,11 @@ abstract class SharingManagerImpl<S extends Shareable>
 		}
 	}
 
-	private MessageId createStorageId(Transaction txn, GroupId g)
-			throws DbException {
-		Message m = clientHelper.createMessageForStoringMetadata(g);
-		db.addLocalMessage(txn, m, new Metadata(), false);
-		return m.getId();
-	}
-
-	private void storeSession(Transaction txn, MessageId storageId,
-			Session session) throws DbException, FormatException {
+	private void storeSession(Transaction txn, Session session)
+			throws DbException, FormatException {
 		BdfDictionary d = sessionEncoder.encodeSession(session);
-		clientHelper.mergeMessageMetadata(txn, storageId, d);
+		clientHelper.setSession(txn, session.getContactGroupId(),
+				getSessionId(session.getShareableId()), d);
 	}
 
 	@Override
@@ -262,24 +285,22 @@ abstract class SharingManagerImpl<S extends Shareable>
 				return;
 			// Look up the session, if there is one
 			GroupId contactGroupId = getContactGroup(contact).getId();
-			StoredSession ss = getSession(txn, contactGroupId, sessionId);
+			BdfDictionary bdfSession =
+					getSession(txn, contactGroupId, sessionId);
 			// Create or parse the session
 			Session session;
-			MessageId storageId;
-			if (ss == null) {
+			if (bdfSession == null) {
 				// This is the first invite - create a new session
 				session = new Session(contactGroupId, shareableId);
-				storageId = createStorageId(txn, contactGroupId);
 			} else {
 				// We already have a session
 				session = sessionParser
-						.parseSession(contactGroupId, ss.bdfSession);
-				storageId = ss.storageId;
+						.parseSession(contactGroupId, bdfSession);
 			}
 			// Handle the invite action
 			session = engine.onInviteAction(txn, session, text, timestamp);
 			// Store the updated session
-			storeSession(txn, storageId, session);
+			storeSession(txn, session);
 			db.commitTransaction(txn);
 		} catch (FormatException e) {
 			throw new DbException(e);
@@ -302,16 +323,17 @@ abstract class SharingManagerImpl<S extends Shareable>
 			// Look up the session
 			Contact contact = db.getContact(txn, c);
 			GroupId contactGroupId = getContactGroup(contact).getId();
-			StoredSession ss = getSession(txn, contactGroupId, id);
-			if (ss == null) throw new IllegalArgumentException();
+			BdfDictionary bdfSession =
+					getSession(txn, contactGroupId, id);
+			if (bdfSession == null) throw new IllegalArgumentException();
 			// Parse the session
 			Session session =
-					sessionParser.parseSession(contactGroupId, ss.bdfSession);
+					sessionParser.parseSession(contactGroupId, bdfSession);
 			// Handle the accept or decline action
 			if (accept) session = engine.onAcceptAction(txn, session);
 			else session = engine.onDeclineAction(txn, session);
 			// Store the updated session
-			storeSession(txn, ss.storageId, session);
+			storeSession(txn, session);
 			db.commitTransaction(txn);
 		} catch (FormatException e) {
 			throw new DbException(e);
@@ -329,31 +351,58 @@ abstract class SharingManagerImpl<S extends Shareable>
 			BdfDictionary query = messageParser.getMessagesVisibleInUiQuery();
 			Map<MessageId, BdfDictionary> results = clientHelper
 					.getMessageMetadataAsDictionary(txn, contactGroupId, query);
-			Collection<PrivateMessageHeader> messages =
-					new ArrayList<>(results.size());
-			for (Entry<MessageId, BdfDictionary> e : results.entrySet()) {
-				MessageId m = e.getKey();
-				MessageMetadata meta =
-						messageParser.parseMetadata(e.getValue());
-				MessageStatus status = db.getMessageStatus(txn, c, m);
-				MessageType type = meta.getMessageType();
-				if (type == INVITE) {
-					messages.add(parseInvitationRequest(txn, c, m,
-							meta, status));
-				} else if (type == ACCEPT) {
-					messages.add(parseInvitationResponse(contactGroupId, m,
-							meta, status, true));
-				} else if (type == DECLINE) {
-					messages.add(parseInvitationResponse(contactGroupId, m,
-							meta, status, false));
-				}
-			}
-			return messages;
+			return getMessageHeaders(txn, c, contactGroupId, results);
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public List<PrivateMessageHeader> getMessageHeaders(Transaction txn,
+			ContactId c, @Nullable MessageCursor before, int limit)
+			throws DbException {
+		try {
+			Contact contact = db.getContact(txn, c);
+			GroupId contactGroupId = getContactGroup(contact).getId();
+			BdfDictionary query = messageParser.getMessagesVisibleInUiQuery();
+			Map<MessageId, BdfDictionary> results = getMessageMetadata(txn,
+					contactGroupId, query, before, limit);
+			return getMessageHeaders(txn, c, contactGroupId, results);
 		} catch (FormatException e) {
 			throw new DbException(e);
 		}
 	}
 
+	private List<PrivateMessageHeader> getMessageHeaders(Transaction txn,
+			ContactId c, GroupId contactGroupId,
+			Map<MessageId, BdfDictionary> results)
+			throws DbException, FormatException {
+		List<PrivateMessageHeader> messages = new ArrayList<>(results.size());
+		for (Entry<MessageId, BdfDictionary> e : results.entrySet()) {
+			MessageId m = e.getKey();
+			MessageMetadata meta = messageParser.parseMetadata(e.getValue());
+			MessageStatus status;
+			try {
+				status = db.getMessageStatus(txn, c, m);
+			} catch (NoSuchMessageException ex) {
+				// The message was deleted after its metadata was loaded
+				continue;
+			}
+			MessageType type = meta.getMessageType();
+			if (type == INVITE) {
+				messages.add(parseInvitationRequest(txn, c, m,
+						meta, status));
+			} else if (type == ACCEPT) {
+				messages.add(parseInvitationResponse(contactGroupId, m,
+						meta, status, true));
+			} else if (type == DECLINE) {
+				messages.add(parseInvitationResponse(contactGroupId, m,
+						meta, status, false));
+			}
+		}
+		return messages;
+	}
+
 	private PrivateRequest<S> parseInvitationRequest(Transaction txn,
 			ContactId c, MessageId m, MessageMetadata meta,
 			MessageStatus status) throws DbException, FormatException {
@@ -459,12 +508,13 @@ abstract class SharingManagerImpl<S extends Shareable>
 		GroupId contactGroupId = getContactGroup(c).getId();
 		SessionId sessionId = getSessionId(g);
 		try {
-			StoredSession ss = getSession(txn, contactGroupId, sessionId);
+			BdfDictionary bdfSession =
+					getSession(txn, contactGroupId, sessionId);
 			// If there's no session, we can share the group with the contact
-			if (ss == null) return true;
+			if (bdfSession == null) return true;
 			// If the session's in the right state, the contact can be invited
 			Session session =
-					sessionParser.parseSession(contactGroupId, ss.bdfSession);
+					sessionParser.parseSession(contactGroupId, bdfSession);
 			return session.getState().canInvite();
 		} catch (FormatException e) {
 			throw new DbException(e);
@@ -478,14 +528,15 @@ abstract class SharingManagerImpl<S extends Shareable>
 			for (Contact c : db.getContacts(txn)) {
 				// Look up the session for the contact, if there is one
 				GroupId contactGroupId = getContactGroup(c).getId();
-				StoredSession ss = getSession(txn, contactGroupId, sessionId);
-				if (ss == null) continue; // No session for this contact
+				BdfDictionary bdfSession =
+						getSession(txn, contactGroupId, sessionId);
+				if (bdfSession == null) continue; // No session for this contact
 				// Let the engine perform a LEAVE action
 				Session session = sessionParser
-						.parseSession(contactGroupId, ss.bdfSession);
+						.parseSession(contactGroupId, bdfSession);
 				session = engine.onLeaveAction(txn, session);
 				// Store the updated session
-				storeSession(txn, ss.storageId, session);
+				storeSession(txn, session);
 			}
 		} catch (FormatException e) {
 			throw new DbException(e);
@@ -526,9 +577,8 @@ abstract class SharingManagerImpl<S extends Shareable>
 	private Map<GroupId, Visibility> getPreferredVisibilities(Transaction txn,
 			Contact c) throws DbException, FormatException {
 		GroupId contactGroupId = getContactGroup(c).getId();
-		BdfDictionary query = sessionParser.getAllSessionsQuery();
-		Map<MessageId, BdfDictionary> results = clientHelper
-				.getMessageMetadataAsDictionary(txn, contactGroupId, query);
+		Map<SessionId, BdfDictionary> results =
+				clientHelper.getSessionsAsDictionary(txn, contactGroupId);
 		Map<GroupId, Visibility> m = new HashMap<>();
 		for (BdfDictionary d : results.values()) {
 			Session s = sessionParser.parseSession(contactGroupId, d);
@@ -537,15 +587,4 @@ abstract class SharingManagerImpl<S extends Shareable>
 		return m;
 	}
 
-	private static class StoredSession {
-
-		private final MessageId storageId;
-		private final BdfDictionary bdfSession;
-
-		private StoredSession(MessageId storageId, BdfDictionary bdfSession) {
-			this.storageId = storageId;
-			this.bdfSession = bdfSession;
-		}
-	}
-
 }
@@ -4,16 +4,31 @@ import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.MessageCounts;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.settings.Settings;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.test.BrambleMockTestCase;
 import org.briarproject.bramble.test.TestUtils;
 import org.briarproject.briar.api.client.MessageTracker;
+import org.briarproject.briar.api.client.MessageTracker.GroupCount;
 import org.jmock.Expectations;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.briarproject.bramble.api.data.BdfDictionary.NULL_VALUE;
+import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_LATEST_MSG;
+import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_MSG_COUNT;
 import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_STORED_MESSAGE_ID;
+import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_UNREAD_COUNT;
+import static org.briarproject.briar.client.MessageTrackerConstants.SETTINGS_KEY_COUNTS_MIGRATED;
+import static org.briarproject.briar.client.MessageTrackerConstants.SETTINGS_NAMESPACE;
 
 public class MessageTrackerTest extends BrambleMockTestCase {
 
@@ -21,7 +36,10 @@ public class MessageTrackerTest extends BrambleMockTestCase {
 	protected final ClientHelper clientHelper =
 			context.mock(ClientHelper.class);
 	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
+	private final GroupId groupId1 = new GroupId(TestUtils.getRandomId());
 	private final MessageId messageId = new MessageId(TestUtils.getRandomId());
+	private final Transaction txn = new Transaction(null, false);
+	private final long timestamp = 123456789;
 	private final MessageTracker messageTracker =
 			new MessageTrackerImpl(db, clientHelper);
 	private final BdfDictionary dictionary = BdfDictionary.of(
@@ -47,4 +65,104 @@ public class MessageTrackerTest extends BrambleMockTestCase {
 		Assert.assertTrue(messageId.equals(loadedId));
 	}
 
+	@Test
+	public void testTrackMessageIncrementsCounts() throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(db).incrementMessageCounts(txn, groupId, timestamp, false);
+			will(returnValue(true));
+		}});
+		messageTracker.trackMessage(txn, groupId, timestamp, false);
+	}
+
+	@Test
+	public void testCreateLocalStateMigratesLegacyCounts() throws Exception {
+		expectMigrateLegacyCounts();
+		((MessageTrackerImpl) messageTracker).createLocalState(txn);
+	}
+
+	@Test
+	public void testCreateLocalStateSubsequentTime() throws Exception {
+		Settings settings = new Settings();
+		settings.putBoolean(SETTINGS_KEY_COUNTS_MIGRATED, true);
+		context.checking(new Expectations() {{
+			// The counts have already been migrated
+			oneOf(db).getSettings(txn, SETTINGS_NAMESPACE);
+			will(returnValue(settings));
+		}});
+		((MessageTrackerImpl) messageTracker).createLocalState(txn);
+	}
+
+	@Test
+	public void testPreExistingGroupCountsComeFromTable() throws Exception {
+		Collection<GroupId> groups = Collections.singletonList(groupId);
+		expectMigrateLegacyCounts();
+		context.checking(new Expectations() {{
+			// The counts are loaded from the table, not the metadata
+			oneOf(db).getMessageCounts(txn, groups);
+			will(returnValue(Collections.singletonMap(groupId,
+					new MessageCounts(3, 2, timestamp))));
+			oneOf(db).getMessageCounts(txn, groupId);
+			will(returnValue(new MessageCounts(3, 2, timestamp)));
+		}});
+		((MessageTrackerImpl) messageTracker).createLocalState(txn);
+		Map<GroupId, GroupCount> counts =
+				messageTracker.getGroupCounts(txn, groups);
+		Assert.assertEquals(1, counts.size());
+		assertGroupCount(counts.get(groupId), 3, 2, timestamp);
+		assertGroupCount(messageTracker.getGroupCount(txn, groupId), 3, 2,
+				timestamp);
+	}
+
+	@Test
+	public void testGetGroupCountsOmitsMissingGroups() throws Exception {
+		Collection<GroupId> groups = Arrays.asList(groupId, groupId1);
+		context.checking(new Expectations() {{
+			oneOf(db).getMessageCounts(txn, groups);
+			will(returnValue(Collections.singletonMap(groupId,
+					new MessageCounts(5, 1, timestamp))));
+		}});
+		Map<GroupId, GroupCount> counts =
+				messageTracker.getGroupCounts(txn, groups);
+		Assert.assertEquals(1, counts.size());
+		assertGroupCount(counts.get(groupId), 5, 1, timestamp);
+	}
+
+	private void expectMigrateLegacyCounts() throws Exception {
+		BdfDictionary legacy = BdfDictionary.of(
+				new BdfEntry(GROUP_KEY_MSG_COUNT, 3),
+				new BdfEntry(GROUP_KEY_UNREAD_COUNT, 2),
+				new BdfEntry(GROUP_KEY_LATEST_MSG, timestamp)
+		);
+		BdfDictionary removed = BdfDictionary.of(
+				new BdfEntry(GROUP_KEY_MSG_COUNT, NULL_VALUE),
+				new BdfEntry(GROUP_KEY_UNREAD_COUNT, NULL_VALUE),
+				new BdfEntry(GROUP_KEY_LATEST_MSG, NULL_VALUE)
+		);
+		Settings migrated = new Settings();
+		migrated.putBoolean(SETTINGS_KEY_COUNTS_MIGRATED, true);
+		context.checking(new Expectations() {{
+			oneOf(db).getSettings(txn, SETTINGS_NAMESPACE);
+			will(returnValue(new Settings()));
+			// The group has no row in the message counts table
+			oneOf(db).getGroupsWithoutMessageCounts(txn);
+			will(returnValue(Collections.singletonList(groupId)));
+			// Move the counts out of the group metadata
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn, groupId);
+			will(returnValue(legacy));
+			oneOf(db).setMessageCounts(txn, groupId,
+					new MessageCounts(3, 2, timestamp));
+			oneOf(clientHelper).mergeGroupMetadata(txn, groupId, removed);
+			// Don't migrate the counts again
+			oneOf(db).mergeSettings(txn, migrated, SETTINGS_NAMESPACE);
+		}});
+	}
+
+	private void assertGroupCount(GroupCount c, int msgCount, int unreadCount,
+			long latestMsgTime) {
+		Assert.assertNotNull(c);
+		Assert.assertEquals(msgCount, c.getMsgCount());
+		Assert.assertEquals(unreadCount, c.getUnreadCount());
+		Assert.assertEquals(latestMsgTime, c.getLatestMsgTime());
+	}
+
 }
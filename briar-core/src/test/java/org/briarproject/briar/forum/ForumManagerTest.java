@@ -1,5 +1,6 @@
 package org.briarproject.briar.forum;
 
+import org.briarproject.bramble.api.db.MessageCursor;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.test.TestDatabaseModule;
 import org.briarproject.briar.api.forum.Forum;
@@ -14,6 +15,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.Collection;
+import java.util.List;
 
 import javax.annotation.Nullable;
 
@@ -130,6 +132,39 @@ public class ForumManagerTest
 		assertEquals(0, forumManager0.getForums().size());
 	}
 
+	@Test
+	public void testGetPostHeadersInPages() throws Exception {
+		GroupId g = forum0.getGroup().getId();
+		long ms = clock.currentTimeMillis() - 1000L;
+		// Add three posts, two of them with the same timestamp
+		ForumPost post1 = createForumPost(g, null, "a", ms);
+		ForumPost post2 = createForumPost(g, post1, "b", ms + 1);
+		ForumPost post3 = createForumPost(g, post1, "c", ms + 1);
+		forumManager0.addLocalPost(post1);
+		forumManager0.addLocalPost(post2);
+		forumManager0.addLocalPost(post3);
+
+		// Page through the posts, two at a time
+		List<ForumPostHeader> page1 = forumManager0.getPostHeaders(g, null, 2);
+		assertEquals(2, page1.size());
+		ForumPostHeader last = page1.get(1);
+		MessageCursor cursor =
+				new MessageCursor(last.getTimestamp(), last.getId());
+		List<ForumPostHeader> page2 =
+				forumManager0.getPostHeaders(g, cursor, 2);
+		assertEquals(1, page2.size());
+		// The oldest post should be on the last page
+		assertEquals(post1.getMessage().getId(), page2.get(0).getId());
+		assertEquals(ms + 1, page1.get(0).getTimestamp());
+		assertEquals(ms + 1, page1.get(1).getTimestamp());
+		assertFalse(page1.get(0).getId().equals(page1.get(1).getId()));
+
+		// There should be no more pages
+		last = page2.get(0);
+		cursor = new MessageCursor(last.getTimestamp(), last.getId());
+		assertTrue(forumManager0.getPostHeaders(g, cursor, 2).isEmpty());
+	}
+
 	@Test
 	public void testForumPostDelivery() throws Exception {
 		// add one forum post
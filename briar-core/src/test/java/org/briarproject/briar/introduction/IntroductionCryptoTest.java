@@ -1,10 +1,10 @@
 package org.briarproject.briar.introduction;
 
 import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.client.SessionId;
 import org.briarproject.bramble.api.crypto.CryptoComponent;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.test.BrambleMockTestCase;
-import org.briarproject.briar.api.client.SessionId;
 import org.jmock.Expectations;
 import org.junit.Test;
 
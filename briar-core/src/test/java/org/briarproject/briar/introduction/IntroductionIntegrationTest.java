@@ -4,6 +4,7 @@ import net.jodah.concurrentunit.Waiter;
 
 import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.client.SessionId;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.data.BdfDictionary;
@@ -19,11 +20,11 @@ import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.nullsafety.ParametersNotNullByDefault;
 import org.briarproject.bramble.api.properties.TransportPropertyManager;
 import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.test.TestDatabaseModule;
 import org.briarproject.briar.api.client.ProtocolStateException;
-import org.briarproject.briar.api.client.SessionId;
 import org.briarproject.briar.api.introduction.IntroductionManager;
 import org.briarproject.briar.api.introduction.IntroductionRequest;
 import org.briarproject.briar.api.introduction.IntroductionResponse;
@@ -44,6 +45,7 @@ import java.util.concurrent.TimeoutException;
 import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_PUBLIC_KEY_LENGTH;
 import static org.briarproject.bramble.test.TestPluginConfigModule.TRANSPORT_ID;
 import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
 import static org.briarproject.bramble.test.TestUtils.getSecretKey;
 import static org.briarproject.bramble.test.TestUtils.getTransportProperties;
 import static org.briarproject.bramble.test.TestUtils.getTransportPropertiesMap;
@@ -54,6 +56,7 @@ import static org.briarproject.briar.introduction.IntroduceeState.LOCAL_DECLINED
 import static org.briarproject.briar.introduction.IntroducerState.A_DECLINED;
 import static org.briarproject.briar.introduction.IntroducerState.B_DECLINED;
 import static org.briarproject.briar.introduction.IntroducerState.START;
+import static org.briarproject.briar.introduction.IntroductionConstants.GROUP_KEY_SESSIONS_MIGRATED;
 import static org.briarproject.briar.introduction.IntroductionConstants.MSG_KEY_MESSAGE_TYPE;
 import static org.briarproject.briar.introduction.IntroductionConstants.SESSION_KEY_AUTHOR;
 import static org.briarproject.briar.introduction.IntroductionConstants.SESSION_KEY_INTRODUCEE_A;
@@ -64,6 +67,7 @@ import static org.briarproject.briar.introduction.MessageType.ACCEPT;
 import static org.briarproject.briar.introduction.MessageType.AUTH;
 import static org.briarproject.briar.introduction.MessageType.DECLINE;
 import static org.briarproject.briar.test.BriarTestUtils.assertGroupCount;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -865,19 +869,15 @@ public class IntroductionIntegrationTest
 		eventWaiter.await(TIMEOUT, 1);
 		assertTrue(listener1.requestReceived);
 
-		// get local group for introducee1
-		Group group1 = getLocalGroup();
 
 		// check that we have one session state
-		assertEquals(1, c1.getClientHelper()
-				.getMessageMetadataAsDictionary(group1.getId()).size());
+		assertEquals(1, getSessions(c1).size());
 
 		// introducee1 removes introducer
 		contactManager1.removeContact(contactId0From1);
 
 		// make sure local state got deleted
-		assertEquals(0, c1.getClientHelper()
-				.getMessageMetadataAsDictionary(group1.getId()).size());
+		assertEquals(0, getSessions(c1).size());
 	}
 
 	@Test
@@ -894,19 +894,14 @@ public class IntroductionIntegrationTest
 		eventWaiter.await(TIMEOUT, 1);
 		assertTrue(listener1.requestReceived);
 
-		// get local group for introducer
-		Group group0 = getLocalGroup();
-
 		// check that we have one session state
-		assertEquals(1, c0.getClientHelper()
-				.getMessageMetadataAsDictionary(group0.getId()).size());
+		assertEquals(1, getSessions(c0).size());
 
 		// introducer removes introducee1
 		contactManager0.removeContact(contactId1From0);
 
 		// make sure local state is still there
-		assertEquals(1, c0.getClientHelper()
-				.getMessageMetadataAsDictionary(group0.getId()).size());
+		assertEquals(1, getSessions(c0).size());
 
 		// ensure introducer has aborted the session
 		assertTrue(listener0.aborted);
@@ -921,8 +916,7 @@ public class IntroductionIntegrationTest
 		contactManager0.removeContact(contactId2From0);
 
 		// make sure local state is gone now
-		assertEquals(0, c0.getClientHelper()
-				.getMessageMetadataAsDictionary(group0.getId()).size());
+		assertEquals(0, getSessions(c0).size());
 	}
 
 	@Test
@@ -1007,16 +1001,14 @@ public class IntroductionIntegrationTest
 			c0.getClientHelper()
 					.addLocalMessage(txn, msg, new BdfDictionary(), true);
 			Group group0 = getLocalGroup();
-			BdfDictionary query = BdfDictionary.of(
-					new BdfEntry(SESSION_KEY_SESSION_ID, m.getSessionId())
-			);
-			Map.Entry<MessageId, BdfDictionary> session = c0.getClientHelper()
-					.getMessageMetadataAsDictionary(txn, group0.getId(), query)
-					.entrySet().iterator().next();
+			BdfDictionary session = c0.getClientHelper()
+					.getSessionAsDictionary(txn, group0.getId(),
+							m.getSessionId());
+			assertNotNull(session);
 			replacePreviousLocalMessageId(contact2From0.getAuthor(),
-					session.getValue(), msg.getId());
-			c0.getClientHelper().mergeMessageMetadata(txn, session.getKey(),
-					session.getValue());
+					session, msg.getId());
+			c0.getClientHelper().setSession(txn, group0.getId(),
+					m.getSessionId(), session);
 		});
 
 		// sync second response
@@ -1084,6 +1076,66 @@ public class IntroductionIntegrationTest
 		);
 	}
 
+	@Test
+	public void testLegacySessionsAreMigrated() throws Exception {
+		GroupId localGroupId = getLocalGroup().getId();
+		IntroductionManagerImpl manager =
+				(IntroductionManagerImpl) introductionManager0;
+		// Store a session the way an earlier version of the client did
+		SessionId sessionId = new SessionId(getRandomId());
+		BdfDictionary legacySession = BdfDictionary.of(
+				new BdfEntry(SESSION_KEY_SESSION_ID, sessionId.getBytes()),
+				new BdfEntry("foo", "bar"));
+		Message m1 = addLegacySession(localGroupId, legacySession);
+		// Pretend that the sessions haven't been migrated yet
+		db0.transaction(false, txn -> clientHelper.mergeGroupMetadata(txn,
+				localGroupId, BdfDictionary.of(
+						new BdfEntry(GROUP_KEY_SESSIONS_MIGRATED, false))));
+
+		db0.transaction(false, manager::createLocalState);
+
+		// The session should have been moved to the session store
+		Map<SessionId, BdfDictionary> sessions = getSessions(c0);
+		assertEquals(1, sessions.size());
+		BdfDictionary session = sessions.get(sessionId);
+		assertNotNull(session);
+		assertArrayEquals(sessionId.getBytes(),
+				session.getRaw(SESSION_KEY_SESSION_ID));
+		assertEquals("bar", session.getString("foo"));
+		// The legacy message should have been removed
+		assertFalse(getLegacySessions(localGroupId)
+				.containsKey(m1.getId()));
+		// The flag should have been set
+		BdfDictionary meta = db0.transactionWithResult(true, txn ->
+				clientHelper.getGroupMetadataAsDictionary(txn, localGroupId));
+		assertTrue(meta.getBoolean(GROUP_KEY_SESSIONS_MIGRATED));
+
+		// Sessions should not be migrated a second time
+		SessionId sessionId2 = new SessionId(getRandomId());
+		BdfDictionary legacySession2 = BdfDictionary.of(
+				new BdfEntry(SESSION_KEY_SESSION_ID, sessionId2.getBytes()));
+		Message m2 = addLegacySession(localGroupId, legacySession2);
+
+		db0.transaction(false, manager::createLocalState);
+
+		assertEquals(sessions.keySet(), getSessions(c0).keySet());
+		assertTrue(getLegacySessions(localGroupId).containsKey(m2.getId()));
+	}
+
+	private Message addLegacySession(GroupId localGroupId,
+			BdfDictionary legacySession) throws Exception {
+		Message m = clientHelper.createMessageForStoringMetadata(localGroupId);
+		db0.transaction(false, txn ->
+				clientHelper.addLocalMessage(txn, m, legacySession, false));
+		return m;
+	}
+
+	private Map<MessageId, BdfDictionary> getLegacySessions(
+			GroupId localGroupId) throws Exception {
+		return db0.transactionWithResult(true, txn -> clientHelper
+				.getMessageMetadataAsDictionary(txn, localGroupId));
+	}
+
 	private void addTransportProperties()
 			throws DbException, IOException, TimeoutException {
 		TransportPropertyManager tpm0 = c0.getTransportPropertyManager();
@@ -1314,8 +1366,7 @@ public class IntroductionIntegrationTest
 
 	private IntroducerSession getIntroducerSession()
 			throws DbException, FormatException {
-		Map<MessageId, BdfDictionary> dicts = c0.getClientHelper()
-				.getMessageMetadataAsDictionary(getLocalGroup().getId());
+		Map<SessionId, BdfDictionary> dicts = getSessions(c0);
 		assertEquals(1, dicts.size());
 		BdfDictionary d = dicts.values().iterator().next();
 		return c0.getSessionParser().parseIntroducerSession(d);
@@ -1324,8 +1375,7 @@ public class IntroductionIntegrationTest
 	private IntroduceeSession getIntroduceeSession(
 			IntroductionIntegrationTestComponent c)
 			throws DbException, FormatException {
-		Map<MessageId, BdfDictionary> dicts = c.getClientHelper()
-				.getMessageMetadataAsDictionary(getLocalGroup().getId());
+		Map<SessionId, BdfDictionary> dicts = getSessions(c);
 		assertEquals(1, dicts.size());
 		BdfDictionary d = dicts.values().iterator().next();
 		Group introducerGroup =
@@ -1334,6 +1384,14 @@ public class IntroductionIntegrationTest
 				.parseIntroduceeSession(introducerGroup.getId(), d);
 	}
 
+	private Map<SessionId, BdfDictionary> getSessions(
+			IntroductionIntegrationTestComponent c)
+			throws DbException, FormatException {
+		return c.getDatabaseComponent().transactionWithResult(true, txn ->
+				c.getClientHelper().getSessionsAsDictionary(txn,
+						getLocalGroup().getId()));
+	}
+
 	private Group getLocalGroup() {
 		return contactGroupFactory.createLocalGroup(CLIENT_ID, MAJOR_VERSION);
 	}
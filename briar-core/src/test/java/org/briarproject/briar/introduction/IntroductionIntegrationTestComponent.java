@@ -26,6 +26,7 @@ import org.briarproject.briar.privategroup.PrivateGroupModule;
 import org.briarproject.briar.privategroup.invitation.GroupInvitationModule;
 import org.briarproject.briar.sharing.SharingModule;
 import org.briarproject.briar.test.BriarIntegrationTestComponent;
+import org.briarproject.briar.test.TestModule;
 
 import javax.inject.Singleton;
 
@@ -57,6 +58,7 @@ import dagger.Component;
 		SharingModule.class,
 		SyncModule.class,
 		SystemModule.class,
+		TestModule.class,
 		TransportModule.class,
 		VersioningModule.class
 })
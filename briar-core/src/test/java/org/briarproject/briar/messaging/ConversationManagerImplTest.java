@@ -0,0 +1,137 @@
+package org.briarproject.briar.messaging;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.MessageCursor;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.briar.api.client.MessageTracker;
+import org.briarproject.briar.api.messaging.ConversationManager.ConversationClient;
+import org.briarproject.briar.api.messaging.PrivateMessageHeader;
+import org.jmock.Expectations;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConversationManagerImplTest extends BrambleMockTestCase {
+
+	private static final int LIMIT = 2;
+
+	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
+	private final MessageTracker messageTracker =
+			context.mock(MessageTracker.class);
+	private final ConversationClient client1 =
+			context.mock(ConversationClient.class, "client1");
+	private final ConversationClient client2 =
+			context.mock(ConversationClient.class, "client2");
+
+	private final ContactId contactId = new ContactId(123);
+	private final GroupId groupId1 = new GroupId(getRandomId());
+	private final GroupId groupId2 = new GroupId(getRandomId());
+	private final Transaction txn = new Transaction(null, true);
+
+	private ConversationManagerImpl conversationManager;
+
+	@Before
+	public void setUp() {
+		conversationManager = new ConversationManagerImpl(db, messageTracker);
+		conversationManager.registerConversationClient(client1);
+		conversationManager.registerConversationClient(client2);
+	}
+
+	@Test
+	public void testPagesAreMergedNewestFirstAcrossClients()
+			throws Exception {
+		// The clients' messages are interleaved in time
+		PrivateMessageHeader m5 = getHeader(groupId1, 5);
+		PrivateMessageHeader m4 = getHeader(groupId2, 4);
+		PrivateMessageHeader m3 = getHeader(groupId1, 3);
+		PrivateMessageHeader m2 = getHeader(groupId2, 2);
+		PrivateMessageHeader m1 = getHeader(groupId1, 1);
+
+		// Each client returns its own newest messages before the cursor
+		expectGetPage(null, asList(m5, m3), asList(m4, m2));
+		List<PrivateMessageHeader> page1 =
+				conversationManager.getMessageHeaders(contactId, null, LIMIT);
+		assertEquals(asList(m5, m4), page1);
+
+		// The next page continues from the last header of the first page
+		MessageCursor cursor1 = getCursor(m4);
+		expectGetPage(cursor1, asList(m3, m1), singletonList(m2));
+		List<PrivateMessageHeader> page2 =
+				conversationManager.getMessageHeaders(contactId, cursor1,
+						LIMIT);
+		assertEquals(asList(m3, m2), page2);
+
+		MessageCursor cursor2 = getCursor(m2);
+		expectGetPage(cursor2, singletonList(m1), emptyList());
+		List<PrivateMessageHeader> page3 =
+				conversationManager.getMessageHeaders(contactId, cursor2,
+						LIMIT);
+		assertEquals(singletonList(m1), page3);
+
+		// Paging stops when an empty page is returned
+		MessageCursor cursor3 = getCursor(m1);
+		expectGetPage(cursor3, emptyList(), emptyList());
+		assertTrue(conversationManager.getMessageHeaders(contactId, cursor3,
+				LIMIT).isEmpty());
+	}
+
+	@Test
+	public void testMessagesWithEqualTimestampsAreOrderedById()
+			throws Exception {
+		PrivateMessageHeader a = getHeader(groupId1, 1);
+		PrivateMessageHeader b = getHeader(groupId2, 1);
+		// Newest first means the greater ID comes first
+		List<PrivateMessageHeader> expected = new ArrayList<>(asList(a, b));
+		Collections.sort(expected,
+				(x, y) -> y.getId().compareTo(x.getId()));
+
+		expectGetPage(null, singletonList(a), singletonList(b));
+		assertEquals(expected,
+				conversationManager.getMessageHeaders(contactId, null, LIMIT));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testLimitMustBePositive() throws Exception {
+		conversationManager.getMessageHeaders(contactId, null, 0);
+	}
+
+	private void expectGetPage(@Nullable MessageCursor before,
+			List<PrivateMessageHeader> page1,
+			List<PrivateMessageHeader> page2) throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(db).startTransaction(true);
+			will(returnValue(txn));
+			oneOf(client1).getMessageHeaders(txn, contactId, before, LIMIT);
+			will(returnValue(page1));
+			oneOf(client2).getMessageHeaders(txn, contactId, before, LIMIT);
+			will(returnValue(page2));
+			oneOf(db).commitTransaction(txn);
+			oneOf(db).endTransaction(txn);
+		}});
+	}
+
+	private PrivateMessageHeader getHeader(GroupId g, long timestamp) {
+		return new PrivateMessageHeader(new MessageId(getRandomId()), g,
+				timestamp, false, false, false, false);
+	}
+
+	private MessageCursor getCursor(PrivateMessageHeader h) {
+		return new MessageCursor(h.getTimestamp(), h.getId());
+	}
+}
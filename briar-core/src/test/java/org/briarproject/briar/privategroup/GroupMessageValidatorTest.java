@@ -2,6 +2,7 @@ package org.briarproject.briar.privategroup;
 
 import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.client.BdfMessageContext;
+import org.briarproject.bramble.api.crypto.SignatureToVerify;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.identity.Author;
@@ -13,6 +14,8 @@ import org.briarproject.briar.api.privategroup.PrivateGroup;
 import org.briarproject.briar.api.privategroup.PrivateGroupFactory;
 import org.briarproject.briar.api.privategroup.invitation.GroupInvitationFactory;
 import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
 import org.junit.Test;
 
 import java.security.GeneralSecurityException;
@@ -390,14 +393,16 @@ public class GroupMessageValidatorTest extends ValidatorTestCase {
 				creatorList,
 				null
 		);
+		byte[] signedBytes = getRandomBytes(123);
 		expectParseAuthor(creatorList, creator);
 		expectParsePrivateGroup();
 		context.checking(new Expectations() {{
-			oneOf(clientHelper).verifySignature(memberSignature,
-					SIGNING_LABEL_JOIN, signed, creator.getPublicKey());
-			if (!memberSigValid)
-				will(throwException(new GeneralSecurityException()));
+			oneOf(clientHelper).toByteArray(signed);
+			will(returnValue(signedBytes));
 		}});
+		expectVerifySignatures(memberSigValid,
+				new SignatureToVerify(memberSignature, SIGNING_LABEL_JOIN,
+						signedBytes, creator.getPublicKey()));
 	}
 
 	private void expectMemberJoinMessage(boolean creatorSigValid,
@@ -408,22 +413,50 @@ public class GroupMessageValidatorTest extends ValidatorTestCase {
 				memberList,
 				invite
 		);
+		byte[] tokenBytes = getRandomBytes(123);
+		byte[] signedBytes = getRandomBytes(123);
 		expectParseAuthor(memberList, member);
 		expectParsePrivateGroup();
 		context.checking(new Expectations() {{
 			oneOf(groupInvitationFactory).createInviteToken(creator.getId(),
 					member.getId(), privateGroup.getId(), inviteTimestamp);
 			will(returnValue(token));
-			oneOf(clientHelper).verifySignature(creatorSignature,
-					SIGNING_LABEL_INVITE, token, creator.getPublicKey());
-			if (!creatorSigValid) {
-				will(throwException(new GeneralSecurityException()));
-			} else {
-				oneOf(clientHelper).verifySignature(memberSignature,
-						SIGNING_LABEL_JOIN, signed, member.getPublicKey());
-				if (!memberSigValid)
-					will(throwException(new GeneralSecurityException()));
-			}
+			oneOf(clientHelper).toByteArray(token);
+			will(returnValue(tokenBytes));
+			oneOf(clientHelper).toByteArray(signed);
+			will(returnValue(signedBytes));
+		}});
+		// Both signatures are verified in a single batch
+		expectVerifySignatures(creatorSigValid && memberSigValid,
+				new SignatureToVerify(creatorSignature, SIGNING_LABEL_INVITE,
+						tokenBytes, creator.getPublicKey()),
+				new SignatureToVerify(memberSignature, SIGNING_LABEL_JOIN,
+						signedBytes, member.getPublicKey()));
+	}
+
+	private void expectVerifySignatures(boolean valid,
+			SignatureToVerify... expected) throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(clientHelper).verifySignatures(with(any(Collection.class)));
+			will(new CustomAction("verify signatures") {
+				@Override
+				public Object invoke(Invocation invocation) throws Throwable {
+					Collection<?> actual =
+							(Collection<?>) invocation.getParameter(0);
+					assertEquals(expected.length, actual.size());
+					int i = 0;
+					for (Object o : actual) {
+						SignatureToVerify a = (SignatureToVerify) o;
+						SignatureToVerify e = expected[i++];
+						assertArrayEquals(e.getSignature(), a.getSignature());
+						assertEquals(e.getLabel(), a.getLabel());
+						assertArrayEquals(e.getSigned(), a.getSigned());
+						assertArrayEquals(e.getPublicKey(), a.getPublicKey());
+					}
+					if (!valid) throw new GeneralSecurityException();
+					return null;
+				}
+			});
 		}});
 	}
 
@@ -3,6 +3,7 @@ package org.briarproject.briar.privategroup.invitation;
 import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.client.ContactGroupFactory;
+import org.briarproject.bramble.api.client.SessionId;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.data.BdfDictionary;
@@ -10,8 +11,6 @@ import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.data.MetadataParser;
 import org.briarproject.bramble.api.db.DatabaseComponent;
-import org.briarproject.bramble.api.db.DbException;
-import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.identity.AuthorId;
@@ -23,7 +22,6 @@ import org.briarproject.bramble.api.versioning.ClientVersioningManager;
 import org.briarproject.bramble.test.BrambleMockTestCase;
 import org.briarproject.bramble.test.TestUtils;
 import org.briarproject.briar.api.client.MessageTracker;
-import org.briarproject.briar.api.client.SessionId;
 import org.briarproject.briar.api.messaging.PrivateMessageHeader;
 import org.briarproject.briar.api.privategroup.PrivateGroup;
 import org.briarproject.briar.api.privategroup.PrivateGroupFactory;
@@ -57,6 +55,8 @@ import static org.briarproject.briar.api.privategroup.PrivateGroupConstants.MAX_
 import static org.briarproject.briar.api.privategroup.invitation.GroupInvitationManager.CLIENT_ID;
 import static org.briarproject.briar.api.privategroup.invitation.GroupInvitationManager.MAJOR_VERSION;
 import static org.briarproject.briar.privategroup.invitation.GroupInvitationConstants.GROUP_KEY_CONTACT_ID;
+import static org.briarproject.briar.privategroup.invitation.GroupInvitationConstants.GROUP_KEY_SESSIONS_MIGRATED;
+import static org.briarproject.briar.privategroup.invitation.GroupInvitationConstants.SESSION_KEY_SESSION_ID;
 import static org.briarproject.briar.privategroup.invitation.MessageType.ABORT;
 import static org.briarproject.briar.privategroup.invitation.MessageType.INVITE;
 import static org.briarproject.briar.privategroup.invitation.MessageType.JOIN;
@@ -109,13 +109,8 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 	private final BdfList body = BdfList.of("body");
 	private final SessionId sessionId =
 			new SessionId(privateGroup.getId().getBytes());
-	private final Message storageMessage = getMessage(contactGroup.getId());
 	private final BdfDictionary bdfSession =
 			BdfDictionary.of(new BdfEntry("f", "o"));
-	private final Map<MessageId, BdfDictionary> oneResult =
-			Collections.singletonMap(storageMessage.getId(), bdfSession);
-	private final Map<MessageId, BdfDictionary> noResults =
-			Collections.emptyMap();
 
 
 	public GroupInvitationManagerImplTest() {
@@ -160,6 +155,7 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 			will(returnValue(Collections.singletonList(contact)));
 		}});
 		expectAddingContact(contact);
+		expectMigrateSessions(new BdfDictionary(), Collections.emptyMap());
 		groupInvitationManager.createLocalState(txn);
 	}
 
@@ -172,9 +168,61 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 			oneOf(db).containsGroup(txn, localGroup.getId());
 			will(returnValue(true));
 		}});
+		expectMigrateSessions(BdfDictionary.of(
+				new BdfEntry(GROUP_KEY_SESSIONS_MIGRATED, true)),
+				Collections.emptyMap());
 		groupInvitationManager.createLocalState(txn);
 	}
 
+	@Test
+	public void testCreateLocalStateMigratesSessions() throws Exception {
+		MessageId storageId = new MessageId(getRandomId());
+		BdfDictionary legacySession = BdfDictionary.of(
+				new BdfEntry(SESSION_KEY_SESSION_ID, sessionId.getBytes()));
+
+		context.checking(new Expectations() {{
+			oneOf(contactGroupFactory).createLocalGroup(CLIENT_ID,
+					MAJOR_VERSION);
+			will(returnValue(localGroup));
+			oneOf(db).containsGroup(txn, localGroup.getId());
+			will(returnValue(true));
+			// The legacy session is moved to the session store
+			oneOf(clientHelper).setSession(txn, contactGroup.getId(),
+					sessionId, legacySession);
+			oneOf(db).removeMessage(txn, storageId);
+		}});
+		expectMigrateSessions(new BdfDictionary(),
+				Collections.singletonMap(storageId, legacySession));
+		groupInvitationManager.createLocalState(txn);
+	}
+
+	private void expectMigrateSessions(BdfDictionary localGroupMeta,
+			Map<MessageId, BdfDictionary> legacySessions) throws Exception {
+		BdfDictionary query = BdfDictionary.of(new BdfEntry("q", "u"));
+		BdfDictionary migrated = BdfDictionary.of(
+				new BdfEntry(GROUP_KEY_SESSIONS_MIGRATED, true));
+
+		context.checking(new Expectations() {{
+			oneOf(clientHelper)
+					.getGroupMetadataAsDictionary(txn, localGroup.getId());
+			will(returnValue(localGroupMeta));
+			if (!localGroupMeta.containsKey(GROUP_KEY_SESSIONS_MIGRATED)) {
+				oneOf(sessionParser).getAllSessionsQuery();
+				will(returnValue(query));
+				oneOf(db).getContacts(txn);
+				will(returnValue(Collections.singletonList(contact)));
+				oneOf(contactGroupFactory).createContactGroup(CLIENT_ID,
+						MAJOR_VERSION, contact);
+				will(returnValue(contactGroup));
+				oneOf(clientHelper).getMessageMetadataAsDictionary(txn,
+						contactGroup.getId(), query);
+				will(returnValue(legacySessions));
+				oneOf(clientHelper)
+						.mergeGroupMetadata(txn, localGroup.getId(), migrated);
+			}
+		}});
+	}
+
 	private void expectAddingContact(Contact c) throws Exception {
 		BdfDictionary meta = BdfDictionary
 				.of(new BdfEntry(GROUP_KEY_CONTACT_ID, c.getId().getInt()));
@@ -207,7 +255,7 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 					MAJOR_VERSION, c);
 			will(returnValue(contactGroup));
 		}});
-		expectGetSession(noResults, new SessionId(g.getBytes()),
+		expectGetSession(null, new SessionId(g.getBytes()),
 				contactGroup.getId());
 
 		context.checking(new Expectations() {{
@@ -215,38 +263,29 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 					with(any(PeerSession.class)));
 			will(returnValue(peerSession));
 		}});
-		expectStoreSession(peerSession, storageMessage.getId());
-		expectCreateStorageId();
+		expectStoreSession(peerSession, contactGroup.getId());
 	}
 
-	private void expectCreateStorageId() throws DbException {
-		context.checking(new Expectations() {{
-			oneOf(clientHelper)
-					.createMessageForStoringMetadata(contactGroup.getId());
-			will(returnValue(storageMessage));
-			oneOf(db).addLocalMessage(txn, storageMessage, new Metadata(),
-					false);
-		}});
-	}
-
-	private void expectStoreSession(Session session, MessageId storageId)
+	private void expectStoreSession(Session session, GroupId contactGroupId)
 			throws Exception {
 		context.checking(new Expectations() {{
 			oneOf(sessionEncoder).encodeSession(session);
 			will(returnValue(meta));
-			oneOf(clientHelper).mergeMessageMetadata(txn, storageId, meta);
+			allowing(session).getContactGroupId();
+			will(returnValue(contactGroupId));
+			allowing(session).getPrivateGroupId();
+			will(returnValue(privateGroup.getId()));
+			oneOf(clientHelper).setSession(txn, contactGroupId, sessionId,
+					meta);
 		}});
 	}
 
-	private void expectGetSession(Map<MessageId, BdfDictionary> results,
+	private void expectGetSession(@Nullable BdfDictionary result,
 			SessionId sessionId, GroupId contactGroupId) throws Exception {
-		BdfDictionary query = BdfDictionary.of(new BdfEntry("q", "u"));
 		context.checking(new Expectations() {{
-			oneOf(sessionParser).getSessionQuery(sessionId);
-			will(returnValue(query));
-			oneOf(clientHelper).getMessageMetadataAsDictionary(txn,
-					contactGroupId, query);
-			will(returnValue(results));
+			oneOf(clientHelper).getSessionAsDictionary(txn, contactGroupId,
+					sessionId);
+			will(returnValue(result));
 		}});
 	}
 
@@ -318,12 +357,9 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 	private void expectFirstIncomingMessage(Role role, MessageType type)
 			throws Exception {
 		expectParseMessageMetadata();
-		expectGetSession(noResults, sessionId, contactGroup.getId());
+		expectGetSession(null, sessionId, contactGroup.getId());
 		Session session = expectHandleFirstMessage(role, messageMetadata, type);
-		if (session != null) {
-			expectCreateStorageId();
-			expectStoreSession(session, storageMessage.getId());
-		}
+		if (session != null) expectStoreSession(session, contactGroup.getId());
 	}
 
 	private void expectParseMessageMetadata() throws Exception {
@@ -345,10 +381,10 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 	private void expectIncomingMessageWithSession(Role role, MessageType type,
 			BdfDictionary bdfSession) throws Exception {
 		expectParseMessageMetadata();
-		expectGetSession(oneResult, sessionId, contactGroup.getId());
+		expectGetSession(bdfSession, sessionId, contactGroup.getId());
 		Session session = expectHandleMessage(role, messageMetadata, bdfSession,
 				type);
-		expectStoreSession(session, storageMessage.getId());
+		expectStoreSession(session, contactGroup.getId());
 	}
 
 	@Nullable
@@ -468,7 +504,7 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 		long time = 42L;
 		byte[] signature = getRandomBytes(42);
 
-		expectGetSession(noResults, sessionId, contactGroup.getId());
+		expectGetSession(null, sessionId, contactGroup.getId());
 		context.checking(new Expectations() {{
 			oneOf(db).startTransaction(false);
 			will(returnValue(txn));
@@ -478,14 +514,13 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 					MAJOR_VERSION, contact);
 			will(returnValue(contactGroup));
 		}});
-		expectCreateStorageId();
 		context.checking(new Expectations() {{
 			oneOf(creatorEngine).onInviteAction(with(txn),
 					with(any(CreatorSession.class)), with(text), with(time),
 					with(signature));
 			will(returnValue(creatorSession));
 		}});
-		expectStoreSession(creatorSession, storageMessage.getId());
+		expectStoreSession(creatorSession, contactGroup.getId());
 		context.checking(new Expectations() {{
 			oneOf(db).commitTransaction(txn);
 			oneOf(db).endTransaction(txn);
@@ -500,7 +535,7 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 		long time = 43L;
 		byte[] signature = getRandomBytes(43);
 
-		expectGetSession(oneResult, sessionId, contactGroup.getId());
+		expectGetSession(bdfSession, sessionId, contactGroup.getId());
 		context.checking(new Expectations() {{
 			oneOf(db).startTransaction(false);
 			will(returnValue(txn));
@@ -517,7 +552,7 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 					with(signature));
 			will(returnValue(creatorSession));
 		}});
-		expectStoreSession(creatorSession, storageMessage.getId());
+		expectStoreSession(creatorSession, contactGroup.getId());
 		context.checking(new Expectations() {{
 			oneOf(db).commitTransaction(txn);
 			oneOf(db).endTransaction(txn);
@@ -540,7 +575,7 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 			will(returnValue(contactGroup));
 			oneOf(db).endTransaction(txn);
 		}});
-		expectGetSession(noResults, sessionId, contactGroup.getId());
+		expectGetSession(null, sessionId, contactGroup.getId());
 
 		groupInvitationManager.respondToInvitation(contactId, sessionId, true);
 	}
@@ -581,7 +616,7 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 
 	private void expectRespondToInvitation(SessionId sessionId, boolean accept)
 			throws Exception {
-		expectGetSession(oneResult, sessionId, contactGroup.getId());
+		expectGetSession(bdfSession, sessionId, contactGroup.getId());
 		context.checking(new Expectations() {{
 			oneOf(db).startTransaction(false);
 			will(returnValue(txn));
@@ -599,7 +634,7 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 			oneOf(db).commitTransaction(txn);
 			oneOf(db).endTransaction(txn);
 		}});
-		expectStoreSession(inviteeSession, storageMessage.getId());
+		expectStoreSession(inviteeSession, contactGroup.getId());
 	}
 
 	@Test
@@ -620,8 +655,8 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 			oneOf(db).commitTransaction(txn);
 			oneOf(db).endTransaction(txn);
 		}});
-		expectGetSession(oneResult, sessionId, contactGroup.getId());
-		expectStoreSession(peerSession, storageMessage.getId());
+		expectGetSession(bdfSession, sessionId, contactGroup.getId());
+		expectStoreSession(peerSession, contactGroup.getId());
 
 		groupInvitationManager
 				.revealRelationship(contactId, privateGroup.getId());
@@ -639,7 +674,7 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 			will(returnValue(contactGroup));
 			oneOf(db).endTransaction(txn);
 		}});
-		expectGetSession(noResults, sessionId, contactGroup.getId());
+		expectGetSession(null, sessionId, contactGroup.getId());
 
 		groupInvitationManager
 				.revealRelationship(contactId, privateGroup.getId());
@@ -811,7 +846,7 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 
 	private void expectIsInvitationAllowed(CreatorState state)
 			throws Exception {
-		expectGetSession(oneResult, sessionId, contactGroup.getId());
+		expectGetSession(bdfSession, sessionId, contactGroup.getId());
 		context.checking(new Expectations() {{
 			oneOf(contactGroupFactory).createContactGroup(CLIENT_ID,
 					MAJOR_VERSION, contact);
@@ -854,18 +889,14 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 		Group contactGroup2 = getGroup(CLIENT_ID, MAJOR_VERSION);
 		Group contactGroup3 = getGroup(CLIENT_ID, MAJOR_VERSION);
 
-		MessageId storageId2 = new MessageId(getRandomId());
-		MessageId storageId3 = new MessageId(getRandomId());
 		BdfDictionary bdfSession2 =
 				BdfDictionary.of(new BdfEntry("f2", "o"));
 		BdfDictionary bdfSession3 =
 				BdfDictionary.of(new BdfEntry("f3", "o"));
 
-		expectGetSession(oneResult, sessionId, contactGroup.getId());
-		expectGetSession(Collections.singletonMap(storageId2, bdfSession2),
-				sessionId, contactGroup2.getId());
-		expectGetSession(Collections.singletonMap(storageId3, bdfSession3),
-				sessionId, contactGroup3.getId());
+		expectGetSession(bdfSession, sessionId, contactGroup.getId());
+		expectGetSession(bdfSession2, sessionId, contactGroup2.getId());
+		expectGetSession(bdfSession3, sessionId, contactGroup3.getId());
 
 		context.checking(new Expectations() {{
 			oneOf(db).getContacts(txn);
@@ -905,9 +936,9 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 			will(returnValue(peerSession));
 		}});
 
-		expectStoreSession(creatorSession, storageMessage.getId());
-		expectStoreSession(inviteeSession, storageId2);
-		expectStoreSession(peerSession, storageId3);
+		expectStoreSession(creatorSession, contactGroup.getId());
+		expectStoreSession(inviteeSession, contactGroup2.getId());
+		expectStoreSession(peerSession, contactGroup3.getId());
 
 		groupInvitationManager.removingGroup(txn, privateGroup.getId());
 	}
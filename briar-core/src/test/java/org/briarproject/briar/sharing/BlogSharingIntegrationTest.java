@@ -2,13 +2,18 @@ package org.briarproject.briar.sharing;
 
 import net.jodah.concurrentunit.Waiter;
 
+import org.briarproject.bramble.api.client.SessionId;
 import org.briarproject.bramble.api.contact.Contact;
+import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.NoSuchGroupException;
 import org.briarproject.bramble.api.event.Event;
 import org.briarproject.bramble.api.event.EventListener;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.test.TestDatabaseModule;
 import org.briarproject.briar.api.blog.Blog;
 import org.briarproject.briar.api.blog.BlogFactory;
@@ -28,10 +33,18 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import java.util.Collection;
+import java.util.Map;
 
+import javax.annotation.Nullable;
+
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
 import static org.briarproject.briar.api.blog.BlogSharingManager.CLIENT_ID;
 import static org.briarproject.briar.api.blog.BlogSharingManager.MAJOR_VERSION;
+import static org.briarproject.briar.sharing.SharingConstants.GROUP_KEY_SESSIONS_MIGRATED;
+import static org.briarproject.briar.sharing.SharingConstants.SESSION_KEY_IS_SESSION;
+import static org.briarproject.briar.sharing.SharingConstants.SESSION_KEY_SESSION_ID;
 import static org.briarproject.briar.test.BriarTestUtils.assertGroupCount;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -542,6 +555,76 @@ public class BlogSharingIntegrationTest
 				blogSharingManager0.canBeShared(blog2.getId(), contact1From0));
 	}
 
+	@Test
+	public void testLegacySessionsAreMigrated() throws Exception {
+		GroupId localGroupId = contactGroupFactory
+				.createLocalGroup(CLIENT_ID, MAJOR_VERSION).getId();
+		GroupId contactGroupId =
+				blogSharingManager0.getContactGroup(contact1From0).getId();
+		BlogSharingManagerImpl manager =
+				(BlogSharingManagerImpl) blogSharingManager0;
+		// Store a session the way an earlier version of the client did
+		SessionId sessionId = new SessionId(blog2.getId().getBytes());
+		BdfDictionary legacySession = BdfDictionary.of(
+				new BdfEntry(SESSION_KEY_IS_SESSION, true),
+				new BdfEntry(SESSION_KEY_SESSION_ID, sessionId.getBytes()));
+		Message m1 = addLegacySession(contactGroupId, legacySession);
+		// Pretend that the sessions haven't been migrated yet
+		db0.transaction(false, txn -> clientHelper.mergeGroupMetadata(txn,
+				localGroupId, BdfDictionary.of(
+						new BdfEntry(GROUP_KEY_SESSIONS_MIGRATED, false))));
+
+		db0.transaction(false, manager::createLocalState);
+
+		// The session should have been moved to the session store
+		BdfDictionary session = getSession(contactGroupId, sessionId);
+		assertNotNull(session);
+		assertArrayEquals(sessionId.getBytes(),
+				session.getRaw(SESSION_KEY_SESSION_ID));
+		// The legacy message should have been removed
+		assertFalse(getLegacySessions(contactGroupId).containsKey(m1.getId()));
+		// The flag should have been set
+		BdfDictionary meta = db0.transactionWithResult(true, txn ->
+				clientHelper.getGroupMetadataAsDictionary(txn, localGroupId));
+		assertTrue(meta.getBoolean(GROUP_KEY_SESSIONS_MIGRATED));
+
+		// Sessions should not be migrated a second time
+		SessionId sessionId2 = new SessionId(getRandomId());
+		BdfDictionary legacySession2 = BdfDictionary.of(
+				new BdfEntry(SESSION_KEY_IS_SESSION, true),
+				new BdfEntry(SESSION_KEY_SESSION_ID, sessionId2.getBytes()));
+		Message m2 = addLegacySession(contactGroupId, legacySession2);
+
+		db0.transaction(false, manager::createLocalState);
+
+		assertNull(getSession(contactGroupId, sessionId2));
+		assertTrue(getLegacySessions(contactGroupId).containsKey(m2.getId()));
+	}
+
+	private Message addLegacySession(GroupId contactGroupId,
+			BdfDictionary legacySession) throws Exception {
+		Message m =
+				clientHelper.createMessageForStoringMetadata(contactGroupId);
+		db0.transaction(false, txn ->
+				clientHelper.addLocalMessage(txn, m, legacySession, false));
+		return m;
+	}
+
+	@Nullable
+	private BdfDictionary getSession(GroupId contactGroupId,
+			SessionId sessionId) throws Exception {
+		return db0.transactionWithResult(true, txn -> clientHelper
+				.getSessionAsDictionary(txn, contactGroupId, sessionId));
+	}
+
+	private Map<MessageId, BdfDictionary> getLegacySessions(
+			GroupId contactGroupId) throws Exception {
+		BdfDictionary query =
+				BdfDictionary.of(new BdfEntry(SESSION_KEY_IS_SESSION, true));
+		return db0.transactionWithResult(true, txn -> clientHelper
+				.getMessageMetadataAsDictionary(txn, contactGroupId, query));
+	}
+
 	@NotNullByDefault
 	private class SharerListener implements EventListener {
 
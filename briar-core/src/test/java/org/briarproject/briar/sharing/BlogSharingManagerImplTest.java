@@ -2,20 +2,18 @@ package org.briarproject.briar.sharing;
 
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.client.ContactGroupFactory;
+import org.briarproject.bramble.api.client.SessionId;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.data.MetadataParser;
 import org.briarproject.bramble.api.db.DatabaseComponent;
-import org.briarproject.bramble.api.db.DbException;
-import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.identity.IdentityManager;
 import org.briarproject.bramble.api.identity.LocalAuthor;
 import org.briarproject.bramble.api.sync.Group;
-import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.versioning.ClientVersioningManager;
 import org.briarproject.bramble.test.BrambleMockTestCase;
@@ -23,24 +21,25 @@ import org.briarproject.briar.api.blog.Blog;
 import org.briarproject.briar.api.blog.BlogInvitationResponse;
 import org.briarproject.briar.api.blog.BlogManager;
 import org.briarproject.briar.api.client.MessageTracker;
-import org.briarproject.briar.api.client.SessionId;
 import org.jmock.Expectations;
 import org.junit.Test;
 
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 
+import javax.annotation.Nullable;
+
 import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
 import static org.briarproject.bramble.test.TestUtils.getAuthor;
 import static org.briarproject.bramble.test.TestUtils.getGroup;
 import static org.briarproject.bramble.test.TestUtils.getLocalAuthor;
-import static org.briarproject.bramble.test.TestUtils.getMessage;
 import static org.briarproject.bramble.test.TestUtils.getRandomId;
 import static org.briarproject.briar.api.blog.BlogSharingManager.CLIENT_ID;
 import static org.briarproject.briar.api.blog.BlogSharingManager.MAJOR_VERSION;
 import static org.briarproject.briar.sharing.SharingConstants.GROUP_KEY_CONTACT_ID;
+import static org.briarproject.briar.sharing.SharingConstants.GROUP_KEY_SESSIONS_MIGRATED;
+import static org.briarproject.briar.sharing.SharingConstants.SESSION_KEY_SESSION_ID;
 
 public class BlogSharingManagerImplTest extends BrambleMockTestCase {
 
@@ -111,14 +110,69 @@ public class BlogSharingManagerImplTest extends BrambleMockTestCase {
 		}});
 		// Set things up for the contact
 		expectAddingContact(txn);
+		// Check whether any sessions need to be migrated
+		expectMigrateSessions(txn, new BdfDictionary(),
+				Collections.emptyMap());
+
+		blogSharingManager.createLocalState(txn);
+	}
+
+	@Test
+	public void testCreateLocalStateMigratesSessions() throws Exception {
+		Transaction txn = new Transaction(null, false);
+		MessageId storageId = new MessageId(getRandomId());
+		SessionId sessionId = new SessionId(blog.getId().getBytes());
+		BdfDictionary legacySession = BdfDictionary.of(
+				new BdfEntry(SESSION_KEY_SESSION_ID, sessionId.getBytes()));
+
+		context.checking(new Expectations() {{
+			oneOf(contactGroupFactory).createLocalGroup(CLIENT_ID,
+					MAJOR_VERSION);
+			will(returnValue(localGroup));
+			oneOf(db).containsGroup(txn, localGroup.getId());
+			will(returnValue(true));
+			// The legacy session is moved to the session store
+			oneOf(clientHelper).setSession(txn, contactGroup.getId(),
+					sessionId, legacySession);
+			oneOf(db).removeMessage(txn, storageId);
+		}});
+		expectMigrateSessions(txn, new BdfDictionary(),
+				Collections.singletonMap(storageId, legacySession));
 
 		blogSharingManager.createLocalState(txn);
 	}
 
+	private void expectMigrateSessions(Transaction txn,
+			BdfDictionary localGroupMeta,
+			Map<MessageId, BdfDictionary> legacySessions) throws Exception {
+		BdfDictionary query = new BdfDictionary();
+		BdfDictionary migrated = BdfDictionary.of(
+				new BdfEntry(GROUP_KEY_SESSIONS_MIGRATED, true));
+
+		context.checking(new Expectations() {{
+			oneOf(clientHelper)
+					.getGroupMetadataAsDictionary(txn, localGroup.getId());
+			will(returnValue(localGroupMeta));
+			if (!localGroupMeta.containsKey(GROUP_KEY_SESSIONS_MIGRATED)) {
+				oneOf(sessionParser).getAllSessionsQuery();
+				will(returnValue(query));
+				oneOf(db).getContacts(txn);
+				will(returnValue(contacts));
+				oneOf(contactGroupFactory).createContactGroup(CLIENT_ID,
+						MAJOR_VERSION, contact);
+				will(returnValue(contactGroup));
+				oneOf(clientHelper).getMessageMetadataAsDictionary(txn,
+						contactGroup.getId(), query);
+				will(returnValue(legacySessions));
+				oneOf(clientHelper)
+						.mergeGroupMetadata(txn, localGroup.getId(), migrated);
+			}
+		}});
+	}
+
 	private void expectAddingContact(Transaction txn) throws Exception {
 		BdfDictionary meta = BdfDictionary.of(
 				new BdfEntry(GROUP_KEY_CONTACT_ID, contactId.getInt()));
-		Map<MessageId, BdfDictionary> sessions = Collections.emptyMap();
 
 		context.checking(new Expectations() {{
 			// Create the contact group and share it with the contact
@@ -143,8 +197,8 @@ public class BlogSharingManagerImplTest extends BrambleMockTestCase {
 			will(returnValue(blog));
 		}});
 		// Pre-share our blog with the contact and vice versa
-		expectPreShareShareable(txn, contact, localBlog, sessions);
-		expectPreShareShareable(txn, contact, blog, sessions);
+		expectPreShareShareable(txn, contact, localBlog, null);
+		expectPreShareShareable(txn, contact, blog, null);
 	}
 
 	@Test
@@ -159,6 +213,10 @@ public class BlogSharingManagerImplTest extends BrambleMockTestCase {
 			oneOf(db).containsGroup(txn, localGroup.getId());
 			will(returnValue(true));
 		}});
+		// The sessions have already been migrated
+		expectMigrateSessions(txn, BdfDictionary.of(
+				new BdfEntry(GROUP_KEY_SESSIONS_MIGRATED, true)),
+				Collections.emptyMap());
 
 		blogSharingManager.createLocalState(txn);
 	}
@@ -174,42 +232,28 @@ public class BlogSharingManagerImplTest extends BrambleMockTestCase {
 
 	@Test
 	public void testRemovingBlogFreshState() throws Exception {
-		Map<MessageId, BdfDictionary> sessions = new HashMap<>(0);
-		testRemovingBlog(sessions);
+		testRemovingBlog(null);
 	}
 
 	@Test
 	public void testRemovingBlogExistingState() throws Exception {
-		Map<MessageId, BdfDictionary> sessions = new HashMap<>(1);
-		sessions.put(new MessageId(getRandomId()), new BdfDictionary());
-		testRemovingBlog(sessions);
-	}
-
-	@Test(expected = DbException.class)
-	public void testRemovingBlogMultipleSessions() throws Exception {
-		Map<MessageId, BdfDictionary> sessions = new HashMap<>(2);
-		sessions.put(new MessageId(getRandomId()), new BdfDictionary());
-		sessions.put(new MessageId(getRandomId()), new BdfDictionary());
-		testRemovingBlog(sessions);
+		testRemovingBlog(new BdfDictionary());
 	}
 
 	private void expectPreShareShareable(Transaction txn, Contact contact,
-			Blog blog, Map<MessageId, BdfDictionary> sessions)
+			Blog blog, @Nullable BdfDictionary existingSession)
 			throws Exception {
 		Group contactGroup = getGroup(CLIENT_ID, MAJOR_VERSION);
+		SessionId sessionId = new SessionId(blog.getId().getBytes());
 		BdfDictionary sessionDict = new BdfDictionary();
-		Message message = getMessage(contactGroup.getId());
 		context.checking(new Expectations() {{
 			oneOf(contactGroupFactory).createContactGroup(CLIENT_ID,
 					MAJOR_VERSION, contact);
 			will(returnValue(contactGroup));
-			oneOf(sessionParser)
-					.getSessionQuery(new SessionId(blog.getId().getBytes()));
-			will(returnValue(sessionDict));
-			oneOf(clientHelper).getMessageMetadataAsDictionary(txn,
-					contactGroup.getId(), sessionDict);
-			will(returnValue(sessions));
-			if (sessions.size() == 0) {
+			oneOf(clientHelper).getSessionAsDictionary(txn,
+					contactGroup.getId(), sessionId);
+			will(returnValue(existingSession));
+			if (existingSession == null) {
 				oneOf(db).addGroup(txn, blog.getGroup());
 				oneOf(clientVersioningManager).getClientVisibility(txn,
 						contactId, BlogManager.CLIENT_ID,
@@ -217,21 +261,18 @@ public class BlogSharingManagerImplTest extends BrambleMockTestCase {
 				will(returnValue(SHARED));
 				oneOf(db).setGroupVisibility(txn, contact.getId(),
 						blog.getGroup().getId(), SHARED);
-				oneOf(clientHelper)
-						.createMessageForStoringMetadata(contactGroup.getId());
-				will(returnValue(message));
-				oneOf(db).addLocalMessage(txn, message, new Metadata(), false);
 				oneOf(sessionEncoder).encodeSession(with(any(Session.class)));
 				will(returnValue(sessionDict));
-				oneOf(clientHelper).mergeMessageMetadata(txn, message.getId(),
-						sessionDict);
+				oneOf(clientHelper).setSession(txn, contactGroup.getId(),
+						sessionId, sessionDict);
 			}
 		}});
 	}
 
-	private void testRemovingBlog(Map<MessageId, BdfDictionary> sessions)
+	private void testRemovingBlog(@Nullable BdfDictionary existingSession)
 			throws Exception {
 		Transaction txn = new Transaction(null, false);
+		SessionId sessionId = new SessionId(blog.getId().getBytes());
 		BdfDictionary sessionDict = new BdfDictionary();
 		Session session = new Session(contactGroup.getId(), blog.getId());
 
@@ -241,22 +282,19 @@ public class BlogSharingManagerImplTest extends BrambleMockTestCase {
 			oneOf(contactGroupFactory).createContactGroup(CLIENT_ID,
 					MAJOR_VERSION, contact);
 			will(returnValue(contactGroup));
-			oneOf(sessionParser)
-					.getSessionQuery(new SessionId(blog.getId().getBytes()));
-			will(returnValue(sessionDict));
-			oneOf(clientHelper).getMessageMetadataAsDictionary(txn,
-					contactGroup.getId(), sessionDict);
-			will(returnValue(sessions));
-			if (sessions.size() == 1) {
+			oneOf(clientHelper).getSessionAsDictionary(txn,
+					contactGroup.getId(), sessionId);
+			will(returnValue(existingSession));
+			if (existingSession != null) {
 				oneOf(sessionParser)
-						.parseSession(contactGroup.getId(), sessionDict);
+						.parseSession(contactGroup.getId(), existingSession);
 				will(returnValue(session));
 				oneOf(engine).onLeaveAction(txn, session);
 				will(returnValue(session));
 				oneOf(sessionEncoder).encodeSession(session);
 				will(returnValue(sessionDict));
-				oneOf(clientHelper).mergeMessageMetadata(txn,
-						sessions.keySet().iterator().next(), sessionDict);
+				oneOf(clientHelper).setSession(txn, contactGroup.getId(),
+						sessionId, sessionDict);
 			}
 		}});
 		blogSharingManager.removingBlog(txn, blog);
@@ -42,6 +42,7 @@ import org.briarproject.briar.api.privategroup.GroupMessageFactory;
 import org.briarproject.briar.api.privategroup.PrivateGroupFactory;
 import org.briarproject.briar.api.privategroup.invitation.GroupInvitationFactory;
 import org.briarproject.briar.blog.BlogModule;
+import org.briarproject.briar.client.BriarClientModule;
 import org.briarproject.briar.forum.ForumModule;
 import org.briarproject.briar.introduction.IntroductionModule;
 import org.briarproject.briar.messaging.MessagingModule;
@@ -171,6 +172,7 @@ public abstract class BriarIntegrationTest<C extends BriarIntegrationTestCompone
 	protected void injectEagerSingletons(
 			BriarIntegrationTestComponent component) {
 		component.inject(new BlogModule.EagerSingletons());
+		component.inject(new BriarClientModule.EagerSingletons());
 		component.inject(new ContactModule.EagerSingletons());
 		component.inject(new CryptoExecutorModule.EagerSingletons());
 		component.inject(new ForumModule.EagerSingletons());
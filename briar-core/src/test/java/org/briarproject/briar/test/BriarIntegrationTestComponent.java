@@ -8,6 +8,8 @@ import org.briarproject.bramble.api.identity.AuthorFactory;
 import org.briarproject.bramble.api.identity.IdentityManager;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager;
 import org.briarproject.bramble.api.properties.TransportPropertyManager;
+import org.briarproject.bramble.api.sync.SyncRecordReaderFactory;
+import org.briarproject.bramble.api.sync.SyncRecordWriterFactory;
 import org.briarproject.bramble.api.sync.SyncSessionFactory;
 import org.briarproject.bramble.client.ClientModule;
 import org.briarproject.bramble.contact.ContactModule;
@@ -36,6 +38,7 @@ import org.briarproject.briar.api.forum.ForumSharingManager;
 import org.briarproject.briar.api.introduction.IntroductionManager;
 import org.briarproject.briar.api.privategroup.PrivateGroupManager;
 import org.briarproject.briar.api.privategroup.invitation.GroupInvitationManager;
+import org.briarproject.briar.api.test.TestDataCreator;
 import org.briarproject.briar.blog.BlogModule;
 import org.briarproject.briar.client.BriarClientModule;
 import org.briarproject.briar.forum.ForumModule;
@@ -75,6 +78,7 @@ import dagger.Component;
 		SharingModule.class,
 		SyncModule.class,
 		SystemModule.class,
+		TestModule.class,
 		TransportModule.class,
 		VersioningModule.class
 })
@@ -84,6 +88,8 @@ public interface BriarIntegrationTestComponent {
 
 	void inject(BlogModule.EagerSingletons init);
 
+	void inject(BriarClientModule.EagerSingletons init);
+
 	void inject(ContactModule.EagerSingletons init);
 
 	void inject(CryptoExecutorModule.EagerSingletons init);
@@ -126,6 +132,10 @@ public interface BriarIntegrationTestComponent {
 
 	SyncSessionFactory getSyncSessionFactory();
 
+	SyncRecordReaderFactory getSyncRecordReaderFactory();
+
+	SyncRecordWriterFactory getSyncRecordWriterFactory();
+
 	DatabaseComponent getDatabaseComponent();
 
 	BlogManager getBlogManager();
@@ -149,4 +159,6 @@ public interface BriarIntegrationTestComponent {
 	AuthorFactory getAuthorFactory();
 
 	BlogFactory getBlogFactory();
+
+	TestDataCreator getTestDataCreator();
 }
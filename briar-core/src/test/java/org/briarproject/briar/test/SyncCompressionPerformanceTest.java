@@ -0,0 +1,181 @@
+package org.briarproject.briar.test;
+
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.identity.IdentityManager;
+import org.briarproject.bramble.api.identity.LocalAuthor;
+import org.briarproject.bramble.api.lifecycle.LifecycleManager;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.SyncRecordReader;
+import org.briarproject.bramble.api.sync.SyncRecordWriter;
+import org.briarproject.bramble.contact.ContactModule;
+import org.briarproject.bramble.crypto.CryptoExecutorModule;
+import org.briarproject.bramble.identity.IdentityModule;
+import org.briarproject.bramble.lifecycle.LifecycleModule;
+import org.briarproject.bramble.properties.PropertiesModule;
+import org.briarproject.bramble.sync.SyncModule;
+import org.briarproject.bramble.system.SystemModule;
+import org.briarproject.bramble.test.TestDatabaseModule;
+import org.briarproject.bramble.transport.TransportModule;
+import org.briarproject.bramble.versioning.VersioningModule;
+import org.briarproject.briar.api.forum.Forum;
+import org.briarproject.briar.blog.BlogModule;
+import org.briarproject.briar.forum.ForumModule;
+import org.briarproject.briar.introduction.IntroductionModule;
+import org.briarproject.briar.messaging.MessagingModule;
+import org.briarproject.briar.privategroup.PrivateGroupModule;
+import org.briarproject.briar.privategroup.invitation.GroupInvitationModule;
+import org.briarproject.briar.sharing.SharingModule;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.briarproject.bramble.api.record.Record.MAX_RECORD_PAYLOAD_BYTES;
+import static org.briarproject.bramble.test.TestUtils.deleteTestDirectory;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.test.TestUtils.getTestDirectory;
+
+/**
+ * Uses the {@link org.briarproject.briar.api.test.TestDataCreator} to create
+ * a forum, and measures the size of the forum posts when they're written in
+ * batches with and without compression, and the time taken to write and
+ * read the batches.
+ */
+// Not a JUnit test
+public class SyncCompressionPerformanceTest {
+
+	private static final int FORUM_POSTS = 1000;
+	private static final int ITERATIONS = 20;
+
+	public static void main(String[] args) throws Exception {
+		File testDir = getTestDirectory();
+		BriarIntegrationTestComponent c =
+				DaggerBriarIntegrationTestComponent.builder()
+						.testDatabaseModule(new TestDatabaseModule(testDir))
+						.build();
+		injectEagerSingletons(c);
+		IdentityManager identityManager = c.getIdentityManager();
+		LocalAuthor author = identityManager.createLocalAuthor("Alice");
+		identityManager.registerLocalAuthor(author);
+		LifecycleManager lifecycleManager = c.getLifecycleManager();
+		lifecycleManager.startServices(getSecretKey());
+		lifecycleManager.waitForStartup();
+		try {
+			List<List<Message>> batches = createBatches(c);
+			long plain = runTest(c, batches, false);
+			long compressed = runTest(c, batches, true);
+			System.out.println(String.format("Compressed size: %.1f%%",
+					compressed * 100.0 / plain));
+		} finally {
+			lifecycleManager.stopServices();
+			lifecycleManager.waitForShutdown();
+			deleteTestDirectory(testDir);
+		}
+	}
+
+	private static void injectEagerSingletons(
+			BriarIntegrationTestComponent c) {
+		c.inject(new BlogModule.EagerSingletons());
+		c.inject(new ContactModule.EagerSingletons());
+		c.inject(new CryptoExecutorModule.EagerSingletons());
+		c.inject(new ForumModule.EagerSingletons());
+		c.inject(new GroupInvitationModule.EagerSingletons());
+		c.inject(new IdentityModule.EagerSingletons());
+		c.inject(new IntroductionModule.EagerSingletons());
+		c.inject(new LifecycleModule.EagerSingletons());
+		c.inject(new MessagingModule.EagerSingletons());
+		c.inject(new PrivateGroupModule.EagerSingletons());
+		c.inject(new PropertiesModule.EagerSingletons());
+		c.inject(new SharingModule.EagerSingletons());
+		c.inject(new SyncModule.EagerSingletons());
+		c.inject(new SystemModule.EagerSingletons());
+		c.inject(new TransportModule.EagerSingletons());
+		c.inject(new VersioningModule.EagerSingletons());
+	}
+
+	private static List<List<Message>> createBatches(
+			BriarIntegrationTestComponent c) throws Exception {
+		// The test data is created asynchronously on the IoExecutor
+		c.getTestDataCreator().createTestData(1, 0, 0, 1, FORUM_POSTS);
+		DatabaseComponent db = c.getDatabaseComponent();
+		List<Message> messages = new ArrayList<>();
+		while (messages.isEmpty()) {
+			Thread.sleep(100);
+			Collection<Forum> forums = c.getForumManager().getForums();
+			if (forums.isEmpty()) continue;
+			GroupId g = forums.iterator().next().getId();
+			Transaction txn = db.startTransaction(true);
+			try {
+				Collection<MessageId> ids = db.getMessageIds(txn, g);
+				if (ids.size() == FORUM_POSTS) {
+					for (MessageId m : ids) messages.add(db.getMessage(txn, m));
+				}
+				db.commitTransaction(txn);
+			} finally {
+				db.endTransaction(txn);
+			}
+		}
+		// Divide the messages into batches, as the database would
+		List<List<Message>> batches = new ArrayList<>();
+		List<Message> batch = new ArrayList<>();
+		int length = 0;
+		for (Message m : messages) {
+			if (length + m.getRawLength() > MAX_RECORD_PAYLOAD_BYTES) {
+				batches.add(batch);
+				batch = new ArrayList<>();
+				length = 0;
+			}
+			batch.add(m);
+			length += m.getRawLength();
+		}
+		batches.add(batch);
+		return batches;
+	}
+
+	private static long runTest(BriarIntegrationTestComponent c,
+			List<List<Message>> batches, boolean compress) throws IOException {
+		byte[] written = null;
+		long writeTime = 0, readTime = 0;
+		for (int i = 0; i < ITERATIONS; i++) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			long start = System.nanoTime();
+			SyncRecordWriter writer =
+					c.getSyncRecordWriterFactory().createRecordWriter(out);
+			for (List<Message> batch : batches) {
+				if (compress) {
+					writer.writeCompressedMessages(batch);
+				} else {
+					for (Message m : batch) writer.writeMessage(m);
+				}
+			}
+			writer.flush();
+			writeTime += System.nanoTime() - start;
+			written = out.toByteArray();
+
+			start = System.nanoTime();
+			SyncRecordReader reader = c.getSyncRecordReaderFactory()
+					.createRecordReader(new ByteArrayInputStream(written));
+			int read = 0;
+			while (!reader.eof()) {
+				reader.readMessage();
+				read++;
+			}
+			readTime += System.nanoTime() - start;
+			if (read != FORUM_POSTS) throw new AssertionError();
+		}
+		if (written == null) throw new AssertionError();
+		System.out.println(String.format("%s: %,d bytes in %,d batches,"
+						+ " %,.1f ms to write, %,.1f ms to read",
+				compress ? "Compressed" : "Uncompressed", written.length,
+				batches.size(), writeTime / 1000.0 / 1000.0 / ITERATIONS,
+				readTime / 1000.0 / 1000.0 / ITERATIONS));
+		return written.length;
+	}
+}
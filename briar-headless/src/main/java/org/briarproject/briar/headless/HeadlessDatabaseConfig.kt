@@ -18,4 +18,8 @@ internal class HeadlessDatabaseConfig(private val dbDir: File, private val keyDi
     override fun getMaxSize(): Long {
         return MAX_VALUE
     }
+
+    override fun getStatementCacheSize(): Int {
+        return 128
+    }
 }
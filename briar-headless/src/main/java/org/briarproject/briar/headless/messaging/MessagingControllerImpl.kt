@@ -6,8 +6,8 @@ import io.javalin.NotFoundResponse
 import org.briarproject.bramble.api.contact.Contact
 import org.briarproject.bramble.api.contact.ContactId
 import org.briarproject.bramble.api.contact.ContactManager
-import org.briarproject.bramble.api.db.DatabaseExecutor
 import org.briarproject.bramble.api.db.NoSuchContactException
+import org.briarproject.bramble.api.db.ReadOnlyDatabaseExecutor
 import org.briarproject.bramble.api.event.Event
 import org.briarproject.bramble.api.event.EventListener
 import org.briarproject.bramble.api.system.Clock
@@ -44,7 +44,7 @@ constructor(
     private val privateMessageFactory: PrivateMessageFactory,
     private val contactManager: ContactManager,
     private val webSocketController: WebSocketController,
-    @DatabaseExecutor private val dbExecutor: Executor,
+    @ReadOnlyDatabaseExecutor private val dbExecutor: Executor,
     private val clock: Clock
 ) : MessagingController, EventListener {
 